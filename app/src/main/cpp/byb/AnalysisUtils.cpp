@@ -100,5 +100,30 @@ namespace backyardbrains {
             min = 0.0F;
             max = 0.0F;
         }
+
+        int AnalysisUtils::getThreadCount() {
+            unsigned int count = std::thread::hardware_concurrency();
+            return count > 0 ? static_cast<int>(count) : 1;
+        }
+
+        void AnalysisUtils::parallelFor(int taskCount, const std::function<void(int)> &task) {
+            int threadCount = std::min(getThreadCount(), taskCount);
+            if (threadCount <= 1) {
+                for (int i = 0; i < taskCount; i++) task(i);
+                return;
+            }
+
+            std::atomic<int> nextTask{0};
+            auto worker = [&]() {
+                int i;
+                while ((i = nextTask.fetch_add(1)) < taskCount) task(i);
+            };
+            // calling thread works as well
+            std::vector<std::thread> threads;
+            threads.reserve(static_cast<size_t>(threadCount - 1));
+            for (int i = 0; i < threadCount - 1; i++) threads.emplace_back(worker);
+            worker();
+            for (auto &thread : threads) thread.join();
+        }
     }
-}
\ No newline at end of file
+}
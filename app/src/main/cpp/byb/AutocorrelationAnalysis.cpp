@@ -15,9 +15,11 @@ namespace backyardbrains {
         AutocorrelationAnalysis::~AutocorrelationAnalysis() = default;
 
         void AutocorrelationAnalysis::process(float **inSpikeTrains, const int spikeTrainCount, const int *spikeCounts,
-                                              int **outAnalysis, const int analysisBinCount) {
+                                              int **outAnalysis, const int analysisBinCount,
+                                              AnalysisControl *control) {
             float diff;
             for (int i = 0; i < spikeTrainCount; i++) {
+                if (AnalysisControl::isCancelled(control)) return;
                 int *histogram = new int[analysisBinCount]{0};
 
                 for (int j = 0; j < spikeCounts[i]; j++) {
@@ -45,6 +47,8 @@ namespace backyardbrains {
                 std::copy(histogram, histogram + analysisBinCount, outAnalysis[i]);
 
                 delete[] histogram;
+
+                AnalysisControl::setProgress(control, static_cast<float>(i + 1) / spikeTrainCount);
             }
         }
     }
@@ -11,6 +11,10 @@ namespace backyardbrains {
 
         const char *AverageSpikeAnalysis::TAG = "AverageSpikeAnalysis";
 
+        const drwav_uint64 AverageSpikeAnalysis::BUFFER_SAMPLE_COUNT = 1 << 20;
+
+        const drwav_uint64 AverageSpikeAnalysis::MAX_GAP_SAMPLE_COUNT = 1 << 11;
+
         AverageSpikeAnalysis::AverageSpikeAnalysis() = default;
 
         AverageSpikeAnalysis::~AverageSpikeAnalysis() = default;
@@ -18,7 +22,7 @@ namespace backyardbrains {
         void AverageSpikeAnalysis::process(const char *filePath, int **inSpikeTrains, const int spikeTrainCount,
                                            const int *spikeCounts, float **outAverageSpike, float **outNormAverageSpike,
                                            float **outNormTopSTDLine, float **outNormBottomSTDLine,
-                                           int batchSpikeCount) {
+                                           int batchSpikeCount, AnalysisControl *control) {
             // open audio file we need to analyze
             drwav *wavPtr = drwav_open_file(filePath);
             if (wavPtr == nullptr) {
@@ -34,73 +38,109 @@ namespace backyardbrains {
             auto *tmpAvr = new AverageSpikeData[spikeTrainCount];
             allocateAverageSpikeData(tmpAvr, spikeTrainCount, bsc);
 
-            int sampleIndex;
-            drwav_uint64 read;
-            drwav_uint64 spikeIndexBatchHead;
-            auto *samples = new drwav_int16[batchSpikeCount];
+            // collect windows of all the trains and sort them by position so file can be read in a single pass
+            std::vector<SpikeWindow> windows;
+            int windowCount = 0;
+            for (int i = 0; i < spikeTrainCount; i++) windowCount += spikeCounts[i];
+            windows.reserve(static_cast<size_t>(windowCount));
             for (int i = 0; i < spikeTrainCount; i++) {
                 for (int j = 0; j < spikeCounts[i]; j++) {
-                    sampleIndex = inSpikeTrains[i][j];
+                    int sampleIndex = inSpikeTrains[i][j];
                     // if we cannot make a batch of 4ms go to next sample
-                    if ((sampleIndex + batchSpikeHalfCount) >= totalSamples ||
-                        static_cast<int>(sampleIndex - batchSpikeHalfCount) < 0) {
+                    if (sampleIndex < 0 || static_cast<drwav_uint64>(sampleIndex) < batchSpikeHalfCount ||
+                        sampleIndex + batchSpikeHalfCount >= totalSamples) {
                         continue;
                     }
-
-                    // add spike to average buffer
-                    spikeIndexBatchHead = sampleIndex - batchSpikeHalfCount;
-                    drwav_seek_to_sample(wavPtr, spikeIndexBatchHead);
-                    if ((read = drwav_read_s16(wavPtr, bsc, samples)) > 0) {
-                        for (int k = 0; k < read; k++) {
-                            tmpAvr[i].averageSpike[k] += samples[k];
-                            tmpAvr[i].topSTDLine[k] += pow(samples[k], 2);
+                    windows.push_back({sampleIndex - batchSpikeHalfCount, i});
+                }
+            }
+            // stable sort keeps spikes of every train in the original order so sums are added up in the same order
+            std::stable_sort(windows.begin(), windows.end(), [](const SpikeWindow &w1, const SpikeWindow &w2) {
+                return w1.start < w2.start;
+            });
+
+            // buffer always holds samples between bufferStart and bufferEnd. When the next window goes beyond its end
+            // samples of that window that are already read are kept and the rest is read together with all the
+            // following windows that fit in the buffer and are close enough to be read through instead of skipped
+            drwav_uint64 bufferCapacity = std::max(BUFFER_SAMPLE_COUNT, bsc);
+            auto *buffer = new drwav_int16[bufferCapacity];
+            drwav_uint64 bufferStart = 0;
+            drwav_uint64 bufferEnd = 0;
+            bool cancelled = false;
+            for (size_t i = 0; i < windows.size(); i++) {
+                const SpikeWindow &window = windows[i];
+                drwav_uint64 windowEnd = window.start + bsc;
+                if (windowEnd > bufferEnd) {
+                    if ((cancelled = AnalysisControl::isCancelled(control))) break;
+                    AnalysisControl::setProgress(control, static_cast<float>(i) / windows.size());
+
+                    if (window.start < bufferEnd) {
+                        // move the beginning of the window to the front of the buffer
+                        std::copy(buffer + (window.start - bufferStart), buffer + (bufferEnd - bufferStart), buffer);
+                    } else {
+                        // skip the samples that aren't part of any window
+                        if (window.start > bufferEnd) drwav_seek_to_sample(wavPtr, window.start);
+                        bufferEnd = window.start;
+                    }
+                    bufferStart = window.start;
+
+                    drwav_uint64 readEnd = windowEnd;
+                    for (size_t j = i + 1; j < windows.size(); j++) {
+                        drwav_uint64 nextEnd = windows[j].start + bsc;
+                        if (windows[j].start > readEnd + MAX_GAP_SAMPLE_COUNT ||
+                            nextEnd - bufferStart > bufferCapacity) {
+                            break;
                         }
+                        readEnd = std::max(readEnd, nextEnd);
                     }
-                    tmpAvr[i].countOfSpikes++;
+                    bufferEnd += drwav_read_s16(wavPtr, readEnd - bufferEnd, buffer + (bufferEnd - bufferStart));
+                    // file is shorter than its header claims
+                    if (windowEnd > bufferEnd) break;
                 }
+
+                // add spike to average buffer
+                AverageSpikeData &avr = tmpAvr[window.train];
+                drwav_int16 *samples = buffer + (window.start - bufferStart);
+                for (int k = 0; k < batchSpikeCount; k++) {
+                    avr.sums[k] += samples[k];
+                    avr.squareSums[k] += samples[k] * samples[k];
+                }
+                avr.countOfSpikes++;
             }
-            delete[] samples;
+            delete[] buffer;
 
             // close audio file
             drwav_close(wavPtr);
 
+            if (cancelled) {
+                deallocateAverageSpikeData(tmpAvr, spikeTrainCount);
+                delete[] tmpAvr;
+                return;
+            }
+
             float min;
             float max;
-            float divider;
-            auto *tmp = new float[batchSpikeCount];
             // divide sum of spikes with number of spikes and find max and min
             for (int i = 0; i < spikeTrainCount; i++) {
                 if (tmpAvr[i].countOfSpikes > 1) {
-                    divider = (float) tmpAvr[i].countOfSpikes;
+                    double divider = tmpAvr[i].countOfSpikes;
                     min = FLT_MAX;
                     max = FLT_MIN;
                     for (int j = 0; j < batchSpikeCount; j++) {
-                        tmpAvr[i].averageSpike[j] /= divider;
+                        double mean = tmpAvr[i].sums[j] / divider;
+                        // calculate SD from variance, rounding errors can make it slightly negative
+                        double sd = sqrt(fmax(tmpAvr[i].squareSums[j] / divider - mean * mean, 0.0));
+
+                        // Make top line and bottom line around mean that represent one SD deviation from mean
+                        tmpAvr[i].averageSpike[j] = static_cast<float>(mean);
+                        tmpAvr[i].topSTDLine[j] = static_cast<float>(mean + sd);
+                        tmpAvr[i].bottomSTDLine[j] = static_cast<float>(mean - sd);
                         if (tmpAvr[i].averageSpike[j] > max) max = tmpAvr[i].averageSpike[j];
                         if (tmpAvr[i].averageSpike[j] < min) min = tmpAvr[i].averageSpike[j];
                     }
                     tmpAvr[i].maxAverageSpike = max;
                     tmpAvr[i].minAverageSpike = min;
 
-                    for (int j = 0; j < batchSpikeCount; j++) {
-                        tmpAvr[i].topSTDLine[j] /= divider;
-                        tmp[j] = tmpAvr[i].averageSpike[j] * tmpAvr[i].averageSpike[j];
-                    }
-                    for (int j = 0; j < batchSpikeCount; j++) {
-                        tmp[j] = tmpAvr[i].topSTDLine[j] - tmp[j];
-                    }
-
-                    // calculate SD from variance
-                    for (int k = 0; k < batchSpikeCount; k++) {
-                        tmp[k] = sqrt(tmp[k]);
-                    }
-
-                    // Make top line and bottom line around mean that represent one SD deviation from mean
-                    for (int j = 0; j < batchSpikeCount; j++) {
-                        tmpAvr[i].bottomSTDLine[j] = tmpAvr[i].averageSpike[j] - tmp[j];
-                        tmpAvr[i].topSTDLine[j] = tmpAvr[i].averageSpike[j] + tmp[j];
-                    }
-
                     // Find max and min of top and bottom std line respectively
                     tmpAvr[i].minStd = FLT_MAX;
                     tmpAvr[i].maxStd = FLT_MIN;
@@ -120,7 +160,6 @@ namespace backyardbrains {
                 backyardbrains::utils::AnalysisUtils::map(tmpAvr[i].bottomSTDLine, tmpAvr[i].normBottomSTDLine, batchSpikeCount,
                                                           min, max, 0.0f, 1.0f);
             }
-            delete[] tmp;
 
             for (int i = 0; i < spikeTrainCount; i++) {
                 std::copy(tmpAvr[i].averageSpike, tmpAvr[i].averageSpike + batchSpikeCount, outAverageSpike[i]);
@@ -145,7 +184,11 @@ namespace backyardbrains {
                 averageSpikeData[i].normAverageSpike = new float[batchSpikeCount]{0};
                 averageSpikeData[i].normTopSTDLine = new float[batchSpikeCount]{0};
                 averageSpikeData[i].normBottomSTDLine = new float[batchSpikeCount]{0};
+                averageSpikeData[i].maxAverageSpike = averageSpikeData[i].minAverageSpike = 0;
+                averageSpikeData[i].maxStd = averageSpikeData[i].minStd = 0;
 
+                averageSpikeData[i].sums = new double[batchSpikeCount]{0};
+                averageSpikeData[i].squareSums = new double[batchSpikeCount]{0};
                 averageSpikeData[i].countOfSpikes = 0;
             }
         }
@@ -159,6 +202,9 @@ namespace backyardbrains {
                 delete[] averageSpikeData[i].normAverageSpike;
                 delete[] averageSpikeData[i].normTopSTDLine;
                 delete[] averageSpikeData[i].normBottomSTDLine;
+
+                delete[] averageSpikeData[i].sums;
+                delete[] averageSpikeData[i].squareSums;
             }
         }
     }
@@ -17,36 +17,75 @@ namespace backyardbrains {
         void
         CrossCorrelationAnalysis::process(float **inSpikeTrains, int spikeTrainCount, const int *spikeCounts,
                                           int **outAnalysis,
-                                          int analysisBinCount) {
-            float diff;
+                                          int analysisBinCount, AnalysisControl *control) {
+            const int analysisCount = spikeTrainCount * spikeTrainCount;
+
+            // split every pair of trains into chunks of the first train spikes so work is evenly distributed
+            std::vector<Chunk> chunks;
             for (int i = 0; i < spikeTrainCount; i++) {
                 for (int j = 0; j < spikeTrainCount; j++) {
-                    int *histogram = new int[analysisBinCount]{0};
-
-                    if (spikeCounts[i] > 1 && spikeCounts[j] > 1) {
-                        bool insideInterval;
-                        // go through first spike train
-                        for (int k = 0; k < spikeCounts[i]; k++) {
-                            // check on left of spike
-                            insideInterval = false;
-                            // go through second spike train
-                            for (int l = 0; l < spikeCounts[j]; l++) {
-                                diff = inSpikeTrains[i][k] - inSpikeTrains[j][l];
-                                if (diff > MIN_EDGE && diff < MAX_EDGE) {
-                                    insideInterval = true;
-                                    histogram[(int) (((diff - MIN_EDGE) * DIVIDER))]++;
-                                } else if (insideInterval) { //we pass last spike that is in interval of interest
-                                    break;
-                                }
-                            }
-                        }
+                    if (spikeCounts[i] <= 1 || spikeCounts[j] <= 1) continue;
+
+                    for (int from = 0; from < spikeCounts[i]; from += CHUNK_SPIKE_COUNT) {
+                        chunks.push_back({i, j, from, std::min(from + CHUNK_SPIKE_COUNT, spikeCounts[i])});
                     }
+                }
+            }
+            const auto chunkCount = static_cast<int>(chunks.size());
+
+            // every thread counts into its own histograms which are summed up once all chunks are processed
+            const int threadCount =
+                    std::max(1, std::min(backyardbrains::utils::AnalysisUtils::getThreadCount(), chunkCount));
+            std::vector<std::vector<int>> histograms(static_cast<size_t>(threadCount));
+            std::atomic<int> nextChunk{0};
+            backyardbrains::utils::AnalysisUtils::parallelFor(threadCount, [&](int thread) {
+                std::vector<int> &threadHistograms = histograms[thread];
+                threadHistograms.assign(static_cast<size_t>(analysisCount * analysisBinCount), 0);
+
+                int c;
+                while ((c = nextChunk.fetch_add(1)) < chunkCount) {
+                    if (AnalysisControl::isCancelled(control)) break;
+                    AnalysisControl::setProgress(control, static_cast<float>(c) / chunkCount);
+                    const Chunk &chunk = chunks[c];
+                    correlate(inSpikeTrains[chunk.first], chunk.from, chunk.to, inSpikeTrains[chunk.second],
+                              spikeCounts[chunk.second],
+                              threadHistograms.data() + (chunk.first * spikeTrainCount + chunk.second) *
+                                                        analysisBinCount, analysisBinCount);
+                }
+            });
+            if (AnalysisControl::isCancelled(control)) return;
+
+            for (int i = 0; i < analysisCount; i++) {
+                std::fill(outAnalysis[i], outAnalysis[i] + analysisBinCount, 0);
+                for (auto &threadHistograms : histograms) {
+                    const int *histogram = threadHistograms.data() + i * analysisBinCount;
+                    for (int j = 0; j < analysisBinCount; j++) outAnalysis[i][j] += histogram[j];
+                }
+            }
+        }
+
+        void CrossCorrelationAnalysis::correlate(const float *firstTrain, int from, int to, const float *secondTrain,
+                                                 int secondCount, int *histogram, int analysisBinCount) {
+            // first spike of the second train that's less than max lag before the first spike of the chunk
+            float first = firstTrain[from];
+            int start = static_cast<int>(std::partition_point(secondTrain, secondTrain + secondCount,
+                                                              [first](float spike) {
+                                                                  return !(first - spike < MAX_EDGE);
+                                                              }) - secondTrain);
+            float diff;
+            for (int k = from; k < to; k++) {
+                // spikes of the first train are sorted so the window start only moves forward
+                while (start < secondCount && !(firstTrain[k] - secondTrain[start] < MAX_EDGE)) start++;
 
-                    std::copy(histogram, histogram + analysisBinCount, outAnalysis[i * spikeTrainCount + j]);
+                for (int l = start; l < secondCount; l++) {
+                    diff = firstTrain[k] - secondTrain[l];
+                    // second train is sorted so all the following spikes are too far as well
+                    if (!(diff > MIN_EDGE)) break;
 
-                    delete[] histogram;
+                    int bin = (int) (((diff - MIN_EDGE) * DIVIDER));
+                    if (bin < analysisBinCount) histogram[bin]++;
                 }
             }
         }
     }
-}
\ No newline at end of file
+}
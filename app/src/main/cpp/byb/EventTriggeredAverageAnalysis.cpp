@@ -25,7 +25,8 @@ namespace backyardbrains {
                                                     const bool removeNoiseIntervals,
                                                     const char *confidenceIntervalsEvent, float ***averages,
                                                     float ***normAverages, float **normMcAverages, float **normMcTop,
-                                                    float **normMcBottom, float *min, float *max) {
+                                                    float **normMcBottom, float *min, float *max,
+                                                    AnalysisControl *control) {
             long long milliseconds = currentTimeInMilliseconds();
 
             // we need to process at least one event
@@ -34,18 +35,16 @@ namespace backyardbrains {
                 return;
             }
 
-            // open audio file we need to analyze
-            drwav *wavPtr = drwav_open_file(signalFilePath);
-            if (wavPtr == nullptr) {
-                __android_log_print(ANDROID_LOG_DEBUG, TAG, "Unable to open file: %s", signalFilePath);
-                return;
-            }
+            // open audio file we need to analyze, all the intervals are read directly from its samples
+            backyardbrains::utils::WavSamples signal;
+            if (!signal.open(signalFilePath)) return;
+            const drwav_int16 *samples = signal.getSamples();
 
-            totalSamples = wavPtr->totalSampleCount;
+            totalSamples = signal.getSampleCount();
             __android_log_print(ANDROID_LOG_DEBUG, TAG, "Audio file sample count is: %ld", totalSamples);
-            sampleRate = wavPtr->sampleRate;
+            sampleRate = signal.getSampleRate();
             __android_log_print(ANDROID_LOG_DEBUG, TAG, "Audio file sample rate is: %i", sampleRate);
-            channelCount = wavPtr->channels;
+            channelCount = signal.getChannelCount();
             __android_log_print(ANDROID_LOG_DEBUG, TAG, "Audio file channel count is: %hu", channelCount);
 
             // check whether file is long enough for processing
@@ -82,7 +81,8 @@ namespace backyardbrains {
             // if intervals that contain noise need to be removed we should find standard deviation and mean
             // of the complete file because none of the samples in the processed batches should go above or below
             // mean + 2.5 STDs
-            if (removeNoiseIntervals) findStdAndMean(wavPtr, std, mean);
+            if (removeNoiseIntervals) findStdAndMean(samples, std, mean);
+            if (AnalysisControl::isCancelled(control)) return;
 
             // 2. FIND ALL INTERVALS SURROUNDING THE EVENTS NEEDED TO BE PROCESSED
             // AND SUM THEM BY INDEX SO WE CAN AVERAGE LATER
@@ -106,8 +106,14 @@ namespace backyardbrains {
             // get events from the events file
             backyardbrains::utils::EventUtils::parseEvents(eventsFilePath, eventTimes, eventNames, eventCount);
 
+            // when confidence intervals are computed most of the time is spent on them
+            float eventsProgress = confidenceIntervalsEvent != nullptr ? EVENTS_PROGRESS : 1.0f;
+            bool cancelled = false;
             // loop through all the events and collect sample intervals surrounding those events
             for (int i = 0; i < eventCount; i++) {
+                if ((cancelled = AnalysisControl::isCancelled(control))) break;
+                AnalysisControl::setProgress(control, eventsProgress * i / eventCount);
+
                 bool shouldProcess = false;
                 for (int j = 0; j < processedEventCount; j++) {
                     if (processedEvents[j] == eventNames[i]) { // current event should be processed
@@ -122,8 +128,7 @@ namespace backyardbrains {
                 bool isValid = validateIntervalBounds(start, sampleIndex);
                 if (!isValid) continue;
 
-                bool added = addInterval(wavPtr, sums[processedEventIndex], start, bufferSize, removeNoiseIntervals,
-                                         std, mean);
+                bool added = addInterval(samples + start, sums[processedEventIndex], removeNoiseIntervals, std, mean);
 
                 if (added) eventCounts[processedEventIndex]++;
             }
@@ -131,21 +136,13 @@ namespace backyardbrains {
             // 3. AVERAGE THE SUMS
 
             // calculate means for every processed event
-            for (int i = 0; i < processedEventCount; i++) {
+            for (int i = 0; i < processedEventCount && !cancelled; i++) {
                 averageInterval(averages[i], sums[i], eventCounts[i], min, max);
             }
 
             // 4. COMPUTE CONFIDENCE INTERVALS IF NECESSARY
 
-            // holds the sums of samples by processed events and channels from all intervals by their respectful index
-            auto ***confidenceIntervalsAverages = new float **[CONFIDENCE_INTERVALS_COMPUTATION_REPETITION];
-            for (int i = 0; i < CONFIDENCE_INTERVALS_COMPUTATION_REPETITION; i++) {
-                confidenceIntervalsAverages[i] = new float *[channelCount];
-                for (int j = 0; j < channelCount; j++) {
-                    confidenceIntervalsAverages[i][j] = new float[frameCount]{0};
-                }
-            }
-            if (confidenceIntervalsEvent != nullptr) {
+            if (confidenceIntervalsEvent != nullptr && !cancelled) {
                 processedEventIndex = -1;
                 for (int i = 0; i < processedEventCount; i++) {
                     // find the index of the event we need to compute the confidence intervals for
@@ -154,88 +151,15 @@ namespace backyardbrains {
                         break;
                     }
                 }
-                if (processedEventIndex > 0 && eventCounts[processedEventIndex] > 0) {
-                    // fields responsible for selecting a random sample
-                    std::random_device rd;
-                    std::mt19937 mt(rd());
-                    std::uniform_int_distribution<drwav_uint64> dist(0, totalSamples);
-                    // counts intervals of averages
-                    int counter;
-                    // total number of needed average intervals per computation repetition
-                    int total = eventCounts[processedEventIndex];
-                    // counts repetitions
-                    int avgRepetitionCounter = 0;
-                    float *mcMin = new float[2];
-                    float *mcMax = new float[2];
-                    while (avgRepetitionCounter < CONFIDENCE_INTERVALS_COMPUTATION_REPETITION) {
-                        counter = 0;
-                        for (int i = 0; i < channelCount; i++) {
-                            std::fill(sums[0][i], sums[0][i] + frameCount, 0);
-                        }
-                        while (counter < total) {
-                            auto sampleIndex = static_cast<drwav_uint64>(dist(mt));
-
-                            // validate whether we can construct the interval for the sample with specified sampleIndex
-                            bool isValid = validateIntervalBounds(start, sampleIndex);
-                            if (!isValid) continue;
-
-                            bool added = addInterval(wavPtr, sums[0], start, bufferSize, removeNoiseIntervals, std,
-                                                     mean);
-                            if (added) counter++;
-                        }
-
-                        averageInterval(confidenceIntervalsAverages[avgRepetitionCounter], sums[0], total, mcMin,
-                                        mcMax);
-
-                        avgRepetitionCounter++;
-                    }
-
-                    // 5. COMPUTE STANDARD DEVIATIONS FOR ALL COLLECTED MONTE CARLO INTERVALS
-
-                    auto *tmp = new float[CONFIDENCE_INTERVALS_COMPUTATION_REPETITION];
-                    float tmpSum;
-                    float tmpStd;
-                    float tmpMean;
-                    float tmpTop;
-                    float tmpBottom;
-                    for (int j = 0; j < channelCount; j++) {
-                        for (int k = 0; k < frameCount; k++) {
-                            tmpSum = 0;
-                            for (int i = 0; i < CONFIDENCE_INTERVALS_COMPUTATION_REPETITION; i++) {
-                                tmp[i] = confidenceIntervalsAverages[i][j][k];
-                                tmpSum += tmp[i];
-                            }
-
-                            tmpMean = tmpSum / CONFIDENCE_INTERVALS_COMPUTATION_REPETITION;
-                            tmpStd = backyardbrains::utils::AnalysisUtils::SD(tmp,
-                                                                              CONFIDENCE_INTERVALS_COMPUTATION_REPETITION);
-                            tmpTop = tmpMean + tmpStd * SIGNAL_STD_MULTIPLYER;
-                            tmpBottom = tmpMean - tmpStd * SIGNAL_STD_MULTIPLYER;
-
-                            normMcAverages[j][k] = tmpMean;
-                            normMcTop[j][k] = tmpTop;
-                            normMcBottom[j][k] = tmpBottom;
-
-                            if (tmpBottom < min[j]) min[j] = tmpBottom;
-                            if (tmpTop > max[j]) max[j] = tmpTop;
-                        }
-                        delete[] tmp;
-                    }
-
-                    // map all averages, top and bottom MC intervals between -1 and 1
-                    for (int i = 0; i < channelCount; i++) {
-                        backyardbrains::utils::AnalysisUtils::map(normMcAverages[i], normMcAverages[i],
-                                                                  frameCount, min[i], max[i], -1.0F, 1.0F);
-                        backyardbrains::utils::AnalysisUtils::map(normMcTop[i], normMcTop[i],
-                                                                  frameCount, min[i], max[i], -1.0F, 1.0F);
-                        backyardbrains::utils::AnalysisUtils::map(normMcBottom[i], normMcBottom[i],
-                                                                  frameCount, min[i], max[i], -1.0F, 1.0F);
-                    }
+                if (processedEventIndex >= 0 && eventCounts[processedEventIndex] > 0) {
+                    computeConfidenceIntervals(samples, eventCounts[processedEventIndex], removeNoiseIntervals, std,
+                                               mean, normMcAverages, normMcTop, normMcBottom, min, max, control);
+                    cancelled = AnalysisControl::isCancelled(control);
                 }
             }
 
             // map all averages between -1 and 1
-            for (int i = 0; i < processedEventCount; i++) {
+            for (int i = 0; i < processedEventCount && !cancelled; i++) {
                 for (int j = 0; j < channelCount; j++) {
                     backyardbrains::utils::AnalysisUtils::map(averages[i][j], normAverages[i][j], frameCount, min[j],
                                                               max[j], -1.0F, 1.0F);
@@ -252,13 +176,119 @@ namespace backyardbrains {
             }
             delete[] sums;
             delete[] eventCounts;
-            for (int i = 0; i < CONFIDENCE_INTERVALS_COMPUTATION_REPETITION; i++) {
-                for (int j = 0; j < channelCount; j++) {
-                    delete[] confidenceIntervalsAverages[i][j];
+        }
+
+        void EventTriggeredAverageAnalysis::setSeed(std::uint64_t seed) {
+            this->seed = seed;
+            seeded = true;
+        }
+
+        void EventTriggeredAverageAnalysis::setRepetitionCount(int repetitionCount) {
+            this->repetitionCount = std::max(1, repetitionCount);
+        }
+
+        void EventTriggeredAverageAnalysis::computeConfidenceIntervals(const drwav_int16 *samples, int intervalCount,
+                                                                       bool checkNoise, double std, double mean,
+                                                                       float **normMcAverages, float **normMcTop,
+                                                                       float **normMcBottom, float *min, float *max,
+                                                                       AnalysisControl *control) {
+            std::uint64_t baseSeed = seed;
+            if (!seeded) {
+                std::random_device rd;
+                baseSeed = (static_cast<std::uint64_t>(rd()) << 32) | rd();
+            }
+
+            // intervals are drawn by frame so samples of different channels are never mixed
+            drwav_uint64 lastStartFrame = (totalSamples - bufferSize) / channelCount;
+            // give up on the repetition if too many drawn intervals contain noise
+            int maxDrawCount = intervalCount * MAX_DRAWS_PER_INTERVAL;
+            auto length = static_cast<size_t>(channelCount * frameCount);
+
+            // every block of repetitions is processed on its own thread and repetitions are assigned to blocks and
+            // seeded by their index so results only depend on the seed, not on the number of threads
+            int blockCount = std::min(BOOTSTRAP_BLOCK_COUNT, repetitionCount);
+            std::vector<BootstrapAccumulator> blocks(static_cast<size_t>(blockCount));
+            std::atomic<int> startedRepetitionCount{0};
+            backyardbrains::utils::AnalysisUtils::parallelFor(blockCount, [&](int block) {
+                BootstrapAccumulator &acc = blocks[block];
+                acc.sums.assign(length, 0.0);
+                acc.squares.assign(length, 0.0);
+
+                std::vector<float> intervalSums(length);
+                std::vector<float *> channelSums(channelCount);
+                for (int i = 0; i < channelCount; i++) channelSums[i] = intervalSums.data() + i * frameCount;
+
+                for (int r = block; r < repetitionCount; r += blockCount) {
+                    if (AnalysisControl::isCancelled(control)) return;
+                    float repetitionsProgress = static_cast<float>(startedRepetitionCount.fetch_add(1)) /
+                                                repetitionCount;
+                    AnalysisControl::setProgress(control,
+                                                 EVENTS_PROGRESS + (1.0f - EVENTS_PROGRESS) * repetitionsProgress);
+
+                    std::seed_seq seedSeq{static_cast<std::uint32_t>(baseSeed),
+                                          static_cast<std::uint32_t>(baseSeed >> 32), static_cast<std::uint32_t>(r)};
+                    std::mt19937 mt(seedSeq);
+                    std::uniform_int_distribution<drwav_uint64> dist(0, lastStartFrame);
+
+                    std::fill(intervalSums.begin(), intervalSums.end(), 0.0f);
+                    int added = 0;
+                    for (int draw = 0; added < intervalCount && draw < maxDrawCount; draw++) {
+                        if (addInterval(samples + dist(mt) * channelCount, channelSums.data(), checkNoise, std, mean)) {
+                            added++;
+                        }
+                    }
+                    if (added == 0) continue;
+
+                    for (size_t i = 0; i < length; i++) {
+                        double average = intervalSums[i] / added;
+                        acc.sums[i] += average;
+                        acc.squares[i] += average * average;
+                    }
+                    acc.repetitionCount++;
                 }
-                delete[] confidenceIntervalsAverages[i];
+            });
+            if (AnalysisControl::isCancelled(control)) return;
+
+            // 5. COMPUTE STANDARD DEVIATIONS FOR ALL COLLECTED MONTE CARLO INTERVALS
+
+            // merge blocks in order so the result is always the same
+            BootstrapAccumulator &total = blocks[0];
+            for (int b = 1; b < blockCount; b++) {
+                for (size_t i = 0; i < length; i++) {
+                    total.sums[i] += blocks[b].sums[i];
+                    total.squares[i] += blocks[b].squares[i];
+                }
+                total.repetitionCount += blocks[b].repetitionCount;
+            }
+            if (total.repetitionCount == 0) return;
+
+            double averagedCount = total.repetitionCount;
+            for (int j = 0; j < channelCount; j++) {
+                for (int k = 0; k < frameCount; k++) {
+                    size_t i = static_cast<size_t>(j * frameCount + k);
+                    double tmpMean = total.sums[i] / averagedCount;
+                    double tmpStd = sqrt(fmax(total.squares[i] / averagedCount - tmpMean * tmpMean, 0.0));
+                    auto tmpTop = static_cast<float>(tmpMean + tmpStd * SIGNAL_STD_MULTIPLYER);
+                    auto tmpBottom = static_cast<float>(tmpMean - tmpStd * SIGNAL_STD_MULTIPLYER);
+
+                    normMcAverages[j][k] = static_cast<float>(tmpMean);
+                    normMcTop[j][k] = tmpTop;
+                    normMcBottom[j][k] = tmpBottom;
+
+                    if (tmpBottom < min[j]) min[j] = tmpBottom;
+                    if (tmpTop > max[j]) max[j] = tmpTop;
+                }
+            }
+
+            // map all averages, top and bottom MC intervals between -1 and 1
+            for (int i = 0; i < channelCount; i++) {
+                backyardbrains::utils::AnalysisUtils::map(normMcAverages[i], normMcAverages[i],
+                                                          frameCount, min[i], max[i], -1.0F, 1.0F);
+                backyardbrains::utils::AnalysisUtils::map(normMcTop[i], normMcTop[i],
+                                                          frameCount, min[i], max[i], -1.0F, 1.0F);
+                backyardbrains::utils::AnalysisUtils::map(normMcBottom[i], normMcBottom[i],
+                                                          frameCount, min[i], max[i], -1.0F, 1.0F);
             }
-            delete[] confidenceIntervalsAverages;
         }
 
         bool EventTriggeredAverageAnalysis::validateIntervalBounds(drwav_uint64 &start, drwav_uint64 sampleIndex) {
@@ -271,70 +301,29 @@ namespace backyardbrains {
             return end <= totalSamples; // discard event if we can't fill batch on the right
         }
 
-        bool EventTriggeredAverageAnalysis::addInterval(drwav *wavPtr, float **sums, drwav_uint64 start,
-                                                        drwav_uint64 size, bool checkNoise, double std,
-                                                        double mean) {
-            const drwav_uint16 channelCount = wavPtr->channels;
-            int sampleCount = static_cast<int>(size);
-            int frameCount = sampleCount / channelCount;
-
-            // holds batch of currently processed samples
-            auto *samples = new drwav_int16[size];
-            // holds deinterleaved samples of the currently processed batch
-            auto **deinterleavedSamples = new drwav_int16 *[channelCount];
-            for (int i = 0; i < channelCount; i++) {
-                deinterleavedSamples[i] = new drwav_int16[frameCount]{0};
-            }
+        bool EventTriggeredAverageAnalysis::addInterval(const drwav_int16 *samples, float **sums, bool checkNoise,
+                                                        double std, double mean) {
+            auto max = (float) SHRT_MAX;
 
-            bool added = true;
-
-            // number of read samples in single read loop
-            drwav_uint64 read;
-            int i;
-            int j;
-            if (drwav_seek_to_sample(wavPtr, start)) { // seek to the batch start
-                read = drwav_read_s16(wavPtr, size, samples); // read the whole batch
-                if (read == size) {
-                    // check for noise and skip this batch if necessary
-                    if (checkNoise) {
-                        auto *normalized = new float[sampleCount]{0};
-                        backyardbrains::utils::SignalUtils::normalizeSignalToFloat(normalized, samples,
-                                                                                   sampleCount);
-                        for (i = 0; i < sampleCount; i++) {
-                            if (normalized[i] < mean - std * NOISE_DETECTION_STD_THRESHOLD ||
-                                normalized[i] > mean + std * NOISE_DETECTION_STD_THRESHOLD) {
-                                added = false;
-                            }
-                        }
-                        delete[] normalized;
-                    }
-
-                    if (added) {
-                        // we didn't skip this batch add it to the sums
-                        backyardbrains::utils::SignalUtils::deinterleaveSignal(deinterleavedSamples, samples,
-                                                                               sampleCount,
-                                                                               channelCount);
-                        for (i = 0; i < channelCount; i++) {
-                            auto *normalized = new float[frameCount]{0};
-                            backyardbrains::utils::SignalUtils::normalizeSignalToFloat(normalized,
-                                                                                       deinterleavedSamples[i],
-                                                                                       frameCount);
-                            for (j = 0; j < frameCount; j++) {
-                                sums[i][j] += normalized[j];
-                            }
-                            delete[] normalized;
-                        }
+            // check for noise and skip this batch if necessary
+            if (checkNoise) {
+                for (int i = 0; i < sampleCount; i++) {
+                    float normalized = samples[i] / max;
+                    if (normalized < mean - std * NOISE_DETECTION_STD_THRESHOLD ||
+                        normalized > mean + std * NOISE_DETECTION_STD_THRESHOLD) {
+                        return false;
                     }
-                } else added = false;
-            } else added = false;
+                }
+            }
 
-            delete[] samples;
-            for (i = 0; i < channelCount; i++) {
-                delete[] deinterleavedSamples[i];
+            // we didn't skip this batch add it to the sums
+            for (int i = 0; i < channelCount; i++) {
+                for (int j = 0; j < frameCount; j++) {
+                    sums[i][j] += samples[channelCount * j + i] / max;
+                }
             }
-            delete[] deinterleavedSamples;
 
-            return added;
+            return true;
         }
 
         void EventTriggeredAverageAnalysis::averageInterval(float **averages, float **sums, int divider, float *min,
@@ -350,49 +339,24 @@ namespace backyardbrains {
             }
         }
 
-        void
-        EventTriggeredAverageAnalysis::findStdAndMean(drwav *wavPtr, double &std, double &mean) {
-            // determine sample batch size
-            auto batchSize = static_cast<drwav_uint64>(ceil(
-                    totalSamples / backyardbrains::utils::AnalysisUtils::BIN_COUNT));
-            // max size of the currently processed sample batch
-            auto maxBatchSize = static_cast<drwav_uint64>(ceil(
-                    (sampleRate * backyardbrains::utils::AnalysisUtils::BUFFER_SIZE_IN_SECS) / channelCount));
-            if (batchSize > maxBatchSize) batchSize = maxBatchSize;
-            // holds batch of currently processed samples
-            auto *samples = new drwav_int16[batchSize];
-            // cast batch size to avoid multiple casting
-            int sampleCount = static_cast<int>(batchSize);
-            // number of read samples in single read loop
-            drwav_uint64 read;
+        void EventTriggeredAverageAnalysis::findStdAndMean(const drwav_int16 *samples, double &std, double &mean) {
+            auto max = (float) SHRT_MAX;
             // used for calculation of std and mean
             double squares = 0.0F;
             double number;
 
-            // run through file and find standard deviation
-            while ((read = drwav_read_s16(wavPtr, batchSize, samples)) > 0) {
-                if (batchSize != read) sampleCount = static_cast<int>(read);
-
-                auto *normalized = new float[sampleCount];
-                // divide all samples with SHRT_MAX so we get values between -1.0 and 1.0
-                backyardbrains::utils::SignalUtils::normalizeSignalToFloat(normalized, samples, sampleCount);
-
-                for (int i = 0; i < sampleCount; i++) {
-                    number = normalized[i];
-                    mean += number;
-                    squares += number * number;
-                }
-
-                delete[] normalized;
+            // run through file and find standard deviation, samples are divided with SHRT_MAX so we get values
+            // between -1.0 and 1.0
+            for (drwav_uint64 i = 0; i < totalSamples; i++) {
+                number = samples[i] / max;
+                mean += number;
+                squares += number * number;
             }
 
             // save standard deviation and mean for the complete file
             mean /= totalSamples;
             squares /= totalSamples;
             std = sqrt(squares - mean * mean);
-
-            // release resources
-            delete[] samples;
         }
     }
-}
\ No newline at end of file
+}
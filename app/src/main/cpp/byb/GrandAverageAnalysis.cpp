@@ -0,0 +1,173 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "GrandAverageAnalysis.h"
+
+namespace backyardbrains {
+
+    namespace analysis {
+
+        const char *GrandAverageAnalysis::TAG = "GrandAverageAnalysis";
+
+        GrandAverageAnalysis::GrandAverageAnalysis() = default;
+
+        GrandAverageAnalysis::~GrandAverageAnalysis() = default;
+
+        bool GrandAverageAnalysis::processSpikes(const char *filePath, const int *const *inSpikeTrains,
+                                                 const int *channels, const int *spikeCounts, int trainCount,
+                                                 int sampleRate, int leftFrameCount, int frameCount, int *outCounts,
+                                                 double **outMeans, double **outM2s, AnalysisControl *control) {
+            backyardbrains::utils::WavSamples signal;
+            if (!signal.open(filePath)) return false;
+            const drwav_int16 *samples = signal.getSamples();
+            const int channelCount = signal.getChannelCount();
+            const drwav_uint64 totalFrameCount = signal.getSampleCount() / channelCount;
+            // number of recording frames between two window samples
+            const double step = static_cast<double>(signal.getSampleRate()) / sampleRate;
+            const double leftOffset = leftFrameCount * step;
+
+            int totalSpikeCount = 0;
+            for (int i = 0; i < trainCount; i++) totalSpikeCount += spikeCounts[i];
+
+            std::vector<double> window(static_cast<size_t>(frameCount));
+            int processedSpikeCount = 0;
+            for (int i = 0; i < trainCount; i++) {
+                outCounts[i] = 0;
+                std::fill(outMeans[i], outMeans[i] + frameCount, 0.0);
+                std::fill(outM2s[i], outM2s[i] + frameCount, 0.0);
+                if (channels[i] < 0 || channels[i] >= channelCount) continue;
+
+                for (int j = 0; j < spikeCounts[i]; j++) {
+                    if ((processedSpikeCount++ & 0x3FF) == 0) {
+                        if (AnalysisControl::isCancelled(control)) return false;
+                        AnalysisControl::setProgress(control,
+                                                     static_cast<float>(processedSpikeCount) / totalSpikeCount);
+                    }
+
+                    if (sampleWindow(samples, channelCount, channels[i], totalFrameCount,
+                                     inSpikeTrains[i][j] - leftOffset, step, frameCount, window.data())) {
+                        addWindow(window.data(), frameCount, outCounts[i], outMeans[i], outM2s[i]);
+                    }
+                }
+            }
+
+            return !AnalysisControl::isCancelled(control);
+        }
+
+        bool GrandAverageAnalysis::processEvents(const char *signalFilePath, const char *eventsFilePath,
+                                                 const std::string *processedEvents, int processedEventCount,
+                                                 int channelCount, bool removeNoiseIntervals, int sampleRate,
+                                                 int leftFrameCount, int frameCount, int *outCounts,
+                                                 double **outMeans, double **outM2s, AnalysisControl *control) {
+            for (int i = 0; i < processedEventCount * channelCount; i++) {
+                outCounts[i] = 0;
+                std::fill(outMeans[i], outMeans[i] + frameCount, 0.0);
+                std::fill(outM2s[i], outM2s[i] + frameCount, 0.0);
+            }
+
+            backyardbrains::utils::WavSamples signal;
+            if (!signal.open(signalFilePath)) return false;
+            const drwav_int16 *samples = signal.getSamples();
+            const drwav_uint64 totalSamples = signal.getSampleCount();
+            const drwav_uint32 signalSampleRate = signal.getSampleRate();
+            const int signalChannelCount = signal.getChannelCount();
+            const drwav_uint64 totalFrameCount = totalSamples / signalChannelCount;
+            const int processedChannelCount = std::min(channelCount, signalChannelCount);
+            // number of recording frames between two window samples
+            const double step = static_cast<double>(signalSampleRate) / sampleRate;
+            const double leftOffset = leftFrameCount * step;
+
+            // none of the window samples should go further than 2.5 STDs from the recording mean
+            double mean = 0.0;
+            double std = 0.0;
+            if (removeNoiseIntervals && totalSamples > 0) {
+                double squares = 0.0;
+                for (drwav_uint64 i = 0; i < totalSamples; i++) {
+                    double number = samples[i] / static_cast<double>(SHRT_MAX);
+                    mean += number;
+                    squares += number * number;
+                }
+                mean /= totalSamples;
+                std = sqrt(fmax(squares / totalSamples - mean * mean, 0.0));
+            }
+            if (AnalysisControl::isCancelled(control)) return false;
+
+            // calculate approx. number of events (we can have max 5 events/s)
+            int maxEventCount = static_cast<int>(totalSamples / (signalSampleRate * signalChannelCount * 0.2F)) + 1;
+            auto *eventTimes = new float[maxEventCount];
+            auto *eventNames = new std::string[maxEventCount];
+            int eventCount = 0;
+            backyardbrains::utils::EventUtils::parseEvents(eventsFilePath, eventTimes, eventNames, eventCount);
+
+            const auto length = static_cast<size_t>(processedChannelCount * frameCount);
+            std::vector<double> windows(length);
+            bool cancelled = false;
+            for (int i = 0; i < eventCount; i++) {
+                if ((cancelled = AnalysisControl::isCancelled(control))) break;
+                AnalysisControl::setProgress(control, static_cast<float>(i) / eventCount);
+
+                int processedEventIndex = -1;
+                for (int j = 0; j < processedEventCount; j++) {
+                    if (processedEvents[j] == eventNames[i]) processedEventIndex = j;
+                }
+                if (processedEventIndex < 0) continue;
+
+                // windows of all the channels are skipped if any of them doesn't fit or contains noise
+                double position = floor(eventTimes[i] * signalSampleRate) - leftOffset;
+                bool valid = true;
+                for (int c = 0; c < processedChannelCount && valid; c++) {
+                    valid = sampleWindow(samples, signalChannelCount, c, totalFrameCount, position, step, frameCount,
+                                         windows.data() + c * frameCount);
+                }
+                if (!valid) continue;
+                for (size_t j = 0; j < length; j++) windows[j] /= SHRT_MAX;
+                if (removeNoiseIntervals) {
+                    for (size_t j = 0; j < length && valid; j++) {
+                        valid = fabs(windows[j] - mean) <= std * NOISE_DETECTION_STD_THRESHOLD;
+                    }
+                    if (!valid) continue;
+                }
+
+                for (int c = 0; c < processedChannelCount; c++) {
+                    int index = processedEventIndex * channelCount + c;
+                    addWindow(windows.data() + c * frameCount, frameCount, outCounts[index], outMeans[index],
+                              outM2s[index]);
+                }
+            }
+
+            delete[] eventTimes;
+            delete[] eventNames;
+
+            return !cancelled;
+        }
+
+        bool GrandAverageAnalysis::sampleWindow(const drwav_int16 *samples, int channelCount, int channel,
+                                                drwav_uint64 totalFrameCount, double position, double step,
+                                                int frameCount, double *outWindow) {
+            if (position < 0 || position + step * (frameCount - 1) > totalFrameCount - 1.0) return false;
+
+            for (int i = 0; i < frameCount; i++) {
+                double frame = position + step * i;
+                auto index = static_cast<drwav_uint64>(frame);
+                double fraction = frame - index;
+                double value = samples[index * channelCount + channel];
+                // fraction is always 0 when recording has the same sample rate so the next frame is never read
+                if (fraction > 0) value += fraction * (samples[(index + 1) * channelCount + channel] - value);
+                outWindow[i] = value;
+            }
+
+            return true;
+        }
+
+        void GrandAverageAnalysis::addWindow(const double *window, int frameCount, int &count, double *means,
+                                             double *m2s) {
+            count++;
+            for (int i = 0; i < frameCount; i++) {
+                double delta = window[i] - means[i];
+                means[i] += delta / count;
+                m2s[i] += delta * (window[i] - means[i]);
+            }
+        }
+    }
+}
@@ -17,11 +17,12 @@ namespace backyardbrains {
 
         void IsiAnalysis::process(float **inSpikeTrains, const int spikeTrainCount, const int *spikeCounts,
                                   int **outAnalysis,
-                                  const int analysisBinCount) {
+                                  const int analysisBinCount, AnalysisControl *control) {
             const float *logSpace = backyardbrains::utils::AnalysisUtils::generateLogSpace(-3, 1, BIN_COUNT - 1);
 
             float diff;
             for (int i = 0; i < spikeTrainCount; i++) {
+                if (AnalysisControl::isCancelled(control)) break;
                 int *histogram = new int[analysisBinCount]{0};
 
                 for (int j = 1; j < spikeCounts[i]; j++) {
@@ -37,6 +38,8 @@ namespace backyardbrains {
                 std::copy(histogram, histogram + analysisBinCount, outAnalysis[i]);
 
                 delete[] histogram;
+
+                AnalysisControl::setProgress(control, static_cast<float>(i + 1) / spikeTrainCount);
             }
         }
     }
@@ -0,0 +1,153 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "PowerSpectrumAnalysis.h"
+
+namespace backyardbrains {
+
+    namespace analysis {
+
+        const char *PowerSpectrumAnalysis::TAG = "PowerSpectrumAnalysis";
+
+        const drwav_uint64 PowerSpectrumAnalysis::BUFFER_SAMPLE_COUNT = 1 << 20;
+
+        PowerSpectrumAnalysis::PowerSpectrumAnalysis() = default;
+
+        PowerSpectrumAnalysis::~PowerSpectrumAnalysis() = default;
+
+        int PowerSpectrumAnalysis::process(const char *filePath, int windowLength, const float *bandEdges,
+                                           int bandCount, float **outPowers, float **outBandPowers,
+                                           AnalysisControl *control) {
+            // open audio file we need to analyze
+            drwav *wavPtr = drwav_open_file(filePath);
+            if (wavPtr == nullptr) {
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "Unable to open file: %s", filePath);
+                return 0;
+            }
+            const int channelCount = wavPtr->channels;
+            const drwav_uint64 totalFrames = wavPtr->totalSampleCount / channelCount;
+            const auto sampleRate = static_cast<float>(wavPtr->sampleRate);
+            const int binCount = windowLength / 2 + 1;
+            const int step = windowLength / 2;
+            const auto wl = static_cast<drwav_uint64>(windowLength);
+            if (windowLength < 2 || (windowLength & (windowLength - 1)) != 0 || totalFrames < wl) {
+                drwav_close(wavPtr);
+                return 0;
+            }
+
+            // periodic Hann window, with half overlap every sample gets the same weight
+            std::vector<float> window(static_cast<size_t>(windowLength));
+            double windowSquares = 0.0;
+            for (int i = 0; i < windowLength; i++) {
+                window[i] = static_cast<float>(0.5 - 0.5 * cos(2.0 * M_PI * i / windowLength));
+                windowSquares += window[i] * window[i];
+            }
+
+            // every thread has its own fft and sums periodograms of the windows it processed, so no locking is needed
+            const int taskCount = backyardbrains::utils::AnalysisUtils::getThreadCount();
+            std::vector<Accumulator> accumulators(static_cast<size_t>(taskCount));
+            for (auto &accumulator : accumulators) {
+                accumulator.fft.reset(new audiofft::AudioFFT());
+                accumulator.fft->init(static_cast<size_t>(windowLength));
+                accumulator.input.resize(static_cast<size_t>(windowLength));
+                accumulator.re.resize(audiofft::AudioFFT::ComplexSize(static_cast<size_t>(windowLength)));
+                accumulator.im.resize(audiofft::AudioFFT::ComplexSize(static_cast<size_t>(windowLength)));
+                accumulator.powers.assign(static_cast<size_t>(channelCount * binCount), 0.0);
+            }
+
+            // buffer holds as many overlapping windows as fit and the part of the last window that's overlapped by the
+            // next one is moved to the start of the buffer before the following block is read
+            const drwav_uint64 blockWindowCount =
+                std::max(static_cast<drwav_uint64>(taskCount),
+                         (std::max(BUFFER_SAMPLE_COUNT / channelCount, wl) - wl) / step + 1);
+            const drwav_uint64 bufferCapacity = wl + (blockWindowCount - 1) * step;
+            std::vector<drwav_int16> buffer(static_cast<size_t>(bufferCapacity * channelCount));
+            drwav_uint64 bufferFrames = 0;
+            drwav_uint64 readFrames = 0;
+            int windowCount = 0;
+            bool cancelled = false;
+            while (true) {
+                if ((cancelled = AnalysisControl::isCancelled(control))) break;
+                AnalysisControl::setProgress(control, static_cast<float>(readFrames) / totalFrames);
+
+                const drwav_uint64 read = drwav_read_s16(wavPtr, (bufferCapacity - bufferFrames) * channelCount,
+                                                         buffer.data() + bufferFrames * channelCount) / channelCount;
+                bufferFrames += read;
+                readFrames += read;
+                if (bufferFrames < wl) break;
+
+                const auto blockCount = static_cast<int>((bufferFrames - wl) / step + 1);
+                const int jobCount = blockCount * channelCount;
+                backyardbrains::utils::AnalysisUtils::parallelFor(taskCount, [&](int task) {
+                    Accumulator &accumulator = accumulators[task];
+                    for (int job = task; job < jobCount; job += taskCount) {
+                        const drwav_int16 *frames = buffer.data() + (job / channelCount) * step * channelCount;
+                        addPeriodogram(frames, channelCount, job % channelCount, window, accumulator);
+                    }
+                });
+                windowCount += blockCount;
+
+                const drwav_uint64 consumed = static_cast<drwav_uint64>(blockCount) * step;
+                std::copy(buffer.begin() + consumed * channelCount, buffer.begin() + bufferFrames * channelCount,
+                          buffer.begin());
+                bufferFrames -= consumed;
+                // file is shorter than its header claims
+                if (read == 0) break;
+            }
+
+            // close audio file
+            drwav_close(wavPtr);
+
+            if (cancelled || windowCount == 0) return 0;
+
+            // one-sided density, every bin except DC and Nyquist also holds the power of its negative frequency
+            const float resolution = sampleRate / windowLength;
+            const double scale = 1.0 / (sampleRate * windowSquares * windowCount);
+            for (int i = 0; i < channelCount; i++) {
+                for (int j = 0; j < binCount; j++) {
+                    double sum = 0.0;
+                    for (const auto &accumulator : accumulators) sum += accumulator.powers[i * binCount + j];
+                    const double factor = j == 0 || j == binCount - 1 ? 1.0 : 2.0;
+                    outPowers[i][j] = static_cast<float>(sum * scale * factor);
+                }
+
+                // band includes bins whose frequency is at least its lower and less than its upper edge
+                for (int j = 0; j < bandCount; j++) {
+                    const auto first = static_cast<int>(std::ceil(bandEdges[j] / resolution));
+                    const auto last = std::min(static_cast<int>(std::ceil(bandEdges[j + 1] / resolution)), binCount);
+                    double power = 0.0;
+                    for (int k = std::max(first, 0); k < last; k++) power += outPowers[i][k];
+                    outBandPowers[i][j] = static_cast<float>(power * resolution);
+                }
+            }
+
+            AnalysisControl::setProgress(control, 1.0f);
+
+            return windowCount;
+        }
+
+        void PowerSpectrumAnalysis::addPeriodogram(const drwav_int16 *frames, int channelCount, int channel,
+                                                   const std::vector<float> &window, Accumulator &accumulator) {
+            const auto length = static_cast<int>(window.size());
+            float *input = accumulator.input.data();
+            double sum = 0.0;
+            for (int i = 0; i < length; i++) {
+                input[i] = frames[i * channelCount + channel];
+                sum += input[i];
+            }
+            // DC offset of the recording would otherwise leak into the lowest frequencies
+            const auto mean = static_cast<float>(sum / length);
+            for (int i = 0; i < length; i++) input[i] = (input[i] - mean) * window[i];
+
+            accumulator.fft->fft(input, accumulator.re.data(), accumulator.im.data());
+
+            double *powers = accumulator.powers.data() + channel * accumulator.re.size();
+            const size_t binCount = accumulator.re.size();
+            for (size_t i = 0; i < binCount; i++) {
+                powers[i] += static_cast<double>(accumulator.re[i]) * accumulator.re[i] +
+                             static_cast<double>(accumulator.im[i]) * accumulator.im[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "PsthAnalysis.h"
+
+namespace backyardbrains {
+
+    namespace analysis {
+
+        const char *PsthAnalysis::TAG = "PsthAnalysis";
+
+        PsthAnalysis::PsthAnalysis() = default;
+
+        PsthAnalysis::~PsthAnalysis() = default;
+
+        bool PsthAnalysis::process(const int *const *inSpikeTrains, const int *spikeCounts, int trainCount,
+                                   const int *const *inEvents, const int *eventCounts, int eventTypeCount,
+                                   int leftFrameCount, int rightFrameCount, int binCount, int **outHistograms,
+                                   int **outTrialStarts, std::vector<int> *outRasters, AnalysisControl *control) {
+            const int pairCount = eventTypeCount * trainCount;
+            const long long windowFrameCount = static_cast<long long>(leftFrameCount) + rightFrameCount;
+            for (int i = 0; i < pairCount; i++) std::fill(outHistograms[i], outHistograms[i] + binCount, 0);
+            if (windowFrameCount <= 0 || binCount <= 0) return true;
+
+            std::vector<Block> blocks;
+            for (int i = 0; i < eventTypeCount; i++) {
+                for (int j = 0; j < trainCount; j++) {
+                    for (int k = 0; k < eventCounts[i]; k += BLOCK_EVENT_COUNT) {
+                        blocks.push_back({i, j, k, std::min(k + BLOCK_EVENT_COUNT, eventCounts[i])});
+                    }
+                }
+            }
+            const auto blockCount = static_cast<int>(blocks.size());
+
+            // positions of the first and one past the last spike within the window of every event
+            std::vector<std::vector<int>> firsts(static_cast<size_t>(pairCount));
+            std::vector<std::vector<int>> lasts(static_cast<size_t>(pairCount));
+            for (int i = 0; i < pairCount; i++) {
+                firsts[i].resize(static_cast<size_t>(eventCounts[i / trainCount]));
+                lasts[i].resize(static_cast<size_t>(eventCounts[i / trainCount]));
+            }
+
+            // every block counts spikes into its own histogram so blocks of the same pair don't need locking
+            std::vector<int> blockHistograms(static_cast<size_t>(blockCount) * binCount, 0);
+            std::atomic<int> finishedBlockCount{0};
+            backyardbrains::utils::AnalysisUtils::parallelFor(blockCount, [&](int b) {
+                if (AnalysisControl::isCancelled(control)) return;
+
+                const Block &block = blocks[b];
+                const int pair = block.eventType * trainCount + block.train;
+                const int *spikes = inSpikeTrains[block.train];
+                const int *spikesEnd = spikes + spikeCounts[block.train];
+                const int *events = inEvents[block.eventType];
+                int *histogram = &blockHistograms[static_cast<size_t>(b) * binCount];
+                // events are sorted so search for the next window can start where the previous one started
+                const int *from = spikes;
+                for (int i = block.firstEvent; i < block.lastEvent; i++) {
+                    const long long start = static_cast<long long>(events[i]) - leftFrameCount;
+                    const long long end = start + windowFrameCount;
+                    const int *first = std::lower_bound(from, spikesEnd, start, [](int spike, long long value) {
+                        return spike < value;
+                    });
+                    const int *last = first;
+                    for (; last < spikesEnd && *last < end; last++) {
+                        histogram[(*last - start) * binCount / windowFrameCount]++;
+                    }
+                    firsts[pair][i] = static_cast<int>(first - spikes);
+                    lasts[pair][i] = static_cast<int>(last - spikes);
+                    from = first;
+                }
+
+                AnalysisControl::setProgress(control, .5f * ++finishedBlockCount / blockCount);
+            });
+            if (AnalysisControl::isCancelled(control)) return false;
+
+            for (int b = 0; b < blockCount; b++) {
+                int *histogram = outHistograms[blocks[b].eventType * trainCount + blocks[b].train];
+                const int *blockHistogram = &blockHistograms[static_cast<size_t>(b) * binCount];
+                for (int i = 0; i < binCount; i++) histogram[i] += blockHistogram[i];
+            }
+            if (outTrialStarts == nullptr || outRasters == nullptr) return true;
+
+            // raster of every pair is filled in parallel once position of every trial within it is known
+            for (int i = 0; i < pairCount; i++) {
+                const int eventCount = eventCounts[i / trainCount];
+                int total = 0;
+                for (int j = 0; j < eventCount; j++) {
+                    outTrialStarts[i][j] = total;
+                    total += lasts[i][j] - firsts[i][j];
+                }
+                outTrialStarts[i][eventCount] = total;
+                outRasters[i].resize(static_cast<size_t>(total));
+            }
+            finishedBlockCount = 0;
+            backyardbrains::utils::AnalysisUtils::parallelFor(blockCount, [&](int b) {
+                if (AnalysisControl::isCancelled(control)) return;
+
+                const Block &block = blocks[b];
+                const int pair = block.eventType * trainCount + block.train;
+                const int *spikes = inSpikeTrains[block.train];
+                const int *events = inEvents[block.eventType];
+                int *raster = outRasters[pair].data();
+                for (int i = block.firstEvent; i < block.lastEvent; i++) {
+                    int position = outTrialStarts[pair][i];
+                    for (int j = firsts[pair][i]; j < lasts[pair][i]; j++) raster[position++] = spikes[j] - events[i];
+                }
+
+                AnalysisControl::setProgress(control, .5f + .5f * ++finishedBlockCount / blockCount);
+            });
+
+            return !AnalysisControl::isCancelled(control);
+        }
+    }
+}
@@ -13,9 +13,11 @@ namespace backyardbrains {
         const unsigned char SampleStreamProcessor::ESCAPE_SEQUENCE_START[] = {0xFF, 0xFF, 0x01, 0x01, 0x80, 0xFF};
         const unsigned char SampleStreamProcessor::ESCAPE_SEQUENCE_END[] = {0xFF, 0xFF, 0x01, 0x01, 0x81, 0xFF};
 
-        SampleStreamProcessor::SampleStreamProcessor(backyardbrains::utils::OnEventListenerListener *listener)
+        SampleStreamProcessor::SampleStreamProcessor(backyardbrains::utils::OnEventListenerListener *listener,
+                                                     backyardbrains::utils::UsbLinkTelemetry *telemetry)
                 : Processor(DEFAULT_SAMPLE_RATE, DEFAULT_CHANNEL_COUNT, DEFAULT_BITS_PER_SAMPLE) {
             SampleStreamProcessor::listener = listener;
+            SampleStreamProcessor::telemetry = telemetry;
         }
 
         SampleStreamProcessor::~SampleStreamProcessor() = default;
@@ -39,6 +41,8 @@ namespace backyardbrains {
             }
             // init events
             eventCounter = 0;
+            // init link health counters
+            framesDecoded = framesDropped = resyncs = escapeMessages = bytesDiscarded = 0;
 
             short sample;
             int sampleIndex;
@@ -100,7 +104,8 @@ namespace backyardbrains {
 
                                 // if less significant byte is also grater then 127 drop whole frame
                                 if (lsb > 127) {
-                                    __android_log_print(ANDROID_LOG_DEBUG, TAG, "LSB > 127! DROP WHOLE FRAME!");
+                                    framesDropped++;
+                                    outOfSync = true;
                                     frameStarted = false;
                                     sampleStarted = false;
                                     currentChannel = 0;
@@ -121,14 +126,16 @@ namespace backyardbrains {
                                 channels[currentChannel][sampleCounters[currentChannel]++] = sample;
 
                                 sampleStarted = false;
-                                if (currentChannel >= channelCount - 1) frameStarted = false;
+                                if (currentChannel >= channelCount - 1) {
+                                    frameStarted = false;
+                                    framesDecoded++;
+                                }
                             } else {
                                 msb = b & CLEANER;
                                 // we already started the frame so if msb is greater then 127 drop whole frame
                                 if (msb > 127) {
-                                    __android_log_print(ANDROID_LOG_DEBUG, TAG,
-                                                        "MSB > 127 WITHIN THE FRAME! DROP WHOLE FRAME!");
-
+                                    framesDropped++;
+                                    outOfSync = true;
                                     frameStarted = false;
                                     sampleStarted = false;
                                     currentChannel = 0;
@@ -145,8 +152,15 @@ namespace backyardbrains {
 
                                 frameStarted = true;
                                 sampleStarted = true;
+
+                                // we found start of the frame after losing frame alignment
+                                if (outOfSync) {
+                                    resyncs++;
+                                    outOfSync = false;
+                                }
                             } else {
-                                __android_log_print(ANDROID_LOG_DEBUG, TAG, "MSB < 128 AT FRAME START! DROP!");
+                                bytesDiscarded++;
+                                outOfSync = true;
 //                                if (batchCounter > 100 && !batchPrinted) {
 //                                    __android_log_print(ANDROID_LOG_DEBUG, TAG, "PREV BATCH: (%d)", inDataPrevLength);
 //                                    char tmp[6];
@@ -209,11 +223,16 @@ namespace backyardbrains {
             outEventCount = eventCounter;
 
             prevChannelCount = channelCount;
+
+            if (telemetry != nullptr) {
+                telemetry->addDecoderStats(framesDecoded, framesDropped, resyncs, escapeMessages, bytesDiscarded);
+            }
         }
 
         void SampleStreamProcessor::processEscapeSequenceMessage(unsigned char *messageBytes, int sampleIndex) {
             // check if it's board type message
             std::string message = reinterpret_cast<char *>(messageBytes);
+            escapeMessages++;
             __android_log_print(ANDROID_LOG_DEBUG, TAG, "ESCAPE SEQUENCE MESSAGE %s AT %d", message.c_str(),
                                 sampleIndex);
             if (backyardbrains::utils::SampleStreamUtils::isHardwareTypeMsg(message)) {
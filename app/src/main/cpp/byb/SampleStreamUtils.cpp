@@ -4,6 +4,8 @@
 
 #include "SampleStreamUtils.h"
 
+#include <cstring>
+
 namespace backyardbrains {
 
     namespace utils {
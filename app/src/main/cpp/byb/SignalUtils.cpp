@@ -4,10 +4,46 @@
 
 #include "SignalUtils.h"
 
+#include <algorithm>
+
 namespace backyardbrains {
 
     namespace utils {
 
+        template<typename T>
+        static int decimateMinMaxImpl(T *outSamples, const T *inSamples, int frameCount, int channelCount, int factor) {
+            if (factor <= 1) {
+                std::copy(inSamples, inSamples + frameCount * channelCount, outSamples);
+                return frameCount;
+            }
+
+            const int bucketSize = 2 * factor;
+            const int bucketCount = frameCount / bucketSize;
+            for (int ch = 0; ch < channelCount; ch++) {
+                for (int b = 0; b < bucketCount; b++) {
+                    const int start = b * bucketSize;
+                    int minIndex = start, maxIndex = start;
+                    T min = inSamples[start * channelCount + ch], max = min;
+                    for (int i = start + 1; i < start + bucketSize; i++) {
+                        T sample = inSamples[i * channelCount + ch];
+                        if (sample < min) {
+                            min = sample;
+                            minIndex = i;
+                        } else if (sample > max) {
+                            max = sample;
+                            maxIndex = i;
+                        }
+                    }
+                    // keep order of occurrence so waveform shape is preserved
+                    const int out = 2 * b * channelCount + ch;
+                    outSamples[out] = minIndex <= maxIndex ? min : max;
+                    outSamples[out + channelCount] = minIndex <= maxIndex ? max : min;
+                }
+            }
+
+            return bucketCount * 2;
+        }
+
         void
         SignalUtils::deinterleaveSignal(short **outSamples, const short *inSamples, int sampleCount, int channelCount) {
             int frameCount = sampleCount / channelCount;
@@ -43,5 +79,15 @@ namespace backyardbrains {
                 outSamples[i] = inSamples[i] / max;
             }
         }
+
+        int SignalUtils::decimateMinMax(short *outSamples, const short *inSamples, int frameCount, int channelCount,
+                                        int factor) {
+            return decimateMinMaxImpl(outSamples, inSamples, frameCount, channelCount, factor);
+        }
+
+        int SignalUtils::decimateMinMax(float *outSamples, const float *inSamples, int frameCount, int channelCount,
+                                        int factor) {
+            return decimateMinMaxImpl(outSamples, inSamples, frameCount, channelCount, factor);
+        }
     }
-}
\ No newline at end of file
+}
@@ -20,17 +20,15 @@ namespace backyardbrains {
             return ((tv.tv_sec * 1000) + (tv.tv_usec / 1000));
         }
 
-        void
-        SpikeAnalysis::findSpikes(const char *filePath, short **outValuesPos, int **outIndicesPos, float **outTimesPos,
-                                  short **outValuesNeg, int **outIndicesNeg, float **outTimesNeg, int *outPosCounts,
-                                  int *outNegCounts) {
+        bool SpikeAnalysis::findSpikes(const char *filePath, OnSpikesFoundListener *listener,
+                                       AnalysisControl *control) {
             long long start = currentTimeInMilliseconds();
 
             // open audio file we need to analyze
             drwav *wavPtr = drwav_open_file(filePath);
             if (wavPtr == nullptr) {
                 __android_log_print(ANDROID_LOG_DEBUG, TAG, "Unable to open file: %s", filePath);
-                return;
+                return false;
             }
 
             // check whether file is long enough for processing
@@ -41,7 +39,8 @@ namespace backyardbrains {
             if (totalSamples < wavPtr->sampleRate * channelCount *
                                backyardbrains::utils::AnalysisUtils::MIN_VALID_FILE_LENGTH_IN_SECS) {
                 __android_log_print(ANDROID_LOG_DEBUG, TAG, "File to short! Don't process!");
-                return;
+                drwav_close(wavPtr);
+                return false;
             }
 
             // determine buffer size
@@ -52,39 +51,29 @@ namespace backyardbrains {
             if (bufferSize > maxBufferSize) bufferSize = maxBufferSize;
 
             // create buffers
-            int deviationsCount = static_cast<int>(ceil(static_cast<float>(totalSamples) / bufferSize));
-            auto *samples = new drwav_int16[bufferSize];
-            auto **deinterleavedSamples = new drwav_int16 *[channelCount];
+            auto deviationsCount = static_cast<int>((totalSamples + bufferSize - 1) / bufferSize);
             auto **standardDeviations = new float *[channelCount];
             for (int i = 0; i < channelCount; i++) {
-                deinterleavedSamples[i] = new drwav_int16[bufferSize]{0};
                 standardDeviations[i] = new float[deviationsCount];
             }
 
-            // 1. FIRST LET'S FIND STANDARD DEVIATIONS FOR EVERY CHUNK and
-            int *deviationCounters = new int[channelCount]{0};
-
-            drwav_uint64 read;
-            int sampleCount = static_cast<int>(bufferSize);
-            int frameCount = sampleCount / channelCount;
-            while ((read = drwav_read_s16(wavPtr, bufferSize, samples)) > 0) {
-                if (sampleCount != static_cast<int>(read)) {
-                    sampleCount = static_cast<int>(read);
-                    frameCount = sampleCount / channelCount;
-                }
-                backyardbrains::utils::SignalUtils::deinterleaveSignal(deinterleavedSamples, samples, sampleCount,
-                                                                       channelCount);
+            // 1. FIRST LET'S FIND STANDARD DEVIATIONS FOR EVERY CHUNK
+            findDeviations(filePath, bufferSize, deviationsCount, channelCount, standardDeviations, control);
+            __android_log_print(ANDROID_LOG_DEBUG, TAG, "%ld - AFTER FINDING DEVIATIONS",
+                                static_cast<long>(currentTimeInMilliseconds() - start));
+            if (AnalysisControl::isCancelled(control)) {
                 for (int i = 0; i < channelCount; i++) {
-                    standardDeviations[i][deviationCounters[i]++] = backyardbrains::utils::AnalysisUtils::SD(
-                            deinterleavedSamples[i], frameCount);
+                    delete[] standardDeviations[i];
                 }
+                delete[] standardDeviations;
+                drwav_close(wavPtr);
+                return false;
             }
-            __android_log_print(ANDROID_LOG_DEBUG, TAG, "%ld - AFTER FINDING DEVIATIONS",
-                                static_cast<long>(currentTimeInMilliseconds() - start));
+            AnalysisControl::setProgress(control, DEVIATIONS_PROGRESS);
 
             // 2. SORT DEVIATIONS ASCENDING
             for (int i = 0; i < channelCount; i++) {
-                std::sort(standardDeviations[i], standardDeviations[i] + deviationCounters[i], std::greater<>());
+                std::sort(standardDeviations[i], standardDeviations[i] + deviationsCount, std::greater<>());
             }
             __android_log_print(ANDROID_LOG_DEBUG, TAG, "%ld - AFTER SORTING AND REVERSING DEVIATIONS",
                                 static_cast<long>(currentTimeInMilliseconds() - start));
@@ -94,241 +83,451 @@ namespace backyardbrains {
             auto *sig = new short[channelCount]{0};
             auto *negSig = new short[channelCount]{0};
             for (int i = 0; i < channelCount; i++) {
-                float tmpSig = 2 * standardDeviations[i][(int) ceil(deviationCounters[i] * 0.4f)];
+                float tmpSig = 2 * standardDeviations[i][(int) ceil(deviationsCount * 0.4f)];
                 sig[i] = static_cast<short>(tmpSig > SHRT_MAX ? SHRT_MAX : tmpSig);
                 float tmpNegSig = -1 * sig[i]; // we need it for negative values as well
                 negSig[i] = static_cast<short>(tmpNegSig < SHRT_MIN ? SHRT_MIN : tmpNegSig);
                 __android_log_print(ANDROID_LOG_DEBUG, TAG, "SIG: %d, NEG_SIG: %d", sig[i], negSig[i]);
             }
 
-            delete[] samples;
             for (int i = 0; i < channelCount; i++) {
-                delete[] deinterleavedSamples[i];
                 delete[] standardDeviations[i];
             }
-            delete[] deinterleavedSamples;
             delete[] standardDeviations;
-            delete[] deviationCounters;
 
             // 4. FIND THE SPIKES IMPLEMENTING SCHMITT TRIGGER
+            // file is split into chunks of buffers that are processed in parallel. positive trigger is always off after
+            // a negative sample (and negative trigger after a positive one) so every chunk starts collecting spikes
+            // from the first such sample within the chunk and stops at the first such sample within the next chunk.
+            // chunks are processed in windows so only spikes of a single window are kept in memory at once
             float sampleRateDivider = (float) 1 / wavPtr->sampleRate;
-            short sample;
-
-            int *schmittPosState = new int[channelCount];
-            int *schmittNegState = new int[channelCount];
-            auto *maxPeakValue = new short[channelCount];
-            auto *minPeakValue = new short[channelCount];
-            int *maxPeakIndex = new int[channelCount]{0};
-            int *minPeakIndex = new int[channelCount]{0};
-            auto *maxPeakTime = new float[channelCount]{0.0f};
-            auto *minPeakTime = new float[channelCount]{0.0f};
-            auto *currentTime = new float[channelCount]{0.0f};
-            int *currentIndex = new int[channelCount]{0};
-            int *spikeCounter = new int[channelCount]{0};
-            int *spikeNegCounter = new int[channelCount]{0};
-
             bufferSize = maxBufferSize; // let's use max buffer size
+            auto bufferCount = static_cast<int>((totalSamples + bufferSize - 1) / bufferSize);
+            auto framesPerBuffer = static_cast<long long>(bufferSize / channelCount);
+            bool canSplit = true;
+            for (int i = 0; i < channelCount; i++) {
+                if (sig[i] < 0 || negSig[i] > 0) canSplit = false;
+            }
+            int buffersPerChunk = canSplit ? 1 : bufferCount;
+            int chunkCount = (bufferCount + buffersPerChunk - 1) / buffersPerChunk;
+            int windowSize = canSplit ? backyardbrains::utils::AnalysisUtils::getThreadCount() * CHUNKS_PER_THREAD : 1;
 
-            samples = new short[bufferSize];
-            deinterleavedSamples = new drwav_int16 *[channelCount];
+            auto *posStreams = new SpikeStream[channelCount];
+            auto *negStreams = new SpikeStream[channelCount];
             for (int i = 0; i < channelCount; i++) {
-                deinterleavedSamples[i] = new drwav_int16[bufferSize]{0};
-                schmittPosState[i] = SCHMITT_OFF;
-                schmittNegState[i] = SCHMITT_OFF;
-                maxPeakValue[i] = SHRT_MIN;
-                minPeakValue[i] = SHRT_MAX;
+                posStreams[i].channel = negStreams[i].channel = i;
+                negStreams[i].positive = false;
             }
+            auto *startTimes = new float[windowSize];
+            float time = 0.0f;
+            long long frame = 0;
+            bool cancelled = false;
+            for (int firstChunk = 0; firstChunk < chunkCount; firstChunk += windowSize) {
+                if ((cancelled = AnalysisControl::isCancelled(control))) break;
+                int windowChunkCount = std::min(windowSize, chunkCount - firstChunk);
 
-            // go to beginning of the file cause we need to run through the file again to find spikes
-            drwav_seek_to_sample(wavPtr, 0);
+                // times are accumulated sample by sample so we need to do the same to get exact time at chunk start
+                for (int i = 0; i < windowChunkCount; i++) {
+                    long long startFrame = (firstChunk + i) * buffersPerChunk * framesPerBuffer;
+                    while (frame < startFrame) {
+                        float nextTime = time + sampleRateDivider;
+                        if (nextTime == time) break; // time doesn't increase anymore
+                        time = nextTime;
+                        frame++;
+                    }
+                    startTimes[i] = time;
+                }
 
-            sampleCount = static_cast<int>(bufferSize);
-            frameCount = sampleCount / channelCount;
-            while ((read = drwav_read_s16(wavPtr, bufferSize, samples)) > 0) {
-                if (sampleCount != static_cast<int>(read)) {
-                    sampleCount = static_cast<int>(read);
-                    frameCount = sampleCount / channelCount;
+                std::vector<ChunkSpikes> posSpikes(static_cast<size_t>(windowChunkCount * channelCount));
+                std::vector<ChunkSpikes> negSpikes(static_cast<size_t>(windowChunkCount * channelCount));
+                backyardbrains::utils::AnalysisUtils::parallelFor(windowChunkCount, [&](int i) {
+                    findChunkSpikes(filePath, bufferSize, totalSamples, channelCount, sampleRateDivider,
+                                    firstChunk + i, buffersPerChunk, bufferCount, startTimes[i], sig, negSig,
+                                    &posSpikes[i * channelCount], &negSpikes[i * channelCount], control);
+                });
+                // chunks of the cancelled analysis may be incomplete so they shouldn't be passed to the listener
+                if ((cancelled = AnalysisControl::isCancelled(control))) break;
+
+                // 5. FILTER FOUND SPIKES BY APPLYING KILL INTERVAL OF 5ms AND PASS THEM TO LISTENER IN ORDER
+                for (int i = 0; i < windowChunkCount; i++) {
+                    for (int channel = 0; channel < channelCount; channel++) {
+                        streamChunkSpikes(posStreams[channel], posSpikes[i * channelCount + channel], listener);
+                        streamChunkSpikes(negStreams[channel], negSpikes[i * channelCount + channel], listener);
+                    }
                 }
-                backyardbrains::utils::SignalUtils::deinterleaveSignal(deinterleavedSamples, samples, sampleCount,
-                                                                       channelCount);
+                AnalysisControl::setProgress(control, DEVIATIONS_PROGRESS + (1.0f - DEVIATIONS_PROGRESS) *
+                                                                            (firstChunk + windowChunkCount) /
+                                                                            chunkCount);
+            }
+            if (!cancelled) {
                 for (int channel = 0; channel < channelCount; channel++) {
-                    // find peaks
-                    for (int i = 0; i < frameCount; i++) {
-                        sample = deinterleavedSamples[channel][i];
-                        // determine state of positive schmitt trigger
-                        if (schmittPosState[channel] == SCHMITT_OFF) {
-                            if (sample > sig[channel]) {
-                                schmittPosState[channel] = SCHMITT_ON;
-                                maxPeakValue[channel] = SHRT_MIN;
-                            }
-                        } else {
-                            if (sample < 0) {
-                                schmittPosState[channel] = SCHMITT_OFF;
-                                outValuesPos[channel][spikeCounter[channel]] = maxPeakValue[channel];
-                                outIndicesPos[channel][spikeCounter[channel]] = maxPeakIndex[channel];
-                                outTimesPos[channel][spikeCounter[channel]] = maxPeakTime[channel];
-                                spikeCounter[channel]++;
-                            } else if (sample > maxPeakValue[channel]) {
-                                maxPeakValue[channel] = sample;
-                                maxPeakIndex[channel] = currentIndex[channel];
-                                maxPeakTime[channel] = currentTime[channel];
-                            }
-                        }
+                    flushSpikes(posStreams[channel], listener);
+                    flushSpikes(negStreams[channel], listener);
+                }
+            }
+            __android_log_print(ANDROID_LOG_DEBUG, TAG, "%ld - AFTER FINDING AND FILTERING SPIKES IN %d CHUNKS",
+                                static_cast<long>(currentTimeInMilliseconds() - start), chunkCount);
+            for (int channel = 0; channel < channelCount; channel++) {
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "FOUND POSITIVE: %d", posStreams[channel].totalCount);
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "FOUND NEGATIVE: %d", negStreams[channel].totalCount);
+            }
 
-                        // determine state of negative schmitt trigger
-                        if (schmittNegState[channel] == SCHMITT_OFF) {
-                            if (sample < negSig[channel]) {
-                                schmittNegState[channel] = SCHMITT_ON;
-                                minPeakValue[channel] = SHRT_MAX;
-                            }
-                        } else {
-                            if (sample > 0) {
-                                schmittNegState[channel] = SCHMITT_OFF;
-                                outValuesNeg[channel][spikeNegCounter[channel]] = minPeakValue[channel];
-                                outIndicesNeg[channel][spikeNegCounter[channel]] = minPeakIndex[channel];
-                                outTimesNeg[channel][spikeNegCounter[channel]] = minPeakTime[channel];
-                                spikeNegCounter[channel]++;
-                            } else if (sample < minPeakValue[channel]) {
-                                minPeakValue[channel] = sample;
-                                minPeakIndex[channel] = currentIndex[channel];
-                                minPeakTime[channel] = currentTime[channel];
-                            }
-                        }
+            delete[] posStreams;
+            delete[] negStreams;
+            delete[] startTimes;
+            delete[] sig;
+            delete[] negSig;
+
+            // close audio file
+            drwav_close(wavPtr);
+
+            return !cancelled;
+        }
 
-                        currentIndex[channel]++;
-                        currentTime[channel] += sampleRateDivider;
+        void SpikeAnalysis::findDeviations(const char *filePath, drwav_uint64 bufferSize, int deviationsCount,
+                                           drwav_uint16 channelCount, float **outStandardDeviations,
+                                           const AnalysisControl *control) {
+            int groupCount = std::min(deviationsCount,
+                                      backyardbrains::utils::AnalysisUtils::getThreadCount() * CHUNKS_PER_THREAD);
+            int buffersPerGroup = (deviationsCount + groupCount - 1) / groupCount;
+            groupCount = (deviationsCount + buffersPerGroup - 1) / buffersPerGroup;
+            backyardbrains::utils::AnalysisUtils::parallelFor(groupCount, [&](int group) {
+                drwav *wavPtr = drwav_open_file(filePath);
+                if (wavPtr == nullptr) {
+                    __android_log_print(ANDROID_LOG_DEBUG, TAG, "Unable to open file: %s", filePath);
+                    return;
+                }
+
+                auto *samples = new drwav_int16[bufferSize];
+                auto **deinterleavedSamples = new drwav_int16 *[channelCount];
+                for (int i = 0; i < channelCount; i++) {
+                    deinterleavedSamples[i] = new drwav_int16[bufferSize]{0};
+                }
+
+                int firstBuffer = group * buffersPerGroup;
+                int lastBuffer = std::min(firstBuffer + buffersPerGroup, deviationsCount);
+                drwav_seek_to_sample(wavPtr, firstBuffer * bufferSize);
+
+                int sampleCount;
+                int frameCount;
+                for (int buffer = firstBuffer; buffer < lastBuffer; buffer++) {
+                    if (AnalysisControl::isCancelled(control)) break;
+                    sampleCount = static_cast<int>(drwav_read_s16(wavPtr, bufferSize, samples));
+                    frameCount = sampleCount / channelCount;
+                    backyardbrains::utils::SignalUtils::deinterleaveSignal(deinterleavedSamples, samples,
+                                                                           sampleCount, channelCount);
+                    for (int i = 0; i < channelCount; i++) {
+                        outStandardDeviations[i][buffer] = backyardbrains::utils::AnalysisUtils::SD(
+                                deinterleavedSamples[i], frameCount);
                     }
                 }
+
+                delete[] samples;
+                for (int i = 0; i < channelCount; i++) {
+                    delete[] deinterleavedSamples[i];
+                }
+                delete[] deinterleavedSamples;
+                drwav_close(wavPtr);
+            });
+        }
+
+        void SpikeAnalysis::findChunkSpikes(const char *filePath, drwav_uint64 bufferSize, drwav_uint64 totalSamples,
+                                            drwav_uint16 channelCount, float sampleRateDivider, int chunk,
+                                            int buffersPerChunk, int bufferCount, float startTime, const short *sig,
+                                            const short *negSig, ChunkSpikes *outPosSpikes,
+                                            ChunkSpikes *outNegSpikes, const AnalysisControl *control) {
+            drwav *wavPtr = drwav_open_file(filePath);
+            if (wavPtr == nullptr) {
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "Unable to open file: %s", filePath);
+                return;
             }
-            delete[] samples;
+
+            int firstBuffer = chunk * buffersPerChunk;
+            int lastBuffer = firstBuffer + buffersPerChunk;
+            auto framesPerBuffer = static_cast<int>(bufferSize / channelCount);
+            // index of the first sample that belongs to the next chunk
+            int chunkEnd = lastBuffer < bufferCount ? lastBuffer * framesPerBuffer : INT_MAX;
+
+            auto *samples = new drwav_int16[bufferSize];
+            auto **deinterleavedSamples = new drwav_int16 *[channelCount];
+            auto *posTriggers = new SchmittTrigger[channelCount];
+            auto *negTriggers = new SchmittTrigger[channelCount];
             for (int i = 0; i < channelCount; i++) {
-                delete[] deinterleavedSamples[i];
+                deinterleavedSamples[i] = new drwav_int16[bufferSize]{0};
+                // first chunk starts from the same state as the serial trigger
+                if (chunk == 0) posTriggers[i].sync = negTriggers[i].sync = SYNC_ACTIVE;
+                posTriggers[i].index = negTriggers[i].index = firstBuffer * framesPerBuffer;
+                posTriggers[i].time = negTriggers[i].time = startTime;
             }
-            delete[] deinterleavedSamples;
-            delete[] sig;
-            delete[] negSig;
-            delete[] schmittPosState;
-            delete[] schmittNegState;
-            delete[] maxPeakValue;
-            delete[] minPeakValue;
-            delete[] maxPeakIndex;
-            delete[] minPeakIndex;
-            delete[] maxPeakTime;
-            delete[] minPeakTime;
-            delete[] currentTime;
-            delete[] currentIndex;
-            __android_log_print(ANDROID_LOG_DEBUG, TAG, "%ld - AFTER FINDING SPIKES",
-                                static_cast<long>(currentTimeInMilliseconds() - start));
+
+            bool active = true;
+            for (int buffer = firstBuffer; active && buffer < bufferCount; buffer++) {
+                if (AnalysisControl::isCancelled(control)) break;
+                // every buffer is deinterleaved separately so samples that don't make a whole frame are skipped
+                drwav_uint64 bufferStart = buffer * bufferSize;
+                drwav_seek_to_sample(wavPtr, bufferStart);
+                auto bufferFrameCount = static_cast<int>(std::min(bufferSize, totalSamples - bufferStart) /
+                                                         channelCount);
+                // triggers usually sync within few samples so buffers of the next chunk are read in small parts
+                int readFrameCount = buffer < lastBuffer ? bufferFrameCount : SYNC_READ_FRAME_COUNT;
+                for (int offset = 0; active && offset < bufferFrameCount; offset += readFrameCount) {
+                    int frameCount = std::min(readFrameCount, bufferFrameCount - offset);
+                    auto sampleCount = static_cast<int>(drwav_read_s16(wavPtr,
+                                                                       static_cast<drwav_uint64>(frameCount *
+                                                                                                 channelCount),
+                                                                       samples));
+                    frameCount = sampleCount / channelCount;
+                    if (frameCount == 0) {
+                        active = false;
+                        break;
+                    }
+                    backyardbrains::utils::SignalUtils::deinterleaveSignal(deinterleavedSamples, samples,
+                                                                           sampleCount, channelCount);
+
+                    active = false;
+                    for (int channel = 0; channel < channelCount; channel++) {
+                        if (posTriggers[channel].sync != SYNC_DONE) {
+                            findPositivePeaks(deinterleavedSamples[channel], frameCount, sig[channel],
+                                              sampleRateDivider, chunkEnd, posTriggers[channel],
+                                              outPosSpikes[channel]);
+                        }
+                        if (negTriggers[channel].sync != SYNC_DONE) {
+                            findNegativePeaks(deinterleavedSamples[channel], frameCount, negSig[channel],
+                                              sampleRateDivider, chunkEnd, negTriggers[channel],
+                                              outNegSpikes[channel]);
+                        }
+                        active |= posTriggers[channel].sync != SYNC_DONE || negTriggers[channel].sync != SYNC_DONE;
+                    }
+                }
+            }
+
             for (int channel = 0; channel < channelCount; channel++) {
-                __android_log_print(ANDROID_LOG_DEBUG, TAG, "FOUND POSITIVE: %d", spikeCounter[channel]);
-                __android_log_print(ANDROID_LOG_DEBUG, TAG, "FOUND NEGATIVE: %d", spikeNegCounter[channel]);
+                ChunkSpikes &posSpikes = outPosSpikes[channel];
+                posSpikes.peakUpdated = posTriggers[channel].peakUpdated;
+                posSpikes.lastPeakIndex = posTriggers[channel].peakIndex;
+                posSpikes.lastPeakTime = posTriggers[channel].peakTime;
+                ChunkSpikes &negSpikes = outNegSpikes[channel];
+                negSpikes.peakUpdated = negTriggers[channel].peakUpdated;
+                negSpikes.lastPeakIndex = negTriggers[channel].peakIndex;
+                negSpikes.lastPeakTime = negTriggers[channel].peakTime;
             }
 
-            // close audio file
+            delete[] samples;
+            for (int i = 0; i < channelCount; i++) {
+                delete[] deinterleavedSamples[i];
+            }
+            delete[] deinterleavedSamples;
+            delete[] posTriggers;
+            delete[] negTriggers;
             drwav_close(wavPtr);
+        }
 
-            // 5. FINALLY WE SHOULD FILTER FOUND SPIKES BY APPLYING KILL INTERVAL OF 5ms
-            int i;
-            int len;
-            int *removedCounter = new int[channelCount]{0};
-            int *removedNegCounter = new int[channelCount]{0};
-            for (int channel = 0; channel < channelCount; channel++) {
-                len = spikeCounter[channel];
-                if (len > 0) { // Filter positive spikes using kill interval
-                    for (i = 0; i < len - 1; i++) { // look on the right
-                        if (outValuesPos[channel][i] < outValuesPos[channel][i + 1]) {
-                            if ((outTimesPos[channel][i + 1] - outTimesPos[channel][i]) < KILL_INTERVAL) {
-                                int numMoved = len - i - 1;
-                                if (numMoved > 0) {
-                                    std::move(outValuesPos[channel] + i + 1, outValuesPos[channel] + i + numMoved,
-                                              outValuesPos[channel] + i);
-                                    std::move(outIndicesPos[channel] + i + 1, outIndicesPos[channel] + i + numMoved,
-                                              outIndicesPos[channel] + i);
-                                    std::move(outTimesPos[channel] + i + 1, outTimesPos[channel] + i + numMoved,
-                                              outTimesPos[channel] + i);
-                                }
-                                len--;
-                                removedCounter[channel]++;
-                                i--;
-                            }
-                        }
+        void SpikeAnalysis::findPositivePeaks(const short *samples, int frameCount, short sig, float sampleRateDivider,
+                                              int chunkEnd, SchmittTrigger &trigger, ChunkSpikes &outSpikes) {
+            int i = 0;
+            int currentIndex = trigger.index;
+            float currentTime = trigger.time;
+            short sample;
+
+            // positive trigger is always off after a negative sample so that's where we sync with the serial trigger
+            if (trigger.sync == SYNC_WAITING) {
+                while (i < frameCount) {
+                    if (currentIndex >= chunkEnd) {
+                        trigger.sync = SYNC_DONE;
+                        return;
                     }
-                    len = i;
-                    for (i = 1; i < len; i++) { // look on the left neighbor
-                        if (outValuesPos[channel][i] < outValuesPos[channel][i - 1]) {
-                            if ((outTimesPos[channel][i] - outTimesPos[channel][i - 1]) < KILL_INTERVAL) {
-                                int numMoved = len - i - 1;
-                                if (numMoved > 0) {
-                                    std::move(outValuesPos[channel] + i + 1, outValuesPos[channel] + i + numMoved,
-                                              outValuesPos[channel] + i);
-                                    std::move(outIndicesPos[channel] + i + 1, outIndicesPos[channel] + i + numMoved,
-                                              outIndicesPos[channel] + i);
-                                    std::move(outTimesPos[channel] + i + 1, outTimesPos[channel] + i + numMoved,
-                                              outTimesPos[channel] + i);
-                                }
-                                len--;
-                                removedCounter[channel]++;
-                                i--;
-                            }
-                        }
+                    sample = samples[i++];
+                    currentIndex++;
+                    currentTime += sampleRateDivider;
+                    if (sample < 0) {
+                        trigger.sync = SYNC_ACTIVE;
+                        break;
                     }
                 }
-                len = spikeNegCounter[channel];
-                if (len > 0) { // Filter negative spikes using kill interval
-                    for (i = 0; i < len - 1; i++) { // look on the right
-                        if (outValuesNeg[channel][i] > outValuesNeg[channel][i + 1]) {
-                            if ((outTimesNeg[channel][i + 1] - outTimesNeg[channel][i]) < KILL_INTERVAL) {
-                                int numMoved = len - i - 1;
-                                if (numMoved > 0) {
-                                    std::move(outValuesNeg[channel] + i + 1, outValuesNeg[channel] + i + numMoved,
-                                              outValuesNeg[channel] + i);
-                                    std::move(outIndicesNeg[channel] + i + 1, outIndicesNeg[channel] + i + numMoved,
-                                              outIndicesNeg[channel] + i);
-                                    std::move(outTimesNeg[channel] + i + 1, outTimesNeg[channel] + i + numMoved,
-                                              outTimesNeg[channel] + i);
-                                }
-                                len--;
-                                removedNegCounter[channel]++;
-                                i--;
-                            }
+            }
+
+            if (trigger.sync == SYNC_ACTIVE) {
+                int state = trigger.state;
+                short peakValue = trigger.peakValue;
+                int peakIndex = trigger.peakIndex;
+                float peakTime = trigger.peakTime;
+                bool peakUpdated = trigger.peakUpdated;
+                for (; i < frameCount; i++) {
+                    sample = samples[i];
+                    if (state == SCHMITT_OFF) {
+                        if (sample > sig) {
+                            state = SCHMITT_ON;
+                            peakValue = SHRT_MIN;
+                        }
+                    } else {
+                        if (sample < 0) {
+                            state = SCHMITT_OFF;
+                            if (!peakUpdated) outSpikes.staleCount++;
+                            outSpikes.values.push_back(peakValue);
+                            outSpikes.indices.push_back(peakIndex);
+                            outSpikes.times.push_back(peakTime);
+                        } else if (sample > peakValue) {
+                            peakValue = sample;
+                            peakIndex = currentIndex;
+                            peakTime = currentTime;
+                            peakUpdated = true;
                         }
                     }
-                    len = i;
-                    for (i = 1; i < len; i++) { // look on the left neighbor
-                        if (outValuesNeg[channel][i] > outValuesNeg[channel][i - 1]) {
-                            if ((outTimesNeg[channel][i] - outTimesNeg[channel][i - 1]) < KILL_INTERVAL) {
-                                int numMoved = len - i - 1;
-                                if (numMoved > 0) {
-                                    std::move(outValuesNeg[channel] + i + 1, outValuesNeg[channel] + i + numMoved,
-                                              outValuesNeg[channel] + i);
-                                    std::move(outIndicesNeg[channel] + i + 1, outIndicesNeg[channel] + i + numMoved,
-                                              outIndicesNeg[channel] + i);
-                                    std::move(outTimesNeg[channel] + i + 1, outTimesNeg[channel] + i + numMoved,
-                                              outTimesNeg[channel] + i);
-                                }
-                                len--;
-                                removedNegCounter[channel]++;
-                                i--;
-                            }
+                    // next chunk takes over from the first negative sample within it
+                    if (currentIndex >= chunkEnd && sample < 0) {
+                        trigger.sync = SYNC_DONE;
+                        break;
+                    }
+
+                    currentIndex++;
+                    currentTime += sampleRateDivider;
+                }
+                trigger.state = state;
+                trigger.peakValue = peakValue;
+                trigger.peakIndex = peakIndex;
+                trigger.peakTime = peakTime;
+                trigger.peakUpdated = peakUpdated;
+            }
+
+            trigger.index = currentIndex;
+            trigger.time = currentTime;
+        }
+
+        void SpikeAnalysis::findNegativePeaks(const short *samples, int frameCount, short negSig,
+                                              float sampleRateDivider, int chunkEnd, SchmittTrigger &trigger,
+                                              ChunkSpikes &outSpikes) {
+            int i = 0;
+            int currentIndex = trigger.index;
+            float currentTime = trigger.time;
+            short sample;
+
+            // negative trigger is always off after a positive sample so that's where we sync with the serial trigger
+            if (trigger.sync == SYNC_WAITING) {
+                while (i < frameCount) {
+                    if (currentIndex >= chunkEnd) {
+                        trigger.sync = SYNC_DONE;
+                        return;
+                    }
+                    sample = samples[i++];
+                    currentIndex++;
+                    currentTime += sampleRateDivider;
+                    if (sample > 0) {
+                        trigger.sync = SYNC_ACTIVE;
+                        break;
+                    }
+                }
+            }
+
+            if (trigger.sync == SYNC_ACTIVE) {
+                int state = trigger.state;
+                short peakValue = trigger.peakValue;
+                int peakIndex = trigger.peakIndex;
+                float peakTime = trigger.peakTime;
+                bool peakUpdated = trigger.peakUpdated;
+                for (; i < frameCount; i++) {
+                    sample = samples[i];
+                    if (state == SCHMITT_OFF) {
+                        if (sample < negSig) {
+                            state = SCHMITT_ON;
+                            peakValue = SHRT_MAX;
                         }
+                    } else {
+                        if (sample > 0) {
+                            state = SCHMITT_OFF;
+                            if (!peakUpdated) outSpikes.staleCount++;
+                            outSpikes.values.push_back(peakValue);
+                            outSpikes.indices.push_back(peakIndex);
+                            outSpikes.times.push_back(peakTime);
+                        } else if (sample < peakValue) {
+                            peakValue = sample;
+                            peakIndex = currentIndex;
+                            peakTime = currentTime;
+                            peakUpdated = true;
+                        }
+                    }
+                    // next chunk takes over from the first positive sample within it
+                    if (currentIndex >= chunkEnd && sample > 0) {
+                        trigger.sync = SYNC_DONE;
+                        break;
                     }
+
+                    currentIndex++;
+                    currentTime += sampleRateDivider;
                 }
-                outPosCounts[channel] = spikeCounter[channel] - removedCounter[channel];
-                outNegCounts[channel] = spikeNegCounter[channel] - removedNegCounter[channel];
+                trigger.state = state;
+                trigger.peakValue = peakValue;
+                trigger.peakIndex = peakIndex;
+                trigger.peakTime = peakTime;
+                trigger.peakUpdated = peakUpdated;
             }
-            __android_log_print(ANDROID_LOG_DEBUG, TAG, "%ld - AFTER FILTERING SPIKES",
-                                static_cast<long>(currentTimeInMilliseconds() - start));
-            for (int channel = 0; channel < channelCount; channel++) {
-                __android_log_print(ANDROID_LOG_DEBUG, TAG, "FOUND POSITIVE: %d",
-                                    (spikeCounter[channel] - removedCounter[channel]));
-                __android_log_print(ANDROID_LOG_DEBUG, TAG, "FOUND NEGATIVE: %d",
-                                    (spikeNegCounter[channel] - removedNegCounter[channel]));
+
+            trigger.index = currentIndex;
+            trigger.time = currentTime;
+        }
+
+        void SpikeAnalysis::streamChunkSpikes(SpikeStream &stream, const ChunkSpikes &spikes,
+                                              OnSpikesFoundListener *listener) {
+            auto count = static_cast<int>(spikes.values.size());
+            for (int i = 0; i < count; i++) {
+                // spikes collected before first peak update carry index and time of the last update before the chunk
+                if (i < spikes.staleCount) {
+                    filterSpike(stream, spikes.values[i], stream.lastPeakIndex, stream.lastPeakTime, listener);
+                } else {
+                    filterSpike(stream, spikes.values[i], spikes.indices[i], spikes.times[i], listener);
+                }
+            }
+            if (spikes.peakUpdated) {
+                stream.lastPeakIndex = spikes.lastPeakIndex;
+                stream.lastPeakTime = spikes.lastPeakTime;
+            }
+        }
+
+        void SpikeAnalysis::filterSpike(SpikeStream &stream, short value, int index, float time,
+                                        OnSpikesFoundListener *listener) {
+            if (stream.hasCandidate) {
+                bool smaller = stream.positive ? stream.candidateValue < value : stream.candidateValue > value;
+                if (!smaller || time - stream.candidateTime >= KILL_INTERVAL) {
+                    acceptSpike(stream, stream.candidateValue, stream.candidateIndex, stream.candidateTime, listener);
+                }
             }
+            stream.hasCandidate = true;
+            stream.candidateValue = value;
+            stream.candidateIndex = index;
+            stream.candidateTime = time;
+        }
+
+        void SpikeAnalysis::acceptSpike(SpikeStream &stream, short value, int index, float time,
+                                        OnSpikesFoundListener *listener) {
+            if (stream.hasAccepted) {
+                bool smaller = stream.positive ? value < stream.acceptedValue : value > stream.acceptedValue;
+                if (smaller && time - stream.acceptedTime < KILL_INTERVAL) return;
+            }
+            stream.hasAccepted = true;
+            stream.acceptedValue = value;
+            stream.acceptedTime = time;
+
+            stream.values[stream.count] = value;
+            stream.indices[stream.count] = index;
+            stream.times[stream.count] = time;
+            stream.totalCount++;
+            if (++stream.count == SPIKE_BATCH_SIZE) {
+                listener->onSpikesFound(stream.channel, stream.positive, stream.values, stream.indices, stream.times,
+                                        stream.count);
+                stream.count = 0;
+            }
+        }
 
-            delete[] spikeCounter;
-            delete[] spikeNegCounter;
-            delete[] removedCounter;
-            delete[] removedNegCounter;
+        void SpikeAnalysis::flushSpikes(SpikeStream &stream, OnSpikesFoundListener *listener) {
+            // last spike doesn't have right neighbor
+            if (stream.hasCandidate) {
+                acceptSpike(stream, stream.candidateValue, stream.candidateIndex, stream.candidateTime, listener);
+                stream.hasCandidate = false;
+            }
+            if (stream.count > 0) {
+                listener->onSpikesFound(stream.channel, stream.positive, stream.values, stream.indices, stream.times,
+                                        stream.count);
+                stream.count = 0;
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,634 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "SpikeClusteringAnalysis.h"
+
+namespace backyardbrains {
+
+    namespace analysis {
+
+        const char *SpikeClusteringAnalysis::TAG = "SpikeClusteringAnalysis";
+
+        const drwav_uint64 SpikeClusteringAnalysis::BUFFER_SAMPLE_COUNT = 1 << 20;
+
+        const drwav_uint64 SpikeClusteringAnalysis::MAX_GAP_FRAME_COUNT = 1 << 13;
+
+        SpikeClusteringAnalysis::SpikeClusteringAnalysis() = default;
+
+        SpikeClusteringAnalysis::~SpikeClusteringAnalysis() = default;
+
+        int SpikeClusteringAnalysis::process(const char *filePath, const char *scratchFilePath, int channel,
+                                             const int *inSpikeIndices, int spikeCount, int clusterCount,
+                                             signed char *outClusters, AnalysisControl *control) {
+            std::fill(outClusters, outClusters + std::max(0, spikeCount), NO_CLUSTER);
+            if (spikeCount <= 0) return 0;
+            clusterCount = std::min(std::max(clusterCount, 1), MAX_CLUSTER_COUNT);
+
+            // scratch file is unlinked right away so it's deleted once it's closed, even if the app is killed
+            const int fd = open(scratchFilePath, O_RDWR | O_CREAT | O_TRUNC, 0600);
+            if (fd < 0) {
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "Unable to create scratch file: %s", scratchFilePath);
+                return 0;
+            }
+            unlink(scratchFilePath);
+
+            std::vector<int> positions;
+            Basis basis{};
+            const int count = extract(filePath, fd, channel, inSpikeIndices, spikeCount, positions, basis.length,
+                                      control);
+            if (count == 0 || !calculateBasis(fd, count, basis, control)) {
+                close(fd);
+                return 0;
+            }
+
+            // sample of spikes evenly spread over the whole recording
+            const int sampleCount = std::min(count, SAMPLE_SPIKE_COUNT);
+            std::vector<float> sample(static_cast<size_t>(sampleCount * FEATURE_COUNT));
+            std::vector<drwav_int16> snippet(static_cast<size_t>(basis.length));
+            for (int i = 0; i < sampleCount; i++) {
+                const auto index = static_cast<int>(static_cast<long long>(i) * count / sampleCount);
+                if (!readSnippets(fd, basis.length, index, 1, snippet.data())) {
+                    close(fd);
+                    return 0;
+                }
+                project(basis, snippet.data(), &sample[i * FEATURE_COUNT]);
+            }
+
+            // runs are independent and each has its own seed so the result doesn't depend on the number of threads
+            int k = std::min(2 * clusterCount, sampleCount);
+            std::vector<float> runCenters(static_cast<size_t>(RUN_COUNT * k * FEATURE_COUNT));
+            std::atomic<int> finishedRunCount{0};
+            backyardbrains::utils::AnalysisUtils::parallelFor(RUN_COUNT, [&](int run) {
+                runKMeans(fd, count, basis, sample, sampleCount, k, SEED + run, &runCenters[run * k * FEATURE_COUNT],
+                          control);
+                AnalysisControl::setProgress(control, EXTRACTION_PROGRESS + PCA_PROGRESS +
+                                                      K_MEANS_PROGRESS * ++finishedRunCount / RUN_COUNT);
+            });
+            if (AnalysisControl::isCancelled(control)) {
+                close(fd);
+                return 0;
+            }
+
+            // run whose centers are the closest to the sample spikes wins
+            int bestRun = 0;
+            double minInertia = std::numeric_limits<double>::max();
+            for (int run = 0; run < RUN_COUNT; run++) {
+                double inertia = 0.0;
+                float distance;
+                for (int i = 0; i < sampleCount; i++) {
+                    findNearest(&sample[i * FEATURE_COUNT], &runCenters[run * k * FEATURE_COUNT], k, distance);
+                    inertia += distance;
+                }
+                if (inertia < minInertia) {
+                    minInertia = inertia;
+                    bestRun = run;
+                }
+            }
+            float centers[MAX_INITIAL_CLUSTER_COUNT * FEATURE_COUNT];
+            std::copy(&runCenters[bestRun * k * FEATURE_COUNT], &runCenters[(bestRun + 1) * k * FEATURE_COUNT],
+                      centers);
+            int outlierCount;
+            k = merge(sample, sampleCount, centers, k, clusterCount, outlierCount);
+
+            // every spike is assigned to the nearest cluster in chunks that are processed in parallel
+            const int chunkCount = (count + CHUNK_SPIKE_COUNT - 1) / CHUNK_SPIKE_COUNT;
+            std::vector<int> chunkSizes(static_cast<size_t>(chunkCount * MAX_CLUSTER_COUNT), 0);
+            std::atomic<int> finishedChunkCount{0};
+            std::atomic<bool> failed{false};
+            backyardbrains::utils::AnalysisUtils::parallelFor(chunkCount, [&](int chunk) {
+                if (failed || AnalysisControl::isCancelled(control)) return;
+
+                const int first = chunk * CHUNK_SPIKE_COUNT;
+                const int n = std::min(CHUNK_SPIKE_COUNT, count - first);
+                std::vector<drwav_int16> snippets(static_cast<size_t>(n * basis.length));
+                if (!readSnippets(fd, basis.length, first, n, snippets.data())) {
+                    failed = true;
+                    return;
+                }
+                float features[FEATURE_COUNT];
+                float distance;
+                for (int i = 0; i < n; i++) {
+                    project(basis, &snippets[i * basis.length], features);
+                    // spikes nearest to one of the outlier clusters are not clustered
+                    const int cluster = findNearest(features, centers, k + outlierCount, distance);
+                    if (cluster >= k) continue;
+
+                    outClusters[positions[first + i]] = static_cast<signed char>(cluster);
+                    chunkSizes[chunk * MAX_CLUSTER_COUNT + cluster]++;
+                }
+                AnalysisControl::setProgress(control, EXTRACTION_PROGRESS + PCA_PROGRESS + K_MEANS_PROGRESS +
+                                                      (1.0f - EXTRACTION_PROGRESS - PCA_PROGRESS - K_MEANS_PROGRESS) *
+                                                      ++finishedChunkCount / chunkCount);
+            });
+            close(fd);
+            if (failed || AnalysisControl::isCancelled(control)) {
+                std::fill(outClusters, outClusters + spikeCount, NO_CLUSTER);
+                return 0;
+            }
+
+            // clusters are ordered by size so the order doesn't depend on the seeds and empty ones are dropped
+            int sizes[MAX_CLUSTER_COUNT] = {0};
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                for (int c = 0; c < k; c++) sizes[c] += chunkSizes[chunk * MAX_CLUSTER_COUNT + c];
+            }
+            int order[MAX_CLUSTER_COUNT];
+            for (int c = 0; c < k; c++) order[c] = c;
+            std::stable_sort(order, order + k, [&sizes](int c1, int c2) { return sizes[c1] > sizes[c2]; });
+            signed char labels[MAX_CLUSTER_COUNT];
+            int nonEmptyCount = 0;
+            for (int i = 0; i < k; i++) {
+                labels[order[i]] = static_cast<signed char>(i);
+                if (sizes[order[i]] > 0) nonEmptyCount++;
+            }
+            for (int i = 0; i < spikeCount; i++) {
+                if (outClusters[i] != NO_CLUSTER) outClusters[i] = labels[outClusters[i]];
+            }
+
+            __android_log_print(ANDROID_LOG_DEBUG, TAG, "Clustered %d spikes into %d clusters", count, nonEmptyCount);
+
+            return nonEmptyCount;
+        }
+
+        int SpikeClusteringAnalysis::extract(const char *filePath, int fd, int channel, const int *inSpikeIndices,
+                                             int spikeCount, std::vector<int> &outPositions, int &outLength,
+                                             AnalysisControl *control) {
+            // open audio file we need to analyze
+            drwav *wavPtr = drwav_open_file(filePath);
+            if (wavPtr == nullptr) {
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "Unable to open file: %s", filePath);
+                return 0;
+            }
+            const int channelCount = wavPtr->channels;
+            if (channel < 0 || channel >= channelCount) {
+                drwav_close(wavPtr);
+                return 0;
+            }
+
+            const drwav_uint64 totalFrames = wavPtr->totalSampleCount / channelCount;
+            const auto pre = static_cast<int>(SNIPPET_PRE_SECONDS * wavPtr->sampleRate);
+            const auto post = static_cast<int>(SNIPPET_POST_SECONDS * wavPtr->sampleRate);
+            const auto alignment = static_cast<int>(SNIPPET_ALIGNMENT_SECONDS * wavPtr->sampleRate);
+            const int length = pre + post + 1;
+            const int windowLength = length + 2 * alignment;
+            const auto wl = static_cast<drwav_uint64>(windowLength);
+            outLength = length;
+
+            // windows are sorted by position so file can be read in a single pass
+            std::vector<Snippet> windows;
+            windows.reserve(static_cast<size_t>(spikeCount));
+            for (int i = 0; i < spikeCount; i++) {
+                const int index = inSpikeIndices[i];
+                if (index < pre + alignment || index - pre - alignment + wl > totalFrames) continue;
+                windows.push_back({static_cast<drwav_uint64>(index - pre - alignment), i});
+            }
+            std::stable_sort(windows.begin(), windows.end(), [](const Snippet &s1, const Snippet &s2) {
+                return s1.start < s2.start;
+            });
+            outPositions.clear();
+            outPositions.reserve(windows.size());
+
+            // buffer always holds frames between bufferStart and bufferEnd, it's filled the same way as in average
+            // spike analysis
+            const drwav_uint64 bufferCapacity = std::max(BUFFER_SAMPLE_COUNT / channelCount, wl);
+            std::vector<drwav_int16> buffer(static_cast<size_t>(bufferCapacity * channelCount));
+            drwav_uint64 bufferStart = 0;
+            drwav_uint64 bufferEnd = 0;
+            std::vector<drwav_int16> window(static_cast<size_t>(windowLength));
+            std::vector<drwav_int16> sorted(static_cast<size_t>(windowLength));
+            std::vector<drwav_int16> snippets(static_cast<size_t>(CHUNK_SPIKE_COUNT * length));
+            int snippetCount = 0;
+            bool failed = false;
+            for (size_t i = 0; i < windows.size(); i++) {
+                const Snippet &s = windows[i];
+                const drwav_uint64 windowEnd = s.start + wl;
+                if (windowEnd > bufferEnd) {
+                    if ((failed = AnalysisControl::isCancelled(control))) break;
+                    AnalysisControl::setProgress(control, EXTRACTION_PROGRESS * i / windows.size());
+
+                    if (s.start < bufferEnd) {
+                        std::copy(buffer.begin() + (s.start - bufferStart) * channelCount,
+                                  buffer.begin() + (bufferEnd - bufferStart) * channelCount, buffer.begin());
+                    } else {
+                        if (s.start > bufferEnd) drwav_seek_to_sample(wavPtr, s.start * channelCount);
+                        bufferEnd = s.start;
+                    }
+                    bufferStart = s.start;
+
+                    drwav_uint64 readEnd = windowEnd;
+                    for (size_t j = i + 1; j < windows.size(); j++) {
+                        const drwav_uint64 nextEnd = windows[j].start + wl;
+                        if (windows[j].start > readEnd + MAX_GAP_FRAME_COUNT || nextEnd - bufferStart > bufferCapacity) {
+                            break;
+                        }
+                        readEnd = std::max(readEnd, nextEnd);
+                    }
+                    bufferEnd += drwav_read_s16(wavPtr, (readEnd - bufferEnd) * channelCount,
+                                                buffer.data() + (bufferEnd - bufferStart) * channelCount) /
+                                 channelCount;
+                    // file is shorter than its header claims
+                    if (windowEnd > bufferEnd) break;
+                }
+
+                const drwav_int16 *frames = buffer.data() + (s.start - bufferStart) * channelCount;
+                for (int j = 0; j < windowLength; j++) window[j] = frames[j * channelCount + channel];
+
+                // waveform is taken relative to the median of its window so DC offset doesn't affect clustering and
+                // multiphasic spikes detected on different phases are all aligned to the strongest one
+                std::copy(window.begin(), window.end(), sorted.begin());
+                std::nth_element(sorted.begin(), sorted.begin() + windowLength / 2, sorted.end());
+                const int median = sorted[windowLength / 2];
+                int aligned = pre + alignment;
+                int maxDistance = -1;
+                for (int j = pre; j <= pre + 2 * alignment; j++) {
+                    const int distance = std::abs(window[j] - median);
+                    if (distance > maxDistance) {
+                        maxDistance = distance;
+                        aligned = j;
+                    }
+                }
+                drwav_int16 *snippet = &snippets[snippetCount * length];
+                for (int j = 0; j < length; j++) {
+                    const int value = window[aligned - pre + j] - median;
+                    snippet[j] = static_cast<drwav_int16>(std::min(std::max(value, -32768), 32767));
+                }
+                outPositions.push_back(s.position);
+
+                if (++snippetCount == CHUNK_SPIKE_COUNT) {
+                    if ((failed = !writeSnippets(fd, snippets.data(), static_cast<size_t>(snippetCount * length)))) {
+                        break;
+                    }
+                    snippetCount = 0;
+                }
+            }
+            if (!failed && snippetCount > 0) {
+                failed = !writeSnippets(fd, snippets.data(), static_cast<size_t>(snippetCount * length));
+            }
+
+            // close audio file
+            drwav_close(wavPtr);
+
+            return failed ? 0 : static_cast<int>(outPositions.size());
+        }
+
+        bool SpikeClusteringAnalysis::calculateBasis(int fd, int count, Basis &basis, AnalysisControl *control) {
+            const int length = basis.length;
+            const auto l = static_cast<size_t>(length);
+
+            // every task sums up waveforms and their products within its range of chunks, products are summed up in
+            // floats within a chunk and then added to the doubles so the inner loop can be vectorized
+            const int chunkCount = (count + CHUNK_SPIKE_COUNT - 1) / CHUNK_SPIKE_COUNT;
+            const int taskCount = std::min(backyardbrains::utils::AnalysisUtils::getThreadCount(), chunkCount);
+            std::vector<double> taskSums(taskCount * l, 0.0);
+            std::vector<double> taskProducts(taskCount * l * l, 0.0);
+            std::atomic<int> finishedChunkCount{0};
+            std::atomic<bool> failed{false};
+            backyardbrains::utils::AnalysisUtils::parallelFor(taskCount, [&](int task) {
+                double *sums = &taskSums[task * l];
+                double *products = &taskProducts[task * l * l];
+                std::vector<drwav_int16> snippets(CHUNK_SPIKE_COUNT * l);
+                std::vector<float> snippet(l);
+                std::vector<float> chunkProducts(l * l);
+                for (int chunk = chunkCount * task / taskCount; chunk < chunkCount * (task + 1) / taskCount; chunk++) {
+                    if (failed || AnalysisControl::isCancelled(control)) return;
+
+                    const int first = chunk * CHUNK_SPIKE_COUNT;
+                    const int n = std::min(CHUNK_SPIKE_COUNT, count - first);
+                    if (!readSnippets(fd, length, first, n, snippets.data())) {
+                        failed = true;
+                        return;
+                    }
+                    std::fill(chunkProducts.begin(), chunkProducts.end(), 0.0f);
+                    for (int s = 0; s < n; s++) {
+                        const drwav_int16 *samples = &snippets[s * l];
+                        for (int i = 0; i < length; i++) {
+                            snippet[i] = samples[i];
+                            sums[i] += samples[i];
+                        }
+                        for (int i = 0; i < length; i++) {
+                            const float value = snippet[i];
+                            float *row = &chunkProducts[i * l];
+                            for (int j = i; j < length; j++) row[j] += value * snippet[j];
+                        }
+                    }
+                    for (size_t i = 0; i < l * l; i++) products[i] += chunkProducts[i];
+
+                    AnalysisControl::setProgress(control, EXTRACTION_PROGRESS +
+                                                          PCA_PROGRESS * ++finishedChunkCount / chunkCount);
+                }
+            });
+            if (failed || AnalysisControl::isCancelled(control)) return false;
+
+            const double n = count;
+            std::vector<double> mean(l, 0.0);
+            for (int t = 0; t < taskCount; t++) {
+                for (size_t i = 0; i < l; i++) mean[i] += taskSums[t * l + i];
+            }
+            for (size_t i = 0; i < l; i++) mean[i] /= n;
+            std::vector<double> covariance(l * l, 0.0);
+            for (size_t i = 0; i < l; i++) {
+                for (size_t j = i; j < l; j++) {
+                    double sum = 0.0;
+                    for (int t = 0; t < taskCount; t++) sum += taskProducts[t * l * l + i * l + j];
+                    const double c = sum / n - mean[i] * mean[j];
+                    covariance[i * l + j] = c;
+                    covariance[j * l + i] = c;
+                }
+            }
+
+            // same as in the live spike sorter, power iteration finds the strongest component and already found
+            // components are removed from the result of every iteration so it converges to the next one
+            basis.mean.resize(l);
+            for (size_t i = 0; i < l; i++) basis.mean[i] = static_cast<float>(mean[i]);
+            basis.components.assign(FEATURE_COUNT * l, 0.0f);
+            std::vector<double> component(l);
+            std::vector<double> nextComponent(l);
+            for (int c = 0; c < FEATURE_COUNT; c++) {
+                for (int i = 0; i < length; i++) component[i] = 1.0 + static_cast<double>(i) / length;
+                for (int it = 0; it < POWER_ITERATION_COUNT; it++) {
+                    for (size_t i = 0; i < l; i++) {
+                        double v = 0.0;
+                        const double *row = &covariance[i * l];
+                        for (size_t j = 0; j < l; j++) v += row[j] * component[j];
+                        nextComponent[i] = v;
+                    }
+                    for (int p = 0; p < c; p++) {
+                        const float *prev = &basis.components[p * l];
+                        double dot = 0.0;
+                        for (size_t i = 0; i < l; i++) dot += nextComponent[i] * prev[i];
+                        for (size_t i = 0; i < l; i++) nextComponent[i] -= dot * prev[i];
+                    }
+                    double norm = 0.0;
+                    for (size_t i = 0; i < l; i++) norm += nextComponent[i] * nextComponent[i];
+                    norm = std::sqrt(norm);
+                    if (norm == 0.0) break;
+                    for (size_t i = 0; i < l; i++) component[i] = nextComponent[i] / norm;
+                }
+                for (size_t i = 0; i < l; i++) basis.components[c * l + i] = static_cast<float>(component[i]);
+            }
+
+            return true;
+        }
+
+        void SpikeClusteringAnalysis::runKMeans(int fd, int count, const Basis &basis,
+                                                const std::vector<float> &sample, int sampleCount, int k,
+                                                unsigned int seed, float *outCenters,
+                                                const AnalysisControl *control) {
+            std::mt19937 random(seed);
+
+            // k-means++ seeding, every next center is picked from the sample with probability proportional to the
+            // squared distance from the nearest of the already picked centers
+            std::vector<float> distances(static_cast<size_t>(sampleCount), std::numeric_limits<float>::max());
+            int picked = std::uniform_int_distribution<int>(0, sampleCount - 1)(random);
+            for (int c = 0; c < k; c++) {
+                std::copy(&sample[picked * FEATURE_COUNT], &sample[(picked + 1) * FEATURE_COUNT],
+                          &outCenters[c * FEATURE_COUNT]);
+                if (c == k - 1) break;
+
+                double total = 0.0;
+                for (int i = 0; i < sampleCount; i++) {
+                    float distance = 0.0f;
+                    for (int f = 0; f < FEATURE_COUNT; f++) {
+                        const float d = sample[i * FEATURE_COUNT + f] - outCenters[c * FEATURE_COUNT + f];
+                        distance += d * d;
+                    }
+                    distances[i] = std::min(distances[i], distance);
+                    total += distances[i];
+                }
+                if (total == 0.0) {
+                    picked = std::uniform_int_distribution<int>(0, sampleCount - 1)(random);
+                    continue;
+                }
+                double target = std::uniform_real_distribution<double>(0.0, total)(random);
+                picked = sampleCount - 1;
+                for (int i = 0; i < sampleCount; i++) {
+                    target -= distances[i];
+                    if (target < 0.0) {
+                        picked = i;
+                        break;
+                    }
+                }
+            }
+
+            // every mini-batch is made of blocks of consecutive spikes so it's read with only a few reads, while
+            // blocks are picked from the whole recording
+            const int blockCount = (count + BLOCK_SPIKE_COUNT - 1) / BLOCK_SPIKE_COUNT;
+            std::uniform_int_distribution<int> blocks(0, blockCount - 1);
+            std::vector<drwav_int16> snippets(static_cast<size_t>(BLOCK_SPIKE_COUNT * basis.length));
+            std::vector<float> batch(static_cast<size_t>(BATCH_BLOCK_COUNT * BLOCK_SPIKE_COUNT * FEATURE_COUNT));
+            std::vector<int> assignments(static_cast<size_t>(BATCH_BLOCK_COUNT * BLOCK_SPIKE_COUNT));
+            int sizes[MAX_INITIAL_CLUSTER_COUNT] = {0};
+            float distance;
+            for (int b = 0; b < BATCH_COUNT; b++) {
+                if (AnalysisControl::isCancelled(control)) return;
+
+                int n = 0;
+                for (int i = 0; i < BATCH_BLOCK_COUNT; i++) {
+                    const int first = blocks(random) * BLOCK_SPIKE_COUNT;
+                    const int blockSize = std::min(BLOCK_SPIKE_COUNT, count - first);
+                    if (!readSnippets(fd, basis.length, first, blockSize, snippets.data())) return;
+                    for (int j = 0; j < blockSize; j++, n++) {
+                        project(basis, &snippets[j * basis.length], &batch[n * FEATURE_COUNT]);
+                    }
+                }
+
+                // spikes are assigned to the centers from before the batch and each center then moves towards its
+                // spikes with the learning rate that decreases with the number of spikes assigned to it so far
+                for (int i = 0; i < n; i++) {
+                    assignments[i] = findNearest(&batch[i * FEATURE_COUNT], outCenters, k, distance);
+                }
+                for (int i = 0; i < n; i++) {
+                    const int c = assignments[i];
+                    const float rate = 1.0f / ++sizes[c];
+                    for (int f = 0; f < FEATURE_COUNT; f++) {
+                        outCenters[c * FEATURE_COUNT + f] +=
+                                rate * (batch[i * FEATURE_COUNT + f] - outCenters[c * FEATURE_COUNT + f]);
+                    }
+                }
+            }
+        }
+
+        int SpikeClusteringAnalysis::merge(const std::vector<float> &sample, int sampleCount, float *centers, int k,
+                                           int maxCount, int &outOutlierCount) {
+            std::vector<int> assignments(static_cast<size_t>(sampleCount));
+            int sizes[MAX_INITIAL_CLUSTER_COUNT];
+            outOutlierCount = 0;
+            while (k > 1) {
+                refine(sample, sampleCount, centers, k, outOutlierCount, assignments, sizes);
+
+                int smallest = 0;
+                for (int u = 1; u < k; u++) if (sizes[u] < sizes[smallest]) smallest = u;
+                int removed;
+                float removedCenter[FEATURE_COUNT];
+                bool outlier = false;
+                if (sizes[smallest] < MIN_CLUSTER_SHARE * sampleCount) {
+                    // clusters that are too small are most likely made of outliers
+                    removed = smallest;
+                    outlier = true;
+                } else {
+                    // clusters that are too close to each other are parts of the same unit
+                    int first = -1, second = -1;
+                    float minSeparation = 0.0f;
+                    for (int u = 0; u < k; u++) {
+                        for (int v = u + 1; v < k; v++) {
+                            const float separation = getSeparation(sample, sampleCount, assignments, centers, u, v);
+                            if (first < 0 || separation < minSeparation) {
+                                first = u;
+                                second = v;
+                                minSeparation = separation;
+                            }
+                        }
+                    }
+                    if (minSeparation >= MERGE_SEPARATION && k <= maxCount) break;
+
+                    const float total = sizes[first] + sizes[second];
+                    for (int f = 0; f < FEATURE_COUNT; f++) {
+                        centers[first * FEATURE_COUNT + f] = (centers[first * FEATURE_COUNT + f] * sizes[first] +
+                                                              centers[second * FEATURE_COUNT + f] * sizes[second]) /
+                                                             total;
+                    }
+                    removed = second;
+                }
+
+                // removed center is moved to the end so outlier centers stay behind the remaining ones
+                std::copy(&centers[removed * FEATURE_COUNT], &centers[(removed + 1) * FEATURE_COUNT], removedCenter);
+                std::copy(&centers[(removed + 1) * FEATURE_COUNT], &centers[(k + outOutlierCount) * FEATURE_COUNT],
+                          &centers[removed * FEATURE_COUNT]);
+                k--;
+                if (outlier) {
+                    std::copy(removedCenter, removedCenter + FEATURE_COUNT,
+                              &centers[(k + outOutlierCount) * FEATURE_COUNT]);
+                    outOutlierCount++;
+                }
+            }
+
+            return k;
+        }
+
+        void SpikeClusteringAnalysis::refine(const std::vector<float> &sample, int sampleCount, float *centers, int k,
+                                             int outlierCount, std::vector<int> &assignments, int *sizes) {
+            float sums[MAX_INITIAL_CLUSTER_COUNT * FEATURE_COUNT];
+            float distance;
+            for (int it = 0; it <= REFINE_ITERATION_COUNT; it++) {
+                bool changed = it == 0;
+                // spikes nearest to outlier centers stay with them so they don't spread the remaining clusters
+                std::fill(sizes, sizes + k + outlierCount, 0);
+                for (int i = 0; i < sampleCount; i++) {
+                    const int nearest = findNearest(&sample[i * FEATURE_COUNT], centers, k + outlierCount, distance);
+                    if (assignments[i] != nearest) changed = true;
+                    assignments[i] = nearest;
+                    sizes[nearest]++;
+                }
+                if (!changed || it == REFINE_ITERATION_COUNT) break;
+
+                std::fill(sums, sums + k * FEATURE_COUNT, 0.0f);
+                for (int i = 0; i < sampleCount; i++) {
+                    if (assignments[i] >= k) continue;
+                    for (int f = 0; f < FEATURE_COUNT; f++) {
+                        sums[assignments[i] * FEATURE_COUNT + f] += sample[i * FEATURE_COUNT + f];
+                    }
+                }
+                for (int u = 0; u < k; u++) {
+                    // empty cluster keeps its center
+                    if (sizes[u] == 0) continue;
+                    for (int f = 0; f < FEATURE_COUNT; f++) {
+                        centers[u * FEATURE_COUNT + f] = sums[u * FEATURE_COUNT + f] / sizes[u];
+                    }
+                }
+            }
+        }
+
+        float SpikeClusteringAnalysis::getSeparation(const std::vector<float> &sample, int sampleCount,
+                                                     const std::vector<int> &assignments, const float *centers, int u,
+                                                     int v) {
+            float axis[FEATURE_COUNT];
+            float distance = 0.0f;
+            for (int f = 0; f < FEATURE_COUNT; f++) {
+                axis[f] = centers[v * FEATURE_COUNT + f] - centers[u * FEATURE_COUNT + f];
+                distance += axis[f] * axis[f];
+            }
+            distance = std::sqrt(distance);
+            if (distance == 0.0f) return 0.0f;
+            for (float &a : axis) a /= distance;
+
+            // same as in the live spike sorter, clusters are often stretched by amplitude variations of the unit so
+            // their spread is measured only along the line that connects them
+            double sum = 0.0;
+            int n = 0;
+            for (int i = 0; i < sampleCount; i++) {
+                const int c = assignments[i];
+                if (c != u && c != v) continue;
+
+                float projection = 0.0f;
+                for (int f = 0; f < FEATURE_COUNT; f++) {
+                    projection += (sample[i * FEATURE_COUNT + f] - centers[c * FEATURE_COUNT + f]) * axis[f];
+                }
+                sum += projection * projection;
+                n++;
+            }
+            const auto deviation = static_cast<float>(n > 0 ? std::sqrt(sum / n) : 0.0);
+
+            return deviation == 0.0f ? std::numeric_limits<float>::max() : distance / deviation;
+        }
+
+        bool SpikeClusteringAnalysis::writeSnippets(int fd, const drwav_int16 *snippets, size_t sampleCount) {
+            auto data = reinterpret_cast<const char *>(snippets);
+            size_t remaining = sampleCount * sizeof(drwav_int16);
+            while (remaining > 0) {
+                const ssize_t written = write(fd, data, remaining);
+                if (written <= 0) {
+                    __android_log_print(ANDROID_LOG_DEBUG, TAG, "Unable to write to scratch file");
+                    return false;
+                }
+                data += written;
+                remaining -= static_cast<size_t>(written);
+            }
+            return true;
+        }
+
+        bool SpikeClusteringAnalysis::readSnippets(int fd, int length, int first, int count, drwav_int16 *out) {
+            auto data = reinterpret_cast<char *>(out);
+            size_t remaining = static_cast<size_t>(count) * length * sizeof(drwav_int16);
+            auto offset = static_cast<off64_t>(first) * length * sizeof(drwav_int16);
+            while (remaining > 0) {
+                const ssize_t read = pread64(fd, data, remaining, offset);
+                if (read <= 0) {
+                    __android_log_print(ANDROID_LOG_DEBUG, TAG, "Unable to read from scratch file");
+                    return false;
+                }
+                data += read;
+                offset += read;
+                remaining -= static_cast<size_t>(read);
+            }
+            return true;
+        }
+
+        void SpikeClusteringAnalysis::project(const Basis &basis, const drwav_int16 *snippet, float *outFeatures) {
+            const int length = basis.length;
+            for (int c = 0; c < FEATURE_COUNT; c++) {
+                const float *component = &basis.components[c * length];
+                float f = 0.0f;
+                for (int i = 0; i < length; i++) f += (snippet[i] - basis.mean[i]) * component[i];
+                outFeatures[c] = f;
+            }
+        }
+
+        int SpikeClusteringAnalysis::findNearest(const float *features, const float *centers, int k,
+                                                 float &outDistance) {
+            int nearest = 0;
+            outDistance = std::numeric_limits<float>::max();
+            for (int c = 0; c < k; c++) {
+                float distance = 0.0f;
+                for (int f = 0; f < FEATURE_COUNT; f++) {
+                    const float d = features[f] - centers[c * FEATURE_COUNT + f];
+                    distance += d * d;
+                }
+                if (distance < outDistance) {
+                    nearest = c;
+                    outDistance = distance;
+                }
+            }
+            return nearest;
+        }
+    }
+}
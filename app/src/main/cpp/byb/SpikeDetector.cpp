@@ -0,0 +1,270 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "SpikeDetector.h"
+
+namespace backyardbrains {
+
+    namespace processing {
+
+        const char *SpikeDetector::TAG = "SpikeDetector";
+
+        SpikeDetector::SpikeDetector(float sampleRate, int channelCount) : sampleRate(sampleRate),
+                                                                           channelCount(channelCount) {
+            for (auto &ring : rings) ring = new backyardbrains::utils::SpikeEventRing(RING_CAPACITY);
+            init();
+        }
+
+        SpikeDetector::~SpikeDetector() {
+            for (auto &ring : rings) delete ring;
+        }
+
+        void SpikeDetector::setSampleRate(float sampleRate) {
+            std::lock_guard<std::mutex> guard(lock);
+            if (this->sampleRate == sampleRate) return;
+
+            __android_log_print(ANDROID_LOG_DEBUG, TAG, "setSampleRate(%f)", sampleRate);
+
+            this->sampleRate = sampleRate;
+            init();
+        }
+
+        void SpikeDetector::setChannelCount(int channelCount) {
+            std::lock_guard<std::mutex> guard(lock);
+            if (this->channelCount == channelCount) return;
+
+            __android_log_print(ANDROID_LOG_DEBUG, TAG, "setChannelCount(%d)", channelCount);
+
+            this->channelCount = channelCount;
+            init();
+        }
+
+        void SpikeDetector::setParameters(float thresholdFactor, float refractoryPeriodSeconds) {
+            std::lock_guard<std::mutex> guard(lock);
+
+            __android_log_print(ANDROID_LOG_DEBUG, TAG, "setParameters(%f, %f)", thresholdFactor,
+                                refractoryPeriodSeconds);
+
+            this->thresholdFactor = thresholdFactor;
+            this->refractoryPeriodSeconds = refractoryPeriodSeconds;
+            refractoryPeriod = static_cast<int>(refractoryPeriodSeconds * sampleRate);
+            // estimated noise level is still valid so only thresholds need to be recalculated
+            for (auto &state : states) {
+                if (state.ready) updateThreshold(state);
+            }
+        }
+
+        void SpikeDetector::setSorting(bool sorting) {
+            std::lock_guard<std::mutex> guard(lock);
+
+            __android_log_print(ANDROID_LOG_DEBUG, TAG, "setSorting(%d)", sorting);
+
+            // spikes that are already pending are still sorted
+            this->sorting = sorting;
+        }
+
+        void SpikeDetector::setTrainWindows(const int *channels, const int *lowerThresholds,
+                                            const int *upperThresholds, int count) {
+            std::lock_guard<std::mutex> guard(lock);
+            trains.clear();
+            for (int i = 0; i < count; i++) {
+                trains.push_back({channels[i], std::min(lowerThresholds[i], upperThresholds[i]),
+                                  std::max(lowerThresholds[i], upperThresholds[i])});
+            }
+        }
+
+        long long SpikeDetector::process(short **inSamples, const int *inSampleCounts, int channelCount) {
+            std::lock_guard<std::mutex> guard(lock);
+            channelCount = std::min(channelCount, this->channelCount);
+
+            int frameCount = 0;
+            for (int ch = 0; ch < channelCount; ch++) {
+                ChannelState &state = states[ch];
+                const short *samples = inSamples[ch];
+                const int sampleCount = inSampleCounts[ch];
+                if (sampleCount > frameCount) frameCount = sampleCount;
+
+                for (int i = 0; i < sampleCount; i++) {
+                    const short sample = samples[i];
+                    const long long index = frameIndex + i;
+                    state.history[index & historyMask] = sample;
+
+                    // collect noise and re-estimate threshold from time to time
+                    if (++state.decimationCounter == NOISE_DECIMATION) {
+                        state.decimationCounter = 0;
+                        state.window[state.windowHead] = sample;
+                        if (++state.windowHead == windowCapacity) state.windowHead = 0;
+                        if (state.windowSize < windowCapacity) state.windowSize++;
+                    }
+                    if (--state.samplesUntilUpdate <= 0) {
+                        state.samplesUntilUpdate = updatePeriod;
+                        updateThreshold(state);
+                        state.ready = true;
+                    }
+                    if (!state.ready) continue;
+
+                    const float distance = sample - state.median;
+                    if (state.inSpike) {
+                        // same as in offline analysis, spike lasts until signal gets back to median (Schmitt trigger)
+                        const float d = state.positive ? distance : -distance;
+                        if (d > state.peakDistance) {
+                            state.peak = sample;
+                            state.peakDistance = d;
+                            state.peakIndex = index;
+                        }
+                        if (d <= 0 || index - state.spikeStart >= maxSpikeWidth) {
+                            onSpike(ch, state);
+                            state.inSpike = false;
+                            state.refractoryEnd = state.peakIndex + refractoryPeriod;
+                        }
+                    } else if (index >= state.refractoryEnd &&
+                               (distance > state.threshold || -distance > state.threshold)) {
+                        state.inSpike = true;
+                        state.positive = distance > 0;
+                        state.peak = sample;
+                        state.peakDistance = state.positive ? distance : -distance;
+                        state.peakIndex = index;
+                        state.spikeStart = index;
+                    }
+
+                    // spike can be sorted once the whole waveform after its peak is processed
+                    while (state.pendingCount > 0 &&
+                           index >= state.pending[state.pendingHead].peakIndex + snippetAlignment + snippetPost) {
+                        sortPending(ch, state);
+                    }
+                }
+            }
+            frameIndex += frameCount;
+
+            return frameIndex - 1;
+        }
+
+        int SpikeDetector::readEvents(int consumer, backyardbrains::utils::SpikeEvent *outEvents, int maxCount) {
+            if (consumer < 0 || consumer >= CONSUMER_COUNT) return 0;
+
+            return rings[consumer]->read(outEvents, maxCount);
+        }
+
+        long long SpikeDetector::getDroppedCount(int consumer) {
+            if (consumer < 0 || consumer >= CONSUMER_COUNT) return 0;
+
+            return rings[consumer]->getDroppedCount();
+        }
+
+        void SpikeDetector::reset() {
+            std::lock_guard<std::mutex> guard(lock);
+
+            __android_log_print(ANDROID_LOG_DEBUG, TAG, "reset()");
+
+            init();
+        }
+
+        void SpikeDetector::init() {
+            windowCapacity = std::max(1, static_cast<int>(NOISE_WINDOW_SECONDS * sampleRate) / NOISE_DECIMATION);
+            updatePeriod = std::max(1, static_cast<int>(NOISE_UPDATE_SECONDS * sampleRate));
+            refractoryPeriod = static_cast<int>(refractoryPeriodSeconds * sampleRate);
+            maxSpikeWidth = std::max(1, static_cast<int>(MAX_SPIKE_WIDTH_SECONDS * sampleRate));
+            snippetPre = static_cast<int>(SNIPPET_PRE_SECONDS * sampleRate);
+            snippetPost = static_cast<int>(SNIPPET_POST_SECONDS * sampleRate);
+            snippetAlignment = static_cast<int>(SNIPPET_ALIGNMENT_SECONDS * sampleRate);
+            const int snippetLength = snippetPre + snippetPost + 1;
+            // spike is sorted once the waveform after its peak is processed, but spike cut off at max width is only
+            // found max width after its peak, so history has to reach back from there to the start of its snippet
+            const int sortDelay = std::max(maxSpikeWidth, snippetAlignment + snippetPost);
+            int historyCapacity = 1;
+            while (historyCapacity < sortDelay + snippetAlignment + snippetPre + 1) historyCapacity <<= 1;
+            historyMask = historyCapacity - 1;
+
+            states.clear();
+            states.resize(static_cast<size_t>(std::max(0, channelCount)));
+            for (int i = 0; i < channelCount; i++) {
+                states[i].window.resize(static_cast<size_t>(windowCapacity));
+                states[i].history.resize(static_cast<size_t>(historyCapacity));
+                // spread noise estimation of different channels so it doesn't happen within the same batch
+                states[i].samplesUntilUpdate = std::max(1, updatePeriod * (i + 1) / channelCount);
+            }
+            medianBuffer.resize(static_cast<size_t>(windowCapacity));
+            deviationBuffer.resize(static_cast<size_t>(windowCapacity));
+
+            sorter.reset(snippetLength, channelCount);
+            snippet.resize(static_cast<size_t>(snippetLength));
+        }
+
+        void SpikeDetector::updateThreshold(ChannelState &state) {
+            const int size = state.windowSize;
+            if (size == 0) {
+                state.threshold = MIN_THRESHOLD;
+                return;
+            }
+
+            const int middle = size / 2;
+            std::copy(state.window.begin(), state.window.begin() + size, medianBuffer.begin());
+            std::nth_element(medianBuffer.begin(), medianBuffer.begin() + middle, medianBuffer.begin() + size);
+            const int median = medianBuffer[middle];
+            for (int i = 0; i < size; i++) deviationBuffer[i] = std::abs(medianBuffer[i] - median);
+            std::nth_element(deviationBuffer.begin(), deviationBuffer.begin() + middle,
+                             deviationBuffer.begin() + size);
+
+            state.median = median;
+            state.threshold = std::max(MIN_THRESHOLD, thresholdFactor * deviationBuffer[middle] * MAD_TO_STD);
+        }
+
+        void SpikeDetector::onSpike(int channel, ChannelState &state) {
+            if (!sorting) {
+                emit(channel, state.peak, state.peakIndex, SpikeSorter::NO_UNIT);
+                return;
+            }
+
+            // if too many spikes are waiting the oldest one is passed on unsorted
+            if (state.pendingCount == PENDING_CAPACITY) {
+                const PendingSpike &oldest = state.pending[state.pendingHead];
+                emit(channel, oldest.peak, oldest.peakIndex, SpikeSorter::NO_UNIT);
+                state.pendingHead = (state.pendingHead + 1) % PENDING_CAPACITY;
+                state.pendingCount--;
+            }
+            state.pending[(state.pendingHead + state.pendingCount) % PENDING_CAPACITY] = {state.peakIndex,
+                                                                                          state.peak};
+            state.pendingCount++;
+        }
+
+        void SpikeDetector::sortPending(int channel, ChannelState &state) {
+            const PendingSpike spike = state.pending[state.pendingHead];
+            state.pendingHead = (state.pendingHead + 1) % PENDING_CAPACITY;
+            state.pendingCount--;
+
+            // waveform is taken relative to the median so slow baseline changes don't affect sorting
+            // multiphasic spikes can be detected on different phases so waveform is aligned to the strongest one
+            long long alignedIndex = spike.peakIndex;
+            float maxDistance = -1.0f;
+            for (long long i = spike.peakIndex - snippetAlignment; i <= spike.peakIndex + snippetAlignment; i++) {
+                const float distance = std::abs(state.history[i & historyMask] - state.median);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    alignedIndex = i;
+                }
+            }
+            const long long start = alignedIndex - snippetPre;
+            const auto snippetLength = static_cast<int>(snippet.size());
+            for (int i = 0; i < snippetLength; i++) {
+                snippet[i] = state.history[(start + i) & historyMask] - state.median;
+            }
+
+            emit(channel, spike.peak, spike.peakIndex, sorter.sort(channel, snippet.data()));
+        }
+
+        void SpikeDetector::emit(int channel, short value, long long frameIndex, int unit) {
+            int train = -1;
+            for (int i = 0; i < static_cast<int>(trains.size()); i++) {
+                const Train &t = trains[i];
+                if (t.channel == channel && value >= t.lowerThreshold && value <= t.upperThreshold) {
+                    train = i;
+                    break;
+                }
+            }
+
+            const backyardbrains::utils::SpikeEvent event{frameIndex, channel, train, unit, value};
+            for (auto &ring : rings) ring->write(event);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "SpikeEventRing.h"
+
+#include <algorithm>
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        SpikeEventRing::SpikeEventRing(int capacity) : capacity(capacity), mask(capacity - 1) {
+            buffer = new SpikeEvent[capacity];
+        }
+
+        SpikeEventRing::~SpikeEventRing() {
+            delete[] buffer;
+        }
+
+        bool SpikeEventRing::write(const SpikeEvent &event) {
+            const long long h = head.load(std::memory_order_relaxed);
+            if (h - tail.load(std::memory_order_acquire) >= capacity) {
+                droppedCount.fetch_add(1, std::memory_order_relaxed);
+                return false;
+            }
+
+            buffer[h & mask] = event;
+            head.store(h + 1, std::memory_order_release);
+
+            return true;
+        }
+
+        int SpikeEventRing::read(SpikeEvent *outEvents, int maxCount) {
+            const long long t = tail.load(std::memory_order_relaxed);
+            const int available = static_cast<int>(head.load(std::memory_order_acquire) - t);
+            const int count = std::min(available, maxCount);
+            if (count <= 0) return 0;
+
+            const int start = static_cast<int>(t & mask);
+            const int firstPart = std::min(count, capacity - start);
+            std::copy(buffer + start, buffer + start + firstPart, outEvents);
+            std::copy(buffer, buffer + count - firstPart, outEvents + firstPart);
+
+            tail.store(t + count, std::memory_order_release);
+
+            return count;
+        }
+
+        void SpikeEventRing::clear() {
+            tail.store(head.load(std::memory_order_acquire), std::memory_order_release);
+        }
+
+        long long SpikeEventRing::getDroppedCount() {
+            return droppedCount.load(std::memory_order_relaxed);
+        }
+    }
+}
@@ -0,0 +1,415 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "SpikeSorter.h"
+
+namespace backyardbrains {
+
+    namespace processing {
+
+        const char *SpikeSorter::TAG = "SpikeSorter";
+
+        SpikeSorter::SpikeSorter(int snippetLength, int channelCount) {
+            reset(snippetLength, channelCount);
+        }
+
+        SpikeSorter::~SpikeSorter() {
+            {
+                std::lock_guard<std::mutex> guard(trainingLock);
+                stopping = true;
+            }
+            trainingCondition.notify_all();
+            if (trainingThread.joinable()) trainingThread.join();
+        }
+
+        int SpikeSorter::sort(int channel, const float *snippet) {
+            if (channel < 0 || channel >= static_cast<int>(models.size())) return NO_UNIT;
+
+            if (trainedJobCount.load(std::memory_order_acquire) > 0) collectTrained(false);
+            Model &model = models[channel];
+            if (model.training) return NO_UNIT;
+            if (!model.trained) {
+                // collect snippet for training and update running sums for the covariance
+                std::copy(snippet, snippet + snippetLength,
+                          model.warmUpSnippets.begin() + model.warmUpCount * snippetLength);
+                for (int i = 0; i < snippetLength; i++) {
+                    model.sum[i] += snippet[i];
+                    double *row = &model.sumOfProducts[i * snippetLength];
+                    for (int j = i; j < snippetLength; j++) row[j] += snippet[i] * snippet[j];
+                }
+                if (++model.warmUpCount == WARM_UP_SPIKE_COUNT) startTraining(channel, model);
+
+                return NO_UNIT;
+            }
+            if (model.unitCount == 0) return NO_UNIT;
+
+            float f[FEATURE_COUNT];
+            project(model, snippet, f);
+
+            int unit = NO_UNIT;
+            float minDistance = 0.0f;
+            for (int u = 0; u < model.unitCount; u++) {
+                float distance = 0.0f;
+                for (int c = 0; c < FEATURE_COUNT; c++) {
+                    const float d = f[c] - model.centers[u][c];
+                    distance += d * d;
+                }
+                if (unit == NO_UNIT || distance < minDistance) {
+                    unit = u;
+                    minDistance = distance;
+                }
+            }
+            // squared distance of the assigned spikes is expected to be FEATURE_COUNT times the variance
+            const float maxDistance = OUTLIER_DISTANCE_FACTOR * OUTLIER_DISTANCE_FACTOR * FEATURE_COUNT *
+                                      model.variances[unit];
+            if (minDistance > maxDistance) return NO_UNIT;
+
+            // follow the drift of the unit
+            for (int c = 0; c < FEATURE_COUNT; c++) {
+                model.centers[unit][c] += DRIFT_RATE * (f[c] - model.centers[unit][c]);
+            }
+            model.variances[unit] += DRIFT_RATE * (minDistance / FEATURE_COUNT - model.variances[unit]);
+
+            return unit;
+        }
+
+        void SpikeSorter::reset(int snippetLength, int channelCount) {
+            this->snippetLength = std::max(1, snippetLength);
+
+            const auto length = static_cast<size_t>(this->snippetLength);
+            models.clear();
+            models.resize(static_cast<size_t>(std::max(0, channelCount)));
+            for (auto &model : models) {
+                model.snippetLength = this->snippetLength;
+                model.warmUpSnippets.resize(WARM_UP_SPIKE_COUNT * length);
+                model.sum.assign(length, 0.0);
+                model.sumOfProducts.assign(length * length, 0.0);
+            }
+
+            // models that are being trained belong to the previous generation and are discarded once trained
+            std::lock_guard<std::mutex> guard(trainingLock);
+            generation++;
+            pendingJobCount -= static_cast<int>(jobs.size());
+            jobs.clear();
+            trainedJobs.clear();
+            trainedJobCount.store(0, std::memory_order_release);
+            trainingCondition.notify_all();
+        }
+
+        int SpikeSorter::getUnitCount(int channel) {
+            if (channel < 0 || channel >= static_cast<int>(models.size())) return 0;
+
+            collectTrained(true);
+            return models[channel].trained ? models[channel].unitCount : 0;
+        }
+
+        bool SpikeSorter::waitForTraining(int timeoutMs) {
+            std::unique_lock<std::mutex> guard(trainingLock);
+            return trainingCondition.wait_for(guard, std::chrono::milliseconds(timeoutMs),
+                                              [this] { return pendingJobCount == 0; });
+        }
+
+        void SpikeSorter::startTraining(int channel, Model &model) {
+            model.training = true;
+
+            std::lock_guard<std::mutex> guard(trainingLock);
+            jobs.push_back({channel, generation, std::move(model)});
+            // moved from model only needs to remember it's being trained
+            model = Model();
+            model.training = true;
+            pendingJobCount++;
+            if (!trainingThread.joinable()) trainingThread = std::thread(&SpikeSorter::runTraining, this);
+            trainingCondition.notify_all();
+        }
+
+        void SpikeSorter::collectTrained(bool wait) {
+            std::unique_lock<std::mutex> guard(trainingLock, std::defer_lock);
+            if (wait) {
+                guard.lock();
+            } else if (!guard.try_lock()) {
+                return;
+            }
+
+            for (auto &job : trainedJobs) {
+                if (job.generation == generation && job.channel < static_cast<int>(models.size())) {
+                    models[job.channel] = std::move(job.model);
+                }
+            }
+            trainedJobs.clear();
+            trainedJobCount.store(0, std::memory_order_release);
+        }
+
+        void SpikeSorter::runTraining() {
+            std::unique_lock<std::mutex> guard(trainingLock);
+            while (true) {
+                trainingCondition.wait(guard, [this] { return stopping || !jobs.empty(); });
+                if (stopping) return;
+
+                TrainingJob job = std::move(jobs.front());
+                jobs.pop_front();
+                guard.unlock();
+                train(job.model);
+                guard.lock();
+
+                // model of the previous generation is discarded, but the job still has to be counted as done
+                if (job.generation == generation) {
+                    trainedJobs.push_back(std::move(job));
+                    trainedJobCount.store(static_cast<int>(trainedJobs.size()), std::memory_order_release);
+                }
+                pendingJobCount--;
+                trainingCondition.notify_all();
+            }
+        }
+
+        void SpikeSorter::train(Model &model) {
+            const auto length = static_cast<size_t>(model.snippetLength);
+            features.resize(WARM_UP_SPIKE_COUNT * FEATURE_COUNT);
+            assignments.resize(WARM_UP_SPIKE_COUNT);
+            covariance.resize(length * length);
+            component.resize(length);
+            nextComponent.resize(length);
+
+            calculateBasis(model);
+            for (int i = 0; i < model.warmUpCount; i++) {
+                project(model, &model.warmUpSnippets[i * model.snippetLength], &features[i * FEATURE_COUNT]);
+            }
+            model.unitCount = cluster(features, model.warmUpCount, model.centers, model.variances);
+            model.training = false;
+            model.trained = true;
+
+            // warm-up data is no longer needed
+            std::vector<float>().swap(model.warmUpSnippets);
+            std::vector<double>().swap(model.sum);
+            std::vector<double>().swap(model.sumOfProducts);
+
+            __android_log_print(ANDROID_LOG_DEBUG, TAG, "Learned %d units from %d spikes", model.unitCount,
+                                model.warmUpCount);
+        }
+
+        void SpikeSorter::calculateBasis(Model &model) {
+            const int length = model.snippetLength;
+            const double n = model.warmUpCount;
+
+            model.mean.resize(static_cast<size_t>(length));
+            for (int i = 0; i < length; i++) model.mean[i] = static_cast<float>(model.sum[i] / n);
+            for (int i = 0; i < length; i++) {
+                for (int j = i; j < length; j++) {
+                    const double c = model.sumOfProducts[i * length + j] / n - model.mean[i] * model.mean[j];
+                    covariance[i * length + j] = c;
+                    covariance[j * length + i] = c;
+                }
+            }
+
+            // power iteration finds the strongest component, already found components are removed from the result of
+            // every iteration so it converges to the next one
+            model.basis.assign(static_cast<size_t>(FEATURE_COUNT * length), 0.0f);
+            for (int c = 0; c < FEATURE_COUNT; c++) {
+                for (int i = 0; i < length; i++) component[i] = 1.0 + static_cast<double>(i) / length;
+                for (int it = 0; it < POWER_ITERATION_COUNT; it++) {
+                    for (int i = 0; i < length; i++) {
+                        double v = 0.0;
+                        const double *row = &covariance[i * length];
+                        for (int j = 0; j < length; j++) v += row[j] * component[j];
+                        nextComponent[i] = v;
+                    }
+                    for (int p = 0; p < c; p++) {
+                        const float *prev = &model.basis[p * length];
+                        double dot = 0.0;
+                        for (int i = 0; i < length; i++) dot += nextComponent[i] * prev[i];
+                        for (int i = 0; i < length; i++) nextComponent[i] -= dot * prev[i];
+                    }
+                    double norm = 0.0;
+                    for (int i = 0; i < length; i++) norm += nextComponent[i] * nextComponent[i];
+                    norm = std::sqrt(norm);
+                    if (norm == 0.0) break;
+                    for (int i = 0; i < length; i++) component[i] = nextComponent[i] / norm;
+                }
+                for (int i = 0; i < length; i++) model.basis[c * length + i] = static_cast<float>(component[i]);
+            }
+        }
+
+        int SpikeSorter::cluster(const std::vector<float> &features, int count, float outCenters[][FEATURE_COUNT],
+                                 float *outVariances) {
+            int k = std::min(INITIAL_CLUSTER_COUNT, count);
+            if (k == 0) return 0;
+
+            float centers[INITIAL_CLUSTER_COUNT][FEATURE_COUNT];
+            float variances[INITIAL_CLUSTER_COUNT];
+            int sizes[INITIAL_CLUSTER_COUNT];
+
+            // initial centers are spread as far from each other as possible, starting with the spike furthest from
+            // the mean (which is at the origin of the feature space), and there's more of them than units because
+            // some are taken by outliers
+            for (int u = 0; u < k; u++) {
+                int furthest = 0;
+                float maxDistance = -1.0f;
+                for (int i = 0; i < count; i++) {
+                    const float *f = &features[i * FEATURE_COUNT];
+                    float minDistance = 0.0f;
+                    if (u == 0) {
+                        for (int c = 0; c < FEATURE_COUNT; c++) minDistance += f[c] * f[c];
+                    } else {
+                        for (int v = 0; v < u; v++) {
+                            float distance = 0.0f;
+                            for (int c = 0; c < FEATURE_COUNT; c++) {
+                                const float d = f[c] - centers[v][c];
+                                distance += d * d;
+                            }
+                            if (v == 0 || distance < minDistance) minDistance = distance;
+                        }
+                    }
+                    if (minDistance > maxDistance) {
+                        maxDistance = minDistance;
+                        furthest = i;
+                    }
+                }
+                std::copy(&features[furthest * FEATURE_COUNT], &features[furthest * FEATURE_COUNT] + FEATURE_COUNT,
+                          centers[u]);
+            }
+
+            kMeans(features, count, centers, k, variances, sizes);
+
+            while (k > 1) {
+                // clusters that are too small are most likely made of outliers
+                int smallest = 0;
+                for (int u = 1; u < k; u++) if (sizes[u] < sizes[smallest]) smallest = u;
+                int removed = -1;
+                if (sizes[smallest] < MIN_UNIT_SHARE * count) {
+                    removed = smallest;
+                } else {
+                    // clusters that are too close to each other are parts of the same unit
+                    int first = -1, second = -1;
+                    float minSeparation = 0.0f;
+                    for (int u = 0; u < k; u++) {
+                        for (int v = u + 1; v < k; v++) {
+                            const float separation = getSeparation(features, count, centers, u, v);
+                            if (first < 0 || separation < minSeparation) {
+                                first = u;
+                                second = v;
+                                minSeparation = separation;
+                            }
+                        }
+                    }
+                    if (minSeparation >= MERGE_SEPARATION && k <= MAX_UNITS) break;
+
+                    const float total = sizes[first] + sizes[second];
+                    for (int c = 0; c < FEATURE_COUNT; c++) {
+                        centers[first][c] = (centers[first][c] * sizes[first] + centers[second][c] * sizes[second]) /
+                                            total;
+                    }
+                    removed = second;
+                }
+
+                for (int u = removed; u < k - 1; u++) {
+                    std::copy(centers[u + 1], centers[u + 1] + FEATURE_COUNT, centers[u]);
+                }
+                k--;
+                kMeans(features, count, centers, k, variances, sizes);
+            }
+
+            for (int u = 0; u < k; u++) {
+                std::copy(centers[u], centers[u] + FEATURE_COUNT, outCenters[u]);
+                outVariances[u] = variances[u];
+            }
+
+            return k;
+        }
+
+        float SpikeSorter::getSeparation(const std::vector<float> &features, int count,
+                                         float centers[][FEATURE_COUNT], int u, int v) {
+            float axis[FEATURE_COUNT];
+            float distance = 0.0f;
+            for (int c = 0; c < FEATURE_COUNT; c++) {
+                axis[c] = centers[v][c] - centers[u][c];
+                distance += axis[c] * axis[c];
+            }
+            distance = std::sqrt(distance);
+            if (distance == 0.0f) return 0.0f;
+            for (float &a : axis) a /= distance;
+
+            // clusters are often stretched by amplitude variations of the unit so their spread is measured only along
+            // the line that connects them
+            double sum = 0.0;
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                const int unit = assignments[i];
+                if (unit != u && unit != v) continue;
+
+                const float *f = &features[i * FEATURE_COUNT];
+                float projection = 0.0f;
+                for (int c = 0; c < FEATURE_COUNT; c++) projection += (f[c] - centers[unit][c]) * axis[c];
+                sum += projection * projection;
+                n++;
+            }
+            const auto deviation = static_cast<float>(n > 0 ? std::sqrt(sum / n) : 0.0);
+
+            return deviation == 0.0f ? std::numeric_limits<float>::max() : distance / deviation;
+        }
+
+        void SpikeSorter::kMeans(const std::vector<float> &features, int count, float centers[][FEATURE_COUNT], int k,
+                                 float *variances, int *sizes) {
+            float sums[INITIAL_CLUSTER_COUNT][FEATURE_COUNT];
+            for (int it = 0; it <= K_MEANS_ITERATION_COUNT; it++) {
+                bool changed = it == 0;
+                for (int i = 0; i < count; i++) {
+                    const float *f = &features[i * FEATURE_COUNT];
+                    int nearest = 0;
+                    float minDistance = 0.0f;
+                    for (int u = 0; u < k; u++) {
+                        float distance = 0.0f;
+                        for (int c = 0; c < FEATURE_COUNT; c++) {
+                            const float d = f[c] - centers[u][c];
+                            distance += d * d;
+                        }
+                        if (u == 0 || distance < minDistance) {
+                            nearest = u;
+                            minDistance = distance;
+                        }
+                    }
+                    if (assignments[i] != nearest) changed = true;
+                    assignments[i] = nearest;
+                }
+                if (!changed || it == K_MEANS_ITERATION_COUNT) break;
+
+                std::fill(&sums[0][0], &sums[0][0] + INITIAL_CLUSTER_COUNT * FEATURE_COUNT, 0.0f);
+                std::fill(sizes, sizes + k, 0);
+                for (int i = 0; i < count; i++) {
+                    const float *f = &features[i * FEATURE_COUNT];
+                    for (int c = 0; c < FEATURE_COUNT; c++) sums[assignments[i]][c] += f[c];
+                    sizes[assignments[i]]++;
+                }
+                for (int u = 0; u < k; u++) {
+                    // empty cluster keeps its center
+                    if (sizes[u] == 0) continue;
+                    for (int c = 0; c < FEATURE_COUNT; c++) centers[u][c] = sums[u][c] / sizes[u];
+                }
+            }
+
+            std::fill(variances, variances + k, 0.0f);
+            std::fill(sizes, sizes + k, 0);
+            for (int i = 0; i < count; i++) {
+                const float *f = &features[i * FEATURE_COUNT];
+                const int u = assignments[i];
+                for (int c = 0; c < FEATURE_COUNT; c++) {
+                    const float d = f[c] - centers[u][c];
+                    variances[u] += d * d;
+                }
+                sizes[u]++;
+            }
+            for (int u = 0; u < k; u++) {
+                variances[u] = sizes[u] > 0 ? variances[u] / (sizes[u] * FEATURE_COUNT) : 0.0f;
+            }
+        }
+
+        void SpikeSorter::project(const Model &model, const float *snippet, float *outFeatures) {
+            const int length = model.snippetLength;
+            for (int c = 0; c < FEATURE_COUNT; c++) {
+                const float *component = &model.basis[c * length];
+                float f = 0.0f;
+                for (int i = 0; i < length; i++) f += (snippet[i] - model.mean[i]) * component[i];
+                outFeatures[c] = f;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "UsbLinkTelemetry.h"
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        UsbLinkTelemetry::UsbLinkTelemetry() {
+            reset();
+        }
+
+        void UsbLinkTelemetry::addDecoderStats(long long framesDecoded, long long framesDropped, long long resyncs,
+                                               long long escapeMessages, long long bytesDiscarded) {
+            values[FRAMES_DECODED].fetch_add(framesDecoded, std::memory_order_relaxed);
+            values[FRAMES_DROPPED].fetch_add(framesDropped, std::memory_order_relaxed);
+            values[RESYNCS].fetch_add(resyncs, std::memory_order_relaxed);
+            values[ESCAPE_MESSAGES].fetch_add(escapeMessages, std::memory_order_relaxed);
+            values[BYTES_DISCARDED].fetch_add(bytesDiscarded, std::memory_order_relaxed);
+        }
+
+        void UsbLinkTelemetry::onPacketReceived() {
+            const long long now = std::chrono::duration_cast<std::chrono::nanoseconds>(
+                    std::chrono::steady_clock::now().time_since_epoch()).count();
+            const long long last = lastPacketNanos.exchange(now, std::memory_order_relaxed);
+            values[PACKETS_RECEIVED].fetch_add(1, std::memory_order_relaxed);
+            if (last == 0) return;
+
+            // find the bucket inter-arrival time falls in
+            long long upperBound = INTER_ARRIVAL_FIRST_BUCKET_NANOS;
+            int bucket = 0;
+            while (bucket < INTER_ARRIVAL_BUCKET_COUNT - 1 && now - last >= upperBound) {
+                upperBound <<= 1;
+                bucket++;
+            }
+            values[INTER_ARRIVAL_HISTOGRAM + bucket].fetch_add(1, std::memory_order_relaxed);
+        }
+
+        void UsbLinkTelemetry::onRingOverrun() {
+            values[RING_OVERRUNS].fetch_add(1, std::memory_order_relaxed);
+        }
+
+        void UsbLinkTelemetry::onInvalidPacket() {
+            values[INVALID_PACKETS].fetch_add(1, std::memory_order_relaxed);
+        }
+
+        void UsbLinkTelemetry::addLatency(long long latencyNanos) {
+            values[LATENCY_SUM_NANOS].fetch_add(latencyNanos, std::memory_order_relaxed);
+            values[LATENCY_COUNT].fetch_add(1, std::memory_order_relaxed);
+            long long max = values[LATENCY_MAX_NANOS].load(std::memory_order_relaxed);
+            while (latencyNanos > max &&
+                   !values[LATENCY_MAX_NANOS].compare_exchange_weak(max, latencyNanos, std::memory_order_relaxed)) {}
+        }
+
+        void UsbLinkTelemetry::reset() {
+            for (auto &value : values) value = 0;
+            lastPacketNanos = 0;
+        }
+
+        void UsbLinkTelemetry::getValues(long long *outValues) {
+            for (int i = 0; i < VALUE_COUNT; i++) outValues[i] = values[i].load(std::memory_order_relaxed);
+        }
+    }
+}
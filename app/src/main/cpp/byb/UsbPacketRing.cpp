@@ -0,0 +1,125 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "UsbPacketRing.h"
+
+#include <algorithm>
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        UsbPacketRing::UsbPacketRing(int capacity, UsbLinkTelemetry *telemetry)
+                : telemetry(telemetry), capacity(capacity), mask(capacity - 1) {
+            buffer = new unsigned char[capacity];
+        }
+
+        UsbPacketRing::~UsbPacketRing() {
+            delete[] buffer;
+        }
+
+        int UsbPacketRing::writeHidPackets(const unsigned char *inData, int length, int packetSize) {
+            telemetry->onPacketReceived();
+
+            const long long h = head.load(std::memory_order_relaxed);
+            const long long free = capacity - (h - tail.load(std::memory_order_acquire));
+
+            int written = 0;
+            for (int i = 0; i + HID_HEADER_SIZE <= length; i += packetSize) {
+                // first two bytes are reserved for HID Report ID(vendor specific), and number of transferred bytes
+                if (inData[i] != HID_REPORT_ID || inData[i + 1] != HID_PAYLOAD_SIZE ||
+                    i + HID_HEADER_SIZE + HID_PAYLOAD_SIZE > length) {
+                    telemetry->onInvalidPacket();
+                    continue;
+                }
+                if (written + HID_PAYLOAD_SIZE > free) {
+                    telemetry->onRingOverrun();
+                    continue;
+                }
+
+                const unsigned char *payload = inData + i + HID_HEADER_SIZE;
+                const int start = static_cast<int>((h + written) & mask);
+                const int firstPart = std::min(static_cast<int>(HID_PAYLOAD_SIZE), capacity - start);
+                std::copy(payload, payload + firstPart, buffer + start);
+                std::copy(payload + firstPart, payload + HID_PAYLOAD_SIZE, buffer);
+                written += HID_PAYLOAD_SIZE;
+            }
+            if (written == 0) return 0;
+
+            // remember when data was written so we can calculate latency once it's processed
+            const int th = timestampHead.load(std::memory_order_relaxed);
+            if (th - timestampTail.load(std::memory_order_acquire) < MAX_TIMESTAMPS) {
+                timestampPositions[th % MAX_TIMESTAMPS] = h + written;
+                timestampNanos[th % MAX_TIMESTAMPS] = nowNanos();
+                timestampHead.store(th + 1, std::memory_order_release);
+            }
+
+            head.store(h + written, std::memory_order_release);
+            {
+                // make sure consumer is either already waiting or will see the new head before it starts waiting
+                std::lock_guard<std::mutex> lock(waitMutex);
+            }
+            waitCondition.notify_one();
+
+            return written;
+        }
+
+        int UsbPacketRing::await(int timeoutMs) {
+            const int available = static_cast<int>(head.load(std::memory_order_acquire) -
+                                                   tail.load(std::memory_order_relaxed));
+            if (available > 0) return available;
+
+            std::unique_lock<std::mutex> lock(waitMutex);
+            waitCondition.wait_for(lock, std::chrono::milliseconds(timeoutMs), [this] {
+                return head.load(std::memory_order_acquire) > tail.load(std::memory_order_relaxed);
+            });
+
+            return static_cast<int>(head.load(std::memory_order_acquire) - tail.load(std::memory_order_relaxed));
+        }
+
+        int UsbPacketRing::read(unsigned char *outData, int maxLength) {
+            const long long t = tail.load(std::memory_order_relaxed);
+            const int available = static_cast<int>(head.load(std::memory_order_acquire) - t);
+            const int length = std::min(available, maxLength);
+            if (length <= 0) return 0;
+
+            const int start = static_cast<int>(t & mask);
+            const int firstPart = std::min(length, capacity - start);
+            std::copy(buffer + start, buffer + start + firstPart, outData);
+            std::copy(buffer, buffer + length - firstPart, outData + firstPart);
+
+            tail.store(t + length, std::memory_order_release);
+
+            return length;
+        }
+
+        int UsbPacketRing::freeSpace() {
+            const long long used = head.load(std::memory_order_acquire) - tail.load(std::memory_order_acquire);
+            return static_cast<int>(capacity - used);
+        }
+
+        void UsbPacketRing::markProcessed() {
+            const long long t = tail.load(std::memory_order_relaxed);
+            const long long now = nowNanos();
+            int tt = timestampTail.load(std::memory_order_relaxed);
+            const int th = timestampHead.load(std::memory_order_acquire);
+            while (tt < th && timestampPositions[tt % MAX_TIMESTAMPS] <= t) {
+                telemetry->addLatency(now - timestampNanos[tt % MAX_TIMESTAMPS]);
+                tt++;
+            }
+            timestampTail.store(tt, std::memory_order_release);
+        }
+
+        void UsbPacketRing::reset() {
+            // should only be called while nobody is writing to nor reading from the ring
+            tail.store(head.load(std::memory_order_acquire), std::memory_order_release);
+            timestampTail.store(timestampHead.load(std::memory_order_acquire), std::memory_order_release);
+        }
+
+        long long UsbPacketRing::nowNanos() {
+            return std::chrono::duration_cast<std::chrono::nanoseconds>(
+                    std::chrono::steady_clock::now().time_since_epoch()).count();
+        }
+    }
+}
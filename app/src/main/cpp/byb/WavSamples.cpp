@@ -0,0 +1,91 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "WavSamples.h"
+
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        const char *WavSamples::TAG = "WavSamples";
+
+        WavSamples::WavSamples() = default;
+
+        WavSamples::~WavSamples() {
+            close();
+        }
+
+        bool WavSamples::open(const char *filePath) {
+            close();
+
+            drwav *wavPtr = drwav_open_file(filePath);
+            if (wavPtr == nullptr) {
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "Unable to open file: %s", filePath);
+                return false;
+            }
+            sampleCount = wavPtr->totalSampleCount;
+            sampleRate = wavPtr->sampleRate;
+            channelCount = wavPtr->channels;
+            bool pcm16 = wavPtr->translatedFormatTag == DR_WAVE_FORMAT_PCM && wavPtr->bytesPerSample == 2;
+            drwav_uint64 dataPosition = wavPtr->dataChunkDataPos;
+
+            bool opened = true;
+            if (pcm16) {
+                opened = map(filePath, dataPosition);
+            } else {
+                buffer.resize(static_cast<size_t>(sampleCount));
+                sampleCount = drwav_read_s16(wavPtr, sampleCount, buffer.data());
+                samples = buffer.data();
+            }
+            drwav_close(wavPtr);
+
+            if (!opened) sampleCount = 0;
+            return opened;
+        }
+
+        void WavSamples::close() {
+            if (mappedAddress != nullptr) munmap(mappedAddress, mappedLength);
+            mappedAddress = nullptr;
+            mappedLength = 0;
+            std::vector<drwav_int16>().swap(buffer);
+            samples = nullptr;
+            sampleCount = 0;
+        }
+
+        bool WavSamples::map(const char *filePath, drwav_uint64 dataPosition) {
+            int fd = ::open(filePath, O_RDONLY);
+            if (fd < 0) return false;
+
+            struct stat fileStat{};
+            if (fstat(fd, &fileStat) != 0 || static_cast<drwav_uint64>(fileStat.st_size) < dataPosition) {
+                ::close(fd);
+                return false;
+            }
+            // file can be shorter than its header claims if recording wasn't properly finished
+            drwav_uint64 availableSampleCount = (fileStat.st_size - dataPosition) / sizeof(drwav_int16);
+            if (sampleCount > availableSampleCount) sampleCount = availableSampleCount;
+
+            // mapping needs to start at the page boundary
+            auto pageSize = static_cast<drwav_uint64>(sysconf(_SC_PAGESIZE));
+            drwav_uint64 mapOffset = dataPosition / pageSize * pageSize;
+            mappedLength = static_cast<size_t>(dataPosition - mapOffset + sampleCount * sizeof(drwav_int16));
+            void *address = mmap(nullptr, mappedLength, PROT_READ, MAP_PRIVATE, fd, static_cast<off_t>(mapOffset));
+            ::close(fd);
+            if (address == MAP_FAILED) {
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "Unable to map file: %s", filePath);
+                mappedLength = 0;
+                return false;
+            }
+
+            mappedAddress = address;
+            samples = reinterpret_cast<const drwav_int16 *>(static_cast<char *>(address) + (dataPosition - mapOffset));
+            return true;
+        }
+    }
+}
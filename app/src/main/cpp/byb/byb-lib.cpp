@@ -18,9 +18,16 @@
 #include "CrossCorrelationAnalysis.h"
 #include "IsiAnalysis.h"
 #include "AverageSpikeAnalysis.h"
+#include "SpikeClusteringAnalysis.h"
+#include "PowerSpectrumAnalysis.h"
+#include "PsthAnalysis.h"
+#include "GrandAverageAnalysis.h"
 #include "AnalysisUtils.h"
 #include "EventUtils.h"
 #include "JniHelper.h"
+#include "UsbPacketRing.h"
+#include "UsbLinkTelemetry.h"
+#include "SpikeDetector.h"
 
 using namespace backyardbrains::processing;
 using namespace backyardbrains::analysis;
@@ -59,6 +66,24 @@ Java_com_backyardbrains_utils_JniUtils_setNotchFilter(JNIEnv *env, jclass type,
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jclass type, jobject out, jbyteArray inBytes,
                                                            jint length, jobject sampleSourceObject);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_writeHidPackets(JNIEnv *env, jclass type, jobject inBuffer, jint length,
+                                                       jint packetSize);
+JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_awaitUsbPacketRing(JNIEnv *env, jclass type, jint timeoutMs);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_processUsbPacketRing(JNIEnv *env, jclass type, jobject out,
+                                                            jobject sampleSourceObject);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_getUsbPacketRingFreeSpace(JNIEnv *env, jclass type);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_resetUsbPacketRing(JNIEnv *env, jclass type);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_onUsbPacketReceived(JNIEnv *env, jclass type);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_getUsbLinkTelemetry(JNIEnv *env, jclass type, jlongArray outValues);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_resetUsbLinkTelemetry(JNIEnv *env, jclass type);
 JNIEXPORT jboolean JNICALL
 Java_com_backyardbrains_utils_JniUtils_isAudioStreamAmModulated(JNIEnv *env, jclass type);
 JNIEXPORT void JNICALL
@@ -68,7 +93,11 @@ JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_processPlaybackStream(JNIEnv *env, jclass type, jobject out, jbyteArray inBytes,
                                                              jint length, jintArray inEventIndices,
                                                              jobjectArray inEventNames, jint inEventCount, jlong start,
-                                                             jlong end, jint prependSamples);
+                                                             jlong end, jint prependSamples, jint decimationFactor);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_decimateMinMax(JNIEnv *env, jclass type, jbyteArray out, jbyteArray in,
+                                                      jint length, jint channelCount, jint bitsPerSample,
+                                                      jint decimationFactor);
 JNIEXPORT jint JNICALL
 Java_com_backyardbrains_utils_JniUtils_getAveragedSampleCount(JNIEnv *env, jclass type);
 JNIEXPORT void JNICALL
@@ -90,6 +119,16 @@ Java_com_backyardbrains_utils_JniUtils_pauseThreshold(JNIEnv *env, jclass type);
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_processThreshold(JNIEnv *env, jclass type, jobject out, jobject in,
                                                         jboolean averageSamples);
+JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_detectSpikes(JNIEnv *env, jclass type, jobject in);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_readSpikeEvents(JNIEnv *env, jclass type, jint consumer,
+                                                       jintArray outChannels, jintArray outTrains, jintArray outUnits,
+                                                       jshortArray outValues, jlongArray outFrameIndices);
+JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_getDroppedSpikeEventCount(JNIEnv *env, jclass type, jint consumer);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_resetSpikeDetector(JNIEnv *env, jclass type);
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_resetFftNormalization(JNIEnv *env, jclass type);
 JNIEXPORT void JNICALL
@@ -112,7 +151,9 @@ Java_com_backyardbrains_utils_JniUtils_prepareForFftDrawing(JNIEnv *env, jclass
                                                             jfloat drawWidthMax, jint drawSurfaceWidth,
                                                             jint drawSurfaceHeight, jfloat fftScaleFactor);
 JNIEXPORT void JNICALL
-Java_com_backyardbrains_utils_JniUtils_prepareForSpikesDrawing(JNIEnv *env, jclass type, jobject out, jobjectArray in,
+Java_com_backyardbrains_utils_JniUtils_prepareForSpikesDrawing(JNIEnv *env, jclass type, jobject out,
+                                                               jfloatArray inSpikeValues, jintArray inSpikeIndices,
+                                                               jint inSpikeOffset, jint inSpikeCount,
                                                                jfloatArray colorInRange, jfloatArray colorOutOfRange,
                                                                jint rangeStart, jint rangeEnd, jint sampleStartIndex,
                                                                jint sampleEndIndex, jint drawStartIndex,
@@ -132,32 +173,69 @@ Java_com_backyardbrains_utils_JniUtils_eventTriggeredAverageAnalysis(JNIEnv *env
                                                                      jobjectArray normMcTop, jobjectArray normMcBottom,
                                                                      jobjectArray minMax, jint channelCount,
                                                                      jint frameCount, jboolean removeNoiseIntervals,
-                                                                     jstring confidenceIntervalsEvent);
-JNIEXPORT jobjectArray JNICALL
-Java_com_backyardbrains_utils_JniUtils_findSpikes(JNIEnv *env, jclass type, jstring filePath, jobjectArray valuesPos,
-                                                  jobjectArray indicesPos, jobjectArray timesPos,
-                                                  jobjectArray valuesNeg, jobjectArray indicesNeg,
-                                                  jobjectArray timesNeg, jint channelCount, jint maxSpikes);
+                                                                     jstring confidenceIntervalsEvent, jlong control);
+JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_findSpikes(JNIEnv *env, jclass type, jstring filePath, jobject listener,
+                                                  jlong control);
 
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_autocorrelationAnalysis(JNIEnv *env, jclass type, jobjectArray spikeTrains,
                                                                jint spikeTrainCount, jintArray spikeCounts,
-                                                               jobjectArray analysis, jint analysisBinCount);
+                                                               jobjectArray analysis, jint analysisBinCount,
+                                                               jlong control);
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_isiAnalysis(JNIEnv *env, jclass type, jobjectArray spikeTrains,
                                                    jint spikeTrainCount, jintArray spikeCounts, jobjectArray analysis,
-                                                   jint analysisBinCount);
+                                                   jint analysisBinCount, jlong control);
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_crossCorrelationAnalysis(JNIEnv *env, jclass type, jobjectArray spikeTrains,
                                                                 jint spikeTrainCount, jintArray spikeCounts,
                                                                 jobjectArray analysis, jint analysisCount,
-                                                                jint analysisBinCount);
+                                                                jint analysisBinCount, jlong control);
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_averageSpikeAnalysis(JNIEnv *env, jclass type, jstring filePath,
                                                             jobjectArray spikeTrains, jint spikeTrainCount,
                                                             jintArray spikeCounts, jobjectArray averageSpike,
                                                             jobjectArray normAverageSpike, jobjectArray normTopStdLine,
-                                                            jobjectArray normBottomStdLine, jint batchSpikeCount);
+                                                            jobjectArray normBottomStdLine, jint batchSpikeCount,
+                                                            jlong control);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_clusterSpikes(JNIEnv *env, jclass type, jstring filePath,
+                                                     jstring scratchFilePath, jint channel, jintArray spikeIndices,
+                                                     jint spikeCount, jint clusterCount, jbyteArray clusters,
+                                                     jlong control);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_powerSpectrumAnalysis(JNIEnv *env, jclass type, jstring filePath,
+                                                             jint windowLength, jfloatArray bandEdges, jint bandCount,
+                                                             jobjectArray powers, jobjectArray bandPowers,
+                                                             jint channelCount, jlong control);
+JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_psthAnalysis(JNIEnv *env, jclass type, jobjectArray spikeTrains,
+                                                    jint spikeTrainCount, jintArray spikeCounts, jobjectArray events,
+                                                    jint eventTypeCount, jintArray eventCounts, jint leftFrameCount,
+                                                    jint rightFrameCount, jint binCount, jobjectArray histograms,
+                                                    jobjectArray trialStarts, jobjectArray rasters, jlong control);
+JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_grandAverageSpikes(JNIEnv *env, jclass type, jstring filePath,
+                                                          jobjectArray spikeTrains, jintArray channels,
+                                                          jintArray spikeCounts, jint spikeTrainCount, jint sampleRate,
+                                                          jint leftFrameCount, jint frameCount, jintArray counts,
+                                                          jobjectArray means, jobjectArray m2s, jlong control);
+JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_grandAverageEvents(JNIEnv *env, jclass type, jstring filePath,
+                                                          jstring eventsFilePath, jobjectArray events, jint eventCount,
+                                                          jint channelCount, jboolean removeNoiseIntervals,
+                                                          jint sampleRate, jint leftFrameCount, jint frameCount,
+                                                          jintArray counts, jobjectArray means, jobjectArray m2s,
+                                                          jlong control);
+JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_newAnalysisControl(JNIEnv *env, jclass type);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_cancelAnalysis(JNIEnv *env, jclass type, jlong control);
+JNIEXPORT jfloat JNICALL
+Java_com_backyardbrains_utils_JniUtils_getAnalysisProgress(JNIEnv *env, jclass type, jlong control);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_releaseAnalysisControl(JNIEnv *env, jclass type, jlong control);
 }
 
 const char *TAG = "BybLib";
@@ -166,13 +244,35 @@ AmModulationProcessor *amModulationProcessor;
 SampleStreamProcessor *sampleStreamProcessor;
 ThresholdProcessor *thresholdProcessor;
 FftProcessor *fftProcessor;
-EventTriggeredAverageAnalysis *eventTriggeredAverageAnalysis;
 SpikeAnalysis *spikeAnalysis;
 AutocorrelationAnalysis *autocorrelationAnalysis;
 IsiAnalysis *isiAnalysis;
 AverageSpikeAnalysis *averageSpikeAnalysis;
+SpikeClusteringAnalysis *spikeClusteringAnalysis;
+PowerSpectrumAnalysis *powerSpectrumAnalysis;
+PsthAnalysis *psthAnalysis;
+GrandAverageAnalysis *grandAverageAnalysis;
 CrossCorrelationAnalysis *crossCorrelationAnalysis;
 
+// Size of the ring that holds HID packets payload (~6 seconds of the SpikerBox Pro sample stream)
+static constexpr int USB_PACKET_RING_CAPACITY = 1 << 18;
+// Max number of bytes that's passed to sample stream processor in one batch
+static constexpr int USB_PACKET_RING_MAX_READ = 4096;
+backyardbrains::utils::UsbPacketRing *usbPacketRing;
+backyardbrains::utils::UsbLinkTelemetry *usbLinkTelemetry;
+unsigned char usbPacketRingReadBuffer[USB_PACKET_RING_MAX_READ];
+
+// Max number of spikes that's passed to a spike detector consumer in one batch
+static constexpr int SPIKE_EVENTS_MAX_READ = 1024;
+SpikeDetector *spikeDetector;
+// Each consumer reads spikes from its own thread so every consumer has its own read buffers
+backyardbrains::utils::SpikeEvent spikeEventsReadBuffer[SpikeDetector::CONSUMER_COUNT][SPIKE_EVENTS_MAX_READ];
+jint spikeChannelsReadBuffer[SpikeDetector::CONSUMER_COUNT][SPIKE_EVENTS_MAX_READ];
+jint spikeTrainsReadBuffer[SpikeDetector::CONSUMER_COUNT][SPIKE_EVENTS_MAX_READ];
+jint spikeUnitsReadBuffer[SpikeDetector::CONSUMER_COUNT][SPIKE_EVENTS_MAX_READ];
+jshort spikeValuesReadBuffer[SpikeDetector::CONSUMER_COUNT][SPIKE_EVENTS_MAX_READ];
+jlong spikeFrameIndicesReadBuffer[SpikeDetector::CONSUMER_COUNT][SPIKE_EVENTS_MAX_READ];
+
 JavaVM *vm = nullptr;
 // SignalData field IDs
 jfieldID sdChannelCountFid;
@@ -206,9 +306,6 @@ jfieldID fddIndexCountFid;
 jfieldID fddColorCountFid;
 jfieldID fddScaleXFid;
 jfieldID fddScaleYFid;
-// SpikeIndexValue field IDs
-jfieldID sivValueFid;
-jfieldID sivIndexFid;
 // SpikesDrawData field IDs
 jfieldID spddVerticesFid;
 jfieldID spddColorsFid;
@@ -226,6 +323,45 @@ public:
     }
 };
 
+class SpikesFoundListener : public backyardbrains::analysis::OnSpikesFoundListener {
+public:
+    SpikesFoundListener(JNIEnv *env, jobject listenerObj) : env(env), listenerObj(listenerObj) {
+        jclass cls = env->GetObjectClass(listenerObj);
+        onSpikesFoundMid = env->GetMethodID(cls, "onSpikesFound", "(IZ[S[I[FI)V");
+        env->DeleteLocalRef(cls);
+        // arrays are reused for every batch
+        values = env->NewShortArray(SpikeAnalysis::SPIKE_BATCH_SIZE);
+        indices = env->NewIntArray(SpikeAnalysis::SPIKE_BATCH_SIZE);
+        times = env->NewFloatArray(SpikeAnalysis::SPIKE_BATCH_SIZE);
+    }
+
+    ~SpikesFoundListener() {
+        env->DeleteLocalRef(values);
+        env->DeleteLocalRef(indices);
+        env->DeleteLocalRef(times);
+    }
+
+    void onSpikesFound(int channel, bool positive, const short *valuesPtr, const int *indicesPtr,
+                       const float *timesPtr, int count) override {
+        // once java side throws we can't call it anymore so exception is propagated when analysis returns
+        if (env->ExceptionCheck()) return;
+
+        env->SetShortArrayRegion(values, 0, count, valuesPtr);
+        env->SetIntArrayRegion(indices, 0, count, indicesPtr);
+        env->SetFloatArrayRegion(times, 0, count, timesPtr);
+        env->CallVoidMethod(listenerObj, onSpikesFoundMid, channel, static_cast<jboolean>(positive), values, indices,
+                            times, count);
+    }
+
+private:
+    JNIEnv *env;
+    jobject listenerObj;
+    jmethodID onSpikesFoundMid;
+    jshortArray values;
+    jintArray indices;
+    jfloatArray times;
+};
+
 class EventListener : public backyardbrains::utils::OnEventListenerListener {
 public:
     EventListener() {
@@ -282,15 +418,21 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved) {
 
     eventListener = new EventListener();
     amModulationProcessor = new AmModulationProcessor();
-    sampleStreamProcessor = new SampleStreamProcessor(eventListener);
+    usbLinkTelemetry = new backyardbrains::utils::UsbLinkTelemetry();
+    sampleStreamProcessor = new SampleStreamProcessor(eventListener, usbLinkTelemetry);
     thresholdProcessor = new ThresholdProcessor(new HeartbeatListener());
     fftProcessor = new FftProcessor();
-    eventTriggeredAverageAnalysis = new EventTriggeredAverageAnalysis();
+    spikeDetector = new SpikeDetector();
     spikeAnalysis = new SpikeAnalysis();
     autocorrelationAnalysis = new AutocorrelationAnalysis();
     isiAnalysis = new IsiAnalysis();
     averageSpikeAnalysis = new AverageSpikeAnalysis();
+    spikeClusteringAnalysis = new SpikeClusteringAnalysis();
+    powerSpectrumAnalysis = new PowerSpectrumAnalysis();
+    psthAnalysis = new PsthAnalysis();
+    grandAverageAnalysis = new GrandAverageAnalysis();
     crossCorrelationAnalysis = new CrossCorrelationAnalysis();
+    usbPacketRing = new backyardbrains::utils::UsbPacketRing(USB_PACKET_RING_CAPACITY, usbLinkTelemetry);
 
     // let's cache fields of the SignalData java object
     jclass cls = env->FindClass("com/backyardbrains/dsp/SignalData");
@@ -334,11 +476,6 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved) {
     fddScaleXFid = env->GetFieldID(cls, "scaleX", "F");
     fddScaleYFid = env->GetFieldID(cls, "scaleY", "F");
 
-    // let's cache fields of the SpikeIndexValue java object
-    cls = env->FindClass("com/backyardbrains/vo/SpikeIndexValue");
-    sivValueFid = env->GetFieldID(cls, "value", "F");
-    sivIndexFid = env->GetFieldID(cls, "index", "I");
-
     // let's cache fields of the SpikesDrawData java object
     cls = env->FindClass("com/backyardbrains/drawing/SpikesDrawData");
     spddVerticesFid = env->GetFieldID(cls, "vertices", "[F");
@@ -500,6 +637,7 @@ Java_com_backyardbrains_utils_JniUtils_setSampleRate(JNIEnv *env, jclass type, j
     sampleStreamProcessor->setSampleRate(sampleRate);
     thresholdProcessor->setSampleRate(sampleRate);
     fftProcessor->setSampleRate(sampleRate);
+    spikeDetector->setSampleRate(sampleRate);
 }
 
 extern "C" JNIEXPORT void JNICALL
@@ -553,9 +691,9 @@ Java_com_backyardbrains_utils_JniUtils_setNotchFilter(JNIEnv *env, jclass type,
     fftProcessor->setNotchFilter(centerFreq);
 }
 
-extern "C" JNIEXPORT void JNICALL
-Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jclass type, jobject out, jbyteArray inBytes,
-                                                           jint length, jobject sampleSourceObject) {
+// Processes specified sample stream bytes and populates specified SignalData java object with the result
+static void processSampleStreamBytes(JNIEnv *env, jobject out, const unsigned char *inBytes, jint length,
+                                     jobject sampleSourceObject) {
     jint channelCount = env->GetIntField(out, sdChannelCountFid);
     auto samples = reinterpret_cast<jobjectArray>(env->GetObjectField(out, sdSamplesFid));
     auto sampleCounts = reinterpret_cast<jintArray>(env->GetObjectField(out, sdSampleCountsFid));
@@ -564,18 +702,6 @@ Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jclass t
 
     jint eventCount = env->GetArrayLength(eventIndices);
 
-    auto *inBytesPtr = new jbyte[length];
-    env->GetByteArrayRegion(inBytes, 0, length, inBytesPtr);
-
-    // exception check
-    if (exception_check(env)) {
-        delete[] inBytesPtr;
-        return;
-    }
-
-    auto *uInBytesPtr = new unsigned char[length];
-    std::copy(inBytesPtr, inBytesPtr + length, uInBytesPtr);
-
     // pass sample source object to event listener so proper method can be triggered on it when necessary
     eventListener->setSampleSourceObj(sampleSourceObject);
 
@@ -584,7 +710,7 @@ Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jclass t
     auto *outEventIndicesPtr = new jint[eventCount];
     auto *outEventNamesPtr = new std::string[eventCount];
     jint outEventCount;
-    sampleStreamProcessor->process(uInBytesPtr, length, outSamplesPtr, outSampleCounts, outEventIndicesPtr,
+    sampleStreamProcessor->process(inBytes, length, outSamplesPtr, outSampleCounts, outEventIndicesPtr,
                                    outEventNamesPtr, outEventCount, channelCount);
 
     // if we did get some events create array of strings that represent event names and populate it
@@ -594,8 +720,6 @@ Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jclass t
 
     // exception check
     if (exception_check(env)) {
-        delete[] inBytesPtr;
-        delete[] uInBytesPtr;
         for (int i = 0; i < channelCount; i++) {
             delete[] outSamplesPtr[i];
         }
@@ -616,8 +740,6 @@ Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jclass t
     env->SetIntArrayRegion(sampleCounts, 0, channelCount, channelSampleCounts);
     env->SetIntArrayRegion(eventIndices, 0, outEventCount, outEventIndicesPtr);
     env->SetIntField(out, sdEventCountFid, outEventCount);
-    delete[] inBytesPtr;
-    delete[] uInBytesPtr;
     for (int i = 0; i < channelCount; i++) {
         delete[] outSamplesPtr[i];
     }
@@ -628,6 +750,84 @@ Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jclass t
     delete[] channelSampleCounts;
 }
 
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jclass type, jobject out, jbyteArray inBytes,
+                                                           jint length, jobject sampleSourceObject) {
+    auto *inBytesPtr = new jbyte[length];
+    env->GetByteArrayRegion(inBytes, 0, length, inBytesPtr);
+
+    // exception check
+    if (exception_check(env)) {
+        delete[] inBytesPtr;
+        return;
+    }
+
+    auto *uInBytesPtr = new unsigned char[length];
+    std::copy(inBytesPtr, inBytesPtr + length, uInBytesPtr);
+
+    processSampleStreamBytes(env, out, uInBytesPtr, length, sampleSourceObject);
+
+    delete[] inBytesPtr;
+    delete[] uInBytesPtr;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_writeHidPackets(JNIEnv *env, jclass type, jobject inBuffer, jint length,
+                                                       jint packetSize) {
+    auto *inBytesPtr = reinterpret_cast<unsigned char *>(env->GetDirectBufferAddress(inBuffer));
+    if (inBytesPtr == nullptr) return 0;
+
+    return usbPacketRing->writeHidPackets(inBytesPtr, length, packetSize);
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_awaitUsbPacketRing(JNIEnv *env, jclass type, jint timeoutMs) {
+    return static_cast<jboolean>(usbPacketRing->await(timeoutMs) > 0);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_processUsbPacketRing(JNIEnv *env, jclass type, jobject out,
+                                                            jobject sampleSourceObject) {
+    jint length = usbPacketRing->read(usbPacketRingReadBuffer, USB_PACKET_RING_MAX_READ);
+    if (length > 0) {
+        processSampleStreamBytes(env, out, usbPacketRingReadBuffer, length, sampleSourceObject);
+        usbPacketRing->markProcessed();
+    }
+
+    return length;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_getUsbPacketRingFreeSpace(JNIEnv *env, jclass type) {
+    return usbPacketRing->freeSpace();
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_resetUsbPacketRing(JNIEnv *env, jclass type) {
+    usbPacketRing->reset();
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_onUsbPacketReceived(JNIEnv *env, jclass type) {
+    usbLinkTelemetry->onPacketReceived();
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_getUsbLinkTelemetry(JNIEnv *env, jclass type, jlongArray outValues) {
+    const int valueCount = backyardbrains::utils::UsbLinkTelemetry::VALUE_COUNT;
+    long long values[valueCount];
+    usbLinkTelemetry->getValues(values);
+
+    jlong outValuesPtr[valueCount];
+    std::copy(values, values + valueCount, outValuesPtr);
+    env->SetLongArrayRegion(outValues, 0, std::min(env->GetArrayLength(outValues), valueCount), outValuesPtr);
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_resetUsbLinkTelemetry(JNIEnv *env, jclass type) {
+    usbLinkTelemetry->reset();
+}
+
 extern "C" JNIEXPORT jboolean JNICALL
 Java_com_backyardbrains_utils_JniUtils_isAudioStreamAmModulated(JNIEnv *env, jclass type) {
     return static_cast<jboolean>(amModulationProcessor->isReceivingAmSignal());
@@ -692,7 +892,7 @@ extern "C" JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_processPlaybackStream(JNIEnv *env, jclass type, jobject out, jbyteArray inBytes,
                                                              jint length, jintArray inEventIndices,
                                                              jobjectArray inEventNames, jint inEventCount, jlong start,
-                                                             jlong end, jint prependSamples) {
+                                                             jlong end, jint prependSamples, jint decimationFactor) {
     jint channelCount = env->GetIntField(out, sdChannelCountFid);
     jint maxSamplesPerChannel = env->GetIntField(out, sdMaxSamplesPerChannel);
     jint bitsPerSample = env->GetIntField(out, sdBitsPerSample);
@@ -737,7 +937,8 @@ Java_com_backyardbrains_utils_JniUtils_processPlaybackStream(JNIEnv *env, jclass
     for (int i = 0; i < inEventCount; i++) {
         jint sampleIndex = inEventIndicesPtr[i] - prepend;
         if (start <= sampleIndex && sampleIndex < end) {
-            outEventIndicesPtr[eventCounter] = static_cast<jint>(sampleIndex - start);
+            // if signal is decimated event index needs to be decimated as well
+            outEventIndicesPtr[eventCounter] = static_cast<jint>((sampleIndex - start) / decimationFactor);
 
             auto string = (jstring) (env->GetObjectArrayElement(inEventNames, i));
             const char *rawString = env->GetStringUTFChars(string, JNI_FALSE);
@@ -778,6 +979,42 @@ Java_com_backyardbrains_utils_JniUtils_processPlaybackStream(JNIEnv *env, jclass
     delete[] outEventIndicesPtr;
 }
 
+extern "C" JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_decimateMinMax(JNIEnv *env, jclass type, jbyteArray out, jbyteArray in,
+                                                      jint length, jint channelCount, jint bitsPerSample,
+                                                      jint decimationFactor) {
+    jint frameCount = length * 8 / bitsPerSample / channelCount;
+    if (frameCount <= 0) return 0;
+
+    jbyte *inBytesPtr = env->GetByteArrayElements(in, nullptr);
+    jbyte *outBytesPtr = env->GetByteArrayElements(out, nullptr);
+
+    // exception check
+    if (exception_check(env)) {
+        if (inBytesPtr != nullptr) env->ReleaseByteArrayElements(in, inBytesPtr, JNI_ABORT);
+        if (outBytesPtr != nullptr) env->ReleaseByteArrayElements(out, outBytesPtr, JNI_ABORT);
+        return 0;
+    }
+
+    jint outFrameCount;
+    if (bitsPerSample == backyardbrains::utils::SignalUtils::ENCODING_FLOAT) {
+        outFrameCount = backyardbrains::utils::SignalUtils::decimateMinMax(reinterpret_cast<float *>(outBytesPtr),
+                                                                           reinterpret_cast<const float *>(inBytesPtr),
+                                                                           frameCount, channelCount,
+                                                                           decimationFactor);
+    } else {
+        outFrameCount = backyardbrains::utils::SignalUtils::decimateMinMax(reinterpret_cast<short *>(outBytesPtr),
+                                                                           reinterpret_cast<const short *>(inBytesPtr),
+                                                                           frameCount, channelCount,
+                                                                           decimationFactor);
+    }
+
+    env->ReleaseByteArrayElements(in, inBytesPtr, JNI_ABORT);
+    env->ReleaseByteArrayElements(out, outBytesPtr, 0);
+
+    return outFrameCount * channelCount * bitsPerSample / 8;
+}
+
 extern "C" JNIEXPORT jint JNICALL
 Java_com_backyardbrains_utils_JniUtils_getAveragedSampleCount(JNIEnv *env, jclass type) {
     return thresholdProcessor->getAveragedSampleCount();
@@ -943,6 +1180,83 @@ Java_com_backyardbrains_utils_JniUtils_processThreshold(JNIEnv *env, jclass type
     delete[] channelSampleCounts;
 }
 
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_detectSpikes(JNIEnv *env, jclass type, jobject in) {
+    jint channelCount = env->GetIntField(in, sdChannelCountFid);
+    auto samples = reinterpret_cast<jobjectArray>(env->GetObjectField(in, sdSamplesFid));
+    auto sampleCounts = reinterpret_cast<jintArray>(env->GetObjectField(in, sdSampleCountsFid));
+
+    jint *inSampleCountsPtr = new jint[channelCount];
+    env->GetIntArrayRegion(sampleCounts, 0, channelCount, inSampleCountsPtr);
+
+    auto **inSamplesPtr = new jshort *[channelCount];
+    for (int i = 0; i < channelCount; i++) {
+        inSamplesPtr[i] = new jshort[inSampleCountsPtr[i]];
+        env->GetShortArrayRegion(reinterpret_cast<jshortArray>(env->GetObjectArrayElement(samples, i)), 0,
+                                 inSampleCountsPtr[i], inSamplesPtr[i]);
+    }
+
+    jlong lastFrameIndex = -1;
+    // exception check
+    if (!exception_check(env)) {
+        spikeDetector->setChannelCount(channelCount);
+        lastFrameIndex = spikeDetector->process(inSamplesPtr, inSampleCountsPtr, channelCount);
+    }
+
+    delete[] inSampleCountsPtr;
+    for (int i = 0; i < channelCount; i++) {
+        delete[] inSamplesPtr[i];
+    }
+    delete[] inSamplesPtr;
+
+    return lastFrameIndex;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_readSpikeEvents(JNIEnv *env, jclass type, jint consumer,
+                                                       jintArray outChannels, jintArray outTrains, jintArray outUnits,
+                                                       jshortArray outValues, jlongArray outFrameIndices) {
+    if (consumer < 0 || consumer >= SpikeDetector::CONSUMER_COUNT) return 0;
+
+    jint maxCount = std::min(std::min(env->GetArrayLength(outChannels), env->GetArrayLength(outTrains)),
+                             std::min(env->GetArrayLength(outValues), env->GetArrayLength(outFrameIndices)));
+    maxCount = std::min(maxCount, env->GetArrayLength(outUnits));
+    // this is called often so we don't want to allocate anything
+    backyardbrains::utils::SpikeEvent *events = spikeEventsReadBuffer[consumer];
+    jint count = spikeDetector->readEvents(consumer, events, std::min(maxCount, SPIKE_EVENTS_MAX_READ));
+    if (count <= 0) return 0;
+
+    jint *channelsPtr = spikeChannelsReadBuffer[consumer];
+    jint *trainsPtr = spikeTrainsReadBuffer[consumer];
+    jint *unitsPtr = spikeUnitsReadBuffer[consumer];
+    jshort *valuesPtr = spikeValuesReadBuffer[consumer];
+    jlong *frameIndicesPtr = spikeFrameIndicesReadBuffer[consumer];
+    for (int i = 0; i < count; i++) {
+        channelsPtr[i] = events[i].channel;
+        trainsPtr[i] = events[i].train;
+        unitsPtr[i] = events[i].unit;
+        valuesPtr[i] = events[i].value;
+        frameIndicesPtr[i] = events[i].frameIndex;
+    }
+    env->SetIntArrayRegion(outChannels, 0, count, channelsPtr);
+    env->SetIntArrayRegion(outTrains, 0, count, trainsPtr);
+    env->SetIntArrayRegion(outUnits, 0, count, unitsPtr);
+    env->SetShortArrayRegion(outValues, 0, count, valuesPtr);
+    env->SetLongArrayRegion(outFrameIndices, 0, count, frameIndicesPtr);
+
+    return count;
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_getDroppedSpikeEventCount(JNIEnv *env, jclass type, jint consumer) {
+    return spikeDetector->getDroppedCount(consumer);
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_resetSpikeDetector(JNIEnv *env, jclass type) {
+    spikeDetector->reset();
+}
+
 extern "C" JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_resetFftNormalization(JNIEnv *env, jclass type) {
     fftProcessor->resetNormalization();
@@ -1185,29 +1499,30 @@ Java_com_backyardbrains_utils_JniUtils_prepareForFftDrawing(JNIEnv *env, jclass
 }
 
 extern "C" JNIEXPORT void JNICALL
-Java_com_backyardbrains_utils_JniUtils_prepareForSpikesDrawing(JNIEnv *env, jclass type, jobject out, jobjectArray in,
+Java_com_backyardbrains_utils_JniUtils_prepareForSpikesDrawing(JNIEnv *env, jclass type, jobject out,
+                                                               jfloatArray inSpikeValues, jintArray inSpikeIndices,
+                                                               jint inSpikeOffset, jint inSpikeCount,
                                                                jfloatArray colorInRange, jfloatArray colorOutOfRange,
                                                                jint rangeStart, jint rangeEnd, jint sampleStartIndex,
                                                                jint sampleEndIndex, jint drawStartIndex,
                                                                jint drawEndIndex, jint sampleCount,
                                                                jint drawSurfaceWidth) {
-    jint spikeCount = env->GetArrayLength(in);
+    auto outVertices = reinterpret_cast<jfloatArray>(env->GetObjectField(out, spddVerticesFid));
+    auto outColors = reinterpret_cast<jfloatArray>(env->GetObjectField(out, spddColorsFid));
+    // every spike takes 2 vertices so we can't draw more spikes than that
+    jint spikeCount = std::min(inSpikeCount, env->GetArrayLength(outVertices) / 2);
 
     // if there is no spikes just return
-    if (spikeCount == 0) {
+    if (spikeCount <= 0) {
         env->SetIntField(out, spddVertexCountFid, 0);
         env->SetIntField(out, spddColorCountFid, 0);
         return;
     }
 
     auto *inSpikeValuesPtr = new jfloat[spikeCount];
+    env->GetFloatArrayRegion(inSpikeValues, inSpikeOffset, spikeCount, inSpikeValuesPtr);
     auto *inSpikeIndicesPtr = new jint[spikeCount];
-    for (int i = 0; i < spikeCount; ++i) {
-        auto tmpSpike = (jobject) env->GetObjectArrayElement(in, i);
-        inSpikeValuesPtr[i] = env->GetFloatField(tmpSpike, sivValueFid);
-        inSpikeIndicesPtr[i] = env->GetIntField(tmpSpike, sivIndexFid);
-        env->DeleteLocalRef(tmpSpike);
-    }
+    env->GetIntArrayRegion(inSpikeIndices, inSpikeOffset, spikeCount, inSpikeIndicesPtr);
     auto *colorInPtr = new jfloat[4]; // (rgba)
     env->GetFloatArrayRegion(colorInRange, 0, 4, colorInPtr);
     auto *colorOutPtr = new jfloat[4]; // (rgba)
@@ -1222,8 +1537,6 @@ Java_com_backyardbrains_utils_JniUtils_prepareForSpikesDrawing(JNIEnv *env, jcla
         return;
     }
 
-    auto outVertices = reinterpret_cast<jfloatArray>(env->GetObjectField(out, spddVerticesFid));
-    auto outColors = reinterpret_cast<jfloatArray>(env->GetObjectField(out, spddColorsFid));
     auto *outSpikeVerticesPtr = new jfloat[env->GetArrayLength(outVertices)];
     auto *outSpikeColorsPtr = new jfloat[env->GetArrayLength(outColors)];
     jint outVertexCount = 0;
@@ -1312,7 +1625,7 @@ Java_com_backyardbrains_utils_JniUtils_eventTriggeredAverageAnalysis(JNIEnv *env
                                                                      jobjectArray normMcTop, jobjectArray normMcBottom,
                                                                      jobjectArray minMax, jint channelCount,
                                                                      jint frameCount, jboolean removeNoiseIntervals,
-                                                                     jstring confidenceIntervalsEvent) {
+                                                                     jstring confidenceIntervalsEvent, jlong control) {
     const char *filePathPtr = env->GetStringUTFChars(filePath, JNI_FALSE);
     const char *eventsFilePathPtr = env->GetStringUTFChars(eventsFilePath, JNI_FALSE);
     auto *eventNamesPtr = new std::string[eventCount];
@@ -1353,10 +1666,12 @@ Java_com_backyardbrains_utils_JniUtils_eventTriggeredAverageAnalysis(JNIEnv *env
     auto *minPtr = new jfloat[2];
     auto *maxPtr = new jfloat[2];
 
-    eventTriggeredAverageAnalysis->process(filePathPtr, eventsFilePathPtr, eventNamesPtr, eventCount,
-                                           removeNoiseIntervals, confidenceIntervalsEventPtr, averagesPtr,
-                                           normAveragesPtr, normMcAveragesPtr, normMcTopPtr, normMcBottomPtr, minPtr,
-                                           maxPtr);
+    // analysis keeps the state of the processed file so every call needs its own instance
+    EventTriggeredAverageAnalysis eventTriggeredAverageAnalysis;
+    eventTriggeredAverageAnalysis.process(filePathPtr, eventsFilePathPtr, eventNamesPtr, eventCount,
+                                          removeNoiseIntervals, confidenceIntervalsEventPtr, averagesPtr,
+                                          normAveragesPtr, normMcAveragesPtr, normMcTopPtr, normMcBottomPtr, minPtr,
+                                          maxPtr, reinterpret_cast<AnalysisControl *>(control));
 
     for (int i = 0; i < eventCount; i++) {
         auto channelEventAverages = reinterpret_cast<jobjectArray>(env->GetObjectArrayElement(averages, i));
@@ -1424,125 +1739,26 @@ Java_com_backyardbrains_utils_JniUtils_eventTriggeredAverageAnalysis(JNIEnv *env
     delete[] minMaxPtr;
 }
 
-extern "C" JNIEXPORT jobjectArray JNICALL
-Java_com_backyardbrains_utils_JniUtils_findSpikes(JNIEnv *env, jclass type, jstring filePath, jobjectArray valuesPos,
-                                                  jobjectArray indicesPos, jobjectArray timesPos,
-                                                  jobjectArray valuesNeg, jobjectArray indicesNeg,
-                                                  jobjectArray timesNeg, jint channelCount, jint maxSpikes) {
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_findSpikes(JNIEnv *env, jclass type, jstring filePath, jobject listener,
+                                                  jlong control) {
     // get pointer to file path string
     const char *filePathPtr = env->GetStringUTFChars(filePath, JNI_FALSE);
-    // get pointer to positive values array
-    auto **valuesPosPtr = new jshort *[channelCount];
-    jint **indicesPosPtr = new jint *[channelCount];
-    auto **timesPosPtr = new jfloat *[channelCount];
-    auto **valuesNegPtr = new jshort *[channelCount];
-    jint **indicesNegPtr = new jint *[channelCount];
-    auto **timesNegPtr = new jfloat *[channelCount];
-    for (int i = 0; i < channelCount; ++i) {
-        valuesPosPtr[i] = new jshort[maxSpikes];
-        indicesPosPtr[i] = new jint[maxSpikes];
-        timesPosPtr[i] = new jfloat[maxSpikes];
-        valuesNegPtr[i] = new jshort[maxSpikes];
-        indicesNegPtr[i] = new jint[maxSpikes];
-        timesNegPtr[i] = new jfloat[maxSpikes];
-    }
-
-    jclass intArrayClass = env->FindClass("[I");
-    jobjectArray result = env->NewObjectArray(channelCount, intArrayClass, nullptr);
-    for (int i = 0; i < channelCount; i++) {
-        jintArray tmpResult = env->NewIntArray(2);
-        env->SetIntArrayRegion(tmpResult, 0, 2, new int[2]{0});
-        env->SetObjectArrayElement(result, i, tmpResult);
-        env->DeleteLocalRef(tmpResult);
-    }
-
-    // exception check
-    if (exception_check(env)) {
-        env->ReleaseStringUTFChars(filePath, filePathPtr);
-        for (int i = 0; i < channelCount; ++i) {
-            delete[] valuesPosPtr[i];
-            delete[] indicesPosPtr[i];
-            delete[] timesPosPtr[i];
-            delete[] valuesNegPtr[i];
-            delete[] indicesNegPtr[i];
-            delete[] timesNegPtr[i];
-        }
-        delete[] valuesPosPtr;
-        delete[] indicesPosPtr;
-        delete[] timesPosPtr;
-        delete[] valuesNegPtr;
-        delete[] indicesNegPtr;
-        delete[] timesNegPtr;
-        return result;
-    }
 
-    jint *outPosCount = new jint[channelCount];
-    jint *outNegCount = new jint[channelCount];
-    spikeAnalysis->findSpikes(filePathPtr, valuesPosPtr, indicesPosPtr, timesPosPtr, valuesNegPtr, indicesNegPtr,
-                              timesNegPtr, outPosCount, outNegCount);
-
-    for (int i = 0; i < channelCount; i++) {
-        auto tmpResult = reinterpret_cast<jintArray>(env->GetObjectArrayElement(result, i));
-        env->SetIntArrayRegion(tmpResult, 0, 2, new int[2]{outPosCount[i], outNegCount[i]});
-        env->SetObjectArrayElement(result, i, tmpResult);
-        env->DeleteLocalRef(tmpResult);
-
-        auto tempValuesPos = reinterpret_cast<jshortArray>(env->GetObjectArrayElement(valuesPos, i));
-        env->SetShortArrayRegion(tempValuesPos, 0, outPosCount[i], valuesPosPtr[i]);
-        env->SetObjectArrayElement(valuesPos, i, tempValuesPos);
-        env->DeleteLocalRef(tempValuesPos);
-
-        auto tempIndicesPos = reinterpret_cast<jintArray>(env->GetObjectArrayElement(indicesPos, i));
-        env->SetIntArrayRegion(tempIndicesPos, 0, outPosCount[i], indicesPosPtr[i]);
-        env->SetObjectArrayElement(indicesPos, i, tempIndicesPos);
-        env->DeleteLocalRef(tempIndicesPos);
-
-        auto tempTimesPos = reinterpret_cast<jfloatArray>(env->GetObjectArrayElement(timesPos, i));
-        env->SetFloatArrayRegion(tempTimesPos, 0, outPosCount[i], timesPosPtr[i]);
-        env->SetObjectArrayElement(timesPos, i, tempTimesPos);
-        env->DeleteLocalRef(tempTimesPos);
-
-        auto tempValuesNeg = reinterpret_cast<jshortArray>(env->GetObjectArrayElement(valuesNeg, i));
-        env->SetShortArrayRegion(tempValuesNeg, 0, outNegCount[i], valuesNegPtr[i]);
-        env->SetObjectArrayElement(valuesNeg, i, tempValuesNeg);
-        env->DeleteLocalRef(tempValuesNeg);
-
-        auto tempIndicesNeg = reinterpret_cast<jintArray>(env->GetObjectArrayElement(indicesNeg, i));
-        env->SetIntArrayRegion(tempIndicesNeg, 0, outNegCount[i], indicesNegPtr[i]);
-        env->SetObjectArrayElement(indicesNeg, i, tempIndicesNeg);
-        env->DeleteLocalRef(tempIndicesNeg);
-
-        auto tempTimesNeg = reinterpret_cast<jfloatArray>(env->GetObjectArrayElement(timesNeg, i));
-        env->SetFloatArrayRegion(tempTimesNeg, 0, outNegCount[i], timesNegPtr[i]);
-        env->SetObjectArrayElement(timesNeg, i, tempTimesNeg);
-        env->DeleteLocalRef(tempTimesNeg);
-    }
+    SpikesFoundListener spikesFoundListener(env, listener);
+    bool found = !exception_check(env) && spikeAnalysis->findSpikes(filePathPtr, &spikesFoundListener,
+                                                                    reinterpret_cast<AnalysisControl *>(control));
 
     env->ReleaseStringUTFChars(filePath, filePathPtr);
-    for (int i = 0; i < channelCount; ++i) {
-        delete[] valuesPosPtr[i];
-        delete[] indicesPosPtr[i];
-        delete[] timesPosPtr[i];
-        delete[] valuesNegPtr[i];
-        delete[] indicesNegPtr[i];
-        delete[] timesNegPtr[i];
-    }
-    delete[] valuesPosPtr;
-    delete[] indicesPosPtr;
-    delete[] timesPosPtr;
-    delete[] valuesNegPtr;
-    delete[] indicesNegPtr;
-    delete[] timesNegPtr;
-    delete[] outPosCount;
-    delete[] outNegCount;
 
-    return result;
+    return static_cast<jboolean>(found);
 }
 
 extern "C" JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_autocorrelationAnalysis(JNIEnv *env, jclass type, jobjectArray spikeTrains,
                                                                jint spikeTrainCount, jintArray spikeCounts,
-                                                               jobjectArray analysis, jint analysisBinCount) {
+                                                               jobjectArray analysis, jint analysisBinCount,
+                                                               jlong control) {
     jint *spikeCountsPtr = new jint[spikeTrainCount];
     env->GetIntArrayRegion(spikeCounts, 0, spikeTrainCount, spikeCountsPtr);
 
@@ -1578,7 +1794,7 @@ Java_com_backyardbrains_utils_JniUtils_autocorrelationAnalysis(JNIEnv *env, jcla
     }
 
     autocorrelationAnalysis->process(spikeTrainsPtr, spikeTrainCount, spikeCountsPtr, analysisPtr,
-                                     analysisBinCount);
+                                     analysisBinCount, reinterpret_cast<AnalysisControl *>(control));
 
     for (int i = 0; i < spikeTrainCount; ++i) {
         auto trainAnalysis = (jintArray) env->GetObjectArrayElement(analysis, i);
@@ -1601,7 +1817,7 @@ extern "C" JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_isiAnalysis(JNIEnv *env, jclass type, jobjectArray spikeTrains,
                                                    jint spikeTrainCount, jintArray spikeCounts,
                                                    jobjectArray analysis,
-                                                   jint analysisBinCount) {
+                                                   jint analysisBinCount, jlong control) {
     jint *spikeCountsPtr = new jint[spikeTrainCount];
     env->GetIntArrayRegion(spikeCounts, 0, spikeTrainCount, spikeCountsPtr);
 
@@ -1636,7 +1852,8 @@ Java_com_backyardbrains_utils_JniUtils_isiAnalysis(JNIEnv *env, jclass type, job
         return;
     }
 
-    isiAnalysis->process(spikeTrainsPtr, spikeTrainCount, spikeCountsPtr, analysisPtr, analysisBinCount);
+    isiAnalysis->process(spikeTrainsPtr, spikeTrainCount, spikeCountsPtr, analysisPtr, analysisBinCount,
+                         reinterpret_cast<AnalysisControl *>(control));
 
     for (int i = 0; i < spikeTrainCount; ++i) {
         auto trainAnalysis = (jintArray) env->GetObjectArrayElement(analysis, i);
@@ -1659,7 +1876,7 @@ extern "C" JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_crossCorrelationAnalysis(JNIEnv *env, jclass type, jobjectArray spikeTrains,
                                                                 jint spikeTrainCount, jintArray spikeCounts,
                                                                 jobjectArray analysis, jint analysisCount,
-                                                                jint analysisBinCount) {
+                                                                jint analysisBinCount, jlong control) {
     jint *spikeCountsPtr = new jint[spikeTrainCount];
     env->GetIntArrayRegion(spikeCounts, 0, spikeTrainCount, spikeCountsPtr);
 
@@ -1693,7 +1910,7 @@ Java_com_backyardbrains_utils_JniUtils_crossCorrelationAnalysis(JNIEnv *env, jcl
     }
 
     crossCorrelationAnalysis->process(spikeTrainsPtr, spikeTrainCount, spikeCountsPtr, analysisPtr,
-                                      analysisBinCount);
+                                      analysisBinCount, reinterpret_cast<AnalysisControl *>(control));
 
     for (int i = 0; i < analysisCount; ++i) {
         auto trainAnalysis = (jintArray) env->GetObjectArrayElement(analysis, i);
@@ -1716,7 +1933,8 @@ Java_com_backyardbrains_utils_JniUtils_averageSpikeAnalysis(JNIEnv *env, jclass
                                                             jintArray spikeCounts, jobjectArray averageSpike,
                                                             jobjectArray normAverageSpike,
                                                             jobjectArray normTopStdLine,
-                                                            jobjectArray normBottomStdLine, jint batchSpikeCount) {
+                                                            jobjectArray normBottomStdLine, jint batchSpikeCount,
+                                                            jlong control) {
     // get pointer to file path string
     const char *filePathPtr = env->GetStringUTFChars(filePath, JNI_FALSE);
 
@@ -1792,7 +2010,8 @@ Java_com_backyardbrains_utils_JniUtils_averageSpikeAnalysis(JNIEnv *env, jclass
     }
 
     averageSpikeAnalysis->process(filePathPtr, spikeTrainsPtr, spikeTrainCount, spikeCountsPtr, averageSpikePtr,
-                                  normAverageSpikePtr, normTopStdLinePtr, normBottomStdLinePtr, batchSpikeCount);
+                                  normAverageSpikePtr, normTopStdLinePtr, normBottomStdLinePtr, batchSpikeCount,
+                                  reinterpret_cast<AnalysisControl *>(control));
 
     for (int i = 0; i < spikeTrainCount; ++i) {
         auto trainAnalysis = (jfloatArray) env->GetObjectArrayElement(averageSpike, i);
@@ -1835,4 +2054,310 @@ Java_com_backyardbrains_utils_JniUtils_averageSpikeAnalysis(JNIEnv *env, jclass
         delete[] normBottomStdLinePtr[i];
     }
     delete[] spikeCountsPtr;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_clusterSpikes(JNIEnv *env, jclass type, jstring filePath,
+                                                     jstring scratchFilePath, jint channel, jintArray spikeIndices,
+                                                     jint spikeCount, jint clusterCount, jbyteArray clusters,
+                                                     jlong control) {
+    const char *filePathPtr = env->GetStringUTFChars(filePath, JNI_FALSE);
+    const char *scratchFilePathPtr = env->GetStringUTFChars(scratchFilePath, JNI_FALSE);
+
+    auto *spikeIndicesPtr = new jint[spikeCount];
+    env->GetIntArrayRegion(spikeIndices, 0, spikeCount, spikeIndicesPtr);
+    auto *clustersPtr = new jbyte[spikeCount];
+
+    // exception check
+    if (exception_check(env)) {
+        env->ReleaseStringUTFChars(filePath, filePathPtr);
+        env->ReleaseStringUTFChars(scratchFilePath, scratchFilePathPtr);
+        delete[] spikeIndicesPtr;
+        delete[] clustersPtr;
+        return 0;
+    }
+
+    const int result = spikeClusteringAnalysis->process(filePathPtr, scratchFilePathPtr, channel, spikeIndicesPtr,
+                                                        spikeCount, clusterCount, clustersPtr,
+                                                        reinterpret_cast<AnalysisControl *>(control));
+
+    env->SetByteArrayRegion(clusters, 0, spikeCount, clustersPtr);
+
+    env->ReleaseStringUTFChars(filePath, filePathPtr);
+    env->ReleaseStringUTFChars(scratchFilePath, scratchFilePathPtr);
+    delete[] spikeIndicesPtr;
+    delete[] clustersPtr;
+
+    return result;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_powerSpectrumAnalysis(JNIEnv *env, jclass type, jstring filePath,
+                                                             jint windowLength, jfloatArray bandEdges, jint bandCount,
+                                                             jobjectArray powers, jobjectArray bandPowers,
+                                                             jint channelCount, jlong control) {
+    const char *filePathPtr = env->GetStringUTFChars(filePath, JNI_FALSE);
+
+    auto *bandEdgesPtr = new jfloat[bandCount + 1];
+    env->GetFloatArrayRegion(bandEdges, 0, bandCount + 1, bandEdgesPtr);
+
+    // exception check
+    if (exception_check(env)) {
+        env->ReleaseStringUTFChars(filePath, filePathPtr);
+        delete[] bandEdgesPtr;
+        return 0;
+    }
+
+    const int binCount = windowLength / 2 + 1;
+    auto **powersPtr = new jfloat *[channelCount];
+    auto **bandPowersPtr = new jfloat *[channelCount];
+    for (int i = 0; i < channelCount; i++) {
+        powersPtr[i] = new jfloat[binCount]{0};
+        bandPowersPtr[i] = new jfloat[bandCount]{0};
+    }
+
+    const int windowCount = powerSpectrumAnalysis->process(filePathPtr, windowLength, bandEdgesPtr, bandCount,
+                                                           powersPtr, bandPowersPtr,
+                                                           reinterpret_cast<AnalysisControl *>(control));
+
+    for (int i = 0; i < channelCount; i++) {
+        auto channelPowers = reinterpret_cast<jfloatArray>(env->GetObjectArrayElement(powers, i));
+        env->SetFloatArrayRegion(channelPowers, 0, binCount, powersPtr[i]);
+        env->DeleteLocalRef(channelPowers);
+
+        auto channelBandPowers = reinterpret_cast<jfloatArray>(env->GetObjectArrayElement(bandPowers, i));
+        env->SetFloatArrayRegion(channelBandPowers, 0, bandCount, bandPowersPtr[i]);
+        env->DeleteLocalRef(channelBandPowers);
+    }
+
+    env->ReleaseStringUTFChars(filePath, filePathPtr);
+    delete[] bandEdgesPtr;
+    for (int i = 0; i < channelCount; i++) {
+        delete[] powersPtr[i];
+        delete[] bandPowersPtr[i];
+    }
+    delete[] powersPtr;
+    delete[] bandPowersPtr;
+
+    return windowCount;
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_psthAnalysis(JNIEnv *env, jclass type, jobjectArray spikeTrains,
+                                                    jint spikeTrainCount, jintArray spikeCounts, jobjectArray events,
+                                                    jint eventTypeCount, jintArray eventCounts, jint leftFrameCount,
+                                                    jint rightFrameCount, jint binCount, jobjectArray histograms,
+                                                    jobjectArray trialStarts, jobjectArray rasters, jlong control) {
+    const int pairCount = eventTypeCount * spikeTrainCount;
+    const bool raster = trialStarts != nullptr && rasters != nullptr;
+
+    auto *spikeCountsPtr = new jint[spikeTrainCount];
+    env->GetIntArrayRegion(spikeCounts, 0, spikeTrainCount, spikeCountsPtr);
+    auto *eventCountsPtr = new jint[eventTypeCount];
+    env->GetIntArrayRegion(eventCounts, 0, eventTypeCount, eventCountsPtr);
+    auto **spikeTrainsPtr = new jint *[spikeTrainCount];
+    for (int i = 0; i < spikeTrainCount; i++) {
+        auto train = (jintArray) env->GetObjectArrayElement(spikeTrains, i);
+        spikeTrainsPtr[i] = new jint[spikeCountsPtr[i]];
+        env->GetIntArrayRegion(train, 0, spikeCountsPtr[i], spikeTrainsPtr[i]);
+        env->DeleteLocalRef(train);
+    }
+    auto **eventsPtr = new jint *[eventTypeCount];
+    for (int i = 0; i < eventTypeCount; i++) {
+        auto typeEvents = (jintArray) env->GetObjectArrayElement(events, i);
+        eventsPtr[i] = new jint[eventCountsPtr[i]];
+        env->GetIntArrayRegion(typeEvents, 0, eventCountsPtr[i], eventsPtr[i]);
+        env->DeleteLocalRef(typeEvents);
+    }
+    auto **histogramsPtr = new jint *[pairCount];
+    auto **trialStartsPtr = raster ? new jint *[pairCount] : nullptr;
+    for (int i = 0; i < pairCount; i++) {
+        histogramsPtr[i] = new jint[binCount];
+        if (raster) trialStartsPtr[i] = new jint[eventCountsPtr[i / spikeTrainCount] + 1];
+    }
+    auto *rastersPtr = raster ? new std::vector<int>[pairCount] : nullptr;
+
+    bool result = false;
+    // exception check
+    if (!exception_check(env)) {
+        result = psthAnalysis->process(spikeTrainsPtr, spikeCountsPtr, spikeTrainCount, eventsPtr, eventCountsPtr,
+                                       eventTypeCount, leftFrameCount, rightFrameCount, binCount, histogramsPtr,
+                                       trialStartsPtr, rastersPtr, reinterpret_cast<AnalysisControl *>(control));
+    }
+
+    if (result) {
+        for (int i = 0; i < pairCount; i++) {
+            auto histogram = (jintArray) env->GetObjectArrayElement(histograms, i);
+            env->SetIntArrayRegion(histogram, 0, binCount, histogramsPtr[i]);
+            env->DeleteLocalRef(histogram);
+
+            if (!raster) continue;
+
+            const int eventCount = eventCountsPtr[i / spikeTrainCount];
+            auto pairTrialStarts = (jintArray) env->GetObjectArrayElement(trialStarts, i);
+            env->SetIntArrayRegion(pairTrialStarts, 0, eventCount + 1, trialStartsPtr[i]);
+            env->DeleteLocalRef(pairTrialStarts);
+
+            // size of the raster is known only after analysis so arrays are created here
+            const auto spikeCount = static_cast<jsize>(rastersPtr[i].size());
+            jintArray pairRaster = env->NewIntArray(spikeCount);
+            env->SetIntArrayRegion(pairRaster, 0, spikeCount, rastersPtr[i].data());
+            env->SetObjectArrayElement(rasters, i, pairRaster);
+            env->DeleteLocalRef(pairRaster);
+        }
+    }
+
+    for (int i = 0; i < spikeTrainCount; i++) delete[] spikeTrainsPtr[i];
+    for (int i = 0; i < eventTypeCount; i++) delete[] eventsPtr[i];
+    for (int i = 0; i < pairCount; i++) {
+        delete[] histogramsPtr[i];
+        if (raster) delete[] trialStartsPtr[i];
+    }
+    delete[] spikeCountsPtr;
+    delete[] eventCountsPtr;
+    delete[] spikeTrainsPtr;
+    delete[] eventsPtr;
+    delete[] histogramsPtr;
+    delete[] trialStartsPtr;
+    delete[] rastersPtr;
+
+    return static_cast<jboolean>(result);
+}
+
+// Copies specified means and M2s of the grand average windows to specified Java arrays
+static void setGrandAverageStats(JNIEnv *env, jintArray counts, jobjectArray means, jobjectArray m2s,
+                                 const jint *countsPtr, double *const *meansPtr, double *const *m2sPtr,
+                                 int statsCount, int frameCount) {
+    env->SetIntArrayRegion(counts, 0, statsCount, countsPtr);
+    for (int i = 0; i < statsCount; i++) {
+        auto mean = (jdoubleArray) env->GetObjectArrayElement(means, i);
+        env->SetDoubleArrayRegion(mean, 0, frameCount, meansPtr[i]);
+        env->DeleteLocalRef(mean);
+
+        auto m2 = (jdoubleArray) env->GetObjectArrayElement(m2s, i);
+        env->SetDoubleArrayRegion(m2, 0, frameCount, m2sPtr[i]);
+        env->DeleteLocalRef(m2);
+    }
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_grandAverageSpikes(JNIEnv *env, jclass type, jstring filePath,
+                                                          jobjectArray spikeTrains, jintArray channels,
+                                                          jintArray spikeCounts, jint spikeTrainCount, jint sampleRate,
+                                                          jint leftFrameCount, jint frameCount, jintArray counts,
+                                                          jobjectArray means, jobjectArray m2s, jlong control) {
+    const char *filePathPtr = env->GetStringUTFChars(filePath, JNI_FALSE);
+    auto *channelsPtr = new jint[spikeTrainCount];
+    env->GetIntArrayRegion(channels, 0, spikeTrainCount, channelsPtr);
+    auto *spikeCountsPtr = new jint[spikeTrainCount];
+    env->GetIntArrayRegion(spikeCounts, 0, spikeTrainCount, spikeCountsPtr);
+    auto **spikeTrainsPtr = new jint *[spikeTrainCount];
+    auto *countsPtr = new jint[spikeTrainCount];
+    auto **meansPtr = new double *[spikeTrainCount];
+    auto **m2sPtr = new double *[spikeTrainCount];
+    for (int i = 0; i < spikeTrainCount; i++) {
+        auto train = (jintArray) env->GetObjectArrayElement(spikeTrains, i);
+        spikeTrainsPtr[i] = new jint[spikeCountsPtr[i]];
+        env->GetIntArrayRegion(train, 0, spikeCountsPtr[i], spikeTrainsPtr[i]);
+        env->DeleteLocalRef(train);
+        meansPtr[i] = new double[frameCount];
+        m2sPtr[i] = new double[frameCount];
+    }
+
+    bool result = false;
+    // exception check
+    if (!exception_check(env)) {
+        result = grandAverageAnalysis->processSpikes(filePathPtr, spikeTrainsPtr, channelsPtr, spikeCountsPtr,
+                                                     spikeTrainCount, sampleRate, leftFrameCount, frameCount,
+                                                     countsPtr, meansPtr, m2sPtr,
+                                                     reinterpret_cast<AnalysisControl *>(control));
+    }
+    if (result) {
+        setGrandAverageStats(env, counts, means, m2s, countsPtr, meansPtr, m2sPtr, spikeTrainCount, frameCount);
+    }
+
+    env->ReleaseStringUTFChars(filePath, filePathPtr);
+    for (int i = 0; i < spikeTrainCount; i++) {
+        delete[] spikeTrainsPtr[i];
+        delete[] meansPtr[i];
+        delete[] m2sPtr[i];
+    }
+    delete[] channelsPtr;
+    delete[] spikeCountsPtr;
+    delete[] spikeTrainsPtr;
+    delete[] countsPtr;
+    delete[] meansPtr;
+    delete[] m2sPtr;
+
+    return static_cast<jboolean>(result);
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_grandAverageEvents(JNIEnv *env, jclass type, jstring filePath,
+                                                          jstring eventsFilePath, jobjectArray events, jint eventCount,
+                                                          jint channelCount, jboolean removeNoiseIntervals,
+                                                          jint sampleRate, jint leftFrameCount, jint frameCount,
+                                                          jintArray counts, jobjectArray means, jobjectArray m2s,
+                                                          jlong control) {
+    const char *filePathPtr = env->GetStringUTFChars(filePath, JNI_FALSE);
+    const char *eventsFilePathPtr = env->GetStringUTFChars(eventsFilePath, JNI_FALSE);
+    auto *eventNamesPtr = new std::string[eventCount];
+    for (int i = 0; i < eventCount; i++) {
+        auto string = (jstring) (env->GetObjectArrayElement(events, i));
+        const char *rawString = env->GetStringUTFChars(string, JNI_FALSE);
+        eventNamesPtr[i] = std::string(rawString);
+        env->ReleaseStringUTFChars(string, rawString);
+        env->DeleteLocalRef(string);
+    }
+    const int statsCount = eventCount * channelCount;
+    auto *countsPtr = new jint[statsCount];
+    auto **meansPtr = new double *[statsCount];
+    auto **m2sPtr = new double *[statsCount];
+    for (int i = 0; i < statsCount; i++) {
+        meansPtr[i] = new double[frameCount];
+        m2sPtr[i] = new double[frameCount];
+    }
+
+    bool result = false;
+    // exception check
+    if (!exception_check(env)) {
+        result = grandAverageAnalysis->processEvents(filePathPtr, eventsFilePathPtr, eventNamesPtr, eventCount,
+                                                     channelCount, removeNoiseIntervals, sampleRate, leftFrameCount,
+                                                     frameCount, countsPtr, meansPtr, m2sPtr,
+                                                     reinterpret_cast<AnalysisControl *>(control));
+    }
+    if (result) setGrandAverageStats(env, counts, means, m2s, countsPtr, meansPtr, m2sPtr, statsCount, frameCount);
+
+    env->ReleaseStringUTFChars(filePath, filePathPtr);
+    env->ReleaseStringUTFChars(eventsFilePath, eventsFilePathPtr);
+    for (int i = 0; i < statsCount; i++) {
+        delete[] meansPtr[i];
+        delete[] m2sPtr[i];
+    }
+    delete[] eventNamesPtr;
+    delete[] countsPtr;
+    delete[] meansPtr;
+    delete[] m2sPtr;
+
+    return static_cast<jboolean>(result);
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_newAnalysisControl(JNIEnv *env, jclass type) {
+    return reinterpret_cast<jlong>(new AnalysisControl());
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_cancelAnalysis(JNIEnv *env, jclass type, jlong control) {
+    if (control != 0) reinterpret_cast<AnalysisControl *>(control)->cancel();
+}
+
+extern "C" JNIEXPORT jfloat JNICALL
+Java_com_backyardbrains_utils_JniUtils_getAnalysisProgress(JNIEnv *env, jclass type, jlong control) {
+    return control != 0 ? reinterpret_cast<AnalysisControl *>(control)->getProgress() : 0.0f;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_releaseAnalysisControl(JNIEnv *env, jclass type, jlong control) {
+    delete reinterpret_cast<AnalysisControl *>(control);
 }
\ No newline at end of file
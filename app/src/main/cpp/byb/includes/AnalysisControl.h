@@ -0,0 +1,56 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_ANALYSISCONTROL_H
+#define SPIKE_RECORDER_ANDROID_ANALYSISCONTROL_H
+
+#include <atomic>
+
+namespace backyardbrains {
+
+    namespace analysis {
+
+        /**
+         * Connects a running analysis with the thread that started it. Analysis periodically reports its progress and
+         * checks whether it's been cancelled, in which case it stops as soon as possible and drops all the results.
+         * All the methods can be safely called from any thread.
+         */
+        class AnalysisControl {
+        public:
+            /**
+             * Tells the analysis to stop.
+             */
+            void cancel() { cancelled.store(true, std::memory_order_relaxed); }
+
+            bool isCancelled() const { return cancelled.load(std::memory_order_relaxed); }
+
+            /**
+             * Sets progress of the analysis, {@code 0} meaning analysis just started and {@code 1} that it's finished.
+             */
+            void setProgress(float value) { progress.store(value, std::memory_order_relaxed); }
+
+            float getProgress() const { return progress.load(std::memory_order_relaxed); }
+
+            /**
+             * Whether specified control exists and is cancelled.
+             */
+            static bool isCancelled(const AnalysisControl *control) {
+                return control != nullptr && control->isCancelled();
+            }
+
+            /**
+             * Sets progress of specified control if it exists.
+             */
+            static void setProgress(AnalysisControl *control, float value) {
+                if (control != nullptr) control->setProgress(value);
+            }
+
+        private:
+            std::atomic<bool> cancelled{false};
+            std::atomic<float> progress{0.0f};
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_ANALYSISCONTROL_H
@@ -5,9 +5,15 @@
 #ifndef SPIKE_RECORDER_ANDROID_ANALYSISUTILS_H
 #define SPIKE_RECORDER_ANDROID_ANALYSISUTILS_H
 
+#include <algorithm>
+#include <atomic>
+#include <cfloat>
 #include <cmath>
 #include <cstdlib>
 #include <ctime>
+#include <functional>
+#include <thread>
+#include <vector>
 
 namespace backyardbrains {
 
@@ -37,6 +43,17 @@ namespace backyardbrains {
             static void map(float *in, float *out, int length, float inMin, float inMax, float outMin, float outMax);
 
             static void minMax(float *data, int length, float &min, float &max);
+
+            /**
+             * Returns number of threads that should be used for parallel processing of analysis tasks.
+             */
+            static int getThreadCount();
+
+            /**
+             * Executes {@code task} for every task index in range [0, taskCount) using up to getThreadCount() threads.
+             * Tasks are handed to threads in ascending order and method returns when all of them are finished.
+             */
+            static void parallelFor(int taskCount, const std::function<void(int)> &task);
         };
     }
 }
@@ -7,8 +7,10 @@
 
 #include <dr_wav.h>
 #include <algorithm>
+#include <vector>
 #include <android/log.h>
 
+#include "AnalysisControl.h"
 #include "AnalysisUtils.h"
 
 namespace backyardbrains {
@@ -28,10 +30,19 @@ namespace backyardbrains {
             float maxStd;
             float minStd;
 
+            // running sums of samples and their squares
+            double *sums;
+            double *squareSums;
             int countOfSpikes;
 
         };
 
+        // Samples around a single spike of a single train
+        struct SpikeWindow {
+            drwav_uint64 start;
+            int train;
+        };
+
         class AverageSpikeAnalysis {
         public:
             AverageSpikeAnalysis();
@@ -40,11 +51,18 @@ namespace backyardbrains {
 
             void process(const char *filePath, int **inSpikeTrains, int spikeTrainCount, const int *spikeCounts,
                          float **outAverageSpike, float **outNormAverageSpike, float **outNormTopSTDLine,
-                         float **outNormBottomSTDLine, int batchSpikeCount);
+                         float **outNormBottomSTDLine, int batchSpikeCount, AnalysisControl *control);
 
         private:
             static const char *TAG;
 
+            // Max number of samples read from the file at once (2 MB)
+            static const drwav_uint64 BUFFER_SAMPLE_COUNT;
+            // Max number of samples between two windows that are read through instead of skipped (4 KB). Seeking to
+            // a window reads at least a whole page anyway, so sparse windows are read the same way they would be one by
+            // one and only gaps that would be read regardless are read through.
+            static const drwav_uint64 MAX_GAP_SAMPLE_COUNT;
+
             void allocateAverageSpikeData(AverageSpikeData *averageSpikeData, int length, drwav_uint64 batchSpikeCount);
 
             void deallocateAverageSpikeData(AverageSpikeData *averageSpikeData, int length);
@@ -6,6 +6,11 @@
 #define SPIKE_RECORDER_ANDROID_CROSSCORRELATIONANALYSIS_H
 
 #include <algorithm>
+#include <atomic>
+#include <vector>
+
+#include "AnalysisUtils.h"
+#include "AnalysisControl.h"
 
 namespace backyardbrains {
 
@@ -17,8 +22,13 @@ namespace backyardbrains {
 
             ~CrossCorrelationAnalysis();
 
+            /**
+             * Calculates cross-correlation histogram for every pair of the specified spike trains. Spike times within
+             * every train need to be sorted in ascending order. Histogram of the pair (i, j) is saved to
+             * outAnalysis[i * spikeTrainCount + j].
+             */
             void process(float **inSpikeTrains, int spikeTrainCount, const int *spikeCounts,
-                         int **outAnalysis, int analysisBinCount);
+                         int **outAnalysis, int analysisBinCount, AnalysisControl *control);
 
         private:
             static const char *TAG;
@@ -29,6 +39,23 @@ namespace backyardbrains {
             static constexpr float MAX_EDGE = MAX_TIME + BIN_SIZE * 0.5f;
             static constexpr float DIVIDER = 1 / BIN_SIZE;
 
+            // Number of spikes of the first train of the pair that are processed as a single task
+            static constexpr int CHUNK_SPIKE_COUNT = 8192;
+
+            /**
+             * Range of spikes of the first train of a pair that's correlated with all the spikes of the second train.
+             */
+            struct Chunk {
+                int first;
+                int second;
+                int from;
+                int to;
+            };
+
+            // Adds differences between spikes [from, to) of the first train and spikes of the second train that are
+            // within the max lag to the histogram. Both trains are sorted so only the spikes within max lag are visited
+            void correlate(const float *firstTrain, int from, int to, const float *secondTrain, int secondCount,
+                           int *histogram, int analysisBinCount);
         };
     }
 }
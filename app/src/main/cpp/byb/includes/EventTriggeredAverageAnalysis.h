@@ -5,17 +5,22 @@
 #ifndef SPIKE_RECORDER_ANDROID_EVENTTRIGGEREDAVERAGEANALYSIS_H
 #define SPIKE_RECORDER_ANDROID_EVENTTRIGGEREDAVERAGEANALYSIS_H
 
+#include <cstdint>
+#include <sys/time.h>
 #include <functional>
 #include <string>
 #include <android/log.h>
 #include <limits>
 #include <random>
 #include <algorithm>
+#include <vector>
 
 #include "dr_wav.h"
+#include "AnalysisControl.h"
 #include "AnalysisUtils.h"
 #include "SignalUtils.h"
 #include "EventUtils.h"
+#include "WavSamples.h"
 
 using namespace std;
 
@@ -32,9 +37,29 @@ namespace backyardbrains {
             void process(const char *signalFilePath, const char *eventsFilePath, const string *processedEvents,
                          const int processedEventCount, const bool removeNoiseIntervals,
                          const char *confidenceIntervalsEvent, float ***averages, float ***normAverages,
-                         float **normMcAverages, float **normMcTop, float **normMcBottom, float *min, float *max);
+                         float **normMcAverages, float **normMcTop, float **normMcBottom, float *min, float *max,
+                         AnalysisControl *control);
+
+            /**
+             * Seeds random intervals used for computation of confidence intervals with specified seed so the results
+             * of all subsequent analyses of the same file are reproducible. Random seed is used if it's not set.
+             */
+            void setSeed(std::uint64_t seed);
+
+            /**
+             * Sets number of times random intervals are averaged for computation of confidence intervals. Default is
+             * 100 repetitions.
+             */
+            void setRepetitionCount(int repetitionCount);
 
         private:
+            // Sums of the averages of random intervals and their squares collected by single block of repetitions
+            struct BootstrapAccumulator {
+                std::vector<double> sums;
+                std::vector<double> squares;
+                int repetitionCount = 0;
+            };
+
             static const char *TAG;
 
             static constexpr float EVENT_LEFT_OFFSET_IN_SECS = 0.7f;
@@ -42,6 +67,12 @@ namespace backyardbrains {
             static constexpr float NOISE_DETECTION_STD_THRESHOLD = 2.5f;
             static constexpr float SIGNAL_STD_MULTIPLYER = 2.0f;
             static constexpr int CONFIDENCE_INTERVALS_COMPUTATION_REPETITION = 100;
+            // Number of blocks confidence intervals computation repetitions are split into
+            static constexpr int BOOTSTRAP_BLOCK_COUNT = 8;
+            // Max number of random intervals drawn per needed interval before repetition is given up on
+            static constexpr int MAX_DRAWS_PER_INTERVAL = 100;
+            // part of the analysis spent on averaging events when confidence intervals are computed as well
+            static constexpr float EVENTS_PROGRESS = 0.1f;
 
             // total number of samples
             drwav_uint64 totalSamples;
@@ -59,6 +90,11 @@ namespace backyardbrains {
             int sampleCount;
             // number of frames in the currently processed sample batch
             int frameCount;
+            // seed of the random intervals used for computation of confidence intervals
+            std::uint64_t seed = 0;
+            bool seeded = false;
+            // number of repetitions of confidence intervals computation
+            int repetitionCount = CONFIDENCE_INTERVALS_COMPUTATION_REPETITION;
 
 
             long long currentTimeInMilliseconds();
@@ -67,13 +103,18 @@ namespace backyardbrains {
             // if interval has valid bounds, or -1 if it's not
             bool validateIntervalBounds(drwav_uint64 &start, drwav_uint64 sampleIndex);
 
-            bool
-            addInterval(drwav *wavPtr, float **sums, drwav_uint64 start, drwav_uint64 size, bool checkNoise, double std,
-                        double mean);
+            // Adds interval that starts at specified samples to specified sums unless it contains noise, in which case
+            // false is returned
+            bool addInterval(const drwav_int16 *samples, float **sums, bool checkNoise, double std, double mean);
+
+            // Computes confidence intervals by averaging random intervals of the file with specified samples
+            void computeConfidenceIntervals(const drwav_int16 *samples, int intervalCount, bool checkNoise, double std,
+                                            double mean, float **normMcAverages, float **normMcTop,
+                                            float **normMcBottom, float *min, float *max, AnalysisControl *control);
 
             void averageInterval(float **averages, float **sums, int divider, float *min, float *max);
 
-            void findStdAndMean(drwav *wavPtr, double &std, double &mean);
+            void findStdAndMean(const drwav_int16 *samples, double &std, double &mean);
         };
     }
 }
@@ -0,0 +1,80 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_GRANDAVERAGEANALYSIS_H
+#define SPIKE_RECORDER_ANDROID_GRANDAVERAGEANALYSIS_H
+
+#include <algorithm>
+#include <climits>
+#include <cmath>
+#include <string>
+#include <vector>
+#include <android/log.h>
+
+#include "dr_wav.h"
+#include "AnalysisControl.h"
+#include "EventUtils.h"
+#include "WavSamples.h"
+
+namespace backyardbrains {
+
+    namespace analysis {
+
+        /**
+         * Collects mean and sum of squared deviations from the mean (M2) of every point of the windows surrounding
+         * spikes or events of a single recording, so windows of many recordings can be pooled without keeping them.
+         * Statistics are accumulated window by window with Welford's method. Windows are sampled at the specified
+         * sample rate: if recording has a different one, window samples are linearly interpolated between the
+         * recording samples, so windows of recordings with different sample rates line up point by point.
+         */
+        class GrandAverageAnalysis {
+        public:
+            GrandAverageAnalysis();
+
+            ~GrandAverageAnalysis();
+
+            /**
+             * Accumulates windows of frameCount samples at specified sampleRate, starting leftFrameCount samples before
+             * every spike, of every spike train. Spikes are frame indices within recording, and spikes of the train at
+             * index t are found on channel channels[t]. Number of windows of the train at index t is saved to
+             * outCounts[t], and means and M2s of its window points to outMeans[t] and outM2s[t]. Windows that don't
+             * fit within recording and spikes on channels recording doesn't have are skipped. Returns false if
+             * recording can't be read or analysis is cancelled.
+             */
+            bool processSpikes(const char *filePath, const int *const *inSpikeTrains, const int *channels,
+                               const int *spikeCounts, int trainCount, int sampleRate, int leftFrameCount,
+                               int frameCount, int *outCounts, double **outMeans, double **outM2s,
+                               AnalysisControl *control);
+
+            /**
+             * Accumulates windows of frameCount samples at specified sampleRate, starting leftFrameCount samples before
+             * every event of the processed types, of the first channelCount channels. Samples are divided by SHRT_MAX.
+             * Statistics of channel c aligned to events of type e are saved to outCounts[e * channelCount + c],
+             * outMeans[e * channelCount + c] and outM2s[e * channelCount + c], channels recording doesn't have are
+             * left empty. If removeNoiseIntervals is true, windows with samples further than 2.5 standard deviations
+             * from the recording mean are skipped. Returns false if recording can't be read or analysis is cancelled.
+             */
+            bool processEvents(const char *signalFilePath, const char *eventsFilePath,
+                               const std::string *processedEvents, int processedEventCount, int channelCount,
+                               bool removeNoiseIntervals, int sampleRate, int leftFrameCount, int frameCount,
+                               int *outCounts, double **outMeans, double **outM2s, AnalysisControl *control);
+
+        private:
+            static const char *TAG;
+
+            static constexpr float NOISE_DETECTION_STD_THRESHOLD = 2.5f;
+
+            // Fills window with frameCount values of specified channel of interleaved samples sampled every step
+            // frames, starting at specified frame position. Returns false if window doesn't fit within recording
+            static bool sampleWindow(const drwav_int16 *samples, int channelCount, int channel,
+                                     drwav_uint64 totalFrameCount, double position, double step, int frameCount,
+                                     double *outWindow);
+
+            // Adds specified window to the statistics with Welford's method
+            static void addWindow(const double *window, int frameCount, int &count, double *means, double *m2s);
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_GRANDAVERAGEANALYSIS_H
@@ -6,6 +6,7 @@
 #define SPIKE_RECORDER_ANDROID_ISIANALYSIS_H
 
 #include <algorithm>
+#include "AnalysisControl.h"
 
 namespace backyardbrains {
 
@@ -18,7 +19,7 @@ namespace backyardbrains {
             ~IsiAnalysis();
 
             void process(float **inSpikeTrains, int spikeTrainCount, const int *spikeCounts,
-                         int **outAnalysis, int analysisBinCount);
+                         int **outAnalysis, int analysisBinCount, AnalysisControl *control);
 
         private:
             static const char *TAG;
@@ -0,0 +1,69 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_POWERSPECTRUMANALYSIS_H
+#define SPIKE_RECORDER_ANDROID_POWERSPECTRUMANALYSIS_H
+
+#include <dr_wav.h>
+#include <algorithm>
+#include <cmath>
+#include <cstring>
+#include <memory>
+#include <vector>
+#include <android/log.h>
+
+#include "AnalysisControl.h"
+#include "AnalysisUtils.h"
+#include "AudioFFT.h"
+
+namespace backyardbrains {
+
+    namespace analysis {
+
+        /**
+         * Estimates power spectral density of every channel of the whole recording with Welch's method. Recording is
+         * read sequentially in blocks, every block is split into Hann windows that overlap by half and periodograms of
+         * the windows are calculated in parallel and averaged. Memory usage doesn't depend on the length of the
+         * recording.
+         */
+        class PowerSpectrumAnalysis {
+        public:
+            PowerSpectrumAnalysis();
+
+            ~PowerSpectrumAnalysis();
+
+            /**
+             * Calculates one-sided power spectral density of every channel of the audio file located at specified
+             * filePath and saves it to outPowers. Every spectrum has windowLength / 2 + 1 bins, windowLength needs to
+             * be power of 2. Power within every band delimited by two consecutive bandEdges (in Hz) is saved to
+             * outBandPowers. Powers are in squared sample values (per Hz for the spectra). Returns number of averaged
+             * windows, or 0 if file can't be opened, it's shorter than a single window or analysis is cancelled.
+             */
+            int process(const char *filePath, int windowLength, const float *bandEdges, int bandCount,
+                        float **outPowers, float **outBandPowers, AnalysisControl *control);
+
+        private:
+            static const char *TAG;
+
+            // Max number of samples read from the file at once (2 MB)
+            static const drwav_uint64 BUFFER_SAMPLE_COUNT;
+
+            // Periodograms of a single thread, summed per channel
+            struct Accumulator {
+                std::unique_ptr<audiofft::AudioFFT> fft;
+                std::vector<float> input;
+                std::vector<float> re;
+                std::vector<float> im;
+                std::vector<double> powers;
+            };
+
+            // Removes mean from the window of specified channel that starts at specified frame, applies Hann window
+            // and adds its periodogram to the accumulator
+            static void addPeriodogram(const drwav_int16 *frames, int channelCount, int channel,
+                                       const std::vector<float> &window, Accumulator &accumulator);
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_POWERSPECTRUMANALYSIS_H
@@ -0,0 +1,62 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_PSTHANALYSIS_H
+#define SPIKE_RECORDER_ANDROID_PSTHANALYSIS_H
+
+#include <algorithm>
+#include <vector>
+#include <android/log.h>
+
+#include "AnalysisControl.h"
+#include "AnalysisUtils.h"
+
+namespace backyardbrains {
+
+    namespace analysis {
+
+        /**
+         * Calculates peri-stimulus time histograms and rasters of spike trains aligned to events. Spikes of every
+         * train and positions of every event type need to be sorted, so spikes within the window of every event are
+         * located with binary search and only they are visited. All event types and trains are processed in a single
+         * parallel pass over blocks of consecutive events.
+         */
+        class PsthAnalysis {
+        public:
+            PsthAnalysis();
+
+            ~PsthAnalysis();
+
+            /**
+             * Counts spikes of every train within binCount bins of the window that starts leftFrameCount frames
+             * before and ends rightFrameCount frames after every event. Histogram of the train at index t aligned to
+             * events of type e is saved to outHistograms[e * trainCount + t]. If outTrialStarts is not null, raster
+             * is saved too: spikes within the window of i-th event, relative to the event, are saved to
+             * outRasters[e * trainCount + t] starting at position outTrialStarts[e * trainCount + t][i] and the last
+             * element of every trial starts array holds the total number of raster spikes. Returns false if analysis
+             * is cancelled.
+             */
+            bool process(const int *const *inSpikeTrains, const int *spikeCounts, int trainCount,
+                         const int *const *inEvents, const int *eventCounts, int eventTypeCount, int leftFrameCount,
+                         int rightFrameCount, int binCount, int **outHistograms, int **outTrialStarts,
+                         std::vector<int> *outRasters, AnalysisControl *control);
+
+        private:
+            static const char *TAG;
+
+            // Number of consecutive events of a single type and train processed by a single task
+            static constexpr int BLOCK_EVENT_COUNT = 512;
+
+            // Block of consecutive events of a single type whose spikes of a single train are counted
+            struct Block {
+                int eventType;
+                int train;
+                int firstEvent;
+                int lastEvent;
+            };
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_PSTHANALYSIS_H
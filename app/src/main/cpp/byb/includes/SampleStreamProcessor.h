@@ -9,6 +9,7 @@
 #include "LowPassFilter.h"
 #include "HighPassFilter.h"
 #include "SampleStreamUtils.h"
+#include "UsbLinkTelemetry.h"
 #include <algorithm>
 #include <string>
 #include <android/log.h>
@@ -19,7 +20,8 @@ namespace backyardbrains {
 
         class SampleStreamProcessor : public Processor {
         public:
-            explicit SampleStreamProcessor(backyardbrains::utils::OnEventListenerListener *listener);
+            SampleStreamProcessor(backyardbrains::utils::OnEventListenerListener *listener,
+                                  backyardbrains::utils::UsbLinkTelemetry *telemetry);
 
             ~SampleStreamProcessor() override;
 
@@ -62,6 +64,8 @@ namespace backyardbrains {
 
             // Listener that's being invoked during sample stream processing on different event messages
             backyardbrains::utils::OnEventListenerListener *listener;
+            // Collects link health counters
+            backyardbrains::utils::UsbLinkTelemetry *telemetry;
 
             typedef unsigned int byte;
 
@@ -84,9 +88,9 @@ namespace backyardbrains {
             // Whether new sample is started being processed
             bool sampleStarted = false;
             // Whether channel count has changed during processing of the latest chunk of incoming data
-            int prevChannelCount;
+            int prevChannelCount = 0;
             // Holds currently processed channel
-            int currentChannel;
+            int currentChannel = 0;
             // Beyond this channel index channels should not be filtered
             int stopFilteringAfterChannelIndex = -1;
             // Holds samples from all channels processed in a single batch
@@ -94,27 +98,35 @@ namespace backyardbrains {
             // Array of sample counters, one for every channel
             int sampleCounters[MAX_CHANNELS];
             // Whether we are inside an escape sequence or not
-            bool insideEscapeSequence;
+            bool insideEscapeSequence = false;
             // Index of the byte within start or end of the escape sequence
-            int tmpIndex;
+            int tmpIndex = 0;
             // Holds currently processed escape sequence
             unsigned char escapeSequence[MAX_SEQUENCE_LENGTH];
             // Index of the byte within currently processed escape sequence
-            int escapeSequenceIndex;
+            int escapeSequenceIndex = 0;
             // Holds currently processed event message
             unsigned char eventMessage[EVENT_MESSAGE_LENGTH];
             // Index of the byte within currently processed event message
-            int eventMessageIndex;
+            int eventMessageIndex = 0;
             // Holds count of processed events in the current sample batch
             int eventCounter;
             // Holds event indices processed in a single batch
             int eventIndices[MAX_EVENTS];
             // Holds event labels processed in a single batch
             std::string eventLabels[MAX_EVENTS];
+            // Whether frame alignment has been lost since the last successfully started frame
+            bool outOfSync = false;
+            // Link health counters collected while processing single batch
+            long long framesDecoded;
+            long long framesDropped;
+            long long resyncs;
+            long long escapeMessages;
+            long long bytesDiscarded;
             // Most significant and least significant bytes
-            byte msb;
+            byte msb = 0;
             // Average signal which we use to avoid signal offset
-            double average;
+            double average = 0;
         };
     }
 }
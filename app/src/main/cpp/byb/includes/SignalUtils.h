@@ -25,6 +25,20 @@ namespace backyardbrains {
             static void interleaveSignal(short *outSamples, short **inSamples, int frameCount, int channelCount);
 
             static void normalizeSignalToFloat(float *outSamples, short *inSamples, int sampleCount);
+
+            /**
+             * Decimates interleaved signal by the specified factor by keeping only minimum and maximum of every bucket
+             * of 2 * factor frames (in order of occurrence) so peaks stay visible. Returns number of output frames.
+             */
+            static int
+            decimateMinMax(short *outSamples, const short *inSamples, int frameCount, int channelCount, int factor);
+
+            /**
+             * Decimates interleaved signal by the specified factor by keeping only minimum and maximum of every bucket
+             * of 2 * factor frames (in order of occurrence) so peaks stay visible. Returns number of output frames.
+             */
+            static int
+            decimateMinMax(float *outSamples, const float *inSamples, int frameCount, int channelCount, int factor);
         };
     }
 }
@@ -7,9 +7,12 @@
 
 #include <functional>
 #include <algorithm>
+#include <vector>
+#include <sys/time.h>
 #include <android/log.h>
 
 #include "dr_wav.h"
+#include "AnalysisControl.h"
 #include "AnalysisUtils.h"
 #include "SignalUtils.h"
 
@@ -17,15 +20,33 @@ namespace backyardbrains {
 
     namespace analysis {
 
+        class OnSpikesFoundListener {
+        public:
+            /**
+             * Triggered when a batch of spikes is found. All spikes within the batch belong to the same channel and
+             * polarity and are sorted by index. Batches of the same channel and polarity are passed in index order.
+             * Passed arrays are reused for the next batch once the method returns.
+             */
+            virtual void onSpikesFound(int channel, bool positive, const short *values, const int *indices,
+                                       const float *times, int count) = 0;
+        };
+
         class SpikeAnalysis {
         public:
+            // Max number of spikes passed to OnSpikesFoundListener at once
+            static constexpr int SPIKE_BATCH_SIZE = 4096;
+
             SpikeAnalysis();
 
             ~SpikeAnalysis();
 
-            void findSpikes(const char *filePath, short **outValuesPos, int **outIndicesPos, float **outTimesPos,
-                            short **outValuesNeg, int **outIndicesNeg, float **outTimesNeg, int *outPosCounts,
-                            int *outNegCounts);
+            /**
+             * Finds spikes in the audio file located at specified filePath and passes them to specified listener in
+             * batches as they are found so memory usage doesn't depend on the file length. Returns false if file can't
+             * be opened, is too short to be analyzed or if analysis is cancelled through specified control, which can
+             * be null.
+             */
+            bool findSpikes(const char *filePath, OnSpikesFoundListener *listener, AnalysisControl *control);
 
         private:
             static const char *TAG;
@@ -34,7 +55,117 @@ namespace backyardbrains {
             static constexpr int SCHMITT_OFF = 2;
             static constexpr float KILL_INTERVAL = 0.005f; // 5ms
 
+            // Number of chunks processed per thread at once when looking for spikes so work is evenly distributed
+            static constexpr int CHUNKS_PER_THREAD = 4;
+            // Number of frames read at once after chunk trigger passes the end of the chunk
+            static constexpr int SYNC_READ_FRAME_COUNT = 256;
+
+            // Chunk trigger is waiting for the first sample that puts it into the same state as the serial trigger
+            static constexpr int SYNC_WAITING = 0;
+            // Chunk trigger is in the same state as the serial trigger and collects spikes
+            static constexpr int SYNC_ACTIVE = 1;
+            // Chunk trigger reached the sample from which the next chunk trigger takes over
+            static constexpr int SYNC_DONE = 2;
+
+            // part of the analysis spent on finding standard deviations
+            static constexpr float DEVIATIONS_PROGRESS = 0.2f;
+
+            /**
+             * State of a single Schmitt trigger within one chunk.
+             */
+            struct SchmittTrigger {
+                int state = SCHMITT_OFF;
+                int sync = SYNC_WAITING;
+                // index and time of the next sample
+                int index = 0;
+                float time = 0.0f;
+                short peakValue = 0;
+                int peakIndex = 0;
+                float peakTime = 0.0f;
+                // whether peak index and time have been updated since trigger synced
+                bool peakUpdated = false;
+            };
+
+            /**
+             * Spikes found by a single trigger within one chunk.
+             */
+            struct ChunkSpikes {
+                std::vector<short> values;
+                std::vector<int> indices;
+                std::vector<float> times;
+                // number of spikes at the beginning of the chunk which were collected before first peak update so their
+                // index and time need to be taken from the last peak update of one of the previous chunks
+                int staleCount = 0;
+                // last peak update within the chunk
+                bool peakUpdated = false;
+                int lastPeakIndex = 0;
+                float lastPeakTime = 0.0f;
+            };
+
+            /**
+             * Spikes found by a single trigger that are filtered and passed to the listener in batches.
+             */
+            struct SpikeStream {
+                int channel = 0;
+                bool positive = true;
+                // last peak update within the already processed chunks
+                int lastPeakIndex = 0;
+                float lastPeakTime = 0.0f;
+                // spike that's waiting to be compared with its right neighbor
+                bool hasCandidate = false;
+                short candidateValue = 0;
+                int candidateIndex = 0;
+                float candidateTime = 0.0f;
+                // last spike that passed the kill interval filter
+                bool hasAccepted = false;
+                short acceptedValue = 0;
+                float acceptedTime = 0.0f;
+                // spikes that are waiting to be passed to the listener
+                short values[SPIKE_BATCH_SIZE];
+                int indices[SPIKE_BATCH_SIZE];
+                float times[SPIKE_BATCH_SIZE];
+                int count = 0;
+                int totalCount = 0;
+            };
+
             long long currentTimeInMilliseconds();
+
+            // Calculates standard deviation of every buffer of bufferSize samples in parallel groups of buffers
+            void findDeviations(const char *filePath, drwav_uint64 bufferSize, int deviationsCount,
+                                drwav_uint16 channelCount, float **outStandardDeviations,
+                                const AnalysisControl *control);
+
+            // Looks for spikes within specified chunk of buffers and continues into the next chunk until every trigger
+            // reaches the sample from which the next chunk takes over. Spikes are saved to outPosSpikes[channel] and
+            // outNegSpikes[channel]
+            void findChunkSpikes(const char *filePath, drwav_uint64 bufferSize, drwav_uint64 totalSamples,
+                                 drwav_uint16 channelCount, float sampleRateDivider, int chunk, int buffersPerChunk,
+                                 int bufferCount, float startTime, const short *sig, const short *negSig,
+                                 ChunkSpikes *outPosSpikes, ChunkSpikes *outNegSpikes,
+                                 const AnalysisControl *control);
+
+            // Runs positive trigger over frameCount samples of a single channel
+            void findPositivePeaks(const short *samples, int frameCount, short sig, float sampleRateDivider,
+                                   int chunkEnd, SchmittTrigger &trigger, ChunkSpikes &outSpikes);
+
+            // Runs negative trigger over frameCount samples of a single channel
+            void findNegativePeaks(const short *samples, int frameCount, short negSig, float sampleRateDivider,
+                                   int chunkEnd, SchmittTrigger &trigger, ChunkSpikes &outSpikes);
+
+            // Resolves stale peak indices and times of spikes found within a chunk and passes them through the kill
+            // interval filter
+            void streamChunkSpikes(SpikeStream &stream, const ChunkSpikes &spikes, OnSpikesFoundListener *listener);
+
+            // Drops spike that's smaller than its right neighbor if they are closer than KILL_INTERVAL
+            void filterSpike(SpikeStream &stream, short value, int index, float time,
+                             OnSpikesFoundListener *listener);
+
+            // Drops spike that's smaller than its left neighbor if they are closer than KILL_INTERVAL
+            void acceptSpike(SpikeStream &stream, short value, int index, float time,
+                             OnSpikesFoundListener *listener);
+
+            // Passes spikes that are waiting in the stream to the listener
+            void flushSpikes(SpikeStream &stream, OnSpikesFoundListener *listener);
         };
     }
 }
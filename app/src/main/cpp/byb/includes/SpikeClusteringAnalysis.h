@@ -0,0 +1,158 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_SPIKECLUSTERINGANALYSIS_H
+#define SPIKE_RECORDER_ANDROID_SPIKECLUSTERINGANALYSIS_H
+
+#include <dr_wav.h>
+#include <algorithm>
+#include <atomic>
+#include <cmath>
+#include <limits>
+#include <random>
+#include <vector>
+#include <fcntl.h>
+#include <unistd.h>
+#include <android/log.h>
+
+#include "AnalysisControl.h"
+#include "AnalysisUtils.h"
+
+namespace backyardbrains {
+
+    namespace analysis {
+
+        /**
+         * Clusters spikes of a single channel of the recording by the shapes of their waveforms. Waveforms of all the
+         * spikes are read from the recording in a single sequential pass and written to a scratch file, so memory
+         * usage doesn't depend on the number of spikes. Principal components of the waveforms are calculated from
+         * their covariance and several independent runs of mini-batch k-means, each of them seeded differently, are
+         * executed in parallel on the waveforms projected onto the components. Run that best fits a fixed sample of
+         * spikes is kept. Same as in the live spike sorter, it's made of more clusters than requested, so the ones
+         * that are too small are dropped as outliers and the ones that are too close to be separate units are merged
+         * before every spike is assigned to the nearest cluster.
+         */
+        class SpikeClusteringAnalysis {
+        public:
+            // Max number of clusters spikes can be split into
+            static constexpr int MAX_CLUSTER_COUNT = 8;
+            // Number of principal components waveforms are projected onto
+            static constexpr int FEATURE_COUNT = 3;
+            // Cluster of the outliers and of the spikes that are too close to the start or the end of the recording
+            static constexpr signed char NO_CLUSTER = -1;
+
+            SpikeClusteringAnalysis();
+
+            ~SpikeClusteringAnalysis();
+
+            /**
+             * Splits spikes found on specified channel of the audio file located at specified filePath into at most
+             * clusterCount clusters. Scratch file is created at specified scratchFilePath and deleted right away so
+             * it doesn't outlive the analysis. Cluster of the spike at every position of inSpikeIndices is saved to
+             * outClusters. Clusters are ordered by number of spikes, largest first. Returns number of clusters, or 0
+             * if file or scratch file can't be opened, there are no spikes to cluster or analysis is cancelled.
+             */
+            int process(const char *filePath, const char *scratchFilePath, int channel, const int *inSpikeIndices,
+                        int spikeCount, int clusterCount, signed char *outClusters, AnalysisControl *control);
+
+        private:
+            static const char *TAG;
+
+            // Max number of samples read from the file at once (2 MB)
+            static const drwav_uint64 BUFFER_SAMPLE_COUNT;
+            // Max number of frames between two waveforms that are read through instead of skipped
+            static const drwav_uint64 MAX_GAP_FRAME_COUNT;
+
+            // Length of the waveform before and after the spike peak
+            static constexpr float SNIPPET_PRE_SECONDS = 0.0005f;
+            static constexpr float SNIPPET_POST_SECONDS = 0.001f;
+            // Waveform is aligned to the largest deviation from its median within this time around the spike peak
+            static constexpr float SNIPPET_ALIGNMENT_SECONDS = 0.0004f;
+            // Number of waveforms read from the scratch file at once
+            static constexpr int CHUNK_SPIKE_COUNT = 4096;
+            // Number of spikes used to seed the runs and to compare them
+            static constexpr int SAMPLE_SPIKE_COUNT = 8192;
+            // Spikes are initially split into twice as many clusters as requested because some are taken by outliers
+            static constexpr int MAX_INITIAL_CLUSTER_COUNT = 2 * MAX_CLUSTER_COUNT;
+            // Number of independent k-means runs
+            static constexpr int RUN_COUNT = 4;
+            // Number of mini-batches per run
+            static constexpr int BATCH_COUNT = 100;
+            // Every mini-batch is made of this many blocks of consecutive spikes picked at random
+            static constexpr int BATCH_BLOCK_COUNT = 8;
+            static constexpr int BLOCK_SPIKE_COUNT = 128;
+            // Max number of k-means iterations on the sample after clusters are dropped or merged
+            static constexpr int REFINE_ITERATION_COUNT = 25;
+            // Number of power iterations per principal component
+            static constexpr int POWER_ITERATION_COUNT = 50;
+            // Clusters closer than this number of standard deviations of their spikes are merged
+            static constexpr float MERGE_SEPARATION = 4.0f;
+            // Clusters with less than this share of the sample spikes are considered outliers
+            static constexpr float MIN_CLUSTER_SHARE = 0.05f;
+            // Seed of the first run, every following run uses the next one
+            static constexpr unsigned int SEED = 2357;
+
+            // Parts of the analysis progress spent on reading the waveforms, calculating principal components and
+            // running k-means, the rest is spent on assigning spikes to clusters
+            static constexpr float EXTRACTION_PROGRESS = 0.5f;
+            static constexpr float PCA_PROGRESS = 0.15f;
+            static constexpr float K_MEANS_PROGRESS = 0.15f;
+
+            // Waveform of a single spike
+            struct Snippet {
+                drwav_uint64 start;
+                int position;
+            };
+
+            // Principal components of the waveforms
+            struct Basis {
+                int length;
+                std::vector<float> mean;
+                std::vector<float> components;
+            };
+
+            // Reads waveforms of all the spikes from the file and writes them to the scratch file. Returns number of
+            // written waveforms and positions of their spikes are saved to outPositions in the same order.
+            int extract(const char *filePath, int fd, int channel, const int *inSpikeIndices, int spikeCount,
+                        std::vector<int> &outPositions, int &outLength, AnalysisControl *control);
+
+            // Calculates principal components of all the waveforms in the scratch file
+            bool calculateBasis(int fd, int count, Basis &basis, AnalysisControl *control);
+
+            // Runs mini-batch k-means seeded from specified sample and saves cluster centers to outCenters
+            void runKMeans(int fd, int count, const Basis &basis, const std::vector<float> &sample, int sampleCount,
+                           int k, unsigned int seed, float *outCenters, const AnalysisControl *control);
+
+            // Drops outlier clusters and merges the ones that are too close to each other until there's at most
+            // maxCount of them. Centers of the remaining clusters are followed by the centers of the outlier ones and
+            // the number of remaining clusters is returned.
+            int merge(const std::vector<float> &sample, int sampleCount, float *centers, int k, int maxCount,
+                      int &outOutlierCount);
+
+            // Runs k-means on the sample starting from specified centers, saves the final assignments and sizes of the
+            // clusters. Centers of the outlier clusters that follow the first k are not moved.
+            void refine(const std::vector<float> &sample, int sampleCount, float *centers, int k, int outlierCount,
+                        std::vector<int> &assignments, int *sizes);
+
+            // Returns distance between centers of clusters u and v in standard deviations of their sample spikes along
+            // the line that connects the centers
+            float getSeparation(const std::vector<float> &sample, int sampleCount, const std::vector<int> &assignments,
+                                const float *centers, int u, int v);
+
+            // Writes specified number of samples to the scratch file
+            static bool writeSnippets(int fd, const drwav_int16 *snippets, size_t sampleCount);
+
+            // Reads count waveforms starting with the one at specified index from the scratch file
+            static bool readSnippets(int fd, int length, int first, int count, drwav_int16 *out);
+
+            // Projects specified waveform onto the basis
+            static void project(const Basis &basis, const drwav_int16 *snippet, float *outFeatures);
+
+            // Returns index of the center nearest to specified features and saves squared distance to outDistance
+            static int findNearest(const float *features, const float *centers, int k, float &outDistance);
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_SPIKECLUSTERINGANALYSIS_H
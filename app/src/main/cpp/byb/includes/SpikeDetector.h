@@ -0,0 +1,205 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_SPIKEDETECTOR_H
+#define SPIKE_RECORDER_ANDROID_SPIKEDETECTOR_H
+
+#include <algorithm>
+#include <cstdlib>
+#include <mutex>
+#include <vector>
+#include <android/log.h>
+
+#include "SpikeEventRing.h"
+#include "SpikeSorter.h"
+
+namespace backyardbrains {
+
+    namespace processing {
+
+        /**
+         * Finds spikes in the live signal as it's being processed. Noise level of every channel is estimated as the
+         * median absolute deviation of the last second of signal and a spike is detected whenever signal moves away
+         * from the median more than the configured number of estimated standard deviations. Spike peak is the furthest
+         * point before signal gets back to the median and no new spike is detected on that channel for the duration of
+         * the refractory period after it.
+         *
+         * Spike is assigned to the first train window of its channel its peak value falls within and, if sorting is
+         * on, sorted into a unit by the waveform around its peak, which delays it until the whole waveform is
+         * processed. It's then written to the ring of every consumer. Configuration can be changed from any thread,
+         * but process() should only be called from the processing thread and readEvents() for each of the consumers
+         * only from a single thread.
+         */
+        class SpikeDetector {
+        public:
+            // Consumers of the detected spikes
+            static constexpr int CONSUMER_RENDERER = 0;
+            static constexpr int CONSUMER_RECORDER = 1;
+            static constexpr int CONSUMER_COUNT = 2;
+
+            // Default number of estimated noise standard deviations signal needs to cross to be detected as spike
+            static constexpr float DEFAULT_THRESHOLD_FACTOR = 4.0f;
+            // Default time after the spike peak during which new spikes are not detected
+            static constexpr float DEFAULT_REFRACTORY_PERIOD_SECONDS = 0.002f;
+
+            SpikeDetector(float sampleRate, int channelCount);
+
+            SpikeDetector() : SpikeDetector(DEFAULT_SAMPLE_RATE, DEFAULT_CHANNEL_COUNT) {}
+
+            ~SpikeDetector();
+
+            void setSampleRate(float sampleRate);
+
+            void setChannelCount(int channelCount);
+
+            // Sets number of noise standard deviations needed for detection and the refractory period.
+            void setParameters(float thresholdFactor, float refractoryPeriodSeconds);
+
+            // Sets inclusive amplitude windows of the trains. Window at index i defines train i.
+            void setTrainWindows(const int *channels, const int *lowerThresholds, const int *upperThresholds,
+                                 int count);
+
+            /**
+             * Looks for spikes in the next batch of samples of all the channels. Returns index of the last processed
+             * frame.
+             */
+            long long process(short **inSamples, const int *inSampleCounts, int channelCount);
+
+            /**
+             * Reads at most maxCount spikes found since the last read by specified consumer. Returns number of read
+             * spikes.
+             */
+            int readEvents(int consumer, backyardbrains::utils::SpikeEvent *outEvents, int maxCount);
+
+            /**
+             * Returns number of spikes dropped because specified consumer didn't read them in time.
+             */
+            long long getDroppedCount(int consumer);
+
+            // Sets whether spikes should be sorted into units by their waveforms. Sorting is on by default.
+            void setSorting(bool sorting);
+
+            // Discards noise estimates, learned units and spikes in progress. Frame counting is not affected.
+            void reset();
+
+        private:
+            static const char *TAG;
+
+            // Default sample rate we start with
+            static constexpr float DEFAULT_SAMPLE_RATE = 44100.0f;
+            // Default channel count
+            static constexpr int DEFAULT_CHANNEL_COUNT = 1;
+            // Capacity of every consumer's ring
+            static constexpr int RING_CAPACITY = 1 << 13;
+            // Length of the signal noise level is estimated from
+            static constexpr float NOISE_WINDOW_SECONDS = 1.0f;
+            // Only every n-th sample is taken into account when estimating noise level
+            static constexpr int NOISE_DECIMATION = 4;
+            // How often noise level estimate is updated
+            static constexpr float NOISE_UPDATE_SECONDS = 0.25f;
+            // Spike that hasn't peaked until then is cut off and the max value so far is taken as peak
+            static constexpr float MAX_SPIKE_WIDTH_SECONDS = 0.002f;
+            // Converts median absolute deviation to standard deviation of normally distributed noise
+            static constexpr float MAD_TO_STD = 1.0f / 0.6745f;
+            // Threshold never drops below this to avoid detecting spikes in silence
+            static constexpr float MIN_THRESHOLD = 1.0f;
+            // Length of the waveform before and after the spike peak that's used for sorting
+            static constexpr float SNIPPET_PRE_SECONDS = 0.0005f;
+            static constexpr float SNIPPET_POST_SECONDS = 0.001f;
+            // Waveform is aligned to the largest deviation from median within this time around the detected peak
+            static constexpr float SNIPPET_ALIGNMENT_SECONDS = 0.0004f;
+            // Max number of spikes per channel that wait for their waveform to be processed
+            static constexpr int PENDING_CAPACITY = 8;
+
+            struct Train {
+                int channel;
+                int lowerThreshold;
+                int upperThreshold;
+            };
+
+            struct PendingSpike {
+                long long peakIndex;
+                short peak;
+            };
+
+            struct ChannelState {
+                // Decimated signal noise level is estimated from
+                std::vector<short> window;
+                int windowHead = 0;
+                int windowSize = 0;
+                int decimationCounter = 0;
+                int samplesUntilUpdate = 0;
+                // Whether threshold has been estimated at least once
+                bool ready = false;
+                float median = 0.0f;
+                float threshold = 0.0f;
+                // Spike in progress
+                bool inSpike = false;
+                bool positive = false;
+                short peak = 0;
+                float peakDistance = 0.0f;
+                long long peakIndex = 0;
+                long long spikeStart = 0;
+                // Index of the first frame after the refractory period of the last spike
+                long long refractoryEnd = 0;
+                // Latest samples, long enough to hold the waveform of the pending spikes, including the ones cut off
+                // at max spike width
+                std::vector<short> history;
+                // Spikes waiting to be sorted
+                PendingSpike pending[PENDING_CAPACITY];
+                int pendingHead = 0;
+                int pendingCount = 0;
+            };
+
+            // Creates channel states and recalculates all the lengths that depend on sample rate
+            void init();
+
+            // Estimates median and threshold of the specified channel from the noise window
+            void updateThreshold(ChannelState &state);
+
+            // Passes found spike to sorting or, if sorting is off, directly to consumers
+            void onSpike(int channel, ChannelState &state);
+
+            // Sorts the oldest pending spike of the specified channel and passes it to consumers
+            void sortPending(int channel, ChannelState &state);
+
+            // Assigns spike to train and passes it to all consumers
+            void emit(int channel, short value, long long frameIndex, int unit);
+
+            std::mutex lock;
+
+            float sampleRate;
+            int channelCount;
+            float thresholdFactor = DEFAULT_THRESHOLD_FACTOR;
+            float refractoryPeriodSeconds = DEFAULT_REFRACTORY_PERIOD_SECONDS;
+
+            int windowCapacity = 0;
+            int updatePeriod = 0;
+            int refractoryPeriod = 0;
+            int maxSpikeWidth = 0;
+            int snippetPre = 0;
+            int snippetPost = 0;
+            int snippetAlignment = 0;
+            int historyMask = 0;
+
+            bool sorting = true;
+            SpikeSorter sorter{1, 0};
+            // Scratch buffer for the waveform of the spike that's being sorted
+            std::vector<float> snippet;
+
+            std::vector<ChannelState> states;
+            std::vector<Train> trains;
+            // Scratch buffers used when calculating median
+            std::vector<short> medianBuffer;
+            std::vector<int> deviationBuffer;
+
+            // Index of the first frame of the next batch
+            long long frameIndex = 0;
+
+            backyardbrains::utils::SpikeEventRing *rings[CONSUMER_COUNT];
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_SPIKEDETECTOR_H
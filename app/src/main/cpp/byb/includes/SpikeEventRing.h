@@ -0,0 +1,76 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_SPIKEEVENTRING_H
+#define SPIKE_RECORDER_ANDROID_SPIKEEVENTRING_H
+
+#include <atomic>
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        /**
+         * Spike found by the live spike detector.
+         */
+        struct SpikeEvent {
+            // Index of the frame the spike peaks at, counted from the moment detector was created
+            long long frameIndex;
+            // Channel the spike is found on
+            int channel;
+            // Index of the train spike belongs to or -1 if it doesn't fall within any of the train windows
+            int train;
+            // Index of the unit spike is sorted into by its waveform or -1 if it's not sorted
+            int unit;
+            // Value of the spike peak
+            short value;
+        };
+
+        /**
+         * Single-producer/single-consumer ring buffer that holds spikes found by the live spike detector until they
+         * are consumed. Processing thread is the only producer so reading and writing is done without locking. Spikes
+         * that don't fit in the ring are dropped and counted.
+         */
+        class SpikeEventRing {
+        public:
+            // Capacity needs to be power of 2
+            explicit SpikeEventRing(int capacity);
+
+            ~SpikeEventRing();
+
+            /**
+             * Writes specified event to the ring. Returns false if the ring is full and event is dropped.
+             */
+            bool write(const SpikeEvent &event);
+
+            /**
+             * Reads at most maxCount events from the ring into specified outEvents. Returns number of read events.
+             */
+            int read(SpikeEvent *outEvents, int maxCount);
+
+            /**
+             * Discards all events in the ring. Should only be called by the consumer.
+             */
+            void clear();
+
+            /**
+             * Returns number of events dropped because the ring was full.
+             */
+            long long getDroppedCount();
+
+        private:
+            SpikeEvent *buffer;
+            const int capacity;
+            const int mask;
+            // Total number of events ever written (advanced only by producer)
+            std::atomic<long long> head{0};
+            // Total number of events ever read (advanced only by consumer)
+            std::atomic<long long> tail{0};
+            // Number of events dropped because the ring was full
+            std::atomic<long long> droppedCount{0};
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_SPIKEEVENTRING_H
@@ -0,0 +1,175 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_SPIKESORTER_H
+#define SPIKE_RECORDER_ANDROID_SPIKESORTER_H
+
+#include <algorithm>
+#include <atomic>
+#include <chrono>
+#include <cmath>
+#include <condition_variable>
+#include <deque>
+#include <limits>
+#include <mutex>
+#include <thread>
+#include <vector>
+#include <android/log.h>
+
+namespace backyardbrains {
+
+    namespace processing {
+
+        /**
+         * Sorts spikes of every channel into units by the shape of their waveforms. First spikes of the channel are
+         * used to learn a small PCA basis and unit templates in that space (k-means followed by merging of the
+         * clusters that are too close to be separate units). Every following spike is projected onto the basis and
+         * assigned to the nearest template, which is then moved slightly towards the spike so templates follow slow
+         * drifts of the waveforms. Spikes too far from all the templates are left unsorted.
+         *
+         * Units are learned on a separate training thread so sorting never waits for it. Spikes found on the channel
+         * while its units are being learned are not sorted. Once the channel is trained the cost of sorting a spike
+         * depends only on the snippet length, number of features and max number of units.
+         *
+         * All methods except waitForTraining() should be called from the same thread.
+         */
+        class SpikeSorter {
+        public:
+            // Max number of units a single channel can be sorted into
+            static constexpr int MAX_UNITS = 4;
+            // Number of principal components the snippets are projected onto
+            static constexpr int FEATURE_COUNT = 3;
+            // Number of spikes of the channel that are collected before units are learned
+            static constexpr int WARM_UP_SPIKE_COUNT = 300;
+            // Returned for spikes that are not sorted
+            static constexpr int NO_UNIT = -1;
+
+            SpikeSorter(int snippetLength, int channelCount);
+
+            ~SpikeSorter();
+
+            /**
+             * Sorts spike with specified waveform snippet found on specified channel. Snippet needs to be
+             * snippetLength long and aligned the same way for all the spikes. Returns index of the unit or NO_UNIT
+             * if channel is still warming up or spike doesn't match any of the units.
+             */
+            int sort(int channel, const float *snippet);
+
+            // Discards all the learned units and sets new snippet length and number of channels.
+            void reset(int snippetLength, int channelCount);
+
+            // Returns number of units learned for specified channel or 0 if channel is still warming up.
+            int getUnitCount(int channel);
+
+            /**
+             * Blocks until all the channels that collected their warm-up spikes are trained, or until specified
+             * timeout elapses. Returns false on timeout.
+             */
+            bool waitForTraining(int timeoutMs);
+
+        private:
+            static const char *TAG;
+
+            // Number of power iterations per principal component
+            static constexpr int POWER_ITERATION_COUNT = 40;
+            // Number of clusters warm-up spikes are initially split into before merging
+            static constexpr int INITIAL_CLUSTER_COUNT = 2 * MAX_UNITS;
+            // Number of k-means iterations
+            static constexpr int K_MEANS_ITERATION_COUNT = 25;
+            // Clusters closer than this number of standard deviations of their spikes are merged into one unit
+            static constexpr float MERGE_SEPARATION = 4.0f;
+            // Clusters with less than this share of warm-up spikes are not considered units
+            static constexpr float MIN_UNIT_SHARE = 0.05f;
+            // Spike further than this number of expected distances from the nearest template is not sorted
+            static constexpr float OUTLIER_DISTANCE_FACTOR = 2.5f;
+            // How fast templates follow the spikes assigned to them
+            static constexpr float DRIFT_RATE = 0.01f;
+
+            struct Model {
+                int snippetLength = 0;
+                // Warm-up snippets and running sums used to estimate mean and covariance
+                std::vector<float> warmUpSnippets;
+                std::vector<double> sum;
+                std::vector<double> sumOfProducts;
+                int warmUpCount = 0;
+                // Whether model is handed over to the training thread
+                bool training = false;
+                bool trained = false;
+
+                // Mean snippet and principal components (FEATURE_COUNT x snippetLength)
+                std::vector<float> mean;
+                std::vector<float> basis;
+
+                int unitCount = 0;
+                // Unit templates in feature space and mean squared distance of the assigned spikes per feature
+                float centers[MAX_UNITS][FEATURE_COUNT];
+                float variances[MAX_UNITS];
+            };
+
+            // Model of a single channel that's handed over to the training thread and back
+            struct TrainingJob {
+                int channel;
+                // Value of the generation when the job was created, results of the older generations are discarded
+                long long generation;
+                Model model;
+            };
+
+            // Hands over specified model to the training thread, which is started if it's not running yet
+            void startTraining(int channel, Model &model);
+
+            // Takes over trained models of the current generation. If wait is false and training thread holds the lock
+            // they are taken over next time.
+            void collectTrained(bool wait);
+
+            // Trains handed over models one by one until sorter is destroyed
+            void runTraining();
+
+            // Learns basis and units of the specified model from its warm-up snippets
+            void train(Model &model);
+
+            // Calculates principal components of the warm-up snippets of the specified model
+            void calculateBasis(Model &model);
+
+            // Clusters specified features and returns number of clusters left after merging
+            int cluster(const std::vector<float> &features, int count, float outCenters[][FEATURE_COUNT],
+                        float *outVariances);
+
+            // Returns distance between centers of clusters u and v in standard deviations of their spikes along the line
+            // that connects the centers. Assignments need to be up to date.
+            float getSeparation(const std::vector<float> &features, int count, float centers[][FEATURE_COUNT], int u,
+                                int v);
+
+            // Runs k-means on specified features starting from specified centers and recalculates variances
+            void kMeans(const std::vector<float> &features, int count, float centers[][FEATURE_COUNT], int k,
+                        float *variances, int *sizes);
+
+            // Projects specified snippet onto the basis of specified model
+            void project(const Model &model, const float *snippet, float *outFeatures);
+
+            int snippetLength;
+            std::vector<Model> models;
+
+            // Training thread and the models waiting to be trained and waiting to be taken over
+            std::thread trainingThread;
+            std::mutex trainingLock;
+            std::condition_variable trainingCondition;
+            std::deque<TrainingJob> jobs;
+            std::deque<TrainingJob> trainedJobs;
+            // Number of handed over jobs that are not trained yet
+            int pendingJobCount = 0;
+            std::atomic<int> trainedJobCount{0};
+            long long generation = 0;
+            bool stopping = false;
+
+            // Scratch buffers, used only by the training thread
+            std::vector<float> features;
+            std::vector<int> assignments;
+            std::vector<double> covariance;
+            std::vector<double> component;
+            std::vector<double> nextComponent;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_SPIKESORTER_H
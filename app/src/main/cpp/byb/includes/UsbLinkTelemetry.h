@@ -0,0 +1,87 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_USBLINKTELEMETRY_H
+#define SPIKE_RECORDER_ANDROID_USBLINKTELEMETRY_H
+
+#include <atomic>
+#include <chrono>
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        /**
+         * Counters that describe health of the link with the connected SpikerBox. Counters are updated from the USB
+         * reading thread and the processing thread and can be read from any thread.
+         */
+        class UsbLinkTelemetry {
+        public:
+            // Indices of the values returned by getValues()
+            static constexpr int FRAMES_DECODED = 0;
+            static constexpr int FRAMES_DROPPED = 1;
+            static constexpr int RESYNCS = 2;
+            static constexpr int ESCAPE_MESSAGES = 3;
+            static constexpr int BYTES_DISCARDED = 4;
+            static constexpr int RING_OVERRUNS = 5;
+            static constexpr int PACKETS_RECEIVED = 6;
+            static constexpr int INVALID_PACKETS = 7;
+            // Latency between writing received data to the buffer and having it processed
+            static constexpr int LATENCY_SUM_NANOS = 8;
+            static constexpr int LATENCY_MAX_NANOS = 9;
+            static constexpr int LATENCY_COUNT = 10;
+            // Packet inter-arrival histogram starts at this index
+            static constexpr int INTER_ARRIVAL_HISTOGRAM = 11;
+            // First bucket holds inter-arrival times shorter than 125us, every next bucket is twice as wide and the last
+            // bucket holds everything longer than 128ms
+            static constexpr int INTER_ARRIVAL_BUCKET_COUNT = 12;
+            static constexpr long long INTER_ARRIVAL_FIRST_BUCKET_NANOS = 125000;
+            static constexpr int VALUE_COUNT = INTER_ARRIVAL_HISTOGRAM + INTER_ARRIVAL_BUCKET_COUNT;
+
+            UsbLinkTelemetry();
+
+            /**
+             * Adds decoder counters collected while processing single batch of the sample stream.
+             */
+            void addDecoderStats(long long framesDecoded, long long framesDropped, long long resyncs,
+                                 long long escapeMessages, long long bytesDiscarded);
+
+            /**
+             * Should be called every time a packet is received from the device.
+             */
+            void onPacketReceived();
+
+            /**
+             * Should be called every time a packet is dropped because there's no room for it in the buffer.
+             */
+            void onRingOverrun();
+
+            /**
+             * Should be called every time a received packet is discarded because it's malformed.
+             */
+            void onInvalidPacket();
+
+            /**
+             * Adds time it took from writing received data to the buffer until it was processed.
+             */
+            void addLatency(long long latencyNanos);
+
+            /**
+             * Resets all counters.
+             */
+            void reset();
+
+            /**
+             * Populates specified outValues with current counter values. Array needs to have VALUE_COUNT elements.
+             */
+            void getValues(long long *outValues);
+
+        private:
+            std::atomic<long long> values[VALUE_COUNT];
+            std::atomic<long long> lastPacketNanos{0};
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_USBLINKTELEMETRY_H
@@ -0,0 +1,102 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_USBPACKETRING_H
+#define SPIKE_RECORDER_ANDROID_USBPACKETRING_H
+
+#include <atomic>
+#include <chrono>
+#include <condition_variable>
+#include <mutex>
+
+#include "UsbLinkTelemetry.h"
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        /**
+         * Single-producer/single-consumer ring buffer that holds payload of the HID packets received from the SpikerBox
+         * until it's consumed by the sample stream processor. USB reading thread is the only producer and processing
+         * thread is the only consumer so reading and writing is done without locking. Lock is only used to wake up
+         * consumer when it waits for new data.
+         */
+        class UsbPacketRing {
+        public:
+            // Capacity needs to be power of 2. Received, invalid and dropped packets and processing latency are
+            // reported to specified telemetry.
+            UsbPacketRing(int capacity, UsbLinkTelemetry *telemetry);
+
+            ~UsbPacketRing();
+
+            /**
+             * Validates each of the HID packets in the specified data, strips the two header bytes (Report ID and
+             * number of valid bytes) and writes the payload to the ring. Packets that don't fit in the ring are
+             * dropped. Returns number of written payload bytes.
+             */
+            int writeHidPackets(const unsigned char *inData, int length, int packetSize);
+
+            /**
+             * Blocks until there is data in the ring or until specified timeout expires. Returns number of bytes
+             * available for reading.
+             */
+            int await(int timeoutMs);
+
+            /**
+             * Reads at most maxLength bytes from the ring into specified outData. Returns number of read bytes.
+             */
+            int read(unsigned char *outData, int maxLength);
+
+            /**
+             * Returns number of bytes that can currently be written to the ring.
+             */
+            int freeSpace();
+
+            /**
+             * Should be called by the consumer once data returned by the last read() has been processed so end-to-end
+             * latency can be calculated.
+             */
+            void markProcessed();
+
+            /**
+             * Discards all data in the ring.
+             */
+            void reset();
+
+        private:
+            // Valid HID packet starts with TI vendor ID
+            static constexpr unsigned char HID_REPORT_ID = 63;
+            // Valid HID packet carries 62 bytes of payload
+            static constexpr unsigned char HID_PAYLOAD_SIZE = 62;
+            // Length of the HID packet header
+            static constexpr int HID_HEADER_SIZE = 2;
+            // Max number of write timestamps that are kept for latency calculation
+            static constexpr int MAX_TIMESTAMPS = 256;
+
+            static long long nowNanos();
+
+            // Collects link health counters
+            UsbLinkTelemetry *telemetry;
+
+            unsigned char *buffer;
+            const int capacity;
+            const int mask;
+            // Total number of bytes ever written (advanced only by producer)
+            std::atomic<long long> head{0};
+            // Total number of bytes ever read (advanced only by consumer)
+            std::atomic<long long> tail{0};
+
+            // Holds head position after each write together with time of the write
+            long long timestampPositions[MAX_TIMESTAMPS];
+            long long timestampNanos[MAX_TIMESTAMPS];
+            std::atomic<int> timestampHead{0};
+            std::atomic<int> timestampTail{0};
+
+            std::mutex waitMutex;
+            std::condition_variable waitCondition;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_USBPACKETRING_H
@@ -0,0 +1,66 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_WAVSAMPLES_H
+#define SPIKE_RECORDER_ANDROID_WAVSAMPLES_H
+
+#include <vector>
+#include <android/log.h>
+
+#include "dr_wav.h"
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        /**
+         * Read-only random access to all the samples of a WAV file. Samples of 16-bit PCM files are memory-mapped so
+         * only the pages that are actually accessed are read, samples of all other formats are converted to 16-bit
+         * and kept in memory. Samples are interleaved. Instance can be safely read from multiple threads once opened.
+         */
+        class WavSamples {
+        public:
+            WavSamples();
+
+            ~WavSamples();
+
+            /**
+             * Opens WAV file located at specified path. Returns false if file can't be opened or read.
+             */
+            bool open(const char *filePath);
+
+            /**
+             * Releases all the samples.
+             */
+            void close();
+
+            const drwav_int16 *getSamples() const { return samples; }
+
+            drwav_uint64 getSampleCount() const { return sampleCount; }
+
+            drwav_uint32 getSampleRate() const { return sampleRate; }
+
+            drwav_uint16 getChannelCount() const { return channelCount; }
+
+        private:
+            static const char *TAG;
+
+            // Maps data chunk of the 16-bit PCM file, returns false if it can't be mapped
+            bool map(const char *filePath, drwav_uint64 dataPosition);
+
+            const drwav_int16 *samples = nullptr;
+            drwav_uint64 sampleCount = 0;
+            drwav_uint32 sampleRate = 0;
+            drwav_uint16 channelCount = 0;
+
+            // mapped file region when samples are memory-mapped
+            void *mappedAddress = nullptr;
+            size_t mappedLength = 0;
+            // converted samples when they can't be memory-mapped
+            std::vector<drwav_int16> buffer;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_WAVSAMPLES_H
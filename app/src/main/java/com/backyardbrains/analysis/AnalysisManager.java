@@ -1,6 +1,7 @@
 package com.backyardbrains.analysis;
 
 import android.annotation.SuppressLint;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -9,15 +10,24 @@ import com.backyardbrains.db.AnalysisRepository;
 import com.backyardbrains.db.SpikeRecorderDatabase;
 import com.backyardbrains.db.entity.Spike;
 import com.backyardbrains.db.entity.Train;
+import com.backyardbrains.db.store.AnalysisResultCache;
+import com.backyardbrains.db.store.SpikeColumnStore;
 import com.backyardbrains.dsp.audio.AudioFile;
 import com.backyardbrains.dsp.audio.BaseAudioFile;
 import com.backyardbrains.dsp.audio.WavAudioFile;
 import com.backyardbrains.events.AnalysisDoneEvent;
+import com.backyardbrains.events.AnalysisProgressEvent;
+import com.backyardbrains.utils.AppExecutors;
 import com.backyardbrains.utils.ObjectUtils;
+import com.backyardbrains.utils.RecordingUtils;
 import com.backyardbrains.utils.ThresholdOrientation;
 import com.backyardbrains.vo.AverageSpike;
 import com.backyardbrains.vo.EventTriggeredAverages;
+import com.backyardbrains.vo.PowerSpectrum;
+import com.backyardbrains.vo.FiringRateTimeline;
+import com.backyardbrains.vo.Psth;
 import com.backyardbrains.vo.SpikeIndexValue;
+import com.backyardbrains.vo.SpikeWindow;
 import com.backyardbrains.vo.Threshold;
 import com.crashlytics.android.Crashlytics;
 import java.io.File;
@@ -34,19 +44,45 @@ public class AnalysisManager {
 
     private static final String TAG = makeLogTag(AnalysisManager.class);
 
+    // Max number of analysis results kept in memory
+    private static final int MAX_CACHED_RESULT_COUNT = 16;
+    // Max size of analysis results saved on disk
+    private static final long MAX_CACHED_RESULTS_SIZE = 16 * 1024 * 1024;
+    // Max number of analyses running at once, native analyses already use multiple threads
+    private static final int MAX_RUNNING_ANALYSIS_COUNT = 2;
+
     private AudioFile audioFile;
 
+    // Directory where analyses keep their temporary files
+    private final File scratchDir;
+
     // Reference to the data manager that stores and processes the data
     @SuppressWarnings("WeakerAccess") final AnalysisRepository analysisRepository;
+    // Results of the finished analyses so they are not computed again when unchanged recording is reopened
+    @SuppressWarnings("WeakerAccess") final AnalysisResultCache resultCache;
+    @SuppressWarnings("WeakerAccess") final AppExecutors appExecutors = new AppExecutors();
+    // Runs all the analyses
+    @SuppressWarnings("WeakerAccess") final AnalysisScheduler scheduler =
+        new AnalysisScheduler(MAX_RUNNING_ANALYSIS_COUNT, (filePath, type, progress) -> {
+            // post event with the progress of the running analysis
+            EventBus.getDefault().post(new AnalysisProgressEvent(filePath, type, progress));
+        });
 
     @SuppressWarnings("WeakerAccess") EventTriggeredAverages[] eventTriggeredAverages;
     @SuppressWarnings("WeakerAccess") int[][] autocorrelation;
     @SuppressWarnings("WeakerAccess") int[][] crossCorrelation;
     @SuppressWarnings("WeakerAccess") int[][] isi;
     @SuppressWarnings("WeakerAccess") AverageSpike[] averageSpikes;
+    @SuppressWarnings("WeakerAccess") PowerSpectrum[] powerSpectra;
+    @SuppressWarnings("WeakerAccess") Psth[] psths;
+    @SuppressWarnings("WeakerAccess") FiringRateTimeline[] firingRateTimelines;
 
     public AnalysisManager(@NonNull Context context) {
-        analysisRepository = AnalysisRepository.get(SpikeRecorderDatabase.get(context));
+        analysisRepository = AnalysisRepository.get(SpikeRecorderDatabase.get(context),
+            new SpikeColumnStore(new File(context.getFilesDir(), SpikeColumnStore.DEFAULT_DIR_NAME)));
+        resultCache = new AnalysisResultCache(new File(context.getFilesDir(), AnalysisResultCache.DEFAULT_DIR_NAME),
+            MAX_CACHED_RESULT_COUNT, MAX_CACHED_RESULTS_SIZE);
+        scratchDir = context.getCacheDir();
     }
 
     //=================================================
@@ -55,8 +91,13 @@ public class AnalysisManager {
 
     // Callback to be invoked when spikes are retrieved from the analysis repository
     private AnalysisDataSource.SpikeAnalysisCheckCallback spikeAnalysisCheckCallback = (analysis, trainCount) -> {
-        // post event that audio file analysis was successfully finished
-        EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.FIND_SPIKES));
+        if (analysis != null) {
+            // post event that audio file analysis was successfully finished
+            EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.FIND_SPIKES));
+        } else {
+            // previous analysis was cancelled or is still running, in which case scheduler joins the two
+            findSpikes();
+        }
     };
 
     /**
@@ -131,13 +172,44 @@ public class AnalysisManager {
     }
 
     /**
-     * Returns array of spike values and indexes belonging to train with specified {@code trainId} for specified {@code
-     * channel} for the specified range.
+     * Returns number of spikes belonging to spike analysis with specified {@code analysisId} found on specified {@code
+     * channel} whose values are between {@code startValue} and {@code endValue}, or {@code -1} if it can't be returned
+     * without blocking. This method is fast enough to be called while threshold handles are dragged.
+     */
+    public int getSpikeCountForValueRange(long analysisId, int channel, int startValue, int endValue) {
+        return analysisRepository.getSpikeCountForValueRange(analysisId, channel, startValue, endValue);
+    }
+
+    /**
+     * Returns value within specified {@code radius} of specified {@code value} around which the fewest spikes
+     * belonging to spike analysis with specified {@code analysisId} found on specified {@code channel} are found, or
+     * {@code value} itself if it can't be found without blocking.
+     */
+    public int findSpikeValueValley(long analysisId, int channel, int value, int radius) {
+        return analysisRepository.findSpikeValueValley(analysisId, channel, value, radius);
+    }
+
+    /**
+     * Returns the latest loaded window of spike values and indexes belonging to train with specified {@code trainId}
+     * for specified {@code channel}. Spikes for the specified range are loaded in the background if window doesn't
+     * cover it, so this method never blocks.
      */
-    public SpikeIndexValue[] getSpikesByTrainForRange(long trainId, int channel, int startIndex, int endIndex) {
+    @Nullable public SpikeWindow getSpikesByTrainForRange(long trainId, int channel, int startIndex, int endIndex) {
         return analysisRepository.getSpikesByTrainForRange(trainId, channel, startIndex, endIndex);
     }
 
+    /**
+     * Releases spikes kept in memory if system is running low on memory or the app UI is no longer visible.
+     *
+     * @param level Memory trim level passed to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            analysisRepository.trimMemory();
+            appExecutors.diskIO().execute(resultCache::trimMemory);
+        }
+    }
+
     // Loads file with specified file path into WavAudioFile for further processing
     private boolean load(@NonNull String filePath) {
         try {
@@ -164,21 +236,64 @@ public class AnalysisManager {
         return true;
     }
 
+    /**
+     * Cancels the process of finding spikes for the file located at specified {@code filePath} if it's running.
+     * Spikes found until then are discarded.
+     */
+    public void cancelFindSpikes(@NonNull String filePath) {
+        scheduler.cancel(filePath, AnalysisType.FIND_SPIKES);
+    }
+
     // Clears current spike analysis and triggers the new one
     @SuppressWarnings("WeakerAccess") void findSpikes() {
-        new FindSpikesAnalysis(audioFile, new BaseAnalysis.AnalysisListener<Spike[]>() {
-            @Override public void onAnalysisDone(@NonNull String filePath, @Nullable Spike[] results) {
-                analysisRepository.saveSpikeAnalysis(filePath, results != null ? results : new Spike[0]);
-
-                // post event that audio file analysis successfully finished
-                EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.FIND_SPIKES));
+        new FindSpikesAnalysis(audioFile, analysisRepository, new BaseAnalysis.AnalysisListener<Boolean>() {
+            @Override public void onAnalysisDone(@NonNull String filePath, @Nullable Boolean results) {
+                // post event that audio file analysis finished, spikes are already saved at this point
+                EventBus.getDefault()
+                    .post(new AnalysisDoneEvent(results != null && results, AnalysisType.FIND_SPIKES));
             }
 
             @Override public void onAnalysisFailed(@NonNull String filePath) {
                 // post event that audio file analysis failed
                 EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.FIND_SPIKES));
             }
-        }).startAnalysis();
+        }).startAnalysis(scheduler, AnalysisType.FIND_SPIKES, null, AnalysisScheduler.Priority.FOREGROUND);
+    }
+
+    /**
+     * Sorts already found spikes of every channel of the audio file located at specified {@code filePath} into at most
+     * {@code clusterCount} clusters by the shape of their waveforms and replaces existing spike trains with one train
+     * per cluster.
+     */
+    public void clusterSpikes(@NonNull String filePath, int clusterCount) {
+        if ((audioFile == null || !ObjectUtils.equals(filePath, audioFile.getAbsolutePath())) && !load(filePath)) {
+            // post event that spike clustering failed
+            EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.CLUSTER_SPIKES));
+            return;
+        }
+
+        new SpikeClusteringAnalysis(audioFile, analysisRepository, scratchDir,
+            new BaseAnalysis.AnalysisListener<Boolean>() {
+                @Override public void onAnalysisDone(@NonNull String filePath, @Nullable Boolean results) {
+                    // post event that spike clustering finished, trains are already saved at this point
+                    EventBus.getDefault()
+                        .post(new AnalysisDoneEvent(results != null && results, AnalysisType.CLUSTER_SPIKES));
+                }
+
+                @Override public void onAnalysisFailed(@NonNull String filePath) {
+                    // post event that spike clustering failed
+                    EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.CLUSTER_SPIKES));
+                }
+            }).startAnalysis(scheduler, AnalysisType.CLUSTER_SPIKES, String.valueOf(clusterCount),
+            AnalysisScheduler.Priority.FOREGROUND, clusterCount);
+    }
+
+    /**
+     * Cancels the process of clustering spikes for the file located at specified {@code filePath} if it's running.
+     * Existing spike trains are left unchanged.
+     */
+    public void cancelClusterSpikes(@NonNull String filePath) {
+        scheduler.cancel(filePath, AnalysisType.CLUSTER_SPIKES);
     }
 
     // Resets all the flags and clears all resources before loading new audio file.
@@ -200,6 +315,9 @@ public class AnalysisManager {
         isi = null;
         crossCorrelation = null;
         averageSpikes = null;
+        powerSpectra = null;
+        psths = null;
+        firingRateTimelines = null;
     }
 
     //=================================================
@@ -284,22 +402,25 @@ public class AnalysisManager {
 
         private final String filePath;
         private final @AnalysisType int analysisType;
+        private final String cacheKey;
 
-        GetSpikeAnalysisByTrainsCallback(@NonNull String filePath, @AnalysisType int analysisType) {
+        GetSpikeAnalysisByTrainsCallback(@NonNull String filePath, @AnalysisType int analysisType,
+            @Nullable String cacheKey) {
             this.filePath = filePath;
             this.analysisType = analysisType;
+            this.cacheKey = cacheKey;
         }
 
         @SuppressLint("SwitchIntDef") @Override public void onAnalysisLoaded(@NonNull float[][] result) {
             switch (analysisType) {
                 case AnalysisType.AUTOCORRELATION:
-                    autocorrelationAnalysis(filePath, result);
+                    autocorrelationAnalysis(filePath, result, cacheKey);
                     break;
                 case AnalysisType.ISI:
-                    isiAnalysis(filePath, result);
+                    isiAnalysis(filePath, result, cacheKey);
                     break;
                 case AnalysisType.CROSS_CORRELATION:
-                    crossCorrelationAnalysis(filePath, result);
+                    crossCorrelationAnalysis(filePath, result, cacheKey);
                     break;
             }
         }
@@ -323,12 +444,12 @@ public class AnalysisManager {
     }
 
     @SuppressWarnings("WeakerAccess") void getSpikeAnalysisByTrains(@NonNull String filePath,
-        @AnalysisType int analysisType) {
+        @AnalysisType int analysisType, @Nullable String cacheKey) {
         if (analysisType == AnalysisType.AVERAGE_SPIKE) {
             analysisRepository.getSpikeAnalysisIndicesByTrains(filePath,
                 new AnalysisDataSource.GetAnalysisCallback<int[][]>() {
                     @Override public void onAnalysisLoaded(@NonNull int[][] result) {
-                        averageSpikeAnalysis(result);
+                        averageSpikeAnalysis(result, cacheKey);
                     }
 
                     @Override public void onDataNotAvailable() {
@@ -339,8 +460,149 @@ public class AnalysisManager {
                 });
         } else {
             analysisRepository.getSpikeAnalysisTimesByTrains(filePath,
-                new GetSpikeAnalysisByTrainsCallback(filePath, analysisType));
+                new GetSpikeAnalysisByTrainsCallback(filePath, analysisType, cacheKey));
+        }
+    }
+
+    // Looks up the result of the analysis of specified type for current spike trains and starts the analysis if
+    // there's no such result
+    private void spikeTrainsAnalysis(@NonNull String filePath, @AnalysisType int analysisType) {
+        analysisRepository.getSpikeAnalysisTrains(filePath, new AnalysisDataSource.GetAnalysisCallback<Train[]>() {
+            @Override public void onAnalysisLoaded(@NonNull Train[] trains) {
+                getCachedResult(analysisType, () -> newSpikeTrainsKeyBuilder(analysisType, filePath, trains).build(),
+                    cacheKey -> spikeTrainsAnalysis(filePath, analysisType, cacheKey));
+            }
+
+            @Override public void onDataNotAvailable() {
+                spikeTrainsAnalysis(filePath, analysisType, null);
+            }
+        });
+    }
+
+    // Creates builder of the key of the analysis of specified type on spikes of specified trains
+    @SuppressWarnings("WeakerAccess") @NonNull static AnalysisResultCache.KeyBuilder newSpikeTrainsKeyBuilder(
+        @AnalysisType int analysisType, @NonNull String filePath, @NonNull Train[] trains) throws IOException {
+        // thresholds and clusters define which spikes belong to the trains so any change of them changes key
+        final AnalysisResultCache.KeyBuilder builder =
+            new AnalysisResultCache.KeyBuilder(analysisType, new File(filePath)).append(trains.length);
+        for (Train train : trains) {
+            builder.append(train.getId())
+                .append(train.getChannel())
+                .append(train.getOrder())
+                .append(train.getLowerThreshold())
+                .append(train.getUpperThreshold())
+                .append(train.getCluster());
         }
+        return builder;
+    }
+
+    // Starts the analysis of specified type on spikes of all spike trains
+    @SuppressWarnings("WeakerAccess") void spikeTrainsAnalysis(@NonNull String filePath,
+        @AnalysisType int analysisType, @Nullable String cacheKey) {
+        if (analysisType == AnalysisType.AVERAGE_SPIKE) {
+            averageSpikeAnalysis(filePath, cacheKey);
+        } else {
+            getSpikeAnalysisByTrains(filePath, analysisType, cacheKey);
+        }
+    }
+
+    //=================================================
+    //  CACHED RESULTS
+    //=================================================
+
+    // Builds the key of the cached analysis result
+    private interface CacheKeyFactory {
+        @NonNull String create() throws IOException;
+    }
+
+    // Invoked on the main thread when there's no cached result for the key
+    private interface CacheMissCallback {
+        void onCacheMiss(@Nullable String cacheKey);
+    }
+
+    // Builds the key and looks up the result of the analysis of specified type on the background thread. If result
+    // is found it's set and the analysis is reported as done, otherwise specified callback is invoked with the key
+    // the result should be saved with.
+    private void getCachedResult(@AnalysisType int analysisType, @NonNull CacheKeyFactory keyFactory,
+        @NonNull CacheMissCallback callback) {
+        appExecutors.diskIO().execute(() -> {
+            String cacheKey = null;
+            Object result = null;
+            try {
+                cacheKey = keyFactory.create();
+                result = resultCache.get(cacheKey);
+            } catch (IOException e) {
+                LOGE(TAG, "Error while looking up cached analysis result: " + e.getMessage());
+                Crashlytics.logException(e);
+            }
+
+            final String key = cacheKey;
+            final Object cachedResult = result;
+            appExecutors.mainThread().execute(() -> {
+                if (cachedResult != null && setResult(analysisType, cachedResult)) {
+                    LOGD(TAG, "Cached result found for analysis " + analysisType);
+                    // post event that audio file analysis successfully finished
+                    EventBus.getDefault().post(new AnalysisDoneEvent(true, analysisType));
+                } else {
+                    callback.onCacheMiss(key);
+                }
+            });
+        });
+    }
+
+    // Sets specified result of the analysis of specified type. Returns false if result is not of the expected type.
+    @SuppressLint("SwitchIntDef") @SuppressWarnings("WeakerAccess") boolean setResult(
+        @AnalysisType int analysisType, @NonNull Object result) {
+        switch (analysisType) {
+            case AnalysisType.AUTOCORRELATION:
+                if (!(result instanceof int[][])) return false;
+                autocorrelation = (int[][]) result;
+                return true;
+            case AnalysisType.ISI:
+                if (!(result instanceof int[][])) return false;
+                isi = (int[][]) result;
+                return true;
+            case AnalysisType.CROSS_CORRELATION:
+                if (!(result instanceof int[][])) return false;
+                crossCorrelation = (int[][]) result;
+                return true;
+            case AnalysisType.AVERAGE_SPIKE:
+                if (!(result instanceof AverageSpike[])) return false;
+                averageSpikes = (AverageSpike[]) result;
+                return true;
+            case AnalysisType.EVENT_TRIGGERED_AVERAGE:
+                if (!(result instanceof EventTriggeredAverages[])) return false;
+                eventTriggeredAverages = (EventTriggeredAverages[]) result;
+                return true;
+            case AnalysisType.POWER_SPECTRUM:
+                if (!(result instanceof PowerSpectrum[])) return false;
+                powerSpectra = (PowerSpectrum[]) result;
+                return true;
+            case AnalysisType.PSTH:
+                if (!(result instanceof Psth[])) return false;
+                psths = (Psth[]) result;
+                return true;
+            case AnalysisType.FIRING_RATE_TIMELINE:
+                if (!(result instanceof FiringRateTimeline[])) return false;
+                firingRateTimelines = (FiringRateTimeline[]) result;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Saves specified analysis result with specified key on the background thread
+    @SuppressWarnings("WeakerAccess") void cacheResult(@Nullable String cacheKey, @Nullable Object result) {
+        if (cacheKey == null || result == null) return;
+
+        appExecutors.diskIO().execute(() -> {
+            try {
+                resultCache.put(cacheKey, result);
+            } catch (IOException e) {
+                LOGE(TAG, "Error while saving analysis result: " + e.getMessage());
+                Crashlytics.logException(e);
+            }
+        });
     }
 
     //=================================================
@@ -356,24 +618,80 @@ public class AnalysisManager {
         final @AnalysisType int type = analysisConfig.getAnalysisType();
         switch (type) {
             case AnalysisType.AUTOCORRELATION:
-                getSpikeAnalysisByTrains(filePath, AnalysisType.AUTOCORRELATION);
-                break;
             case AnalysisType.ISI:
-                getSpikeAnalysisByTrains(filePath, AnalysisType.ISI);
-                break;
             case AnalysisType.CROSS_CORRELATION:
-                getSpikeAnalysisByTrains(filePath, AnalysisType.CROSS_CORRELATION);
-                break;
             case AnalysisType.AVERAGE_SPIKE:
-                averageSpikeAnalysis(filePath);
+                spikeTrainsAnalysis(filePath, type);
                 break;
             case AnalysisType.EVENT_TRIGGERED_AVERAGE:
                 final EventTriggeredAveragesConfig etaConfig = (EventTriggeredAveragesConfig) analysisConfig;
-                eventTriggeredAverageAnalysis(filePath, etaConfig);
+                getCachedResult(type, () -> {
+                    final File file = new File(filePath);
+                    return new AnalysisResultCache.KeyBuilder(type, file)
+                        .appendFingerprint(RecordingUtils.getEventFile(file))
+                        .append(etaConfig.getEvents())
+                        .append(etaConfig.isRemoveNoiseIntervals())
+                        .append(etaConfig.getConfidenceIntervalsEvent())
+                        .build();
+                }, cacheKey -> eventTriggeredAverageAnalysis(filePath, etaConfig, cacheKey));
+                break;
+            case AnalysisType.POWER_SPECTRUM:
+                getCachedResult(type, () -> new AnalysisResultCache.KeyBuilder(type, new File(filePath)).build(),
+                    cacheKey -> powerSpectrumAnalysis(filePath, cacheKey));
+                break;
+            case AnalysisType.PSTH:
+                psthAnalysis(filePath, (PsthConfig) analysisConfig);
+                break;
+            case AnalysisType.FIRING_RATE_TIMELINE:
+                firingRateTimelineAnalysis(filePath, (FiringRateTimelineConfig) analysisConfig);
                 break;
         }
     }
 
+    /**
+     * Cancels the analysis specified by {@code analysisConfig} if it's running. Analysis doesn't need to be cancelled
+     * if its result is still needed, the same analysis started again while it's running just waits for it to finish.
+     */
+    public void cancelAnalysis(@NonNull final AnalysisConfig analysisConfig) {
+        scheduler.cancel(analysisConfig.getFilePath(), analysisConfig.getAnalysisType());
+    }
+
+    //=================================================
+    //  BATCH ANALYSIS
+    //=================================================
+
+    /**
+     * Starts the analysis of all recordings at specified {@code filePaths} as described by specified {@code plan} and
+     * exports the results to {@code outputDir}. Recordings are analysed in the background so they never delay the
+     * analysis that's currently on screen. Recordings already analysed by the previous batch with the same plan and
+     * output directory are skipped. Listener callbacks are invoked on the main thread.
+     *
+     * @return Runner that can be used to cancel the batch.
+     */
+    @NonNull public BatchAnalysisRunner startBatchAnalysis(@NonNull List<String> filePaths,
+        @NonNull BatchAnalysisPlan plan, @NonNull File outputDir,
+        @NonNull BatchAnalysisRunner.BatchAnalysisListener listener) {
+        final BatchAnalysisRunner runner =
+            new BatchAnalysisRunner(scheduler, AnalysisScheduler.Priority.BACKGROUND, appExecutors.mainThread());
+        runner.start(filePaths, plan, outputDir, listener);
+        return runner;
+    }
+
+    /**
+     * Starts averaging of the signal surrounding spikes or events, as described by specified {@code config}, across
+     * all recordings at specified {@code filePaths}. Recordings are analysed in the background so they never delay
+     * the analysis that's currently on screen. Listener callbacks are invoked on the main thread.
+     *
+     * @return Runner that can be used to cancel the analysis.
+     */
+    @NonNull public GrandAverageRunner startGrandAverage(@NonNull List<String> filePaths,
+        @NonNull GrandAverageConfig config, @NonNull GrandAverageRunner.GrandAverageListener listener) {
+        final GrandAverageRunner runner =
+            new GrandAverageRunner(scheduler, AnalysisScheduler.Priority.BACKGROUND, appExecutors.mainThread());
+        runner.start(filePaths, config, listener);
+        return runner;
+    }
+
     //=================================================
     //  EVENT TRIGGERED AVERAGES
     //=================================================
@@ -386,20 +704,21 @@ public class AnalysisManager {
     }
 
     // Loads file with specified filePath if not already loaded and starts Event Triggered Average analysis.
-    private void eventTriggeredAverageAnalysis(@NonNull String filePath, @Nullable EventTriggeredAveragesConfig etaConfig) {
+    @SuppressWarnings("WeakerAccess") void eventTriggeredAverageAnalysis(@NonNull String filePath,
+        @Nullable EventTriggeredAveragesConfig etaConfig, @Nullable String cacheKey) {
         if (audioFile != null) {
             if (!ObjectUtils.equals(filePath, audioFile.getAbsolutePath())) {
                 if (load(filePath)) {
-                    eventTriggeredAverageAnalysis(etaConfig);
+                    eventTriggeredAverageAnalysis(etaConfig, cacheKey);
                 } else {
                     // TODO: 09-Feb-18 BROADCAST EVENT THAT LOADING OF THE FILE FAILED
                 }
             } else {
-                eventTriggeredAverageAnalysis(etaConfig);
+                eventTriggeredAverageAnalysis(etaConfig, cacheKey);
             }
         } else {
             if (load(filePath)) {
-                eventTriggeredAverageAnalysis(etaConfig);
+                eventTriggeredAverageAnalysis(etaConfig, cacheKey);
             } else {
                 // TODO: 09-Feb-18 BROADCAST EVENT THAT LOADING OF THE FILE FAILED
             }
@@ -407,13 +726,15 @@ public class AnalysisManager {
     }
 
     // Starts Event Triggered Average analysis depending on the set flags.
-    private void eventTriggeredAverageAnalysis(@Nullable EventTriggeredAveragesConfig etaConfig) {
+    private void eventTriggeredAverageAnalysis(@Nullable EventTriggeredAveragesConfig etaConfig,
+        @Nullable String cacheKey) {
         LOGD(TAG, "eventTriggeredAverageAnalysis()");
         if (audioFile != null && etaConfig != null) {
             new EventTriggeredAverageAnalysis(audioFile, new BaseAnalysis.AnalysisListener<EventTriggeredAverages[]>() {
                 @Override
                 public void onAnalysisDone(@NonNull String filePath, @Nullable EventTriggeredAverages[] result) {
                     eventTriggeredAverages = result;
+                    cacheResult(cacheKey, result);
                     // post event that audio file analysis successfully finished
                     EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.EVENT_TRIGGERED_AVERAGE));
                 }
@@ -422,8 +743,202 @@ public class AnalysisManager {
                     // post event that audio file analysis failed
                     EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.EVENT_TRIGGERED_AVERAGE));
                 }
-            }).startAnalysis(etaConfig);
+            }).startAnalysis(scheduler, AnalysisType.EVENT_TRIGGERED_AVERAGE, cacheKey,
+                AnalysisScheduler.Priority.FOREGROUND, etaConfig);
+        }
+    }
+
+    //=================================================
+    //  POWER SPECTRUM
+    //=================================================
+
+    /**
+     * Returns results for the Power Spectrum analysis, one spectrum per channel
+     */
+    @Nullable public PowerSpectrum[] getPowerSpectra() {
+        return powerSpectra;
+    }
+
+    // Loads file with specified filePath if not already loaded and starts Power Spectrum analysis.
+    @SuppressWarnings("WeakerAccess") void powerSpectrumAnalysis(@NonNull String filePath, @Nullable String cacheKey) {
+        LOGD(TAG, "powerSpectrumAnalysis()");
+        if ((audioFile == null || !ObjectUtils.equals(filePath, audioFile.getAbsolutePath())) && !load(filePath)) {
+            // post event that audio file analysis failed
+            EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.POWER_SPECTRUM));
+            return;
+        }
+
+        new PowerSpectrumAnalysis(audioFile, new BaseAnalysis.AnalysisListener<PowerSpectrum[]>() {
+            @Override public void onAnalysisDone(@NonNull String filePath, @Nullable PowerSpectrum[] result) {
+                powerSpectra = result;
+                cacheResult(cacheKey, result);
+                // post event that audio file analysis finished
+                EventBus.getDefault().post(new AnalysisDoneEvent(result != null, AnalysisType.POWER_SPECTRUM));
+            }
+
+            @Override public void onAnalysisFailed(@NonNull String filePath) {
+                // post event that audio file analysis failed
+                EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.POWER_SPECTRUM));
+            }
+        }).startAnalysis(scheduler, AnalysisType.POWER_SPECTRUM, cacheKey, AnalysisScheduler.Priority.FOREGROUND);
+    }
+
+    //=================================================
+    //  PSTH (Peri-Stimulus Time Histogram)
+    //=================================================
+
+    /**
+     * Returns results for the Peri-Stimulus Time Histogram analysis, one histogram for every selected event type and
+     * spike train
+     */
+    @Nullable public Psth[] getPsths() {
+        return psths;
+    }
+
+    // Looks up the result of the Peri-Stimulus Time Histogram analysis for current spike trains and specified config
+    // and starts the analysis if there's no such result
+    private void psthAnalysis(@NonNull String filePath, @NonNull PsthConfig psthConfig) {
+        analysisRepository.getSpikeAnalysisTrains(filePath, new AnalysisDataSource.GetAnalysisCallback<Train[]>() {
+            @Override public void onAnalysisLoaded(@NonNull Train[] trains) {
+                getCachedResult(AnalysisType.PSTH, () -> newSpikeTrainsKeyBuilder(AnalysisType.PSTH, filePath, trains)
+                    .appendFingerprint(RecordingUtils.getEventFile(new File(filePath)))
+                    .append(psthConfig.getEvents())
+                    .append(psthConfig.getLeftOffset())
+                    .append(psthConfig.getRightOffset())
+                    .append(psthConfig.getBinSize())
+                    .append(psthConfig.isRaster())
+                    .build(), cacheKey -> psthAnalysis(filePath, psthConfig, cacheKey));
+            }
+
+            @Override public void onDataNotAvailable() {
+                psthAnalysis(filePath, psthConfig, null);
+            }
+        });
+    }
+
+    // Loads file with specified filePath if not already loaded, loads spikes of all the trains and starts
+    // Peri-Stimulus Time Histogram analysis
+    @SuppressWarnings("WeakerAccess") void psthAnalysis(@NonNull String filePath, @NonNull PsthConfig psthConfig,
+        @Nullable String cacheKey) {
+        LOGD(TAG, "psthAnalysis()");
+        if ((audioFile == null || !ObjectUtils.equals(filePath, audioFile.getAbsolutePath())) && !load(filePath)) {
+            // post event that audio file analysis failed
+            EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.PSTH));
+            return;
+        }
+
+        analysisRepository.getSpikeAnalysisIndicesByTrains(filePath,
+            new AnalysisDataSource.GetAnalysisCallback<int[][]>() {
+                @Override public void onAnalysisLoaded(@NonNull int[][] result) {
+                    psthAnalysis(psthConfig, result, cacheKey);
+                }
+
+                @Override public void onDataNotAvailable() {
+                    psths = null;
+                    // post event that audio file analysis finished, there are no trains to analyse
+                    EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.PSTH));
+                }
+            });
+    }
+
+    // Starts the actual Peri-Stimulus Time Histogram analysis.
+    @SuppressWarnings("WeakerAccess") void psthAnalysis(@NonNull PsthConfig psthConfig,
+        @NonNull int[][] spikeAnalysisByTrains, @Nullable String cacheKey) {
+        if (audioFile == null) return;
+
+        new PsthAnalysis(audioFile, psthConfig, new BaseAnalysis.AnalysisListener<Psth[]>() {
+            @Override public void onAnalysisDone(@NonNull String filePath, @Nullable Psth[] result) {
+                psths = result;
+                cacheResult(cacheKey, result);
+                // post event that audio file analysis finished
+                EventBus.getDefault().post(new AnalysisDoneEvent(result != null, AnalysisType.PSTH));
+            }
+
+            @Override public void onAnalysisFailed(@NonNull String filePath) {
+                // post event that audio file analysis failed
+                EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.PSTH));
+            }
+        }).startAnalysis(scheduler, AnalysisType.PSTH, cacheKey, AnalysisScheduler.Priority.FOREGROUND,
+            spikeAnalysisByTrains);
+    }
+
+    //=================================================
+    //  FIRING RATE TIMELINE
+    //=================================================
+
+    /**
+     * Returns results for the Firing Rate Timeline analysis, one timeline for every spike train
+     */
+    @Nullable public FiringRateTimeline[] getFiringRateTimelines() {
+        return firingRateTimelines;
+    }
+
+    // Looks up the firing rate timelines of current spike trains with specified config and starts the analysis if
+    // there are no such timelines
+    private void firingRateTimelineAnalysis(@NonNull String filePath, @NonNull FiringRateTimelineConfig config) {
+        analysisRepository.getSpikeAnalysisTrains(filePath, new AnalysisDataSource.GetAnalysisCallback<Train[]>() {
+            @Override public void onAnalysisLoaded(@NonNull Train[] trains) {
+                getCachedResult(AnalysisType.FIRING_RATE_TIMELINE,
+                    () -> newSpikeTrainsKeyBuilder(AnalysisType.FIRING_RATE_TIMELINE, filePath, trains)
+                        .append(config.getBinSize())
+                        .build(), cacheKey -> firingRateTimelineAnalysis(filePath, config, cacheKey));
+            }
+
+            @Override public void onDataNotAvailable() {
+                firingRateTimelineAnalysis(filePath, config, null);
+            }
+        });
+    }
+
+    // Loads file with specified filePath if not already loaded, counts spikes of all the trains within the finest
+    // bins and starts Firing Rate Timeline analysis
+    @SuppressWarnings("WeakerAccess") void firingRateTimelineAnalysis(@NonNull String filePath,
+        @NonNull FiringRateTimelineConfig config, @Nullable String cacheKey) {
+        LOGD(TAG, "firingRateTimelineAnalysis()");
+        if ((audioFile == null || !ObjectUtils.equals(filePath, audioFile.getAbsolutePath())) && !load(filePath)) {
+            // post event that audio file analysis failed
+            EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.FIRING_RATE_TIMELINE));
+            return;
         }
+
+        final int binFrameCount =
+            FiringRateTimelineAnalysis.getBinFrameCount(config.getBinSize(), audioFile.sampleRate());
+        final int binCount = FiringRateTimelineAnalysis.getBinCount(audioFile.sampleCount(), binFrameCount);
+        analysisRepository.getSpikeAnalysisCountsByTrains(filePath, binFrameCount, binCount,
+            new AnalysisDataSource.GetAnalysisCallback<int[][]>() {
+                @Override public void onAnalysisLoaded(@NonNull int[][] result) {
+                    firingRateTimelineAnalysis(binFrameCount, result, cacheKey);
+                }
+
+                @Override public void onDataNotAvailable() {
+                    firingRateTimelines = null;
+                    // post event that audio file analysis finished, there are no trains to analyse
+                    EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.FIRING_RATE_TIMELINE));
+                }
+            });
+    }
+
+    // Starts the actual Firing Rate Timeline analysis.
+    @SuppressWarnings("WeakerAccess") void firingRateTimelineAnalysis(int binFrameCount,
+        @NonNull int[][] spikeAnalysisCounts, @Nullable String cacheKey) {
+        if (audioFile == null) return;
+
+        new FiringRateTimelineAnalysis(audioFile, binFrameCount,
+            new BaseAnalysis.AnalysisListener<FiringRateTimeline[]>() {
+                @Override public void onAnalysisDone(@NonNull String filePath, @Nullable FiringRateTimeline[] result) {
+                    firingRateTimelines = result;
+                    cacheResult(cacheKey, result);
+                    // post event that audio file analysis finished
+                    EventBus.getDefault()
+                        .post(new AnalysisDoneEvent(result != null, AnalysisType.FIRING_RATE_TIMELINE));
+                }
+
+                @Override public void onAnalysisFailed(@NonNull String filePath) {
+                    // post event that audio file analysis failed
+                    EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.FIRING_RATE_TIMELINE));
+                }
+            }).startAnalysis(scheduler, AnalysisType.FIRING_RATE_TIMELINE, cacheKey,
+            AnalysisScheduler.Priority.FOREGROUND, spikeAnalysisCounts);
     }
 
     //=================================================
@@ -439,11 +954,12 @@ public class AnalysisManager {
 
     // Starts Autocorrelation analysis depending on the set flags.
     @SuppressWarnings("WeakerAccess") void autocorrelationAnalysis(final @NonNull String filePath,
-        @NonNull float[][] spikeAnalysisByTrains) {
+        @NonNull float[][] spikeAnalysisByTrains, @Nullable String cacheKey) {
         LOGD(TAG, "autocorrelationAnalysis()");
         new AutocorrelationAnalysis(filePath, new BaseAnalysis.AnalysisListener<int[][]>() {
             @Override public void onAnalysisDone(@NonNull String filePath, @Nullable int[][] result) {
                 autocorrelation = result;
+                cacheResult(cacheKey, result);
                 // post event that audio file analysis successfully finished
                 EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.AUTOCORRELATION));
             }
@@ -452,7 +968,8 @@ public class AnalysisManager {
                 // post event that audio file analysis failed
                 EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.AUTOCORRELATION));
             }
-        }).startAnalysis(spikeAnalysisByTrains);
+        }).startAnalysis(scheduler, AnalysisType.AUTOCORRELATION, cacheKey, AnalysisScheduler.Priority.FOREGROUND,
+            spikeAnalysisByTrains);
     }
 
     //=================================================
@@ -468,11 +985,12 @@ public class AnalysisManager {
 
     // Starts Inter Spike Interval analysis depending on the set flags.
     @SuppressWarnings("WeakerAccess") void isiAnalysis(final @NonNull String filePath,
-        @NonNull float[][] spikeAnalysisByTrains) {
+        @NonNull float[][] spikeAnalysisByTrains, @Nullable String cacheKey) {
         LOGD(TAG, "isiAnalysis()");
         new IsiAnalysis(filePath, new BaseAnalysis.AnalysisListener<int[][]>() {
             @Override public void onAnalysisDone(@NonNull String filePath, @Nullable int[][] result) {
                 isi = result;
+                cacheResult(cacheKey, result);
                 // post event that audio file analysis successfully finished
                 EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.ISI));
             }
@@ -481,7 +999,8 @@ public class AnalysisManager {
                 // post event that audio file analysis failed
                 EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.ISI));
             }
-        }).startAnalysis(spikeAnalysisByTrains);
+        }).startAnalysis(scheduler, AnalysisType.ISI, cacheKey, AnalysisScheduler.Priority.FOREGROUND,
+            spikeAnalysisByTrains);
     }
 
     //=================================================
@@ -497,11 +1016,12 @@ public class AnalysisManager {
 
     // Starts Cross-Correlation analysis depending on the set flags.
     @SuppressWarnings("WeakerAccess") void crossCorrelationAnalysis(final @NonNull String filePath,
-        @NonNull float[][] spikeAnalysisByTrains) {
+        @NonNull float[][] spikeAnalysisByTrains, @Nullable String cacheKey) {
         LOGD(TAG, "crossCorrelationAnalysis()");
         new CrossCorrelationAnalysis(filePath, new BaseAnalysis.AnalysisListener<int[][]>() {
             @Override public void onAnalysisDone(@NonNull String filePath, @Nullable int[][] result) {
                 crossCorrelation = result;
+                cacheResult(cacheKey, result);
                 // post event that audio file analysis successfully finished
                 EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.CROSS_CORRELATION));
             }
@@ -510,7 +1030,8 @@ public class AnalysisManager {
                 // post event that audio file analysis failed
                 EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.CROSS_CORRELATION));
             }
-        }).startAnalysis(spikeAnalysisByTrains);
+        }).startAnalysis(scheduler, AnalysisType.CROSS_CORRELATION, cacheKey, AnalysisScheduler.Priority.FOREGROUND,
+            spikeAnalysisByTrains);
     }
 
     //=================================================
@@ -525,20 +1046,20 @@ public class AnalysisManager {
     }
 
     // Loads file with specified filePath if not already loaded and starts Average Spike analysis.
-    private void averageSpikeAnalysis(@NonNull String filePath) {
+    private void averageSpikeAnalysis(@NonNull String filePath, @Nullable String cacheKey) {
         if (audioFile != null) {
             if (!ObjectUtils.equals(filePath, audioFile.getAbsolutePath())) {
                 if (load(filePath)) {
-                    getSpikeAnalysisByTrains(filePath, AnalysisType.AVERAGE_SPIKE);
+                    getSpikeAnalysisByTrains(filePath, AnalysisType.AVERAGE_SPIKE, cacheKey);
                 } else {
                     // TODO: 09-Feb-18 BROADCAST EVENT THAT LOADING OF THE FILE FAILED
                 }
             } else {
-                getSpikeAnalysisByTrains(filePath, AnalysisType.AVERAGE_SPIKE);
+                getSpikeAnalysisByTrains(filePath, AnalysisType.AVERAGE_SPIKE, cacheKey);
             }
         } else {
             if (load(filePath)) {
-                getSpikeAnalysisByTrains(filePath, AnalysisType.AVERAGE_SPIKE);
+                getSpikeAnalysisByTrains(filePath, AnalysisType.AVERAGE_SPIKE, cacheKey);
             } else {
                 // TODO: 09-Feb-18 BROADCAST EVENT THAT LOADING OF THE FILE FAILED
             }
@@ -546,12 +1067,14 @@ public class AnalysisManager {
     }
 
     // Starts the actual Average Spike analysis.
-    @SuppressWarnings("WeakerAccess") void averageSpikeAnalysis(@NonNull int[][] spikeAnalysisByTrains) {
+    @SuppressWarnings("WeakerAccess") void averageSpikeAnalysis(@NonNull int[][] spikeAnalysisByTrains,
+        @Nullable String cacheKey) {
         LOGD(TAG, "averageSpikeAnalysis()");
         if (audioFile != null) {
             new AverageSpikeAnalysis(audioFile, new BaseAnalysis.AnalysisListener<AverageSpike[]>() {
                 @Override public void onAnalysisDone(@NonNull String filePath, @Nullable AverageSpike[] result) {
                     averageSpikes = result;
+                    cacheResult(cacheKey, result);
                     // post event that audio file analysis is successfully finished
                     EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.AVERAGE_SPIKE));
                 }
@@ -560,7 +1083,8 @@ public class AnalysisManager {
                     // post event that audio file analysis is successfully finished
                     EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.AVERAGE_SPIKE));
                 }
-            }).startAnalysis(spikeAnalysisByTrains);
+            }).startAnalysis(scheduler, AnalysisType.AVERAGE_SPIKE, cacheKey, AnalysisScheduler.Priority.FOREGROUND,
+                spikeAnalysisByTrains);
         }
     }
 }
@@ -0,0 +1,276 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.utils.JniUtils;
+import com.backyardbrains.utils.ObjectUtils;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Runs analyses on a limited number of worker threads.
+ * <p>
+ * Every analysis is identified by the analyzed file, analysis type and a key describing its parameters. Scheduling an
+ * analysis that's already queued or running adds listeners of the new analysis to the existing one, so identical
+ * requests share a single run. Foreground analyses always run before the background ones and background analyses
+ * never take the last worker, so the analysis user is waiting for doesn't wait for the background ones to finish.
+ * That's why scheduler always has at least two workers.
+ * Cancelled analyses are dropped from the queue or, if running, told to stop through their native control. Progress
+ * of the running analyses is periodically passed to the progress listener.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class AnalysisScheduler {
+
+    private static final String TAG = makeLogTag(AnalysisScheduler.class);
+
+    // How often progress of the running analyses is reported
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    /**
+     * Priority of the scheduled analysis.
+     */
+    @Retention(RetentionPolicy.SOURCE) @IntDef({Priority.BACKGROUND, Priority.FOREGROUND}) @interface Priority {
+        /**
+         * Analysis nobody is currently waiting for.
+         */
+        int BACKGROUND = 0;
+
+        /**
+         * Analysis whose results are currently on screen.
+         */
+        int FOREGROUND = 1;
+    }
+
+    /**
+     * Listens for progress of the running analyses.
+     */
+    interface ProgressListener {
+        /**
+         * Called periodically from a background thread for every running analysis with its progress between {@code
+         * 0} and {@code 1}.
+         */
+        void onProgress(@NonNull String filePath, @AnalysisType int type, float progress);
+    }
+
+    /**
+     * Creates and drives controls of the running analyses, through which they are cancelled and report their
+     * progress. Native controls are used by default, tests replace them with ones that don't need the native library.
+     */
+    interface Controls {
+        Controls NATIVE = new Controls() {
+            @Override public long newControl() {
+                return JniUtils.newAnalysisControl();
+            }
+
+            @Override public void cancel(long control) {
+                JniUtils.cancelAnalysis(control);
+            }
+
+            @Override public float getProgress(long control) {
+                return JniUtils.getAnalysisProgress(control);
+            }
+
+            @Override public void release(long control) {
+                JniUtils.releaseAnalysisControl(control);
+            }
+        };
+
+        /**
+         * Returns new control, or {@code 0} if analyses can't be cancelled or report progress through the control.
+         */
+        long newControl();
+
+        void cancel(long control);
+
+        float getProgress(long control);
+
+        void release(long control);
+    }
+
+    // Single scheduled analysis
+    private static class Job implements Comparable<Job> {
+        final String key;
+        final @AnalysisType int type;
+        final BaseAnalysis<?, ?> analysis;
+        // jobs with the same priority run in the order they are scheduled
+        final long order;
+        @Priority int priority;
+
+        Job(@NonNull String key, @AnalysisType int type, @NonNull BaseAnalysis<?, ?> analysis, long order,
+            @Priority int priority) {
+            this.key = key;
+            this.type = type;
+            this.analysis = analysis;
+            this.order = order;
+            this.priority = priority;
+        }
+
+        @Override public int compareTo(@NonNull Job job) {
+            if (priority != job.priority) return priority > job.priority ? -1 : 1;
+            return Long.compare(order, job.order);
+        }
+    }
+
+    private final int workerCount;
+    private final int maxBackgroundCount;
+    private final ProgressListener progressListener;
+    private final Controls controls;
+    private final ScheduledExecutorService progressExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "AnalysisProgress");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // All queued and running jobs by their keys
+    private final Map<String, Job> jobs = new HashMap<>();
+    private final PriorityQueue<Job> queue = new PriorityQueue<>();
+    private final List<Job> running = new ArrayList<>();
+    private int startedWorkerCount;
+    private int runningBackgroundCount;
+    private long nextOrder;
+    private ScheduledFuture<?> progressFuture;
+
+    /**
+     * Creates scheduler that runs at most {@code workerCount}, but at least two, analyses at once.
+     */
+    AnalysisScheduler(int workerCount, @Nullable ProgressListener progressListener) {
+        this(workerCount, progressListener, Controls.NATIVE);
+    }
+
+    AnalysisScheduler(int workerCount, @Nullable ProgressListener progressListener, @NonNull Controls controls) {
+        this.workerCount = Math.max(2, workerCount);
+        this.maxBackgroundCount = this.workerCount - 1;
+        this.progressListener = progressListener;
+        this.controls = controls;
+    }
+
+    /**
+     * Schedules specified {@code analysis} of specified {@code type}. Analyses with the same file, type and {@code
+     * paramsKey} are considered the same so if one is already queued or running listeners of specified analysis are
+     * added to it instead, and its priority is raised if it's still queued. {@code paramsKey} should be {@code null}
+     * only if analysis has no parameters.
+     *
+     * @return {@code true} if specified analysis is scheduled, {@code false} if it joined the existing one.
+     */
+    synchronized boolean schedule(@AnalysisType int type, @Nullable String paramsKey, @Priority int priority,
+        @NonNull BaseAnalysis<?, ?> analysis) {
+        final String key = type + ":" + analysis.getFilePath() + (paramsKey != null ? ":" + paramsKey : "");
+        final Job existing = jobs.get(key);
+        if (existing != null) {
+            LOGD(TAG, "Analysis " + key + " is already scheduled");
+            existing.analysis.join(analysis);
+            // priority can't be changed while job is in the queue
+            if (priority > existing.priority && queue.remove(existing)) {
+                existing.priority = priority;
+                queue.add(existing);
+            }
+            return false;
+        }
+
+        final Job job = new Job(key, type, analysis, nextOrder++, priority);
+        jobs.put(key, job);
+        queue.add(job);
+        if (startedWorkerCount < workerCount) {
+            final Thread worker = new Thread(this::work, "AnalysisWorker-" + startedWorkerCount++);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        notifyAll();
+
+        return true;
+    }
+
+    /**
+     * Cancels all the queued and running analyses of specified {@code type} for the file at specified {@code
+     * filePath}. Listeners of the cancelled analyses are not notified.
+     */
+    synchronized void cancel(@NonNull String filePath, @AnalysisType int type) {
+        final Iterator<Job> iterator = jobs.values().iterator();
+        while (iterator.hasNext()) {
+            final Job job = iterator.next();
+            if (job.type == type && ObjectUtils.equals(filePath, job.analysis.getFilePath())) {
+                LOGD(TAG, "Cancelling analysis " + job.key);
+                iterator.remove();
+                queue.remove(job);
+                job.analysis.cancel();
+            }
+        }
+    }
+
+    // Runs scheduled jobs one by one, forever
+    @SuppressWarnings("InfiniteLoopStatement") private void work() {
+        while (true) {
+            final Job job;
+            try {
+                job = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                job.analysis.execute(controls);
+            } finally {
+                finish(job);
+            }
+            // job is not visible anymore so no listener can be added while results are delivered
+            job.analysis.deliver();
+        }
+    }
+
+    // Waits for the next job that is allowed to run and marks it as running
+    private synchronized Job take() throws InterruptedException {
+        while (true) {
+            final Job job = queue.peek();
+            if (job != null && (job.priority == Priority.FOREGROUND || runningBackgroundCount < maxBackgroundCount)) {
+                queue.poll();
+                running.add(job);
+                if (job.priority == Priority.BACKGROUND) runningBackgroundCount++;
+                if (progressListener != null && progressFuture == null) {
+                    progressFuture = progressExecutor.scheduleAtFixedRate(this::reportProgress, PROGRESS_INTERVAL_MS,
+                        PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                }
+                return job;
+            }
+            wait();
+        }
+    }
+
+    // Removes finished job and lets waiting workers check whether background job can run now
+    private synchronized void finish(@NonNull Job job) {
+        running.remove(job);
+        if (job.priority == Priority.BACKGROUND) runningBackgroundCount--;
+        if (jobs.get(job.key) == job) jobs.remove(job.key);
+        if (running.isEmpty() && progressFuture != null) {
+            progressFuture.cancel(false);
+            progressFuture = null;
+        }
+        notifyAll();
+    }
+
+    // Passes progress of all running jobs to the progress listener
+    private void reportProgress() {
+        final List<Job> jobs;
+        synchronized (this) {
+            jobs = new ArrayList<>(running);
+        }
+        for (Job job : jobs) {
+            if (!job.analysis.isCancelled()) {
+                progressListener.onProgress(job.analysis.getFilePath(), job.type, job.analysis.getProgress());
+            }
+        }
+    }
+}
@@ -9,7 +9,9 @@ import java.lang.annotation.RetentionPolicy;
  */
 @Retention(RetentionPolicy.SOURCE) @IntDef({
     AnalysisType.NONE, AnalysisType.FIND_SPIKES, AnalysisType.AUTOCORRELATION, AnalysisType.ISI,
-    AnalysisType.CROSS_CORRELATION, AnalysisType.AVERAGE_SPIKE, AnalysisType.EVENT_TRIGGERED_AVERAGE
+    AnalysisType.CROSS_CORRELATION, AnalysisType.AVERAGE_SPIKE, AnalysisType.EVENT_TRIGGERED_AVERAGE,
+    AnalysisType.BATCH, AnalysisType.CLUSTER_SPIKES, AnalysisType.POWER_SPECTRUM,
+    AnalysisType.PSTH, AnalysisType.FIRING_RATE_TIMELINE, AnalysisType.GRAND_AVERAGE
 }) public @interface AnalysisType {
     /**
      * Invalid analysis type.
@@ -45,4 +47,34 @@ import java.lang.annotation.RetentionPolicy;
      * Event Triggered Average analysis.
      */
     int EVENT_TRIGGERED_AVERAGE = 5;
+
+    /**
+     * Batch analysis of the whole recording without UI.
+     */
+    int BATCH = 6;
+
+    /**
+     * Clustering of the found spikes by the shape of their waveforms.
+     */
+    int CLUSTER_SPIKES = 7;
+
+    /**
+     * Power spectral density of the whole recording.
+     */
+    int POWER_SPECTRUM = 8;
+
+    /**
+     * Peri-stimulus time histogram analysis.
+     */
+    int PSTH = 9;
+
+    /**
+     * Firing rate of spike trains through the whole recording at multiple resolutions.
+     */
+    int FIRING_RATE_TIMELINE = 10;
+
+    /**
+     * Average spike or event triggered average pooled across multiple recordings.
+     */
+    int GRAND_AVERAGE = 11;
 }
@@ -20,13 +20,19 @@ class AutocorrelationAnalysis extends BaseAnalysis<float[][], int[][]> {
     @Nullable @Override protected int[][] process(float[][]... params) {
         if (params.length <= 0) return new int[0][0];
 
-        final float[][] trains = params[0];
+        return autocorrelation(params[0], getControl());
+    }
+
+    /**
+     * Returns autocorrelation histograms of specified spike {@code trains}. Spike times need to be sorted.
+     */
+    @NonNull static int[][] autocorrelation(@NonNull float[][] trains, long control) {
         int binCount = (int) Math.ceil((MAX_TIME + BIN_SIZE) / BIN_SIZE);
         final int[][] autoCorrelation = new int[trains.length][binCount];
         final int[] spikeCounts = new int[trains.length];
         for (int i = 0; i < trains.length; i++) spikeCounts[i] = trains[i].length;
 
-        JniUtils.autocorrelationAnalysis(trains, trains.length, spikeCounts, autoCorrelation, binCount);
+        JniUtils.autocorrelationAnalysis(trains, trains.length, spikeCounts, autoCorrelation, binCount, control);
 
         return autoCorrelation;
     }
@@ -37,7 +37,7 @@ class AverageSpikeAnalysis extends BaseAnalysis<int[][], AverageSpike[]> {
         for (int i = 0; i < trainCount; i++) spikeCounts[i] = trains[i].length;
 
         JniUtils.averageSpikeAnalysis(audioFile.getAbsolutePath(), trains, trainCount, spikeCounts, averageSpike,
-            normAverageSpike, normTopStdLine, normBottomStdLine, batchSpikeCount);
+            normAverageSpike, normTopStdLine, normBottomStdLine, batchSpikeCount, getControl());
 
         // let's populate avr array
         final AverageSpike[] averageSpikes = new AverageSpike[trainCount];
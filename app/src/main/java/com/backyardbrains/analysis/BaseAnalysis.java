@@ -2,10 +2,11 @@ package com.backyardbrains.analysis;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import com.backyardbrains.utils.Benchmark;
-import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
 abstract class BaseAnalysis<Params, Result> {
@@ -13,8 +14,16 @@ abstract class BaseAnalysis<Params, Result> {
     private static final String TAG = makeLogTag(BaseAnalysis.class);
 
     private final String filePath;
-    private final AnalysisListener<Result> listener;
-    private final AnalysisThread<Params, Result> analysisThread;
+    // listeners of all the requests that share this analysis
+    private final List<AnalysisListener<Result>> listeners = new CopyOnWriteArrayList<>();
+
+    private Params[] params;
+    private Result result;
+    private boolean failed;
+    private volatile boolean cancelled;
+    // control of the running analysis, 0 if analysis is not running
+    private long control;
+    private AnalysisScheduler.Controls controls;
 
     /**
      *
@@ -34,9 +43,8 @@ abstract class BaseAnalysis<Params, Result> {
 
     BaseAnalysis(@NonNull String filePath, @NonNull AnalysisListener<Result> listener) {
         this.filePath = filePath;
-        this.listener = listener;
 
-        analysisThread = new AnalysisThread<>(this);
+        listeners.add(listener);
     }
 
     /**
@@ -45,10 +53,98 @@ abstract class BaseAnalysis<Params, Result> {
     @Nullable protected abstract Result process(Params... params) throws Exception;
 
     /**
-     * Triggers the analysis process.
+     * Schedules the analysis process with specified {@code scheduler}.
+     *
+     * @see AnalysisScheduler#schedule(int, String, int, BaseAnalysis)
+     */
+    @SafeVarargs final void startAnalysis(@NonNull AnalysisScheduler scheduler, @AnalysisType int type,
+        @Nullable String paramsKey, @AnalysisScheduler.Priority int priority, Params... params) {
+        this.params = params;
+
+        scheduler.schedule(type, paramsKey, priority, this);
+    }
+
+    /**
+     * Returns native control of the analysis that should be passed to the native analysis so it can be cancelled and
+     * report its progress.
+     */
+    protected final synchronized long getControl() {
+        return control;
+    }
+
+    /**
+     * Path to the analyzed file.
+     */
+    @NonNull final String getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * Cancels the analysis. If it's running it's stopped as soon as native analysis notices it. Listeners are not
+     * notified about cancelled analysis.
+     */
+    final void cancel() {
+        cancelled = true;
+        synchronized (this) {
+            if (control != 0) controls.cancel(control);
+        }
+    }
+
+    /**
+     * Whether the analysis is cancelled.
+     */
+    final boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns progress of the running analysis between {@code 0} and {@code 1}.
+     */
+    final synchronized float getProgress() {
+        return control != 0 ? controls.getProgress(control) : 0f;
+    }
+
+    /**
+     * Adds listeners of specified analysis, which needs to be the same as this one, to this analysis.
      */
-    @SafeVarargs final void startAnalysis(Params... params) {
-        analysisThread.start(params);
+    @SuppressWarnings("unchecked") final void join(@NonNull BaseAnalysis<?, ?> analysis) {
+        for (AnalysisListener<?> listener : analysis.listeners) listeners.add((AnalysisListener<Result>) listener);
+    }
+
+    /**
+     * Runs the analysis process on the calling thread with a new control created by specified {@code controls} and
+     * keeps the result until it's delivered.
+     */
+    final void execute(@NonNull AnalysisScheduler.Controls controls) {
+        synchronized (this) {
+            if (cancelled) return;
+            this.controls = controls;
+            control = controls.newControl();
+        }
+        try {
+            result = process(params);
+        } catch (Exception e) {
+            LOGE(TAG, "Analysis of " + filePath + " failed: " + e.getMessage());
+            failed = true;
+        } finally {
+            synchronized (this) {
+                if (control != 0) controls.release(control);
+                control = 0;
+            }
+        }
+    }
+
+    /**
+     * Passes the result of the executed analysis to all the listeners, unless analysis is cancelled.
+     */
+    final void deliver() {
+        if (cancelled) return;
+
+        if (failed) {
+            asyncOnFailed();
+        } else {
+            asyncOnResult(result);
+        }
     }
 
     /**
@@ -68,7 +164,7 @@ abstract class BaseAnalysis<Params, Result> {
      */
     @SuppressWarnings("WeakerAccess") void asyncOnResult(@Nullable Result result) {
         LOGD(TAG, "asyncOnResult");
-        listener.onAnalysisDone(filePath, result);
+        for (AnalysisListener<Result> listener : listeners) listener.onAnalysisDone(filePath, result);
         onResult(result);
     }
 
@@ -77,48 +173,8 @@ abstract class BaseAnalysis<Params, Result> {
      */
     @SuppressWarnings("WeakerAccess") void asyncOnFailed() {
         LOGD(TAG, "asyncOnFailed");
-        listener.onAnalysisFailed(filePath);
+        for (AnalysisListener<Result> listener : listeners) listener.onAnalysisFailed(filePath);
 
         onFailed();
     }
-
-    /**
-     * Background thread that initializes the analysis process.
-     */
-    private static class AnalysisThread<Params, Result> extends Thread {
-
-        private final Benchmark benchmark;
-
-        private WeakReference<BaseAnalysis<Params, Result>> analysisRef;
-        private Params[] params;
-
-        AnalysisThread(BaseAnalysis<Params, Result> analysis) {
-            analysisRef = new WeakReference<>(analysis);
-            benchmark = new Benchmark("ANALYSIS_" + analysis.getClass().getName()).sessions(1)
-                .measuresPerSession(1)
-                .logBySession(true)
-                .listener(() -> {
-                    //EventBus.getDefault().post(new ShowToastEvent("PRESS BACK BUTTON!!!!"));
-                });
-        }
-
-        @SafeVarargs public synchronized final void start(Params... params) {
-            this.params = params;
-
-            start();
-        }
-
-        @Override public void run() {
-            final BaseAnalysis<Params, Result> analysis;
-            if ((analysis = analysisRef.get()) != null) {
-                try {
-                    //benchmark.start();
-                    analysis.asyncOnResult(analysis.process(params));
-                    //benchmark.end();
-                } catch (Exception e) {
-                    analysis.asyncOnFailed();
-                }
-            }
-        }
-    }
 }
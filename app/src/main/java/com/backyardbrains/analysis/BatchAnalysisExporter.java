@@ -0,0 +1,221 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes results of the batch analysis of a single recording. Every analysis is written to its own file named {@code
+ * <prefix>.<analysis>.csv} or {@code <prefix>.<analysis>.bin}. Files are written under temporary names and renamed
+ * only when {@link #commit()} is called, so results of the interrupted analysis are never mistaken for the finished
+ * ones.
+ * <p>
+ * CSV files start with a header row. Spikes are written as {@code channel,index,time,value} rows, histograms of
+ * single trains as {@code train,bin0,bin1...} and histograms of train pairs as {@code train1,train2,bin0,bin1...}.
+ * <p>
+ * Binary files start with magic number, format version and record type. Spikes are then written as {@code (int
+ * channel, int index, float time, short value)} records until the end of the file and histograms as {@code int
+ * histogramCount, int binCount} followed by all the counts, histogram by histogram.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class BatchAnalysisExporter implements Closeable {
+
+    static final String SPIKES = "spikes";
+    static final String ISI = "isi";
+    static final String AUTOCORRELATION = "autocorrelation";
+    static final String CROSS_CORRELATION = "crosscorrelation";
+
+    private static final int MAGIC = 0x42594245; // "BYBE"
+    private static final int FORMAT_VERSION = 1;
+    private static final byte TYPE_SPIKES = 1;
+    private static final byte TYPE_HISTOGRAMS = 2;
+
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File dir;
+    private final String prefix;
+    private final @BatchAnalysisPlan.ExportFormat int format;
+    // files written so far, under their temporary names
+    private final List<File> files = new ArrayList<>();
+
+    private Writer spikesWriter;
+    private DataOutputStream spikesOut;
+    private final StringBuilder sb = new StringBuilder();
+
+    BatchAnalysisExporter(@NonNull File dir, @NonNull String prefix, @BatchAnalysisPlan.ExportFormat int format) {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.format = format;
+    }
+
+    /**
+     * Returns the file results of the analysis with specified {@code name} are exported to once committed.
+     */
+    @NonNull static File getFile(@NonNull File dir, @NonNull String prefix, @NonNull String name,
+        @BatchAnalysisPlan.ExportFormat int format) {
+        return new File(dir, prefix + "." + name + (format == BatchAnalysisPlan.ExportFormat.CSV ? ".csv" : ".bin"));
+    }
+
+    /**
+     * Creates the spikes file and writes its header, so recordings without spikes are exported as well. Needs to be
+     * called before spikes are written.
+     */
+    void openSpikes() throws IOException {
+        if (spikesWriter != null || spikesOut != null) return;
+
+        if (format == BatchAnalysisPlan.ExportFormat.CSV) {
+            spikesWriter = openWriter(SPIKES);
+            spikesWriter.write("channel,index,time,value\n");
+        } else {
+            spikesOut = openStream(SPIKES, TYPE_SPIKES);
+        }
+    }
+
+    /**
+     * Writes specified batch of spikes found on specified {@code channel}.
+     */
+    void writeSpikes(int channel, @NonNull short[] values, @NonNull int[] indices, @NonNull float[] times, int count)
+        throws IOException {
+        openSpikes();
+        if (format == BatchAnalysisPlan.ExportFormat.CSV) {
+            for (int i = 0; i < count; i++) {
+                sb.setLength(0);
+                sb.append(channel).append(',').append(indices[i]).append(',').append(times[i]).append(',')
+                    .append(values[i]).append('\n');
+                spikesWriter.append(sb);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                spikesOut.writeInt(channel);
+                spikesOut.writeInt(indices[i]);
+                spikesOut.writeFloat(times[i]);
+                spikesOut.writeShort(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Writes histograms of single trains of the analysis with specified {@code name}.
+     */
+    void writeTrainHistograms(@NonNull String name, @NonNull int[][] histograms) throws IOException {
+        writeHistograms(name, histograms, 0);
+    }
+
+    /**
+     * Writes histograms of all pairs of {@code trainCount} trains of the analysis with specified {@code name}.
+     */
+    void writeTrainPairHistograms(@NonNull String name, @NonNull int[][] histograms, int trainCount)
+        throws IOException {
+        writeHistograms(name, histograms, trainCount);
+    }
+
+    /**
+     * Renames all the written files to their final names.
+     *
+     * @throws IOException if any of the files can't be written or renamed.
+     */
+    void commit() throws IOException {
+        closeSpikes();
+        for (File file : files) {
+            final String path = file.getPath();
+            final File target = new File(path.substring(0, path.length() - TEMP_FILE_EXTENSION.length()));
+            if (target.exists() && !target.delete() || !file.renameTo(target)) {
+                throw new IOException("Can't rename " + file + " to " + target);
+            }
+        }
+        files.clear();
+    }
+
+    /**
+     * Deletes all the files that haven't been committed.
+     */
+    @Override public void close() throws IOException {
+        try {
+            closeSpikes();
+        } finally {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+            files.clear();
+        }
+    }
+
+    // Writes histograms, each preceded by the train, or the two trains if trainCount is larger than 0
+    private void writeHistograms(@NonNull String name, @NonNull int[][] histograms, int trainCount)
+        throws IOException {
+        final int binCount = histograms.length > 0 ? histograms[0].length : 0;
+        if (format == BatchAnalysisPlan.ExportFormat.CSV) {
+            try (Writer writer = openWriter(name)) {
+                sb.setLength(0);
+                sb.append(trainCount > 0 ? "train1,train2" : "train");
+                for (int i = 0; i < binCount; i++) sb.append(",bin").append(i);
+                writer.append(sb).append('\n');
+                for (int i = 0; i < histograms.length; i++) {
+                    sb.setLength(0);
+                    if (trainCount > 0) {
+                        sb.append(i / trainCount).append(',').append(i % trainCount);
+                    } else {
+                        sb.append(i);
+                    }
+                    for (int count : histograms[i]) sb.append(',').append(count);
+                    writer.append(sb).append('\n');
+                }
+            }
+        } else {
+            try (DataOutputStream out = openStream(name, TYPE_HISTOGRAMS)) {
+                out.writeInt(histograms.length);
+                out.writeInt(binCount);
+                for (int[] histogram : histograms) {
+                    for (int count : histogram) out.writeInt(count);
+                }
+            }
+        }
+    }
+
+    private void closeSpikes() throws IOException {
+        try {
+            if (spikesWriter != null) spikesWriter.close();
+        } finally {
+            spikesWriter = null;
+            try {
+                if (spikesOut != null) spikesOut.close();
+            } finally {
+                spikesOut = null;
+            }
+        }
+    }
+
+    @NonNull private Writer openWriter(@NonNull String name) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(createFile(name)),
+            Charset.forName("UTF-8")), BUFFER_SIZE);
+    }
+
+    @NonNull private DataOutputStream openStream(@NonNull String name, byte type) throws IOException {
+        final DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(createFile(name)), BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeByte(type);
+        return out;
+    }
+
+    // Creates temporary file for the analysis with specified name
+    @NonNull private File createFile(@NonNull String name) {
+        final File file = new File(getFile(dir, prefix, name, format).getPath() + TEMP_FILE_EXTENSION);
+        files.add(file);
+        return file;
+    }
+}
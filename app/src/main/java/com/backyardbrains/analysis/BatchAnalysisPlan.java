@@ -0,0 +1,181 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import com.backyardbrains.db.store.AnalysisResultCache;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes what {@link BatchAnalysisRunner} does with every recording: which analyses are run, which spikes make the
+ * spike trains the analyses are run on and in which format the results are exported. Plan is immutable and should be
+ * created with {@link Builder}.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class BatchAnalysisPlan {
+
+    /**
+     * Format of the exported results.
+     */
+    @Retention(RetentionPolicy.SOURCE) @IntDef({ExportFormat.CSV, ExportFormat.BINARY}) public @interface ExportFormat {
+        /**
+         * Comma separated values with a header row.
+         */
+        int CSV = 0;
+
+        /**
+         * Big-endian binary records preceded by a small header.
+         */
+        int BINARY = 1;
+    }
+
+    /**
+     * Spikes found on the specified channel whose values are within the specified range, inclusive. Same as the
+     * spike train user defines on the Find Spikes screen.
+     */
+    public static class SpikeTrain {
+
+        private final int channel;
+        private final int lowerThreshold;
+        private final int upperThreshold;
+
+        public SpikeTrain(int channel, int lowerThreshold, int upperThreshold) {
+            this.channel = channel;
+            this.lowerThreshold = Math.min(lowerThreshold, upperThreshold);
+            this.upperThreshold = Math.max(lowerThreshold, upperThreshold);
+        }
+
+        public int getChannel() {
+            return channel;
+        }
+
+        public int getLowerThreshold() {
+            return lowerThreshold;
+        }
+
+        public int getUpperThreshold() {
+            return upperThreshold;
+        }
+
+        /**
+         * Whether spike with specified {@code value} found on specified {@code channel} belongs to this train.
+         */
+        boolean contains(int channel, int value) {
+            return this.channel == channel && value >= lowerThreshold && value <= upperThreshold;
+        }
+    }
+
+    /**
+     * Builds {@link BatchAnalysisPlan}.
+     */
+    public static class Builder {
+
+        private final Set<Integer> analysisTypes = new LinkedHashSet<>();
+        private final List<SpikeTrain> trains = new ArrayList<>();
+        private @ExportFormat int exportFormat = ExportFormat.CSV;
+
+        /**
+         * Adds analysis of specified {@code analysisType} to the plan. Only {@link AnalysisType#FIND_SPIKES}, {@link
+         * AnalysisType#ISI}, {@link AnalysisType#AUTOCORRELATION} and {@link AnalysisType#CROSS_CORRELATION} can be
+         * run in batch. Spikes are always found, but they are exported only if {@link AnalysisType#FIND_SPIKES} is
+         * added.
+         */
+        @NonNull public Builder addAnalysis(@AnalysisType int analysisType) {
+            switch (analysisType) {
+                case AnalysisType.FIND_SPIKES:
+                case AnalysisType.ISI:
+                case AnalysisType.AUTOCORRELATION:
+                case AnalysisType.CROSS_CORRELATION:
+                    analysisTypes.add(analysisType);
+                    return this;
+                default:
+                    throw new IllegalArgumentException("Analysis " + analysisType + " can't be run in batch");
+            }
+        }
+
+        /**
+         * Adds spike train on which all the train analyses are run.
+         */
+        @NonNull public Builder addTrain(int channel, int lowerThreshold, int upperThreshold) {
+            trains.add(new SpikeTrain(channel, lowerThreshold, upperThreshold));
+            return this;
+        }
+
+        @NonNull public Builder setExportFormat(@ExportFormat int exportFormat) {
+            this.exportFormat = exportFormat;
+            return this;
+        }
+
+        /**
+         * Creates the plan.
+         *
+         * @throws IllegalStateException if no analysis is added or train analyses are added without trains.
+         */
+        @NonNull public BatchAnalysisPlan build() {
+            if (analysisTypes.isEmpty()) throw new IllegalStateException("No analysis is added to the plan");
+            final BatchAnalysisPlan plan = new BatchAnalysisPlan(analysisTypes, trains, exportFormat);
+            if (plan.hasTrainAnalyses() && trains.isEmpty()) {
+                throw new IllegalStateException("Train analyses need at least one spike train");
+            }
+
+            return plan;
+        }
+    }
+
+    private final Set<Integer> analysisTypes;
+    private final SpikeTrain[] trains;
+    private final @ExportFormat int exportFormat;
+
+    BatchAnalysisPlan(@NonNull Set<Integer> analysisTypes, @NonNull List<SpikeTrain> trains,
+        @ExportFormat int exportFormat) {
+        this.analysisTypes = new LinkedHashSet<>(analysisTypes);
+        this.trains = trains.toArray(new SpikeTrain[0]);
+        this.exportFormat = exportFormat;
+    }
+
+    /**
+     * Whether analysis of specified {@code analysisType} is part of the plan.
+     */
+    public boolean contains(@AnalysisType int analysisType) {
+        return analysisTypes.contains(analysisType);
+    }
+
+    @NonNull public SpikeTrain[] getTrains() {
+        return trains.clone();
+    }
+
+    public @ExportFormat int getExportFormat() {
+        return exportFormat;
+    }
+
+    // Whether any of the analyses that need spike trains is part of the plan
+    boolean hasTrainAnalyses() {
+        return contains(AnalysisType.ISI) || contains(AnalysisType.AUTOCORRELATION) || contains(
+            AnalysisType.CROSS_CORRELATION);
+    }
+
+    // Returns the train at specified index without copying
+    @NonNull SpikeTrain getTrain(int index) {
+        return trains[index];
+    }
+
+    int getTrainCount() {
+        return trains.length;
+    }
+
+    // Appends everything the exported results depend on to specified key builder
+    void appendTo(@NonNull AnalysisResultCache.KeyBuilder builder) {
+        builder.append(analysisTypes.size());
+        for (int analysisType : analysisTypes) builder.append(analysisType);
+        builder.append(trains.length);
+        for (SpikeTrain train : trains) {
+            builder.append(train.channel).append(train.lowerThreshold).append(train.upperThreshold);
+        }
+        builder.append(exportFormat);
+    }
+}
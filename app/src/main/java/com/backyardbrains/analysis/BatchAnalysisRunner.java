@@ -0,0 +1,416 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.db.store.AnalysisResultCache;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Runs the analyses described by {@link BatchAnalysisPlan} on multiple recordings without UI and exports the results
+ * to the output directory. Recordings are analysed by the {@link AnalysisScheduler} so the number of analyses running
+ * at once is bounded, and number of recordings waiting in its queue is limited as well.
+ * <p>
+ * Every finished recording is written to the manifest in the output directory together with the fingerprint of the
+ * recording and the plan. When the same batch is started again, recordings that are in the manifest and haven't
+ * changed since are skipped, so interrupted batch resumes where it stopped.
+ * <p>
+ * Recordings are analysed natively unless runner is created with a different {@link BatchFileAnalysis.Engine}, which
+ * is how JVM tests run batches without the native library.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class BatchAnalysisRunner {
+
+    private static final String TAG = makeLogTag(BatchAnalysisRunner.class);
+
+    /**
+     * Name of the file within the output directory that lists all the analysed recordings.
+     */
+    public static final String MANIFEST_FILE_NAME = "batch-manifest.txt";
+
+    // Max number of recordings waiting to be analysed
+    private static final int MAX_QUEUED_FILE_COUNT = 4;
+    // Length of the SHA-1 key in hex, shorter lines are not completely written
+    private static final int KEY_LENGTH = 40;
+    // Number of the key characters appended to the exported file names so recordings with the same name don't collide
+    private static final int PREFIX_KEY_LENGTH = 8;
+
+    /**
+     * Interface definition for a callback to be invoked during batch analysis.
+     */
+    public interface BatchAnalysisListener {
+        /**
+         * Invoked when analysis of the recording at specified {@code filePath} is finished, successfully or not, or
+         * when recording is skipped because it's already analysed.
+         */
+        void onFileAnalyzed(@NonNull String filePath, @FileResult int result);
+
+        /**
+         * Invoked once all recordings have been processed or the batch has been cancelled.
+         */
+        void onBatchFinished(@NonNull Report report, boolean cancelled);
+    }
+
+    /**
+     * Result of the analysis of a single recording.
+     */
+    @Retention(RetentionPolicy.SOURCE) @IntDef({FileResult.ANALYZED, FileResult.SKIPPED, FileResult.FAILED})
+    public @interface FileResult {
+        /**
+         * Recording is analysed and the results are exported.
+         */
+        int ANALYZED = 0;
+
+        /**
+         * Recording is already analysed by one of the previous batches.
+         */
+        int SKIPPED = 1;
+
+        /**
+         * Recording couldn't be analysed or the results couldn't be exported.
+         */
+        int FAILED = 2;
+    }
+
+    /**
+     * Summary of the finished batch.
+     */
+    public static class Report {
+
+        private final int fileCount;
+        private final int analyzedCount;
+        private final int skippedCount;
+        private final int failedCount;
+        private final long spikeCount;
+        private final long analyzedBytes;
+        private final long elapsedMillis;
+
+        Report(int fileCount, int analyzedCount, int skippedCount, int failedCount, long spikeCount,
+            long analyzedBytes, long elapsedMillis) {
+            this.fileCount = fileCount;
+            this.analyzedCount = analyzedCount;
+            this.skippedCount = skippedCount;
+            this.failedCount = failedCount;
+            this.spikeCount = spikeCount;
+            this.analyzedBytes = analyzedBytes;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        public int getAnalyzedCount() {
+            return analyzedCount;
+        }
+
+        public int getSkippedCount() {
+            return skippedCount;
+        }
+
+        public int getFailedCount() {
+            return failedCount;
+        }
+
+        public long getSpikeCount() {
+            return spikeCount;
+        }
+
+        public long getAnalyzedBytes() {
+            return analyzedBytes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * Number of recordings analysed per hour, skipped recordings excluded.
+         */
+        public double getFilesPerHour() {
+            return elapsedMillis > 0 ? analyzedCount * 3600000d / elapsedMillis : 0;
+        }
+
+        /**
+         * Number of recording megabytes analysed per second, skipped recordings excluded.
+         */
+        public double getMegabytesPerSecond() {
+            return elapsedMillis > 0 ? analyzedBytes / (1024d * 1024d) * 1000d / elapsedMillis : 0;
+        }
+
+        @NonNull @Override public String toString() {
+            return String.format(Locale.US,
+                "%d files (%d analyzed, %d skipped, %d failed), %d spikes, %d ms, %.1f files/h, %.2f MB/s", fileCount,
+                analyzedCount, skippedCount, failedCount, spikeCount, elapsedMillis, getFilesPerHour(),
+                getMegabytesPerSecond());
+        }
+    }
+
+    private final AnalysisScheduler scheduler;
+    private final @AnalysisScheduler.Priority int priority;
+    private final Executor callbackExecutor;
+    private final BatchFileAnalysis.Engine engine;
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    // recordings that are queued or being analysed
+    private final Set<String> pending = new HashSet<>();
+    private Thread dispatcher;
+    private Writer manifestWriter;
+
+    /**
+     * Creates runner that runs at most {@code workerCount} analyses at once on its own worker threads.
+     *
+     * @param callbackExecutor Executor on which all the {@link BatchAnalysisListener} callbacks will be invoked.
+     */
+    public BatchAnalysisRunner(int workerCount, @NonNull Executor callbackExecutor) {
+        this(new AnalysisScheduler(workerCount, null), AnalysisScheduler.Priority.FOREGROUND, callbackExecutor);
+    }
+
+    BatchAnalysisRunner(@NonNull AnalysisScheduler scheduler, @AnalysisScheduler.Priority int priority,
+        @NonNull Executor callbackExecutor) {
+        this(scheduler, priority, callbackExecutor, BatchFileAnalysis.Engine.NATIVE);
+    }
+
+    BatchAnalysisRunner(@NonNull AnalysisScheduler scheduler, @AnalysisScheduler.Priority int priority,
+        @NonNull Executor callbackExecutor, @NonNull BatchFileAnalysis.Engine engine) {
+        this.scheduler = scheduler;
+        this.priority = priority;
+        this.callbackExecutor = callbackExecutor;
+        this.engine = engine;
+    }
+
+    /**
+     * Starts the analysis of all recordings at specified {@code filePaths} as described by specified {@code plan}.
+     * Results are exported to {@code outputDir}. Method returns immediately and analysis is done in the background.
+     */
+    public synchronized void start(@NonNull List<String> filePaths, @NonNull BatchAnalysisPlan plan,
+        @NonNull File outputDir, @NonNull BatchAnalysisListener listener) {
+        if (dispatcher != null) throw new IllegalStateException("Batch analysis already started");
+
+        cancelled.set(false);
+        // the same recording is analysed only once
+        final List<String> uniqueFilePaths = new ArrayList<>(new LinkedHashSet<>(filePaths));
+        dispatcher = new Thread(() -> dispatch(uniqueFilePaths, plan, outputDir, listener), "BatchAnalysisRunner");
+        dispatcher.start();
+    }
+
+    /**
+     * Cancels the batch analysis. Recordings that are already analysed are kept in the manifest while results of the
+     * partially analysed recordings are deleted.
+     */
+    public synchronized void cancel() {
+        cancelled.set(true);
+        if (dispatcher != null) dispatcher.interrupt();
+        for (String filePath : pending) scheduler.cancel(filePath, AnalysisType.BATCH);
+        pending.clear();
+    }
+
+    /**
+     * Whether batch analysis has been cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    // Schedules recordings limiting the number of queued ones and waits until all of them are analysed
+    private void dispatch(@NonNull List<String> filePaths, @NonNull BatchAnalysisPlan plan, @NonNull File outputDir,
+        @NonNull BatchAnalysisListener listener) {
+        final long start = System.currentTimeMillis();
+        final int count = filePaths.size();
+        final Semaphore permits = new Semaphore(MAX_QUEUED_FILE_COUNT);
+        final int[] counts = new int[FileResult.FAILED + 1];
+        final long[] spikeCount = new long[1];
+        final long[] analyzedBytes = new long[1];
+
+        try {
+            if (!outputDir.exists() && !outputDir.mkdirs()) throw new IOException("Can't create " + outputDir);
+
+            final File manifest = new File(outputDir, MANIFEST_FILE_NAME);
+            final Set<String> analyzed = readManifest(manifest);
+            final boolean torn = isTorn(manifest);
+            manifestWriter = new OutputStreamWriter(new FileOutputStream(manifest, true), Charset.forName("UTF-8"));
+            // incomplete line of the killed batch shouldn't be continued
+            if (torn) manifestWriter.write("\n");
+
+            for (String filePath : filePaths) {
+                if (cancelled.get()) break;
+
+                final File file = new File(filePath);
+                final String key;
+                try {
+                    final AnalysisResultCache.KeyBuilder keyBuilder =
+                        new AnalysisResultCache.KeyBuilder(AnalysisType.BATCH, file);
+                    plan.appendTo(keyBuilder);
+                    key = keyBuilder.build();
+                } catch (IOException e) {
+                    LOGE(TAG, "Can't read " + filePath + ": " + e.getMessage());
+                    synchronized (counts) {
+                        counts[FileResult.FAILED]++;
+                    }
+                    callbackExecutor.execute(() -> listener.onFileAnalyzed(filePath, FileResult.FAILED));
+                    continue;
+                }
+                if (analyzed.contains(key)) {
+                    synchronized (counts) {
+                        counts[FileResult.SKIPPED]++;
+                    }
+                    callbackExecutor.execute(() -> listener.onFileAnalyzed(filePath, FileResult.SKIPPED));
+                    continue;
+                }
+
+                // blocks until there is room in the queue
+                permits.acquire();
+                final BatchFileAnalysis analysis = new BatchFileAnalysis(filePath, plan, outputDir,
+                    getPrefix(file, key), engine, new BaseAnalysis.AnalysisListener<Integer>() {
+                    @Override public void onAnalysisDone(@NonNull String filePath, @Nullable Integer result) {
+                        final boolean saved = appendToManifest(key);
+                        synchronized (counts) {
+                            counts[saved ? FileResult.ANALYZED : FileResult.FAILED]++;
+                            if (saved && result != null) spikeCount[0] += result;
+                            if (saved) analyzedBytes[0] += file.length();
+                        }
+                        onFileFinished(filePath, saved ? FileResult.ANALYZED : FileResult.FAILED);
+                    }
+
+                    @Override public void onAnalysisFailed(@NonNull String filePath) {
+                        synchronized (counts) {
+                            counts[FileResult.FAILED]++;
+                        }
+                        onFileFinished(filePath, FileResult.FAILED);
+                    }
+
+                    // Releases the queue slot of the finished analysis and notifies the listener
+                    private void onFileFinished(@NonNull String filePath, @FileResult int result) {
+                        removePending(filePath);
+                        permits.release();
+                        callbackExecutor.execute(() -> listener.onFileAnalyzed(filePath, result));
+                    }
+                });
+                // the same recording can be exported to another directory at the same time
+                if (!schedule(analysis, key + ":" + outputDir.getAbsolutePath())) {
+                    permits.release();
+                    break;
+                }
+            }
+            // wait for all scheduled recordings to finish
+            permits.acquire(MAX_QUEUED_FILE_COUNT);
+        } catch (InterruptedException e) {
+            LOGD(TAG, "Batch analysis interrupted");
+        } catch (IOException e) {
+            LOGE(TAG, "Batch analysis failed: " + e.getMessage());
+        } finally {
+            closeManifest();
+        }
+
+        final boolean wasCancelled = cancelled.get();
+        final Report report;
+        synchronized (counts) {
+            report = new Report(count, counts[FileResult.ANALYZED], counts[FileResult.SKIPPED],
+                counts[FileResult.FAILED], spikeCount[0], analyzedBytes[0], System.currentTimeMillis() - start);
+        }
+        LOGD(TAG, "Batch analysis finished: " + report + (wasCancelled ? " (cancelled)" : ""));
+        callbackExecutor.execute(() -> listener.onBatchFinished(report, wasCancelled));
+
+        synchronized (this) {
+            dispatcher = null;
+        }
+    }
+
+    // Schedules specified analysis unless batch is cancelled in the meantime
+    private synchronized boolean schedule(@NonNull BatchFileAnalysis analysis, @NonNull String key) {
+        if (cancelled.get()) return false;
+
+        pending.add(analysis.getFilePath());
+        analysis.startAnalysis(scheduler, AnalysisType.BATCH, key, priority);
+        return true;
+    }
+
+    @SuppressWarnings("WeakerAccess") synchronized void removePending(@NonNull String filePath) {
+        pending.remove(filePath);
+    }
+
+    // Appends specified key to the manifest, returns false if it can't be written
+    @SuppressWarnings("WeakerAccess") synchronized boolean appendToManifest(@NonNull String key) {
+        if (manifestWriter == null) return false;
+
+        try {
+            manifestWriter.write(key + "\n");
+            manifestWriter.flush();
+            return true;
+        } catch (IOException e) {
+            LOGE(TAG, "Error while writing batch manifest: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private synchronized void closeManifest() {
+        if (manifestWriter == null) return;
+
+        try {
+            manifestWriter.close();
+        } catch (IOException e) {
+            LOGE(TAG, "Error while closing batch manifest: " + e.getMessage());
+        } finally {
+            manifestWriter = null;
+        }
+    }
+
+    // Returns keys of all the recordings listed in the manifest
+    @NonNull private static Set<String> readManifest(@NonNull File manifest) throws IOException {
+        final Set<String> keys = new HashSet<>();
+        if (!manifest.exists()) return keys;
+
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new FileInputStream(manifest), Charset.forName("UTF-8")))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // last line might not be completely written if previous batch was killed
+                if (line.length() == KEY_LENGTH) keys.add(line);
+            }
+        }
+
+        return keys;
+    }
+
+    // Whether last line of specified manifest is not completely written
+    private static boolean isTorn(@NonNull File manifest) throws IOException {
+        if (manifest.length() == 0) return false;
+
+        try (RandomAccessFile raf = new RandomAccessFile(manifest, "r")) {
+            raf.seek(raf.length() - 1);
+            return raf.read() != '\n';
+        }
+    }
+
+    // Returns prefix of the exported files of specified recording
+    @NonNull private static String getPrefix(@NonNull File file, @NonNull String key) {
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + "-" + key.substring(0, PREFIX_KEY_LENGTH);
+    }
+}
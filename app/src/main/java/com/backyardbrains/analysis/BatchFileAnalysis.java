@@ -0,0 +1,136 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.utils.JniUtils;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Runs all the analyses of the batch plan on a single recording and exports the results. Spikes are exported as they
+ * are found and only times of the spikes that belong to the plan trains are kept in memory. Result is the number of
+ * found spikes.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class BatchFileAnalysis extends BaseAnalysis<Void, Integer> {
+
+    private static final String TAG = makeLogTag(BatchFileAnalysis.class);
+
+    private static final int INITIAL_TRAIN_CAPACITY = 1024;
+
+    /**
+     * Finds spikes and computes histograms of the spike trains. Analyses are run natively by default, tests replace
+     * them with ones that don't need the native library.
+     */
+    interface Engine {
+        Engine NATIVE = new Engine() {
+            @Override public boolean findSpikes(@NonNull String filePath,
+                @NonNull JniUtils.OnSpikesFoundListener listener, long control) {
+                return JniUtils.findSpikes(filePath, listener, control);
+            }
+
+            @NonNull @Override public int[][] isi(@NonNull float[][] trains, long control) {
+                return IsiAnalysis.isi(trains, control);
+            }
+
+            @NonNull @Override public int[][] autocorrelation(@NonNull float[][] trains, long control) {
+                return AutocorrelationAnalysis.autocorrelation(trains, control);
+            }
+
+            @NonNull @Override public int[][] crossCorrelation(@NonNull float[][] trains, long control) {
+                return CrossCorrelationAnalysis.crossCorrelation(trains, control);
+            }
+        };
+
+        boolean findSpikes(@NonNull String filePath, @NonNull JniUtils.OnSpikesFoundListener listener, long control);
+
+        @NonNull int[][] isi(@NonNull float[][] trains, long control);
+
+        @NonNull int[][] autocorrelation(@NonNull float[][] trains, long control);
+
+        @NonNull int[][] crossCorrelation(@NonNull float[][] trains, long control);
+    }
+
+    private final Engine engine;
+    private final BatchAnalysisPlan plan;
+    private final File outputDir;
+    private final String prefix;
+
+    BatchFileAnalysis(@NonNull String filePath, @NonNull BatchAnalysisPlan plan, @NonNull File outputDir,
+        @NonNull String prefix, @NonNull Engine engine, @NonNull AnalysisListener<Integer> listener) {
+        super(filePath, listener);
+
+        this.engine = engine;
+        this.plan = plan;
+        this.outputDir = outputDir;
+        this.prefix = prefix;
+    }
+
+    @Nullable @Override protected Integer process(Void... params) throws Exception {
+        final String filePath = getFilePath();
+        final long control = getControl();
+        final boolean exportSpikes = plan.contains(AnalysisType.FIND_SPIKES);
+        final int trainCount = plan.hasTrainAnalyses() ? plan.getTrainCount() : 0;
+        final float[][] trains = new float[trainCount][INITIAL_TRAIN_CAPACITY];
+        final int[] trainSizes = new int[trainCount];
+        final int[] spikeCount = new int[1];
+        // listener can't throw so the first export error is kept and rethrown once spikes are found
+        final IOException[] error = new IOException[1];
+
+        try (BatchAnalysisExporter exporter = new BatchAnalysisExporter(outputDir, prefix, plan.getExportFormat())) {
+            if (exportSpikes) exporter.openSpikes();
+            final boolean found = engine.findSpikes(filePath, (channel, positive, values, indices, times, count) -> {
+                spikeCount[0] += count;
+                if (exportSpikes && error[0] == null) {
+                    try {
+                        exporter.writeSpikes(channel, values, indices, times, count);
+                    } catch (IOException e) {
+                        error[0] = e;
+                    }
+                }
+                for (int t = 0; t < trainCount; t++) {
+                    final BatchAnalysisPlan.SpikeTrain train = plan.getTrain(t);
+                    for (int i = 0; i < count; i++) {
+                        if (!train.contains(channel, values[i])) continue;
+
+                        if (trainSizes[t] == trains[t].length) trains[t] = Arrays.copyOf(trains[t], trainSizes[t] * 2);
+                        trains[t][trainSizes[t]++] = times[i];
+                    }
+                }
+            }, control);
+            if (error[0] != null) throw error[0];
+            if (isCancelled()) return null;
+            if (!found) throw new IOException("Spikes couldn't be found in " + filePath);
+
+            if (trainCount > 0) {
+                // spikes of different polarities are passed separately so times of each train need to be merged
+                for (int t = 0; t < trainCount; t++) {
+                    trains[t] = Arrays.copyOf(trains[t], trainSizes[t]);
+                    Arrays.sort(trains[t]);
+                }
+                if (plan.contains(AnalysisType.ISI)) {
+                    exporter.writeTrainHistograms(BatchAnalysisExporter.ISI, engine.isi(trains, control));
+                }
+                if (isCancelled()) return null;
+                if (plan.contains(AnalysisType.AUTOCORRELATION)) {
+                    exporter.writeTrainHistograms(BatchAnalysisExporter.AUTOCORRELATION,
+                        engine.autocorrelation(trains, control));
+                }
+                if (isCancelled()) return null;
+                if (plan.contains(AnalysisType.CROSS_CORRELATION)) {
+                    exporter.writeTrainPairHistograms(BatchAnalysisExporter.CROSS_CORRELATION,
+                        engine.crossCorrelation(trains, control), trainCount);
+                }
+                if (isCancelled()) return null;
+            }
+
+            exporter.commit();
+        }
+
+        return spikeCount[0];
+    }
+}
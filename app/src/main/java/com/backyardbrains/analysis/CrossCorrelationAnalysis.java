@@ -20,14 +20,21 @@ class CrossCorrelationAnalysis extends BaseAnalysis<float[][], int[][]> {
     @Nullable @Override protected int[][] process(float[][]... params) {
         if (params.length <= 0) return new int[0][0];
 
-        final float[][] trains = params[0];
+        return crossCorrelation(params[0], getControl());
+    }
+
+    /**
+     * Returns cross-correlation histograms of all pairs of specified spike {@code trains}. Histogram of the first and
+     * the second train is at {@code first * trains.length + second}. Spike times need to be sorted.
+     */
+    @NonNull static int[][] crossCorrelation(@NonNull float[][] trains, long control) {
         int binCount = (int) Math.ceil((2 * MAX_TIME + BIN_SIZE) / BIN_SIZE);
         final int[][] crossCorrelation = new int[trains.length * trains.length][binCount];
         final int[] spikeCounts = new int[trains.length];
         for (int i = 0; i < trains.length; i++) spikeCounts[i] = trains[i].length;
 
         JniUtils.crossCorrelationAnalysis(trains, trains.length, spikeCounts, crossCorrelation, crossCorrelation.length,
-            binCount);
+            binCount, control);
 
         return crossCorrelation;
     }
@@ -65,7 +65,8 @@ public class EventTriggeredAverageAnalysis
 
             JniUtils.eventTriggeredAverageAnalysis(audioFile.getAbsolutePath(), eventsFile.getAbsolutePath(),
                 config.getEvents(), eventCount, averages, normAverages, normMcAverages, normMcTop, normMcBottom, minMax,
-                channelCount, frameCount, config.isRemoveNoiseIntervals(), config.getConfidenceIntervalsEvent());
+                channelCount, frameCount, config.isRemoveNoiseIntervals(), config.getConfidenceIntervalsEvent(),
+                getControl());
 
             // let's populate avr array
             final EventTriggeredAverages[] eventTriggeredAverages = new EventTriggeredAverages[channelCount];
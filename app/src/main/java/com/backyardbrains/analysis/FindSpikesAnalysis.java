@@ -2,54 +2,51 @@ package com.backyardbrains.analysis;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import com.backyardbrains.db.entity.Spike;
+import com.backyardbrains.db.AnalysisRepository;
 import com.backyardbrains.dsp.audio.AudioFile;
-import com.backyardbrains.utils.AudioUtils;
 import com.backyardbrains.utils.JniUtils;
-import java.util.ArrayList;
-import java.util.List;
+import com.backyardbrains.utils.RecordingUtils;
+import com.crashlytics.android.Crashlytics;
+import java.io.File;
+import java.io.IOException;
 
+import static com.backyardbrains.utils.LogUtils.LOGD;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
-class FindSpikesAnalysis extends BaseAnalysis<Void, Spike[]> {
+class FindSpikesAnalysis extends BaseAnalysis<Void, Boolean> {
 
     private static final String TAG = makeLogTag(FindSpikesAnalysis.class);
 
     private final AudioFile audioFile;
+    private final AnalysisRepository analysisRepository;
 
-    FindSpikesAnalysis(@NonNull AudioFile audioFile, @NonNull AnalysisListener<Spike[]> listener) {
+    FindSpikesAnalysis(@NonNull AudioFile audioFile, @NonNull AnalysisRepository analysisRepository,
+        @NonNull AnalysisListener<Boolean> listener) {
         super(audioFile.getAbsolutePath(), listener);
 
         this.audioFile = audioFile;
+        this.analysisRepository = analysisRepository;
     }
 
-    @Nullable @Override public Spike[] process(Void... params) throws Exception {
-        final long totalSamples = AudioUtils.getSampleCount(audioFile.length(), audioFile.bitsPerSample());
-        final int channelCount = audioFile.channelCount();
-        int maxSpikes = (int) (totalSamples / 10);
-
-        short[][] valuesPos = new short[channelCount][maxSpikes];
-        int[][] indicesPos = new int[channelCount][maxSpikes];
-        float[][] timesPos = new float[channelCount][maxSpikes];
-        short[][] valuesNeg = new short[channelCount][maxSpikes];
-        int[][] indicesNeg = new int[channelCount][maxSpikes];
-        float[][] timesNeg = new float[channelCount][maxSpikes];
-
-        int[][] counts =
-            JniUtils.findSpikes(audioFile.getAbsolutePath(), valuesPos, indicesPos, timesPos, valuesNeg, indicesNeg,
-                timesNeg, channelCount, maxSpikes);
-
-        List<Spike> spikeList = new ArrayList<>();
-        for (int channel = 0; channel < channelCount; channel++) {
-            for (int i = 0; i < counts[channel][0]; i++) {
-                spikeList.add(new Spike(channel, valuesPos[channel][i], indicesPos[channel][i], timesPos[channel][i]));
+    @Nullable @Override public Boolean process(Void... params) throws Exception {
+        final String filePath = audioFile.getAbsolutePath();
+        final File spikesFile = RecordingUtils.getSpikesFile(new File(filePath));
+        // spikes are saved in batches as they are found so memory usage doesn't depend on the file length
+        return analysisRepository.saveSpikeAnalysis(filePath, writer -> {
+            // spikes found while recording are used if they were saved
+            if (spikesFile != null) {
+                try {
+                    if (new RecordedSpikes(spikesFile, audioFile.channelCount(), audioFile.sampleRate()).write(
+                        writer)) {
+                        return true;
+                    }
+                    LOGD(TAG, "Spikes file " + spikesFile.getName() + " is empty or invalid");
+                } catch (IOException e) {
+                    Crashlytics.logException(e);
+                }
             }
-            for (int i = 0; i < counts[channel][1]; i++) {
-                spikeList.add(new Spike(channel, valuesNeg[channel][i], indicesNeg[channel][i], timesNeg[channel][i]));
-            }
-        }
 
-        Spike[] allSpikes = new Spike[spikeList.size()];
-        return spikeList.toArray(allSpikes);
+            return JniUtils.findSpikes(filePath, writer::writeSpikes, getControl());
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,87 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.dsp.audio.AudioFile;
+import com.backyardbrains.vo.FiringRateTimeline;
+import java.util.Arrays;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Builds firing rate timelines of all spike trains from the number of spikes within the finest bins, by rolling them
+ * up into bins of 10 seconds, 1 minute and 10 minutes.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class FiringRateTimelineAnalysis extends BaseAnalysis<int[][], FiringRateTimeline[]> {
+
+    private static final String TAG = makeLogTag(FiringRateTimelineAnalysis.class);
+
+    // Widths of the rollup bins in seconds, each is rounded to the whole number of the finest bins
+    private static final float[] ROLLUP_BIN_SIZES = { 10f, 60f, 600f };
+
+    private final AudioFile audioFile;
+    private final int binFrameCount;
+
+    FiringRateTimelineAnalysis(@NonNull AudioFile audioFile, int binFrameCount,
+        @NonNull AnalysisListener<FiringRateTimeline[]> listener) {
+        super(audioFile.getAbsolutePath(), listener);
+
+        this.audioFile = audioFile;
+        this.binFrameCount = binFrameCount;
+    }
+
+    /**
+     * Returns number of samples within the finest bin of the specified width in seconds.
+     */
+    static int getBinFrameCount(float binSize, int sampleRate) {
+        return Math.max(Math.round(binSize * sampleRate), 1);
+    }
+
+    /**
+     * Returns number of the finest bins that cover all specified samples.
+     */
+    static int getBinCount(long sampleCount, int binFrameCount) {
+        return (int) ((sampleCount + binFrameCount - 1) / binFrameCount);
+    }
+
+    @Nullable @Override protected FiringRateTimeline[] process(int[][]... params) {
+        if (params.length <= 0) return new FiringRateTimeline[0];
+
+        final int[][] counts = params[0];
+        final int sampleRate = audioFile.sampleRate();
+        final float duration = (float) audioFile.sampleCount() / sampleRate;
+        final int binCount = getBinCount(audioFile.sampleCount(), binFrameCount);
+
+        // factors of the rollups that are coarser than the previous level
+        final int[] factors = new int[ROLLUP_BIN_SIZES.length + 1];
+        int levelCount = 1;
+        factors[0] = 1;
+        for (float rollupBinSize : ROLLUP_BIN_SIZES) {
+            final int factor = Math.round(rollupBinSize * sampleRate / binFrameCount);
+            if (factor > factors[levelCount - 1] && factor < binCount) factors[levelCount++] = factor;
+        }
+
+        final float[] binSizes = new float[levelCount];
+        for (int i = 0; i < levelCount; i++) binSizes[i] = (float) factors[i] * binFrameCount / sampleRate;
+
+        final FiringRateTimeline[] timelines = new FiringRateTimeline[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            if (isCancelled()) return null;
+
+            final int[][] levels = new int[levelCount][];
+            levels[0] = Arrays.copyOf(counts[i], binCount);
+            for (int j = 1; j < levelCount; j++) {
+                levels[j] = new int[(binCount + factors[j] - 1) / factors[j]];
+                for (int k = 0; k < binCount; k++) levels[j][k / factors[j]] += levels[0][k];
+            }
+            timelines[i] = new FiringRateTimeline(i, duration, binSizes, levels);
+        }
+
+        LOGD(TAG, "Firing rate timelines of " + counts.length + " trains with " + levelCount + " levels built");
+
+        return timelines;
+    }
+}
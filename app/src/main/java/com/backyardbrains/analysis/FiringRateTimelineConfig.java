@@ -0,0 +1,44 @@
+package com.backyardbrains.analysis;
+
+import android.os.Parcel;
+import androidx.annotation.NonNull;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class FiringRateTimelineConfig extends AnalysisConfig {
+
+    public static final Creator<FiringRateTimelineConfig> CREATOR = new Creator<FiringRateTimelineConfig>() {
+        @Override public FiringRateTimelineConfig createFromParcel(Parcel in) {
+            return new FiringRateTimelineConfig(in);
+        }
+
+        @Override public FiringRateTimelineConfig[] newArray(int size) {
+            return new FiringRateTimelineConfig[size];
+        }
+    };
+
+    private final float binSize;
+
+    /**
+     * @param binSize Width of the finest timeline bin in seconds.
+     */
+    public FiringRateTimelineConfig(@NonNull String filePath, @AnalysisType int analysisType, float binSize) {
+        super(filePath, analysisType);
+        this.binSize = binSize;
+    }
+
+    @SuppressWarnings("WeakerAccess") protected FiringRateTimelineConfig(Parcel in) {
+        super(in);
+        binSize = in.readFloat();
+    }
+
+    @Override public void writeToParcel(Parcel dest, int flags) {
+        super.writeToParcel(dest, flags);
+        dest.writeFloat(binSize);
+    }
+
+    public float getBinSize() {
+        return binSize;
+    }
+}
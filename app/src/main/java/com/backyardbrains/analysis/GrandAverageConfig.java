@@ -0,0 +1,163 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import com.backyardbrains.db.store.AnalysisResultCache;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes what {@link GrandAverageRunner} averages across recordings: either the signal surrounding spikes of the
+ * spike trains, same as the average spike, or the signal surrounding the events, same as the event triggered average.
+ * Config is immutable and should be created with {@link Builder}.
+ * <p>
+ * Recordings with different sample rates are averaged at a single sample rate, the highest one among the recordings
+ * unless it's set explicitly. Windows of the recordings with a different sample rate are linearly interpolated between
+ * their samples so no recording loses its resolution.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class GrandAverageConfig {
+
+    // Same windows as the ones of the average spike and event triggered average analyses
+    private static final float SPIKE_OFFSET_IN_SECS = .002f;
+    private static final float EVENT_LEFT_OFFSET_IN_SECS = .7f;
+    private static final float EVENT_RIGHT_OFFSET_IN_SECS = .7f;
+
+    /**
+     * Builds {@link GrandAverageConfig}.
+     */
+    public static class Builder {
+
+        private final List<BatchAnalysisPlan.SpikeTrain> trains = new ArrayList<>();
+        private final Set<String> events = new LinkedHashSet<>();
+        private boolean removeNoiseIntervals;
+        private int sampleRate;
+
+        /**
+         * Adds spike train whose spikes the signal is averaged around.
+         */
+        @NonNull public Builder addTrain(int channel, int lowerThreshold, int upperThreshold) {
+            trains.add(new BatchAnalysisPlan.SpikeTrain(channel, lowerThreshold, upperThreshold));
+            return this;
+        }
+
+        /**
+         * Adds name of the events the signal is averaged around.
+         */
+        @NonNull public Builder addEvent(@NonNull String event) {
+            events.add(event);
+            return this;
+        }
+
+        /**
+         * Sets whether windows around events that contain noise should be skipped.
+         */
+        @NonNull public Builder setRemoveNoiseIntervals(boolean removeNoiseIntervals) {
+            this.removeNoiseIntervals = removeNoiseIntervals;
+            return this;
+        }
+
+        /**
+         * Sets sample rate of the average. If it's not set the highest sample rate among the recordings is used.
+         */
+        @NonNull public Builder setSampleRate(int sampleRate) {
+            this.sampleRate = Math.max(sampleRate, 0);
+            return this;
+        }
+
+        /**
+         * Creates the config.
+         *
+         * @throws IllegalStateException if neither or both trains and events are added.
+         */
+        @NonNull public GrandAverageConfig build() {
+            if (trains.isEmpty() == events.isEmpty()) {
+                throw new IllegalStateException("Either spike trains or events need to be added");
+            }
+
+            return new GrandAverageConfig(trains, events, removeNoiseIntervals, sampleRate);
+        }
+    }
+
+    private final BatchAnalysisPlan.SpikeTrain[] trains;
+    private final String[] events;
+    private final boolean removeNoiseIntervals;
+    private final int sampleRate;
+
+    GrandAverageConfig(@NonNull List<BatchAnalysisPlan.SpikeTrain> trains, @NonNull Set<String> events,
+        boolean removeNoiseIntervals, int sampleRate) {
+        this.trains = trains.toArray(new BatchAnalysisPlan.SpikeTrain[0]);
+        this.events = events.toArray(new String[0]);
+        this.removeNoiseIntervals = removeNoiseIntervals;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Whether signal is averaged around events instead of spikes.
+     */
+    public boolean isEventTriggered() {
+        return events.length > 0;
+    }
+
+    @NonNull public BatchAnalysisPlan.SpikeTrain[] getTrains() {
+        return trains.clone();
+    }
+
+    @NonNull public String[] getEvents() {
+        return events.clone();
+    }
+
+    public boolean isRemoveNoiseIntervals() {
+        return removeNoiseIntervals;
+    }
+
+    /**
+     * Returns sample rate of the average, or {@code 0} if the highest sample rate among the recordings is used.
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Returns time in seconds between the beginning of the window and the spike or event.
+     */
+    public float getLeftOffset() {
+        return isEventTriggered() ? EVENT_LEFT_OFFSET_IN_SECS : SPIKE_OFFSET_IN_SECS;
+    }
+
+    // Returns number of window samples before the spike or event at specified sample rate
+    int getLeftFrameCount(int sampleRate) {
+        return (int) (sampleRate * getLeftOffset());
+    }
+
+    // Returns number of window samples at specified sample rate, spike windows are centered around the spike
+    int getFrameCount(int sampleRate) {
+        return isEventTriggered() ? getLeftFrameCount(sampleRate) + (int) (sampleRate * EVENT_RIGHT_OFFSET_IN_SECS)
+            : 2 * getLeftFrameCount(sampleRate) + 1;
+    }
+
+    // Returns the train at specified index without copying
+    @NonNull BatchAnalysisPlan.SpikeTrain getTrain(int index) {
+        return trains[index];
+    }
+
+    int getTrainCount() {
+        return trains.length;
+    }
+
+    // Returns event names without copying
+    @NonNull String[] getEventNames() {
+        return events;
+    }
+
+    // Appends everything the per-recording statistics depend on to specified key builder
+    void appendTo(@NonNull AnalysisResultCache.KeyBuilder builder) {
+        builder.append(trains.length);
+        for (BatchAnalysisPlan.SpikeTrain train : trains) {
+            builder.append(train.getChannel()).append(train.getLowerThreshold()).append(train.getUpperThreshold());
+        }
+        builder.append(events).append(removeNoiseIntervals);
+    }
+}
@@ -0,0 +1,152 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.utils.JniUtils;
+import com.backyardbrains.utils.RecordingUtils;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Collects statistics of the windows surrounding spikes or events of a single recording that {@link
+ * GrandAverageRunner} pools across recordings. Spikes are found the same way as in batch analysis and only indices of
+ * the spikes that belong to the config trains are kept in memory. Result holds statistics of every train, or of every
+ * channel aligned to every event type with channels of the i-th event type starting at {@code i * channelCount}.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class GrandAverageFileAnalysis extends BaseAnalysis<Void, RunningStatistics[]> {
+
+    private static final String TAG = makeLogTag(GrandAverageFileAnalysis.class);
+
+    private static final int INITIAL_TRAIN_CAPACITY = 1024;
+
+    /**
+     * Finds spikes and collects statistics of the windows. Analyses are run natively by default, tests replace them
+     * with ones that don't need the native library.
+     */
+    interface Engine {
+        Engine NATIVE = new Engine() {
+            @Override public boolean findSpikes(@NonNull String filePath,
+                @NonNull JniUtils.OnSpikesFoundListener listener, long control) {
+                return JniUtils.findSpikes(filePath, listener, control);
+            }
+
+            @Override public boolean grandAverageSpikes(@NonNull String filePath, @NonNull int[][] trains,
+                @NonNull int[] channels, @NonNull int[] spikeCounts, int sampleRate, int leftFrameCount,
+                int frameCount, @NonNull int[] counts, @NonNull double[][] means, @NonNull double[][] m2s,
+                long control) {
+                return JniUtils.grandAverageSpikes(filePath, trains, channels, spikeCounts, trains.length,
+                    sampleRate, leftFrameCount, frameCount, counts, means, m2s, control);
+            }
+
+            @Override public boolean grandAverageEvents(@NonNull String filePath, @NonNull String eventsFilePath,
+                @NonNull String[] events, int channelCount, boolean removeNoiseIntervals, int sampleRate,
+                int leftFrameCount, int frameCount, @NonNull int[] counts, @NonNull double[][] means,
+                @NonNull double[][] m2s, long control) {
+                return JniUtils.grandAverageEvents(filePath, eventsFilePath, events, events.length, channelCount,
+                    removeNoiseIntervals, sampleRate, leftFrameCount, frameCount, counts, means, m2s, control);
+            }
+        };
+
+        boolean findSpikes(@NonNull String filePath, @NonNull JniUtils.OnSpikesFoundListener listener, long control);
+
+        boolean grandAverageSpikes(@NonNull String filePath, @NonNull int[][] trains, @NonNull int[] channels,
+            @NonNull int[] spikeCounts, int sampleRate, int leftFrameCount, int frameCount, @NonNull int[] counts,
+            @NonNull double[][] means, @NonNull double[][] m2s, long control);
+
+        boolean grandAverageEvents(@NonNull String filePath, @NonNull String eventsFilePath, @NonNull String[] events,
+            int channelCount, boolean removeNoiseIntervals, int sampleRate, int leftFrameCount, int frameCount,
+            @NonNull int[] counts, @NonNull double[][] means, @NonNull double[][] m2s, long control);
+    }
+
+    private final Engine engine;
+    private final GrandAverageConfig config;
+    private final int sampleRate;
+    private final int channelCount;
+
+    /**
+     * @param sampleRate Sample rate windows are sampled at.
+     * @param channelCount Number of channels event triggered windows are collected for.
+     */
+    GrandAverageFileAnalysis(@NonNull String filePath, @NonNull GrandAverageConfig config, int sampleRate,
+        int channelCount, @NonNull Engine engine, @NonNull AnalysisListener<RunningStatistics[]> listener) {
+        super(filePath, listener);
+
+        this.engine = engine;
+        this.config = config;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+    }
+
+    @Nullable @Override protected RunningStatistics[] process(Void... params) throws Exception {
+        final String filePath = getFilePath();
+        final int statsCount =
+            config.isEventTriggered() ? config.getEventNames().length * channelCount : config.getTrainCount();
+        final int leftFrameCount = config.getLeftFrameCount(sampleRate);
+        final int frameCount = config.getFrameCount(sampleRate);
+        final int[] counts = new int[statsCount];
+        final double[][] means = new double[statsCount][frameCount];
+        final double[][] m2s = new double[statsCount][frameCount];
+
+        final boolean processed;
+        if (config.isEventTriggered()) {
+            // recording without events doesn't contribute any window
+            final File eventsFile = RecordingUtils.getEventFile(new File(filePath));
+            processed = eventsFile == null || engine.grandAverageEvents(filePath, eventsFile.getAbsolutePath(),
+                config.getEventNames(), channelCount, config.isRemoveNoiseIntervals(), sampleRate, leftFrameCount,
+                frameCount, counts, means, m2s, getControl());
+        } else {
+            final int[][] trains = findTrains(filePath);
+            if (trains == null) return null;
+
+            final int trainCount = trains.length;
+            final int[] channels = new int[trainCount];
+            final int[] spikeCounts = new int[trainCount];
+            for (int i = 0; i < trainCount; i++) {
+                channels[i] = config.getTrain(i).getChannel();
+                spikeCounts[i] = trains[i].length;
+            }
+            processed = engine.grandAverageSpikes(filePath, trains, channels, spikeCounts, sampleRate, leftFrameCount,
+                frameCount, counts, means, m2s, getControl());
+        }
+        if (isCancelled()) return null;
+        if (!processed) throw new IOException("Windows couldn't be read from " + filePath);
+
+        final RunningStatistics[] statistics = new RunningStatistics[statsCount];
+        for (int i = 0; i < statsCount; i++) statistics[i] = new RunningStatistics(counts[i], means[i], m2s[i]);
+
+        LOGD(TAG, "Statistics of " + statsCount + " windows collected from " + filePath);
+
+        return statistics;
+    }
+
+    // Finds spikes of the recording and returns frame indices of the spikes of every config train, or null if
+    // analysis is cancelled
+    @Nullable private int[][] findTrains(@NonNull String filePath) throws IOException {
+        final int trainCount = config.getTrainCount();
+        final int[][] trains = new int[trainCount][INITIAL_TRAIN_CAPACITY];
+        final int[] trainSizes = new int[trainCount];
+
+        final boolean found = engine.findSpikes(filePath, (channel, positive, values, indices, times, count) -> {
+            for (int t = 0; t < trainCount; t++) {
+                final BatchAnalysisPlan.SpikeTrain train = config.getTrain(t);
+                for (int i = 0; i < count; i++) {
+                    if (!train.contains(channel, values[i])) continue;
+
+                    if (trainSizes[t] == trains[t].length) trains[t] = Arrays.copyOf(trains[t], trainSizes[t] * 2);
+                    trains[t][trainSizes[t]++] = indices[i];
+                }
+            }
+        }, getControl());
+        if (isCancelled()) return null;
+        if (!found) throw new IOException("Spikes couldn't be found in " + filePath);
+
+        for (int t = 0; t < trainCount; t++) trains[t] = Arrays.copyOf(trains[t], trainSizes[t]);
+        return trains;
+    }
+}
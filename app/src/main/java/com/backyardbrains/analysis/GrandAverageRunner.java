@@ -0,0 +1,245 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.db.store.AnalysisResultCache;
+import com.backyardbrains.utils.WavUtils;
+import com.backyardbrains.vo.GrandAverage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Averages the signal surrounding spikes or events, as described by {@link GrandAverageConfig}, across multiple
+ * recordings. Recordings are analysed by the {@link AnalysisScheduler} so the number of recordings analysed at once is
+ * bounded, and number of recordings waiting in its queue is limited as well.
+ * <p>
+ * Every recording is reduced to the number of windows, mean and M2 of every window point, which are merged into the
+ * totals as soon as recording is analysed. Memory used by the runner depends only on the window length and the
+ * number of recordings analysed at once, not on the number of recordings or windows.
+ * <p>
+ * Class doesn't depend on Android framework so grand averages can be calculated from JVM tests.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class GrandAverageRunner {
+
+    private static final String TAG = makeLogTag(GrandAverageRunner.class);
+
+    // Max number of recordings waiting to be analysed
+    private static final int MAX_QUEUED_FILE_COUNT = 4;
+
+    /**
+     * Interface definition for a callback to be invoked during grand average analysis.
+     */
+    public interface GrandAverageListener {
+        /**
+         * Invoked when analysis of the recording at specified {@code filePath} is finished, successfully or not.
+         * Recordings that can't be analysed are left out of the average.
+         */
+        void onFileAnalyzed(@NonNull String filePath, boolean success);
+
+        /**
+         * Invoked once all recordings have been processed or analysis has been cancelled. Averages are listed by
+         * train or, if signal is averaged around events, by event type and then by channel.
+         */
+        void onGrandAverageFinished(@NonNull GrandAverage[] averages, boolean cancelled);
+    }
+
+    private final AnalysisScheduler scheduler;
+    private final @AnalysisScheduler.Priority int priority;
+    private final Executor callbackExecutor;
+    private final GrandAverageFileAnalysis.Engine engine;
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    // recordings that are queued or being analysed
+    private final Set<String> pending = new HashSet<>();
+    private Thread dispatcher;
+
+    /**
+     * Creates runner that analyses at most {@code workerCount} recordings at once on its own worker threads.
+     *
+     * @param callbackExecutor Executor on which all the {@link GrandAverageListener} callbacks will be invoked.
+     */
+    public GrandAverageRunner(int workerCount, @NonNull Executor callbackExecutor) {
+        this(new AnalysisScheduler(workerCount, null), AnalysisScheduler.Priority.FOREGROUND, callbackExecutor);
+    }
+
+    GrandAverageRunner(@NonNull AnalysisScheduler scheduler, @AnalysisScheduler.Priority int priority,
+        @NonNull Executor callbackExecutor) {
+        this(scheduler, priority, callbackExecutor, GrandAverageFileAnalysis.Engine.NATIVE);
+    }
+
+    GrandAverageRunner(@NonNull AnalysisScheduler scheduler, @AnalysisScheduler.Priority int priority,
+        @NonNull Executor callbackExecutor, @NonNull GrandAverageFileAnalysis.Engine engine) {
+        this.scheduler = scheduler;
+        this.priority = priority;
+        this.callbackExecutor = callbackExecutor;
+        this.engine = engine;
+    }
+
+    /**
+     * Starts averaging of all recordings at specified {@code filePaths} as described by specified {@code config}.
+     * Method returns immediately and analysis is done in the background.
+     */
+    public synchronized void start(@NonNull List<String> filePaths, @NonNull GrandAverageConfig config,
+        @NonNull GrandAverageListener listener) {
+        if (dispatcher != null) throw new IllegalStateException("Grand average analysis already started");
+
+        cancelled.set(false);
+        // the same recording is averaged only once
+        final List<String> uniqueFilePaths = new ArrayList<>(new LinkedHashSet<>(filePaths));
+        dispatcher = new Thread(() -> dispatch(uniqueFilePaths, config, listener), "GrandAverageRunner");
+        dispatcher.start();
+    }
+
+    /**
+     * Cancels the grand average analysis. Listener is notified with the averages of the recordings analysed so far.
+     */
+    public synchronized void cancel() {
+        cancelled.set(true);
+        if (dispatcher != null) dispatcher.interrupt();
+        for (String filePath : pending) scheduler.cancel(filePath, AnalysisType.GRAND_AVERAGE);
+        pending.clear();
+    }
+
+    /**
+     * Whether grand average analysis has been cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    // Schedules recordings limiting the number of queued ones and merges their statistics as they are analysed
+    private void dispatch(@NonNull List<String> filePaths, @NonNull GrandAverageConfig config,
+        @NonNull GrandAverageListener listener) {
+        final long start = System.currentTimeMillis();
+
+        // all recordings need to be sampled at the same rate so headers are read before any of them is analysed
+        final List<String> validFilePaths = new ArrayList<>();
+        int maxSampleRate = 0;
+        int maxChannelCount = 0;
+        for (String filePath : filePaths) {
+            try (InputStream in = new FileInputStream(filePath)) {
+                final WavUtils.WavHeader header = WavUtils.readHeader(in);
+                maxSampleRate = Math.max(maxSampleRate, header.getSampleRate());
+                maxChannelCount = Math.max(maxChannelCount, header.getChannelCount());
+                validFilePaths.add(filePath);
+            } catch (IOException e) {
+                LOGE(TAG, "Can't read " + filePath + ": " + e.getMessage());
+                callbackExecutor.execute(() -> listener.onFileAnalyzed(filePath, false));
+            }
+        }
+        final int sampleRate = config.getSampleRate() > 0 ? config.getSampleRate() : maxSampleRate;
+        final int channelCount = maxChannelCount;
+        final int statsCount =
+            config.isEventTriggered() ? config.getEventNames().length * channelCount : config.getTrainCount();
+        final int frameCount = config.getFrameCount(sampleRate);
+        final RunningStatistics[] totals = new RunningStatistics[statsCount];
+        final int[] recordingCounts = new int[statsCount];
+        for (int i = 0; i < statsCount; i++) totals[i] = new RunningStatistics(frameCount);
+        final Semaphore permits = new Semaphore(MAX_QUEUED_FILE_COUNT);
+
+        try {
+            for (String filePath : validFilePaths) {
+                if (cancelled.get()) break;
+
+                final String key;
+                try {
+                    final AnalysisResultCache.KeyBuilder keyBuilder =
+                        new AnalysisResultCache.KeyBuilder(AnalysisType.GRAND_AVERAGE, new File(filePath));
+                    config.appendTo(keyBuilder);
+                    key = keyBuilder.append(sampleRate).append(channelCount).build();
+                } catch (IOException e) {
+                    LOGE(TAG, "Can't read " + filePath + ": " + e.getMessage());
+                    callbackExecutor.execute(() -> listener.onFileAnalyzed(filePath, false));
+                    continue;
+                }
+
+                // blocks until there is room in the queue
+                permits.acquire();
+                final GrandAverageFileAnalysis analysis =
+                    new GrandAverageFileAnalysis(filePath, config, sampleRate, channelCount, engine,
+                        new BaseAnalysis.AnalysisListener<RunningStatistics[]>() {
+                            @Override
+                            public void onAnalysisDone(@NonNull String filePath, @Nullable RunningStatistics[] result) {
+                                if (result != null) {
+                                    synchronized (totals) {
+                                        for (int i = 0; i < statsCount; i++) {
+                                            if (result[i].getCount() > 0) recordingCounts[i]++;
+                                            totals[i].merge(result[i]);
+                                        }
+                                    }
+                                }
+                                onFileFinished(filePath, result != null);
+                            }
+
+                            @Override public void onAnalysisFailed(@NonNull String filePath) {
+                                onFileFinished(filePath, false);
+                            }
+
+                            // Releases the queue slot of the finished analysis and notifies the listener
+                            private void onFileFinished(@NonNull String filePath, boolean success) {
+                                removePending(filePath);
+                                permits.release();
+                                callbackExecutor.execute(() -> listener.onFileAnalyzed(filePath, success));
+                            }
+                        });
+                if (!schedule(analysis, key)) {
+                    permits.release();
+                    break;
+                }
+            }
+            // wait for all scheduled recordings to finish
+            permits.acquire(MAX_QUEUED_FILE_COUNT);
+        } catch (InterruptedException e) {
+            LOGD(TAG, "Grand average analysis interrupted");
+        }
+
+        final GrandAverage[] averages = new GrandAverage[statsCount];
+        synchronized (totals) {
+            for (int i = 0; i < statsCount; i++) {
+                final boolean eventTriggered = config.isEventTriggered();
+                averages[i] = new GrandAverage(eventTriggered ? config.getEventNames()[i / channelCount] : null,
+                    eventTriggered ? -1 : i,
+                    eventTriggered ? i % channelCount : config.getTrain(i).getChannel(), sampleRate,
+                    config.getLeftOffset(), recordingCounts[i], totals[i].getCount(), totals[i].getMeans(),
+                    totals[i].getStandardDeviations());
+            }
+        }
+        final boolean wasCancelled = cancelled.get();
+        LOGD(TAG, "Grand average of " + validFilePaths.size() + " recordings calculated in " + (
+            System.currentTimeMillis() - start) + " ms" + (wasCancelled ? " (cancelled)" : ""));
+        callbackExecutor.execute(() -> listener.onGrandAverageFinished(averages, wasCancelled));
+
+        synchronized (this) {
+            dispatcher = null;
+        }
+    }
+
+    // Schedules specified analysis unless analysis is cancelled in the meantime
+    private synchronized boolean schedule(@NonNull GrandAverageFileAnalysis analysis, @NonNull String key) {
+        if (cancelled.get()) return false;
+
+        pending.add(analysis.getFilePath());
+        analysis.startAnalysis(scheduler, AnalysisType.GRAND_AVERAGE, key, priority);
+        return true;
+    }
+
+    @SuppressWarnings("WeakerAccess") synchronized void removePending(@NonNull String filePath) {
+        pending.remove(filePath);
+    }
+}
@@ -18,12 +18,18 @@ class IsiAnalysis extends BaseAnalysis<float[][], int[][]> {
     @Override protected int[][] process(float[][]... params) {
         if (params.length <= 0) return new int[0][0];
 
-        final float[][] trains = params[0];
+        return isi(params[0], getControl());
+    }
+
+    /**
+     * Returns Inter Spike Interval histograms of specified spike {@code trains}. Spike times need to be sorted.
+     */
+    @NonNull static int[][] isi(@NonNull float[][] trains, long control) {
         final int[][] isi = new int[trains.length][BIN_COUNT];
         final int[] spikeCounts = new int[trains.length];
         for (int i = 0; i < trains.length; i++) spikeCounts[i] = trains[i].length;
 
-        JniUtils.isiAnalysis(trains, trains.length, spikeCounts, isi, BIN_COUNT);
+        JniUtils.isiAnalysis(trains, trains.length, spikeCounts, isi, BIN_COUNT, control);
 
         return isi;
     }
@@ -0,0 +1,60 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.dsp.audio.AudioFile;
+import com.backyardbrains.utils.JniUtils;
+import com.backyardbrains.vo.PowerSpectrum;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Calculates power spectral density of every channel of the whole recording with Welch's method.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class PowerSpectrumAnalysis extends BaseAnalysis<Void, PowerSpectrum[]> {
+
+    private static final String TAG = makeLogTag(PowerSpectrumAnalysis.class);
+
+    // Windows are at least this long, which gives frequency resolution of at least 0.5 Hz
+    private static final float MIN_WINDOW_IN_SECS = 2f;
+    // Shortest window used for recordings that are shorter than the min window
+    private static final int MIN_WINDOW_LENGTH = 256;
+
+    private final AudioFile audioFile;
+
+    PowerSpectrumAnalysis(@NonNull AudioFile audioFile, @NonNull AnalysisListener<PowerSpectrum[]> listener) {
+        super(audioFile.getAbsolutePath(), listener);
+
+        this.audioFile = audioFile;
+    }
+
+    @Nullable @Override protected PowerSpectrum[] process(Void... params) {
+        final int channelCount = audioFile.channelCount();
+        final int sampleRate = audioFile.sampleRate();
+
+        // window length needs to be power of 2 and recording needs to fit at least one window
+        int windowLength = Integer.highestOneBit(Math.max((int) (sampleRate * MIN_WINDOW_IN_SECS) - 1, 1)) << 1;
+        while (windowLength > MIN_WINDOW_LENGTH && windowLength > audioFile.sampleCount()) windowLength >>= 1;
+
+        final float[][] powers = new float[channelCount][windowLength / 2 + 1];
+        final float[][] bandPowers = new float[channelCount][PowerSpectrum.BAND_COUNT];
+        final int windowCount =
+            JniUtils.powerSpectrumAnalysis(audioFile.getAbsolutePath(), windowLength, PowerSpectrum.BAND_EDGES,
+                PowerSpectrum.BAND_COUNT, powers, bandPowers, channelCount, getControl());
+        // file couldn't be read
+        if (windowCount <= 0) return null;
+
+        LOGD(TAG, windowCount + " windows of " + windowLength + " samples averaged");
+
+        final float frequencyResolution = (float) sampleRate / windowLength;
+        final PowerSpectrum[] powerSpectra = new PowerSpectrum[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            powerSpectra[i] = new PowerSpectrum(frequencyResolution, powers[i], bandPowers[i]);
+        }
+
+        return powerSpectra;
+    }
+}
@@ -0,0 +1,88 @@
+package com.backyardbrains.analysis;
+
+import android.util.Pair;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.dsp.audio.AudioFile;
+import com.backyardbrains.utils.EventUtils;
+import com.backyardbrains.utils.JniUtils;
+import com.backyardbrains.vo.Psth;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Calculates peri-stimulus time histograms, and optionally rasters, of all spike trains aligned to every selected
+ * event type. Spike indices of every train need to be sorted.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class PsthAnalysis extends BaseAnalysis<int[][], Psth[]> {
+
+    private static final String TAG = makeLogTag(PsthAnalysis.class);
+
+    private final AudioFile audioFile;
+    private final PsthConfig config;
+
+    PsthAnalysis(@NonNull AudioFile audioFile, @NonNull PsthConfig config, @NonNull AnalysisListener<Psth[]> listener) {
+        super(audioFile.getAbsolutePath(), listener);
+
+        this.audioFile = audioFile;
+        this.config = config;
+    }
+
+    @Nullable @Override protected Psth[] process(int[][]... params) {
+        if (params.length <= 0) return new Psth[0];
+
+        final int[][] trains = params[0];
+        final int trainCount = trains.length;
+        final String[] eventNames = config.getEvents();
+        final int eventTypeCount = eventNames.length;
+        final int sampleRate = audioFile.sampleRate();
+        final int leftFrameCount = (int) (config.getLeftOffset() * sampleRate);
+        final int rightFrameCount = (int) (config.getRightOffset() * sampleRate);
+        final int binCount =
+            Math.max(Math.round((config.getLeftOffset() + config.getRightOffset()) / config.getBinSize()), 1);
+
+        // only events whose whole window is within the recording are included so all bins cover the same trials
+        final List<Pair<Integer, String>> allEvents = EventUtils.parseEvents(audioFile.getAbsolutePath(), sampleRate);
+        final int[][] events = new int[eventTypeCount][allEvents.size()];
+        final int[] eventCounts = new int[eventTypeCount];
+        for (Pair<Integer, String> event : allEvents) {
+            if (event.first - leftFrameCount < 0 || event.first + rightFrameCount > audioFile.sampleCount()) continue;
+            for (int i = 0; i < eventTypeCount; i++) {
+                if (eventNames[i].equals(event.second)) events[i][eventCounts[i]++] = event.first;
+            }
+        }
+        for (int i = 0; i < eventTypeCount; i++) Arrays.sort(events[i], 0, eventCounts[i]);
+
+        final int[] spikeCounts = new int[trainCount];
+        for (int i = 0; i < trainCount; i++) spikeCounts[i] = trains[i].length;
+        final int pairCount = eventTypeCount * trainCount;
+        final int[][] histograms = new int[pairCount][binCount];
+        final int[][] trialStarts = config.isRaster() ? new int[pairCount][] : null;
+        final int[][] rasters = config.isRaster() ? new int[pairCount][] : null;
+        if (trialStarts != null) {
+            for (int i = 0; i < pairCount; i++) trialStarts[i] = new int[eventCounts[i / trainCount] + 1];
+        }
+
+        if (!JniUtils.psthAnalysis(trains, trainCount, spikeCounts, events, eventTypeCount, eventCounts,
+            leftFrameCount, rightFrameCount, binCount, histograms, trialStarts, rasters, getControl())) {
+            return null;
+        }
+
+        final Psth[] psths = new Psth[pairCount];
+        for (int i = 0; i < pairCount; i++) {
+            final int eventType = i / trainCount;
+            psths[i] = new Psth(eventNames[eventType], i % trainCount, sampleRate, config.getLeftOffset(),
+                config.getRightOffset(), eventCounts[eventType], histograms[i],
+                trialStarts != null ? trialStarts[i] : null, rasters != null ? rasters[i] : null);
+        }
+
+        LOGD(TAG, "Histograms of " + trainCount + " trains aligned to " + eventTypeCount + " event types calculated");
+
+        return psths;
+    }
+}
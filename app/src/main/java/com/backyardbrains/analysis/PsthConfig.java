@@ -0,0 +1,81 @@
+package com.backyardbrains.analysis;
+
+import android.os.Parcel;
+import androidx.annotation.NonNull;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class PsthConfig extends AnalysisConfig {
+
+    public static final Creator<PsthConfig> CREATOR = new Creator<PsthConfig>() {
+        @Override public PsthConfig createFromParcel(Parcel in) {
+            return new PsthConfig(in);
+        }
+
+        @Override public PsthConfig[] newArray(int size) {
+            return new PsthConfig[size];
+        }
+    };
+
+    private final String[] events;
+    private final float leftOffset;
+    private final float rightOffset;
+    private final float binSize;
+    private final boolean raster;
+
+    /**
+     * @param events Names of the events spikes are aligned to.
+     * @param leftOffset Time in seconds before every event that's included in the histogram.
+     * @param rightOffset Time in seconds after every event that's included in the histogram.
+     * @param binSize Width of a single histogram bin in seconds.
+     * @param raster Whether raster of the spikes around every event should be collected too.
+     */
+    public PsthConfig(@NonNull String filePath, @AnalysisType int analysisType, @NonNull String[] events,
+        float leftOffset, float rightOffset, float binSize, boolean raster) {
+        super(filePath, analysisType);
+        this.events = events;
+        this.leftOffset = leftOffset;
+        this.rightOffset = rightOffset;
+        this.binSize = binSize;
+        this.raster = raster;
+    }
+
+    @SuppressWarnings("WeakerAccess") protected PsthConfig(Parcel in) {
+        super(in);
+        events = in.createStringArray();
+        leftOffset = in.readFloat();
+        rightOffset = in.readFloat();
+        binSize = in.readFloat();
+        raster = in.readByte() != 0;
+    }
+
+    @Override public void writeToParcel(Parcel dest, int flags) {
+        super.writeToParcel(dest, flags);
+        dest.writeStringArray(events);
+        dest.writeFloat(leftOffset);
+        dest.writeFloat(rightOffset);
+        dest.writeFloat(binSize);
+        dest.writeByte((byte) (raster ? 1 : 0));
+    }
+
+    @NonNull public String[] getEvents() {
+        return events;
+    }
+
+    public float getLeftOffset() {
+        return leftOffset;
+    }
+
+    public float getRightOffset() {
+        return rightOffset;
+    }
+
+    public float getBinSize() {
+        return binSize;
+    }
+
+    public boolean isRaster() {
+        return raster;
+    }
+}
@@ -0,0 +1,112 @@
+package com.backyardbrains.analysis;
+
+import android.util.SparseArray;
+import androidx.annotation.NonNull;
+import com.backyardbrains.db.AnalysisDataSource;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads spikes that were found by the live spike detector while the recording was made so they don't need to be
+ * searched for once again.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class RecordedSpikes {
+
+    // Number of spikes passed to the writer at once
+    private static final int BATCH_SIZE = 1024;
+    // Lines starting with this are comments
+    private static final String COMMENT_PREFIX = "#";
+    // Min number of columns in every spike line (channel, train, sample index, value), unit column is optional
+    private static final int MIN_COLUMN_COUNT = 4;
+
+    // Spikes of a single channel and polarity. Every spike is packed as sample index in upper and value in lower bits
+    // so sorting them sorts by index.
+    private static class Group {
+        long[] spikes = new long[BATCH_SIZE];
+        int count;
+
+        void add(int index, short value) {
+            if (count == spikes.length) spikes = Arrays.copyOf(spikes, count * 2);
+            spikes[count++] = ((long) index << 16) | (value & 0xFFFF);
+        }
+    }
+
+    private final short[] values = new short[BATCH_SIZE];
+    private final int[] indices = new int[BATCH_SIZE];
+    private final float[] times = new float[BATCH_SIZE];
+
+    private final File file;
+    private final int channelCount;
+    private final int sampleRate;
+
+    RecordedSpikes(@NonNull File file, int channelCount, int sampleRate) {
+        this.file = file;
+        this.channelCount = channelCount;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Passes all the recorded spikes to the specified {@code writer}, grouped by channel and polarity and sorted by
+     * index. Returns {@code false} if the file doesn't contain any valid spikes.
+     */
+    boolean write(@NonNull AnalysisDataSource.SpikeAnalysisWriter writer) throws IOException {
+        // key is channel * 2 for negative and channel * 2 + 1 for positive spikes
+        final SparseArray<Group> groups = new SparseArray<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith(COMMENT_PREFIX)) continue;
+
+                final String[] columns = line.split(",");
+                if (columns.length < MIN_COLUMN_COUNT) return false;
+                final int channel;
+                final int index;
+                final short value;
+                try {
+                    channel = Integer.parseInt(columns[0].trim());
+                    index = Integer.parseInt(columns[2].trim());
+                    value = Short.parseShort(columns[3].trim());
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                if (channel < 0 || channel >= channelCount || index < 0) return false;
+
+                final int key = channel * 2 + (value >= 0 ? 1 : 0);
+                Group group = groups.get(key);
+                if (group == null) {
+                    group = new Group();
+                    groups.put(key, group);
+                }
+                group.add(index, value);
+            }
+        }
+        if (groups.size() == 0) return false;
+
+        for (int i = 0; i < groups.size(); i++) {
+            final int key = groups.keyAt(i);
+            final Group group = groups.valueAt(i);
+            Arrays.sort(group.spikes, 0, group.count);
+
+            int batchCount = 0;
+            for (int j = 0; j < group.count; j++) {
+                final long spike = group.spikes[j];
+                indices[batchCount] = (int) (spike >> 16);
+                values[batchCount] = (short) spike;
+                times[batchCount] = (float) indices[batchCount] / sampleRate;
+                if (++batchCount == BATCH_SIZE) {
+                    writer.writeSpikes(key / 2, key % 2 == 1, values, indices, times, batchCount);
+                    batchCount = 0;
+                }
+            }
+            if (batchCount > 0) writer.writeSpikes(key / 2, key % 2 == 1, values, indices, times, batchCount);
+        }
+
+        return true;
+    }
+}
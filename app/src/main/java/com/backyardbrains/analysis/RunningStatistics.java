@@ -0,0 +1,100 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Number of windows, mean and sum of squared deviations from the mean (M2) of every point of equally long windows.
+ * Windows are added one at a time with Welford's method and statistics accumulated separately are combined with the
+ * parallel formulas of Chan et al., so windows never need to be kept and the result doesn't depend on how they are
+ * split between accumulators.
+ * <p>
+ * Class is not thread-safe. It doesn't depend on Android framework.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class RunningStatistics {
+
+    private final double[] means;
+    private final double[] m2s;
+    private long count;
+
+    RunningStatistics(int length) {
+        means = new double[length];
+        m2s = new double[length];
+    }
+
+    RunningStatistics(long count, @NonNull double[] means, @NonNull double[] m2s) {
+        this.count = count;
+        this.means = means;
+        this.m2s = m2s;
+    }
+
+    /**
+     * Adds specified {@code window}.
+     */
+    void add(@NonNull double[] window) {
+        count++;
+        for (int i = 0; i < means.length; i++) {
+            final double delta = window[i] - means[i];
+            means[i] += delta / count;
+            m2s[i] += delta * (window[i] - means[i]);
+        }
+    }
+
+    /**
+     * Adds all the windows of specified {@code statistics}, which needs to have the same length.
+     */
+    void merge(@NonNull RunningStatistics statistics) {
+        if (statistics.count == 0) return;
+        if (count == 0) {
+            count = statistics.count;
+            System.arraycopy(statistics.means, 0, means, 0, means.length);
+            System.arraycopy(statistics.m2s, 0, m2s, 0, m2s.length);
+            return;
+        }
+
+        final double total = count + statistics.count;
+        final double weight = statistics.count / total;
+        final double pairWeight = count * weight;
+        for (int i = 0; i < means.length; i++) {
+            final double delta = statistics.means[i] - means[i];
+            means[i] += delta * weight;
+            m2s[i] += statistics.m2s[i] + delta * delta * pairWeight;
+        }
+        count += statistics.count;
+    }
+
+    /**
+     * Returns number of added windows.
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns number of points of every window.
+     */
+    int getLength() {
+        return means.length;
+    }
+
+    /**
+     * Returns mean of every window point.
+     */
+    @NonNull float[] getMeans() {
+        final float[] result = new float[means.length];
+        for (int i = 0; i < means.length; i++) result[i] = (float) means[i];
+        return result;
+    }
+
+    /**
+     * Returns population standard deviation of every window point, same as the one drawn around the average spike.
+     */
+    @NonNull float[] getStandardDeviations() {
+        final float[] result = new float[m2s.length];
+        if (count == 0) return result;
+
+        for (int i = 0; i < m2s.length; i++) result[i] = (float) Math.sqrt(Math.max(m2s[i] / count, 0));
+        return result;
+    }
+}
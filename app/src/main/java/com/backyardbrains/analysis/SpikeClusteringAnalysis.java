@@ -0,0 +1,67 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.db.AnalysisRepository;
+import com.backyardbrains.dsp.audio.AudioFile;
+import com.backyardbrains.utils.JniUtils;
+import java.io.File;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Sorts already found spikes of every channel into clusters by the shape of their waveforms and saves every cluster
+ * as a spike train.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class SpikeClusteringAnalysis extends BaseAnalysis<Integer, Boolean> {
+
+    private static final String TAG = makeLogTag(SpikeClusteringAnalysis.class);
+
+    private static final String SCRATCH_FILE_PREFIX = "spike-clusters-";
+
+    private final AudioFile audioFile;
+    private final AnalysisRepository analysisRepository;
+    private final File scratchDir;
+
+    SpikeClusteringAnalysis(@NonNull AudioFile audioFile, @NonNull AnalysisRepository analysisRepository,
+        @NonNull File scratchDir, @NonNull AnalysisListener<Boolean> listener) {
+        super(audioFile.getAbsolutePath(), listener);
+
+        this.audioFile = audioFile;
+        this.analysisRepository = analysisRepository;
+        this.scratchDir = scratchDir;
+    }
+
+    @Nullable @Override protected Boolean process(Integer... params) throws Exception {
+        if (params.length <= 0) return false;
+
+        final String filePath = audioFile.getAbsolutePath();
+        final long analysisId = analysisRepository.getSpikeAnalysisId(filePath);
+        if (analysisId <= 0) return false;
+
+        final int clusterCount = params[0];
+        final int channelCount = audioFile.channelCount();
+        final byte[][] clusters = new byte[channelCount][];
+        final int[] clusterCounts = new int[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            final int[] spikeIndices = analysisRepository.getSpikeIndices(analysisId, i);
+            // spikes of old analyses are still kept in the database and can't be clustered
+            if (spikeIndices == null) return false;
+            if (spikeIndices.length == 0) continue;
+
+            // waveforms of all the spikes are kept in scratch file while they are clustered, native analysis deletes it
+            final File scratchFile = File.createTempFile(SCRATCH_FILE_PREFIX, null, scratchDir);
+            clusters[i] = new byte[spikeIndices.length];
+            clusterCounts[i] = JniUtils.clusterSpikes(filePath, scratchFile.getAbsolutePath(), i, spikeIndices,
+                spikeIndices.length, clusterCount, clusters[i], getControl());
+            if (isCancelled()) return false;
+
+            LOGD(TAG, "Spikes of channel " + i + " sorted into " + clusterCounts[i] + " clusters");
+        }
+
+        return analysisRepository.saveSpikeClusters(filePath, clusters, clusterCounts);
+    }
+}
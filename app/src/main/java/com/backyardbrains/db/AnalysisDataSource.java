@@ -2,11 +2,11 @@ package com.backyardbrains.db;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import com.backyardbrains.db.entity.Spike;
 import com.backyardbrains.db.entity.SpikeAnalysis;
 import com.backyardbrains.db.entity.Train;
 import com.backyardbrains.utils.ThresholdOrientation;
 import com.backyardbrains.vo.SpikeIndexValue;
+import com.backyardbrains.vo.SpikeWindow;
 
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
@@ -32,7 +32,23 @@ public interface AnalysisDataSource {
 
     long getSpikeAnalysisId(@NonNull String filePath);
 
-    void saveSpikeAnalysis(@NonNull String filePath, @NonNull Spike[] spikesAnalysis);
+    interface SpikeAnalysisWriter {
+        /**
+         * Writes {@code count} spikes of the same polarity found on specified {@code channel}. Spikes of the same
+         * channel and polarity are written in index order. Passed arrays can be reused once the method returns.
+         */
+        void writeSpikes(int channel, boolean positive, @NonNull short[] values, @NonNull int[] indices,
+            @NonNull float[] times, int count);
+    }
+
+    interface SpikeAnalysisProducer {
+        /**
+         * Passes all the spikes of the analysis to specified {@code writer}. Returns {@code false} if analysis failed.
+         */
+        boolean produce(@NonNull SpikeAnalysisWriter writer);
+    }
+
+    boolean saveSpikeAnalysis(@NonNull String filePath, @NonNull SpikeAnalysisProducer producer);
 
     void updateSpikeAnalysisFilePath(String oldFilePath, String newFilePath);
 
@@ -40,13 +56,22 @@ public interface AnalysisDataSource {
 
     SpikeIndexValue[] getSpikeAnalysisForIndexRange(long analysisId, int channel, int startIndex, int endIndex);
 
-    SpikeIndexValue[] getSpikeAnalysisByTrainForIndexRange(long trainId, int channel, int startIndex, int endIndex);
+    @Nullable int[] getSpikeIndices(long analysisId, int channel);
+
+    int getSpikeCountForValueRange(long analysisId, int channel, int startValue, int endValue);
+
+    int findSpikeValueValley(long analysisId, int channel, int value, int radius);
+
+    @Nullable SpikeWindow getSpikeWindowByTrain(long trainId, int channel, int startIndex, int endIndex);
 
     void getSpikeAnalysisTimesByTrains(@NonNull final String filePath,
         @Nullable final GetAnalysisCallback<float[][]> callback);
 
     void getSpikeAnalysisIndicesByTrains(@NonNull String filePath, @Nullable GetAnalysisCallback<int[][]> callback);
 
+    void getSpikeAnalysisCountsByTrains(@NonNull String filePath, int binSize, int binCount,
+        @Nullable GetAnalysisCallback<int[][]> callback);
+
     //=================================================
     //  SPIKE TRAINS
     //=================================================
@@ -72,4 +97,11 @@ public interface AnalysisDataSource {
 
     void removeSpikeAnalysisTrain(@NonNull String filePath, int order,
         @Nullable RemoveSpikeAnalysisTrainCallback callback);
+
+    boolean saveSpikeClusters(@NonNull String filePath, @NonNull byte[][] clusters, @NonNull int[] clusterCounts);
+
+    /**
+     * Releases memory held by the in-memory caches. Cached data is loaded again when needed.
+     */
+    void trimMemory();
 }
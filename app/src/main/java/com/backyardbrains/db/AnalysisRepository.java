@@ -2,13 +2,14 @@ package com.backyardbrains.db;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import com.backyardbrains.db.entity.Spike;
 import com.backyardbrains.db.entity.SpikeAnalysis;
 import com.backyardbrains.db.entity.Train;
 import com.backyardbrains.db.source.AnalysisLocalDataSource;
+import com.backyardbrains.db.store.SpikeColumnStore;
 import com.backyardbrains.utils.AppExecutors;
 import com.backyardbrains.utils.ThresholdOrientation;
 import com.backyardbrains.vo.SpikeIndexValue;
+import com.backyardbrains.vo.SpikeWindow;
 
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
@@ -20,28 +21,31 @@ public class AnalysisRepository {
     private final AnalysisDataSource analysisDataSource;
 
     // Prevent direct instantiation.
-    private AnalysisRepository(@NonNull SpikeRecorderDatabase db) {
+    private AnalysisRepository(@NonNull SpikeRecorderDatabase db, @NonNull SpikeColumnStore spikeStore) {
         analysisDataSource =
-            AnalysisLocalDataSource.get(db.spikeAnalysisDao(), db.spikeDao(), db.trainDao(), new AppExecutors());
+            AnalysisLocalDataSource.get(db, db.spikeAnalysisDao(), db.spikeDao(), db.trainDao(), spikeStore,
+                new AppExecutors());
     }
 
     /**
      * Returns the single instance of this class, creating it if necessary.
      *
      * @param db Application database
+     * @param spikeStore Store that holds spikes of all spike analyses
      * @return Singleton instance of the {@link AnalysisRepository}
      */
-    public static AnalysisRepository get(@NonNull SpikeRecorderDatabase db) {
+    public static AnalysisRepository get(@NonNull SpikeRecorderDatabase db, @NonNull SpikeColumnStore spikeStore) {
         if (INSTANCE == null) {
             synchronized (AnalysisRepository.class) {
-                if (INSTANCE == null) INSTANCE = new AnalysisRepository(db);
+                if (INSTANCE == null) INSTANCE = new AnalysisRepository(db, spikeStore);
             }
         }
         return INSTANCE;
     }
 
     /**
-     * Used to force {@link #get(SpikeRecorderDatabase)}  to create a new instance next time it's called.
+     * Used to force {@link #get(SpikeRecorderDatabase, SpikeColumnStore)}  to create a new instance next time
+     * it's called.
      */
     @SuppressWarnings("unused") public static void destroy() {
         INSTANCE = null;
@@ -65,13 +69,16 @@ public class AnalysisRepository {
     }
 
     /**
-     * Saves spike analysis for the file with specified {@code filePath} and all associated spikes and spike trains.
+     * Saves spike analysis for the file with specified {@code filePath} and all the spikes passed by specified {@code
+     * producer}. This method blocks until all the spikes are saved so it shouldn't be called from the main thread.
      *
      * @param filePath Path to the file for which analysis is being saved.
-     * @param spikesAnalysis {@link Spike} objects that make the analysis.
+     * @param producer Producer that passes all the spikes of the analysis to the writer.
+     * @return {@code false} if producer failed, {@code true} otherwise.
      */
-    public void saveSpikeAnalysis(@NonNull String filePath, @NonNull Spike[] spikesAnalysis) {
-        analysisDataSource.saveSpikeAnalysis(filePath, spikesAnalysis);
+    public boolean saveSpikeAnalysis(@NonNull String filePath,
+        @NonNull AnalysisDataSource.SpikeAnalysisProducer producer) {
+        return analysisDataSource.saveSpikeAnalysis(filePath, producer);
     }
 
     /**
@@ -117,18 +124,60 @@ public class AnalysisRepository {
     }
 
     /**
-     * Returns collection of {@link SpikeIndexValue} objects which contain values and indices for spikes belonging
-     * to {@link Train} with specified {@code trainId} and are positioned between {@code startIndex} and
-     * {@code endIndex}.
+     * Returns sample indices of all the spikes belonging to {@link SpikeAnalysis} with specified {@code analysisId}
+     * found on specified {@code channel}, or {@code null} if spikes of the analysis were saved before they were moved
+     * to the column store. This method blocks so it shouldn't be called from the main thread.
+     *
+     * @param analysisId Id of the spike analysis returned spike indices belong to.
+     * @param channel Channel for which spike indices should be returned.
+     */
+    @Nullable public int[] getSpikeIndices(long analysisId, int channel) {
+        return analysisDataSource.getSpikeIndices(analysisId, channel);
+    }
+
+    /**
+     * Returns number of spikes belonging to {@link SpikeAnalysis} with specified {@code analysisId} found on specified
+     * {@code channel} whose values are between {@code startValue} and {@code endValue} (both inclusive), or {@code -1}
+     * if it can't be returned without querying the database. This method never blocks on the database so it can be
+     * called while threshold handles are dragged.
+     *
+     * @param analysisId Id of the spike analysis counted spikes belong to.
+     * @param channel Channel for which spikes should be counted.
+     * @param startValue Lowest value of the counted spikes.
+     * @param endValue Highest value of the counted spikes.
+     */
+    public int getSpikeCountForValueRange(long analysisId, int channel, int startValue, int endValue) {
+        return analysisDataSource.getSpikeCountForValueRange(analysisId, channel, startValue, endValue);
+    }
+
+    /**
+     * Returns value within specified {@code radius} of specified {@code value} around which the fewest spikes
+     * belonging to {@link SpikeAnalysis} with specified {@code analysisId} found on specified {@code channel} are
+     * found, or {@code value} itself if amplitude histogram of the spikes is not stored or is not open yet. This method
+     * never blocks, histogram that is not open yet is opened in background.
+     *
+     * @param analysisId Id of the spike analysis whose spikes are checked.
+     * @param channel Channel whose spikes are checked.
+     * @param value Value around which the valley is looked for.
+     * @param radius Max distance of the valley from specified value.
+     */
+    public int findSpikeValueValley(long analysisId, int channel, int value, int radius) {
+        return analysisDataSource.findSpikeValueValley(analysisId, channel, value, radius);
+    }
+
+    /**
+     * Returns the latest loaded {@link SpikeWindow} with values and indices of spikes belonging to {@link Train} with
+     * specified {@code trainId}. If it doesn't hold all the spikes positioned between {@code startIndex} and {@code
+     * endIndex} they are loaded in the background. This method never blocks so it can be called while drawing.
      *
      * @param trainId Id of the train returned spike values and indexes belong to.
      * @param channel Channel that the {@link Train} with specified {@code trainId} belongs to.
      * @param startIndex Start index from which values and indexes of spikes should be returned.
      * @param endIndex End index till which values and indexes of spikes should be returned.
+     * @return The latest loaded window of spikes, or {@code null} if none has been loaded yet.
      */
-    @NonNull public SpikeIndexValue[] getSpikesByTrainForRange(long trainId, int channel, int startIndex,
-        int endIndex) {
-        return analysisDataSource.getSpikeAnalysisByTrainForIndexRange(trainId, channel, startIndex, endIndex);
+    @Nullable public SpikeWindow getSpikesByTrainForRange(long trainId, int channel, int startIndex, int endIndex) {
+        return analysisDataSource.getSpikeWindowByTrain(trainId, channel, startIndex, endIndex);
     }
 
     /**
@@ -155,6 +204,20 @@ public class AnalysisRepository {
         analysisDataSource.getSpikeAnalysisIndicesByTrains(filePath, callback);
     }
 
+    /**
+     * Returns number of spikes of every spike analysis train within every one of {@code binCount} consecutive bins of
+     * {@code binSize} samples. Result is returned by invoking specified {@code callback} and passing it in.
+     *
+     * @param filePath Absolute path of the audio file for which we want to count the spikes.
+     * @param binSize Number of samples within a single bin.
+     * @param binCount Number of bins spikes of every train are counted in.
+     * @param callback Callback that's invoked when spikes are counted.
+     */
+    public void getSpikeAnalysisCountsByTrains(String filePath, int binSize, int binCount,
+        AnalysisDataSource.GetAnalysisCallback<int[][]> callback) {
+        analysisDataSource.getSpikeAnalysisCountsByTrains(filePath, binSize, binCount, callback);
+    }
+
     //=================================================
     //  SPIKE TRAINS
     //=================================================
@@ -223,4 +286,26 @@ public class AnalysisRepository {
         @Nullable AnalysisDataSource.RemoveSpikeAnalysisTrainCallback callback) {
         analysisDataSource.removeSpikeAnalysisTrain(filePath, trainOrder, callback);
     }
+
+    /**
+     * Saves clusters spikes of the audio file at specified {@code filePath} were sorted into and replaces existing
+     * spike trains with one train per cluster. This method blocks so it shouldn't be called from the main thread.
+     *
+     * @param filePath Absolute path of the audio file whose spikes were clustered.
+     * @param clusters Cluster of every spike of every channel, or {@code null} for channels that weren't clustered.
+     * @param clusterCounts Number of clusters spikes of every channel were sorted into.
+     * @return {@code false} if clusters couldn't be saved, {@code true} otherwise.
+     */
+    public boolean saveSpikeClusters(@NonNull String filePath, @NonNull byte[][] clusters,
+        @NonNull int[] clusterCounts) {
+        return analysisDataSource.saveSpikeClusters(filePath, clusters, clusterCounts);
+    }
+
+    /**
+     * Releases memory held by the in-memory caches, e.g. when system is running low on memory. Cached data is loaded
+     * again when needed.
+     */
+    public void trimMemory() {
+        analysisDataSource.trimMemory();
+    }
 }
@@ -20,7 +20,7 @@ import com.backyardbrains.db.entity.Train;
  */
 @Database(entities = {
     SpikeAnalysis.class, Spike.class, Train.class
-}, version = 7) public abstract class SpikeRecorderDatabase extends RoomDatabase {
+}, version = 9) public abstract class SpikeRecorderDatabase extends RoomDatabase {
 
     private static SpikeRecorderDatabase INSTANCE;
 
@@ -30,7 +30,8 @@ import com.backyardbrains.db.entity.Train;
                 if (INSTANCE == null) {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(), SpikeRecorderDatabase.class,
                         "byb-spike-recorder")
-                        .addMigrations(MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_5_7)
+                        .addMigrations(MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_5_7, MIGRATION_7_8,
+                            MIGRATION_8_9)
                         .fallbackToDestructiveMigration()
                         .build();
                 }
@@ -124,6 +125,22 @@ import com.backyardbrains.db.entity.Train;
         }
     };
 
+    @VisibleForTesting private static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // spikes belonging to a train are defined by the train thresholds so copies of the spikes linked to trains
+            // are not needed anymore
+            database.execSQL("DELETE FROM spikes WHERE train_id != 0");
+        }
+    };
+
+    @VisibleForTesting private static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // add column to trains table that holds the cluster spikes of the train were sorted into, existing
+            // trains are defined only by their thresholds
+            database.execSQL("ALTER TABLE trains ADD COLUMN cluster INTEGER NOT NULL DEFAULT -1");
+        }
+    };
+
     public abstract SpikeAnalysisDao spikeAnalysisDao();
 
     public abstract SpikeDao spikeDao();
@@ -1,35 +1,38 @@
 package com.backyardbrains.db.dao;
 
 import androidx.room.Dao;
-import androidx.room.Insert;
 import androidx.room.Query;
-import com.backyardbrains.db.entity.Spike;
 import com.backyardbrains.vo.SpikeIndexValue;
-import com.backyardbrains.vo.SpikeIndexValueTime;
-import java.util.List;
 
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
 @Dao public interface SpikeDao {
 
-    @Insert void insertSpikes(Spike[] spikes);
+    // columns of the same spikes are loaded separately so they need to be sorted the same way, which is also the order
+    // of the analysis index so no sorting is done
+    @Query("SELECT `index` FROM spikes WHERE analysis_id = :analysisId AND channel = :channel ORDER BY `index`, value, time, id")
+    int[] loadSpikeIndices(long analysisId, int channel);
 
-    @Insert void insertSpikes(List<Spike> spikes);
+    @Query("SELECT time FROM spikes WHERE analysis_id = :analysisId AND channel = :channel ORDER BY `index`, value, time, id")
+    float[] loadSpikeTimes(long analysisId, int channel);
 
-    @Query("DELETE FROM spikes WHERE train_id = :trainId") void deleteSpikes(long trainId);
-
-    @Query("SELECT DISTINCT `index`, value, time FROM spikes WHERE analysis_id = :analysisId AND channel = :channel AND value >= :startValue AND value <= :endValue")
-    SpikeIndexValueTime[] loadSpikesForValueRange(long analysisId, int channel, float startValue, float endValue);
+    @Query("SELECT value FROM spikes WHERE analysis_id = :analysisId AND channel = :channel ORDER BY `index`, value, time, id")
+    int[] loadSpikeValues(long analysisId, int channel);
 
     @Query("SELECT `index`, value  FROM spikes WHERE analysis_id = :analysisId AND channel = :channel AND `index` >= :startIndex AND `index` <= :endIndex ORDER BY `index`")
     SpikeIndexValue[] loadSpikesForIndexRange(long analysisId, int channel, int startIndex, int endIndex);
 
-    @Query("SELECT `index`, value  FROM spikes WHERE train_id = :trainId AND channel = :channel AND `index` >= :startIndex AND `index` <= :endIndex ORDER BY `index`")
-    SpikeIndexValue[] loadSpikesByTrainForIndexRange(long trainId, int channel, int startIndex, int endIndex);
+    @Query("SELECT `index`, value  FROM spikes WHERE analysis_id = :analysisId AND channel = :channel AND `index` >= :startIndex AND `index` <= :endIndex AND value >= :startValue AND value <= :endValue ORDER BY `index`")
+    SpikeIndexValue[] loadSpikesForIndexAndValueRange(long analysisId, int channel, int startIndex, int endIndex,
+        int startValue, int endValue);
+
+    @Query("SELECT COUNT(*) FROM spikes WHERE analysis_id = :analysisId AND channel = :channel AND value >= :startValue AND value <= :endValue")
+    int loadSpikeCountForValueRange(long analysisId, int channel, int startValue, int endValue);
 
-    @Query("SELECT time FROM spikes WHERE train_id = :trainId ORDER BY `index`") float[] loadSpikeTimes(long trainId);
+    @Query("SELECT time FROM spikes WHERE analysis_id = :analysisId AND channel = :channel AND value >= :startValue AND value <= :endValue ORDER BY `index`")
+    float[] loadSpikeTimesForValueRange(long analysisId, int channel, int startValue, int endValue);
 
-    @Query("SELECT `index` FROM spikes WHERE train_id = :trainId ORDER BY `index`") int[] loadSpikeIndices(
-        long trainId);
+    @Query("SELECT `index` FROM spikes WHERE analysis_id = :analysisId AND channel = :channel AND value >= :startValue AND value <= :endValue ORDER BY `index`")
+    int[] loadSpikeIndicesForValueRange(long analysisId, int channel, int startValue, int endValue);
 }
@@ -17,9 +17,13 @@ import com.backyardbrains.db.entity.Train;
 
     @Delete void deleteTrain(Train train);
 
+    @Query("DELETE FROM trains WHERE analysis_id = :analysisId") void deleteTrains(long analysisId);
+
     @Query("SELECT * FROM trains WHERE analysis_id = :analysisId AND channel = :channel AND `order` = :order")
     Train loadTrain(long analysisId, int channel, int order);
 
+    @Query("SELECT * FROM trains WHERE id = :id") Train loadTrain(long id);
+
     @Query("SELECT * FROM trains WHERE analysis_id = :analysisId AND `order` = :order ORDER BY `order`")
     Train[] loadTrains(long analysisId, int order);
 
@@ -37,6 +41,6 @@ import com.backyardbrains.db.entity.Train;
     @Query("UPDATE trains SET `order` = `order` - 1 WHERE analysis_id = :analysisId AND `order` > :order")
     void updateTrainsAfterOrder(long analysisId, int order);
 
-    @Query("UPDATE trains SET spike_count = :spikeCount WHERE id = :id") void updateTrainSpikeCount(long id,
-        int spikeCount);
+    @Query("UPDATE trains SET lower_threshold = :lowerThreshold, upper_threshold = :upperThreshold, lower_left = :lowerLeft, spike_count = :spikeCount, cluster = -1 WHERE id = :id")
+    void updateTrainThresholds(long id, int lowerThreshold, int upperThreshold, boolean lowerLeft, int spikeCount);
 }
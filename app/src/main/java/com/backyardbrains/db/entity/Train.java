@@ -15,6 +15,11 @@ import androidx.room.PrimaryKey;
 }), foreignKeys = @ForeignKey(entity = SpikeAnalysis.class, parentColumns = "id", childColumns = "analysis_id", onDelete = ForeignKey.CASCADE))
 public class Train {
 
+    /**
+     * Cluster of the trains whose spikes are defined only by the thresholds.
+     */
+    public static final int NO_CLUSTER = -1;
+
     @PrimaryKey(autoGenerate = true) private long id;
     @ColumnInfo(name = "analysis_id") private long analysisId;
     private int channel;
@@ -23,13 +28,15 @@ public class Train {
     @ColumnInfo(name = "lower_threshold") private int lowerThreshold;
     @ColumnInfo(name = "upper_threshold") private int upperThreshold;
     @ColumnInfo(name = "lower_left") private boolean lowerLeft;
+    // if set, train holds only spikes sorted into this cluster whose values are between the thresholds
+    private int cluster;
 
     @Ignore public Train(long analysisId, int channel, int order) {
-        this(analysisId, channel, order, 0, 0, 0, true);
+        this(analysisId, channel, order, 0, 0, 0, true, NO_CLUSTER);
     }
 
     public Train(long analysisId, int channel, int order, int spikeCount, int lowerThreshold, int upperThreshold,
-        boolean lowerLeft) {
+        boolean lowerLeft, int cluster) {
         this.analysisId = analysisId;
         this.channel = channel;
         this.order = order;
@@ -37,6 +44,7 @@ public class Train {
         this.lowerThreshold = lowerThreshold;
         this.upperThreshold = upperThreshold;
         this.lowerLeft = lowerLeft;
+        this.cluster = cluster;
     }
 
     public long getId() {
@@ -102,4 +110,12 @@ public class Train {
     public void setLowerLeft(boolean lowerLeft) {
         this.lowerLeft = lowerLeft;
     }
+
+    public int getCluster() {
+        return cluster;
+    }
+
+    public void setCluster(int cluster) {
+        this.cluster = cluster;
+    }
 }
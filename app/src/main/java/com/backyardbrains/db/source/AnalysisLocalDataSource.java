@@ -2,50 +2,98 @@ package com.backyardbrains.db.source;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.room.RoomDatabase;
 import com.backyardbrains.db.AnalysisDataSource;
 import com.backyardbrains.db.dao.SpikeAnalysisDao;
 import com.backyardbrains.db.dao.SpikeDao;
 import com.backyardbrains.db.dao.TrainDao;
-import com.backyardbrains.db.entity.Spike;
 import com.backyardbrains.db.entity.SpikeAnalysis;
 import com.backyardbrains.db.entity.Train;
+import com.backyardbrains.db.store.SpikeAmplitudeHistogram;
+import com.backyardbrains.db.store.SpikeClusterFile;
+import com.backyardbrains.db.store.SpikeColumnFile;
+import com.backyardbrains.db.store.SpikeColumnStore;
+import com.backyardbrains.db.store.SpikeIndex;
+import com.backyardbrains.db.store.SpikeIndexCache;
+import com.backyardbrains.db.store.SpikeWindowCache;
 import com.backyardbrains.utils.AppExecutors;
 import com.backyardbrains.utils.ThresholdOrientation;
 import com.backyardbrains.vo.SpikeIndexValue;
-import com.backyardbrains.vo.SpikeIndexValueTime;
-import java.util.ArrayList;
-import java.util.List;
+import com.backyardbrains.vo.SpikeWindow;
+import com.crashlytics.android.Crashlytics;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
 public class AnalysisLocalDataSource implements AnalysisDataSource {
 
+    private static final String TAG = makeLogTag(AnalysisLocalDataSource.class);
+
+    // Max number of bytes taken by spike indices kept in memory (roughly 2.4M spikes)
+    private static final long MAX_SPIKE_INDEX_CACHE_SIZE = 32 * 1024 * 1024;
+    // Spike density around every value is checked within this fraction of the radius when looking for valleys
+    private static final int VALLEY_SMOOTHING_RATIO = 4;
+
     private static AnalysisLocalDataSource INSTANCE;
 
+    @SuppressWarnings("WeakerAccess") RoomDatabase db;
     @SuppressWarnings("WeakerAccess") SpikeAnalysisDao spikeAnalysisDao;
     @SuppressWarnings("WeakerAccess") SpikeDao spikeDao;
     @SuppressWarnings("WeakerAccess") TrainDao trainDao;
+    @SuppressWarnings("WeakerAccess") SpikeColumnStore spikeStore;
     @SuppressWarnings("WeakerAccess") AppExecutors appExecutors;
+    @SuppressWarnings("WeakerAccess") SpikeIndexCache spikeIndexCache;
+    @SuppressWarnings("WeakerAccess") SpikeWindowCache spikeWindowCache;
+    // Keys of the amplitude histograms that are being opened in background
+    @SuppressWarnings("WeakerAccess") final Set<String> openingHistograms = new HashSet<>();
 
     // Private constructor through which we create singleton instance
-    private AnalysisLocalDataSource(@NonNull SpikeAnalysisDao spikeAnalysisDao, @NonNull SpikeDao spikeDao,
-        @NonNull TrainDao trainDao, @NonNull AppExecutors appExecutors) {
+    private AnalysisLocalDataSource(@NonNull RoomDatabase db, @NonNull SpikeAnalysisDao spikeAnalysisDao,
+        @NonNull SpikeDao spikeDao, @NonNull TrainDao trainDao, @NonNull SpikeColumnStore spikeStore,
+        @NonNull AppExecutors appExecutors) {
+        this.db = db;
         this.spikeAnalysisDao = spikeAnalysisDao;
         this.spikeDao = spikeDao;
         this.trainDao = trainDao;
+        this.spikeStore = spikeStore;
         this.appExecutors = appExecutors;
+        this.spikeIndexCache = new SpikeIndexCache(new SpikeIndexCache.Loader() {
+            @Override public int count(long analysisId, int channel) {
+                return loadSpikeIndexCount(analysisId, channel);
+            }
+
+            @Nullable @Override public SpikeIndex load(long analysisId, int channel) {
+                return loadSpikeIndex(analysisId, channel);
+            }
+        }, appExecutors.diskIO(), MAX_SPIKE_INDEX_CACHE_SIZE);
+        // windows are loaded on the same thread that saves trains so they are never older than the last save
+        this.spikeWindowCache = new SpikeWindowCache(this::loadSpikeWindowByTrain, appExecutors.diskIO());
+
+        // clean up after analyses that were interrupted before they were saved, store itself makes sure this happens
+        // before the first writer is created so it can be done in background
+        appExecutors.diskIO().execute(spikeStore::deletePending);
     }
 
     /**
      * Returns singleton instance of {@link AnalysisLocalDataSource} with default configuration.
      */
-    public static AnalysisLocalDataSource get(@NonNull SpikeAnalysisDao spikeAnalysisDao, @NonNull SpikeDao spikeDao,
-        @NonNull TrainDao trainDao, @NonNull AppExecutors appExecutors) {
+    public static AnalysisLocalDataSource get(@NonNull RoomDatabase db, @NonNull SpikeAnalysisDao spikeAnalysisDao,
+        @NonNull SpikeDao spikeDao, @NonNull TrainDao trainDao, @NonNull SpikeColumnStore spikeStore,
+        @NonNull AppExecutors appExecutors) {
         if (INSTANCE == null) {
             synchronized (AnalysisLocalDataSource.class) {
                 if (INSTANCE == null) {
-                    INSTANCE = new AnalysisLocalDataSource(spikeAnalysisDao, spikeDao, trainDao, appExecutors);
+                    INSTANCE = new AnalysisLocalDataSource(db, spikeAnalysisDao, spikeDao, trainDao, spikeStore,
+                        appExecutors);
                 }
             }
         }
@@ -90,27 +138,38 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
     /**
      * {@inheritDoc}
      *
+     * <p>
+     * Spikes are written to the {@link SpikeColumnStore} as they are produced and the database holds only the analysis.
+     * Spikes become visible together with the analysis so partially saved analysis is never visible. Analysis is saved
+     * only if at least one spike is produced. This method blocks so it shouldn't be called from the main thread.
+     *
      * @param filePath Path to the file for which analysis is being saved.
-     * @param spikesAnalysis {@link Spike} objects that make the analysis.
+     * @param producer Producer that passes all the spikes of the analysis to the writer.
      */
-    @Override public void saveSpikeAnalysis(@NonNull final String filePath, @NonNull final Spike[] spikesAnalysis) {
-        final Runnable runnable = () -> {
-            if (spikesAnalysis.length > 0) {
-                // save spike analysis
-                final SpikeAnalysis analysis = new SpikeAnalysis(filePath);
-                final long analysisId = spikeAnalysisDao.insertSpikeAnalysis(analysis);
-
-                if (analysisId > 0) {
-                    // save spikes
-                    for (Spike spike : spikesAnalysis) {
-                        spike.setAnalysisId(analysisId);
-                    }
-                    spikeDao.insertSpikes(spikesAnalysis);
+    @Override public boolean saveSpikeAnalysis(@NonNull final String filePath,
+        @NonNull final SpikeAnalysisProducer producer) {
+        try {
+            return SpikeAnalysisSaver.save(spikeStore, producer, writer -> {
+                db.beginTransaction();
+                try {
+                    // save spike analysis and make spikes visible as part of it
+                    final long analysisId = spikeAnalysisDao.insertSpikeAnalysis(new SpikeAnalysis(filePath));
+                    if (analysisId <= 0) return false;
+
+                    writer.commit(analysisId);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
                 }
-            }
-        };
+                LOGD(TAG, "Saved " + writer.getSpikeCount() + " spikes");
 
-        appExecutors.diskIO().execute(runnable);
+                return true;
+            });
+        } catch (IOException e) {
+            LOGE(TAG, "IOException while saving spikes: " + e.toString());
+            Crashlytics.logException(e);
+            return false;
+        }
     }
 
     /**
@@ -134,7 +193,15 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
      * @param filePath Path to the file for which analysis, all trains and spikes should be deleted.
      */
     @Override public void deleteSpikeAnalysis(String filePath) {
-        final Runnable runnable = () -> spikeAnalysisDao.deleteSpikeAnalysis(filePath);
+        final Runnable runnable = () -> {
+            final SpikeAnalysis analysis = spikeAnalysisDao.loadSpikeAnalysis(filePath);
+            spikeAnalysisDao.deleteSpikeAnalysis(filePath);
+            if (analysis != null) {
+                spikeIndexCache.evict(analysis.getId());
+                spikeWindowCache.invalidate();
+                spikeStore.delete(analysis.getId());
+            }
+        };
 
         appExecutors.diskIO().execute(runnable);
     }
@@ -160,21 +227,129 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
      */
     @Override public SpikeIndexValue[] getSpikeAnalysisForIndexRange(long analysisId, int channel, int startIndex,
         int endIndex) {
-        return spikeDao.loadSpikesForIndexRange(analysisId, channel, startIndex, endIndex);
+        // in-memory index is used once it's loaded so drawing doesn't wait for it
+        final SpikeIndex index = spikeIndexCache.peek(analysisId, channel);
+        if (index != null) {
+            final int from = index.findFirstAtOrAfter(startIndex);
+            final int count = Math.max(0, index.findFirstAfter(endIndex) - from);
+            final SpikeIndexValue[] result = new SpikeIndexValue[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = new SpikeIndexValue(index.getValue(from + i), index.getIndex(from + i));
+            }
+            return result;
+        }
+
+        // analyses saved before spikes were moved to the column store still have them in the database
+        if (!spikeStore.contains(analysisId)) {
+            return spikeDao.loadSpikesForIndexRange(analysisId, channel, startIndex, endIndex);
+        }
+
+        final SpikeColumnFile spikes = openSpikes(analysisId, channel);
+        if (spikes == null) return new SpikeIndexValue[0];
+
+        final int from = spikes.findFirstAtOrAfter(startIndex);
+        final int to = spikes.findFirstAfter(endIndex);
+        final int count = Math.max(0, to - from);
+        final int[] indices = new int[count];
+        final short[] values = new short[count];
+        spikes.readIndices(from, from + count, indices);
+        spikes.readValues(from, from + count, values);
+        final SpikeIndexValue[] result = new SpikeIndexValue[count];
+        for (int i = 0; i < count; i++) result[i] = new SpikeIndexValue(values[i], indices[i]);
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This method blocks so it shouldn't be called from the main thread.
+     *
+     * @param analysisId Id of the {@link SpikeAnalysis} for which spike indices should be returned.
+     * @param channel Channel for which spike indices should be returned.
+     * @return Sample indices of all the spikes found on specified channel sorted in ascending order, or {@code null}
+     *     if spikes of the analysis were saved before they were moved to the column store.
+     */
+    @Override @Nullable public int[] getSpikeIndices(long analysisId, int channel) {
+        final SpikeIndex index = spikeIndexCache.peek(analysisId, channel);
+        if (index != null) {
+            final int[] indices = new int[index.getSpikeCount()];
+            for (int i = 0; i < indices.length; i++) indices[i] = index.getIndex(i);
+            return indices;
+        }
+
+        if (!spikeStore.contains(analysisId)) return null;
+
+        final SpikeColumnFile spikes = openSpikes(analysisId, channel);
+        if (spikes == null) return new int[0];
+
+        final int[] indices = new int[spikes.getSpikeCount()];
+        spikes.readIndices(0, indices.length, indices);
+        return indices;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Spikes are counted from the amplitude histogram saved together with them, or by binary search of the spikes if
+     * analysis was saved before histograms were or histogram is still being opened in background, so this method can
+     * be called while threshold handles are dragged.
+     *
+     * @param analysisId Id of the {@link SpikeAnalysis} whose spikes should be counted.
+     * @param channel Channel for which spikes should be counted.
+     * @param startValue Lowest value of the counted spikes.
+     * @param endValue Highest value of the counted spikes.
+     * @return Number of spikes whose values are between specified values, or {@code -1} if spikes of the analysis
+     *     were saved before they were moved to the column store.
+     */
+    @Override public int getSpikeCountForValueRange(long analysisId, int channel, int startValue, int endValue) {
+        final SpikeAmplitudeHistogram histogram = peekHistogram(analysisId, channel);
+        if (histogram != null) return histogram.countValueRange(startValue, endValue);
+
+        final SpikeIndex index = spikeIndexCache.peek(analysisId, channel);
+        if (index != null) return index.countValueRange(startValue, endValue);
+
+        // counting spikes that are still in the database would block on it
+        if (!spikeStore.contains(analysisId)) return -1;
+
+        final SpikeColumnFile spikes = openSpikes(analysisId, channel);
+        return spikes != null ? spikes.countValueRange(startValue, endValue) : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param analysisId Id of the {@link SpikeAnalysis} whose spikes are checked.
+     * @param channel Channel whose spikes are checked.
+     * @param value Value around which the valley is looked for.
+     * @param radius Max distance of the valley from specified value.
+     * @return Value within specified radius with the lowest spike density, or specified value if amplitude histogram
+     *     of the spikes is not stored or is still being opened in background.
+     */
+    @Override public int findSpikeValueValley(long analysisId, int channel, int value, int radius) {
+        final SpikeAmplitudeHistogram histogram = peekHistogram(analysisId, channel);
+        if (histogram == null) return value;
+
+        return histogram.findValley(value, radius, Math.max(1, radius / VALLEY_SMOOTHING_RATIO));
     }
 
     /**
      * {@inheritDoc}
      *
-     * @param trainId Id of the {@link Train} for which spike values and indices should be queried.
+     * <p>
+     * Spikes are prefetched on the background thread so this method never blocks and can be called while drawing.
+     *
+     * @param trainId Id of the {@link Train} for which spike values and indices should be returned.
      * @param channel Channel that the {@link Train} with specified {@code trainId} belongs to.
-     * @param startIndex Index of the first sample in the range for which spikes should be retrieved.
-     * @param endIndex Index of the last sample in the range for which spikes should be retrieved.
-     * @return Array of spike values and indices located between specified {@code startIndex} and {@code endIndex}.
+     * @param startIndex Index of the first sample in the range for which spikes should be returned.
+     * @param endIndex Index of the last sample in the range for which spikes should be returned.
+     * @return The latest loaded window of spikes, or {@code null} if none has been loaded yet.
      */
-    @Override public SpikeIndexValue[] getSpikeAnalysisByTrainForIndexRange(long trainId, int channel, int startIndex,
+    @Override @Nullable public SpikeWindow getSpikeWindowByTrain(long trainId, int channel, int startIndex,
         int endIndex) {
-        return spikeDao.loadSpikesByTrainForIndexRange(trainId, channel, startIndex, endIndex);
+        return spikeWindowCache.get(trainId, channel, startIndex, endIndex);
     }
 
     /**
@@ -193,7 +368,7 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
                 if (trainCount > 0) {
                     final float[][] spikeAnalysisTrains = new float[trainCount][];
                     for (int i = 0; i < trainCount; i++) {
-                        spikeAnalysisTrains[i] = spikeDao.loadSpikeTimes(trains[i].getId());
+                        spikeAnalysisTrains[i] = loadTrainSpikeTimes(trains[i]);
                     }
                     appExecutors.mainThread().execute(() -> {
                         if (callback != null) {
@@ -231,7 +406,7 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
                 if (trainCount > 0) {
                     final int[][] spikeAnalysisTrains = new int[trainCount][];
                     for (int i = 0; i < trainCount; i++) {
-                        spikeAnalysisTrains[i] = spikeDao.loadSpikeIndices(trains[i].getId());
+                        spikeAnalysisTrains[i] = loadTrainSpikeIndices(trains[i]);
                     }
                     appExecutors.mainThread().execute(() -> {
                         if (callback != null) {
@@ -253,6 +428,38 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
         appExecutors.diskIO().execute(runnable);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Trains found on the same channel are counted in a single pass over the spikes of the channel that doesn't load
+     * all of them into memory.
+     *
+     * @param filePath Absolute path of the audio file for which spikes should be counted.
+     * @param binSize Number of samples within a single bin.
+     * @param binCount Number of bins spikes of every train are counted in.
+     * @param callback Callback that's invoked when spikes are counted.
+     */
+    @Override public void getSpikeAnalysisCountsByTrains(@NonNull final String filePath, final int binSize,
+        final int binCount, @Nullable final GetAnalysisCallback<int[][]> callback) {
+        final Runnable runnable = () -> {
+            final SpikeAnalysis analysis = spikeAnalysisDao.loadSpikeAnalysis(filePath);
+            final Train[] trains = analysis != null ? trainDao.loadTrains(analysis.getId()) : new Train[0];
+            if (trains.length > 0) {
+                final int[][] spikeAnalysisCounts = loadTrainSpikeCounts(analysis.getId(), trains, binSize, binCount);
+                appExecutors.mainThread().execute(() -> {
+                    if (callback != null) callback.onAnalysisLoaded(spikeAnalysisCounts);
+                });
+            } else {
+                appExecutors.mainThread().execute(() -> {
+                    if (callback != null) callback.onDataNotAvailable();
+                });
+            }
+        };
+
+        appExecutors.diskIO().execute(runnable);
+    }
+
     //=================================================
     //  SPIKE TRAINS
     //=================================================
@@ -360,7 +567,7 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
      */
     @Override public void saveSpikeAnalysisTrain(@NonNull final String filePath, int channel, final int order,
         @ThresholdOrientation final int orientation, final int value) {
-        final Runnable runnable = () -> {
+        final Runnable runnable = () -> db.runInTransaction(() -> {
             final SpikeAnalysis analysis = spikeAnalysisDao.loadSpikeAnalysis(filePath);
             if (analysis != null) {
                 final long analysisId = analysis.getId();
@@ -373,35 +580,14 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
                         : train.isLowerLeft() ? train.getUpperThreshold() : train.getLowerThreshold();
                     final int lower = Math.min(left, right);
                     final int upper = Math.max(left, right);
-                    final long trainId = train.getId();
-
-                    // remove old train and all linked spike trains (cascade delete)
-                    trainDao.deleteTrain(train);
-
-                    // remove all linked spikes
-                    spikeDao.deleteSpikes(trainId);
-
-                    // save newly configured train
-                    trainDao.insertTrain(new Train(analysisId, channel, order, 0, lower, upper, left < right));
-
-                    // save new entries to spike_trains table linked to this train
-                    final SpikeIndexValueTime[] spikes =
-                        spikeDao.loadSpikesForValueRange(analysisId, channel, lower, upper);
-                    final Train savedTrain = trainDao.loadTrain(analysisId, channel, order);
-                    final List<Spike> newSpikes = new ArrayList<>();
-                    for (SpikeIndexValueTime spike : spikes) {
-                        newSpikes.add(
-                            new Spike(savedTrain.getAnalysisId(), savedTrain.getId(), channel, spike.getValue(),
-                                spike.getIndex(), spike.getTime()));
-                    }
-                    final int len = newSpikes.size();
-                    if (len > 0) {
-                        spikeDao.insertSpikes(newSpikes);
-                        trainDao.updateTrainSpikeCount(savedTrain.getId(), len);
-                    }
+
+                    // spikes belonging to the train are defined by the thresholds so we only need to update them
+                    final int spikeCount = loadSpikeCount(analysisId, channel, lower, upper);
+                    trainDao.updateTrainThresholds(train.getId(), lower, upper, left < right, spikeCount);
+                    spikeWindowCache.invalidate();
                 }
             }
-        };
+        });
 
         appExecutors.diskIO().execute(runnable);
     }
@@ -415,25 +601,19 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
      */
     @Override public void removeSpikeAnalysisTrain(@NonNull final String filePath, final int order,
         @Nullable final RemoveSpikeAnalysisTrainCallback callback) {
-        final Runnable runnable = () -> {
+        final Runnable runnable = () -> db.runInTransaction(() -> {
             final SpikeAnalysis analysis = spikeAnalysisDao.loadSpikeAnalysis(filePath);
             if (analysis != null) {
                 final long analysisId = analysis.getId();
                 final Train[] trains = trainDao.loadTrains(analysisId, order);
                 /*final Train train = trainDao.loadTrain(analysisId, , order); */
                 if (trains != null && trains.length > 0) {
-                    for (Train train : trains) {
-                        final long trainId = train.getId();
-
-                        // remove train
-                        trainDao.deleteTrain(train);
-
-                        // remove all linked spikes
-                        spikeDao.deleteSpikes(trainId);
-                    }
+                    // remove trains of all channels
+                    for (Train train : trains) trainDao.deleteTrain(train);
 
                     // update order of all trains after deleted one
                     trainDao.updateTrainsAfterOrder(analysisId, order);
+                    spikeWindowCache.invalidate();
 
                     // get fresh train count
                     int trainCount = trainDao.loadTrainCount(analysisId);
@@ -443,8 +623,444 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
                     });
                 }
             }
-        };
+        });
 
         appExecutors.diskIO().execute(runnable);
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Existing trains of the analysis are replaced by one train per cluster. Thresholds of every train are set to the
+     * lowest and highest value of its spikes so they can still be dragged, which turns it back into a threshold
+     * train. Channels with fewer clusters get empty trains. This method blocks so it shouldn't be called from the main
+     * thread.
+     *
+     * @param filePath Absolute path of the audio file whose spikes were clustered.
+     * @param clusters Cluster of every spike of every channel, in the same order as returned by
+     *     {@link #getSpikeIndices(long, int)}, or {@code null} for channels that weren't clustered.
+     * @param clusterCounts Number of clusters spikes of every channel were sorted into.
+     */
+    @Override public boolean saveSpikeClusters(@NonNull String filePath, @NonNull byte[][] clusters,
+        @NonNull int[] clusterCounts) {
+        final SpikeAnalysis analysis = spikeAnalysisDao.loadSpikeAnalysis(filePath);
+        if (analysis == null || !spikeStore.contains(analysis.getId())) return false;
+
+        final long analysisId = analysis.getId();
+        final int channelCount = clusters.length;
+        int orderCount = 0;
+        for (int count : clusterCounts) orderCount = Math.max(orderCount, count);
+
+        final Train[] trains = new Train[orderCount * channelCount];
+        // clusters replace the previous ones only once the trains are saved
+        final boolean[] written = new boolean[channelCount];
+        try {
+            for (int channel = 0; channel < channelCount; channel++) {
+                final int clusterCount = clusters[channel] != null ? clusterCounts[channel] : 0;
+                if (clusters[channel] != null) {
+                    spikeStore.writeClusters(analysisId, channel, clusters[channel]);
+                    written[channel] = true;
+                }
+
+                final SpikeColumnFile spikes = clusterCount > 0 ? openSpikes(analysisId, channel) : null;
+                final int[] spikeCounts = new int[clusterCount];
+                final int[] lowerThresholds = new int[clusterCount];
+                final int[] upperThresholds = new int[clusterCount];
+                if (spikes != null) {
+                    Arrays.fill(lowerThresholds, Integer.MAX_VALUE);
+                    Arrays.fill(upperThresholds, Integer.MIN_VALUE);
+                    final int count = Math.min(spikes.getSpikeCount(), clusters[channel].length);
+                    final short[] values = new short[count];
+                    spikes.readValues(0, count, values);
+                    for (int i = 0; i < count; i++) {
+                        final int cluster = clusters[channel][i];
+                        if (cluster < 0 || cluster >= clusterCount) continue;
+
+                        spikeCounts[cluster]++;
+                        lowerThresholds[cluster] = Math.min(lowerThresholds[cluster], values[i]);
+                        upperThresholds[cluster] = Math.max(upperThresholds[cluster], values[i]);
+                    }
+                }
+                for (int order = 0; order < orderCount; order++) {
+                    trains[order * channelCount + channel] =
+                        order < clusterCount && spikeCounts[order] > 0 ? new Train(analysisId, channel, order,
+                            spikeCounts[order], lowerThresholds[order], upperThresholds[order], true, order)
+                            : new Train(analysisId, channel, order);
+                }
+            }
+        } catch (IOException e) {
+            LOGE(TAG, "IOException while saving spike clusters: " + e.toString());
+            Crashlytics.logException(e);
+            discardClusters(analysisId, written);
+            return false;
+        }
+
+        try {
+            db.runInTransaction(() -> {
+                trainDao.deleteTrains(analysisId);
+                trainDao.insertTrains(trains);
+            });
+        } catch (RuntimeException e) {
+            LOGE(TAG, "Trains of spike clusters couldn't be saved: " + e.toString());
+            Crashlytics.logException(e);
+            discardClusters(analysisId, written);
+            return false;
+        }
+        try {
+            for (int channel = 0; channel < channelCount; channel++) {
+                if (written[channel]) spikeStore.publishClusters(analysisId, channel);
+            }
+        } catch (IOException e) {
+            LOGE(TAG, "IOException while saving spike clusters: " + e.toString());
+            Crashlytics.logException(e);
+            discardClusters(analysisId, written);
+            return false;
+        }
+        spikeWindowCache.invalidate();
+        LOGD(TAG, "Saved " + orderCount + " spike clusters");
+
+        return true;
+    }
+
+    // Drops clusters written for the channels that are set in specified array, previous clusters are kept
+    private void discardClusters(long analysisId, @NonNull boolean[] written) {
+        for (int channel = 0; channel < written.length; channel++) {
+            if (written[channel]) spikeStore.discardClusters(analysisId, channel);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public void trimMemory() {
+        spikeIndexCache.clear();
+        spikeWindowCache.clear();
+    }
+
+    // Returns values and indices of the spikes belonging to the train with specified id located between specified
+    // start and end index
+    @SuppressWarnings("WeakerAccess") @NonNull SpikeWindow loadSpikeWindowByTrain(long trainId, int channel,
+        int startIndex, int endIndex) {
+        // train holds all the spikes of its analysis and channel whose values are between train thresholds
+        final Train train = trainDao.loadTrain(trainId);
+        if (train == null || train.getSpikeCount() == 0) {
+            return new SpikeWindow(startIndex, endIndex, new int[0], new float[0]);
+        }
+
+        final long analysisId = train.getAnalysisId();
+        final int lower = train.getLowerThreshold();
+        final int upper = train.getUpperThreshold();
+        final int cluster = train.getCluster();
+        final SpikeClusterFile clusters = cluster != Train.NO_CLUSTER ? openClusters(analysisId, channel) : null;
+        if (cluster != Train.NO_CLUSTER && clusters == null) {
+            return new SpikeWindow(startIndex, endIndex, new int[0], new float[0]);
+        }
+
+        final int[] indices;
+        final short[] values;
+        // position of the first spike within the channel, needed to look up the clusters
+        int from = 0;
+        final SpikeIndex index = spikeIndexCache.peek(analysisId, channel);
+        if (index != null) {
+            from = index.findFirstAtOrAfter(startIndex);
+            final int count = Math.max(0, index.findFirstAfter(endIndex) - from);
+            indices = new int[count];
+            values = new short[count];
+            for (int i = 0; i < count; i++) {
+                indices[i] = index.getIndex(from + i);
+                values[i] = index.getValue(from + i);
+            }
+        } else if (!spikeStore.contains(analysisId)) {
+            // analyses saved before spikes were moved to the column store still have them in the database
+            final SpikeIndexValue[] spikes =
+                spikeDao.loadSpikesForIndexAndValueRange(analysisId, channel, startIndex, endIndex, lower, upper);
+            indices = new int[spikes.length];
+            values = new short[spikes.length];
+            for (int i = 0; i < spikes.length; i++) {
+                indices[i] = spikes[i].index;
+                values[i] = (short) spikes[i].value;
+            }
+        } else {
+            final SpikeColumnFile spikes = openSpikes(analysisId, channel);
+            from = spikes != null ? spikes.findFirstAtOrAfter(startIndex) : 0;
+            final int count = spikes != null ? Math.max(0, spikes.findFirstAfter(endIndex) - from) : 0;
+            indices = new int[count];
+            values = new short[count];
+            if (spikes != null) {
+                spikes.readIndices(from, from + count, indices);
+                spikes.readValues(from, from + count, values);
+            }
+        }
+
+        // spikes of cluster trains also need to be sorted into the train cluster
+        final boolean[] inTrain = new boolean[values.length];
+        int trainCount = 0;
+        for (int i = 0; i < values.length; i++) {
+            inTrain[i] = values[i] >= lower && values[i] <= upper && (clusters == null
+                || clusters.getCluster(from + i) == cluster);
+            if (inTrain[i]) trainCount++;
+        }
+        final int[] trainIndices = new int[trainCount];
+        final float[] trainValues = new float[trainCount];
+        for (int i = 0, j = 0; i < values.length; i++) {
+            if (inTrain[i]) {
+                trainIndices[j] = indices[i];
+                trainValues[j++] = values[i];
+            }
+        }
+
+        return new SpikeWindow(startIndex, endIndex, trainIndices, trainValues);
+    }
+
+    // Returns number of spikes of the analysis with specified id found on specified channel whose values are within
+    // the specified range
+    @SuppressWarnings("WeakerAccess") int loadSpikeCount(long analysisId, int channel, int startValue, int endValue) {
+        final SpikeAmplitudeHistogram histogram = openHistogram(analysisId, channel);
+        if (histogram != null) return histogram.countValueRange(startValue, endValue);
+
+        final SpikeIndex index = spikeIndexCache.peek(analysisId, channel);
+        if (index != null) return index.countValueRange(startValue, endValue);
+
+        // analyses saved before spikes were moved to the column store still have them in the database
+        if (!spikeStore.contains(analysisId)) {
+            return spikeDao.loadSpikeCountForValueRange(analysisId, channel, startValue, endValue);
+        }
+
+        final SpikeColumnFile spikes = openSpikes(analysisId, channel);
+        return spikes != null ? spikes.countValueRange(startValue, endValue) : 0;
+    }
+
+    // Returns times of all the spikes that belong to specified train
+    @SuppressWarnings("WeakerAccess") @NonNull float[] loadTrainSpikeTimes(@NonNull Train train) {
+        // train is empty until its thresholds are set so there is nothing to look up
+        if (train.getSpikeCount() == 0) return new float[0];
+
+        final long analysisId = train.getAnalysisId();
+        final int channel = train.getChannel();
+        final int[] clusterPositions = train.getCluster() != Train.NO_CLUSTER ? loadClusterPositions(train) : null;
+        final SpikeIndex index = spikeIndexCache.peek(analysisId, channel);
+        if (index != null) {
+            final int[] positions = clusterPositions != null ? clusterPositions
+                : index.findPositionsForValueRange(train.getLowerThreshold(), train.getUpperThreshold());
+            final float[] times = new float[positions.length];
+            for (int i = 0; i < positions.length; i++) times[i] = index.getTime(positions[i]);
+            return times;
+        }
+
+        if (!spikeStore.contains(analysisId)) {
+            return spikeDao.loadSpikeTimesForValueRange(analysisId, channel, train.getLowerThreshold(),
+                train.getUpperThreshold());
+        }
+
+        final SpikeColumnFile spikes = openSpikes(analysisId, channel);
+        if (spikes == null) return new float[0];
+
+        final int[] positions = clusterPositions != null ? clusterPositions
+            : spikes.findPositionsForValueRange(train.getLowerThreshold(), train.getUpperThreshold());
+        final float[] times = new float[positions.length];
+        spikes.readTimes(positions, times);
+        return times;
+    }
+
+    // Returns sample indices of all the spikes that belong to specified train
+    @SuppressWarnings("WeakerAccess") @NonNull int[] loadTrainSpikeIndices(@NonNull Train train) {
+        // train is empty until its thresholds are set so there is nothing to look up
+        if (train.getSpikeCount() == 0) return new int[0];
+
+        final long analysisId = train.getAnalysisId();
+        final int channel = train.getChannel();
+        final int[] clusterPositions = train.getCluster() != Train.NO_CLUSTER ? loadClusterPositions(train) : null;
+        final SpikeIndex index = spikeIndexCache.peek(analysisId, channel);
+        if (index != null) {
+            final int[] positions = clusterPositions != null ? clusterPositions
+                : index.findPositionsForValueRange(train.getLowerThreshold(), train.getUpperThreshold());
+            final int[] indices = new int[positions.length];
+            for (int i = 0; i < positions.length; i++) indices[i] = index.getIndex(positions[i]);
+            return indices;
+        }
+
+        if (!spikeStore.contains(analysisId)) {
+            return spikeDao.loadSpikeIndicesForValueRange(analysisId, channel, train.getLowerThreshold(),
+                train.getUpperThreshold());
+        }
+
+        final SpikeColumnFile spikes = openSpikes(analysisId, channel);
+        if (spikes == null) return new int[0];
+
+        final int[] positions = clusterPositions != null ? clusterPositions
+            : spikes.findPositionsForValueRange(train.getLowerThreshold(), train.getUpperThreshold());
+        final int[] indices = new int[positions.length];
+        spikes.readIndices(positions, indices);
+        return indices;
+    }
+
+    // Returns number of spikes of every specified train of the analysis with specified id within every bin
+    @NonNull private int[][] loadTrainSpikeCounts(long analysisId, @NonNull Train[] trains, int binSize,
+        int binCount) {
+        final int[][] counts = new int[trains.length][binCount];
+        if (!spikeStore.contains(analysisId)) {
+            // analyses saved before spikes were moved to the column store still have them in the database
+            for (int i = 0; i < trains.length; i++) {
+                for (int index : loadTrainSpikeIndices(trains[i])) {
+                    if (index / binSize < binCount) counts[i][index / binSize]++;
+                }
+            }
+            return counts;
+        }
+
+        final boolean[] counted = new boolean[trains.length];
+        for (int i = 0; i < trains.length; i++) {
+            if (counted[i]) continue;
+
+            // all trains of the channel are counted together
+            final int channel = trains[i].getChannel();
+            int channelTrainCount = 0;
+            for (int j = i; j < trains.length; j++) {
+                if (trains[j].getChannel() == channel) channelTrainCount++;
+            }
+            final int[] minValues = new int[channelTrainCount];
+            final int[] maxValues = new int[channelTrainCount];
+            final int[] clusters = new int[channelTrainCount];
+            final int[][] channelCounts = new int[channelTrainCount][];
+            for (int j = i, k = 0; j < trains.length; j++) {
+                if (trains[j].getChannel() != channel) continue;
+
+                minValues[k] = trains[j].getLowerThreshold();
+                maxValues[k] = trains[j].getUpperThreshold();
+                clusters[k] = trains[j].getCluster();
+                channelCounts[k++] = counts[j];
+                counted[j] = true;
+            }
+
+            final SpikeColumnFile spikes = openSpikes(analysisId, channel);
+            if (spikes != null) {
+                spikes.countIndexBins(binSize, minValues, maxValues, clusters, openClusters(analysisId, channel),
+                    channelCounts);
+            }
+        }
+        return counts;
+    }
+
+    // Returns number of spikes of the analysis with specified id found on specified channel, or -1 if they can't be
+    // counted
+    @SuppressWarnings("WeakerAccess") int loadSpikeIndexCount(long analysisId, int channel) {
+        // analyses saved before spikes were moved to the column store still have them in the database
+        if (!spikeStore.contains(analysisId)) {
+            return spikeDao.loadSpikeCountForValueRange(analysisId, channel, Short.MIN_VALUE, Short.MAX_VALUE);
+        }
+
+        try {
+            final SpikeColumnFile spikes = spikeStore.open(analysisId, channel);
+            return spikes != null ? spikes.getSpikeCount() : 0;
+        } catch (IOException e) {
+            LOGE(TAG, "IOException while opening spikes: " + e.toString());
+            Crashlytics.logException(e);
+            return -1;
+        }
+    }
+
+    // Loads all the spikes of the analysis with specified id found on specified channel into in-memory index. Returns
+    // null if spikes can't be loaded.
+    @SuppressWarnings("WeakerAccess") @Nullable SpikeIndex loadSpikeIndex(long analysisId, int channel) {
+        final long start = System.currentTimeMillis();
+        final int[] indices;
+        final float[] times;
+        final short[] values;
+        if (spikeStore.contains(analysisId)) {
+            final SpikeColumnFile spikes;
+            try {
+                spikes = spikeStore.open(analysisId, channel);
+            } catch (IOException e) {
+                LOGE(TAG, "IOException while opening spikes: " + e.toString());
+                Crashlytics.logException(e);
+                return null;
+            }
+
+            final int count = spikes != null ? spikes.getSpikeCount() : 0;
+            indices = new int[count];
+            times = new float[count];
+            values = new short[count];
+            if (spikes != null) {
+                spikes.readIndices(0, count, indices);
+                spikes.readTimes(0, count, times);
+                spikes.readValues(0, count, values);
+            }
+        } else {
+            // columns are loaded separately so no object is created per spike
+            indices = spikeDao.loadSpikeIndices(analysisId, channel);
+            times = spikeDao.loadSpikeTimes(analysisId, channel);
+            final int[] intValues = spikeDao.loadSpikeValues(analysisId, channel);
+            // spikes could have been deleted between the queries
+            if (times.length != indices.length || intValues.length != indices.length) return null;
+
+            values = new short[intValues.length];
+            for (int i = 0; i < intValues.length; i++) values[i] = (short) intValues[i];
+        }
+        final SpikeIndex index = new SpikeIndex(indices, times, values);
+        LOGD(TAG, "Loaded spike index of " + index.getSpikeCount() + " spikes in " + (System.currentTimeMillis()
+            - start) + "ms");
+
+        return index;
+    }
+
+    // Returns positions of all the spikes that belong to specified cluster train
+    @NonNull private int[] loadClusterPositions(@NonNull Train train) {
+        final SpikeClusterFile clusters = openClusters(train.getAnalysisId(), train.getChannel());
+        return clusters != null ? clusters.findPositionsForCluster(train.getCluster()) : new int[0];
+    }
+
+    // Opens file with clusters that spikes of the analysis with specified id found on specified channel were sorted
+    // into
+    @Nullable private SpikeClusterFile openClusters(long analysisId, int channel) {
+        try {
+            return spikeStore.openClusters(analysisId, channel);
+        } catch (IOException e) {
+            LOGE(TAG, "IOException while opening spike clusters: " + e.toString());
+            Crashlytics.logException(e);
+            return null;
+        }
+    }
+
+    // Returns amplitude histogram of the spikes of the analysis with specified id found on specified channel if it's
+    // already open. Otherwise starts opening it in background and returns null, so it never blocks the caller.
+    @Nullable private SpikeAmplitudeHistogram peekHistogram(long analysisId, int channel) {
+        final SpikeAmplitudeHistogram histogram = spikeStore.peekHistogram(analysisId, channel);
+        if (histogram != null) return histogram;
+
+        final String key = analysisId + File.separator + channel;
+        synchronized (openingHistograms) {
+            if (!openingHistograms.add(key)) return null;
+        }
+        appExecutors.diskIO().execute(() -> {
+            openHistogram(analysisId, channel);
+            synchronized (openingHistograms) {
+                openingHistograms.remove(key);
+            }
+        });
+        return null;
+    }
+
+    // Opens amplitude histogram of the spikes of the analysis with specified id found on specified channel
+    @SuppressWarnings("WeakerAccess") @Nullable SpikeAmplitudeHistogram openHistogram(long analysisId,
+        int channel) {
+        try {
+            return spikeStore.openHistogram(analysisId, channel);
+        } catch (IOException e) {
+            LOGE(TAG, "IOException while opening spike amplitude histogram: " + e.toString());
+            Crashlytics.logException(e);
+            return null;
+        }
+    }
+
+    // Opens column file with spikes of the analysis with specified id found on specified channel
+    @Nullable private SpikeColumnFile openSpikes(long analysisId, int channel) {
+        try {
+            return spikeStore.open(analysisId, channel);
+        } catch (IOException e) {
+            LOGE(TAG, "IOException while opening spikes: " + e.toString());
+            Crashlytics.logException(e);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,60 @@
+package com.backyardbrains.db.source;
+
+import androidx.annotation.NonNull;
+import com.backyardbrains.db.AnalysisDataSource.SpikeAnalysisProducer;
+import com.backyardbrains.db.store.SpikeColumnStore;
+import com.backyardbrains.db.store.SpikeColumnWriter;
+import java.io.IOException;
+
+/**
+ * Saves spikes of a new spike analysis to the {@link SpikeColumnStore}. All spikes are produced and column files are
+ * built before the analysis is committed, so the database transaction the analysis is committed in is only held while
+ * its row is inserted.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class SpikeAnalysisSaver {
+
+    interface Committer {
+        /**
+         * Inserts the analysis and commits spikes of specified {@code writer} under its id within a single transaction.
+         * Returns {@code false} if analysis couldn't be inserted.
+         */
+        boolean commit(@NonNull SpikeColumnWriter writer) throws IOException;
+    }
+
+    /**
+     * Passes all spikes of specified {@code producer} to a new writer of specified {@code store} and, if producer
+     * succeeds and produces at least one spike, passes the writer to specified {@code committer}. Written spikes are
+     * discarded if they are not committed.
+     *
+     * @return Result of the producer if no spikes were produced, whether analysis was committed otherwise.
+     */
+    static boolean save(@NonNull SpikeColumnStore store, @NonNull SpikeAnalysisProducer producer,
+        @NonNull Committer committer) throws IOException {
+        final SpikeColumnWriter writer = store.newWriter();
+        boolean committed = false;
+        try {
+            // writer interface doesn't allow checked exceptions so we save the first one and ignore everything after it
+            final IOException[] writeException = new IOException[1];
+            final boolean produced = producer.produce((channel, positive, values, indices, times, count) -> {
+                if (writeException[0] != null) return;
+                try {
+                    writer.write(channel, positive, values, indices, times, count);
+                } catch (IOException e) {
+                    writeException[0] = e;
+                }
+            });
+
+            if (writeException[0] != null) throw writeException[0];
+            if (!produced || writer.getSpikeCount() == 0) return produced;
+
+            // build column files before committing so database isn't locked while doing it
+            writer.finish();
+            committed = committer.commit(writer);
+            return committed;
+        } finally {
+            if (!committed) writer.abort();
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package com.backyardbrains.db.store;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.vo.AverageSpike;
+import com.backyardbrains.vo.EventTriggeredAverages;
+import com.backyardbrains.vo.FiringRateTimeline;
+import com.backyardbrains.vo.PowerSpectrum;
+import com.backyardbrains.vo.Psth;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps results of the finished analyses so they don't need to be computed again when the same recording is analysed
+ * with the same spike trains and parameters.
+ * <p>
+ * Results are saved as compact binary files named by the hash of their key and most recently used ones are also kept
+ * in memory. Key is built with {@link KeyBuilder} and starts with the fingerprint of the recording (path, size, last
+ * modification time and checksum of the header), so results of modified recordings are never returned. Total size of
+ * the saved files is limited and least recently used ones are deleted first.
+ * <p>
+ * Instances can be safely used from multiple threads, but all the methods access the file system so they should not
+ * be called from the main thread. Class doesn't depend on Android framework.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class AnalysisResultCache {
+
+    public static final String DEFAULT_DIR_NAME = "analysis-results";
+
+    // Should be incremented every time any of the analyses starts producing different results
+    private static final int RESULT_VERSION = 1;
+
+    private static final int MAGIC = 0x42594252; // "BYBR"
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_EXTENSION = ".res";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    // Number of recording bytes included in the fingerprint checksum
+    private static final int HEADER_SIZE = 4096;
+
+    private static final byte TYPE_HISTOGRAMS = 1;
+    private static final byte TYPE_AVERAGE_SPIKES = 2;
+    private static final byte TYPE_EVENT_TRIGGERED_AVERAGES = 3;
+    private static final byte TYPE_POWER_SPECTRA = 4;
+    private static final byte TYPE_PSTHS = 5;
+    private static final byte TYPE_FIRING_RATE_TIMELINES = 6;
+
+    /**
+     * Builds the key of the analysis result. Everything the result depends on should be appended to it.
+     */
+    public static class KeyBuilder {
+
+        private final StringBuilder sb = new StringBuilder();
+
+        /**
+         * @param analysisType Type of the analysis whose result is cached.
+         * @param recording Analysed recording.
+         * @throws IOException if recording can't be read.
+         */
+        public KeyBuilder(int analysisType, @NonNull File recording) throws IOException {
+            sb.append(RESULT_VERSION).append(':').append(analysisType);
+            appendFingerprint(recording);
+        }
+
+        /**
+         * Appends fingerprint of the specified {@code file}, or a placeholder if it's {@code null} or doesn't exist.
+         *
+         * @throws IOException if file can't be read.
+         */
+        @NonNull public KeyBuilder appendFingerprint(@Nullable File file) throws IOException {
+            if (file == null || !file.exists()) return append((String) null);
+
+            final CRC32 crc = new CRC32();
+            try (InputStream in = new FileInputStream(file)) {
+                final byte[] header = new byte[HEADER_SIZE];
+                int read, total = 0;
+                while (total < HEADER_SIZE && (read = in.read(header, total, HEADER_SIZE - total)) > 0) {
+                    total += read;
+                }
+                crc.update(header, 0, total);
+            }
+            return append(file.getAbsolutePath()).append(file.length())
+                .append(file.lastModified())
+                .append(crc.getValue());
+        }
+
+        @NonNull public KeyBuilder append(long value) {
+            sb.append('|').append(value);
+            return this;
+        }
+
+        @NonNull public KeyBuilder append(float value) {
+            sb.append('|').append(value);
+            return this;
+        }
+
+        @NonNull public KeyBuilder append(boolean value) {
+            sb.append('|').append(value);
+            return this;
+        }
+
+        @NonNull public KeyBuilder append(@Nullable String value) {
+            // length prefix keeps the key unambiguous whatever the value contains
+            if (value == null) {
+                sb.append("|-");
+            } else {
+                sb.append('|').append(value.length()).append(':').append(value);
+            }
+            return this;
+        }
+
+        @NonNull public KeyBuilder append(@Nullable String[] values) {
+            if (values == null) return append((String) null);
+
+            append(values.length);
+            for (String value : values) append(value);
+            return this;
+        }
+
+        /**
+         * Returns the key built from all appended values.
+         */
+        @NonNull public String build() {
+            try {
+                final byte[] hash =
+                    MessageDigest.getInstance("SHA-1").digest(sb.toString().getBytes(Charset.forName("UTF-8")));
+                final StringBuilder key = new StringBuilder(hash.length * 2);
+                for (byte b : hash) {
+                    key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                return key.toString();
+            } catch (NoSuchAlgorithmException e) {
+                // every platform is required to support SHA-1
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private final File rootDir;
+    private final int maxMemoryEntries;
+    private final long maxDiskSizeInBytes;
+
+    // Recently used results, least recently used is removed first
+    private final LinkedHashMap<String, Object> results = new LinkedHashMap<String, Object>(16, .75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > maxMemoryEntries;
+        }
+    };
+
+    public AnalysisResultCache(@NonNull File rootDir, int maxMemoryEntries, long maxDiskSizeInBytes) {
+        this.rootDir = rootDir;
+        this.maxMemoryEntries = maxMemoryEntries;
+        this.maxDiskSizeInBytes = maxDiskSizeInBytes;
+    }
+
+    /**
+     * Returns result saved under specified {@code key}, or {@code null} if there is none. Returned object is either
+     * {@code int[][]}, {@code AverageSpike[]}, {@code EventTriggeredAverages[]}, {@code PowerSpectrum[]}, {@code
+     * Psth[]} or {@code FiringRateTimeline[]}, depending on what was saved.
+     */
+    @Nullable public synchronized Object get(@NonNull String key) {
+        Object result = results.get(key);
+        if (result != null) return result;
+
+        final File file = getFile(key);
+        if (!file.exists()) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            result = read(in);
+        } catch (IOException e) {
+            // corrupted or outdated file, it will be overwritten with the new result
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return null;
+        }
+        // mark file as recently used so it's deleted last
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        results.put(key, result);
+
+        return result;
+    }
+
+    /**
+     * Saves specified {@code result} under specified {@code key}. Result needs to be either {@code int[][]}, {@code
+     * AverageSpike[]}, {@code EventTriggeredAverages[]}, {@code PowerSpectrum[]}, {@code Psth[]} or {@code
+     * FiringRateTimeline[]}.
+     *
+     * @throws IOException if result can't be saved.
+     */
+    public synchronized void put(@NonNull String key, @NonNull Object result) throws IOException {
+        results.put(key, result);
+
+        if (!rootDir.exists() && !rootDir.mkdirs()) {
+            throw new IOException("Couldn't create directory " + rootDir.getAbsolutePath());
+        }
+        // write to temporary file first so partially written results are never read
+        final File file = getFile(key);
+        final File tmp = new File(rootDir, key + TEMP_FILE_EXTENSION);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            write(out, result);
+        }
+        if (!tmp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("Couldn't save analysis result " + file.getAbsolutePath());
+        }
+
+        trim();
+    }
+
+    /**
+     * Removes all results kept in memory. Saved files are kept.
+     */
+    public synchronized void trimMemory() {
+        results.clear();
+    }
+
+    // Deletes least recently used files until total size of the saved results is within the limit
+    private void trim() {
+        final File[] files = rootDir.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+        if (files == null) return;
+
+        long size = 0;
+        for (File file : files) size += file.length();
+        if (size <= maxDiskSizeInBytes) return;
+
+        final long[] lastModified = new long[files.length];
+        final Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (o1, o2) -> Long.compare(lastModified[o1], lastModified[o2]));
+        for (int i = 0; i < order.length && size > maxDiskSizeInBytes; i++) {
+            final File file = files[order[i]];
+            final long length = file.length();
+            if (file.delete()) size -= length;
+        }
+    }
+
+    @NonNull private File getFile(@NonNull String key) {
+        return new File(rootDir, key + FILE_EXTENSION);
+    }
+
+    //=================================================
+    //  SERIALIZATION
+    //=================================================
+
+    private static void write(@NonNull DataOutputStream out, @NonNull Object result) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        if (result instanceof int[][]) {
+            final int[][] histograms = (int[][]) result;
+            out.writeByte(TYPE_HISTOGRAMS);
+            out.writeInt(histograms.length);
+            for (int[] histogram : histograms) writeInts(out, histogram);
+        } else if (result instanceof AverageSpike[]) {
+            final AverageSpike[] averageSpikes = (AverageSpike[]) result;
+            out.writeByte(TYPE_AVERAGE_SPIKES);
+            out.writeInt(averageSpikes.length);
+            for (AverageSpike averageSpike : averageSpikes) {
+                writeFloats(out, averageSpike.getAverageSpike());
+                writeFloats(out, averageSpike.getNormAverageSpike());
+                writeFloats(out, averageSpike.getNormTopSTDLine());
+                writeFloats(out, averageSpike.getNormBottomSTDLine());
+            }
+        } else if (result instanceof EventTriggeredAverages[]) {
+            final EventTriggeredAverages[] averages = (EventTriggeredAverages[]) result;
+            out.writeByte(TYPE_EVENT_TRIGGERED_AVERAGES);
+            out.writeInt(averages.length);
+            for (EventTriggeredAverages eta : averages) {
+                final String[] events = eta.getEvents();
+                out.writeInt(events != null ? events.length : -1);
+                if (events != null) {
+                    for (String event : events) out.writeUTF(event);
+                }
+                writeFloats(out, eta.getAverages());
+                writeFloats(out, eta.getNormAverages());
+                out.writeBoolean(eta.isShowConfidenceIntervals());
+                writeFloats(out, eta.getNormMonteCarloAverages());
+                writeFloats(out, eta.getNormMonteCarloTop());
+                writeFloats(out, eta.getNormMonteCarloBottom());
+                out.writeFloat(eta.getMin());
+                out.writeFloat(eta.getMax());
+            }
+        } else if (result instanceof PowerSpectrum[]) {
+            final PowerSpectrum[] powerSpectra = (PowerSpectrum[]) result;
+            out.writeByte(TYPE_POWER_SPECTRA);
+            out.writeInt(powerSpectra.length);
+            for (PowerSpectrum powerSpectrum : powerSpectra) {
+                out.writeFloat(powerSpectrum.getFrequencyResolution());
+                writeFloats(out, powerSpectrum.getPowers());
+                writeFloats(out, powerSpectrum.getBandPowers());
+            }
+        } else if (result instanceof Psth[]) {
+            final Psth[] psths = (Psth[]) result;
+            out.writeByte(TYPE_PSTHS);
+            out.writeInt(psths.length);
+            for (Psth psth : psths) {
+                out.writeUTF(psth.getEvent());
+                out.writeInt(psth.getTrain());
+                out.writeInt(psth.getSampleRate());
+                out.writeFloat(psth.getLeftOffset());
+                out.writeFloat(psth.getRightOffset());
+                out.writeInt(psth.getTrialCount());
+                writeInts(out, psth.getHistogram());
+                writeInts(out, psth.getTrialStarts());
+                writeInts(out, psth.getRaster());
+            }
+        } else if (result instanceof FiringRateTimeline[]) {
+            final FiringRateTimeline[] timelines = (FiringRateTimeline[]) result;
+            out.writeByte(TYPE_FIRING_RATE_TIMELINES);
+            out.writeInt(timelines.length);
+            for (FiringRateTimeline timeline : timelines) {
+                out.writeInt(timeline.getTrain());
+                out.writeFloat(timeline.getDuration());
+                final int levelCount = timeline.getLevelCount();
+                final float[] binSizes = new float[levelCount];
+                for (int i = 0; i < levelCount; i++) binSizes[i] = timeline.getBinSize(i);
+                writeFloats(out, binSizes);
+                for (int i = 0; i < levelCount; i++) writeInts(out, timeline.getCounts(i));
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported analysis result " + result.getClass().getName());
+        }
+    }
+
+    @NonNull private static Object read(@NonNull DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) throw new IOException("Unknown result format");
+
+        final byte type = in.readByte();
+        final int count = in.readInt();
+        switch (type) {
+            case TYPE_HISTOGRAMS:
+                final int[][] histograms = new int[count][];
+                for (int i = 0; i < count; i++) histograms[i] = readInts(in);
+                return histograms;
+            case TYPE_AVERAGE_SPIKES:
+                final AverageSpike[] averageSpikes = new AverageSpike[count];
+                for (int i = 0; i < count; i++) {
+                    averageSpikes[i] =
+                        new AverageSpike(readFloats(in), readFloats(in), readFloats(in), readFloats(in));
+                }
+                return averageSpikes;
+            case TYPE_EVENT_TRIGGERED_AVERAGES:
+                final EventTriggeredAverages[] averages = new EventTriggeredAverages[count];
+                for (int i = 0; i < count; i++) {
+                    final int eventCount = in.readInt();
+                    String[] events = null;
+                    if (eventCount >= 0) {
+                        events = new String[eventCount];
+                        for (int j = 0; j < eventCount; j++) events[j] = in.readUTF();
+                    }
+                    averages[i] = new EventTriggeredAverages(events, readFloatArrays(in), readFloatArrays(in),
+                        in.readBoolean(), readFloats(in), readFloats(in), readFloats(in), in.readFloat(),
+                        in.readFloat());
+                }
+                return averages;
+            case TYPE_POWER_SPECTRA:
+                final PowerSpectrum[] powerSpectra = new PowerSpectrum[count];
+                for (int i = 0; i < count; i++) {
+                    powerSpectra[i] = new PowerSpectrum(in.readFloat(), readFloats(in), readFloats(in));
+                }
+                return powerSpectra;
+            case TYPE_PSTHS:
+                final Psth[] psths = new Psth[count];
+                for (int i = 0; i < count; i++) {
+                    final String event = in.readUTF();
+                    final int train = in.readInt();
+                    final int sampleRate = in.readInt();
+                    final float leftOffset = in.readFloat();
+                    final float rightOffset = in.readFloat();
+                    final int trialCount = in.readInt();
+                    final int[] histogram = readInts(in);
+                    if (histogram == null) throw new IOException("Missing histogram");
+                    psths[i] = new Psth(event, train, sampleRate, leftOffset, rightOffset, trialCount, histogram,
+                        readInts(in), readInts(in));
+                }
+                return psths;
+            case TYPE_FIRING_RATE_TIMELINES:
+                final FiringRateTimeline[] timelines = new FiringRateTimeline[count];
+                for (int i = 0; i < count; i++) {
+                    final int train = in.readInt();
+                    final float duration = in.readFloat();
+                    final float[] binSizes = readFloats(in);
+                    if (binSizes == null) throw new IOException("Missing bin sizes");
+                    final int[][] counts = new int[binSizes.length][];
+                    for (int j = 0; j < binSizes.length; j++) {
+                        counts[j] = readInts(in);
+                        if (counts[j] == null) throw new IOException("Missing counts");
+                    }
+                    timelines[i] = new FiringRateTimeline(train, duration, binSizes, counts);
+                }
+                return timelines;
+            default:
+                throw new IOException("Unknown result type " + type);
+        }
+    }
+
+    // Arrays are written with their length in front, or -1 if they are null. Elements are transferred in bulk with
+    // the same (big-endian) byte order data streams use.
+
+    private static void writeInts(@NonNull DataOutputStream out, @Nullable int[] values) throws IOException {
+        out.writeInt(values != null ? values.length : -1);
+        if (values != null) {
+            final ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+            buffer.asIntBuffer().put(values);
+            out.write(buffer.array());
+        }
+    }
+
+    @Nullable private static int[] readInts(@NonNull DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) return null;
+
+        final int[] values = new int[length];
+        ByteBuffer.wrap(readBytes(in, length * 4)).asIntBuffer().get(values);
+        return values;
+    }
+
+    private static void writeFloats(@NonNull DataOutputStream out, @Nullable float[] values) throws IOException {
+        out.writeInt(values != null ? values.length : -1);
+        if (values != null) {
+            final ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+            buffer.asFloatBuffer().put(values);
+            out.write(buffer.array());
+        }
+    }
+
+    @Nullable private static float[] readFloats(@NonNull DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) return null;
+
+        final float[] values = new float[length];
+        ByteBuffer.wrap(readBytes(in, length * 4)).asFloatBuffer().get(values);
+        return values;
+    }
+
+    @NonNull private static byte[] readBytes(@NonNull DataInputStream in, int length) throws IOException {
+        // corrupted length would otherwise end up allocating huge array before the end of file is reached
+        if (length < 0 || length > in.available()) throw new IOException("Analysis result is truncated");
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeFloats(@NonNull DataOutputStream out, @Nullable float[][] values) throws IOException {
+        out.writeInt(values != null ? values.length : -1);
+        if (values != null) {
+            for (float[] value : values) writeFloats(out, value);
+        }
+    }
+
+    @Nullable private static float[][] readFloatArrays(@NonNull DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) return null;
+
+        final float[][] values = new float[length][];
+        for (int i = 0; i < length; i++) values[i] = readFloats(in);
+        return values;
+    }
+}
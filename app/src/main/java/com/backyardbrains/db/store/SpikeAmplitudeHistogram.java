@@ -0,0 +1,123 @@
+package com.backyardbrains.db.store;
+
+import androidx.annotation.NonNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Histogram of the values of the spikes found on a single channel during one spike analysis, with a bin for every
+ * 16-bit value between the smallest and the largest one. Files are written by {@link SpikeColumnWriter} from the
+ * counts of its value sort, so they don't need another pass over the spikes.
+ * <p>
+ * File starts with a header (magic number, version, smallest value and number of bins) followed by the prefix sums of
+ * the bin counts, so number of spikes within any value range is a difference of two of them. Prefix sums are read into
+ * memory when file is opened, they take at most 256KB.
+ * <p>
+ * Instances can be safely used from multiple threads. Class doesn't depend on Android framework.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeAmplitudeHistogram {
+
+    private static final int MAGIC = 0x42594248; // "BYBH"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final int minValue;
+    // number of spikes whose value is smaller than minValue + i
+    private final int[] prefixCounts;
+
+    SpikeAmplitudeHistogram(@NonNull File file) throws IOException {
+        final MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(SpikeColumnFile.BYTE_ORDER);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a valid spike amplitude histogram file: " + file.getAbsolutePath());
+        }
+        minValue = buffer.getInt(8);
+        final int binCount = buffer.getInt(12);
+        if (binCount < 0 || buffer.capacity() < HEADER_SIZE + (binCount + 1) * 4L) {
+            throw new IOException("Spike amplitude histogram file is truncated: " + file.getAbsolutePath());
+        }
+        prefixCounts = new int[binCount + 1];
+        SpikeColumnFile.slice(buffer, HEADER_SIZE, prefixCounts.length * 4).asIntBuffer().get(prefixCounts);
+    }
+
+    /**
+     * Returns number of spikes in the histogram.
+     */
+    public int getSpikeCount() {
+        return prefixCounts[prefixCounts.length - 1];
+    }
+
+    /**
+     * Returns number of spikes whose value is between specified {@code minValue} and {@code maxValue} (both
+     * inclusive).
+     */
+    public int countValueRange(int minValue, int maxValue) {
+        if (minValue > maxValue) return 0;
+
+        return countBelow(maxValue + 1) - countBelow(minValue);
+    }
+
+    /**
+     * Returns value within specified {@code radius} of specified {@code value} around which the fewest spikes are
+     * found, or {@code value} itself if spikes are spread evenly. Density around every value is number of spikes
+     * within specified {@code smoothing} of it, and value closest to specified one is returned if there are more
+     * values with equally low density.
+     */
+    public int findValley(int value, int radius, int smoothing) {
+        int valley = value;
+        int valleyCount = countValueRange(value - smoothing, value + smoothing);
+        for (int d = 1; d <= radius && valleyCount > 0; d++) {
+            final int below = countValueRange(value - d - smoothing, value - d + smoothing);
+            final int above = countValueRange(value + d - smoothing, value + d + smoothing);
+            if (below < valleyCount || above < valleyCount) {
+                valley = below <= above ? value - d : value + d;
+                valleyCount = Math.min(below, above);
+            }
+        }
+        return valley;
+    }
+
+    // Returns number of spikes whose value is smaller than specified value
+    private int countBelow(int value) {
+        final int bin = value - minValue;
+        if (bin <= 0) return 0;
+        if (bin >= prefixCounts.length) return prefixCounts[prefixCounts.length - 1];
+        return prefixCounts[bin];
+    }
+
+    // Writes histogram to specified file. Specified starts hold number of spikes whose value is smaller than every
+    // 16-bit value, starting with Short.MIN_VALUE, followed by the total number of spikes.
+    static void write(@NonNull File file, @NonNull int[] starts) throws IOException {
+        final int spikeCount = starts[starts.length - 1];
+        // only bins between the smallest and the largest value are saved
+        int first = 0;
+        while (first < starts.length - 2 && starts[first + 1] == 0) first++;
+        int last = starts.length - 2;
+        while (last > first && starts[last] == spikeCount) last--;
+        final int binCount = last - first + 1;
+
+        final int size = HEADER_SIZE + (binCount + 1) * 4;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+            final MappedByteBuffer out = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.order(SpikeColumnFile.BYTE_ORDER);
+            out.putInt(0, MAGIC);
+            out.putInt(4, VERSION);
+            out.putInt(8, first + Short.MIN_VALUE);
+            out.putInt(12, binCount);
+            final ByteBuffer body = SpikeColumnFile.slice(out, HEADER_SIZE, (binCount + 1) * 4);
+            body.asIntBuffer().put(starts, first, binCount + 1);
+            out.force();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.backyardbrains.db.store;
+
+import androidx.annotation.NonNull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped, read-only view of the clusters that spikes found on a single channel during one spike analysis were
+ * sorted into. File starts with a header (magic number, version and spike count) followed by a single byte per spike
+ * holding its cluster, in the same order as the spikes in the matching {@link SpikeColumnFile}.
+ * <p>
+ * Instances can be safely used from multiple threads. Class doesn't depend on Android framework.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeClusterFile {
+
+    /**
+     * Cluster of the spikes that don't belong to any cluster.
+     */
+    public static final byte NO_CLUSTER = -1;
+
+    private static final int MAGIC = 0x42594243; // "BYBC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    private final int spikeCount;
+    private final ByteBuffer clusters;
+
+    SpikeClusterFile(@NonNull File file) throws IOException {
+        final MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(SpikeColumnFile.BYTE_ORDER);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a valid spike cluster file: " + file.getAbsolutePath());
+        }
+        spikeCount = buffer.getInt(8);
+        if (buffer.capacity() < HEADER_SIZE + spikeCount) {
+            throw new IOException("Spike cluster file is truncated: " + file.getAbsolutePath());
+        }
+        clusters = SpikeColumnFile.slice(buffer, HEADER_SIZE, spikeCount);
+    }
+
+    /**
+     * Returns number of spikes in the file.
+     */
+    public int getSpikeCount() {
+        return spikeCount;
+    }
+
+    /**
+     * Returns cluster of the spike at specified {@code position}.
+     */
+    public byte getCluster(int position) {
+        return clusters.get(position);
+    }
+
+    /**
+     * Returns number of spikes that belong to specified {@code cluster}.
+     */
+    public int countCluster(int cluster) {
+        int count = 0;
+        for (int i = 0; i < spikeCount; i++) {
+            if (clusters.get(i) == cluster) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns positions of all the spikes that belong to specified {@code cluster} sorted in ascending order, which is
+     * also sample index order.
+     */
+    @NonNull public int[] findPositionsForCluster(int cluster) {
+        final int[] positions = new int[countCluster(cluster)];
+        for (int i = 0, j = 0; i < spikeCount && j < positions.length; i++) {
+            if (clusters.get(i) == cluster) positions[j++] = i;
+        }
+        return positions;
+    }
+
+    // Writes specified clusters to specified file
+    static void write(@NonNull File file, @NonNull byte[] clusters) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(SpikeColumnFile.BYTE_ORDER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(clusters.length);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(header.array());
+            out.write(clusters);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.backyardbrains.db.store;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Memory-mapped, read-only view of the spikes found on a single channel during one spike analysis. Files are written
+ * by {@link SpikeColumnWriter}.
+ * <p>
+ * File starts with a header (magic number, version, spike count and block size) followed by a sparse block index and
+ * the columns. Index, time and value columns are sorted by spike index. Value order column holds positions of the
+ * spikes sorted by value and sorted value column holds their values, so both sample index and value range queries
+ * are resolved with binary search. Sparse block index holds every {@link #BLOCK_SIZE}-th key of the index and the
+ * sorted value column so binary search touches only one block of the mapped file.
+ * <p>
+ * Instances can be safely used from multiple threads. Class doesn't depend on Android framework.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeColumnFile {
+
+    static final int MAGIC = 0x42594253; // "BYBS"
+    static final int VERSION = 1;
+    static final int BLOCK_SIZE = 1024;
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // If value range query selects more than 1/8 of the spikes it's faster to scan the value column than to sort
+    static final int VALUE_SCAN_RATIO = 8;
+    // Number of spikes read at once when all the spikes are streamed
+    private static final int STREAM_CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * Offsets of the sections within the file holding specified number of spikes.
+     */
+    static class Layout {
+
+        static final int HEADER_SIZE = 16;
+
+        final int spikeCount;
+        final int blockCount;
+        final int indexBlockKeysOffset;
+        final int valueBlockKeysOffset;
+        final int indicesOffset;
+        final int timesOffset;
+        final int valueOrderOffset;
+        final int valuesOffset;
+        final int sortedValuesOffset;
+        final int size;
+
+        Layout(int spikeCount) {
+            this.spikeCount = spikeCount;
+            blockCount = (spikeCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            // 4-byte columns go first so all of them are aligned
+            indexBlockKeysOffset = HEADER_SIZE;
+            valueBlockKeysOffset = indexBlockKeysOffset + blockCount * 4;
+            indicesOffset = valueBlockKeysOffset + blockCount * 4;
+            timesOffset = indicesOffset + spikeCount * 4;
+            valueOrderOffset = timesOffset + spikeCount * 4;
+            valuesOffset = valueOrderOffset + spikeCount * 4;
+            sortedValuesOffset = valuesOffset + spikeCount * 2;
+            size = sortedValuesOffset + spikeCount * 2;
+        }
+    }
+
+    private final int spikeCount;
+    private final int[] indexBlockKeys;
+    private final int[] valueBlockKeys;
+    private final IntBuffer indices;
+    private final FloatBuffer times;
+    private final IntBuffer valueOrder;
+    private final ShortBuffer values;
+    private final ShortBuffer sortedValues;
+
+    SpikeColumnFile(@NonNull File file) throws IOException {
+        final MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(BYTE_ORDER);
+        if (buffer.capacity() < Layout.HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+            || buffer.getInt(12) != BLOCK_SIZE) {
+            throw new IOException("Not a valid spike column file: " + file.getAbsolutePath());
+        }
+        final Layout layout = new Layout(buffer.getInt(8));
+        if (buffer.capacity() < layout.size) {
+            throw new IOException("Spike column file is truncated: " + file.getAbsolutePath());
+        }
+
+        spikeCount = layout.spikeCount;
+        indexBlockKeys = new int[layout.blockCount];
+        slice(buffer, layout.indexBlockKeysOffset, layout.blockCount * 4).asIntBuffer().get(indexBlockKeys);
+        valueBlockKeys = new int[layout.blockCount];
+        slice(buffer, layout.valueBlockKeysOffset, layout.blockCount * 4).asIntBuffer().get(valueBlockKeys);
+        indices = slice(buffer, layout.indicesOffset, spikeCount * 4).asIntBuffer();
+        times = slice(buffer, layout.timesOffset, spikeCount * 4).asFloatBuffer();
+        valueOrder = slice(buffer, layout.valueOrderOffset, spikeCount * 4).asIntBuffer();
+        values = slice(buffer, layout.valuesOffset, spikeCount * 2).asShortBuffer();
+        sortedValues = slice(buffer, layout.sortedValuesOffset, spikeCount * 2).asShortBuffer();
+    }
+
+    /**
+     * Returns number of spikes in the file.
+     */
+    public int getSpikeCount() {
+        return spikeCount;
+    }
+
+    /**
+     * Returns position of the first spike whose sample index is greater than or equal to specified {@code index}.
+     */
+    public int findFirstAtOrAfter(int index) {
+        // first block whose first key is not smaller than the searched one
+        final int block = lowerBound(indexBlockKeys, index);
+        // so the searched position is between the start of the previous block and the start of the found one
+        int lo = Math.max(0, block - 1) * BLOCK_SIZE;
+        int hi = Math.min(spikeCount, block * BLOCK_SIZE);
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (indices.get(mid) < index) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns position of the first spike whose sample index is greater than specified {@code index}.
+     */
+    public int findFirstAfter(int index) {
+        return index == Integer.MAX_VALUE ? spikeCount : findFirstAtOrAfter(index + 1);
+    }
+
+    /**
+     * Returns positions of all the spikes whose value is between specified {@code minValue} and {@code maxValue}
+     * (both inclusive) sorted in ascending order, which is also sample index order.
+     */
+    @NonNull public int[] findPositionsForValueRange(int minValue, int maxValue) {
+        minValue = Math.max(minValue, Short.MIN_VALUE);
+        maxValue = Math.min(maxValue, Short.MAX_VALUE);
+        if (minValue > maxValue) return new int[0];
+
+        final int from = findFirstValueAtOrAbove(minValue);
+        final int to = findFirstValueAtOrAbove(maxValue + 1);
+        final int count = to - from;
+        final int[] positions = new int[count];
+        if (count == 0) return positions;
+
+        if (count > spikeCount / VALUE_SCAN_RATIO) {
+            // single pass through the value column returns positions that are already sorted
+            final ShortBuffer valuesView = values.duplicate();
+            int j = 0;
+            for (int i = 0; i < spikeCount; i++) {
+                final short value = valuesView.get(i);
+                if (value >= minValue && value <= maxValue) positions[j++] = i;
+            }
+        } else {
+            final IntBuffer valueOrderView = valueOrder.duplicate();
+            valueOrderView.position(from);
+            valueOrderView.get(positions);
+            Arrays.sort(positions);
+        }
+
+        return positions;
+    }
+
+    /**
+     * Returns number of spikes whose value is between specified {@code minValue} and {@code maxValue} (both
+     * inclusive).
+     */
+    public int countValueRange(int minValue, int maxValue) {
+        minValue = Math.max(minValue, Short.MIN_VALUE);
+        maxValue = Math.min(maxValue, Short.MAX_VALUE);
+        if (minValue > maxValue) return 0;
+
+        return findFirstValueAtOrAbove(maxValue + 1) - findFirstValueAtOrAbove(minValue);
+    }
+
+    /**
+     * Counts spikes of every group within consecutive bins of {@code binSize} samples in a single pass over the index
+     * sorted columns, so memory usage doesn't depend on the number of spikes. Spike belongs to the i-th group if it
+     * was sorted into {@code clusters[i]} cluster of specified {@code clusterFile}, or if its value is between {@code
+     * minValues[i]} and {@code maxValues[i]} (both inclusive) when {@code clusters} is {@code null} or {@code
+     * clusters[i]} is {@link SpikeClusterFile#NO_CLUSTER}. Counts of the i-th group are added to {@code
+     * outCounts[i]} and spikes after its last bin are not counted.
+     */
+    public void countIndexBins(int binSize, @NonNull int[] minValues, @NonNull int[] maxValues,
+        @Nullable int[] clusters, @Nullable SpikeClusterFile clusterFile, @NonNull int[][] outCounts) {
+        final int groupCount = outCounts.length;
+        final int chunkSize = Math.min(STREAM_CHUNK_SIZE, spikeCount);
+        final int[] chunkIndices = new int[chunkSize];
+        final short[] chunkValues = new short[chunkSize];
+        for (int from = 0; from < spikeCount; from += chunkSize) {
+            final int to = Math.min(from + chunkSize, spikeCount);
+            readIndices(from, to, chunkIndices);
+            readValues(from, to, chunkValues);
+            for (int i = 0; i < to - from; i++) {
+                final int bin = chunkIndices[i] / binSize;
+                for (int j = 0; j < groupCount; j++) {
+                    if (bin >= outCounts[j].length) continue;
+
+                    final boolean inGroup;
+                    if (clusters != null && clusters[j] != SpikeClusterFile.NO_CLUSTER) {
+                        inGroup = clusterFile != null && clusterFile.getCluster(from + i) == clusters[j];
+                    } else {
+                        inGroup = chunkValues[i] >= minValues[j] && chunkValues[i] <= maxValues[j];
+                    }
+                    if (inGroup) outCounts[j][bin]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies sample indices of the spikes at positions between {@code from} (inclusive) and {@code to} (exclusive) to
+     * specified {@code out}.
+     */
+    public void readIndices(int from, int to, @NonNull int[] out) {
+        final IntBuffer view = indices.duplicate();
+        view.position(from);
+        view.get(out, 0, to - from);
+    }
+
+    /**
+     * Copies values of the spikes at positions between {@code from} (inclusive) and {@code to} (exclusive) to
+     * specified {@code out}.
+     */
+    public void readValues(int from, int to, @NonNull short[] out) {
+        final ShortBuffer view = values.duplicate();
+        view.position(from);
+        view.get(out, 0, to - from);
+    }
+
+    /**
+     * Copies times of the spikes at positions between {@code from} (inclusive) and {@code to} (exclusive) to specified
+     * {@code out}.
+     */
+    public void readTimes(int from, int to, @NonNull float[] out) {
+        final FloatBuffer view = times.duplicate();
+        view.position(from);
+        view.get(out, 0, to - from);
+    }
+
+    /**
+     * Copies sample indices of the spikes at specified {@code positions} to specified {@code out}.
+     */
+    public void readIndices(@NonNull int[] positions, @NonNull int[] out) {
+        for (int i = 0; i < positions.length; i++) out[i] = indices.get(positions[i]);
+    }
+
+    /**
+     * Copies values of the spikes at specified {@code positions} to specified {@code out}.
+     */
+    public void readValues(@NonNull int[] positions, @NonNull short[] out) {
+        for (int i = 0; i < positions.length; i++) out[i] = values.get(positions[i]);
+    }
+
+    /**
+     * Copies times of the spikes at specified {@code positions} to specified {@code out}.
+     */
+    public void readTimes(@NonNull int[] positions, @NonNull float[] out) {
+        for (int i = 0; i < positions.length; i++) out[i] = times.get(positions[i]);
+    }
+
+    // Returns position within the sorted value column of the first value greater than or equal to specified value
+    private int findFirstValueAtOrAbove(int value) {
+        final int block = lowerBound(valueBlockKeys, value);
+        int lo = Math.max(0, block - 1) * BLOCK_SIZE;
+        int hi = Math.min(spikeCount, block * BLOCK_SIZE);
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (sortedValues.get(mid) < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Returns index of the first element of specified sorted array that's greater than or equal to specified key
+    private static int lowerBound(@NonNull int[] keys, int key) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Returns view of the specified buffer section with the byte order used by the spike column files
+    static ByteBuffer slice(@NonNull ByteBuffer buffer, int offset, int length) {
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice().order(BYTE_ORDER);
+    }
+}
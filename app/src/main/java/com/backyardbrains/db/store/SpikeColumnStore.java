@@ -0,0 +1,273 @@
+package com.backyardbrains.db.store;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stores spikes of every spike analysis in per-channel {@link SpikeColumnFile} files located in a directory named by
+ * the analysis id. Only the analysis metadata is kept in the database. Clusters the spikes were sorted into are kept
+ * next to them in per-channel {@link SpikeClusterFile} files, and amplitude histograms of the spikes in per-channel
+ * {@link SpikeAmplitudeHistogram} files.
+ * <p>
+ * Recently used files are kept mapped so repeated range queries while drawing don't need to reopen them.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeColumnStore {
+
+    /**
+     * Name of the directory within the app files directory where spikes are stored by default.
+     */
+    public static final String DEFAULT_DIR_NAME = "spikes";
+
+    private static final String FILE_EXTENSION = ".spk";
+    private static final String CLUSTER_FILE_EXTENSION = ".clu";
+    private static final String HISTOGRAM_FILE_EXTENSION = ".hst";
+    private static final String TMP_FILE_EXTENSION = ".tmp";
+    private static final String PENDING_DIR_PREFIX = "pending-";
+    private static final int MAX_OPEN_FILES = 8;
+
+    private final File rootDir;
+
+    // Whether pending directories left by previous runs were already deleted
+    private boolean pendingDeleted;
+
+    // Recently opened files, least recently used is removed first
+    private final LinkedHashMap<String, SpikeColumnFile> openFiles =
+        new LinkedHashMap<String, SpikeColumnFile>(MAX_OPEN_FILES, .75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, SpikeColumnFile> eldest) {
+                return size() > MAX_OPEN_FILES;
+            }
+        };
+
+    // Recently opened cluster files, least recently used is removed first
+    private final LinkedHashMap<String, SpikeClusterFile> openClusterFiles =
+        new LinkedHashMap<String, SpikeClusterFile>(MAX_OPEN_FILES, .75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, SpikeClusterFile> eldest) {
+                return size() > MAX_OPEN_FILES;
+            }
+        };
+
+    // Recently opened amplitude histograms, least recently used is removed first
+    private final LinkedHashMap<String, SpikeAmplitudeHistogram> openHistograms =
+        new LinkedHashMap<String, SpikeAmplitudeHistogram>(MAX_OPEN_FILES, .75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, SpikeAmplitudeHistogram> eldest) {
+                return size() > MAX_OPEN_FILES;
+            }
+        };
+
+    public SpikeColumnStore(@NonNull File rootDir) {
+        this.rootDir = rootDir;
+    }
+
+    /**
+     * Creates writer for the spikes of a new analysis. Spikes become visible only when
+     * {@link SpikeColumnWriter#commit(long)} is called.
+     */
+    @NonNull public synchronized SpikeColumnWriter newWriter() throws IOException {
+        // pending directories need to be gone before the first writer creates its own
+        deletePending();
+        if (!rootDir.isDirectory() && !rootDir.mkdirs()) {
+            throw new IOException("Couldn't create directory " + rootDir.getAbsolutePath());
+        }
+        final File pendingDir = File.createTempFile(PENDING_DIR_PREFIX, "", rootDir);
+        return new SpikeColumnWriter(this, pendingDir);
+    }
+
+    /**
+     * Whether spikes of the analysis with specified {@code analysisId} are stored.
+     */
+    public boolean contains(long analysisId) {
+        return getDir(analysisId).isDirectory();
+    }
+
+    /**
+     * Returns file with spikes found on specified {@code channel} during analysis with specified {@code analysisId},
+     * or {@code null} if there are no such spikes.
+     */
+    @Nullable public synchronized SpikeColumnFile open(long analysisId, int channel) throws IOException {
+        final String key = analysisId + File.separator + channel;
+        SpikeColumnFile columnFile = openFiles.get(key);
+        if (columnFile == null) {
+            final File file = new File(getDir(analysisId), getFileName(channel));
+            if (!file.exists()) return null;
+
+            columnFile = new SpikeColumnFile(file);
+            openFiles.put(key, columnFile);
+        }
+        return columnFile;
+    }
+
+    /**
+     * Returns clusters that spikes found on specified {@code channel} during analysis with specified
+     * {@code analysisId} were sorted into, or {@code null} if spikes were never clustered.
+     */
+    @Nullable public synchronized SpikeClusterFile openClusters(long analysisId, int channel) throws IOException {
+        final String key = analysisId + File.separator + channel;
+        SpikeClusterFile clusterFile = openClusterFiles.get(key);
+        if (clusterFile == null) {
+            final File file = new File(getDir(analysisId), getClusterFileName(channel));
+            if (!file.exists()) return null;
+
+            clusterFile = new SpikeClusterFile(file);
+            openClusterFiles.put(key, clusterFile);
+        }
+        return clusterFile;
+    }
+
+    /**
+     * Returns amplitude histogram of the spikes found on specified {@code channel} during analysis with specified
+     * {@code analysisId} if it's already open, or {@code null} otherwise. Unlike {@link #openHistogram(long, int)}
+     * this method never touches the disk.
+     */
+    @Nullable public synchronized SpikeAmplitudeHistogram peekHistogram(long analysisId, int channel) {
+        return openHistograms.get(analysisId + File.separator + channel);
+    }
+
+    /**
+     * Returns amplitude histogram of the spikes found on specified {@code channel} during analysis with specified
+     * {@code analysisId}, or {@code null} if there are no such spikes or they were stored before histograms were.
+     */
+    @Nullable public synchronized SpikeAmplitudeHistogram openHistogram(long analysisId, int channel)
+        throws IOException {
+        final String key = analysisId + File.separator + channel;
+        SpikeAmplitudeHistogram histogram = openHistograms.get(key);
+        if (histogram == null) {
+            final File file = new File(getDir(analysisId), getHistogramFileName(channel));
+            if (!file.exists()) return null;
+
+            histogram = new SpikeAmplitudeHistogram(file);
+            openHistograms.put(key, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Saves clusters that spikes found on specified {@code channel} during analysis with specified {@code analysisId}
+     * were sorted into, replacing the previous ones. Cluster of every spike needs to be at the same position as the
+     * spike in the {@link SpikeColumnFile}.
+     */
+    public synchronized void saveClusters(long analysisId, int channel, @NonNull byte[] clusters)
+        throws IOException {
+        writeClusters(analysisId, channel, clusters);
+        publishClusters(analysisId, channel);
+    }
+
+    /**
+     * Writes clusters that spikes found on specified {@code channel} during analysis with specified {@code analysisId}
+     * were sorted into without replacing the previous ones, so they can be replaced only once changes that depend on
+     * them are saved. Written clusters replace the previous ones when {@link #publishClusters(long, int)} is called,
+     * or are dropped when {@link #discardClusters(long, int)} is called.
+     */
+    public synchronized void writeClusters(long analysisId, int channel, @NonNull byte[] clusters)
+        throws IOException {
+        final File dir = getDir(analysisId);
+        if (!dir.isDirectory()) throw new IOException("Spikes of analysis " + analysisId + " are not stored");
+
+        SpikeClusterFile.write(getClusterTmpFile(analysisId, channel), clusters);
+    }
+
+    /**
+     * Replaces clusters of the spikes found on specified {@code channel} during analysis with specified
+     * {@code analysisId} with the ones written by {@link #writeClusters(long, int, byte[])}.
+     */
+    public synchronized void publishClusters(long analysisId, int channel) throws IOException {
+        // file is replaced at once so readers never see partially written clusters
+        final File file = new File(getDir(analysisId), getClusterFileName(channel));
+        final File tmpFile = getClusterTmpFile(analysisId, channel);
+        openClusterFiles.remove(analysisId + File.separator + channel);
+        if (!tmpFile.renameTo(file)) throw new IOException("Couldn't rename " + tmpFile.getAbsolutePath());
+    }
+
+    /**
+     * Drops clusters written by {@link #writeClusters(long, int, byte[])}, previous clusters are kept.
+     */
+    public synchronized void discardClusters(long analysisId, int channel) {
+        //noinspection ResultOfMethodCallIgnored
+        getClusterTmpFile(analysisId, channel).delete();
+    }
+
+    /**
+     * Deletes spikes of all analyses that were never committed, e.g. because the app was killed during analysis. Only
+     * the first call does anything and it's also made before the first writer is created, so spikes of writers
+     * created by this store are never deleted.
+     */
+    public synchronized void deletePending() {
+        if (pendingDeleted) return;
+        pendingDeleted = true;
+
+        final File[] dirs = rootDir.listFiles();
+        if (dirs == null) return;
+
+        for (File dir : dirs) {
+            if (dir.getName().startsWith(PENDING_DIR_PREFIX)) deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Deletes all spikes of the analysis with specified {@code analysisId}.
+     */
+    public synchronized void delete(long analysisId) {
+        evict(analysisId);
+        deleteRecursively(getDir(analysisId));
+    }
+
+    // Removes all files of the analysis with specified id from the open files
+    private void evict(long analysisId) {
+        final String prefix = analysisId + File.separator;
+        final Iterator<String> iterator = openFiles.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) iterator.remove();
+        }
+        final Iterator<String> clusterIterator = openClusterFiles.keySet().iterator();
+        while (clusterIterator.hasNext()) {
+            if (clusterIterator.next().startsWith(prefix)) clusterIterator.remove();
+        }
+        final Iterator<String> histogramIterator = openHistograms.keySet().iterator();
+        while (histogramIterator.hasNext()) {
+            if (histogramIterator.next().startsWith(prefix)) histogramIterator.remove();
+        }
+    }
+
+    // Makes spikes written to specified pending directory visible as spikes of the analysis with specified id
+    synchronized void publish(@NonNull File pendingDir, long analysisId) throws IOException {
+        evict(analysisId);
+        final File dir = getDir(analysisId);
+        deleteRecursively(dir);
+        if (!pendingDir.renameTo(dir)) throw new IOException("Couldn't rename " + pendingDir.getAbsolutePath());
+    }
+
+    @NonNull private File getDir(long analysisId) {
+        return new File(rootDir, String.valueOf(analysisId));
+    }
+
+    @NonNull static String getFileName(int channel) {
+        return channel + FILE_EXTENSION;
+    }
+
+    @NonNull static String getHistogramFileName(int channel) {
+        return channel + HISTOGRAM_FILE_EXTENSION;
+    }
+
+    @NonNull private File getClusterTmpFile(long analysisId, int channel) {
+        return new File(getDir(analysisId), getClusterFileName(channel) + TMP_FILE_EXTENSION);
+    }
+
+    @NonNull private static String getClusterFileName(int channel) {
+        return channel + CLUSTER_FILE_EXTENSION;
+    }
+
+    static void deleteRecursively(@NonNull File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteRecursively(child);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
@@ -0,0 +1,228 @@
+package com.backyardbrains.db.store;
+
+import androidx.annotation.NonNull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Writes spikes of a single spike analysis to per-channel {@link SpikeColumnFile} files.
+ * <p>
+ * Spikes of every channel and polarity are appended to a temporary run file as they arrive, so memory usage doesn't
+ * depend on the number of spikes. When writing is done two sorted runs of every channel are merged into the index
+ * sorted columns and the value order is built with a counting sort over 16-bit values, whose counts are saved as
+ * {@link SpikeAmplitudeHistogram} of the channel. All files are written to a pending directory that's renamed to the
+ * analysis directory only when all of them are complete.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeColumnWriter {
+
+    // Size of a single run record: index (int), time (float) and value (short)
+    private static final int RECORD_SIZE = 10;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Spikes of a single channel and polarity that are sorted by index.
+     */
+    private static class Run {
+
+        final File file;
+        final FileOutputStream out;
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(SpikeColumnFile.BYTE_ORDER);
+        int count;
+
+        Run(@NonNull File file) throws IOException {
+            this.file = file;
+            this.out = new FileOutputStream(file);
+        }
+
+        void write(int index, float time, short value) throws IOException {
+            if (buffer.remaining() < RECORD_SIZE) flush();
+            buffer.putInt(index).putFloat(time).putShort(value);
+            count++;
+        }
+
+        void flush() throws IOException {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+
+        // Flushes and closes the file and maps it for reading
+        @NonNull ByteBuffer finish() throws IOException {
+            flush();
+            out.close();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                final FileChannel channel = raf.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(SpikeColumnFile.BYTE_ORDER);
+            }
+        }
+
+        void close() {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private final SpikeColumnStore store;
+    private final File pendingDir;
+
+    // positive and negative run for every channel
+    private Run[][] runs = new Run[0][];
+    private long spikeCount;
+    private boolean finished;
+
+    SpikeColumnWriter(@NonNull SpikeColumnStore store, @NonNull File pendingDir) throws IOException {
+        this.store = store;
+        this.pendingDir = pendingDir;
+
+        // pending dir is created as an empty file so its name is unique
+        SpikeColumnStore.deleteRecursively(pendingDir);
+        if (!pendingDir.mkdirs()) throw new IOException("Couldn't create directory " + pendingDir.getAbsolutePath());
+    }
+
+    /**
+     * Writes {@code count} spikes of the same polarity found on specified {@code channel}. Spikes of the same channel
+     * and polarity need to be written in index order.
+     */
+    public void write(int channel, boolean positive, @NonNull short[] values, @NonNull int[] indices,
+        @NonNull float[] times, int count) throws IOException {
+        if (channel >= runs.length) runs = Arrays.copyOf(runs, channel + 1);
+        if (runs[channel] == null) runs[channel] = new Run[2];
+        final int polarity = positive ? 0 : 1;
+        if (runs[channel][polarity] == null) {
+            runs[channel][polarity] = new Run(new File(pendingDir, channel + (positive ? ".pos" : ".neg")));
+        }
+
+        final Run run = runs[channel][polarity];
+        for (int i = 0; i < count; i++) run.write(indices[i], times[i], values[i]);
+        spikeCount += count;
+    }
+
+    /**
+     * Returns number of spikes written so far.
+     */
+    public long getSpikeCount() {
+        return spikeCount;
+    }
+
+    /**
+     * Builds column files from all written spikes. This is the expensive part of the commit so it can be done before
+     * {@link #commit(long)} is called, e.g. outside of the database transaction.
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+
+        try {
+            for (int channel = 0; channel < runs.length; channel++) {
+                if (runs[channel] == null) continue;
+
+                final ByteBuffer pos = runs[channel][0] != null ? runs[channel][0].finish() : null;
+                final ByteBuffer neg = runs[channel][1] != null ? runs[channel][1].finish() : null;
+                final int posCount = runs[channel][0] != null ? runs[channel][0].count : 0;
+                final int negCount = runs[channel][1] != null ? runs[channel][1].count : 0;
+                writeColumnFile(new File(pendingDir, SpikeColumnStore.getFileName(channel)),
+                    new File(pendingDir, SpikeColumnStore.getHistogramFileName(channel)), pos, posCount, neg, negCount);
+                if (runs[channel][0] != null) SpikeColumnStore.deleteRecursively(runs[channel][0].file);
+                if (runs[channel][1] != null) SpikeColumnStore.deleteRecursively(runs[channel][1].file);
+            }
+            finished = true;
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Makes all written spikes visible to {@link SpikeColumnStore} as spikes of the analysis with specified {@code
+     * analysisId}, replacing any previously stored ones. Writer can't be used after this method is called.
+     */
+    public void commit(long analysisId) throws IOException {
+        finish();
+        try {
+            store.publish(pendingDir, analysisId);
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Discards all written spikes. Writer can't be used after this method is called.
+     */
+    public void abort() {
+        for (Run[] channelRuns : runs) {
+            if (channelRuns == null) continue;
+            for (Run run : channelRuns) {
+                if (run != null) run.close();
+            }
+        }
+        SpikeColumnStore.deleteRecursively(pendingDir);
+    }
+
+    // Merges positive and negative runs into a single column file and saves amplitude histogram of the spikes
+    private static void writeColumnFile(@NonNull File file, @NonNull File histogramFile, ByteBuffer pos, int posCount,
+        ByteBuffer neg, int negCount) throws IOException {
+        final SpikeColumnFile.Layout layout = new SpikeColumnFile.Layout(posCount + negCount);
+        final int spikeCount = layout.spikeCount;
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")) {
+            raf.setLength(layout.size);
+            final MappedByteBuffer out = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, layout.size);
+            out.order(SpikeColumnFile.BYTE_ORDER);
+            out.putInt(0, SpikeColumnFile.MAGIC);
+            out.putInt(4, SpikeColumnFile.VERSION);
+            out.putInt(8, spikeCount);
+            out.putInt(12, SpikeColumnFile.BLOCK_SIZE);
+
+            // 1. MERGE RUNS INTO INDEX SORTED COLUMNS
+            int p = 0, n = 0;
+            for (int i = 0; i < spikeCount; i++) {
+                final ByteBuffer run;
+                final int offset;
+                if (n >= negCount || (p < posCount && pos.getInt(p * RECORD_SIZE) <= neg.getInt(n * RECORD_SIZE))) {
+                    run = pos;
+                    offset = p++ * RECORD_SIZE;
+                } else {
+                    run = neg;
+                    offset = n++ * RECORD_SIZE;
+                }
+                out.putInt(layout.indicesOffset + i * 4, run.getInt(offset));
+                out.putFloat(layout.timesOffset + i * 4, run.getFloat(offset + 4));
+                out.putShort(layout.valuesOffset + i * 2, run.getShort(offset + 8));
+            }
+
+            // 2. COUNTING SORT BY VALUE, SPIKES WITH EQUAL VALUES STAY IN INDEX ORDER
+            final int[] starts = new int[(1 << 16) + 1];
+            for (int i = 0; i < spikeCount; i++) {
+                starts[out.getShort(layout.valuesOffset + i * 2) - Short.MIN_VALUE + 1]++;
+            }
+            for (int i = 1; i < starts.length; i++) starts[i] += starts[i - 1];
+            // value counts are already there so amplitude histogram costs only its own small write
+            SpikeAmplitudeHistogram.write(histogramFile, starts);
+            for (int i = 0; i < spikeCount; i++) {
+                final short value = out.getShort(layout.valuesOffset + i * 2);
+                final int slot = starts[value - Short.MIN_VALUE]++;
+                out.putInt(layout.valueOrderOffset + slot * 4, i);
+                out.putShort(layout.sortedValuesOffset + slot * 2, value);
+            }
+
+            // 3. SPARSE BLOCK INDEX
+            for (int b = 0; b < layout.blockCount; b++) {
+                final int i = b * SpikeColumnFile.BLOCK_SIZE;
+                out.putInt(layout.indexBlockKeysOffset + b * 4, out.getInt(layout.indicesOffset + i * 4));
+                out.putInt(layout.valueBlockKeysOffset + b * 4, out.getShort(layout.sortedValuesOffset + i * 2));
+            }
+
+            out.force();
+        }
+        if (!tmpFile.renameTo(file)) throw new IOException("Couldn't rename " + tmpFile.getAbsolutePath());
+    }
+}
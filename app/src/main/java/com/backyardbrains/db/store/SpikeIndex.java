@@ -0,0 +1,192 @@
+package com.backyardbrains.db.store;
+
+import androidx.annotation.NonNull;
+import java.util.Arrays;
+
+/**
+ * In-memory index of the spikes found on a single channel during one spike analysis.
+ * <p>
+ * Spikes are kept sorted by sample index. Their positions are also kept sorted by value together with the distinct
+ * values and the prefix counts of spikes below each of them, so number of spikes within any value window is resolved
+ * with two binary searches over the distinct values.
+ * <p>
+ * Instances are immutable and can be safely used from multiple threads. Class doesn't depend on Android framework.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeIndex {
+
+    // Size of a single spike within the index: index (int), time (float), value (short) and value order (int)
+    private static final int BYTES_PER_SPIKE = 14;
+
+    private static final int VALUE_COUNT = 1 << 16;
+
+    // spikes sorted by index
+    private final int[] indices;
+    private final float[] times;
+    private final short[] values;
+    // positions of spikes sorted by value, spikes with equal values are sorted by index
+    private final int[] valueOrder;
+    // distinct values in ascending order and position of the first spike with each of them within value order
+    private final short[] distinctValues;
+    private final int[] valueStarts;
+
+    /**
+     * @param indices Sample indices of the spikes sorted in ascending order.
+     * @param times Spike times in the same order as {@code indices}.
+     * @param values Spike values in the same order as {@code indices}.
+     */
+    public SpikeIndex(@NonNull int[] indices, @NonNull float[] times, @NonNull short[] values) {
+        this.indices = indices;
+        this.times = times;
+        this.values = values;
+
+        // 1. COUNT SPIKES PER VALUE
+        final int[] counts = new int[VALUE_COUNT];
+        for (short value : values) counts[value - Short.MIN_VALUE]++;
+        int distinctCount = 0;
+        for (int count : counts) {
+            if (count > 0) distinctCount++;
+        }
+
+        // 2. PREFIX COUNTS ARE START POSITIONS OF EVERY DISTINCT VALUE WITHIN VALUE ORDER
+        distinctValues = new short[distinctCount];
+        valueStarts = new int[distinctCount + 1];
+        for (int i = 0, d = 0, start = 0; i < VALUE_COUNT; i++) {
+            final int count = counts[i];
+            if (count == 0) continue;
+
+            distinctValues[d] = (short) (i + Short.MIN_VALUE);
+            valueStarts[d++] = start;
+            counts[i] = start;
+            start += count;
+        }
+        valueStarts[distinctCount] = values.length;
+
+        // 3. COUNTING SORT IS STABLE SO SPIKES WITH EQUAL VALUES STAY IN INDEX ORDER
+        valueOrder = new int[values.length];
+        for (int i = 0; i < values.length; i++) valueOrder[counts[values[i] - Short.MIN_VALUE]++] = i;
+    }
+
+    /**
+     * Returns number of spikes in the index.
+     */
+    public int getSpikeCount() {
+        return indices.length;
+    }
+
+    /**
+     * Returns approximate number of bytes the index takes in memory.
+     */
+    public long getSizeInBytes() {
+        return estimateSizeInBytes(indices.length) + distinctValues.length * 6L;
+    }
+
+    /**
+     * Returns approximate number of bytes the index of specified number of spikes takes in memory.
+     */
+    public static long estimateSizeInBytes(int spikeCount) {
+        return (long) spikeCount * BYTES_PER_SPIKE;
+    }
+
+    /**
+     * Returns number of spikes whose value is between specified {@code minValue} and {@code maxValue} (both
+     * inclusive).
+     */
+    public int countValueRange(int minValue, int maxValue) {
+        minValue = Math.max(minValue, Short.MIN_VALUE);
+        maxValue = Math.min(maxValue, Short.MAX_VALUE);
+        if (minValue > maxValue) return 0;
+
+        return valueStarts[findFirstValueAtOrAbove(maxValue + 1)] - valueStarts[findFirstValueAtOrAbove(minValue)];
+    }
+
+    /**
+     * Returns positions of all the spikes whose value is between specified {@code minValue} and {@code maxValue}
+     * (both inclusive) sorted in ascending order, which is also sample index order.
+     */
+    @NonNull public int[] findPositionsForValueRange(int minValue, int maxValue) {
+        minValue = Math.max(minValue, Short.MIN_VALUE);
+        maxValue = Math.min(maxValue, Short.MAX_VALUE);
+        if (minValue > maxValue) return new int[0];
+
+        final int from = valueStarts[findFirstValueAtOrAbove(minValue)];
+        final int to = valueStarts[findFirstValueAtOrAbove(maxValue + 1)];
+        final int count = to - from;
+        final int[] positions = new int[count];
+        if (count == 0) return positions;
+
+        // same trade-off as when querying the file
+        if (count > values.length / SpikeColumnFile.VALUE_SCAN_RATIO) {
+            // single pass through the values returns positions that are already sorted
+            for (int i = 0, j = 0; j < count; i++) {
+                if (values[i] >= minValue && values[i] <= maxValue) positions[j++] = i;
+            }
+        } else {
+            System.arraycopy(valueOrder, from, positions, 0, count);
+            Arrays.sort(positions);
+        }
+
+        return positions;
+    }
+
+    /**
+     * Returns position of the first spike whose sample index is greater than or equal to specified {@code index}.
+     */
+    public int findFirstAtOrAfter(int index) {
+        int lo = 0;
+        int hi = indices.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (indices[mid] < index) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns position of the first spike whose sample index is greater than specified {@code index}.
+     */
+    public int findFirstAfter(int index) {
+        return index == Integer.MAX_VALUE ? indices.length : findFirstAtOrAfter(index + 1);
+    }
+
+    /**
+     * Returns sample index of the spike at specified {@code position}.
+     */
+    public int getIndex(int position) {
+        return indices[position];
+    }
+
+    /**
+     * Returns time of the spike at specified {@code position}.
+     */
+    public float getTime(int position) {
+        return times[position];
+    }
+
+    /**
+     * Returns value of the spike at specified {@code position}.
+     */
+    public short getValue(int position) {
+        return values[position];
+    }
+
+    // Returns index of the first distinct value that's greater than or equal to specified value
+    private int findFirstValueAtOrAbove(int value) {
+        int lo = 0;
+        int hi = distinctValues.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (distinctValues[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,132 @@
+package com.backyardbrains.db.store;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps {@link SpikeIndex} of recently used analysis channels in memory.
+ * <p>
+ * Indices are loaded lazily on the background executor so callers never wait for them. Total size of the cached
+ * indices is limited and least recently used ones are removed first. All indices can be released when system is
+ * running low on memory and they are loaded again when needed.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeIndexCache {
+
+    /**
+     * Loads spike index of specified analysis channel.
+     */
+    public interface Loader {
+        /**
+         * Returns number of spikes found on specified {@code channel} during analysis with specified {@code
+         * analysisId}, or {@code -1} if they can't be counted.
+         */
+        int count(long analysisId, int channel);
+
+        /**
+         * Returns index of the spikes found on specified {@code channel} during analysis with specified {@code
+         * analysisId}, or {@code null} if index can't be loaded.
+         */
+        @Nullable SpikeIndex load(long analysisId, int channel);
+    }
+
+    private final Loader loader;
+    private final Executor executor;
+    private final long maxSizeInBytes;
+
+    // Loaded indices, least recently used is removed first. Channels with too many spikes to be kept in memory are
+    // mapped to null so they are not counted again until evicted.
+    private final LinkedHashMap<String, SpikeIndex> indices = new LinkedHashMap<>(16, .75f, true);
+    private final Set<String> loading = new HashSet<>();
+    private long sizeInBytes;
+    // Incremented every time indices are evicted so indices loaded before that are not cached
+    private int generation;
+
+    public SpikeIndexCache(@NonNull Loader loader, @NonNull Executor executor, long maxSizeInBytes) {
+        this.loader = loader;
+        this.executor = executor;
+        this.maxSizeInBytes = maxSizeInBytes;
+    }
+
+    /**
+     * Returns index of the spikes found on specified {@code channel} during analysis with specified {@code
+     * analysisId} if it's already loaded. Otherwise starts loading it on the background executor and returns {@code
+     * null}. This method doesn't block so it can be called from the drawing thread.
+     */
+    @Nullable public synchronized SpikeIndex peek(long analysisId, int channel) {
+        final String key = getKey(analysisId, channel);
+        if (indices.containsKey(key)) return indices.get(key);
+
+        if (loading.add(key)) {
+            final int loadGeneration = generation;
+            executor.execute(() -> load(key, analysisId, channel, loadGeneration));
+        }
+        return null;
+    }
+
+    /**
+     * Removes indices of all channels of the analysis with specified {@code analysisId}.
+     */
+    public synchronized void evict(long analysisId) {
+        final String prefix = analysisId + File.separator;
+        final Iterator<Map.Entry<String, SpikeIndex>> iterator = indices.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, SpikeIndex> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                if (entry.getValue() != null) sizeInBytes -= entry.getValue().getSizeInBytes();
+                iterator.remove();
+            }
+        }
+        generation++;
+    }
+
+    /**
+     * Removes all indices.
+     */
+    public synchronized void clear() {
+        indices.clear();
+        sizeInBytes = 0;
+        generation++;
+    }
+
+    // Loads index outside of the lock and caches it if nothing was evicted in the meantime. Indices that fail to load
+    // are not cached so they are loaded again the next time they are needed.
+    private void load(@NonNull String key, long analysisId, int channel, int loadGeneration) {
+        final int count = loader.count(analysisId, channel);
+        final boolean tooLarge = SpikeIndex.estimateSizeInBytes(count) > maxSizeInBytes;
+        final SpikeIndex index = count >= 0 && !tooLarge ? loader.load(analysisId, channel) : null;
+        synchronized (this) {
+            loading.remove(key);
+            if (loadGeneration != generation) return;
+
+            if (tooLarge) {
+                indices.put(key, null);
+                return;
+            }
+            if (index == null) return;
+
+            // make room for the new index
+            final long size = index.getSizeInBytes();
+            final Iterator<SpikeIndex> iterator = indices.values().iterator();
+            while (sizeInBytes + size > maxSizeInBytes && iterator.hasNext()) {
+                final SpikeIndex eldest = iterator.next();
+                if (eldest != null) sizeInBytes -= eldest.getSizeInBytes();
+                iterator.remove();
+            }
+            indices.put(key, index);
+            sizeInBytes += size;
+        }
+    }
+
+    @NonNull private static String getKey(long analysisId, int channel) {
+        return analysisId + File.separator + channel;
+    }
+}
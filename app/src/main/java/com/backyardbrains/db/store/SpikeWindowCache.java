@@ -0,0 +1,98 @@
+package com.backyardbrains.db.store;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.vo.SpikeWindow;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the latest {@link SpikeWindow} of every spike train so spikes can be drawn without waiting for them to be
+ * queried.
+ * <p>
+ * When requested range isn't covered by the cached window, spikes within the requested range extended by its length
+ * on both sides are prefetched on the background executor and the previous window is returned in the meantime. Only
+ * one prefetch per train runs at once. Windows are replaced, never modified, so they can be safely used by the
+ * drawing thread.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeWindowCache {
+
+    /**
+     * Loads spikes of specified train within specified range.
+     */
+    public interface Loader {
+        @NonNull SpikeWindow load(long trainId, int channel, int startIndex, int endIndex);
+    }
+
+    // Latest window of a single train
+    private static class Entry {
+        SpikeWindow window;
+        int generation;
+        boolean loading;
+    }
+
+    private final Loader loader;
+    private final Executor executor;
+
+    private final Map<Long, Entry> entries = new HashMap<>();
+    // Incremented every time trains change so windows loaded before that are loaded again
+    private int generation;
+
+    public SpikeWindowCache(@NonNull Loader loader, @NonNull Executor executor) {
+        this.loader = loader;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the latest window of the train with specified {@code trainId}, or {@code null} if none has been loaded
+     * yet. If returned window doesn't cover range between {@code startIndex} and {@code endIndex} or is out of date
+     * a new one is prefetched. This method never blocks.
+     */
+    @Nullable public synchronized SpikeWindow get(long trainId, int channel, int startIndex, int endIndex) {
+        Entry entry = entries.get(trainId);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(trainId, entry);
+        }
+
+        final boolean upToDate = entry.window != null && entry.generation == generation;
+        if (!entry.loading && (!upToDate || !entry.window.covers(startIndex, endIndex))) {
+            entry.loading = true;
+
+            final int margin = Math.max(0, endIndex - startIndex);
+            final int from = Math.max(0, startIndex - margin);
+            final int to = (int) Math.min(Integer.MAX_VALUE, (long) endIndex + margin);
+            final int loadGeneration = generation;
+            final Entry loadEntry = entry;
+            executor.execute(() -> {
+                final SpikeWindow window = loader.load(trainId, channel, from, to);
+                synchronized (SpikeWindowCache.this) {
+                    // even out of date window is better than none, it will be loaded again on the next request
+                    loadEntry.window = window;
+                    loadEntry.generation = loadGeneration;
+                    loadEntry.loading = false;
+                }
+            });
+        }
+
+        return entry.window;
+    }
+
+    /**
+     * Marks all the windows as out of date. They are still returned until new ones are loaded.
+     */
+    public synchronized void invalidate() {
+        generation++;
+    }
+
+    /**
+     * Removes all the windows.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        generation++;
+    }
+}
@@ -725,7 +725,8 @@ public abstract class BaseWaveformRenderer extends BaseRenderer
      * @param drawStartIndex Index of the first signal sample to take into account.
      * @param drawEndIndex Index of the last signal sample to take into account.
      * @param drawSurfaceWidth Width of the surface signal is being drawn to.
-     * @param lastFrameIndex Index of the last incoming signal frame that should be drawn (used only during playback)
+     * @param lastFrameIndex Index of the last incoming signal frame that should be drawn (playhead during playback,
+     * index of the last frame that went through live spike detector otherwise)
      */
     abstract protected void prepareSignalForDrawing(SignalDrawData signalDrawData, EventsDrawData eventsDrawData,
         @NonNull short[][] inSamples, int inFrameCount, @NonNull int[] inEventIndices, @NonNull String[] eventNames,
@@ -757,7 +758,8 @@ public abstract class BaseWaveformRenderer extends BaseRenderer
      * @param drawEndIndex Index of the last sample that should be drawn
      * @param scaleX Scale factor of the drawing window width
      * @param scaleY Scale factor of the drawing window height
-     * @param lastFrameIndex Index of the last incoming signal frame that should be drawn (used only during playback)
+     * @param lastFrameIndex Index of the last incoming signal frame that should be drawn (playhead during playback,
+     * index of the last frame that went through live spike detector otherwise)
      */
     abstract protected void draw(GL10 gl, @NonNull short[][] samples, @NonNull SignalDrawData signalDrawData,
         @NonNull EventsDrawData eventsDrawData, @NonNull FftDrawData fftDrawData, int selectedChannel, int surfaceWidth,
@@ -1,6 +1,7 @@
 package com.backyardbrains.drawing;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.Size;
 import android.view.MotionEvent;
 import com.backyardbrains.drawing.gl.GlHLine;
@@ -27,6 +28,8 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
     private static final int LINE_WIDTH = 1;
     // Radius of the handle base
     private static final float HANDLE_BASE_RADIUS_DP = 10f;
+    // Threshold snaps to the valley of spike amplitudes only if it's released this close to it
+    private static final float VALLEY_SNAP_DISTANCE_DP = 4f;
 
     private final GlHandleDragHelper thresholdHandleDragHelper;
     private final Rect rect = new Rect();
@@ -38,17 +41,34 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
     private final SpikesDrawData spikesDrawData = new SpikesDrawData(GlSpikes.MAX_SPIKES);
 
     private final float handleBaseRadius;
+    private final float valleySnapDistance;
 
     private int[] thresholds = new int[2];
 
+    /**
+     * Interface definition for a callback to be invoked when number of spikes between the thresholds changes.
+     */
+    public interface OnSpikeCountChangeListener {
+        /**
+         * Listener that is invoked when threshold is dragged or saved, or when selected train or channel changes.
+         *
+         * @param spikeCount Number of spikes between the thresholds, or {@code -1} if it's not known.
+         */
+        void onSpikeCountChange(int spikeCount);
+    }
+
+    private OnSpikeCountChangeListener onSpikeCountChangeListener;
+
     private float[] currentColor = new float[4];
     private float[] whiteColor = Colors.WHITE;
 
     private String filePath;
-    private long spikeAnalysisId = -1;
+    private volatile long spikeAnalysisId = -1;
     private int selectedSpikeTrain;
     private int prevChannel, prevFromSample, prevToSample;
-    private SpikeIndexValue[] valuesAndIndices;
+    private float[] spikeValues = new float[0];
+    private int[] spikeIndices = new int[0];
+    private int spikeCount = -1;
 
     public FindSpikesRenderer(@NonNull BaseFragment fragment, @NonNull String filePath) {
         super(filePath, fragment);
@@ -76,6 +96,7 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
         glThresholdHandle = new GlHandle();
 
         handleBaseRadius = ViewUtils.dpToPx(fragment.getResources(), HANDLE_BASE_RADIUS_DP);
+        valleySnapDistance = ViewUtils.dpToPx(fragment.getResources(), VALLEY_SNAP_DISTANCE_DP);
 
         setCurrentColor(Colors.RED);
 
@@ -111,6 +132,15 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
     //  PUBLIC AND PROTECTED METHODS
     //=================================================
 
+    /**
+     * Registers a callback to be invoked when number of spikes between the thresholds changes.
+     *
+     * @param listener The callback that will be run. This value may be {@code null}.
+     */
+    public void setOnSpikeCountChangeListener(@Nullable OnSpikeCountChangeListener listener) {
+        this.onSpikeCountChangeListener = listener;
+    }
+
     /**
      * Sets currently selected spike train
      */
@@ -118,6 +148,7 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
         this.selectedSpikeTrain = selectedSpikeTrain;
 
         loadSpikeTrains();
+        if (onSpikeCountChangeListener != null) onSpikeCountChangeListener.onSpikeCountChange(-1);
     }
 
     //=================================================
@@ -128,6 +159,7 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
         super.onChannelSelectionChanged(channelIndex);
 
         loadSpikeTrains();
+        if (onSpikeCountChangeListener != null) onSpikeCountChangeListener.onSpikeCountChange(-1);
     }
 
     //private final Benchmark benchmark =
@@ -160,16 +192,26 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
             boolean shouldQuerySamples =
                 prevChannel != selectedChannel || prevFromSample != fromSample || prevToSample != toSample;
             //benchmark.start();
-            if (valuesAndIndices == null || valuesAndIndices.length == 0 || shouldQuerySamples) {
-                valuesAndIndices =
+            if (spikeCount <= 0 || shouldQuerySamples) {
+                final SpikeIndexValue[] valuesAndIndices =
                     getAnalysisManager().getSpikesForRange(spikeAnalysisId, selectedChannel, fromSample, toSample);
+                spikeCount = valuesAndIndices.length;
+                if (spikeValues.length < spikeCount) {
+                    spikeValues = new float[spikeCount];
+                    spikeIndices = new int[spikeCount];
+                }
+                for (int i = 0; i < spikeCount; i++) {
+                    spikeValues[i] = valuesAndIndices[i].value;
+                    spikeIndices[i] = valuesAndIndices[i].index;
+                }
             }
             //benchmark.end();
             final int min = Math.min(thresholds[ThresholdOrientation.LEFT], thresholds[ThresholdOrientation.RIGHT]);
             final int max = Math.max(thresholds[ThresholdOrientation.LEFT], thresholds[ThresholdOrientation.RIGHT]);
             try {
-                JniUtils.prepareForSpikesDrawing(spikesDrawData, valuesAndIndices, currentColor, whiteColor, min, max,
-                    fromSample, toSample, drawStartIndex, drawEndIndex, samplesToDraw, surfaceWidth);
+                JniUtils.prepareForSpikesDrawing(spikesDrawData, spikeValues, spikeIndices, 0, spikeCount, currentColor,
+                    whiteColor, min, max, fromSample, toSample, drawStartIndex, drawEndIndex, samplesToDraw,
+                    surfaceWidth);
             } catch (Exception e) {
                 LOGE(TAG, e.getMessage());
                 Crashlytics.logException(e);
@@ -259,15 +301,39 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
     @SuppressWarnings("WeakerAccess") void updateSpikeTrainThreshold(float dy, @ThresholdOrientation int orientation) {
         setSpikeTrainThreshold((int) (thresholds[orientation] - surfaceHeightToGlHeight(dy) / getWaveformScaleFactor()),
             orientation);
+        updateSpikeCount();
     }
 
     @SuppressWarnings("WeakerAccess") void saveSpikeTrainThreshold(@ThresholdOrientation int orientation) {
         if (getAnalysisManager() != null) {
+            if (spikeAnalysisId > 0) {
+                // threshold released right next to the amplitude with the fewest spikes within the handle snaps to it
+                // so it doesn't cut a unit, thresholds released further away are kept where user put them
+                final int radius = (int) (surfaceHeightToGlHeight(handleBaseRadius) / getWaveformScaleFactor());
+                final int snapDistance =
+                    (int) (surfaceHeightToGlHeight(valleySnapDistance) / getWaveformScaleFactor());
+                final int valley = getAnalysisManager().findSpikeValueValley(spikeAnalysisId, getSelectedChanel(),
+                    thresholds[orientation], radius);
+                if (Math.abs(valley - thresholds[orientation]) <= snapDistance) {
+                    setSpikeTrainThreshold(valley, orientation);
+                    updateSpikeCount();
+                }
+            }
             getAnalysisManager().setThreshold(filePath, getSelectedChanel(), selectedSpikeTrain, orientation,
                 thresholds[orientation]);
         }
     }
 
+    // Counts spikes between the thresholds and passes the count to the listener
+    private void updateSpikeCount() {
+        if (onSpikeCountChangeListener == null || getAnalysisManager() == null || spikeAnalysisId <= 0) return;
+
+        final int min = Math.min(thresholds[ThresholdOrientation.LEFT], thresholds[ThresholdOrientation.RIGHT]);
+        final int max = Math.max(thresholds[ThresholdOrientation.LEFT], thresholds[ThresholdOrientation.RIGHT]);
+        onSpikeCountChangeListener.onSpikeCountChange(
+            getAnalysisManager().getSpikeCountForValueRange(spikeAnalysisId, getSelectedChanel(), min, max));
+    }
+
     private void setSpikeTrainThreshold(int t, @ThresholdOrientation int orientation) {
         thresholds[orientation] = t;
     }
@@ -15,7 +15,7 @@ import com.backyardbrains.utils.BYBUtils;
 import com.backyardbrains.utils.Formats;
 import com.backyardbrains.utils.JniUtils;
 import com.backyardbrains.utils.ViewUtils;
-import com.backyardbrains.vo.SpikeIndexValue;
+import com.backyardbrains.vo.SpikeWindow;
 import com.crashlytics.android.Crashlytics;
 import java.util.Arrays;
 import javax.microedition.khronos.egl.EGLConfig;
@@ -80,7 +80,7 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
     private boolean prevShouldDraw;
 
     @SuppressWarnings("WeakerAccess") Train[][] spikeTrains;
-    @SuppressWarnings("WeakerAccess") SpikeIndexValue[][][] valuesAndIndexes;
+    @SuppressWarnings("WeakerAccess") SpikeWindow[][] spikeWindows;
 
     public SeekableWaveformRenderer(@NonNull String filePath, @NonNull BaseFragment fragment) {
         super(fragment);
@@ -138,6 +138,15 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
         glLabelWithCircle = new GlLabelWithCircle(context, gl);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Spikes of the played file are drawn from the spike analysis.
+     */
+    @Override protected boolean isLiveSpikesDrawingEnabled() {
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -164,22 +173,25 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
         // let's save start and end sample positions that are being drawn before triggering the actual draw
         final int toSample = (int) lastFrameIndex;
         final int fromSample = (int) Math.max(0, toSample - glWindowWidth);
-        final boolean shouldQuerySamples = prevFromSample != fromSample || prevToSample != toSample;
+        boolean shouldQuerySamples = prevFromSample != fromSample || prevToSample != toSample;
         final boolean shouldDraw = !isSignalAveraging() && !isFftProcessing();
         final int sampleRate = getSampleRate();
 
         if (prevShouldDraw && !shouldDraw) onMeasureEnd();
 
         if (shouldDraw) {
-            if (spikeTrains != null && valuesAndIndexes != null) {
+            if (spikeTrains != null && spikeWindows != null) {
                 if (getAnalysisManager() != null) {
                     for (int i = 0; i < spikeTrains.length; i++) {
                         for (int j = 0; j < spikeTrains[i].length; j++) {
                             //benchmark.start();
-                            if (spikeTrains[i][j] != null && shouldQuerySamples) {
-                                valuesAndIndexes[i][j] =
+                            if (spikeTrains[i][j] != null) {
+                                // spikes are loaded in the background so we check for the new window on every draw
+                                final SpikeWindow spikeWindow =
                                     getAnalysisManager().getSpikesByTrainForRange(spikeTrains[i][j].getId(),
                                         spikeTrains[i][j].getChannel(), fromSample, toSample);
+                                if (spikeWindow != spikeWindows[i][j]) shouldQuerySamples = true;
+                                spikeWindows[i][j] = spikeWindow;
                             }
                             //benchmark.end();
                         }
@@ -215,20 +227,15 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
                     if (diff > 0) startIndex -= diff;
                     startIndex += fromSample;
 
-                    if (valuesAndIndexes != null) {
+                    if (spikeWindows != null) {
                         // init spike counts if necessary
                         if (prevSelectedChannel != selectedChannel) Arrays.fill(spikeCounts, -1);
-                        for (int trainIndex = 0; trainIndex < valuesAndIndexes[selectedChannel].length; trainIndex++) {
-                            if (valuesAndIndexes[selectedChannel][trainIndex] != null) {
-                                spikeCounts[trainIndex] = 0;
-                                for (int spikeIndex = 0;
-                                    spikeIndex < valuesAndIndexes[selectedChannel][trainIndex].length; spikeIndex++) {
-                                    if (startIndex <= valuesAndIndexes[selectedChannel][trainIndex][spikeIndex].index
-                                        && valuesAndIndexes[selectedChannel][trainIndex][spikeIndex].index
-                                        <= startIndex + measureSampleCount) {
-                                        spikeCounts[trainIndex]++;
-                                    }
-                                }
+                        for (int trainIndex = 0; trainIndex < spikeWindows[selectedChannel].length; trainIndex++) {
+                            final SpikeWindow spikeWindow = spikeWindows[selectedChannel][trainIndex];
+                            if (spikeWindow != null) {
+                                spikeCounts[trainIndex] =
+                                    spikeWindow.findFirstAtOrAfter(startIndex + measureSampleCount + 1)
+                                        - spikeWindow.findFirstAtOrAfter(startIndex);
                                 spikesPerSecond[trainIndex] =
                                     (spikeCounts[trainIndex] * sampleRate) / (float) measureSampleCount;
                                 if (Float.isInfinite(spikesPerSecond[trainIndex]) || Float.isNaN(
@@ -261,18 +268,24 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
             scaleY, lastFrameIndex);
 
         if (shouldDraw) {
-            if (valuesAndIndexes != null) {
+            if (spikeWindows != null) {
                 int samplesToDraw = (int) (signalDrawData.samples[0].length * .5f);
                 float[] color;
-                for (int i = 0; i < valuesAndIndexes.length; i++) {
-                    if (valuesAndIndexes[i] != null) {
-                        for (int j = 0; j < valuesAndIndexes[i].length; j++) {
-                            if (valuesAndIndexes[i][j] != null) {
+                for (int i = 0; i < spikeWindows.length; i++) {
+                    if (spikeWindows[i] != null) {
+                        for (int j = 0; j < spikeWindows[i].length; j++) {
+                            final SpikeWindow spikeWindow = spikeWindows[i][j];
+                            if (spikeWindow != null) {
                                 color = Colors.SPIKE_TRAIN_COLORS[j];
+                                // window holds spikes around the drawn range as well so we only pass the drawn ones,
+                                // including the one at the last drawn sample
+                                final int from = spikeWindow.findFirstAtOrAfter(fromSample);
+                                final int to = spikeWindow.findFirstAtOrAfter(toSample + 1);
                                 try {
-                                    JniUtils.prepareForSpikesDrawing(spikesDrawData[j], valuesAndIndexes[i][j], color,
-                                        color, Integer.MIN_VALUE, Integer.MAX_VALUE, fromSample, toSample,
-                                        drawStartIndex, drawEndIndex, samplesToDraw, surfaceWidth);
+                                    JniUtils.prepareForSpikesDrawing(spikesDrawData[j], spikeWindow.values,
+                                        spikeWindow.indices, from, to - from, color, color, Integer.MIN_VALUE,
+                                        Integer.MAX_VALUE, fromSample, toSample, drawStartIndex, drawEndIndex,
+                                        samplesToDraw, surfaceWidth);
                                 } catch (Exception e) {
                                     LOGE(TAG, e.getMessage());
                                     Crashlytics.logException(e);
@@ -413,7 +426,7 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
         }
 
         // create arrays that holds spike data
-        valuesAndIndexes = new SpikeIndexValue[channelCount][trainCount][];
+        spikeWindows = new SpikeWindow[channelCount][trainCount];
         // create
         spikesDrawData = new SpikesDrawData[trainCount];
         for (int i = 0; i < trainCount; i++) spikesDrawData[i] = new SpikesDrawData(GlSpikes.MAX_SPIKES);
@@ -32,8 +32,10 @@ import com.backyardbrains.drawing.gl.GlHLine;
 import com.backyardbrains.drawing.gl.GlHandle;
 import com.backyardbrains.drawing.gl.GlHandleDragHelper;
 import com.backyardbrains.drawing.gl.GlLabel;
+import com.backyardbrains.drawing.gl.GlSpikes;
 import com.backyardbrains.drawing.gl.GlWaveform;
 import com.backyardbrains.drawing.gl.Rect;
+import com.backyardbrains.dsp.SpikeEvents;
 import com.backyardbrains.ui.BaseFragment;
 import com.backyardbrains.utils.ArrayUtils;
 import com.backyardbrains.utils.Formats;
@@ -69,6 +71,12 @@ public class WaveformRenderer extends BaseWaveformRenderer {
     private final static float TIME_LABEL_HEIGHT_DP = 48f;
     // Radius of the handle base
     private static final float HANDLE_BASE_RADIUS_DP = 10f;
+    // Max number of live spikes read at once
+    private static final int MAX_LIVE_SPIKES_PER_READ = 1024;
+    // Max number of live spikes that are kept for drawing
+    private static final int MAX_LIVE_SPIKES = GlSpikes.MAX_SPIKES;
+    // Color of the live spikes that don't belong to any of the trains
+    private static final float[] LIVE_SPIKE_NO_TRAIN_COLOR = Colors.WHITE;
 
     private final Rect rect = new Rect();
     private final GlHandleDragHelper waveformHandleDragHelper;
@@ -84,6 +92,7 @@ public class WaveformRenderer extends BaseWaveformRenderer {
     private GlAveragingTriggerLine glAveragingTrigger;
     private GlHLine glTimeLabelSeparator;
     private GlLabel glTimeLabel;
+    private final GlSpikes glLiveSpikes;
 
     private final float timeLabelWidth;
     private final float timeLabelHeight;
@@ -96,6 +105,19 @@ public class WaveformRenderer extends BaseWaveformRenderer {
     private float fftSurfaceHeight;
     private float fftScaleFactor = MIN_FFT_SCALE_FACTOR;
 
+    // Spikes found by the live spike detector that can still be drawn, in the order they were read
+    private final SpikeEvents liveSpikeEvents = new SpikeEvents(MAX_LIVE_SPIKES_PER_READ);
+    private final long[] liveSpikeFrameIndices = new long[MAX_LIVE_SPIKES];
+    private final int[] liveSpikeChannels = new int[MAX_LIVE_SPIKES];
+    private final int[] liveSpikeTrains = new int[MAX_LIVE_SPIKES];
+    private final short[] liveSpikeValues = new short[MAX_LIVE_SPIKES];
+    private int liveSpikeCount;
+    // Set when channels change because channel indices of the kept spikes are no longer valid
+    private volatile boolean liveSpikesDirty;
+    private final float[] liveSpikeDrawValues = new float[MAX_LIVE_SPIKES];
+    private final int[] liveSpikeDrawIndices = new int[MAX_LIVE_SPIKES];
+    private final SpikesDrawData liveSpikesDrawData = new SpikesDrawData(MAX_LIVE_SPIKES);
+
     /**
      * Interface definition for a callback to be invoked when one of the drawn waveforms is selected by clicking he
      * waveform handle.
@@ -147,6 +169,7 @@ public class WaveformRenderer extends BaseWaveformRenderer {
         glHandle = new GlHandle();
         glThresholdLine = new GlDashedHLine();
         glTimeLabelSeparator = new GlHLine();
+        glLiveSpikes = new GlSpikes();
 
         timeLabelWidth = ViewUtils.dpToPx(context.getResources(), TIME_LABEL_WIDTH_DP);
         timeLabelHeight = ViewUtils.dpToPx(context.getResources(), TIME_LABEL_HEIGHT_DP);
@@ -193,6 +216,14 @@ public class WaveformRenderer extends BaseWaveformRenderer {
         JniUtils.setThreshold(threshold);
     }
 
+    /**
+     * Whether spikes found by the live spike detector should be drawn on top of the waveforms. Returns {@code true} by
+     * default.
+     */
+    protected boolean isLiveSpikesDrawingEnabled() {
+        return true;
+    }
+
     //=================================================
     //  Renderer INTERFACE IMPLEMENTATIONS
     //=================================================
@@ -291,6 +322,8 @@ public class WaveformRenderer extends BaseWaveformRenderer {
         // we should reset draggable areas for both waveforms and thresholds
         waveformHandleDragHelper.resetDraggableAreas();
         thresholdHandleDragHelper.resetDraggableAreas();
+
+        liveSpikesDirty = true;
     }
 
     @Override public void onChannelConfigChanged(boolean[] channelConfig) {
@@ -301,6 +334,8 @@ public class WaveformRenderer extends BaseWaveformRenderer {
         for (int i = 0; i < channelConfig.length; i++) {
             if (!channelConfig[i]) setChannelColor(i, Colors.BLACK);
         }
+
+        liveSpikesDirty = true;
     }
 
     @Override public void onChannelSelectionChanged(int channelIndex) {
@@ -456,6 +491,14 @@ public class WaveformRenderer extends BaseWaveformRenderer {
                 gl.glPopMatrix();
             }
 
+            // draw spikes found by the live spike detector
+            if (!isSignalAveraging && isLiveSpikesDrawingEnabled() && lastFrameIndex >= 0) {
+                final int frameCount = samples[0].length;
+                readLiveSpikes(lastFrameIndex, frameCount);
+                drawLiveSpikes(gl, signalDrawData, waveformScaleFactors, waveformPositions, drawStartIndex,
+                    drawEndIndex, surfaceWidth, frameCount, lastFrameIndex);
+            }
+
             // draw time label
             drawTimeLabel(gl, sampleRate, surfaceWidth, glWindowWidth, scaleY);
         }
@@ -556,6 +599,95 @@ public class WaveformRenderer extends BaseWaveformRenderer {
         gl.glPopMatrix();
     }
 
+    // Reads spikes found by the live spike detector since the last draw and discards the ones that are no longer
+    // within the drawn signal buffer
+    private void readLiveSpikes(long lastFrameIndex, int frameCount) {
+        if (liveSpikesDirty) {
+            liveSpikesDirty = false;
+            liveSpikeCount = 0;
+        }
+
+        final long firstFrameIndex = lastFrameIndex - frameCount + 1;
+        int count = 0;
+        for (int i = 0; i < liveSpikeCount; i++) {
+            if (liveSpikeFrameIndices[i] < firstFrameIndex) continue;
+            copyLiveSpike(i, count++);
+        }
+        liveSpikeCount = count;
+
+        while (liveSpikeEvents.read(SpikeEvents.Consumer.RENDERER) > 0) {
+            for (int i = 0; i < liveSpikeEvents.count; i++) {
+                if (liveSpikeEvents.frameIndices[i] < firstFrameIndex) continue;
+                // if there's no more room oldest spikes are discarded
+                if (liveSpikeCount == MAX_LIVE_SPIKES) {
+                    final int discard = MAX_LIVE_SPIKES / 4;
+                    for (int j = discard; j < liveSpikeCount; j++) copyLiveSpike(j, j - discard);
+                    liveSpikeCount -= discard;
+                }
+                liveSpikeFrameIndices[liveSpikeCount] = liveSpikeEvents.frameIndices[i];
+                liveSpikeChannels[liveSpikeCount] = liveSpikeEvents.channels[i];
+                liveSpikeTrains[liveSpikeCount] = liveSpikeEvents.trains[i];
+                liveSpikeValues[liveSpikeCount] = liveSpikeEvents.values[i];
+                liveSpikeCount++;
+            }
+        }
+    }
+
+    // Moves live spike at index from to index to
+    private void copyLiveSpike(int from, int to) {
+        if (from == to) return;
+
+        liveSpikeFrameIndices[to] = liveSpikeFrameIndices[from];
+        liveSpikeChannels[to] = liveSpikeChannels[from];
+        liveSpikeTrains[to] = liveSpikeTrains[from];
+        liveSpikeValues[to] = liveSpikeValues[from];
+    }
+
+    // Draws live spikes of every channel colored by the train they belong to
+    private void drawLiveSpikes(@NonNull GL10 gl, @NonNull SignalDrawData signalDrawData, float[] waveformScaleFactors,
+        float[] waveformPositions, int drawStartIndex, int drawEndIndex, int surfaceWidth, int frameCount,
+        long lastFrameIndex) {
+        if (liveSpikeCount == 0) return;
+
+        final int samplesToDraw = (int) (signalDrawData.samples[0].length * .5f);
+        final int trainCount = Colors.SPIKE_TRAIN_COLORS.length;
+        for (int channel = 0; channel < signalDrawData.channelCount; channel++) {
+            // spikes of trains we don't have colors for are drawn as if they don't belong to any train
+            for (int train = -1; train < trainCount; train++) {
+                int count = 0;
+                for (int i = 0; i < liveSpikeCount; i++) {
+                    if (liveSpikeChannels[i] != channel) continue;
+                    final int spikeTrain = liveSpikeTrains[i] < trainCount ? liveSpikeTrains[i] : -1;
+                    if (spikeTrain != train) continue;
+
+                    // spike frame index is converted to index within the drawn signal buffer
+                    liveSpikeDrawIndices[count] =
+                        (int) (frameCount - 1 - (lastFrameIndex - liveSpikeFrameIndices[i]));
+                    liveSpikeDrawValues[count++] = liveSpikeValues[i];
+                }
+                if (count == 0) continue;
+
+                final float[] color = train >= 0 ? Colors.SPIKE_TRAIN_COLORS[train] : LIVE_SPIKE_NO_TRAIN_COLOR;
+                try {
+                    JniUtils.prepareForSpikesDrawing(liveSpikesDrawData, liveSpikeDrawValues, liveSpikeDrawIndices, 0,
+                        count, color, color, Integer.MIN_VALUE, Integer.MAX_VALUE, drawStartIndex, drawEndIndex,
+                        drawStartIndex, drawEndIndex, samplesToDraw, surfaceWidth);
+                } catch (Exception e) {
+                    LOGE(TAG, e.getMessage());
+                    Crashlytics.logException(e);
+                }
+                if (liveSpikesDrawData.vertexCount > 0) {
+                    gl.glPushMatrix();
+                    gl.glTranslatef(0f, waveformPositions[channel], 0f);
+                    gl.glScalef(1f, waveformScaleFactors[channel], 1f);
+                    glLiveSpikes.draw(gl, liveSpikesDrawData.vertices, liveSpikesDrawData.colors,
+                        liveSpikesDrawData.vertexCount);
+                    gl.glPopMatrix();
+                }
+            }
+        }
+    }
+
     private void drawFft(@NonNull GL10 gl, @NonNull FftDrawData fftDrawData, int width, float height) {
         gl.glPushMatrix();
         glFft.draw(gl, fftDrawData, width, height);
@@ -127,6 +127,34 @@ public abstract class AbstractSignalSource implements SignalSource {
         if (processor != null) processor.onDataReceived(data, length);
     }
 
+    /**
+     * Whether incoming data is buffered in native code instead of being written through {@link #writeToBuffer(byte[],
+     * int)}. If {@code true} {@link #processNativeBufferedData(SignalData)} is used to process incoming data instead
+     * of {@link #processIncomingData(SignalData, byte[], int)}.
+     */
+    public boolean isNativeBuffered() {
+        return false;
+    }
+
+    /**
+     * Blocks until there is incoming data buffered in native code or until specified {@code timeoutMs} expires.
+     * Returns {@code true} if there is data to process, {@code false} otherwise.
+     */
+    public boolean awaitNativeBufferedData(int timeoutMs) {
+        return false;
+    }
+
+    /**
+     * Called by {@link Processor} to process incoming data buffered in native code. Processed samples should be
+     * passed back inside provided {@link SignalData} object. Returns number of processed bytes.
+     * <p>
+     * This method is called from background thread so implementation should not communicate with UI thread
+     * directly.
+     */
+    public int processNativeBufferedData(@NonNull SignalData outData) {
+        return 0;
+    }
+
     /**
      * {@inheritDoc}
      */
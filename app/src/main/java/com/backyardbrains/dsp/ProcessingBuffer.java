@@ -32,7 +32,7 @@ public class ProcessingBuffer {
     private final String[] eventNames;
     // Number of processed events
     private int eventCount;
-    // Index of the sample that was processed last (used only during playback)
+    // Index of the sample that was processed last (playhead during playback, live spike detector frame otherwise)
     private long lastSampleIndex;
 
     // Buffer for the FFT data
@@ -188,8 +188,8 @@ public class ProcessingBuffer {
     }
 
     /**
-     * Returns index of the last sample in the buffer. By default the value is {@code 0}, and is set only when
-     * processing samples during playback.
+     * Returns index of the last sample in the buffer. By default the value is {@code 0}, and is set when processing
+     * samples during playback or, during live acquisition, by the live spike detector.
      */
     public long getLastSampleIndex() {
         return lastSampleIndex;
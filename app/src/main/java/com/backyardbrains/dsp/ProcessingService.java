@@ -33,6 +33,7 @@ import com.backyardbrains.dsp.usb.AbstractUsbSignalSource;
 import com.backyardbrains.dsp.usb.AbstractUsbSignalSource.OnExpansionBoardTypeDetectionListener;
 import com.backyardbrains.dsp.usb.AbstractUsbSignalSource.OnSpikerBoxHardwareTypeDetectionListener;
 import com.backyardbrains.dsp.usb.AbstractUsbSignalSource.OnUsbSignalSourceDisconnectListener;
+import com.backyardbrains.dsp.usb.ReplayUsbSignalSource;
 import com.backyardbrains.dsp.usb.UsbHelper;
 import com.backyardbrains.events.AudioPlaybackProgressEvent;
 import com.backyardbrains.events.AudioPlaybackStartedEvent;
@@ -56,7 +57,9 @@ import com.backyardbrains.utils.JniUtils;
 import com.backyardbrains.utils.SignalAveragingTriggerType;
 import com.backyardbrains.utils.SpikerBoxHardwareType;
 import com.backyardbrains.utils.ViewUtils;
+import com.backyardbrains.vo.UsbLinkTelemetry;
 import com.crashlytics.android.Crashlytics;
+import java.io.File;
 import java.io.IOException;
 import org.greenrobot.eventbus.EventBus;
 
@@ -253,6 +256,13 @@ public class ProcessingService extends Service implements SignalProcessor.OnProc
         signalProcessor.setFftProcessing(fftProcessing);
     }
 
+    /**
+     * Passes information about whether spikes should be detected in the incoming live signal to data processor.
+     */
+    public void setSpikeDetection(boolean spikeDetection) {
+        signalProcessor.setSpikeDetection(spikeDetection);
+    }
+
     /**
      * Returns filter that is additionally applied when processing incoming data.
      */
@@ -484,6 +494,63 @@ public class ProcessingService extends Service implements SignalProcessor.OnProc
         return usbHelper.getDevice(index);
     }
 
+    /**
+     * Starts capturing raw byte stream received from the currently connected USB device to the specified {@code
+     * file}. Returns {@code false} if USB is not currently active input.
+     */
+    public boolean startUsbCapture(@NonNull File file) throws IOException {
+        if (!isUsbActiveInput()) return false;
+
+        ((AbstractUsbSignalSource) signalSource).startCapture(file);
+        return true;
+    }
+
+    /**
+     * Stops capturing raw byte stream received from the currently connected USB device.
+     */
+    public void stopUsbCapture() {
+        if (isUsbActiveInput()) ((AbstractUsbSignalSource) signalSource).stopCapture();
+    }
+
+    /**
+     * Replays raw USB byte stream previously captured to the specified {@code file} as if it was received from the
+     * connected USB device. If {@code realTime} is {@code true} stream is replayed at the original pace, if not it's
+     * replayed as fast as possible.
+     */
+    public void startUsbReplay(@NonNull File file, boolean realTime) throws IOException {
+        if (!created) return;
+
+        final ReplayUsbSignalSource replaySignalSource = new ReplayUsbSignalSource(file, realTime);
+        turnOffMicrophone();
+        turnOffPlayback();
+        turnOffUsb();
+
+        replaySignalSource.addOnSpikerBoxHardwareTypeDetectionListener(spikerBoxDetectionListener);
+        replaySignalSource.addOnExpansionBoardTypeDetectionListener(expansionBoardDetectionListener);
+        signalSource = replaySignalSource;
+        signalProcessor.setSignalSource(signalSource);
+        if (replaySignalSource.open()) replaySignalSource.start();
+
+        LOGD(TAG, "USB replay started");
+    }
+
+    /**
+     * Returns counters that describe health of the link with the connected USB device since the counters were last
+     * reset.
+     */
+    @NonNull public UsbLinkTelemetry getUsbLinkTelemetry() {
+        final long[] values = new long[UsbLinkTelemetry.VALUE_COUNT];
+        JniUtils.getUsbLinkTelemetry(values);
+        return new UsbLinkTelemetry(values);
+    }
+
+    /**
+     * Resets counters that describe health of the link with the connected USB device.
+     */
+    public void resetUsbLinkTelemetry() {
+        JniUtils.resetUsbLinkTelemetry();
+    }
+
     // Turns on USB input processing
     void turnOnUsb() {
         LOGD(TAG, "turnOnUsb()");
@@ -612,6 +679,41 @@ public class ProcessingService extends Service implements SignalProcessor.OnProc
         }
     }
 
+    /**
+     * Sets speed of the playback. When playing faster than normal, displayed signal is decimated so the screen shows
+     * {@code speed} times longer portion of the recording.
+     *
+     * @param speed Playback speed. Needs to be a power of 2 between {@link PlaybackSignalSource#SPEED_NORMAL} and
+     * {@link PlaybackSignalSource#SPEED_MAX}.
+     */
+    public void setPlaybackSpeed(int speed) {
+        if (created && isPlaybackMode()) {
+            final PlaybackSignalSource source = (PlaybackSignalSource) signalSource;
+            if (source.getPlaybackSpeed() == speed) return;
+
+            source.setPlaybackSpeed(speed);
+            // averaged signal shouldn't mix samples of different speeds
+            JniUtils.resetThreshold();
+        }
+    }
+
+    /**
+     * Returns current playback speed.
+     */
+    public int getPlaybackSpeed() {
+        return isPlaybackMode() ? ((PlaybackSignalSource) signalSource).getPlaybackSpeed()
+            : PlaybackSignalSource.SPEED_NORMAL;
+    }
+
+    /**
+     * Sets what should be played while playing faster than normal.
+     */
+    public void setFastForwardAudio(@PlaybackSignalSource.FastForwardAudio int fastForwardAudio) {
+        if (created && isPlaybackMode()) {
+            ((PlaybackSignalSource) signalSource).setFastForwardAudio(fastForwardAudio);
+        }
+    }
+
     /**
      * Marks the start of the playback seek. Prepares the playback thread for the seek sequence. The playback
      * controller needs to call this method before starting the seek sequence. It should be called even if the seek
@@ -21,6 +21,7 @@ public class SignalData {
     public int[] eventIndices;
     public String[] eventNames;
     public int eventCount;
+    // Playhead during playback or index of the last frame that went through live spike detector otherwise
     public long lastSampleIndex = -1;
 
     public SignalData(int channelCount, int maxSamplesPerChannel, int bitsPerSample) {
@@ -77,6 +77,9 @@ public class SignalProcessor implements SignalSource.Processor {
     private static int processedAveragedSamplesPerChannelCount = DEFAULT_PROCESSED_AVERAGED_SAMPLES_PER_CHANNEL_COUNT;
     private static int drawnSamplesCount = DEFAULT_PROCESSED_SAMPLES_PER_CHANNEL_COUNT;
 
+    // Max time processing thread waits for data buffered in native code before it checks whether it should stop
+    private static final int NATIVE_BUFFER_WAIT_TIMEOUT_MS = 20;
+
     // Lock used when reading/writing samples and events
     private static final Object lock = new Object();
 
@@ -102,8 +105,14 @@ public class SignalProcessor implements SignalSource.Processor {
         @Override public void run() {
             while (working.get()) {
                 if (!paused.get()) {
-                    int length = ringBuffer.get(buffer);
-                    if (length > 0) processData(buffer, length);
+                    final AbstractSignalSource source = signalSource;
+                    if (source != null && source.isNativeBuffered()) {
+                        // incoming data is buffered in native code so there's no need to copy it to java buffer
+                        if (source.awaitNativeBufferedData(NATIVE_BUFFER_WAIT_TIMEOUT_MS)) processNativeBufferedData();
+                    } else {
+                        int length = ringBuffer.get(buffer);
+                        if (length > 0) processData(buffer, length);
+                    }
                 }
             }
         }
@@ -145,7 +154,10 @@ public class SignalProcessor implements SignalSource.Processor {
     private final SignalConfiguration signalConfiguration;
 
     // Incoming signal source
-    private AbstractSignalSource signalSource;
+    @SuppressWarnings("WeakerAccess") AbstractSignalSource signalSource;
+
+    // Whether spikes should be detected while processing live signal
+    private boolean spikeDetection;
 
     private final AbstractUsbSignalSource.OnSpikerBoxHardwareTypeDetectionListener spikerBoxDetectionListener =
         hardwareType -> {
@@ -324,6 +336,8 @@ public class SignalProcessor implements SignalSource.Processor {
 
             // reset processing buffer
             processingBuffer.resetAveragedSamplesBuffer(visibleChannelCount);
+            // spikes are detected on visible channels so their noise estimates are no longer valid
+            JniUtils.resetSpikeDetector();
 
             visibleSignalData = new SignalData(visibleChannelCount, processedSamplesPerChannelCount, bitsPerSample);
             averagedSignalData =
@@ -344,6 +358,8 @@ public class SignalProcessor implements SignalSource.Processor {
 
             // reset processing buffer
             processingBuffer.resetAveragedSamplesBuffer(visibleChannelCount);
+            // spikes are detected on visible channels so their noise estimates are no longer valid
+            JniUtils.resetSpikeDetector();
 
             // reset buffer
             visibleSignalData = new SignalData(visibleChannelCount, processedSamplesPerChannelCount, bitsPerSample);
@@ -368,6 +384,8 @@ public class SignalProcessor implements SignalSource.Processor {
 
             // reset processing buffer
             processingBuffer.resetAveragedSamplesBuffer(visibleChannelCount);
+            // spikes are detected on visible channels so their noise estimates are no longer valid
+            JniUtils.resetSpikeDetector();
 
             // reset buffers
             visibleSignalData = new SignalData(visibleChannelCount, processedSamplesPerChannelCount, bitsPerSample);
@@ -456,6 +474,20 @@ public class SignalProcessor implements SignalSource.Processor {
         }
     }
 
+    /**
+     * Sets whether spikes should be detected in the incoming signal. Spikes are only detected in live signal, never
+     * during playback.
+     */
+    void setSpikeDetection(boolean spikeDetection) {
+        LOGD(TAG, "setSpikeDetection(" + spikeDetection + ")");
+
+        synchronized (lock) {
+            this.spikeDetection = spikeDetection;
+            // noise estimates are stale by the time detection is turned back on
+            JniUtils.resetSpikeDetector();
+        }
+    }
+
     /**
      * Sets whether incoming signal is being sought or not.
      */
@@ -502,6 +534,7 @@ public class SignalProcessor implements SignalSource.Processor {
         this.signalSource = signalSource;
 
         processingBuffer.clearAllBuffers();
+        JniUtils.resetSpikeDetector();
 
         // let's notify any interested party of the data source initial sample rate, channel count and bits/sample
         onSampleRateChanged(signalSource.getSampleRate());
@@ -557,23 +590,40 @@ public class SignalProcessor implements SignalSource.Processor {
             signalSource.processIncomingData(signalData, buffer, length);
             //benchmark.end();
 
-            if (visibleSignalData.channelCount > 0) { // only configure channels if there is at least one visible
-                final boolean signalAveraging = signalConfiguration.isSignalAveraging();
-                // configure channels of processed signal
-                signalData.copyReconfigured(visibleSignalData, signalConfiguration);
-                // average processed signal
-                JniUtils.processThreshold(averagedSignalData, visibleSignalData, signalAveraging);
-                //benchmark.start();
-                if (!signalAveraging) JniUtils.processFft(fft, visibleSignalData);
-                //benchmark.end();
-
-                // forward received samples to Processing Service
-                if (listener != null) listener.onDataProcessed(visibleSignalData);
+            onDataProcessed();
+        }
+    }
+
+    @SuppressWarnings("WeakerAccess") void processNativeBufferedData() {
+        synchronized (lock) {
+            // process incoming signal buffered in native code
+            if (signalSource.processNativeBufferedData(signalData) > 0) onDataProcessed();
+        }
+    }
+
+    // Configures, averages and runs FFT on the processed signal and passes it to the listener and processing buffer
+    private void onDataProcessed() {
+        if (visibleSignalData.channelCount > 0) { // only configure channels if there is at least one visible
+            final boolean signalAveraging = signalConfiguration.isSignalAveraging();
+            // configure channels of processed signal
+            signalData.copyReconfigured(visibleSignalData, signalConfiguration);
+            // detect spikes in live signal, index of the last processed frame is used to position them
+            if (spikeDetection && !signalSource.isFile()) {
+                signalData.lastSampleIndex = JniUtils.detectSpikes(visibleSignalData);
+                visibleSignalData.lastSampleIndex = signalData.lastSampleIndex;
             }
+            // average processed signal
+            JniUtils.processThreshold(averagedSignalData, visibleSignalData, signalAveraging);
+            //benchmark.start();
+            if (!signalAveraging) JniUtils.processFft(fft, visibleSignalData);
+            //benchmark.end();
 
-            // add to buffer
-            processingBuffer.add(signalData, averagedSignalData, fft);
+            // forward received samples to Processing Service
+            if (listener != null) listener.onDataProcessed(visibleSignalData);
         }
+
+        // add to buffer
+        processingBuffer.add(signalData, averagedSignalData, fft);
     }
 
     // Set max number of samples that can bEe processed in normal processing, in threshold and in fft
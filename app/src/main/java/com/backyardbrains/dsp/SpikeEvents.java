@@ -0,0 +1,58 @@
+package com.backyardbrains.dsp;
+
+import androidx.annotation.IntDef;
+import com.backyardbrains.utils.JniUtils;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Data holder class for the spikes found by the live spike detector. Every consumer has its own queue of spikes so
+ * renderer and recorder don't take spikes from each other.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeEvents {
+
+    /**
+     * Consumers of the live spikes.
+     */
+    @Retention(RetentionPolicy.SOURCE) @IntDef({ Consumer.RENDERER, Consumer.RECORDER }) public @interface Consumer {
+        int RENDERER = 0;
+        int RECORDER = 1;
+    }
+
+    /**
+     * Value of {@link #trains} for spikes that don't fall within any of the train windows. Live spike detector has no
+     * train windows yet, so all live spikes have this value.
+     */
+    public static final int NO_TRAIN = -1;
+    /**
+     * Value of {@link #units} for spikes that are not sorted into any of the units.
+     */
+    public static final int NO_UNIT = -1;
+
+    public final int[] channels;
+    public final int[] trains;
+    public final int[] units;
+    public final short[] values;
+    public final long[] frameIndices;
+    public int count;
+
+    public SpikeEvents(int maxCount) {
+        channels = new int[maxCount];
+        trains = new int[maxCount];
+        units = new int[maxCount];
+        values = new short[maxCount];
+        frameIndices = new long[maxCount];
+        count = 0;
+    }
+
+    /**
+     * Reads as many spikes found since the last read by specified {@code consumer} as fit in this holder. Returns
+     * number of read spikes.
+     */
+    public int read(@Consumer int consumer) {
+        count = JniUtils.readSpikeEvents(consumer, channels, trains, units, values, frameIndices);
+        return count;
+    }
+}
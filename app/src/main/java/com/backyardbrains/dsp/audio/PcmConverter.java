@@ -0,0 +1,185 @@
+package com.backyardbrains.dsp.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Converts interleaved little-endian PCM data of arbitrary bit depth and channel count to 16-bit interleaved PCM
+ * that can be written directly to a WAV file. Class doesn't depend on Android framework so it can be used (and
+ * tested) on a plain JVM.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class PcmConverter {
+
+    /**
+     * Input samples are 8-bit unsigned integers.
+     */
+    public static final int FORMAT_PCM_8BIT = 1;
+    /**
+     * Input samples are 16-bit signed integers.
+     */
+    public static final int FORMAT_PCM_16BIT = 2;
+    /**
+     * Input samples are packed 24-bit signed integers.
+     */
+    public static final int FORMAT_PCM_24BIT = 3;
+    /**
+     * Input samples are 32-bit signed integers.
+     */
+    public static final int FORMAT_PCM_32BIT = 4;
+    /**
+     * Input samples are 32-bit floats in range [-1, 1].
+     */
+    public static final int FORMAT_PCM_FLOAT = 5;
+
+    private final int inFormat;
+    private final int inChannelCount;
+    private final int outChannelCount;
+    private final int inBytesPerSample;
+    private final int inFrameSize;
+
+    // holds bytes of the incomplete frame left over from the previous call
+    private final byte[] remainder;
+    private int remainderLength;
+
+    /**
+     * @param inFormat Format of the input samples. One of {@link #FORMAT_PCM_8BIT}, {@link #FORMAT_PCM_16BIT},
+     * {@link #FORMAT_PCM_24BIT}, {@link #FORMAT_PCM_32BIT} or {@link #FORMAT_PCM_FLOAT}.
+     * @param inChannelCount Number of interleaved channels in the input.
+     * @param outChannelCount Number of interleaved channels in the output. Needs to be equal to {@code
+     * inChannelCount} or {@code 1}, in which case all input channels are mixed down to a single channel.
+     */
+    public PcmConverter(int inFormat, int inChannelCount, int outChannelCount) {
+        if (inChannelCount <= 0) {
+            throw new IllegalArgumentException("Unsupported number of input channels: " + inChannelCount);
+        }
+        if (outChannelCount != inChannelCount && outChannelCount != 1) {
+            throw new IllegalArgumentException(
+                "Can't convert " + inChannelCount + " channels to " + outChannelCount + " channels");
+        }
+
+        this.inFormat = inFormat;
+        this.inChannelCount = inChannelCount;
+        this.outChannelCount = outChannelCount;
+        this.inBytesPerSample = getBytesPerSample(inFormat);
+        this.inFrameSize = inBytesPerSample * inChannelCount;
+        this.remainder = new byte[inFrameSize];
+    }
+
+    /**
+     * Returns number of bytes a single sample of the specified {@code format} takes.
+     */
+    public static int getBytesPerSample(int format) {
+        switch (format) {
+            case FORMAT_PCM_8BIT:
+                return 1;
+            case FORMAT_PCM_16BIT:
+                return 2;
+            case FORMAT_PCM_24BIT:
+                return 3;
+            case FORMAT_PCM_32BIT:
+            case FORMAT_PCM_FLOAT:
+                return 4;
+            default:
+                throw new IllegalArgumentException("Unsupported PCM format: " + format);
+        }
+    }
+
+    /**
+     * Number of channels in the converted output.
+     */
+    public int getOutChannelCount() {
+        return outChannelCount;
+    }
+
+    /**
+     * Returns maximum number of bytes that conversion of {@code inLength} input bytes can produce.
+     */
+    public int getMaxOutputSize(int inLength) {
+        return (inLength + remainderLength) / inFrameSize * outChannelCount * 2;
+    }
+
+    /**
+     * Converts all remaining bytes of the specified {@code in} buffer and writes the 16-bit little-endian result
+     * into the specified {@code out} buffer starting at its current position. Bytes of the last incomplete frame are
+     * kept and prepended to the input of the next call. Returns number of bytes written to {@code out}.
+     *
+     * @throws java.nio.BufferOverflowException if {@code out} doesn't have enough space left.
+     */
+    public int convert(ByteBuffer in, ByteBuffer out) {
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        out.order(ByteOrder.LITTLE_ENDIAN);
+
+        final int start = out.position();
+        // first finish the frame left over from the previous call
+        if (remainderLength > 0) {
+            final int len = Math.min(inFrameSize - remainderLength, in.remaining());
+            in.get(remainder, remainderLength, len);
+            remainderLength += len;
+            if (remainderLength < inFrameSize) return 0;
+
+            convertFrame(ByteBuffer.wrap(remainder).order(ByteOrder.LITTLE_ENDIAN), out);
+            remainderLength = 0;
+        }
+        while (in.remaining() >= inFrameSize) {
+            convertFrame(in, out);
+        }
+        // keep the incomplete frame for the next call
+        remainderLength = in.remaining();
+        in.get(remainder, 0, remainderLength);
+
+        return out.position() - start;
+    }
+
+    /**
+     * Discards any bytes of the incomplete frame kept from the previous {@link #convert(ByteBuffer, ByteBuffer)}
+     * call.
+     */
+    public void reset() {
+        remainderLength = 0;
+    }
+
+    // Converts single frame from current position of the specified in buffer and writes it to the out buffer
+    private void convertFrame(ByteBuffer in, ByteBuffer out) {
+        if (outChannelCount == inChannelCount) {
+            for (int i = 0; i < inChannelCount; i++) {
+                out.putShort(toShort(readSample(in)));
+            }
+        } else {
+            float sum = 0;
+            for (int i = 0; i < inChannelCount; i++) {
+                sum += readSample(in);
+            }
+            out.putShort(toShort(sum / inChannelCount));
+        }
+    }
+
+    // Reads single sample from current position of the specified buffer and returns it normalized to [-1, 1]
+    private float readSample(ByteBuffer in) {
+        switch (inFormat) {
+            case FORMAT_PCM_8BIT:
+                return ((in.get() & 0xff) - 128) / 128f;
+            default:
+            case FORMAT_PCM_16BIT:
+                return in.getShort() / 32768f;
+            case FORMAT_PCM_24BIT:
+                final int b0 = in.get() & 0xff;
+                final int b1 = in.get() & 0xff;
+                final int b2 = in.get(); // sign extends
+                return ((b2 << 16) | (b1 << 8) | b0) / 8388608f;
+            case FORMAT_PCM_32BIT:
+                return in.getInt() / 2147483648f;
+            case FORMAT_PCM_FLOAT:
+                return in.getFloat();
+        }
+    }
+
+    // Converts normalized sample to 16-bit value clipping it if necessary
+    private static short toShort(float sample) {
+        final float scaled = sample * 32768f;
+        if (scaled >= Short.MAX_VALUE) return Short.MAX_VALUE;
+        if (scaled <= Short.MIN_VALUE) return Short.MIN_VALUE;
+        return (short) scaled;
+    }
+}
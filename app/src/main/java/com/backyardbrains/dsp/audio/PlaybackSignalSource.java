@@ -4,6 +4,7 @@ import android.media.AudioFormat;
 import android.media.AudioTrack;
 import android.os.Build;
 import android.util.Pair;
+import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.backyardbrains.dsp.AbstractSignalSource;
@@ -17,6 +18,8 @@ import com.crashlytics.android.Crashlytics;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -38,6 +41,31 @@ public class PlaybackSignalSource extends AbstractSignalSource {
     // Lock used when reading samples and events
     @SuppressWarnings("WeakerAccess") static final Object lock = new Object();
 
+    /**
+     * Normal playback speed.
+     */
+    public static final int SPEED_NORMAL = 1;
+    /**
+     * Max playback speed.
+     */
+    public static final int SPEED_MAX = 64;
+
+    /**
+     * Defines what is played while fast-forwarding.
+     */
+    @Retention(RetentionPolicy.SOURCE) @IntDef({
+        FastForwardAudio.MUTED, FastForwardAudio.PITCH_PRESERVED
+    }) public @interface FastForwardAudio {
+        /**
+         * Audio is muted.
+         */
+        int MUTED = 0;
+        /**
+         * Short chunks of the recording are played at normal speed so pitch is preserved.
+         */
+        int PITCH_PRESERVED = 1;
+    }
+
     /**
      * Thread used for reading the audio file.
      */
@@ -138,12 +166,28 @@ public class PlaybackSignalSource extends AbstractSignalSource {
                         raf.bitsPerSample());
                 }
 
+                // bytes per single frame
+                final int frameSize = raf.channelCount() * raf.bitsPerSample() / 8;
+                // buffer that holds silence written to audio track while fast-forwarding with muted audio
+                final byte[] silence = new byte[bytesToReadWhilePlaying];
+                // buffer that holds data read ahead while fast-forwarding
+                byte[] readAheadBuffer = null;
+
                 while (working.get() && raf != null) {
                     if (playing.get()) {
+                        final int speed = playbackSpeed.get();
+                        // while fast-forwarding we read speed times more data than we play
+                        final int bytesToRead = bytesToReadWhilePlaying * speed;
+                        if (speed > SPEED_NORMAL && (readAheadBuffer == null
+                            || readAheadBuffer.length < bytesToRead)) {
+                            readAheadBuffer = new byte[bytesToRead];
+                        }
+                        final byte[] readBuffer = speed > SPEED_NORMAL ? readAheadBuffer : buffer;
+
                         synchronized (lock) {
                             // if we are playing after seek we need to fix position
                             if (Math.abs(raf.getFilePointer() - progress.get())
-                                > bytesToReadWhilePlaying) {
+                                > bytesToRead) {
                                 raf.seek(progress.get());
                             }
 
@@ -156,7 +200,7 @@ public class PlaybackSignalSource extends AbstractSignalSource {
                             samplesToPrepend.set(0);
 
                             // check if audio playback reached end
-                            if ((read = raf.read(buffer, 0, bytesToReadWhilePlaying)) < 0) {
+                            if ((read = raf.read(readBuffer, 0, bytesToRead)) < 0) {
                                 // set playing flag
                                 playing.set(false);
 
@@ -175,8 +219,17 @@ public class PlaybackSignalSource extends AbstractSignalSource {
                                 AudioUtils.getFrameCount(progress.get(), raf.channelCount(),
                                     raf.bitsPerSample()));
 
-                            // write data to buffer
-                            writeToBuffer(buffer, read);
+                            // write data to buffer, decimated if we are fast-forwarding
+                            if (speed > SPEED_NORMAL) {
+                                final int decimated =
+                                    JniUtils.decimateMinMax(buffer, readAheadBuffer, read, raf.channelCount(),
+                                        raf.bitsPerSample(), speed);
+                                decimationFactor.set(speed);
+                                writeToBuffer(buffer, decimated);
+                            } else {
+                                decimationFactor.set(SPEED_NORMAL);
+                                writeToBuffer(buffer, read);
+                            }
 
                             // trigger progress listener
                             if (playbackListener != null) {
@@ -184,16 +237,19 @@ public class PlaybackSignalSource extends AbstractSignalSource {
                                     raf.channelCount(), raf.bitsPerSample());
                             }
 
-                            if (track.getAudioFormat() == AudioFormat.ENCODING_PCM_FLOAT) {
-                                pcmFloatByteBuffer.put(buffer, 0, read);
-                                pcmFloatByteBuffer.clear();
-                                pcmFloatByteBuffer.asFloatBuffer()
-                                    .get(pcmFloatBuffer, 0, floatsToReadWhilePlaying);
-                                // play audio data if we're not seeking
-                                track.write(pcmFloatBuffer, 0, floatsToReadWhilePlaying,
-                                    AudioTrack.WRITE_BLOCKING);
+                            // audio track paces the reading so we always write the same amount of data to it,
+                            // when fast-forwarding we either write silence or a part of the read block which
+                            // preserves the pitch
+                            if (speed > SPEED_NORMAL) {
+                                final int trackLength = Math.max(frameSize, read / speed / frameSize * frameSize);
+                                if (fastForwardAudio == FastForwardAudio.PITCH_PRESERVED) {
+                                    writeToTrack(track, readAheadBuffer, trackLength, pcmFloatByteBuffer,
+                                        pcmFloatBuffer);
+                                } else {
+                                    writeToTrack(track, silence, trackLength, pcmFloatByteBuffer, pcmFloatBuffer);
+                                }
                             } else {
-                                track.write(buffer, 0, read);
+                                writeToTrack(track, buffer, read, pcmFloatByteBuffer, pcmFloatBuffer);
                             }
                         }
                     }
@@ -213,6 +269,22 @@ public class PlaybackSignalSource extends AbstractSignalSource {
             }
         }
 
+        // Writes specified number of bytes from the specified buffer to the audio track
+        private void writeToTrack(@NonNull AudioTrack track, @NonNull byte[] data, int len,
+            @NonNull ByteBuffer pcmFloatByteBuffer, @NonNull float[] pcmFloatBuffer) {
+            if (track.getAudioFormat() == AudioFormat.ENCODING_PCM_FLOAT) {
+                final int floatCount = len / 4;
+                pcmFloatByteBuffer.clear();
+                pcmFloatByteBuffer.put(data, 0, len);
+                pcmFloatByteBuffer.clear();
+                pcmFloatByteBuffer.asFloatBuffer().get(pcmFloatBuffer, 0, floatCount);
+                // play audio data if we're not seeking
+                track.write(pcmFloatBuffer, 0, floatCount, AudioTrack.WRITE_BLOCKING);
+            } else {
+                track.write(data, 0, len);
+            }
+        }
+
         /**
          * This represents a single seek loop.
          *
@@ -235,6 +307,9 @@ public class PlaybackSignalSource extends AbstractSignalSource {
                 // buffer needs to be initialized
                 if (buffer == null) return;
 
+                // seeking always renders signal at normal speed
+                decimationFactor.set(SPEED_NORMAL);
+
                 // number of bytes actually read during single read
                 if (raf.read(buffer) > 0) {
                     if (zerosPrependCount < 0) {
@@ -301,6 +376,7 @@ public class PlaybackSignalSource extends AbstractSignalSource {
                 samplesToPrepend.set(0);
 
                 BufferUtils.emptyBuffer(buffer);
+                decimationFactor.set(SPEED_NORMAL);
                 writeToBuffer(buffer, bufferSize);
 
                 LOGD(TAG, "Audio file rewind");
@@ -406,6 +482,12 @@ public class PlaybackSignalSource extends AbstractSignalSource {
     @SuppressWarnings("WeakerAccess") AtomicLong toSample = new AtomicLong();
     // Number of samples that should be prepended while playing begining of the audio file
     @SuppressWarnings("WeakerAccess") AtomicInteger samplesToPrepend = new AtomicInteger();
+    // Current playback speed
+    @SuppressWarnings("WeakerAccess") AtomicInteger playbackSpeed = new AtomicInteger(SPEED_NORMAL);
+    // Factor by which data that is currently being processed was decimated
+    @SuppressWarnings("WeakerAccess") AtomicInteger decimationFactor = new AtomicInteger(SPEED_NORMAL);
+    // What should be played while fast-forwarding
+    @SuppressWarnings("WeakerAccess") volatile @FastForwardAudio int fastForwardAudio = FastForwardAudio.MUTED;
     // Holds all events saved for the played file
     @SuppressWarnings("WeakerAccess") List<Pair<Integer, String>> allEvents;
 
@@ -444,6 +526,34 @@ public class PlaybackSignalSource extends AbstractSignalSource {
         return duration.get();
     }
 
+    /**
+     * Returns current playback speed.
+     */
+    public int getPlaybackSpeed() {
+        return playbackSpeed.get();
+    }
+
+    /**
+     * Sets playback speed. Speed needs to be a power of 2 between {@link #SPEED_NORMAL} and {@link #SPEED_MAX}. When
+     * playing faster than normal, recording is read in large sequential blocks and the signal is decimated by
+     * preserving min and max values before processing, so displayed time window is {@code speed} times longer.
+     */
+    public void setPlaybackSpeed(int speed) {
+        if (speed < SPEED_NORMAL || speed > SPEED_MAX || Integer.bitCount(speed) != 1) {
+            throw new IllegalArgumentException("Unsupported playback speed: " + speed);
+        }
+        playbackSpeed.set(speed);
+
+        LOGD(TAG, "Playback speed set to " + speed + "x");
+    }
+
+    /**
+     * Sets what should be played while fast-forwarding. One of {@link FastForwardAudio} constants.
+     */
+    public void setFastForwardAudio(@FastForwardAudio int fastForwardAudio) {
+        this.fastForwardAudio = fastForwardAudio;
+    }
+
     /**
      * Pauses playback.
      */
@@ -578,7 +688,7 @@ public class PlaybackSignalSource extends AbstractSignalSource {
     public void processIncomingData(@NonNull SignalData outData, byte[] inData, int inDataLength) {
         //benchmark.start();
         JniUtils.processPlaybackStream(outData, inData, inDataLength, eventIndices, eventNames,
-            eventIndices.length, fromSample.get(), toSample.get(), samplesToPrepend.get());
+            eventIndices.length, fromSample.get(), toSample.get(), samplesToPrepend.get(), decimationFactor.get());
         //benchmark.end();
     }
 
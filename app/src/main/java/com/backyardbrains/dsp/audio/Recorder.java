@@ -23,15 +23,19 @@ import android.media.AudioTrack;
 import android.util.Pair;
 import androidx.annotation.NonNull;
 import com.backyardbrains.dsp.SignalData;
+import com.backyardbrains.dsp.SpikeEvents;
 import com.backyardbrains.utils.AudioUtils;
 import com.backyardbrains.utils.JniUtils;
 import com.backyardbrains.utils.RecordingUtils;
 import com.crashlytics.android.Crashlytics;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
@@ -48,6 +52,9 @@ public class Recorder {
 
     @SuppressWarnings("WeakerAccess") static final String EVENT_MARKERS_FILE_HEADER_CONTENT =
         "# Marker IDs can be arbitrary strings.\n# Marker ID,\tTime (in s)";
+    @SuppressWarnings("WeakerAccess") static final String SPIKES_FILE_HEADER_CONTENT =
+        "# Spikes found while recording. Spikes that don't belong to any train or unit have train or unit -1.\n"
+            + "# Channel,\tTrain,\tSample index,\tValue,\tUnit";
 
     private class WriteThread extends Thread {
 
@@ -55,6 +62,8 @@ public class Recorder {
         private static final int BUFFER_SIZE_IN_SAMPLES =
             AudioUtils.DEFAULT_SAMPLE_RATE * BUFFER_SIZE_IN_SEC;
         private static final int BUFFER_SIZE_IN_BYTES = BUFFER_SIZE_IN_SAMPLES * 2;
+        // Max number of live spikes read at once
+        private static final int MAX_SPIKES_PER_READ = 1024;
 
         private final ByteBuffer bb;
 
@@ -77,6 +86,17 @@ public class Recorder {
         private byte[] byteBuffer = new byte[BUFFER_SIZE_IN_BYTES];
         private short[] samples = new short[BUFFER_SIZE_IN_SAMPLES];
 
+        // Spikes are written by this thread while recording and the rest of them once recording is stopped
+        private final Object spikesLock = new Object();
+        private final SpikeEvents spikeEvents = new SpikeEvents(MAX_SPIKES_PER_READ);
+        private final StringBuilder spikeLine = new StringBuilder();
+        private File spikesFile;
+        private Writer spikesWriter;
+        private long droppedSpikeCount;
+        // Indices of the first and the last recorded frame as counted by the live spike detector
+        private volatile long firstFrameIndex;
+        private volatile long lastFrameIndex;
+
         WriteThread() {
             // crate byte buffer that will be used for converting shorts to bytes
             bb = ByteBuffer.allocate(BUFFER_SIZE_IN_BYTES).order(ByteOrder.nativeOrder());
@@ -91,6 +111,15 @@ public class Recorder {
                             if (recording.get()) outputStream.write(byteBuffer, 0, size);
                             if (playing.get()) audioTrack.write(byteBuffer, 0, size);
                         }
+                        // this thread is the only one reading spikes while recording is in progress
+                        synchronized (spikesLock) {
+                            if (spikesFile != null) {
+                                // spikes of the recorded frames are left in the queue until first frame is written
+                                if (firstFrameIndex >= 0) readSpikes(true);
+                            } else {
+                                readSpikes(false);
+                            }
+                        }
                     } catch (IOException e) {
                         throw new IllegalStateException("Could not write sample to file", e);
                     }
@@ -119,6 +148,13 @@ public class Recorder {
             eventsFile = RecordingUtils.createEventsFile(audioFile);
             events.clear();
             eventsFileContent.delete(0, eventsFileContent.length());
+            // spikes file is created once the first spike is found
+            synchronized (spikesLock) {
+                firstFrameIndex = -1;
+                lastFrameIndex = -1;
+                droppedSpikeCount = JniUtils.getDroppedSpikeEventCount(SpikeEvents.Consumer.RECORDER);
+                spikesFile = RecordingUtils.createSpikesFile(audioFile);
+            }
 
             // start
             recording.set(true);
@@ -169,6 +205,12 @@ public class Recorder {
                 if (isRecording) {
                     frameCount = (int) AudioUtils.getFrameCount(audioFile.length(), channelCount,
                         bitsPerSample);
+
+                    // live spikes are positioned by the index of the last frame that went through spike detector
+                    if (firstFrameIndex < 0) {
+                        firstFrameIndex = signalData.lastSampleIndex - signalData.sampleCounts[0] + 1;
+                    }
+                    lastFrameIndex = signalData.lastSampleIndex;
                 }
 
                 // save samples to buffer as bytes
@@ -215,6 +257,82 @@ public class Recorder {
             } catch (IOException e) {
                 Crashlytics.logException(e);
             }
+
+            saveSpikesFile();
+        }
+
+        // Saves spikes that haven't been read yet and closes the spikes file
+        private void saveSpikesFile() {
+            synchronized (spikesLock) {
+                if (firstFrameIndex >= 0) readSpikes(true);
+                closeSpikesWriter();
+
+                // incomplete spikes file is deleted so spikes are found again once the recording is analysed
+                final long dropped =
+                    JniUtils.getDroppedSpikeEventCount(SpikeEvents.Consumer.RECORDER) - droppedSpikeCount;
+                if (dropped > 0 && spikesFile != null) {
+                    LOGD(TAG, dropped + " live spikes were dropped before they could be saved, deleting spikes file");
+                    //noinspection ResultOfMethodCallIgnored
+                    spikesFile.delete();
+                }
+                spikesFile = null;
+            }
+        }
+
+        // Reads all the spikes found by the live spike detector so far and, if specified, appends those found within
+        // the recorded frames to the spikes file. Should be called while holding spikesLock.
+        private void readSpikes(boolean save) {
+            final long first = firstFrameIndex;
+            // spikes found after the recording was stopped are not saved
+            final long last = recording.get() ? Long.MAX_VALUE : lastFrameIndex;
+            while (spikeEvents.read(SpikeEvents.Consumer.RECORDER) > 0) {
+                if (!save || spikesFile == null) continue;
+
+                try {
+                    for (int i = 0; i < spikeEvents.count; i++) {
+                        final long frameIndex = spikeEvents.frameIndices[i];
+                        if (frameIndex < first || frameIndex > last) continue;
+
+                        if (spikesWriter == null) {
+                            spikesWriter = new BufferedWriter(new FileWriter(spikesFile));
+                            spikesWriter.write(SPIKES_FILE_HEADER_CONTENT);
+                        }
+                        spikeLine.setLength(0);
+                        spikeLine.append('\n')
+                            .append(spikeEvents.channels[i])
+                            .append(",\t")
+                            .append(spikeEvents.trains[i])
+                            .append(",\t")
+                            .append(frameIndex - first)
+                            .append(",\t")
+                            .append(spikeEvents.values[i])
+                            .append(",\t")
+                            .append(spikeEvents.units[i]);
+                        spikesWriter.append(spikeLine);
+                    }
+                } catch (IOException e) {
+                    Crashlytics.logException(e);
+                    // recording shouldn't fail because of the spikes so we just stop saving them
+                    closeSpikesWriter();
+                    //noinspection ResultOfMethodCallIgnored
+                    spikesFile.delete();
+                    spikesFile = null;
+                }
+            }
+        }
+
+        // Closes the spikes file writer, if open
+        private void closeSpikesWriter() {
+            if (spikesWriter == null) return;
+
+            try {
+                // same as events file, spikes file ends with a RETURN char
+                spikesWriter.write("\n");
+                spikesWriter.close();
+            } catch (IOException e) {
+                Crashlytics.logException(e);
+            }
+            spikesWriter = null;
         }
 
         // Populates and saves file with all the events
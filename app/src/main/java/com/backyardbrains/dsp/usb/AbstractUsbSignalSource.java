@@ -13,9 +13,14 @@ import com.backyardbrains.utils.ExpansionBoardType;
 import com.backyardbrains.utils.JniUtils;
 import com.backyardbrains.utils.SampleStreamUtils;
 import com.backyardbrains.utils.SpikerBoxHardwareType;
+import com.crashlytics.android.Crashlytics;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Set;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
 /**
@@ -29,6 +34,9 @@ public abstract class AbstractUsbSignalSource extends AbstractSignalSource imple
 
     private final UsbDevice device;
 
+    // Writes raw incoming byte stream to a capture file while capturing is on
+    private volatile UsbCaptureWriter captureWriter;
+
     /**
      * Interface definition for a callback to be invoked when SpikerBox hardware type is detected after connection.
      */
@@ -72,14 +80,14 @@ public abstract class AbstractUsbSignalSource extends AbstractSignalSource imple
 
     private boolean disconnecting;
 
-    AbstractUsbSignalSource(@NonNull UsbDevice device) {
+    AbstractUsbSignalSource(@Nullable UsbDevice device) {
         super(SampleStreamUtils.DEFAULT_SAMPLE_RATE, AudioUtils.DEFAULT_CHANNEL_COUNT,
             AudioUtils.getBitsPerSample(AudioUtils.DEFAULT_BITS_PER_SAMPLE));
 
         this.device = device;
 
         // check if we can determine board type right away (through VID and PID)
-        setHardwareType(getHardwareType(device));
+        if (device != null) setHardwareType(getHardwareType(device));
     }
 
     /**
@@ -151,6 +159,7 @@ public abstract class AbstractUsbSignalSource extends AbstractSignalSource imple
         disconnecting = true;
         AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
             stopReadingStream();
+            stopCapture();
             disconnecting = false;
 
             if (onUsbSignalSourceDisconnectListener != null) onUsbSignalSourceDisconnectListener.onDisconnected();
@@ -218,6 +227,91 @@ public abstract class AbstractUsbSignalSource extends AbstractSignalSource imple
         onUsbSignalSourceDisconnectListener = listener;
     }
 
+    /**
+     * Starts capturing raw byte stream received from the USB device, together with arrival timestamps, to the
+     * specified {@code file}. Captured stream can be replayed with {@link ReplayUsbSignalSource}.
+     */
+    public void startCapture(@NonNull File file) throws IOException {
+        stopCapture();
+
+        LOGD(TAG, "Capturing USB byte stream to " + file.getAbsolutePath());
+        captureWriter = new UsbCaptureWriter(file, getCaptureFormat(), getCapturePacketSize());
+    }
+
+    /**
+     * Stops capturing raw byte stream received from the USB device.
+     */
+    public void stopCapture() {
+        final UsbCaptureWriter writer = captureWriter;
+        captureWriter = null;
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOGE(TAG, "IOException while closing USB capture file: " + e.toString());
+                Crashlytics.logException(e);
+            }
+        }
+    }
+
+    /**
+     * Whether raw byte stream received from the USB device is currently being captured.
+     */
+    public boolean isCapturing() {
+        return captureWriter != null;
+    }
+
+    /**
+     * Subclasses should pass all raw data received from the USB device so it can be captured if capturing is on.
+     */
+    final void capture(@NonNull byte[] data, int length) {
+        final UsbCaptureWriter writer = captureWriter;
+        if (writer != null) {
+            try {
+                writer.write(data, length);
+            } catch (IOException e) {
+                onCaptureError(e);
+            }
+        }
+    }
+
+    /**
+     * Subclasses should pass all raw data received from the USB device so it can be captured if capturing is on.
+     */
+    final void capture(@NonNull ByteBuffer data) {
+        final UsbCaptureWriter writer = captureWriter;
+        if (writer != null) {
+            try {
+                writer.write(data);
+            } catch (IOException e) {
+                onCaptureError(e);
+            }
+        }
+    }
+
+    /**
+     * Returns format of the data passed to {@link #capture(byte[], int)}. One of {@link
+     * UsbCaptureWriter#FORMAT_STREAM} or {@link UsbCaptureWriter#FORMAT_HID_PACKETS}.
+     */
+    int getCaptureFormat() {
+        return UsbCaptureWriter.FORMAT_STREAM;
+    }
+
+    /**
+     * Returns size of the single packet passed to {@link #capture(ByteBuffer)} if capture format is {@link
+     * UsbCaptureWriter#FORMAT_HID_PACKETS}.
+     */
+    int getCapturePacketSize() {
+        return 0;
+    }
+
+    // Stops capturing when capture file cannot be written to
+    private void onCaptureError(@NonNull IOException e) {
+        LOGE(TAG, "IOException while writing USB capture file: " + e.toString());
+        Crashlytics.logException(e);
+        stopCapture();
+    }
+
     //private final Benchmark benchmark = new Benchmark("PROCESS_SAMPLE_STREAM_TEST").warmUp(1000)
     //    .sessions(10)
     //    .measuresPerSession(2000)
@@ -233,6 +327,20 @@ public abstract class AbstractUsbSignalSource extends AbstractSignalSource imple
         //benchmark.end();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override public final boolean awaitNativeBufferedData(int timeoutMs) {
+        return JniUtils.awaitUsbPacketRing(timeoutMs);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public final int processNativeBufferedData(@NonNull SignalData outData) {
+        return JniUtils.processUsbPacketRing(outData, this);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -241,9 +349,9 @@ public abstract class AbstractUsbSignalSource extends AbstractSignalSource imple
     }
 
     /**
-     * Returns wrapped {@link UsbDevice}.
+     * Returns wrapped {@link UsbDevice}, or {@code null} if signal source is not backed by an actual device.
      */
-    @Override public UsbDevice getUsbDevice() {
+    @Nullable @Override public UsbDevice getUsbDevice() {
         return device;
     }
 
@@ -11,69 +11,16 @@ class HIDBuffer {
 
     // TI Vendor ID
     static final byte TEXAS_INSTRUMENTS_VENDOR_ID = 63;
-    // Valid number of bytes to copy in each packet
-    private static final byte VALID_DATA_PACKET_SIZE = 62;
-
-    private static final int PACKET_SIZE = 64;
-    private static final int BUFFER_MULTIPLIER = 8;
-    static final int DEFAULT_READ_BUFFER_SIZE = PACKET_SIZE * BUFFER_MULTIPLIER;
-    static final int DEFAULT_READ_PAYLOAD_BUFFER_SIZE = DEFAULT_READ_BUFFER_SIZE - BUFFER_MULTIPLIER * 2;
     private static final int DEFAULT_WRITE_BUFFER_SIZE = 255 * 2;
 
     private SynchronizedBuffer writeBuffer;
-    private byte[] readBuffer;
-    //private byte[] tmp;
-    //private byte[] tmp2;
-    //private byte[] tmp3;
-    //boolean printNext;
 
     HIDBuffer() {
-        this(DEFAULT_READ_BUFFER_SIZE, DEFAULT_WRITE_BUFFER_SIZE);
+        this(DEFAULT_WRITE_BUFFER_SIZE);
     }
 
-    private HIDBuffer(int readBufferSize, int writeBufferSize) {
+    private HIDBuffer(int writeBufferSize) {
         writeBuffer = new SynchronizedBuffer(writeBufferSize);
-        readBuffer = new byte[readBufferSize];
-        //tmp = new byte[readBufferSize];
-        //tmp2 = new byte[readBufferSize];
-        //tmp3 = new byte[readBufferSize];
-    }
-
-    byte[] getReadBuffer() {
-        return readBuffer;
-    }
-
-    int getDataReceived(byte[] buffer, int length) {
-        int counter = 0;
-        int copy, vendorId;
-        //if (printNext) {
-        //    LOGD(TAG, Arrays.toString(tmp3));
-        //    LOGD(TAG, Arrays.toString(tmp2));
-        //    LOGD(TAG, Arrays.toString(tmp));
-        //    LOGD(TAG, Arrays.toString(readBuffer_compatible));
-        //    LOGD(TAG, "===================");
-        //    printNext = false;
-        //}
-        for (int i = 0; i < length; i += PACKET_SIZE) {
-            // first two bytes are reserved for HID Report ID(vendor specific), and number of transferred bytes
-            vendorId = readBuffer[i];
-            copy = readBuffer[i + 1];
-            if (vendorId != TEXAS_INSTRUMENTS_VENDOR_ID || copy != VALID_DATA_PACKET_SIZE) {
-                //LOGD(TAG, "(" + length + ") -> " + copy);
-                //printNext = true;
-                break;
-            }
-            System.arraycopy(readBuffer, i + 2, buffer, counter, copy);
-            counter += copy;
-        }
-        //if (length < DEFAULT_READ_BUFFER_SIZE) {
-        //    LOGD(TAG, "(" + length + ") -> " + counter);
-        //}
-        //System.arraycopy(tmp2, 0, tmp3, 0, DEFAULT_READ_BUFFER_SIZE);
-        //System.arraycopy(tmp, 0, tmp2, 0, DEFAULT_READ_BUFFER_SIZE);
-        //System.arraycopy(readBuffer_compatible, 0, tmp, 0, DEFAULT_READ_BUFFER_SIZE);
-
-        return counter;
     }
 
     byte[] getWriteBuffer() {
@@ -5,8 +5,8 @@ import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
-import android.hardware.usb.UsbRequest;
 import androidx.annotation.NonNull;
+import com.backyardbrains.utils.JniUtils;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -29,7 +29,7 @@ public class HIDSignalSource extends AbstractUsbSignalSource {
     private static final String MSG_BOARD_INQUIRY = "board:;";
     //private static final String MSG_SAMPLE_RATE_AND_NUM_OF_CHANNELS = "max:;";
 
-    private ReadThread readThread;
+    private UsbPacketPump readThread;
     private WriteThread writeThread;
 
     @SuppressWarnings("WeakerAccess") HIDBuffer usbBuffer;
@@ -39,40 +39,6 @@ public class HIDSignalSource extends AbstractUsbSignalSource {
     private UsbEndpoint outEndpoint;
     @SuppressWarnings("WeakerAccess") int packetSize;
 
-    /**
-     * Thread used for reading data sent by connected USB device
-     */
-    protected class ReadThread extends Thread {
-
-        private UsbEndpoint inEndpoint;
-        private AtomicBoolean working = new AtomicBoolean(true);
-
-        private byte[] dataReceived = new byte[HIDBuffer.DEFAULT_READ_PAYLOAD_BUFFER_SIZE];
-
-        @Override public void run() {
-            while (working.get()) {
-                if (inEndpoint != null) {
-                    int numberBytes = connection.bulkTransfer(inEndpoint, usbBuffer.getReadBuffer(),
-                        HIDBuffer.DEFAULT_READ_BUFFER_SIZE, 0);
-                    if (numberBytes > 0) {
-                        numberBytes = usbBuffer.getDataReceived(dataReceived, numberBytes);
-
-                        // first two bytes are reserved for HID Report ID(vendor specific), and number of transferred bytes
-                        writeToBuffer(dataReceived, numberBytes);
-                    }
-                }
-            }
-        }
-
-        void setUsbEndpoint(UsbEndpoint inEndpoint) {
-            this.inEndpoint = inEndpoint;
-        }
-
-        void stopReadThread() {
-            working.set(false);
-        }
-    }
-
     /**
      * Thread used for writing data to connected USB device.
      */
@@ -173,16 +139,12 @@ public class HIDSignalSource extends AbstractUsbSignalSource {
         boolean ret = openHID();
 
         if (ret) {
-            // initialize UsbRequest
-            final UsbRequest requestIn = new UsbRequest();
-            requestIn.initialize(connection, inEndpoint);
-
             // restart the working thread if it has been killed before and  get and claim interface
-            restartReadThread();
+            if (!restartReadThread()) return false;
             restartWriteThread();
 
-            // pass references to the threads
-            setThreadsParams(requestIn, outEndpoint);
+            // pass reference to the write thread
+            writeThread.setUsbEndpoint(outEndpoint);
 
             return true;
         } else {
@@ -190,6 +152,27 @@ public class HIDSignalSource extends AbstractUsbSignalSource {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override public boolean isNativeBuffered() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override int getCaptureFormat() {
+        return UsbCaptureWriter.FORMAT_HID_PACKETS;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override int getCapturePacketSize() {
+        return packetSize;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -228,12 +211,6 @@ public class HIDSignalSource extends AbstractUsbSignalSource {
         write(MSG_BOARD_INQUIRY.getBytes());
     }
 
-    // Pass UsbRequest to read thread and UsbEndpoint (in) to write thread.
-    private void setThreadsParams(UsbRequest request, UsbEndpoint endpoint) {
-        readThread.setUsbEndpoint(request.getEndpoint());
-        writeThread.setUsbEndpoint(endpoint);
-    }
-
     // Stops both read and write threads and releases resources
     private void close() {
         killReadThread();
@@ -245,20 +222,23 @@ public class HIDSignalSource extends AbstractUsbSignalSource {
     // Kill readThread. This must be called when closing a device.
     private void killReadThread() {
         if (readThread != null) {
-            readThread.stopReadThread();
+            readThread.stopPump();
             readThread = null;
         }
     }
 
-    // Restart readThread if it has been killed before
-    private void restartReadThread() {
+    // Restart readThread if it has been killed before. Received packets are written directly to native ring buffer.
+    private boolean restartReadThread() {
         if (readThread == null) {
-            readThread = new ReadThread();
+            final UsbPacketQueue queue = new UsbRequestPacketQueue(connection, inEndpoint);
+            if (!queue.open()) return false;
+
+            JniUtils.resetUsbPacketRing();
+            readThread = new UsbPacketPump(queue, this);
             readThread.start();
-            //noinspection StatementWithEmptyBody
-            while (!readThread.isAlive()) {
-            } // Busy waiting
         }
+
+        return true;
     }
 
     // Kill writeThread. This must be called when closing a device.
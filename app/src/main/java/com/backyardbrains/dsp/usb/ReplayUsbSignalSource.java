@@ -0,0 +1,173 @@
+package com.backyardbrains.dsp.usb;
+
+import androidx.annotation.NonNull;
+import com.backyardbrains.utils.JniUtils;
+import com.crashlytics.android.Crashlytics;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Implementation of {@link AbstractUsbSignalSource} that replays raw USB byte stream previously captured with {@link
+ * AbstractUsbSignalSource#startCapture(File)}. Captured bytes are fed through the same processing path as the bytes
+ * received from the actual device, either at the original pace or as fast as possible.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class ReplayUsbSignalSource extends AbstractUsbSignalSource {
+
+    private static final String TAG = makeLogTag(ReplayUsbSignalSource.class);
+
+    // Time replay thread waits for space in the native ring when replaying as fast as possible
+    private static final long RING_FULL_WAIT_NANOS = 1_000_000L; // 1ms
+
+    private final File file;
+    private final boolean realTime;
+    private final int format;
+
+    private ReplayThread replayThread;
+
+    /**
+     * Thread that reads captured records and passes them for processing.
+     */
+    protected class ReplayThread extends Thread {
+
+        private final AtomicBoolean working = new AtomicBoolean(true);
+
+        ReplayThread() {
+            super("ReplayUsbSignalSource");
+        }
+
+        @Override public void run() {
+            try (UsbCaptureReader reader = new UsbCaptureReader(file)) {
+                final boolean hid = reader.getFormat() == UsbCaptureWriter.FORMAT_HID_PACKETS;
+                final int packetSize = reader.getPacketSize();
+                ByteBuffer directBuffer = null;
+                final long startNanos = System.nanoTime();
+                long recordCount = 0;
+
+                while (working.get() && reader.next()) {
+                    final int length = reader.getLength();
+                    if (realTime) {
+                        // wait until it's time for the record to "arrive"
+                        final long dueNanos = startNanos + reader.getTimestampMicros() * 1000;
+                        long waitNanos;
+                        while (working.get() && (waitNanos = dueNanos - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(waitNanos);
+                        }
+                    }
+
+                    if (hid) {
+                        if (directBuffer == null || directBuffer.capacity() < length) {
+                            directBuffer = ByteBuffer.allocateDirect(length);
+                        }
+                        directBuffer.clear();
+                        directBuffer.put(reader.getData(), 0, length);
+                        // when replaying as fast as possible we don't want to lose packets
+                        // so we wait for the processing thread to make room
+                        while (!realTime && working.get() && JniUtils.getUsbPacketRingFreeSpace() < length) {
+                            LockSupport.parkNanos(RING_FULL_WAIT_NANOS);
+                        }
+                        JniUtils.writeHidPackets(directBuffer, length, packetSize);
+                    } else {
+                        JniUtils.onUsbPacketReceived();
+                        writeToBuffer(reader.getData(), length);
+                    }
+                    recordCount++;
+                }
+
+                LOGD(TAG, "Replayed " + recordCount + " records in " + (System.nanoTime() - startNanos) / 1000000
+                    + " ms");
+            } catch (IOException e) {
+                LOGE(TAG, "IOException while replaying USB capture file: " + e.toString());
+                Crashlytics.logException(e);
+            }
+        }
+
+        void stopReplayThread() {
+            working.set(false);
+        }
+    }
+
+    /**
+     * @param file Capture file that should be replayed.
+     * @param realTime Whether captured data should be replayed at the original pace or as fast as possible.
+     * @throws IOException if specified {@code file} is not a valid capture file.
+     */
+    public ReplayUsbSignalSource(@NonNull File file, boolean realTime) throws IOException {
+        super(null);
+
+        this.file = file;
+        this.realTime = realTime;
+        try (UsbCaptureReader reader = new UsbCaptureReader(file)) {
+            this.format = reader.getFormat();
+        }
+
+        // HID devices always start with two channels
+        if (format == UsbCaptureWriter.FORMAT_HID_PACKETS) setChannelCount(2);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public boolean isNativeBuffered() {
+        return format == UsbCaptureWriter.FORMAT_HID_PACKETS;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public boolean open() {
+        return file.exists();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public void write(byte[] buffer) {
+        // there is no device to write to, all the device replies are already part of the captured stream
+        LOGD(TAG, "Ignoring write: " + new String(buffer));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public void checkHardwareType() {
+        // hardware type replies are already part of the captured stream
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override protected void startReadingStream() {
+        if (replayThread == null) {
+            if (isNativeBuffered()) JniUtils.resetUsbPacketRing();
+
+            replayThread = new ReplayThread();
+            replayThread.start();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override protected void stopReadingStream() {
+        if (replayThread != null) {
+            replayThread.stopReplayThread();
+            replayThread = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override int getCaptureFormat() {
+        return format;
+    }
+}
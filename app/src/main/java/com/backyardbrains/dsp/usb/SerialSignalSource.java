@@ -3,6 +3,7 @@ package com.backyardbrains.dsp.usb;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import androidx.annotation.NonNull;
+import com.backyardbrains.utils.JniUtils;
 import com.backyardbrains.utils.SampleStreamUtils;
 import com.felhr.usbserial.UsbSerialDevice;
 import com.felhr.usbserial.UsbSerialInterface;
@@ -70,6 +71,8 @@ public class SerialSignalSource extends AbstractUsbSignalSource {
         if (serialDevice != null) {
             //LOGD(TAG, "READ(" + data.length + ") -> " + Arrays.toString(data));
             if (data.length > 0) {
+                JniUtils.onUsbPacketReceived();
+                capture(data, data.length);
                 writeToBuffer(data, data.length);
             }
         }
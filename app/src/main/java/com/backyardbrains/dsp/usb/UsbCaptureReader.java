@@ -0,0 +1,131 @@
+package com.backyardbrains.dsp.usb;
+
+import androidx.annotation.NonNull;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads capture files written by {@link UsbCaptureWriter} one record at a time.
+ * <p>
+ * Class doesn't depend on Android framework so captured files can be processed on a plain JVM.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class UsbCaptureReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataInputStream in;
+    private final int format;
+    private final int packetSize;
+    private final long startTimeMillis;
+
+    private byte[] data = new byte[1024];
+    private int length;
+    private long timestampMicros;
+
+    public UsbCaptureReader(@NonNull File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            if (in.readInt() != UsbCaptureWriter.MAGIC) throw new IOException("Not a USB capture file");
+            final int version = in.readUnsignedByte();
+            if (version != UsbCaptureWriter.VERSION) {
+                throw new IOException("Unsupported USB capture file version: " + version);
+            }
+            format = in.readUnsignedByte();
+            packetSize = in.readUnsignedShort();
+            startTimeMillis = in.readLong();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns format of the captured data. One of {@link UsbCaptureWriter#FORMAT_STREAM} or {@link
+     * UsbCaptureWriter#FORMAT_HID_PACKETS}.
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns size of the single HID packet if format is {@link UsbCaptureWriter#FORMAT_HID_PACKETS}.
+     */
+    public int getPacketSize() {
+        return packetSize;
+    }
+
+    /**
+     * Returns time when capture was started in milliseconds since epoch.
+     */
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    /**
+     * Reads next record. Returns {@code false} if end of file has been reached.
+     */
+    public boolean next() throws IOException {
+        final long deltaMicros;
+        try {
+            deltaMicros = readVarLong();
+        } catch (EOFException e) {
+            return false;
+        }
+        final int length = (int) readVarLong();
+        if (data.length < length) data = new byte[length];
+        in.readFully(data, 0, length);
+
+        this.length = length;
+        this.timestampMicros += deltaMicros;
+
+        return true;
+    }
+
+    /**
+     * Returns data of the last read record. Only first {@link #getLength()} bytes are valid.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns number of valid bytes of the last read record.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns arrival time of the last read record in microseconds since the first record.
+     */
+    public long getTimestampMicros() {
+        return timestampMicros;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public void close() throws IOException {
+        in.close();
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+}
@@ -0,0 +1,105 @@
+package com.backyardbrains.dsp.usb;
+
+import androidx.annotation.NonNull;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes raw byte stream received from the USB device together with arrival timestamps to a compact capture file
+ * that can later be read by {@link UsbCaptureReader}.
+ * <p>
+ * File starts with a header (magic number, version, format, packet size and capture start time in millis since epoch)
+ * followed by records. Each record holds time elapsed since previous record in microseconds and length of the received
+ * data, both written as variable-length integers, followed by the received bytes.
+ * <p>
+ * Class doesn't depend on Android framework so captured files can be processed on a plain JVM.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class UsbCaptureWriter implements Closeable {
+
+    static final int MAGIC = 0x42594255; // "BYBU"
+    static final int VERSION = 1;
+
+    /**
+     * Captured data is continuous sample stream (serial devices).
+     */
+    public static final int FORMAT_STREAM = 0;
+    /**
+     * Captured data are HID packets of fixed size, including the packet headers (HID devices).
+     */
+    public static final int FORMAT_HID_PACKETS = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private byte[] copyBuffer = new byte[64];
+
+    private long prevNanos = -1;
+
+    /**
+     * @param format Format of the captured data. One of {@link #FORMAT_STREAM} or {@link #FORMAT_HID_PACKETS}.
+     * @param packetSize Size of the single HID packet. Ignored if format is {@link #FORMAT_STREAM}.
+     */
+    public UsbCaptureWriter(@NonNull File file, int format, int packetSize) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(format);
+        out.writeShort(packetSize);
+        out.writeLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Writes specified {@code length} of bytes from the specified {@code data} as a single record timestamped with the
+     * current time.
+     */
+    public synchronized void write(@NonNull byte[] data, int length) throws IOException {
+        writeRecordHeader(length);
+        out.write(data, 0, length);
+    }
+
+    /**
+     * Writes bytes between position 0 and the limit of the specified {@code data} as a single record timestamped with
+     * the current time. Buffer position is not changed.
+     */
+    public synchronized void write(@NonNull ByteBuffer data) throws IOException {
+        final int length = data.limit();
+        if (copyBuffer.length < length) copyBuffer = new byte[length];
+        final ByteBuffer duplicate = data.duplicate();
+        duplicate.position(0);
+        duplicate.get(copyBuffer, 0, length);
+
+        write(copyBuffer, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void writeRecordHeader(int length) throws IOException {
+        final long now = System.nanoTime();
+        final long deltaMicros = prevNanos < 0 ? 0 : (now - prevNanos) / 1000;
+        prevNanos = now;
+
+        writeVarLong(deltaMicros);
+        writeVarLong(length);
+    }
+
+    // Writes specified value 7 bits at a time, most significant bit of each byte signals there are more bytes to come
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,89 @@
+package com.backyardbrains.dsp.usb;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.utils.JniUtils;
+import com.backyardbrains.vo.UsbLinkTelemetry;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Thread that takes packets from the {@link UsbPacketQueue} and passes them directly to the native ring buffer from
+ * which they are consumed by the sample stream processor.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class UsbPacketPump extends Thread {
+
+    private static final String TAG = makeLogTag(UsbPacketPump.class);
+
+    // How often packet rate and latency are logged
+    private static final long METRICS_LOG_INTERVAL_NANOS = 5_000_000_000L; // 5 seconds
+
+    private final UsbPacketQueue queue;
+    private final AbstractUsbSignalSource signalSource;
+
+    private final long[] telemetryValues = new long[UsbLinkTelemetry.VALUE_COUNT];
+    private UsbLinkTelemetry prevTelemetry = new UsbLinkTelemetry();
+    private long prevMetricsNanos;
+
+    /**
+     * @param signalSource If not {@code null}, all received packets are passed to it so they can be captured.
+     */
+    UsbPacketPump(@NonNull UsbPacketQueue queue, @Nullable AbstractUsbSignalSource signalSource) {
+        super("UsbPacketPump");
+        this.queue = queue;
+        this.signalSource = signalSource;
+    }
+
+    @Override public void run() {
+        final int packetSize = queue.getPacketSize();
+        prevMetricsNanos = System.nanoTime();
+
+        ByteBuffer buffer;
+        while ((buffer = queue.take()) != null) {
+            if (signalSource != null) signalSource.capture(buffer);
+            JniUtils.writeHidPackets(buffer, buffer.limit(), packetSize);
+            queue.recycle(buffer);
+
+            logMetrics();
+        }
+        queue.close();
+    }
+
+    /**
+     * Stops the thread and waits until it finishes.
+     */
+    void stopPump() {
+        queue.cancel();
+        try {
+            join(100);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    // Periodically logs number of packets received per second and latency between receiving and processing packets
+    private void logMetrics() {
+        final long now = System.nanoTime();
+        final long elapsed = now - prevMetricsNanos;
+        if (elapsed < METRICS_LOG_INTERVAL_NANOS) return;
+
+        JniUtils.getUsbLinkTelemetry(telemetryValues);
+        final UsbLinkTelemetry telemetry = new UsbLinkTelemetry(telemetryValues);
+        // telemetry could have been reset in the meantime
+        if (telemetry.packetsReceived < prevTelemetry.packetsReceived) prevTelemetry = new UsbLinkTelemetry();
+        final long packets = telemetry.packetsReceived - prevTelemetry.packetsReceived;
+        final long latencyCount = telemetry.latencyCount - prevTelemetry.latencyCount;
+        final long latencySum = telemetry.latencySumNanos - prevTelemetry.latencySumNanos;
+        LOGD(TAG, String.format(Locale.US,
+            "%.1f packets/s, latency avg %.2f ms, max %.2f ms, invalid packets %d, ring overruns %d",
+            packets * 1e9f / elapsed, latencyCount > 0 ? latencySum / 1e6f / latencyCount : 0f,
+            telemetry.latencyMaxNanos / 1e6f, telemetry.invalidPackets, telemetry.ringOverruns));
+
+        prevTelemetry = telemetry;
+        prevMetricsNanos = now;
+    }
+}
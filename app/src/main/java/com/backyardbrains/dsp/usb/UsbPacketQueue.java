@@ -0,0 +1,47 @@
+package com.backyardbrains.dsp.usb;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Source of the raw packets sent by the USB device. Packets are delivered in direct {@link ByteBuffer}s so they can be
+ * passed to native code without copying.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+interface UsbPacketQueue {
+
+    /**
+     * Returns size of the single packet in bytes.
+     */
+    int getPacketSize();
+
+    /**
+     * Starts receiving packets. Returns {@code true} if queue has been successfully opened, {@code false} otherwise.
+     */
+    boolean open();
+
+    /**
+     * Blocks until next packet is received and returns the buffer holding it. Received bytes are placed between
+     * buffer's position 0 and its limit. Returns {@code null} if queue has been cancelled.
+     */
+    @Nullable ByteBuffer take();
+
+    /**
+     * Returns specified {@code buffer}, previously returned by {@link #take()}, back to the queue so it can be reused
+     * for receiving new packets.
+     */
+    void recycle(@NonNull ByteBuffer buffer);
+
+    /**
+     * Cancels all pending reads. Thread that's blocked in {@link #take()} is released. Can be called from any thread.
+     */
+    void cancel();
+
+    /**
+     * Releases all resources. Should be called from the thread that's calling {@link #take()} after the queue has been
+     * cancelled.
+     */
+    void close();
+}
@@ -0,0 +1,144 @@
+package com.backyardbrains.dsp.usb;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Implementation of {@link UsbPacketQueue} that keeps several asynchronous {@link UsbRequest}s in flight so device
+ * can send next packet while previous one is still being processed.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class UsbRequestPacketQueue implements UsbPacketQueue {
+
+    private static final String TAG = makeLogTag(UsbRequestPacketQueue.class);
+
+    // Number of requests that are queued at the same time
+    private static final int REQUEST_COUNT = 8;
+
+    private final UsbDeviceConnection connection;
+    private final UsbEndpoint endpoint;
+    private final int packetSize;
+
+    private final UsbRequest[] requests = new UsbRequest[REQUEST_COUNT];
+    private final ByteBuffer[] buffers = new ByteBuffer[REQUEST_COUNT];
+
+    private volatile boolean cancelled;
+
+    UsbRequestPacketQueue(@NonNull UsbDeviceConnection connection, @NonNull UsbEndpoint endpoint) {
+        this.connection = connection;
+        this.endpoint = endpoint;
+        this.packetSize = endpoint.getMaxPacketSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public int getPacketSize() {
+        return packetSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public boolean open() {
+        cancelled = false;
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            requests[i] = new UsbRequest();
+            if (!requests[i].initialize(connection, endpoint)) {
+                LOGD(TAG, "UsbRequest could not be initialized");
+                close();
+                return false;
+            }
+            buffers[i] = ByteBuffer.allocateDirect(packetSize).order(ByteOrder.LITTLE_ENDIAN);
+            requests[i].setClientData(buffers[i]);
+            if (!queue(i)) {
+                close();
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Nullable @Override public ByteBuffer take() {
+        while (!cancelled) {
+            final UsbRequest request = connection.requestWait();
+            if (request == null || cancelled) break;
+
+            final ByteBuffer buffer = (ByteBuffer) request.getClientData();
+            if (buffer != null) {
+                // we don't rely on buffer position being updated so we always pass the whole packet,
+                // invalid or empty packets are filtered out by the packet header check in native code
+                buffer.limit(packetSize);
+                buffer.position(0);
+                return buffer;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public void recycle(@NonNull ByteBuffer buffer) {
+        if (cancelled) return;
+
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            if (buffers[i] == buffer) {
+                queue(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public void cancel() {
+        cancelled = true;
+        for (UsbRequest request : requests) {
+            if (request != null) request.cancel();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public void close() {
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            if (requests[i] != null) {
+                requests[i].close();
+                requests[i] = null;
+            }
+            buffers[i] = null;
+        }
+    }
+
+    // Queues request at specified index so it can receive next packet
+    private boolean queue(int index) {
+        final ByteBuffer buffer = buffers[index];
+        buffer.clear();
+        // clear the header so we don't process the same packet twice if request completes without data
+        buffer.put(0, (byte) 0);
+        //noinspection deprecation
+        if (!requests[index].queue(buffer, packetSize)) {
+            LOGD(TAG, "UsbRequest could not be queued");
+            return false;
+        }
+
+        return true;
+    }
+}
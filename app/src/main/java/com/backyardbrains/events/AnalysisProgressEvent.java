@@ -0,0 +1,35 @@
+package com.backyardbrains.events;
+
+import androidx.annotation.NonNull;
+import com.backyardbrains.analysis.AnalysisType;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class AnalysisProgressEvent {
+
+    private final String filePath;
+    private final @AnalysisType int type;
+    private final float progress;
+
+    public AnalysisProgressEvent(@NonNull String filePath, @AnalysisType int type, float progress) {
+        this.filePath = filePath;
+        this.type = type;
+        this.progress = progress;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public @AnalysisType int getType() {
+        return type;
+    }
+
+    /**
+     * Progress of the analysis between {@code 0} and {@code 1}.
+     */
+    public float getProgress() {
+        return progress;
+    }
+}
@@ -27,8 +27,10 @@ import com.backyardbrains.drawing.EventTriggeredAverageRenderer;
 import com.backyardbrains.drawing.ISIRenderer;
 import com.backyardbrains.drawing.TouchGlSurfaceView;
 import com.backyardbrains.events.AnalysisDoneEvent;
+import com.backyardbrains.events.AnalysisProgressEvent;
 import com.backyardbrains.events.RedrawAnalysisGraphEvent;
 import com.backyardbrains.utils.ApacheCommonsLang3Utils;
+import com.backyardbrains.utils.ObjectUtils;
 import com.backyardbrains.utils.ViewUtils;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
@@ -119,6 +121,11 @@ public class AnalysisFragment extends BaseFragment {
 
     @Override public void onDestroy() {
         LOGD(TAG, "onDestroy()");
+        // nobody will wait for the analysis once the screen is closed
+        final boolean closing = isRemoving() || (getActivity() != null && getActivity().isFinishing());
+        if (closing && analysisConfig != null && getAnalysisManager() != null) {
+            getAnalysisManager().cancelAnalysis(analysisConfig);
+        }
         destroyRenderer();
         super.onDestroy();
     }
@@ -134,6 +141,14 @@ public class AnalysisFragment extends BaseFragment {
         if (event.isSuccess()) setRenderer(event.getType());
     }
 
+    @SuppressWarnings("unused") @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onAnalysisProgressEvent(AnalysisProgressEvent event) {
+        if (event.getType() == analysisConfig.getAnalysisType() && ObjectUtils.equals(event.getFilePath(),
+            analysisConfig.getFilePath())) {
+            tvWaiting.setText(getString(R.string.template_analysis_wait_message, (int) (event.getProgress() * 100)));
+        }
+    }
+
     @SuppressWarnings("unused") @Subscribe(threadMode = ThreadMode.MAIN)
     public void onRedrawAnalysisGraphEvent(RedrawAnalysisGraphEvent event) {
         redraw();
@@ -179,6 +194,7 @@ public class AnalysisFragment extends BaseFragment {
     // Sets visibility of "Waiting" views.
     private void showWaiting(final boolean show) {
         pbWaiting.setVisibility(show ? View.VISIBLE : View.GONE);
+        if (show) tvWaiting.setText(R.string.analysis_wait_message);
         tvWaiting.setVisibility(show ? View.VISIBLE : View.GONE);
     }
 
@@ -15,11 +15,14 @@ import butterknife.Unbinder;
 import com.afollestad.materialdialogs.GravityEnum;
 import com.afollestad.materialdialogs.MaterialDialog;
 import com.backyardbrains.R;
+import com.backyardbrains.analysis.AnalysisType;
 import com.backyardbrains.drawing.BaseWaveformRenderer;
 import com.backyardbrains.drawing.Colors;
 import com.backyardbrains.drawing.FindSpikesRenderer;
 import com.backyardbrains.events.AnalysisDoneEvent;
+import com.backyardbrains.events.AnalysisProgressEvent;
 import com.backyardbrains.events.AudioPlaybackStartedEvent;
+import com.backyardbrains.utils.ObjectUtils;
 import java.util.ArrayList;
 import java.util.List;
 import org.greenrobot.eventbus.Subscribe;
@@ -42,7 +45,10 @@ public class FindSpikesFragment extends PlaybackScopeFragment {
     private static final List<String> CHANNEL_NAMES = new ArrayList<>();
 
     @BindView(R.id.ll_finding_spikes_progress) ViewGroup llFindingSpikesProgress;
+    @BindView(R.id.tv_finding_spikes_progress) TextView tvFindingSpikesProgress;
     @BindView(R.id.tv_select_channel) TextView tvSelectChannel;
+    @BindView(R.id.tv_sort_spikes) TextView tvSortSpikes;
+    @BindView(R.id.tv_threshold_spike_count) TextView tvThresholdSpikeCount;
     @BindView(R.id.ibtn_remove_threshold) ImageButton ibtnRemoveThreshold;
     @BindViews({ R.id.threshold0, R.id.threshold1, R.id.threshold2 }) List<ImageButton> thresholdButtons;
     @BindView(R.id.ibtn_add_threshold) ImageButton ibtnAddThreshold;
@@ -81,6 +87,16 @@ public class FindSpikesFragment extends PlaybackScopeFragment {
         unbinder.unbind();
     }
 
+    @Override public void onDestroy() {
+        // spikes that are not completely found are discarded anyway so there's no need to look for them anymore
+        final boolean closing = isRemoving() || (getActivity() != null && getActivity().isFinishing());
+        if (closing && filePath != null && getAnalysisManager() != null) {
+            getAnalysisManager().cancelFindSpikes(filePath);
+            getAnalysisManager().cancelClusterSpikes(filePath);
+        }
+        super.onDestroy();
+    }
+
     //=================================================
     //  ABSTRACT METHODS IMPLEMENTATIONS AND OVERRIDES
     //=================================================
@@ -104,6 +120,16 @@ public class FindSpikesFragment extends PlaybackScopeFragment {
                 stopSeek();
             }
         });
+        renderer.setOnSpikeCountChangeListener(spikeCount -> {
+            if (tvThresholdSpikeCount == null) return;
+
+            if (spikeCount >= 0) {
+                tvThresholdSpikeCount.setText(getString(R.string.template_threshold_spike_count, spikeCount));
+                tvThresholdSpikeCount.setVisibility(View.VISIBLE);
+            } else {
+                tvThresholdSpikeCount.setVisibility(View.GONE);
+            }
+        });
         return renderer;
     }
 
@@ -174,6 +200,12 @@ public class FindSpikesFragment extends PlaybackScopeFragment {
     @SuppressWarnings("unused") @Subscribe(threadMode = ThreadMode.MAIN)
     public void onAnalysisDoneEvent(AnalysisDoneEvent event) {
         LOGD(TAG, "Analysis of audio file finished. Success - " + event.isSuccess());
+        if (event.getType() == AnalysisType.CLUSTER_SPIKES) {
+            // trains are replaced by the clusters so first one is selected
+            llFindingSpikesProgress.setVisibility(View.GONE);
+            tvSortSpikes.setEnabled(true);
+            selectedThreshold = 0;
+        }
         if (event.isSuccess() && getAnalysisManager() != null) {
             getAnalysisManager().spikesAnalysisExists(filePath, true, (analysis, trainCount) -> {
                 if (trainCount <= 0) addThreshold();
@@ -182,6 +214,18 @@ public class FindSpikesFragment extends PlaybackScopeFragment {
         }
     }
 
+    @SuppressWarnings("unused") @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onAnalysisProgressEvent(AnalysisProgressEvent event) {
+        if (event.getType() == AnalysisType.FIND_SPIKES && ObjectUtils.equals(event.getFilePath(), filePath)) {
+            tvFindingSpikesProgress.setText(
+                getString(R.string.template_finding_spikes, (int) (event.getProgress() * 100)));
+        } else if (event.getType() == AnalysisType.CLUSTER_SPIKES && ObjectUtils.equals(event.getFilePath(),
+            filePath)) {
+            tvFindingSpikesProgress.setText(
+                getString(R.string.template_sorting_spikes, (int) (event.getProgress() * 100)));
+        }
+    }
+
     //=================================================
     //  PRIVATE METHODS
     //=================================================
@@ -233,6 +277,8 @@ public class FindSpikesFragment extends PlaybackScopeFragment {
         ibtnAddThreshold.setOnClickListener(v -> addThreshold());
         // remove threshold
         ibtnRemoveThreshold.setOnClickListener(v -> removeSelectedThreshold());
+        // sort spikes into trains by their waveforms
+        tvSortSpikes.setOnClickListener(v -> sortSpikes());
         // select channel
     }
 
@@ -265,6 +311,16 @@ public class FindSpikesFragment extends PlaybackScopeFragment {
         }
     }
 
+    // Sorts spikes into as many trains as there can be thresholds, replacing existing ones, and updates UI.
+    void sortSpikes() {
+        if (getAnalysisManager() != null) {
+            tvSortSpikes.setEnabled(false);
+            tvFindingSpikesProgress.setText(R.string.label_sorting_spikes);
+            llFindingSpikesProgress.setVisibility(View.VISIBLE);
+            getAnalysisManager().clusterSpikes(filePath, MAX_THRESHOLDS);
+        }
+    }
+
     // Updates threshold actions
     void updateThresholdActions() {
         if (getAnalysisManager() != null) {
@@ -285,6 +341,7 @@ public class FindSpikesFragment extends PlaybackScopeFragment {
                     }
                     ibtnAddThreshold.setVisibility(thresholdsSize < MAX_THRESHOLDS ? View.VISIBLE : View.GONE);
                     ibtnRemoveThreshold.setVisibility(thresholdsSize > 1 ? View.VISIBLE : View.GONE);
+                    tvSortSpikes.setVisibility(View.VISIBLE);
                 }
             });
         }
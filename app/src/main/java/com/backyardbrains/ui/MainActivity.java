@@ -6,6 +6,7 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.Parcelable;
@@ -39,7 +40,9 @@ import com.backyardbrains.events.OpenRecordingOptionsEvent;
 import com.backyardbrains.events.OpenRecordingsEvent;
 import com.backyardbrains.events.PlayAudioFileEvent;
 import com.backyardbrains.events.ShowToastEvent;
+import com.backyardbrains.utils.AppExecutors;
 import com.backyardbrains.utils.BYBUtils;
+import com.backyardbrains.utils.BatchImporter;
 import com.backyardbrains.utils.ImportUtils;
 import com.backyardbrains.utils.ImportUtils.ImportResultCode;
 import com.backyardbrains.utils.ViewUtils;
@@ -96,6 +99,7 @@ public class MainActivity extends AppCompatActivity
     private boolean audioServiceRunning = false;
     ProcessingService processingService;
     private AnalysisManager analysisManager;
+    private BatchImporter batchImporter;
 
     private int currentFrag = -1;
 
@@ -157,6 +161,20 @@ public class MainActivity extends AppCompatActivity
         stop();
     }
 
+    @Override protected void onDestroy() {
+        // stop any import that's still in progress
+        if (batchImporter != null) batchImporter.cancel();
+
+        super.onDestroy();
+    }
+
+    @Override public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // release spikes kept in memory by the analysis manager
+        if (analysisManager != null) analysisManager.trimMemory(level);
+    }
+
     @Override public void onWindowFocusChanged(boolean hasFocus) {
         super.onWindowFocusChanged(hasFocus);
         if (hasFocus) {
@@ -469,9 +487,56 @@ public class MainActivity extends AppCompatActivity
 
     @AfterPermissionGranted(BYB_WRITE_STORAGE_PERM) private void importRecording() {
         if (EasyPermissions.hasPermissions(this, Manifest.permission.WRITE_EXTERNAL_STORAGE)) {
-            ImportUtils.ImportResult result =
-                ImportUtils.importRecording(getApplicationContext(), getIntent().getScheme(), getIntent().getData());
+            final List<Uri> uris = ImportUtils.getImportUris(getIntent());
             // we don't need intent data anymore
+            setIntent(null);
+            if (uris.isEmpty()) {
+                showImportError(ImportResultCode.ERROR);
+                return;
+            }
+            if (batchImporter != null) batchImporter.cancel();
+
+            // progress of multiple files is shown in a toast that's updated with every file's progress
+            final Toast progressToast = uris.size() > 1 ? ViewUtils.toast(getApplicationContext(),
+                getString(R.string.toast_batch_import_progress, 0, uris.size())) : null;
+            final BatchImporter importer = new BatchImporter(getApplicationContext(), new AppExecutors().mainThread());
+            batchImporter = importer;
+            importer.start(uris, new BatchImporter.BatchImportListener() {
+                @Override public void onFileProgress(int index, @NonNull Uri uri, float progress) {
+                    LOGD(TAG, "Importing " + uri + ": " + (int) progress + "%");
+                    if (progressToast != null && batchImporter == importer) {
+                        progressToast.setText(
+                            getString(R.string.toast_batch_import_file_progress, index + 1, uris.size(),
+                                (int) progress));
+                        progressToast.show();
+                    }
+                }
+
+                @Override public void onFileImported(int index, @NonNull Uri uri,
+                    @NonNull ImportUtils.ImportResult result) {
+                    LOGD(TAG, "Imported " + uri + " with code " + result.getCode());
+                }
+
+                @Override public void onBatchFinished(@NonNull List<ImportUtils.ImportResult> results,
+                    boolean cancelled) {
+                    if (progressToast != null) progressToast.cancel();
+                    // cancelled import can finish after the next one already started
+                    if (batchImporter == importer) batchImporter = null;
+                    if (cancelled || isFinishing()) return;
+
+                    onRecordingsImported(results);
+                }
+            });
+        } else {
+            EasyPermissions.requestPermissions(this, getString(R.string.rationale_write_external_storage_import),
+                BYB_WRITE_STORAGE_PERM, Manifest.permission.WRITE_EXTERNAL_STORAGE);
+        }
+    }
+
+    // Shows the outcome of the recordings import
+    private void onRecordingsImported(@NonNull List<ImportUtils.ImportResult> results) {
+        if (results.size() == 1) {
+            final ImportUtils.ImportResult result = results.get(0);
             if (!result.isSuccessful()) {
                 showImportError(result.getCode());
             } else {
@@ -480,10 +545,14 @@ public class MainActivity extends AppCompatActivity
                 loadFragment(RECORDINGS_VIEW, false);
                 loadFragment(RECORDING_OPTIONS_VIEW, false, result.getFile().getAbsolutePath());
             }
-            setIntent(null);
         } else {
-            EasyPermissions.requestPermissions(this, getString(R.string.rationale_write_external_storage_import),
-                BYB_WRITE_STORAGE_PERM, Manifest.permission.WRITE_EXTERNAL_STORAGE);
+            int successful = 0;
+            for (ImportUtils.ImportResult result : results) {
+                if (result.isSuccessful()) successful++;
+            }
+            ViewUtils.toast(getApplicationContext(),
+                getString(R.string.toast_batch_import_successful, successful, results.size()), Toast.LENGTH_LONG);
+            loadFragment(RECORDINGS_VIEW, false);
         }
     }
 
@@ -18,6 +18,7 @@ import com.afollestad.materialdialogs.MaterialDialog;
 import com.backyardbrains.R;
 import com.backyardbrains.drawing.BaseWaveformRenderer;
 import com.backyardbrains.drawing.SeekableWaveformRenderer;
+import com.backyardbrains.dsp.audio.PlaybackSignalSource;
 import com.backyardbrains.events.AudioPlaybackProgressEvent;
 import com.backyardbrains.events.AudioPlaybackStartedEvent;
 import com.backyardbrains.events.AudioPlaybackStoppedEvent;
@@ -49,6 +50,8 @@ public class PlaybackScopeFragment extends BaseWaveformFragment {
     private static final String BOOL_THRESHOLD_ON = "bb_threshold_on";
     private static final String BOOL_FFT_ON = "bb_fft_on";
     private static final String LONG_PLAYBACK_POSITION = "bb_playback_position";
+    private static final String INT_PLAYBACK_SPEED = "bb_playback_speed";
+    private static final String INT_FAST_FORWARD_AUDIO = "bb_fast_forward_audio";
 
     // Default number of sample sets that should be summed when averaging
     private static final int AVERAGED_SAMPLE_COUNT = 30;
@@ -67,6 +70,7 @@ public class PlaybackScopeFragment extends BaseWaveformFragment {
     protected ImageView ibtnPlayPause;
     protected SeekBar sbAudioProgress;
     protected TextView tvProgressTime;
+    protected TextView tvPlaybackSpeed;
 
     protected String filePath;
 
@@ -82,6 +86,10 @@ public class PlaybackScopeFragment extends BaseWaveformFragment {
     private boolean fftOn;
     // Holds position of the playback while in background
     int playbackPosition;
+    // Current playback speed
+    private int playbackSpeed = PlaybackSignalSource.SPEED_NORMAL;
+    // What should be played while playing faster than normal
+    private @PlaybackSignalSource.FastForwardAudio int fastForwardAudio = PlaybackSignalSource.FastForwardAudio.MUTED;
 
     /**
      * Runnable that is executed on the UI thread every time recording's playhead is updated.
@@ -203,6 +211,9 @@ public class PlaybackScopeFragment extends BaseWaveformFragment {
             thresholdOn = savedInstanceState.getBoolean(BOOL_THRESHOLD_ON);
             fftOn = savedInstanceState.getBoolean(BOOL_FFT_ON);
             playbackPosition = savedInstanceState.getInt(LONG_PLAYBACK_POSITION, 0);
+            playbackSpeed = savedInstanceState.getInt(INT_PLAYBACK_SPEED, PlaybackSignalSource.SPEED_NORMAL);
+            fastForwardAudio = savedInstanceState.getInt(INT_FAST_FORWARD_AUDIO,
+                PlaybackSignalSource.FastForwardAudio.MUTED);
         }
     }
 
@@ -233,6 +244,8 @@ public class PlaybackScopeFragment extends BaseWaveformFragment {
         outState.putBoolean(BOOL_THRESHOLD_ON, thresholdOn);
         outState.putBoolean(BOOL_FFT_ON, fftOn);
         outState.putInt(LONG_PLAYBACK_POSITION, playbackPosition);
+        outState.putInt(INT_PLAYBACK_SPEED, playbackSpeed);
+        outState.putInt(INT_FAST_FORWARD_AUDIO, fastForwardAudio);
     }
 
     //=================================================
@@ -251,6 +264,7 @@ public class PlaybackScopeFragment extends BaseWaveformFragment {
         ibtnPlayPause = view.findViewById(R.id.iv_play_pause);
         sbAudioProgress = view.findViewById(R.id.sb_audio_progress);
         tvProgressTime = view.findViewById(R.id.tv_progress_time);
+        tvPlaybackSpeed = view.findViewById(R.id.tv_playback_speed);
 
         // we should set averaged sample count before UI setup
         int averagedSampleCount = PrefUtils.getAveragedSampleCount(view.getContext(), BaseWaveformFragment.class);
@@ -364,6 +378,9 @@ public class PlaybackScopeFragment extends BaseWaveformFragment {
 
             // this will start playback if we are coming from background
             getProcessingService().startPlayback(filePath, autoPlay, playbackPosition);
+            // this will restore playback speed if we are coming from background
+            getProcessingService().setPlaybackSpeed(playbackSpeed);
+            getProcessingService().setFastForwardAudio(fastForwardAudio);
         }
 
         // resume the threshold
@@ -490,6 +507,13 @@ public class PlaybackScopeFragment extends BaseWaveformFragment {
         sbAudioProgress.setMax(getLength());
         sbAudioProgress.setOnSeekBarChangeListener(playbackSeekChangeListener);
         sbAudioProgress.setProgress(0);
+        // playback speed
+        setupPlaybackSpeedButton();
+        tvPlaybackSpeed.setOnClickListener(v -> changePlaybackSpeed());
+        tvPlaybackSpeed.setOnLongClickListener(v -> {
+            toggleFastForwardAudio();
+            return true;
+        });
     }
 
     // Converts number of specified samples to number of frames
@@ -681,6 +705,33 @@ public class PlaybackScopeFragment extends BaseWaveformFragment {
             isPlaying() ? R.drawable.ic_pause_circle_filled_orange_24dp : R.drawable.ic_play_circle_filled_orange_24dp);
     }
 
+    // Sets current playback speed on the playback speed button
+    private void setupPlaybackSpeedButton() {
+        tvPlaybackSpeed.setText(String.format(getString(R.string.template_playback_speed), playbackSpeed));
+    }
+
+    // Switches to the next playback speed, or back to normal speed if we are already at max speed
+    private void changePlaybackSpeed() {
+        playbackSpeed = playbackSpeed >= PlaybackSignalSource.SPEED_MAX ? PlaybackSignalSource.SPEED_NORMAL
+            : playbackSpeed * 2;
+        if (getProcessingService() != null) getProcessingService().setPlaybackSpeed(playbackSpeed);
+
+        setupPlaybackSpeedButton();
+    }
+
+    // Toggles between muted and pitch preserved audio while playing faster than normal
+    private void toggleFastForwardAudio() {
+        fastForwardAudio = fastForwardAudio == PlaybackSignalSource.FastForwardAudio.MUTED
+            ? PlaybackSignalSource.FastForwardAudio.PITCH_PRESERVED : PlaybackSignalSource.FastForwardAudio.MUTED;
+        if (getProcessingService() != null) getProcessingService().setFastForwardAudio(fastForwardAudio);
+
+        if (getContext() != null) {
+            ViewUtils.toast(getContext(), getString(
+                fastForwardAudio == PlaybackSignalSource.FastForwardAudio.MUTED ? R.string.toast_fast_forward_muted
+                    : R.string.toast_fast_forward_pitch_preserved));
+        }
+    }
+
     // Updates progress time according to progress
     void updateProgressTime(int progress, int sampleRate, int channelCount, int bitsPerSample) {
         playbackPosition = AudioUtils.getByteCount(progress, bitsPerSample);
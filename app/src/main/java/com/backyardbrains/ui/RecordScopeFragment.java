@@ -896,6 +896,8 @@ public class RecordScopeFragment extends BaseWaveformFragment implements EasyPer
         processingService.setSignalAveragingTriggerType(JniUtils.getAveragingTriggerType());
         // this will set fft processing if we are coming from background
         processingService.setFftProcessing(fftOn);
+        // spikes are detected while signal is being displayed so they can be shown and recorded right away
+        processingService.setSpikeDetection(true);
         // this will start microphone if we are coming from background
         processingService.startActiveInputSource();
 
@@ -212,6 +212,7 @@ public class RecordingDetailsFragment extends BaseFragment {
             if (!newFile.exists()) {
                 // get events file before renaming
                 final File ef = RecordingUtils.getEventFile(oldFile);
+                final File sf = RecordingUtils.getSpikesFile(oldFile);
                 // rename the file
                 if (oldFile.renameTo(newFile)) {
                     // update db spike analysis data with new file path
@@ -235,6 +236,15 @@ public class RecordingDetailsFragment extends BaseFragment {
                             }
                         }
                     }
+                    // same goes for the file with spikes found while recording
+                    if (sf != null) {
+                        final File newSpikesFile = RecordingUtils.createSpikesFile(newFile);
+                        if (!newSpikesFile.exists() && !sf.renameTo(newSpikesFile)) {
+                            Crashlytics.logException(new Throwable(
+                                "Renaming spikes file for the given recording " + oldFile.getPath()
+                                    + " failed"));
+                        }
+                    }
                 } else {
                     if (getContext() != null) {
                         ViewUtils.toast(getContext(),
@@ -6,7 +6,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.media.MediaFormat;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -28,7 +27,6 @@ import com.backyardbrains.events.OpenRecordingsEvent;
 import com.backyardbrains.events.PlayAudioFileEvent;
 import com.backyardbrains.ui.BaseOptionsFragment.OptionsAdapter.OptionItem;
 import com.backyardbrains.utils.AudioConversionUtils;
-import com.backyardbrains.utils.AudioUtils;
 import com.backyardbrains.utils.BYBUtils;
 import com.backyardbrains.utils.RecordingUtils;
 import com.backyardbrains.utils.ViewUtils;
@@ -227,6 +225,12 @@ public class RecordingOptionsFragment extends BaseOptionsFragment
                     FileProvider.getUriForFile(context, BuildConfig.APPLICATION_ID + ".provider",
                         eventsFile));
             }
+            final File spikesFile = RecordingUtils.getSpikesFile(f);
+            if (spikesFile != null) {
+                uris.add(
+                    FileProvider.getUriForFile(context, BuildConfig.APPLICATION_ID + ".provider",
+                        spikesFile));
+            }
             Intent sendIntent = new Intent(Intent.ACTION_SEND_MULTIPLE);
             sendIntent.putExtra(Intent.EXTRA_SUBJECT, "My BackyardBrains Recording");
             sendIntent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, uris);
@@ -245,6 +249,7 @@ public class RecordingOptionsFragment extends BaseOptionsFragment
                 if (f.exists()) {
                     // get events file before renaming
                     final File ef = RecordingUtils.getEventFile(f);
+                    final File sf = RecordingUtils.getSpikesFile(f);
                     // delete the file
                     if (f.delete()) {
                         // we need to delete events file as well, if it exists
@@ -258,6 +263,12 @@ public class RecordingOptionsFragment extends BaseOptionsFragment
                                         + " failed"));
                             }
                         }
+                        // same goes for the file with spikes found while recording
+                        if (sf != null && sf.exists() && !sf.delete()) {
+                            Crashlytics.logException(new Throwable(
+                                "Deleting spikes file for the given recording " + f.getPath()
+                                    + " failed"));
+                        }
                         // delete db analysis data for the deleted audio file
                         if (getAnalysisManager() != null) {
                             getAnalysisManager().deleteSpikeAnalysis(f.getAbsolutePath());
@@ -330,20 +341,6 @@ public class RecordingOptionsFragment extends BaseOptionsFragment
                                         }
                                     });
                                 if (oFormat != null) {
-                                    int channelCount =
-                                        oFormat.containsKey(MediaFormat.KEY_CHANNEL_COUNT) ? oFormat
-                                            .getInteger(MediaFormat.KEY_CHANNEL_COUNT)
-                                            : AudioUtils.DEFAULT_CHANNEL_COUNT;
-                                    int sampleRate =
-                                        oFormat.containsKey(MediaFormat.KEY_SAMPLE_RATE)
-                                            ? oFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE)
-                                            : AudioUtils.DEFAULT_SAMPLE_RATE;
-                                    int encoding = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
-                                        && oFormat.containsKey(MediaFormat.KEY_PCM_ENCODING)
-                                        ? oFormat.getInteger(MediaFormat.KEY_PCM_ENCODING)
-                                        : AudioUtils.DEFAULT_ENCODING;
-                                    WavAudioFile.save(wavFile, channelCount, sampleRate, encoding);
-
                                     // delete the original file
                                     if (!f.delete()) {
                                         if (getContext() != null) {
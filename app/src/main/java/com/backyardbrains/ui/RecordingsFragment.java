@@ -72,7 +72,7 @@ public class RecordingsFragment extends BaseFragment
 
         @Override protected File[] doInBackground(Void... voids) {
             final File[] files = RecordingUtils.getRecordingsDirectory()
-                .listFiles(file -> !RecordingUtils.isEventsFile(file));
+                .listFiles(file -> !RecordingUtils.isEventsFile(file) && !RecordingUtils.isSpikesFile(file));
             if (files != null) {
                 if (files.length > 0) {
                     Arrays.sort(files, (file1, file2) -> {
@@ -1,19 +1,24 @@
 package com.backyardbrains.utils;
 
+import android.content.Context;
+import android.media.AudioFormat;
 import android.media.MediaCodec;
 import android.media.MediaCodecList;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
+import android.net.Uri;
 import android.os.Build;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import com.backyardbrains.dsp.audio.PcmConverter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
@@ -25,6 +30,15 @@ public class AudioConversionUtils {
 
     private static final String TAG = makeLogTag(AudioConversionUtils.class);
 
+    // Codec dequeue timeout in microseconds
+    private static final int CODEC_TIMEOUT = 5000;
+    // Initial size of the buffer that holds converted samples before they're written to file
+    private static final int CONVERT_BUFFER_SIZE = 16 * 1024;
+    // Values of AudioFormat.ENCODING_PCM_24BIT_PACKED and AudioFormat.ENCODING_PCM_32BIT which are not available in
+    // the SDK the app is compiled against, decoders of older devices never output them
+    private static final int ENCODING_PCM_24BIT_PACKED = 21;
+    private static final int ENCODING_PCM_32BIT = 22;
+
     /**
      * Interface definition for a callback to be invoked during audio file conversion progress.
      */
@@ -53,17 +67,43 @@ public class AudioConversionUtils {
         extractor.setDataSource(source.getFD());
         source.close();
 
+        return convertToWav(extractor, out, listener, null);
+    }
+
+    /**
+     * Converts audio file at the specified {@code uri} to WAV format and writes it to specified {@code out} file.
+     * Decoded data is streamed directly to the output file so the source is never copied. If conversion is
+     * successful {@link MediaFormat} of the output file is returned. Conversion is stopped and {@code null} is
+     * returned as soon as specified {@code cancelled} flag is set.
+     *
+     * @throws IOException
+     */
+    @Nullable public static MediaFormat convertToWav(@NonNull Context context, @NonNull Uri uri,
+        @NonNull File out, @Nullable ToWavConversionProgressListener listener, @Nullable AtomicBoolean cancelled)
+        throws IOException {
+        final MediaExtractor extractor = new MediaExtractor();
+        extractor.setDataSource(context, uri, null);
+
+        return convertToWav(extractor, out, listener, cancelled);
+    }
+
+    // Decodes the only track of the specified extractor and writes it to the out file as 16-bit PCM. Header is
+    // written once at the end of the conversion with a positioned write, when the final data length is known.
+    @Nullable private static MediaFormat convertToWav(@NonNull MediaExtractor extractor, @NonNull File out,
+        @Nullable ToWavConversionProgressListener listener, @Nullable AtomicBoolean cancelled)
+        throws IOException {
         if (extractor.getTrackCount() > 1) {
             extractor.release();
             throw new IOException("File has wrong number of tracks.");
         }
         final MediaFormat format = extractor.getTrackFormat(0);
         final String mime = format.getString(MediaFormat.KEY_MIME);
-        if (!mime.startsWith("audio/")) {
+        if (mime == null || !mime.startsWith("audio/")) {
             extractor.release();
             throw new IOException("File is not an audio file.");
         }
-        final long duration = format.getLong(MediaFormat.KEY_DURATION);
+        final long duration =
+            format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
 
         if (Build.VERSION.SDK_INT == Build.VERSION_CODES.LOLLIPOP) {
             format.setString(MediaFormat.KEY_FRAME_RATE, null);
@@ -93,96 +133,173 @@ public class AudioConversionUtils {
 
         extractor.selectTrack(0);
 
-        // and stream to write samples to
-        final OutputStream outputStream;
+        // and channel to write samples to
+        final RandomAccessFile raf;
         try {
-            outputStream = new FileOutputStream(out);
+            raf = new RandomAccessFile(out, "rw");
         } catch (FileNotFoundException e) {
-            throw new IOException(
-                "Could not build OutputStream from audio file: " + out.getAbsolutePath(), e);
+            codec.release();
+            extractor.release();
+            throw new IOException("Could not open audio file for writing: " + out.getAbsolutePath(), e);
         }
+        final FileChannel channel = raf.getChannel();
+        // data is written after the header which is written once we know the total length
+        channel.truncate(0);
+        channel.position(WavUtils.HEADER_SIZE);
 
-        byte[] buffer = new byte[5000];
-        while (!sawOutputEOS && noOutputCounter < 50) {
-            noOutputCounter++;
-            // microseconds
-            int CODEC_TIMEOUT = 5000;
-            if (!sawInputEOS) {
-                final int inputBufferId = codec.dequeueInputBuffer(CODEC_TIMEOUT);
-                if (inputBufferId >= 0) {
-                    final ByteBuffer inputBuffer;
-                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-                        inputBuffer = codecInputBuffers[inputBufferId];
-                    } else {
-                        inputBuffer = codec.getInputBuffer(inputBufferId);
-                    }
-                    if (inputBuffer != null) {
-                        int sampleCount = extractor.readSampleData(inputBuffer, 0);
-                        long presentationTimeUs = 0;
-                        if (sampleCount < 0) {
-                            LOGD(TAG, "saw input EOS.");
-                            sawInputEOS = true;
-                            sampleCount = 0;
+        PcmConverter converter = null;
+        ByteBuffer convertBuffer = ByteBuffer.allocateDirect(CONVERT_BUFFER_SIZE);
+        boolean wasCancelled = false;
+        try {
+            while (!sawOutputEOS && noOutputCounter < 50) {
+                if (cancelled != null && cancelled.get()) {
+                    wasCancelled = true;
+                    break;
+                }
+
+                noOutputCounter++;
+                if (!sawInputEOS) {
+                    final int inputBufferId = codec.dequeueInputBuffer(CODEC_TIMEOUT);
+                    if (inputBufferId >= 0) {
+                        final ByteBuffer inputBuffer;
+                        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                            inputBuffer = codecInputBuffers[inputBufferId];
                         } else {
-                            presentationTimeUs = extractor.getSampleTime();
+                            inputBuffer = codec.getInputBuffer(inputBufferId);
                         }
-                        codec.queueInputBuffer(inputBufferId, 0, sampleCount, presentationTimeUs,
-                            sawInputEOS ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+                        if (inputBuffer != null) {
+                            int sampleCount = extractor.readSampleData(inputBuffer, 0);
+                            long presentationTimeUs = 0;
+                            if (sampleCount < 0) {
+                                LOGD(TAG, "saw input EOS.");
+                                sawInputEOS = true;
+                                sampleCount = 0;
+                            } else {
+                                presentationTimeUs = extractor.getSampleTime();
+                            }
+                            codec.queueInputBuffer(inputBufferId, 0, sampleCount, presentationTimeUs,
+                                sawInputEOS ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
 
-                        if (!sawInputEOS) extractor.advance();
+                            if (!sawInputEOS) extractor.advance();
+                        }
                     }
                 }
-            }
 
-            final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-            final int outputBufferId = codec.dequeueOutputBuffer(info, CODEC_TIMEOUT);
-            if (outputBufferId >= 0) {
-                if (info.size > 0) noOutputCounter = 0;
+                final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+                final int outputBufferId = codec.dequeueOutputBuffer(info, CODEC_TIMEOUT);
+                if (outputBufferId >= 0) {
+                    if (info.size > 0) noOutputCounter = 0;
 
-                final ByteBuffer outputBuffer;
-                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-                    outputBuffer = codecOutputBuffers[outputBufferId];
-                } else {
-                    outputBuffer = codec.getOutputBuffer(outputBufferId);
-                }
-                outputFormat = codec.getOutputFormat();
-                if (outputBuffer != null) {
-                    if (buffer.length < info.size) buffer = new byte[info.size];
-
-                    if (listener != null) {
-                        listener.onConversionProgress(info.presentationTimeUs * 100f / duration);
+                    final ByteBuffer outputBuffer;
+                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                        outputBuffer = codecOutputBuffers[outputBufferId];
+                    } else {
+                        outputBuffer = codec.getOutputBuffer(outputBufferId);
                     }
+                    if (converter == null) {
+                        outputFormat = codec.getOutputFormat();
+                        converter = createConverter(outputFormat);
+                    }
+                    if (outputBuffer != null) {
+                        if (listener != null && duration > 0) {
+                            listener.onConversionProgress(info.presentationTimeUs * 100f / duration);
+                        }
 
-                    outputBuffer.get(buffer, 0, info.size);
-                    outputStream.write(buffer, 0, info.size);
+                        outputBuffer.position(info.offset);
+                        outputBuffer.limit(info.offset + info.size);
+                        final int maxSize = converter.getMaxOutputSize(info.size);
+                        if (convertBuffer.capacity() < maxSize) convertBuffer = ByteBuffer.allocateDirect(maxSize);
+                        convertBuffer.clear();
+                        converter.convert(outputBuffer, convertBuffer);
+                        convertBuffer.flip();
+                        while (convertBuffer.hasRemaining()) channel.write(convertBuffer);
 
-                    codec.releaseOutputBuffer(outputBufferId, false);
+                        codec.releaseOutputBuffer(outputBufferId, false);
 
-                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                        LOGD(TAG, "saw output EOS.");
-                        sawOutputEOS = true;
+                        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                            LOGD(TAG, "saw output EOS.");
+                            sawOutputEOS = true;
+                        }
                     }
+                } else if (outputBufferId == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    LOGD(TAG, "output buffers have changed.");
+
+                    codecOutputBuffers = codec.getOutputBuffers();
+                } else if (outputBufferId == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    LOGD(TAG, "output format has changed to " + codec.getOutputFormat());
+
+                    outputFormat = codec.getOutputFormat();
+                    converter = createConverter(outputFormat);
+                } else {
+                    LOGD(TAG, "dequeueOutputBuffer returned " + outputBufferId);
                 }
-            } else if (outputBufferId == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                LOGD(TAG, "output buffers have changed.");
-
-                codecOutputBuffers = codec.getOutputBuffers();
-            } else if (outputBufferId == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                LOGD(TAG, "output format has changed to " + codec.getOutputFormat());
-            } else {
-                LOGD(TAG, "dequeueOutputBuffer returned " + outputBufferId);
             }
-        }
 
-        codec.stop();
-        codec.release();
-        extractor.release();
+            if (!wasCancelled && outputFormat != null) {
+                // write the header at the start of the file now that we know the final data length
+                final int sampleRate = outputFormat.containsKey(MediaFormat.KEY_SAMPLE_RATE)
+                    ? outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE) : AudioUtils.DEFAULT_SAMPLE_RATE;
+                final ByteBuffer header = ByteBuffer.wrap(
+                    WavUtils.writeHeader(channel.size(), sampleRate, converter.getOutChannelCount(),
+                        AudioFormat.ENCODING_PCM_16BIT));
+                long position = 0;
+                while (header.hasRemaining()) position += channel.write(header, position);
+                channel.force(false);
 
-        outputStream.flush();
-        outputStream.close();
+                // output is always 16-bit PCM
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    outputFormat.setInteger(MediaFormat.KEY_PCM_ENCODING, AudioFormat.ENCODING_PCM_16BIT);
+                }
+            }
+        } finally {
+            codec.stop();
+            codec.release();
+            extractor.release();
+
+            channel.close();
+            raf.close();
+        }
+
+        if (wasCancelled) {
+            //noinspection ResultOfMethodCallIgnored
+            out.delete();
+            return null;
+        }
 
         if (listener != null) listener.onConversionComplete();
 
         return outputFormat;
     }
+
+    // Creates PCM converter that converts data of the specified decoder output format to 16-bit PCM
+    private static PcmConverter createConverter(@NonNull MediaFormat format) throws IOException {
+        final int channelCount = format.containsKey(MediaFormat.KEY_CHANNEL_COUNT) ? format.getInteger(
+            MediaFormat.KEY_CHANNEL_COUNT) : AudioUtils.DEFAULT_CHANNEL_COUNT;
+        final int encoding = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && format.containsKey(
+            MediaFormat.KEY_PCM_ENCODING) ? format.getInteger(MediaFormat.KEY_PCM_ENCODING)
+            : AudioFormat.ENCODING_PCM_16BIT;
+        final int pcmFormat;
+        switch (encoding) {
+            case AudioFormat.ENCODING_PCM_8BIT:
+                pcmFormat = PcmConverter.FORMAT_PCM_8BIT;
+                break;
+            case AudioFormat.ENCODING_PCM_16BIT:
+                pcmFormat = PcmConverter.FORMAT_PCM_16BIT;
+                break;
+            case ENCODING_PCM_24BIT_PACKED:
+                pcmFormat = PcmConverter.FORMAT_PCM_24BIT;
+                break;
+            case ENCODING_PCM_32BIT:
+                pcmFormat = PcmConverter.FORMAT_PCM_32BIT;
+                break;
+            case AudioFormat.ENCODING_PCM_FLOAT:
+                pcmFormat = PcmConverter.FORMAT_PCM_FLOAT;
+                break;
+            default:
+                // decoding unknown encoding as any of the known ones would only produce noise
+                throw new IOException("Unsupported PCM encoding: " + encoding);
+        }
+
+        return new PcmConverter(pcmFormat, channelCount, channelCount);
+    }
 }
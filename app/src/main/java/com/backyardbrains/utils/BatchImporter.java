@@ -0,0 +1,178 @@
+package com.backyardbrains.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import com.backyardbrains.utils.ImportUtils.ImportResult;
+import com.backyardbrains.utils.ImportUtils.ImportResultCode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Imports multiple files at once. Files are copied (WAV files) or transcoded (all other audio files) on a bounded
+ * pool of worker threads. Number of files that are waiting to be imported at any given moment is limited so the
+ * dispatching thread blocks until one of the workers becomes available. Whole batch can be cancelled at any moment.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class BatchImporter {
+
+    private static final String TAG = makeLogTag(BatchImporter.class);
+
+    // Max number of worker threads
+    private static final int MAX_WORKER_COUNT = 4;
+    // Number of files that can wait in the queue per worker thread
+    private static final int QUEUED_PER_WORKER = 2;
+    // Minimum progress change (in percents) that is reported to listener
+    private static final float PROGRESS_STEP = 1f;
+
+    /**
+     * Interface definition for a callback to be invoked during batch import.
+     */
+    public interface BatchImportListener {
+        /**
+         * Invoked while file at specified {@code index} is being imported.
+         */
+        void onFileProgress(int index, @NonNull Uri uri, float progress);
+
+        /**
+         * Invoked when import of the file at specified {@code index} is finished, successfully or not.
+         */
+        void onFileImported(int index, @NonNull Uri uri, @NonNull ImportResult result);
+
+        /**
+         * Invoked once all files have been processed or the batch has been cancelled.
+         */
+        void onBatchFinished(@NonNull List<ImportResult> results, boolean cancelled);
+    }
+
+    private final Context context;
+    private final Executor callbackExecutor;
+    private final int workerCount;
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private ExecutorService workers;
+    private Thread dispatcher;
+
+    /**
+     * @param callbackExecutor Executor on which all the {@link BatchImportListener} callbacks will be invoked.
+     */
+    public BatchImporter(@NonNull Context context, @NonNull Executor callbackExecutor) {
+        this(context, callbackExecutor,
+            Math.max(1, Math.min(MAX_WORKER_COUNT, Runtime.getRuntime().availableProcessors() - 1)));
+    }
+
+    public BatchImporter(@NonNull Context context, @NonNull Executor callbackExecutor, int workerCount) {
+        this.context = context.getApplicationContext();
+        this.callbackExecutor = callbackExecutor;
+        this.workerCount = Math.max(1, workerCount);
+    }
+
+    /**
+     * Starts importing of all specified {@code uris}. Method returns immediately and importing is done in the
+     * background.
+     */
+    public synchronized void start(@NonNull List<Uri> uris, @NonNull BatchImportListener listener) {
+        if (dispatcher != null) throw new IllegalStateException("Batch import already started");
+
+        cancelled.set(false);
+        workers = Executors.newFixedThreadPool(workerCount);
+        dispatcher = new Thread(() -> dispatch(new ArrayList<>(uris), listener), "BatchImporter");
+        dispatcher.start();
+    }
+
+    /**
+     * Cancels the batch import. Files that are already imported are kept while partially imported files are deleted.
+     */
+    public synchronized void cancel() {
+        cancelled.set(true);
+        if (dispatcher != null) dispatcher.interrupt();
+    }
+
+    /**
+     * Whether batch import has been cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    // Submits files to workers limiting the number of queued files and waits until all of them are imported
+    private void dispatch(@NonNull List<Uri> uris, @NonNull BatchImportListener listener) {
+        final int count = uris.size();
+        final ImportResult[] results = new ImportResult[count];
+        final Semaphore permits = new Semaphore(workerCount * QUEUED_PER_WORKER);
+        final AtomicInteger submitted = new AtomicInteger();
+
+        try {
+            for (int i = 0; i < count; i++) {
+                if (cancelled.get()) break;
+
+                // blocks until there is room in the queue
+                permits.acquire();
+                final int index = i;
+                final Uri uri = uris.get(i);
+                submitted.incrementAndGet();
+                workers.execute(() -> {
+                    try {
+                        results[index] = importFile(index, uri, listener);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            // wait for all submitted files to finish
+            permits.acquire(workerCount * QUEUED_PER_WORKER);
+        } catch (InterruptedException e) {
+            LOGD(TAG, "Batch import interrupted");
+        } finally {
+            workers.shutdown();
+        }
+        // workers check the cancellation flag so if we were interrupted they should finish shortly
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ignored) {
+        }
+
+        final List<ImportResult> resultList = new ArrayList<>(count);
+        for (ImportResult result : results) {
+            resultList.add(result != null ? result : ImportResult.createError(ImportResultCode.CANCELLED));
+        }
+        final boolean wasCancelled = cancelled.get();
+        LOGD(TAG, "Batch import finished: " + submitted.get() + "/" + count + (wasCancelled ? " (cancelled)" : ""));
+        callbackExecutor.execute(() -> listener.onBatchFinished(resultList, wasCancelled));
+
+        synchronized (this) {
+            dispatcher = null;
+        }
+    }
+
+    // Imports single file and reports progress and result to the specified listener
+    private ImportResult importFile(int index, @NonNull Uri uri, @NonNull BatchImportListener listener) {
+        final ImportResult result;
+        if (cancelled.get()) {
+            result = ImportResult.createError(ImportResultCode.CANCELLED);
+        } else {
+            final float[] lastProgress = { -PROGRESS_STEP };
+            result = ImportUtils.importRecording(context, uri, cancelled, progress -> {
+                // throttle progress updates so we don't flood the callback executor
+                if (progress - lastProgress[0] >= PROGRESS_STEP) {
+                    lastProgress[0] = progress;
+                    callbackExecutor.execute(() -> listener.onFileProgress(index, uri, progress));
+                }
+            });
+        }
+        callbackExecutor.execute(() -> listener.onFileImported(index, uri, result));
+
+        return result;
+    }
+}
@@ -4,6 +4,7 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
+import android.media.MediaFormat;
 import android.net.Uri;
 import android.provider.OpenableColumns;
 import androidx.annotation.IntDef;
@@ -16,7 +17,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import org.greenrobot.essentials.io.IoUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
@@ -25,15 +28,29 @@ public class ImportUtils {
 
     @Retention(RetentionPolicy.SOURCE) @IntDef({
         ImportResultCode.SUCCESS, ImportResultCode.ERROR, ImportResultCode.ERROR_EXISTS,
-        ImportResultCode.ERROR_OPEN, ImportResultCode.ERROR_SAVE
+        ImportResultCode.ERROR_OPEN, ImportResultCode.ERROR_SAVE, ImportResultCode.CANCELLED
     }) public @interface ImportResultCode {
         int SUCCESS = 0;
         int ERROR = 1;
         int ERROR_EXISTS = 2;
         int ERROR_OPEN = 3;
         int ERROR_SAVE = 4;
+        int CANCELLED = 5;
     }
 
+    /**
+     * Interface definition for a callback to be invoked while single file is being imported.
+     */
+    public interface ImportProgressListener {
+        /**
+         * Invoked periodically while file is being imported with the current progress in percents.
+         */
+        void onImportProgress(float progress);
+    }
+
+    // Size of the buffer used when copying imported files
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
     public static class ImportResult {
         private final File file;
         private final @ImportResultCode int code;
@@ -71,54 +88,164 @@ public class ImportUtils {
         // FIXME: 05-Oct-18 For now we lean on OS and just check action and scheme because MIME
         //  type is not always set but in the future we should find a way to be sure that audio is
         //  being imported
+        if (Intent.ACTION_SEND_MULTIPLE.equals(intent.getAction())) return !getImportUris(intent).isEmpty();
+
         return checkAction(intent.getAction()) && checkScheme(intent.getScheme());
     }
 
+    /**
+     * Returns list of all {@link Uri}s held by specified {@code intent} that should be imported. Both single file
+     * ({@link Intent#ACTION_VIEW}) and multiple files ({@link Intent#ACTION_SEND_MULTIPLE}) imports are supported.
+     */
+    @NonNull public static List<Uri> getImportUris(@NonNull Intent intent) {
+        final List<Uri> uris = new ArrayList<>();
+        if (Intent.ACTION_SEND_MULTIPLE.equals(intent.getAction())) {
+            final ArrayList<Uri> streams = intent.getParcelableArrayListExtra(Intent.EXTRA_STREAM);
+            if (streams != null) {
+                for (Uri uri : streams) {
+                    if (uri != null && checkScheme(uri.getScheme())) uris.add(uri);
+                }
+            }
+        } else if (intent.getData() != null) {
+            uris.add(intent.getData());
+        }
+
+        return uris;
+    }
+
     /**
      * Imports and saves wav file located at specified {@code uri} to a BYB recordings directory.
      */
     public static ImportResult importRecording(@NonNull Context context, String scheme, Uri uri) {
         if (scheme == null || uri == null) return ImportResult.createError(ImportResultCode.ERROR);
 
+        return importRecording(context, uri, null, null);
+    }
+
+    /**
+     * Imports file located at specified {@code uri} to a BYB recordings directory. WAV files are copied as they are
+     * while all other audio files are transcoded to WAV while being imported. Import is stopped as soon as specified
+     * {@code cancelled} flag is set in which case partially imported file is deleted.
+     */
+    public static ImportResult importRecording(@NonNull Context context, @NonNull Uri uri,
+        @Nullable AtomicBoolean cancelled, @Nullable ImportProgressListener listener) {
+        final String scheme = uri.getScheme();
+        if (scheme == null) return ImportResult.createError(ImportResultCode.ERROR);
+
         String filename = null;
+        long size = -1;
         if (scheme.equals(ContentResolver.SCHEME_FILE)) {
             filename = uri.getLastPathSegment();
+            if (uri.getPath() != null) size = new File(uri.getPath()).length();
         } else if (scheme.equals(ContentResolver.SCHEME_CONTENT)) {
             Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
             if (cursor != null && cursor.moveToFirst()) {
                 int columnIndex = cursor.getColumnIndexOrThrow(OpenableColumns.DISPLAY_NAME);
                 filename = cursor.getString(columnIndex);
+                int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                if (sizeIndex >= 0 && !cursor.isNull(sizeIndex)) size = cursor.getLong(sizeIndex);
             }
             if (cursor != null) cursor.close();
         }
 
-        final File file = RecordingUtils.createSharedRecordingFile(filename);
+        if (isWav(context, uri, filename)) {
+            return copyRecording(context, uri, RecordingUtils.createSharedRecordingFile(filename), size, cancelled,
+                listener);
+        } else {
+            return transcodeRecording(context, uri, RecordingUtils.createSharedRecordingFile(
+                filename != null ? RecordingUtils.getFileNameWithoutExtension(new File(filename))
+                    + RecordingUtils.BYB_RECORDING_EXT : null), cancelled, listener);
+        }
+    }
+
+    // Copies file at specified uri to the specified file
+    private static ImportResult copyRecording(@NonNull Context context, @NonNull Uri uri, @NonNull File file,
+        long size, @Nullable AtomicBoolean cancelled, @Nullable ImportProgressListener listener) {
         if (file.exists()) return ImportResult.createError(ImportResultCode.ERROR_EXISTS);
-        final InputStream is;
-        final FileOutputStream fos;
 
-        try {
-            is = context.getContentResolver().openInputStream(uri);
+        try (InputStream is = context.getContentResolver().openInputStream(uri)) {
             if (is == null) {
                 return ImportResult.createError(
                     ImportResultCode.ERROR_OPEN); // you can't import file with the same name
             }
 
-            fos = new FileOutputStream(file);
-            IoUtils.copyAllBytes(is, fos);
-            fos.flush();
-            fos.getFD().sync();
-            fos.close();
-            is.close();
+            boolean wasCancelled = false;
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                long copied = 0;
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    if (cancelled != null && cancelled.get()) {
+                        wasCancelled = true;
+                        break;
+                    }
+                    fos.write(buffer, 0, read);
+                    copied += read;
+                    if (listener != null && size > 0) listener.onImportProgress(copied * 100f / size);
+                }
+                fos.flush();
+                fos.getFD().sync();
+            }
+
+            if (wasCancelled) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return ImportResult.createError(ImportResultCode.CANCELLED);
+            }
 
             return ImportResult.createResult(file);
         } catch (IOException e) {
             Crashlytics.logException(e);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
 
             return ImportResult.createError(ImportResultCode.ERROR_SAVE);
         }
     }
 
+    // Transcodes audio file at specified uri to WAV and saves it to the specified file
+    private static ImportResult transcodeRecording(@NonNull Context context, @NonNull Uri uri, @NonNull File file,
+        @Nullable AtomicBoolean cancelled, @Nullable ImportProgressListener listener) {
+        if (file.exists()) return ImportResult.createError(ImportResultCode.ERROR_EXISTS);
+
+        try {
+            final MediaFormat format = AudioConversionUtils.convertToWav(context, uri, file,
+                listener != null ? new AudioConversionUtils.ToWavConversionProgressListener() {
+                    @Override public void onConversionProgress(float progress) {
+                        listener.onImportProgress(progress);
+                    }
+
+                    @Override public void onConversionComplete() {
+                        listener.onImportProgress(100f);
+                    }
+                } : null, cancelled);
+            if (format == null) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return ImportResult.createError(cancelled != null && cancelled.get() ? ImportResultCode.CANCELLED
+                    : ImportResultCode.ERROR_SAVE);
+            }
+
+            return ImportResult.createResult(file);
+        } catch (IOException e) {
+            Crashlytics.logException(e);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+
+            return ImportResult.createError(ImportResultCode.ERROR_OPEN);
+        }
+    }
+
+    // Whether file at specified uri is a WAV file
+    private static boolean isWav(@NonNull Context context, @NonNull Uri uri, @Nullable String filename) {
+        final String mimeType = context.getContentResolver().getType(uri);
+        if (mimeType != null && checkMemeType(mimeType)) {
+            return mimeType.contains("wav") || mimeType.equals("audio/raw");
+        }
+
+        return filename != null && filename.toLowerCase().endsWith(RecordingUtils.BYB_RECORDING_EXT);
+    }
+
     private static boolean checkAction(@Nullable String action) {
         return action != null && action.equals(Intent.ACTION_VIEW);
     }
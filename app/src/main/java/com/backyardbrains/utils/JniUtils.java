@@ -7,13 +7,22 @@ import com.backyardbrains.drawing.SpikesDrawData;
 import com.backyardbrains.dsp.FftData;
 import com.backyardbrains.dsp.SignalData;
 import com.backyardbrains.dsp.usb.AbstractUsbSignalSource;
-import com.backyardbrains.vo.SpikeIndexValue;
+import java.nio.ByteBuffer;
 
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
 public class JniUtils {
 
+    /**
+     * Listener that's passed to {@link #findSpikes(String, OnSpikesFoundListener, long)} and receives found spikes in
+     * batches. All spikes within the batch belong to the same channel and polarity and are sorted by index. Passed
+     * arrays are reused for the next batch.
+     */
+    public interface OnSpikesFoundListener {
+        void onSpikesFound(int channel, boolean positive, short[] values, int[] indices, float[] times, int count);
+    }
+
     public static native String helloTest();
 
     public static native void testPassByRef(short[] test);
@@ -42,12 +51,31 @@ public class JniUtils {
     public static native void processSampleStream(SignalData out, byte[] data, int length,
         AbstractUsbSignalSource sampleSource);
 
+    public static native int writeHidPackets(ByteBuffer data, int length, int packetSize);
+
+    public static native boolean awaitUsbPacketRing(int timeoutMs);
+
+    public static native int processUsbPacketRing(SignalData out, AbstractUsbSignalSource sampleSource);
+
+    public static native int getUsbPacketRingFreeSpace();
+
+    public static native void resetUsbPacketRing();
+
+    public static native void onUsbPacketReceived();
+
+    public static native void getUsbLinkTelemetry(long[] out);
+
+    public static native void resetUsbLinkTelemetry();
+
     public static native boolean isAudioStreamAmModulated();
 
     public static native void processMicrophoneStream(SignalData out, byte[] data, int length);
 
     public static native void processPlaybackStream(SignalData signalData, byte[] data, int length, int[] eventIndices,
-        String[] eventNames, int eventCount, long fromSample, long toSample, int prependSamples);
+        String[] eventNames, int eventCount, long fromSample, long toSample, int prependSamples, int decimationFactor);
+
+    public static native int decimateMinMax(byte[] out, byte[] in, int length, int channelCount, int bitsPerSample,
+        int decimationFactor);
 
     public static native int getAveragedSampleCount();
 
@@ -69,6 +97,15 @@ public class JniUtils {
 
     public static native void processThreshold(SignalData out, SignalData in, boolean averageSamples);
 
+    public static native long detectSpikes(SignalData in);
+
+    public static native int readSpikeEvents(int consumer, int[] outChannels, int[] outTrains, int[] outUnits,
+        short[] outValues, long[] outFrameIndices);
+
+    public static native long getDroppedSpikeEventCount(int consumer);
+
+    public static native void resetSpikeDetector();
+
     public static native void resetFftNormalization();
 
     public static native void processFft(FftData out, SignalData in);
@@ -84,9 +121,10 @@ public class JniUtils {
     public static native void prepareForFftDrawing(FftDrawData out, float[][] in, int drawStartIndex, int drawEndIndex,
         float drawWidthMax, int drawSurfaceWidth, int drawSurfaceHeight, float fftScaleFactor);
 
-    public static native void prepareForSpikesDrawing(SpikesDrawData out, SpikeIndexValue[] in, float[] colorInRange,
-        float[] colorOutOfRange, int rangeStart, int rangeEnd, int sampleStartIndex, int sampleEndIndex,
-        int drawStartIndex, int drawEndIndex, int samplesToDraw, int drawSurfaceWidth);
+    public static native void prepareForSpikesDrawing(SpikesDrawData out, float[] inSpikeValues, int[] inSpikeIndices,
+        int inSpikeOffset, int inSpikeCount, float[] colorInRange, float[] colorOutOfRange, int rangeStart,
+        int rangeEnd, int sampleStartIndex, int sampleEndIndex, int drawStartIndex, int drawEndIndex,
+        int samplesToDraw, int drawSurfaceWidth);
 
     public static native int parseEvents(String filePath, float sampleRate, int[] eventIndices, String[] eventNames);
 
@@ -95,24 +133,48 @@ public class JniUtils {
     public static native void eventTriggeredAverageAnalysis(String filePath, String eventsFilePath, String[] events,
         int eventCount, float[][][] averages, float[][][] normAverages, float[][] normMcAverages, float[][] normMcTop,
         float[][] normMcBottom, float[][] minMax, int channelCount, int frameCount, boolean removeNoiseIntervals,
-        String confidenceIntervalsEvent);
+        String confidenceIntervalsEvent, long control);
 
-    public static native int[][] findSpikes(String filePath, short[][] valuesPos, int[][] indicesPos,
-        float[][] timesPos, short[][] valuesNeg, int[][] indicesNeg, float[][] timesNeg, int channelCount,
-        int maxSpikes);
+    public static native boolean findSpikes(String filePath, OnSpikesFoundListener listener, long control);
 
     public static native void autocorrelationAnalysis(float[][] spikeTrains, int spikeTrainCount, int[] spikeCounts,
-        int[][] analysis, int analysisBinCount);
+        int[][] analysis, int analysisBinCount, long control);
 
     public static native void isiAnalysis(float[][] spikeTrains, int spikeTrainCount, int[] spikeCounts,
-        int[][] analysis, int analysisBinCount);
+        int[][] analysis, int analysisBinCount, long control);
 
     public static native void crossCorrelationAnalysis(float[][] spikeTrains, int spikeTrainCount, int[] spikeCounts,
-        int[][] analysis, int analysisCount, int binCount);
+        int[][] analysis, int analysisCount, int binCount, long control);
 
     public static native void averageSpikeAnalysis(String filePath, int[][] trains, int trainCount, int[] spikeCounts,
         float[][] averageSpike, float[][] normAverageSpike, float[][] normTopStdLine, float[][] normBottomStdLine,
-        int batchSpikeCount);
+        int batchSpikeCount, long control);
+
+    public static native int clusterSpikes(String filePath, String scratchFilePath, int channel, int[] spikeIndices,
+        int spikeCount, int clusterCount, byte[] clusters, long control);
+
+    public static native int powerSpectrumAnalysis(String filePath, int windowLength, float[] bandEdges, int bandCount,
+        float[][] powers, float[][] bandPowers, int channelCount, long control);
+
+    public static native boolean psthAnalysis(int[][] spikeTrains, int spikeTrainCount, int[] spikeCounts,
+        int[][] events, int eventTypeCount, int[] eventCounts, int leftFrameCount, int rightFrameCount, int binCount,
+        int[][] histograms, int[][] trialStarts, int[][] rasters, long control);
+
+    public static native boolean grandAverageSpikes(String filePath, int[][] spikeTrains, int[] channels,
+        int[] spikeCounts, int spikeTrainCount, int sampleRate, int leftFrameCount, int frameCount, int[] counts,
+        double[][] means, double[][] m2s, long control);
+
+    public static native boolean grandAverageEvents(String filePath, String eventsFilePath, String[] events,
+        int eventCount, int channelCount, boolean removeNoiseIntervals, int sampleRate, int leftFrameCount,
+        int frameCount, int[] counts, double[][] means, double[][] m2s, long control);
+
+    public static native long newAnalysisControl();
+
+    public static native void cancelAnalysis(long control);
+
+    public static native float getAnalysisProgress(long control);
+
+    public static native void releaseAnalysisControl(long control);
 
     static {
         System.loadLibrary("byb-lib");
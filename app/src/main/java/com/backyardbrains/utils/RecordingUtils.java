@@ -30,6 +30,10 @@ public class RecordingUtils {
     private static final String BYB_EVENTS_NAME_SUFFIX = "-events";
     // BYB events file extension
     private static final String BYB_EVENTS_EXT = ".txt";
+    // BYB live spikes file suffix
+    private static final String BYB_SPIKES_NAME_SUFFIX = "-spikes";
+    // BYB live spikes file extension
+    private static final String BYB_SPIKES_EXT = ".txt";
 
     static {
         BYB_DIRECTORY = new File(
@@ -113,6 +117,29 @@ public class RecordingUtils {
         return f.exists() ? f : null;
     }
 
+    /**
+     * Creates and returns new {@link File} for spikes found while recording the specified {@code file}.
+     */
+    @NonNull public static File createSpikesFile(@NonNull File file) {
+        return new File(BYB_DIRECTORY, getFileNameWithoutExtension(file) + BYB_SPIKES_NAME_SUFFIX + BYB_SPIKES_EXT);
+    }
+
+    /**
+     * Returns {@code true} if specified {@code file} is a spikes file, {@code false} otherwise.
+     */
+    public static boolean isSpikesFile(@NonNull File file) {
+        return file.getName().endsWith(BYB_SPIKES_NAME_SUFFIX + BYB_SPIKES_EXT);
+    }
+
+    /**
+     * Returns a spikes text {@link File} that accompanies the specified audio {@code file} if it exists, {@code null}
+     * otherwise.
+     */
+    @Nullable public static File getSpikesFile(@NonNull File file) {
+        File f = createSpikesFile(file);
+        return f.exists() ? f : null;
+    }
+
     /**
      * Returns name of the specified {@code file} without the file extension.
      */
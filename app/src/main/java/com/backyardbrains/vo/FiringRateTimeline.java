@@ -0,0 +1,86 @@
+package com.backyardbrains.vo;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Number of spikes of a single spike train within consecutive bins of the whole recording, at multiple resolutions.
+ * Level 0 holds the finest bins and every next level holds coarser rollups of them, so firing rate of any part of the
+ * recording can be drawn from the level whose bins best fit the screen without visiting every spike.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class FiringRateTimeline {
+
+    private final int train;
+    private final float duration;
+    private final float[] binSizes;
+    private final int[][] counts;
+
+    public FiringRateTimeline(int train, float duration, @NonNull float[] binSizes, @NonNull int[][] counts) {
+        this.train = train;
+        this.duration = duration;
+        this.binSizes = binSizes;
+        this.counts = counts;
+    }
+
+    /**
+     * Returns index of the spike train.
+     */
+    public int getTrain() {
+        return train;
+    }
+
+    /**
+     * Returns duration of the recording in seconds.
+     */
+    public float getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns number of resolution levels.
+     */
+    public int getLevelCount() {
+        return counts.length;
+    }
+
+    /**
+     * Returns width of a single bin of specified {@code level} in seconds.
+     */
+    public float getBinSize(int level) {
+        return binSizes[level];
+    }
+
+    /**
+     * Returns number of spikes within every bin of specified {@code level}. The last bin can be shorter than the rest
+     * if recording doesn't end at the bin boundary.
+     */
+    @NonNull public int[] getCounts(int level) {
+        return counts[level];
+    }
+
+    /**
+     * Returns the finest level at which specified {@code duration} in seconds spans no more than specified {@code
+     * maxBinCount} bins, or the coarsest level if there is no such level.
+     */
+    public int findLevel(float duration, int maxBinCount) {
+        for (int i = 0; i < counts.length; i++) {
+            if (duration / binSizes[i] <= maxBinCount) return i;
+        }
+        return counts.length - 1;
+    }
+
+    /**
+     * Copies firing rates in spikes per second of the bins of specified {@code level} between {@code from}
+     * (inclusive) and {@code to} (exclusive) to specified {@code out}.
+     */
+    public void getRates(int level, int from, int to, @NonNull float[] out) {
+        final float binSize = binSizes[level];
+        final int[] levelCounts = counts[level];
+        for (int i = from; i < to; i++) {
+            // the last bin only covers the rest of the recording
+            final float size = Math.min(binSize, duration - i * binSize);
+            out[i - from] = size > 0 ? levelCounts[i] / size : 0;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.backyardbrains.vo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Average, and standard deviation around it, of the signal surrounding all the spikes of a single spike train or all
+ * the events of a single type on a single channel, pooled across multiple recordings.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class GrandAverage {
+
+    private final String event;
+    private final int train;
+    private final int channel;
+    private final int sampleRate;
+    private final float leftOffset;
+    private final int recordingCount;
+    private final long windowCount;
+    private final float[] average;
+    private final float[] standardDeviation;
+
+    public GrandAverage(@Nullable String event, int train, int channel, int sampleRate, float leftOffset,
+        int recordingCount, long windowCount, @NonNull float[] average, @NonNull float[] standardDeviation) {
+        this.event = event;
+        this.train = train;
+        this.channel = channel;
+        this.sampleRate = sampleRate;
+        this.leftOffset = leftOffset;
+        this.recordingCount = recordingCount;
+        this.windowCount = windowCount;
+        this.average = average;
+        this.standardDeviation = standardDeviation;
+    }
+
+    /**
+     * Returns name of the event signal is aligned to, or {@code null} if it's aligned to spikes.
+     */
+    @Nullable public String getEvent() {
+        return event;
+    }
+
+    /**
+     * Returns index of the spike train signal is aligned to, or {@code -1} if it's aligned to events.
+     */
+    public int getTrain() {
+        return train;
+    }
+
+    /**
+     * Returns channel of the averaged signal.
+     */
+    public int getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns sample rate of the average. Signal of the recordings with a different sample rate is resampled to it.
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Returns time in seconds between the first average sample and the spike or event.
+     */
+    public float getLeftOffset() {
+        return leftOffset;
+    }
+
+    /**
+     * Returns number of recordings that contributed at least one window.
+     */
+    public int getRecordingCount() {
+        return recordingCount;
+    }
+
+    /**
+     * Returns number of averaged windows from all the recordings.
+     */
+    public long getWindowCount() {
+        return windowCount;
+    }
+
+    @NonNull public float[] getAverage() {
+        return average;
+    }
+
+    /**
+     * Returns standard deviation of every average sample.
+     */
+    @NonNull public float[] getStandardDeviation() {
+        return standardDeviation;
+    }
+}
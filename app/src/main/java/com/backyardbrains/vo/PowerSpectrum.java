@@ -0,0 +1,55 @@
+package com.backyardbrains.vo;
+
+/**
+ * Power spectral density of a single channel of the recording together with the power within the standard EEG bands.
+ * Powers are in squared sample values.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class PowerSpectrum {
+
+    /**
+     * Edges of the bands in Hz, every band includes frequencies from its lower edge up to but not including its upper
+     * edge.
+     */
+    public static final float[] BAND_EDGES = { .5f, 4f, 8f, 13f, 30f, 100f };
+
+    public static final int BAND_DELTA = 0;
+    public static final int BAND_THETA = 1;
+    public static final int BAND_ALPHA = 2;
+    public static final int BAND_BETA = 3;
+    public static final int BAND_GAMMA = 4;
+    public static final int BAND_COUNT = BAND_EDGES.length - 1;
+
+    private final float frequencyResolution;
+    private final float[] powers;
+    private final float[] bandPowers;
+
+    public PowerSpectrum(float frequencyResolution, float[] powers, float[] bandPowers) {
+        this.frequencyResolution = frequencyResolution;
+        this.powers = powers;
+        this.bandPowers = bandPowers;
+    }
+
+    /**
+     * Returns distance between two consecutive frequency bins in Hz.
+     */
+    public float getFrequencyResolution() {
+        return frequencyResolution;
+    }
+
+    /**
+     * Returns power spectral density per Hz, first bin is 0 Hz and every next one is {@link
+     * #getFrequencyResolution()} higher.
+     */
+    public float[] getPowers() {
+        return powers;
+    }
+
+    /**
+     * Returns power within every band, in order delta, theta, alpha, beta and gamma.
+     */
+    public float[] getBandPowers() {
+        return bandPowers;
+    }
+}
@@ -0,0 +1,121 @@
+package com.backyardbrains.vo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Peri-stimulus time histogram of a single spike train aligned to all events of a single type, optionally together
+ * with the raster of the spikes within the window of every event.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class Psth {
+
+    private final String event;
+    private final int train;
+    private final int sampleRate;
+    private final float leftOffset;
+    private final float rightOffset;
+    private final int trialCount;
+    private final int[] histogram;
+    private final int[] trialStarts;
+    private final int[] raster;
+
+    public Psth(@NonNull String event, int train, int sampleRate, float leftOffset, float rightOffset, int trialCount,
+        @NonNull int[] histogram, @Nullable int[] trialStarts, @Nullable int[] raster) {
+        this.event = event;
+        this.train = train;
+        this.sampleRate = sampleRate;
+        this.leftOffset = leftOffset;
+        this.rightOffset = rightOffset;
+        this.trialCount = trialCount;
+        this.histogram = histogram;
+        this.trialStarts = trialStarts;
+        this.raster = raster;
+    }
+
+    /**
+     * Returns name of the event spikes are aligned to.
+     */
+    @NonNull public String getEvent() {
+        return event;
+    }
+
+    /**
+     * Returns index of the spike train.
+     */
+    public int getTrain() {
+        return train;
+    }
+
+    /**
+     * Returns sample rate of the recording, raster spikes are expressed in its samples.
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Returns time in seconds before the event the first bin starts at.
+     */
+    public float getLeftOffset() {
+        return leftOffset;
+    }
+
+    /**
+     * Returns time in seconds after the event the last bin ends at.
+     */
+    public float getRightOffset() {
+        return rightOffset;
+    }
+
+    /**
+     * Returns number of events the spikes were aligned to.
+     */
+    public int getTrialCount() {
+        return trialCount;
+    }
+
+    /**
+     * Returns number of spikes within every bin summed over all the events.
+     */
+    @NonNull public int[] getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Returns width of a single bin in seconds.
+     */
+    public float getBinSize() {
+        return (leftOffset + rightOffset) / histogram.length;
+    }
+
+    /**
+     * Returns average firing rate within every bin in spikes per second.
+     */
+    @NonNull public float[] getRates() {
+        final float[] rates = new float[histogram.length];
+        if (trialCount == 0) return rates;
+
+        final float norm = 1f / (trialCount * getBinSize());
+        for (int i = 0; i < histogram.length; i++) rates[i] = histogram[i] * norm;
+        return rates;
+    }
+
+    /**
+     * Returns position of the first raster spike of every event, followed by the total number of raster spikes, or
+     * {@code null} if raster wasn't requested.
+     */
+    @Nullable public int[] getTrialStarts() {
+        return trialStarts;
+    }
+
+    /**
+     * Returns spikes within the window of every event, in samples relative to the event, or {@code null} if raster
+     * wasn't requested. Spikes of i-th event start at {@code getTrialStarts()[i]} and end at {@code
+     * getTrialStarts()[i + 1]}.
+     */
+    @Nullable public int[] getRaster() {
+        return raster;
+    }
+}
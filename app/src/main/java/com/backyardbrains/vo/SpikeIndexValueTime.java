@@ -1,35 +0,0 @@
-package com.backyardbrains.vo;
-
-/**
- * @author Tihomir Leka <tihomir at backyardbrains.com>
- */
-public class SpikeIndexValueTime {
-
-    private int index;
-    private float value;
-    private float time;
-
-    public int getIndex() {
-        return index;
-    }
-
-    public void setIndex(int index) {
-        this.index = index;
-    }
-
-    public float getValue() {
-        return value;
-    }
-
-    public void setValue(float value) {
-        this.value = value;
-    }
-
-    public float getTime() {
-        return time;
-    }
-
-    public void setTime(float time) {
-        this.time = time;
-    }
-}
@@ -0,0 +1,48 @@
+package com.backyardbrains.vo;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Immutable snapshot of the spikes of a single spike train located within a range of samples. Spikes are sorted by
+ * sample index.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeWindow {
+
+    public final int startIndex;
+    public final int endIndex;
+    public final int[] indices;
+    public final float[] values;
+
+    public SpikeWindow(int startIndex, int endIndex, @NonNull int[] indices, @NonNull float[] values) {
+        this.startIndex = startIndex;
+        this.endIndex = endIndex;
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * Whether snapshot holds all the spikes located between specified {@code startIndex} and {@code endIndex}.
+     */
+    public boolean covers(int startIndex, int endIndex) {
+        return this.startIndex <= startIndex && endIndex <= this.endIndex;
+    }
+
+    /**
+     * Returns position of the first spike whose sample index is greater than or equal to specified {@code index}.
+     */
+    public int findFirstAtOrAfter(int index) {
+        int lo = 0;
+        int hi = indices.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (indices[mid] < index) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
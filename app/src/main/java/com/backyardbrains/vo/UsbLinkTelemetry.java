@@ -0,0 +1,88 @@
+package com.backyardbrains.vo;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Counters that describe health of the link with the connected SpikerBox since the counters were last reset.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class UsbLinkTelemetry {
+
+    // Indices of the values populated by JniUtils.getUsbLinkTelemetry()
+    private static final int FRAMES_DECODED = 0;
+    private static final int FRAMES_DROPPED = 1;
+    private static final int RESYNCS = 2;
+    private static final int ESCAPE_MESSAGES = 3;
+    private static final int BYTES_DISCARDED = 4;
+    private static final int RING_OVERRUNS = 5;
+    private static final int PACKETS_RECEIVED = 6;
+    private static final int INVALID_PACKETS = 7;
+    private static final int LATENCY_SUM_NANOS = 8;
+    private static final int LATENCY_MAX_NANOS = 9;
+    private static final int LATENCY_COUNT = 10;
+    private static final int INTER_ARRIVAL_HISTOGRAM = 11;
+
+    /**
+     * Number of buckets in the packet inter-arrival histogram.
+     */
+    public static final int INTER_ARRIVAL_BUCKET_COUNT = 12;
+    /**
+     * Number of values that need to be populated by JniUtils.getUsbLinkTelemetry().
+     */
+    public static final int VALUE_COUNT = INTER_ARRIVAL_HISTOGRAM + INTER_ARRIVAL_BUCKET_COUNT;
+
+    // Upper bound of the first inter-arrival histogram bucket
+    private static final int INTER_ARRIVAL_FIRST_BUCKET_MICROS = 125;
+
+    public long framesDecoded;
+    public long framesDropped;
+    public long resyncs;
+    public long escapeMessages;
+    public long bytesDiscarded;
+    public long ringOverruns;
+    public long packetsReceived;
+    public long invalidPackets;
+    public long latencySumNanos;
+    public long latencyMaxNanos;
+    public long latencyCount;
+    public final long[] interArrivalHistogram = new long[INTER_ARRIVAL_BUCKET_COUNT];
+
+    public UsbLinkTelemetry() {
+    }
+
+    /**
+     * Creates telemetry from the specified {@code values} populated by JniUtils.getUsbLinkTelemetry().
+     */
+    public UsbLinkTelemetry(@NonNull long[] values) {
+        framesDecoded = values[FRAMES_DECODED];
+        framesDropped = values[FRAMES_DROPPED];
+        resyncs = values[RESYNCS];
+        escapeMessages = values[ESCAPE_MESSAGES];
+        bytesDiscarded = values[BYTES_DISCARDED];
+        ringOverruns = values[RING_OVERRUNS];
+        packetsReceived = values[PACKETS_RECEIVED];
+        invalidPackets = values[INVALID_PACKETS];
+        latencySumNanos = values[LATENCY_SUM_NANOS];
+        latencyMaxNanos = values[LATENCY_MAX_NANOS];
+        latencyCount = values[LATENCY_COUNT];
+        System.arraycopy(values, INTER_ARRIVAL_HISTOGRAM, interArrivalHistogram, 0, INTER_ARRIVAL_BUCKET_COUNT);
+    }
+
+    /**
+     * Returns upper bound (exclusive) in microseconds of the inter-arrival histogram bucket at specified {@code index}.
+     * Last bucket has no upper bound so {@link Long#MAX_VALUE} is returned for it.
+     */
+    public static long getInterArrivalBucketUpperBoundMicros(int index) {
+        if (index >= INTER_ARRIVAL_BUCKET_COUNT - 1) return Long.MAX_VALUE;
+        return (long) INTER_ARRIVAL_FIRST_BUCKET_MICROS << index;
+    }
+
+    /**
+     * Returns percentage of frames that were dropped.
+     */
+    public float getFrameDropRate() {
+        final long total = framesDecoded + framesDropped;
+        return total > 0 ? framesDropped * 100f / total : 0f;
+    }
+}
@@ -0,0 +1,121 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <algorithm>
+#include <fcntl.h>
+#include <unistd.h>
+#include <random>
+#include <vector>
+
+#include "AverageSpikeAnalysis.h"
+#include "ReferenceAverageSpikeAnalysis.h"
+#include "TestUtils.h"
+#include "TestWavFile.h"
+
+using backyardbrains::analysis::AverageSpikeAnalysis;
+using backyardbrains::test::ReferenceAverageSpikeAnalysis;
+using backyardbrains::test::TestWavFile;
+
+namespace {
+
+    constexpr int SAMPLE_RATE = 44100;
+    constexpr int TRAIN_COUNT = 4;
+    // 2 ms on both sides of the spike
+    constexpr int BATCH_SPIKE_COUNT = 2 * static_cast<int>(SAMPLE_RATE * 0.002f) + 1;
+
+    // Drops file pages from the page cache so the next read goes to the storage
+    void evictFromPageCache(const char *path) {
+        int fd = open(path, O_RDONLY);
+        if (fd < 0) return;
+        posix_fadvise(fd, 0, 0, POSIX_FADV_DONTNEED);
+        close(fd);
+    }
+
+    struct Result {
+        double referenceMs;
+        double singlePassMs;
+        bool identical;
+    };
+
+    // Averages spikes with both implementations and compares the averages, which are summed in the same order so
+    // they need to be exactly the same
+    Result run(const char *path, std::vector<std::vector<int>> &trains, bool cold) {
+        std::vector<int *> trainPtrs;
+        std::vector<int> counts;
+        for (auto &train : trains) {
+            trainPtrs.push_back(train.data());
+            counts.push_back(static_cast<int>(train.size()));
+        }
+        std::vector<std::vector<float>> expected(TRAIN_COUNT, std::vector<float>(BATCH_SPIKE_COUNT));
+        std::vector<std::vector<std::vector<float>>> outputs(
+                4, std::vector<std::vector<float>>(TRAIN_COUNT, std::vector<float>(BATCH_SPIKE_COUNT)));
+        std::vector<float *> expectedPtrs;
+        std::vector<std::vector<float *>> outputPtrs(4);
+        for (auto &average : expected) expectedPtrs.push_back(average.data());
+        for (int i = 0; i < 4; i++) for (auto &output : outputs[i]) outputPtrs[i].push_back(output.data());
+
+        Result result{};
+        if (cold) evictFromPageCache(path);
+        auto start = std::chrono::steady_clock::now();
+        ReferenceAverageSpikeAnalysis::process(path, trainPtrs.data(), TRAIN_COUNT, counts.data(),
+                                               expectedPtrs.data(), BATCH_SPIKE_COUNT);
+        result.referenceMs = backyardbrains::test::elapsedMs(start);
+
+        if (cold) evictFromPageCache(path);
+        start = std::chrono::steady_clock::now();
+        AverageSpikeAnalysis().process(path, trainPtrs.data(), TRAIN_COUNT, counts.data(), outputPtrs[0].data(),
+                                       outputPtrs[1].data(), outputPtrs[2].data(), outputPtrs[3].data(),
+                                       BATCH_SPIKE_COUNT, nullptr);
+        result.singlePassMs = backyardbrains::test::elapsedMs(start);
+
+        result.identical = expected == outputs[0];
+        return result;
+    }
+}
+
+/**
+ * Compares duration of the single pass average spike analysis with the one that reads window of every spike on its
+ * own, from sparse to dense spikes, with the file in the page cache (warm) and evicted from it before every run
+ * (cold). Checks both give exactly the same averages. Length of the mono 44.1 kHz recording in minutes can be passed
+ * as the first argument, default one is about 1 GB.
+ */
+int main(int argc, char **argv) {
+    const int minutes = argc > 1 ? atoi(argv[1]) : 200;
+    const long long frameCount = SAMPLE_RATE * 60LL * minutes;
+
+    std::mt19937 rng(7);
+    std::normal_distribution<float> noise(0, 1000);
+    const TestWavFile file("average_spike_benchmark", SAMPLE_RATE, 1, frameCount,
+                           [&](long long frame, int channel) { return static_cast<short>(noise(rng)); });
+    printf("%d min mono at 44.1 kHz (%.0f MB)\n", minutes, frameCount * 2 / 1048576.0);
+
+    bool identical = true;
+    for (int spikeCount : {5000, 50000, 500000, 3000000}) {
+        // spikes uniformly spread over the recording, including ones too close to its edges to be averaged
+        std::vector<std::vector<int>> trains(TRAIN_COUNT);
+        for (int i = 0; i < spikeCount; i++) {
+            trains[rng() % TRAIN_COUNT].push_back(static_cast<int>(rng() % frameCount));
+        }
+        trains[0].push_back(1);
+        trains[0].push_back(static_cast<int>(frameCount - 2));
+        for (auto &train : trains) std::sort(train.begin(), train.end());
+
+        // warm runs are repeated and the best one is reported
+        Result warm = run(file.getPath(), trains, false);
+        for (int i = 0; i < 2; i++) {
+            const Result result = run(file.getPath(), trains, false);
+            warm.referenceMs = std::min(warm.referenceMs, result.referenceMs);
+            warm.singlePassMs = std::min(warm.singlePassMs, result.singlePassMs);
+            warm.identical &= result.identical;
+        }
+        const Result cold = run(file.getPath(), trains, true);
+        identical &= warm.identical && cold.identical;
+
+        printf("%7d spikes: warm per spike %7.1f ms, single pass %7.1f ms | cold per spike %7.1f ms, "
+               "single pass %7.1f ms | %s\n", spikeCount, warm.referenceMs, warm.singlePassMs, cold.referenceMs,
+               cold.singlePassMs, warm.identical && cold.identical ? "identical" : "MISMATCH");
+    }
+
+    return identical ? 0 : 1;
+}
@@ -0,0 +1,108 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <cmath>
+#include <random>
+#include <string>
+#include <vector>
+
+#include "CrossCorrelationAnalysis.h"
+#include "ReferenceCrossCorrelation.h"
+#include "TestUtils.h"
+
+using backyardbrains::analysis::CrossCorrelationAnalysis;
+using backyardbrains::test::ReferenceCrossCorrelation;
+using backyardbrains::utils::AnalysisUtils;
+
+namespace {
+
+    constexpr int BIN_COUNT = 201;
+
+    // Sorted trains of bursty spikes at 20 Hz. Every fifth train is empty or has a single spike, some spikes share
+    // times and some are snapped to the 1 ms grid so they fall on bin edges.
+    std::vector<std::vector<float>> createTrains(int trainCount, int spikeCount, std::mt19937 &rng) {
+        std::vector<std::vector<float>> trains(static_cast<size_t>(trainCount));
+        std::exponential_distribution<float> interval(20.0f);
+        for (int t = 0; t < trainCount; t++) {
+            const int count = t % 5 == 4 ? t % 2 : spikeCount;
+            float time = 0;
+            for (int i = 0; i < count; i++) {
+                time += i % 50 != 0 ? interval(rng) * 0.01f : interval(rng);
+                trains[t].push_back(i % 13 == 0 ? std::round(time * 1000) / 1000 : time);
+                if (i % 97 == 96) trains[t].push_back(trains[t].back());
+            }
+            std::sort(trains[t].begin(), trains[t].end());
+        }
+        return trains;
+    }
+
+    // Correlates specified number of trains with the windowed implementation and, if asked to, with the reference one
+    // and compares the histograms. Returns false if they don't match.
+    bool run(int trainCount, int spikeCount, bool runReference, std::mt19937 &rng, bool print) {
+        auto trains = createTrains(trainCount, spikeCount, rng);
+        std::vector<float *> trainPtrs;
+        std::vector<int> counts;
+        for (auto &train : trains) {
+            trainPtrs.push_back(train.data());
+            counts.push_back(static_cast<int>(train.size()));
+        }
+        const int analysisCount = trainCount * trainCount;
+        std::vector<std::vector<int>> histograms(analysisCount, std::vector<int>(BIN_COUNT, -1));
+        std::vector<std::vector<int>> expected(analysisCount, std::vector<int>(BIN_COUNT, 0));
+        std::vector<int *> histogramPtrs, expectedPtrs;
+        for (auto &histogram : histograms) histogramPtrs.push_back(histogram.data());
+        for (auto &histogram : expected) expectedPtrs.push_back(histogram.data());
+
+        CrossCorrelationAnalysis analysis;
+        auto start = std::chrono::steady_clock::now();
+        analysis.process(trainPtrs.data(), trainCount, counts.data(), histogramPtrs.data(), BIN_COUNT, nullptr);
+        const double windowedMs = backyardbrains::test::elapsedMs(start);
+
+        double referenceMs = -1;
+        bool match = true;
+        if (runReference) {
+            start = std::chrono::steady_clock::now();
+            ReferenceCrossCorrelation::process(trainPtrs.data(), trainCount, counts.data(), expectedPtrs.data(),
+                                               BIN_COUNT);
+            referenceMs = backyardbrains::test::elapsedMs(start);
+            match = histograms == expected;
+        }
+
+        if (print) {
+            long long pairCount = 0;
+            for (auto &histogram : histograms) for (int count : histogram) pairCount += count;
+            printf("%d trains x %7d spikes: windowed %8.1f ms, reference %s, %lld pairs within max lag%s\n",
+                   trainCount, spikeCount, windowedMs,
+                   runReference ? (std::to_string(static_cast<int>(referenceMs)) + " ms").c_str() : "skipped",
+                   pairCount, runReference ? (match ? ", match" : ", MISMATCH") : "");
+        }
+        return match;
+    }
+}
+
+/**
+ * Compares duration of the windowed cross-correlation with the one that compared every spike with the whole second
+ * train, and checks both give the same histograms. Reference is skipped for trains where it would take minutes. Max
+ * number of spikes per train can be passed as the first argument.
+ */
+int main(int argc, char **argv) {
+    const int maxSpikeCount = argc > 1 ? atoi(argv[1]) : 1000000;
+    std::mt19937 rng(11);
+    bool match = true;
+
+    // small randomized cases, including empty and single spike trains, are always checked
+    for (int i = 0; i < 30; i++) match &= run(1 + i % 6, 50 + i * 37, true, rng, false);
+    printf("30 randomized small cases: %s, %d threads\n", match ? "match" : "MISMATCH",
+           AnalysisUtils::getThreadCount());
+
+    for (int spikeCount : {1000, 10000, 50000, 200000, 1000000}) {
+        if (spikeCount > maxSpikeCount) break;
+        for (int trainCount : {2, 4, 8}) {
+            match &= run(trainCount, spikeCount, spikeCount <= 10000 || (spikeCount <= 50000 && trainCount == 2),
+                         rng, true);
+        }
+    }
+
+    return match ? 0 : 1;
+}
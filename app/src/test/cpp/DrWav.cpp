@@ -0,0 +1,8 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+// Library includes dr_wav implementation in byb-lib.cpp which isn't built for the host
+#define DR_WAV_IMPLEMENTATION
+
+#include "dr_wav.h"
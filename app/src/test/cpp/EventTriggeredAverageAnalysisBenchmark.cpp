@@ -0,0 +1,85 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <cstdio>
+#include <random>
+#include <string>
+#include <thread>
+#include <vector>
+
+#include "EventTriggeredAverageAnalysis.h"
+#include "ReferenceEventTriggeredAverage.h"
+#include "TestUtils.h"
+#include "TestWavFile.h"
+
+using backyardbrains::analysis::EventTriggeredAverageAnalysis;
+using backyardbrains::test::ReferenceEventTriggeredAverage;
+using backyardbrains::test::TestWavFile;
+
+namespace {
+
+    constexpr int SAMPLE_RATE = 44100;
+    constexpr int CHANNEL_COUNT = 2;
+
+    // Runs event triggered average of all the events in the specified events file with confidence intervals
+    double analyze(const char *signalPath, const char *eventsPath, int repetitionCount) {
+        const int frameCount = static_cast<int>(SAMPLE_RATE * CHANNEL_COUNT * 0.7f) * 2 / CHANNEL_COUNT;
+        std::vector<std::vector<float>> buffers(5 * CHANNEL_COUNT, std::vector<float>(frameCount));
+        std::vector<float *> ptrs;
+        for (auto &buffer : buffers) ptrs.push_back(buffer.data());
+        float **averages = ptrs.data(), **normAverages = ptrs.data() + CHANNEL_COUNT;
+        float min[CHANNEL_COUNT], max[CHANNEL_COUNT];
+        const std::string event = "1";
+
+        EventTriggeredAverageAnalysis analysis;
+        analysis.setSeed(1);
+        analysis.setRepetitionCount(repetitionCount);
+        const auto start = std::chrono::steady_clock::now();
+        analysis.process(signalPath, eventsPath, &event, 1, false, event.c_str(), &averages, &normAverages,
+                         ptrs.data() + 2 * CHANNEL_COUNT, ptrs.data() + 3 * CHANNEL_COUNT,
+                         ptrs.data() + 4 * CHANNEL_COUNT, min, max, nullptr);
+        return backyardbrains::test::elapsedMs(start);
+    }
+}
+
+/**
+ * Compares duration of the event triggered average with confidence intervals computed on multiple threads from the
+ * mapped samples with the reference that reads every random interval from the file on a single thread, for different
+ * numbers of averaged events and repetitions. Length of the stereo 44.1 kHz recording in minutes can be passed as the
+ * first argument, default one is 30 minutes.
+ */
+int main(int argc, char **argv) {
+    const int minutes = argc > 1 ? atoi(argv[1]) : 30;
+    const long long frameCount = SAMPLE_RATE * 60LL * minutes;
+
+    std::mt19937 rng(7);
+    std::normal_distribution<float> noise(0, 1500);
+    const TestWavFile signal("eta_benchmark", SAMPLE_RATE, CHANNEL_COUNT, frameCount,
+                             [&](long long frame, int channel) { return static_cast<short>(noise(rng)); });
+    const std::string eventsPath = std::string(signal.getPath()) + ".txt";
+    printf("%d min stereo at 44.1 kHz, %u hardware threads\n", minutes, std::thread::hardware_concurrency());
+
+    for (int eventCount : {25, 100, 400}) {
+        // events evenly spread over the recording
+        FILE *file = fopen(eventsPath.c_str(), "w");
+        for (int i = 0; i < eventCount; i++) fprintf(file, "1,\t%.4f\n", 1.0 + (minutes * 60.0 - 2) * i / eventCount);
+        fclose(file);
+
+        for (int repetitionCount : {25, 100, 400}) {
+            const double parallelMs = analyze(signal.getPath(), eventsPath.c_str(), repetitionCount);
+
+            std::vector<std::vector<float>> mean, std;
+            const auto start = std::chrono::steady_clock::now();
+            ReferenceEventTriggeredAverage::computeConfidenceIntervals(signal.getPath(), eventCount, repetitionCount,
+                                                                       1, mean, std);
+            const double referenceMs = backyardbrains::test::elapsedMs(start);
+
+            printf("%3d events x %3d repetitions: reference %8.1f ms, parallel bootstrap %8.1f ms (%.1fx)\n",
+                   eventCount, repetitionCount, referenceMs, parallelMs, referenceMs / parallelMs);
+        }
+    }
+    remove(eventsPath.c_str());
+
+    return 0;
+}
@@ -0,0 +1,230 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <cmath>
+#include <cstdio>
+#include <memory>
+#include <random>
+#include <string>
+#include <vector>
+
+#include "EventTriggeredAverageAnalysis.h"
+#include "ReferenceEventTriggeredAverage.h"
+#include "TestUtils.h"
+#include "TestWavFile.h"
+
+using backyardbrains::analysis::EventTriggeredAverageAnalysis;
+using backyardbrains::test::ReferenceEventTriggeredAverage;
+using backyardbrains::test::TestWavFile;
+
+namespace {
+
+    constexpr int SAMPLE_RATE = 44100;
+    constexpr int LENGTH_IN_SECS = 60;
+    constexpr float NOISE_STD = 1500.0f;
+    constexpr float FIRST_EVENT_IN_SECS = 1.0f;
+    constexpr float EVENT_PERIOD_IN_SECS = 1.5f;
+    const std::string EVENTS[] = {"1", "2"};
+
+    // Events file with events "1" and "2" taking turns every 1.5 seconds, deleted once the object is destroyed
+    class TestEventsFile {
+    public:
+        explicit TestEventsFile(const std::string &name) {
+            const char *tmpDir = std::getenv("TMPDIR");
+            path = std::string(tmpDir != nullptr ? tmpDir : "/tmp") + "/" + name + ".txt";
+            FILE *file = fopen(path.c_str(), "w");
+            fprintf(file, "# Marker IDs can be arbitrary strings.\n# Marker ID,\tTime (in s)\n");
+            int i = 0;
+            for (float time = FIRST_EVENT_IN_SECS; time < LENGTH_IN_SECS - 1; time += EVENT_PERIOD_IN_SECS, i++) {
+                fprintf(file, "%s,\t%.4f\n", EVENTS[i % 2].c_str(), time);
+            }
+            fclose(file);
+        }
+
+        ~TestEventsFile() {
+            remove(path.c_str());
+        }
+
+        const char *getPath() const {
+            return path.c_str();
+        }
+
+    private:
+        std::string path;
+    };
+
+    // Outputs of a single analysis
+    struct Result {
+        Result(int channelCount, int frameCount) :
+                averages(2, std::vector<std::vector<float>>(channelCount, std::vector<float>(frameCount))),
+                normAverages(averages), mcAverages(averages[0]), mcTop(averages[0]), mcBottom(averages[0]),
+                min(channelCount), max(channelCount) {}
+
+        std::vector<std::vector<std::vector<float>>> averages;
+        std::vector<std::vector<std::vector<float>>> normAverages;
+        std::vector<std::vector<float>> mcAverages;
+        std::vector<std::vector<float>> mcTop;
+        std::vector<std::vector<float>> mcBottom;
+        std::vector<float> min;
+        std::vector<float> max;
+
+        bool operator==(const Result &other) const {
+            return averages == other.averages && normAverages == other.normAverages &&
+                   mcAverages == other.mcAverages && mcTop == other.mcTop && mcBottom == other.mcBottom &&
+                   min == other.min && max == other.max;
+        }
+    };
+
+    // Noise with a response of every channel to every event, or bounded noise with bursts that are removed as noise
+    // when noise is removed, all the other intervals stay within 2.5 standard deviations from the mean
+    TestWavFile::SampleGenerator createSignal(bool bursts) {
+        auto rng = std::make_shared<std::mt19937>(3);
+        return [=](long long frame, int channel) {
+            if (bursts) {
+                if (frame % (SAMPLE_RATE * 7) < 500) return static_cast<short>(30000);
+                std::uniform_real_distribution<float> noise(-2000, 2000);
+                return static_cast<short>(noise(*rng));
+            }
+            std::normal_distribution<float> noise(0, NOISE_STD);
+            float value = noise(*rng);
+            const float time = static_cast<float>(frame) / SAMPLE_RATE - FIRST_EVENT_IN_SECS;
+            const float sinceEvent = time - EVENT_PERIOD_IN_SECS * std::floor(time / EVENT_PERIOD_IN_SECS);
+            if (time >= 0 && sinceEvent < 0.2f) {
+                value += 4000 * (channel + 1) * std::sin(sinceEvent * 60) * std::exp(-sinceEvent * 20);
+            }
+            return static_cast<short>(std::max(-32768.0f, std::min(32767.0f, value)));
+        };
+    }
+
+    Result analyze(EventTriggeredAverageAnalysis &analysis, const TestWavFile &signal, const TestEventsFile &events,
+                   int channelCount, bool removeNoise, const char *confidenceIntervalsEvent) {
+        const int frameCount = static_cast<int>(SAMPLE_RATE * channelCount * 0.7f) * 2 / channelCount;
+        Result result(channelCount, frameCount);
+        std::vector<std::vector<float *>> averages(2), normAverages(2);
+        for (int i = 0; i < 2; i++) {
+            for (int ch = 0; ch < channelCount; ch++) {
+                averages[i].push_back(result.averages[i][ch].data());
+                normAverages[i].push_back(result.normAverages[i][ch].data());
+            }
+        }
+        float **averagesPtrs[] = {averages[0].data(), averages[1].data()};
+        float **normAveragesPtrs[] = {normAverages[0].data(), normAverages[1].data()};
+        std::vector<float *> mcAverages, mcTop, mcBottom;
+        for (int ch = 0; ch < channelCount; ch++) {
+            mcAverages.push_back(result.mcAverages[ch].data());
+            mcTop.push_back(result.mcTop[ch].data());
+            mcBottom.push_back(result.mcBottom[ch].data());
+        }
+
+        analysis.process(signal.getPath(), events.getPath(), EVENTS, 2, removeNoise, confidenceIntervalsEvent,
+                         averagesPtrs, normAveragesPtrs, mcAverages.data(), mcTop.data(), mcBottom.data(),
+                         result.min.data(), result.max.data(), nullptr);
+        return result;
+    }
+
+    // Runs analysis of the same recording twice, with two different seeds, and checks the results only depend on
+    // the seed
+    void checkSameSeedGivesSameResult(int channelCount, bool removeNoise) {
+        const TestWavFile signal("eta_seed", SAMPLE_RATE, channelCount, SAMPLE_RATE * LENGTH_IN_SECS,
+                                 createSignal(removeNoise));
+        const TestEventsFile events("eta_seed_events");
+
+        EventTriggeredAverageAnalysis first;
+        first.setSeed(42);
+        const Result expected = analyze(first, signal, events, channelCount, removeNoise, "2");
+        CHECK(expected.mcTop != expected.mcBottom);
+        // the same instance gives the same result when run again
+        CHECK(expected == analyze(first, signal, events, channelCount, removeNoise, "2"));
+
+        EventTriggeredAverageAnalysis second;
+        second.setSeed(42);
+        CHECK(expected == analyze(second, signal, events, channelCount, removeNoise, "2"));
+
+        EventTriggeredAverageAnalysis other;
+        other.setSeed(43);
+        const Result otherResult = analyze(other, signal, events, channelCount, removeNoise, "2");
+        // only confidence intervals are random
+        CHECK(expected.averages == otherResult.averages);
+        CHECK(expected.mcAverages != otherResult.mcAverages);
+        CHECK(expected.mcTop != otherResult.mcTop);
+    }
+
+    // Maps value normalized between -1 and 1 back to the range between specified min and max
+    float unmap(float value, float min, float max) {
+        return min + (value + 1) / 2 * (max - min);
+    }
+}
+
+TEST(monoWithSameSeedGivesSameResult) {
+    checkSameSeedGivesSameResult(1, false);
+}
+
+TEST(stereoWithSameSeedGivesSameResult) {
+    checkSameSeedGivesSameResult(2, false);
+}
+
+TEST(removingNoiseWithSameSeedGivesSameResult) {
+    checkSameSeedGivesSameResult(2, true);
+}
+
+TEST(confidenceIntervalsMatchReferenceSpread) {
+    const int channelCount = 2;
+    const TestWavFile signal("eta_spread", SAMPLE_RATE, channelCount, SAMPLE_RATE * LENGTH_IN_SECS,
+                             createSignal(false));
+    const TestEventsFile events("eta_spread_events");
+
+    EventTriggeredAverageAnalysis analysis;
+    analysis.setSeed(1);
+    const Result result = analyze(analysis, signal, events, channelCount, false, "1");
+
+    // "1" is every other event, starting with the first one
+    const int eventCount = static_cast<int>((LENGTH_IN_SECS - 1 - FIRST_EVENT_IN_SECS) / EVENT_PERIOD_IN_SECS) + 1;
+    const int intervalCount = (eventCount + 1) / 2;
+    std::vector<std::vector<float>> referenceMean, referenceStd;
+    CHECK(ReferenceEventTriggeredAverage::computeConfidenceIntervals(signal.getPath(), intervalCount, 100, 1,
+                                                                     referenceMean, referenceStd));
+
+    // averages of random intervals are spread around the mean of the signal by noise std divided by square root of
+    // the number of averaged intervals, no matter how the intervals are drawn
+    const double expectedStd = NOISE_STD / SHRT_MAX / std::sqrt(intervalCount);
+    for (int ch = 0; ch < channelCount; ch++) {
+        const float min = result.min[ch], max = result.max[ch];
+        const auto frameCount = result.mcTop[ch].size();
+        double mean = 0, std = 0, referenceMeanSum = 0, referenceStdSum = 0;
+        for (size_t i = 0; i < frameCount; i++) {
+            const float top = unmap(result.mcTop[ch][i], min, max);
+            const float bottom = unmap(result.mcBottom[ch][i], min, max);
+            const float average = unmap(result.mcAverages[ch][i], min, max);
+            CHECK(bottom <= average && average <= top);
+            mean += average;
+            std += (top - bottom) / 4;
+            referenceMeanSum += referenceMean[ch][i];
+            referenceStdSum += referenceStd[ch][i];
+        }
+        CHECK_NEAR(expectedStd, std / frameCount, expectedStd * 0.1);
+        CHECK_NEAR(referenceStdSum / frameCount, std / frameCount, expectedStd * 0.1);
+        CHECK_NEAR(referenceMeanSum / frameCount, mean / frameCount, expectedStd * 0.1);
+    }
+}
+
+TEST(confidenceIntervalsAreComputedForFirstEvent) {
+    const TestWavFile signal("eta_first", SAMPLE_RATE, 1, SAMPLE_RATE * LENGTH_IN_SECS, createSignal(false));
+    const TestEventsFile events("eta_first_events");
+
+    EventTriggeredAverageAnalysis analysis;
+    analysis.setSeed(5);
+    analysis.setRepetitionCount(10);
+    const Result result = analyze(analysis, signal, events, 1, false, EVENTS[0].c_str());
+
+    bool computed = false;
+    for (size_t i = 0; i < result.mcTop[0].size(); i++) {
+        CHECK(result.mcBottom[0][i] <= result.mcTop[0][i]);
+        computed |= result.mcBottom[0][i] < result.mcTop[0][i];
+    }
+    CHECK(computed);
+}
+
+int main() {
+    return backyardbrains::test::runAllTests();
+}
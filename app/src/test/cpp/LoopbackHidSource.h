@@ -0,0 +1,100 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_LOOPBACKHIDSOURCE_H
+#define SPIKE_RECORDER_ANDROID_LOOPBACKHIDSOURCE_H
+
+#include <atomic>
+#include <chrono>
+#include <thread>
+#include <vector>
+
+#include "UsbPacketRing.h"
+
+namespace backyardbrains {
+
+    namespace test {
+
+        /**
+         * Stands in for the SpikerBox Pro and the UsbRequest queue that reads from it. Encodes a test signal (a
+         * saw-tooth with a different period on each channel) as a SpikerBox sample stream, packs it into HID packets
+         * and replays the packets into the ring the same way UsbPacketPump does, so the whole native read path can be
+         * exercised and measured without connected hardware.
+         */
+        class LoopbackHidSource {
+        public:
+            // Size of the HID packet sent by SpikerBox Pro boards
+            static constexpr int HID_PACKET_SIZE = 64;
+            // Number of valid bytes within each HID packet
+            static constexpr int HID_PAYLOAD_SIZE = 62;
+
+            LoopbackHidSource(int frameCount, int channelCount) {
+                std::vector<unsigned char> stream;
+                for (int i = 0; i < frameCount; i++) {
+                    for (int ch = 0; ch < channelCount; ch++) {
+                        // 10-bit sample value
+                        const int value = (i * (ch + 1)) % 1024;
+                        // first byte of the frame has the most significant bit set
+                        stream.push_back(static_cast<unsigned char>(((value >> 7) & 0x7F) | (ch == 0 ? 0x80 : 0)));
+                        stream.push_back(static_cast<unsigned char>(value & 0x7F));
+                    }
+                }
+
+                // frames that don't fill the last packet are not sent
+                packetCount = static_cast<int>(stream.size()) / HID_PAYLOAD_SIZE;
+                packets.resize(static_cast<size_t>(packetCount * HID_PACKET_SIZE));
+                for (int i = 0; i < packetCount; i++) {
+                    packets[i * HID_PACKET_SIZE] = HID_REPORT_ID;
+                    packets[i * HID_PACKET_SIZE + 1] = HID_PAYLOAD_SIZE;
+                    std::copy(stream.begin() + i * HID_PAYLOAD_SIZE, stream.begin() + (i + 1) * HID_PAYLOAD_SIZE,
+                              packets.begin() + i * HID_PACKET_SIZE + 2);
+                }
+                sentFrameCount = packetCount * HID_PAYLOAD_SIZE / (channelCount * 2);
+            }
+
+            /**
+             * Number of HID packets the test signal takes.
+             */
+            int getPacketCount() const {
+                return packetCount;
+            }
+
+            /**
+             * Number of complete frames carried by the packets.
+             */
+            int getSentFrameCount() const {
+                return sentFrameCount;
+            }
+
+            /**
+             * Replays all packets into specified ring one packet per write. If packetsPerSecond is 0 packets are
+             * written as fast as possible. If lossless is true producer waits for room in the ring instead of letting
+             * the ring drop packets, same as the replay signal source does when it doesn't replay in real time.
+             */
+            void replay(backyardbrains::utils::UsbPacketRing &ring, int packetsPerSecond, bool lossless) const {
+                const auto interval = packetsPerSecond > 0 ? std::chrono::nanoseconds(1000000000LL / packetsPerSecond)
+                                                           : std::chrono::nanoseconds(0);
+                auto next = std::chrono::steady_clock::now();
+                for (int i = 0; i < packetCount; i++) {
+                    if (packetsPerSecond > 0) {
+                        std::this_thread::sleep_until(next);
+                        next += interval;
+                    }
+                    while (lossless && ring.freeSpace() < HID_PAYLOAD_SIZE) std::this_thread::yield();
+                    ring.writeHidPackets(packets.data() + i * HID_PACKET_SIZE, HID_PACKET_SIZE, HID_PACKET_SIZE);
+                }
+            }
+
+        private:
+            // HID Report ID (vendor specific) that precedes each HID packet
+            static constexpr unsigned char HID_REPORT_ID = 63;
+
+            std::vector<unsigned char> packets;
+            int packetCount;
+            int sentFrameCount;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_LOOPBACKHIDSOURCE_H
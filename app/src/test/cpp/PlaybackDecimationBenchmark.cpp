@@ -0,0 +1,109 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <algorithm>
+#include <ctime>
+#include <fcntl.h>
+#include <unistd.h>
+#include <random>
+#include <vector>
+
+#include "SignalUtils.h"
+#include "TestUtils.h"
+#include "TestWavFile.h"
+
+using backyardbrains::test::TestWavFile;
+using backyardbrains::utils::SignalUtils;
+
+namespace {
+
+    constexpr int SAMPLE_RATE = 44100;
+    constexpr int WAV_HEADER_SIZE = 44;
+
+    // Drops file pages from the page cache so the next read goes to the storage
+    void evictFromPageCache(const char *path) {
+        int fd = open(path, O_RDONLY);
+        if (fd < 0) return;
+        posix_fadvise(fd, 0, 0, POSIX_FADV_DONTNEED);
+        close(fd);
+    }
+
+    double cpuMs(clock_t start) {
+        return 1000.0 * (clock() - start) / CLOCKS_PER_SEC;
+    }
+
+    struct Result {
+        double cpuMs;
+        double wallMs;
+        long long bytesRead;
+    };
+
+    // Plays the whole file at specified speed the same way playback read thread does it, reading speed times the
+    // playback block and decimating it back to the block size
+    Result play(const char *path, int channelCount, int blockSize, int speed) {
+        const int frameSize = channelCount * 2;
+        std::vector<short> readAhead(static_cast<size_t>(blockSize * speed / 2));
+        std::vector<short> decimated(static_cast<size_t>(blockSize / 2 + 2 * frameSize));
+
+        Result result{};
+        FILE *file = fopen(path, "rb");
+        if (file == nullptr) return result;
+        fseek(file, WAV_HEADER_SIZE, SEEK_SET);
+
+        const clock_t cpuStart = clock();
+        const auto wallStart = std::chrono::steady_clock::now();
+        size_t read;
+        while ((read = fread(readAhead.data(), 1, static_cast<size_t>(blockSize * speed), file)) > 0) {
+            result.bytesRead += read;
+            SignalUtils::decimateMinMax(decimated.data(), readAhead.data(), static_cast<int>(read / frameSize),
+                                        channelCount, speed);
+        }
+        result.cpuMs = cpuMs(cpuStart);
+        result.wallMs = backyardbrains::test::elapsedMs(wallStart);
+        fclose(file);
+
+        return result;
+    }
+}
+
+/**
+ * Measures CPU time and I/O that one second of the recording takes at normal speed and when fast-forwarding from 2x
+ * to 64x, with the file in the page cache (warm) and evicted from it before every run (cold). Length of the 44.1 kHz
+ * recording in minutes and number of channels can be passed as the first and second argument. Playback block is the
+ * typical AudioTrack min buffer size of 20 ms of audio.
+ */
+int main(int argc, char **argv) {
+    const int minutes = argc > 1 ? atoi(argv[1]) : 30;
+    const int channelCount = argc > 2 ? atoi(argv[2]) : 2;
+    const long long frameCount = SAMPLE_RATE * 60LL * minutes;
+    const int blockSize = SAMPLE_RATE / 50 * channelCount * 2;
+
+    std::mt19937 rng(9);
+    std::normal_distribution<float> noise(0, 1000);
+    const TestWavFile file("playback_decimation_benchmark", SAMPLE_RATE, channelCount, frameCount,
+                           [&](long long frame, int channel) { return static_cast<short>(noise(rng)); });
+    const double recordingSeconds = frameCount / static_cast<double>(SAMPLE_RATE);
+    printf("%d min of %d channels at 44.1 kHz (%.0f MB), playback block %d bytes\n", minutes, channelCount,
+           frameCount * channelCount * 2 / 1048576.0, blockSize);
+
+    for (int speed = 1; speed <= 64; speed *= 2) {
+        // warm runs are repeated and the best one is reported
+        Result warm = play(file.getPath(), channelCount, blockSize, speed);
+        for (int i = 0; i < 2; i++) {
+            const Result result = play(file.getPath(), channelCount, blockSize, speed);
+            warm.cpuMs = std::min(warm.cpuMs, result.cpuMs);
+            warm.wallMs = std::min(warm.wallMs, result.wallMs);
+        }
+        evictFromPageCache(file.getPath());
+        const Result cold = play(file.getPath(), channelCount, blockSize, speed);
+
+        printf("%2dx: per second of recording %7.1f KB read | warm %6.3f ms CPU, %6.3f ms wall | "
+               "cold %6.3f ms CPU, %6.3f ms wall | %5.2f%% of a core while playing\n", speed,
+               warm.bytesRead / 1024.0 / recordingSeconds, warm.cpuMs / recordingSeconds,
+               warm.wallMs / recordingSeconds, cold.cpuMs / recordingSeconds, cold.wallMs / recordingSeconds,
+               warm.cpuMs / recordingSeconds * speed / 10.0);
+    }
+
+    return 0;
+}
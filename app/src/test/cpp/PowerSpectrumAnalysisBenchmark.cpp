@@ -0,0 +1,82 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <algorithm>
+#include <cmath>
+#include <fcntl.h>
+#include <unistd.h>
+#include <random>
+#include <vector>
+
+#include "PowerSpectrumAnalysis.h"
+#include "TestUtils.h"
+#include "TestWavFile.h"
+
+using backyardbrains::analysis::PowerSpectrumAnalysis;
+using backyardbrains::test::TestWavFile;
+
+namespace {
+
+    constexpr int SAMPLE_RATE = 10000;
+    constexpr int CHANNEL_COUNT = 2;
+    constexpr int BAND_COUNT = 5;
+    constexpr float BAND_EDGES[BAND_COUNT + 1] = {0.5f, 4.0f, 8.0f, 13.0f, 30.0f, 100.0f};
+
+    // Drops file pages from the page cache so the next read goes to the storage
+    void evictFromPageCache(const char *path) {
+        int fd = open(path, O_RDONLY);
+        if (fd < 0) return;
+        posix_fadvise(fd, 0, 0, POSIX_FADV_DONTNEED);
+        close(fd);
+    }
+
+    double run(const char *path, int windowLength, bool cold) {
+        std::vector<std::vector<float>> powers(CHANNEL_COUNT,
+                                               std::vector<float>(static_cast<size_t>(windowLength / 2 + 1)));
+        std::vector<std::vector<float>> bandPowers(CHANNEL_COUNT, std::vector<float>(BAND_COUNT));
+        std::vector<float *> powerPtrs, bandPowerPtrs;
+        for (auto &p : powers) powerPtrs.push_back(p.data());
+        for (auto &p : bandPowers) bandPowerPtrs.push_back(p.data());
+
+        if (cold) evictFromPageCache(path);
+        const auto start = std::chrono::steady_clock::now();
+        PowerSpectrumAnalysis().process(path, windowLength, BAND_EDGES, BAND_COUNT, powerPtrs.data(),
+                                        bandPowerPtrs.data(), nullptr);
+        return backyardbrains::test::elapsedMs(start);
+    }
+}
+
+/**
+ * Measures duration of the power spectral density analysis of a 2 channel 10 kHz recording, from short windows to the
+ * longest ones used for long recordings, with the file in the page cache (warm) and evicted from it before every run
+ * (cold). Length of the recording in minutes can be passed as the first argument, default is 30.
+ */
+int main(int argc, char **argv) {
+    const int minutes = argc > 1 ? atoi(argv[1]) : 30;
+    const long long frameCount = SAMPLE_RATE * 60LL * minutes;
+
+    std::mt19937 rng(3);
+    std::normal_distribution<float> noise(0, 300);
+    const TestWavFile file("power_spectrum_benchmark", SAMPLE_RATE, CHANNEL_COUNT, frameCount,
+                           [&](long long frame, int channel) {
+                               return static_cast<short>(1000 * std::sin(2 * M_PI * 10 * frame / SAMPLE_RATE) +
+                                                         noise(rng));
+                           });
+    printf("%d min, %d channels at 10 kHz (%.0f MB)\n", minutes, CHANNEL_COUNT,
+           frameCount * CHANNEL_COUNT * 2 / 1048576.0);
+
+    const double samples = static_cast<double>(frameCount) * CHANNEL_COUNT;
+    for (int windowLength : {2048, 8192, 32768}) {
+        // warm runs are repeated and the best one is reported
+        double warmMs = run(file.getPath(), windowLength, false);
+        for (int i = 0; i < 2; i++) warmMs = std::min(warmMs, run(file.getPath(), windowLength, false));
+        const double coldMs = run(file.getPath(), windowLength, true);
+
+        printf("%5d sample windows: warm %7.1f ms (%5.1f Msamples/s, %5.0fx real time) | cold %7.1f ms "
+               "(%5.1f Msamples/s, %5.0fx real time)\n", windowLength, warmMs, samples / warmMs / 1000.0,
+               minutes * 60000.0 / warmMs, coldMs, samples / coldMs / 1000.0, minutes * 60000.0 / coldMs);
+    }
+
+    return 0;
+}
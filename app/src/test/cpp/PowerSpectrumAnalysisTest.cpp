@@ -0,0 +1,159 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <cmath>
+#include <random>
+#include <vector>
+
+#include "PowerSpectrumAnalysis.h"
+#include "TestUtils.h"
+#include "TestWavFile.h"
+
+using backyardbrains::analysis::AnalysisControl;
+using backyardbrains::analysis::PowerSpectrumAnalysis;
+using backyardbrains::test::TestWavFile;
+
+namespace {
+
+    constexpr int SAMPLE_RATE = 10000;
+    constexpr int BAND_COUNT = 5;
+    // delta, theta, alpha, beta and gamma
+    constexpr float BAND_EDGES[BAND_COUNT + 1] = {0.5f, 4.0f, 8.0f, 13.0f, 30.0f, 100.0f};
+    constexpr int ALPHA = 2;
+
+    struct Spectrum {
+        int windowCount;
+        std::vector<std::vector<float>> powers;
+        std::vector<std::vector<float>> bandPowers;
+    };
+
+    Spectrum analyze(const TestWavFile &file, int channelCount, int windowLength, AnalysisControl *control) {
+        Spectrum spectrum;
+        spectrum.powers.assign(channelCount, std::vector<float>(static_cast<size_t>(windowLength / 2 + 1)));
+        spectrum.bandPowers.assign(channelCount, std::vector<float>(BAND_COUNT));
+        std::vector<float *> powerPtrs, bandPowerPtrs;
+        for (auto &powers : spectrum.powers) powerPtrs.push_back(powers.data());
+        for (auto &bandPowers : spectrum.bandPowers) bandPowerPtrs.push_back(bandPowers.data());
+        spectrum.windowCount = PowerSpectrumAnalysis().process(file.getPath(), windowLength, BAND_EDGES, BAND_COUNT,
+                                                               powerPtrs.data(), bandPowerPtrs.data(), control);
+        return spectrum;
+    }
+
+    // Welch estimate calculated with a direct DFT of every window, in double precision
+    std::vector<double> referenceWelch(const std::vector<short> &samples, int windowLength) {
+        const int binCount = windowLength / 2 + 1;
+        std::vector<double> window(static_cast<size_t>(windowLength));
+        double windowSquares = 0.0;
+        for (int i = 0; i < windowLength; i++) {
+            window[i] = 0.5 - 0.5 * std::cos(2.0 * M_PI * i / windowLength);
+            windowSquares += window[i] * window[i];
+        }
+        std::vector<double> powers(static_cast<size_t>(binCount), 0.0);
+        std::vector<double> input(static_cast<size_t>(windowLength));
+        int windowCount = 0;
+        for (size_t start = 0; start + windowLength <= samples.size(); start += windowLength / 2, windowCount++) {
+            double mean = 0.0;
+            for (int i = 0; i < windowLength; i++) mean += samples[start + i];
+            mean /= windowLength;
+            for (int i = 0; i < windowLength; i++) input[i] = (samples[start + i] - mean) * window[i];
+            for (int k = 0; k < binCount; k++) {
+                double re = 0.0, im = 0.0;
+                for (int i = 0; i < windowLength; i++) {
+                    re += input[i] * std::cos(2.0 * M_PI * k * i / windowLength);
+                    im -= input[i] * std::sin(2.0 * M_PI * k * i / windowLength);
+                }
+                powers[k] += re * re + im * im;
+            }
+        }
+        for (int k = 0; k < binCount; k++) {
+            const double factor = k == 0 || k == binCount - 1 ? 1.0 : 2.0;
+            powers[k] *= factor / (static_cast<double>(SAMPLE_RATE) * windowSquares * windowCount);
+        }
+        return powers;
+    }
+}
+
+TEST(sineWithDcOffsetHasItsPowerInAlphaBand) {
+    // 10 Hz sine with amplitude of 1000 and DC offset of 500 on the first channel, silence on the second one
+    const int frameCount = SAMPLE_RATE * 60;
+    const TestWavFile file("power_spectrum_sine", SAMPLE_RATE, 2, frameCount, [](long long frame, int channel) {
+        if (channel == 1) return static_cast<short>(0);
+        return static_cast<short>(std::lround(500 + 1000 * std::sin(2 * M_PI * 10 * frame / SAMPLE_RATE)));
+    });
+    const Spectrum spectrum = analyze(file, 2, 8192, nullptr);
+
+    // half overlapping windows
+    CHECK_EQ((frameCount - 8192) / 4096 + 1, spectrum.windowCount);
+    // power of the sine is A^2 / 2 and DC offset is removed
+    CHECK_NEAR(500000.0, spectrum.bandPowers[0][ALPHA], 5000.0);
+    double total = 0.0;
+    for (float power : spectrum.powers[0]) total += power * SAMPLE_RATE / 8192.0;
+    CHECK_NEAR(500000.0, total, 5000.0);
+    for (int i = 0; i < BAND_COUNT; i++) {
+        if (i != ALPHA) CHECK(spectrum.bandPowers[0][i] < 0.001 * spectrum.bandPowers[0][ALPHA]);
+        CHECK_EQ(0.0f, spectrum.bandPowers[1][i]);
+    }
+}
+
+TEST(whiteNoiseHasFlatSpectrum) {
+    std::mt19937 rng(1);
+    std::normal_distribution<float> noise(0, 100);
+    const TestWavFile file("power_spectrum_noise", SAMPLE_RATE, 1, SAMPLE_RATE * 120,
+                           [&](long long frame, int channel) { return static_cast<short>(std::lround(noise(rng))); });
+    const Spectrum spectrum = analyze(file, 1, 2048, nullptr);
+
+    // one-sided density of white noise is 2 * sigma^2 / fs (rounding to integers adds 1/12 to the variance)
+    const double expected = 2.0 * (100.0 * 100.0 + 1.0 / 12.0) / SAMPLE_RATE;
+    const auto &powers = spectrum.powers[0];
+    double sum = 0.0;
+    for (size_t i = 1; i < powers.size() - 1; i++) {
+        sum += powers[i];
+        // every bin is an average of ~1200 periodograms so it's within 20% of the expected density
+        CHECK_NEAR(expected, powers[i], 0.2 * expected);
+    }
+    CHECK_NEAR(expected, sum / (powers.size() - 2), 0.01 * expected);
+}
+
+TEST(spectrumMatchesDirectDft) {
+    // more than one buffer of 1M samples so windows that overlap two blocks are included
+    std::mt19937 rng(2);
+    std::normal_distribution<float> noise(0, 300);
+    std::vector<short> samples(1200000);
+    for (size_t i = 0; i < samples.size(); i++) {
+        samples[i] = static_cast<short>(std::lround(2000 * std::sin(2 * M_PI * 40.3 * i / SAMPLE_RATE) + noise(rng)));
+    }
+    const TestWavFile file("power_spectrum_dft", SAMPLE_RATE, 1, static_cast<long long>(samples.size()),
+                           [&](long long frame, int channel) { return samples[frame]; });
+    const Spectrum spectrum = analyze(file, 1, 64, nullptr);
+    const std::vector<double> expected = referenceWelch(samples, 64);
+
+    CHECK_EQ(static_cast<int>((samples.size() - 64) / 32 + 1), spectrum.windowCount);
+    for (size_t i = 0; i < expected.size(); i++) {
+        CHECK_NEAR(expected[i], spectrum.powers[0][i], 1e-5 * expected[i] + 1e-6);
+    }
+}
+
+TEST(cancelledAnalysisReturnsZero) {
+    const TestWavFile file("power_spectrum_cancelled", SAMPLE_RATE, 1, SAMPLE_RATE * 10,
+                           [](long long frame, int channel) { return static_cast<short>(frame % 100); });
+    AnalysisControl control;
+    control.cancel();
+
+    CHECK_EQ(0, analyze(file, 1, 2048, &control).windowCount);
+}
+
+TEST(tooShortRecordingReturnsZero) {
+    const TestWavFile file("power_spectrum_short", SAMPLE_RATE, 1, 2047,
+                           [](long long frame, int channel) { return static_cast<short>(frame % 100); });
+
+    CHECK_EQ(0, analyze(file, 1, 2048, nullptr).windowCount);
+    // windows starting at 0 and 512 fit, the one starting at 1024 doesn't
+    CHECK_EQ(2, analyze(file, 1, 1024, nullptr).windowCount);
+    // window length needs to be power of 2
+    CHECK_EQ(0, analyze(file, 1, 1000, nullptr).windowCount);
+}
+
+int main() {
+    return backyardbrains::test::runAllTests();
+}
@@ -0,0 +1,118 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <algorithm>
+#include <random>
+#include <vector>
+
+#include "PsthAnalysis.h"
+#include "ReferencePsth.h"
+#include "TestUtils.h"
+
+using backyardbrains::analysis::PsthAnalysis;
+using backyardbrains::test::ReferencePsth;
+
+namespace {
+
+    constexpr int SAMPLE_RATE = 10000;
+    constexpr int TRAIN_COUNT = 2;
+    constexpr int EVENT_TYPE_COUNT = 2;
+    // 0.5 s on both sides of the event
+    constexpr int WINDOW_FRAME_COUNT = SAMPLE_RATE / 2;
+    constexpr int BIN_COUNT = 100;
+    constexpr int PAIR_COUNT = TRAIN_COUNT * EVENT_TYPE_COUNT;
+
+    // Sorted positions uniformly spread over specified number of frames
+    std::vector<int> randomPositions(int count, long long frameCount, std::mt19937 &rng) {
+        std::vector<int> positions(static_cast<size_t>(count));
+        for (auto &position : positions) position = static_cast<int>(rng() % frameCount);
+        std::sort(positions.begin(), positions.end());
+        return positions;
+    }
+
+    struct Result {
+        double ms;
+        std::vector<std::vector<int>> histograms;
+        std::vector<std::vector<int>> trialStarts;
+        std::vector<std::vector<int>> rasters;
+    };
+
+    Result run(const std::vector<std::vector<int>> &trains, const std::vector<std::vector<int>> &events, bool raster,
+               bool reference) {
+        std::vector<const int *> trainPtrs, eventPtrs;
+        std::vector<int> spikeCounts, eventCounts;
+        for (auto &train : trains) {
+            trainPtrs.push_back(train.data());
+            spikeCounts.push_back(static_cast<int>(train.size()));
+        }
+        for (auto &e : events) {
+            eventPtrs.push_back(e.data());
+            eventCounts.push_back(static_cast<int>(e.size()));
+        }
+        Result result{};
+        result.histograms.assign(PAIR_COUNT, std::vector<int>(BIN_COUNT));
+        result.rasters.resize(PAIR_COUNT);
+        std::vector<int *> histogramPtrs, trialStartPtrs;
+        for (auto &histogram : result.histograms) histogramPtrs.push_back(histogram.data());
+        for (int i = 0; i < PAIR_COUNT; i++) result.trialStarts.emplace_back(eventCounts[i / TRAIN_COUNT] + 1);
+        for (auto &trialStarts : result.trialStarts) trialStartPtrs.push_back(trialStarts.data());
+        int **outTrialStarts = raster ? trialStartPtrs.data() : nullptr;
+        std::vector<int> *outRasters = raster ? result.rasters.data() : nullptr;
+
+        const auto start = std::chrono::steady_clock::now();
+        if (reference) {
+            ReferencePsth::process(trainPtrs.data(), spikeCounts.data(), TRAIN_COUNT, eventPtrs.data(),
+                                   eventCounts.data(), EVENT_TYPE_COUNT, WINDOW_FRAME_COUNT, WINDOW_FRAME_COUNT,
+                                   BIN_COUNT, histogramPtrs.data(), outTrialStarts, outRasters);
+        } else {
+            PsthAnalysis().process(trainPtrs.data(), spikeCounts.data(), TRAIN_COUNT, eventPtrs.data(),
+                                   eventCounts.data(), EVENT_TYPE_COUNT, WINDOW_FRAME_COUNT, WINDOW_FRAME_COUNT,
+                                   BIN_COUNT, histogramPtrs.data(), outTrialStarts, outRasters, nullptr);
+        }
+        result.ms = backyardbrains::test::elapsedMs(start);
+        return result;
+    }
+}
+
+/**
+ * Compares duration of the peri-stimulus time histogram analysis, with and without rasters, with the naive scan that
+ * compares every spike with every event, for 2 trains and 2 event types over an hour long 10 kHz recording with the
+ * window of +-0.5 s split into 100 bins. Checks all of them give exactly the same histograms, trial starts and
+ * rasters. Total number of spikes and events can be passed as the first and second argument, default is 1 million
+ * spikes and 10 thousand events.
+ */
+int main(int argc, char **argv) {
+    const int spikeCount = argc > 1 ? atoi(argv[1]) : 1000000;
+    const int eventCount = argc > 2 ? atoi(argv[2]) : 10000;
+    const long long frameCount = SAMPLE_RATE * 3600LL;
+
+    std::mt19937 rng(5);
+    std::vector<std::vector<int>> trains, events;
+    for (int i = 0; i < TRAIN_COUNT; i++) trains.push_back(randomPositions(spikeCount / TRAIN_COUNT, frameCount, rng));
+    for (int i = 0; i < EVENT_TYPE_COUNT; i++) {
+        events.push_back(randomPositions(eventCount / EVENT_TYPE_COUNT, frameCount, rng));
+    }
+    printf("%d spikes in %d trains, %d events of %d types over 1 h at 10 kHz\n", spikeCount, TRAIN_COUNT, eventCount,
+           EVENT_TYPE_COUNT);
+
+    // warm runs are repeated and the best one is reported
+    Result histograms = run(trains, events, false, false);
+    Result rasters = run(trains, events, true, false);
+    for (int i = 0; i < 4; i++) {
+        histograms.ms = std::min(histograms.ms, run(trains, events, false, false).ms);
+        rasters.ms = std::min(rasters.ms, run(trains, events, true, false).ms);
+    }
+    const Result reference = run(trains, events, true, true);
+    const bool identical = histograms.histograms == reference.histograms &&
+                           rasters.histograms == reference.histograms &&
+                           rasters.trialStarts == reference.trialStarts && rasters.rasters == reference.rasters;
+
+    long long rasterSpikeCount = 0;
+    for (auto &raster : reference.rasters) rasterSpikeCount += raster.size();
+    printf("histograms %.1f ms, histograms and rasters %.1f ms, naive scan %.1f ms (%.0fx slower) | "
+           "%lld raster spikes, %s\n", histograms.ms, rasters.ms, reference.ms, reference.ms / rasters.ms,
+           rasterSpikeCount, identical ? "identical" : "MISMATCH");
+
+    return identical ? 0 : 1;
+}
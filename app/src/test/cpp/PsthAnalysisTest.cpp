@@ -0,0 +1,170 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <algorithm>
+#include <random>
+#include <vector>
+
+#include "PsthAnalysis.h"
+#include "ReferencePsth.h"
+#include "TestUtils.h"
+
+using backyardbrains::analysis::AnalysisControl;
+using backyardbrains::analysis::PsthAnalysis;
+using backyardbrains::test::ReferencePsth;
+
+namespace {
+
+    using Trains = std::vector<std::vector<int>>;
+
+    struct Psth {
+        std::vector<std::vector<int>> histograms;
+        std::vector<std::vector<int>> trialStarts;
+        std::vector<std::vector<int>> rasters;
+        bool finished;
+    };
+
+    // Calculates histograms and, if asked to, rasters of all the trains aligned to all event types with either
+    // PsthAnalysis or the naive scan
+    Psth run(const Trains &trains, const Trains &events, int left, int right, int binCount, bool raster,
+             bool reference, AnalysisControl *control = nullptr) {
+        const auto trainCount = static_cast<int>(trains.size());
+        const auto eventTypeCount = static_cast<int>(events.size());
+        std::vector<const int *> trainPtrs, eventPtrs;
+        std::vector<int> spikeCounts, eventCounts;
+        for (auto &train : trains) {
+            trainPtrs.push_back(train.data());
+            spikeCounts.push_back(static_cast<int>(train.size()));
+        }
+        for (auto &e : events) {
+            eventPtrs.push_back(e.data());
+            eventCounts.push_back(static_cast<int>(e.size()));
+        }
+
+        Psth psth;
+        psth.histograms.assign(static_cast<size_t>(eventTypeCount * trainCount), std::vector<int>(binCount, -1));
+        psth.rasters.resize(static_cast<size_t>(eventTypeCount * trainCount));
+        std::vector<int *> histogramPtrs, trialStartPtrs;
+        for (auto &histogram : psth.histograms) histogramPtrs.push_back(histogram.data());
+        for (int e = 0; e < eventTypeCount; e++) {
+            for (int t = 0; t < trainCount; t++) psth.trialStarts.emplace_back(eventCounts[e] + 1, -1);
+        }
+        for (auto &trialStarts : psth.trialStarts) trialStartPtrs.push_back(trialStarts.data());
+
+        int **outTrialStarts = raster ? trialStartPtrs.data() : nullptr;
+        std::vector<int> *outRasters = raster ? psth.rasters.data() : nullptr;
+        if (reference) {
+            ReferencePsth::process(trainPtrs.data(), spikeCounts.data(), trainCount, eventPtrs.data(),
+                                   eventCounts.data(), eventTypeCount, left, right, binCount, histogramPtrs.data(),
+                                   outTrialStarts, outRasters);
+            psth.finished = true;
+        } else {
+            psth.finished = PsthAnalysis().process(trainPtrs.data(), spikeCounts.data(), trainCount, eventPtrs.data(),
+                                                   eventCounts.data(), eventTypeCount, left, right, binCount,
+                                                   histogramPtrs.data(), outTrialStarts, outRasters, control);
+        }
+        return psth;
+    }
+
+    // Sorted positions uniformly spread over specified number of frames, with some duplicates
+    std::vector<int> randomPositions(int count, int frameCount, std::mt19937 &rng) {
+        std::vector<int> positions;
+        for (int i = 0; i < count; i++) {
+            positions.push_back(static_cast<int>(rng() % frameCount));
+            if (i % 97 == 96) positions.push_back(positions.back());
+        }
+        std::sort(positions.begin(), positions.end());
+        return positions;
+    }
+
+    void checkSame(const Psth &expected, const Psth &actual, bool raster) {
+        CHECK(expected.histograms == actual.histograms);
+        if (raster) {
+            CHECK(expected.trialStarts == actual.trialStarts);
+            CHECK(expected.rasters == actual.rasters);
+        }
+    }
+}
+
+TEST(matchesNaiveScanAcrossBlockBoundaries) {
+    std::mt19937 rng(1);
+    const int frameCount = 10000 * 600;
+    // 511, 512, 513 and 1025 events so blocks of 512 events end just before, at and past the last event
+    Trains events;
+    for (int count : {511, 512, 513, 1025}) events.push_back(randomPositions(count, frameCount, rng));
+    // empty train and train with a single spike between the dense ones
+    Trains trains = {randomPositions(20000, frameCount, rng), {}, {frameCount / 2},
+                     randomPositions(50000, frameCount, rng)};
+
+    for (bool raster : {false, true}) {
+        const Psth expected = run(trains, events, 5000, 5000, 100, raster, true);
+        const Psth actual = run(trains, events, 5000, 5000, 100, raster, false);
+        CHECK(actual.finished);
+        checkSame(expected, actual, raster);
+    }
+    // asymmetric window whose length isn't divisible by the number of bins
+    checkSame(run(trains, events, 1234, 7777, 37, true, true), run(trains, events, 1234, 7777, 37, true, false), true);
+}
+
+TEST(spikesOnWindowEdges) {
+    // window is [event - left, event + right), so spike at 110 is only in the second trial and spike at 120 in none
+    const Trains trains = {{90, 99, 100, 100, 109, 110, 119, 120}};
+    const Trains events = {{100, 110}};
+    const Psth expected = run(trains, events, 10, 10, 4, true, true);
+    const Psth actual = run(trains, events, 10, 10, 4, true, false);
+    checkSame(expected, actual, true);
+
+    CHECK(std::vector<int>({3, 2, 3, 2}) == actual.histograms[0]);
+    CHECK(std::vector<int>({0, 5, 10}) == actual.trialStarts[0]);
+    CHECK(std::vector<int>({-10, -1, 0, 0, 9, -10, -10, -1, 0, 9}) == actual.rasters[0]);
+}
+
+TEST(emptyTrainsAndEvents) {
+    const Trains trains = {{}, {7, 12, 17, 22, 27}};
+    const Trains events = {{}, {10, 20}};
+    const Psth expected = run(trains, events, 5, 5, 2, true, true);
+    const Psth actual = run(trains, events, 5, 5, 2, true, false);
+    CHECK(actual.finished);
+    checkSame(expected, actual, true);
+
+    // event type without events
+    CHECK(std::vector<int>({0, 0}) == actual.histograms[1]);
+    CHECK(std::vector<int>({0}) == actual.trialStarts[1]);
+    // empty train
+    CHECK(std::vector<int>({0, 0}) == actual.histograms[2]);
+    CHECK(std::vector<int>({0, 0, 0}) == actual.trialStarts[2]);
+    CHECK(actual.rasters[2].empty());
+    CHECK(std::vector<int>({2, 2}) == actual.histograms[3]);
+    CHECK(std::vector<int>({-3, 2, -3, 2}) == actual.rasters[3]);
+}
+
+TEST(responseLockedToEventsIsInItsBin) {
+    std::mt19937 rng(2);
+    const int frameCount = 10000 * 600;
+    const std::vector<int> events = randomPositions(1000, frameCount - 20000, rng);
+    std::vector<int> train = randomPositions(10000, frameCount, rng);
+    // spike 20 ms after every event
+    for (int event : events) train.push_back(event + 200);
+    std::sort(train.begin(), train.end());
+
+    const Psth psth = run({train}, {events}, 5000, 5000, 100, false, false);
+    const std::vector<int> &histogram = psth.histograms[0];
+    // bins are 10 ms wide, so response is in the 52nd bin
+    CHECK(histogram[52] >= 1000);
+    for (int i = 0; i < 100; i++) if (i != 52) CHECK(histogram[i] < 1000);
+}
+
+TEST(cancelledAnalysisReturnsFalse) {
+    std::mt19937 rng(3);
+    const Trains trains = {randomPositions(1000, 100000, rng)};
+    const Trains events = {randomPositions(100, 100000, rng)};
+    AnalysisControl control;
+    control.cancel();
+
+    CHECK(!run(trains, events, 100, 100, 10, true, false, &control).finished);
+}
+
+int main() {
+    return backyardbrains::test::runAllTests();
+}
@@ -0,0 +1,63 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_REFERENCEAVERAGESPIKEANALYSIS_H
+#define SPIKE_RECORDER_ANDROID_REFERENCEAVERAGESPIKEANALYSIS_H
+
+#include <vector>
+
+#include "dr_wav.h"
+
+namespace backyardbrains {
+
+    namespace test {
+
+        /**
+         * Average spike the way AverageSpikeAnalysis read it before windows were sorted and read in a single pass:
+         * every spike is seeked to and its window is read on its own. Used as the reference for the single pass
+         * implementation.
+         */
+        class ReferenceAverageSpikeAnalysis {
+        public:
+            /**
+             * Averages windows of batchSpikeCount samples centered at every spike of every train. Returns false if
+             * file can't be opened.
+             */
+            static bool process(const char *filePath, int **inSpikeTrains, int spikeTrainCount, const int *spikeCounts,
+                                float **outAverageSpike, int batchSpikeCount) {
+                drwav *wavPtr = drwav_open_file(filePath);
+                if (wavPtr == nullptr) return false;
+
+                const drwav_uint64 totalSamples = wavPtr->totalSampleCount;
+                const auto batchSpikeHalfCount = static_cast<drwav_uint64>(batchSpikeCount / 2);
+                std::vector<drwav_int16> samples(static_cast<size_t>(batchSpikeCount));
+                std::vector<double> sums(static_cast<size_t>(batchSpikeCount));
+                for (int i = 0; i < spikeTrainCount; i++) {
+                    std::fill(sums.begin(), sums.end(), 0.0);
+                    int count = 0;
+                    for (int j = 0; j < spikeCounts[i]; j++) {
+                        const int sampleIndex = inSpikeTrains[i][j];
+                        if (sampleIndex < 0 || static_cast<drwav_uint64>(sampleIndex) < batchSpikeHalfCount ||
+                            sampleIndex + batchSpikeHalfCount >= totalSamples) {
+                            continue;
+                        }
+                        drwav_seek_to_sample(wavPtr, sampleIndex - batchSpikeHalfCount);
+                        if (drwav_read_s16(wavPtr, static_cast<drwav_uint64>(batchSpikeCount), samples.data()) == 0) {
+                            continue;
+                        }
+                        for (int k = 0; k < batchSpikeCount; k++) sums[k] += samples[k];
+                        count++;
+                    }
+                    for (int k = 0; k < batchSpikeCount; k++) {
+                        outAverageSpike[i][k] = count > 1 ? static_cast<float>(sums[k] / count) : 0.0f;
+                    }
+                }
+                drwav_close(wavPtr);
+                return true;
+            }
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_REFERENCEAVERAGESPIKEANALYSIS_H
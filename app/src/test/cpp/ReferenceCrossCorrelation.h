@@ -0,0 +1,56 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_REFERENCECROSSCORRELATION_H
+#define SPIKE_RECORDER_ANDROID_REFERENCECROSSCORRELATION_H
+
+#include <algorithm>
+
+namespace backyardbrains {
+
+    namespace test {
+
+        /**
+         * Cross-correlation the way CrossCorrelationAnalysis did it before trains were walked with a sliding window:
+         * every spike of the first train is compared with the second train until the first spike past the max lag.
+         * Used as the reference for the windowed implementation.
+         */
+        class ReferenceCrossCorrelation {
+        public:
+            static void process(float **inSpikeTrains, int spikeTrainCount, const int *spikeCounts, int **outAnalysis,
+                                int analysisBinCount) {
+                for (int i = 0; i < spikeTrainCount; i++) {
+                    for (int j = 0; j < spikeTrainCount; j++) {
+                        int *histogram = outAnalysis[i * spikeTrainCount + j];
+                        std::fill(histogram, histogram + analysisBinCount, 0);
+                        if (spikeCounts[i] <= 1 || spikeCounts[j] <= 1) continue;
+
+                        for (int k = 0; k < spikeCounts[i]; k++) {
+                            bool insideInterval = false;
+                            for (int l = 0; l < spikeCounts[j]; l++) {
+                                const float diff = inSpikeTrains[i][k] - inSpikeTrains[j][l];
+                                if (diff > MIN_EDGE && diff < MAX_EDGE) {
+                                    insideInterval = true;
+                                    histogram[(int) (((diff - MIN_EDGE) * DIVIDER))]++;
+                                } else if (insideInterval) {
+                                    // we passed the last spike within the interval of interest
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+        private:
+            static constexpr float MAX_TIME = 0.1f;
+            static constexpr float BIN_SIZE = 0.001f;
+            static constexpr float MIN_EDGE = -MAX_TIME - BIN_SIZE * 0.5f;
+            static constexpr float MAX_EDGE = MAX_TIME + BIN_SIZE * 0.5f;
+            static constexpr float DIVIDER = 1 / BIN_SIZE;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_REFERENCECROSSCORRELATION_H
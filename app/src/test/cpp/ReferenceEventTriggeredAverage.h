@@ -0,0 +1,90 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_REFERENCEEVENTTRIGGEREDAVERAGE_H
+#define SPIKE_RECORDER_ANDROID_REFERENCEEVENTTRIGGEREDAVERAGE_H
+
+#include <climits>
+#include <cmath>
+#include <cstdint>
+#include <random>
+#include <vector>
+
+#include "dr_wav.h"
+
+namespace backyardbrains {
+
+    namespace test {
+
+        /**
+         * Confidence intervals of the event triggered average the way EventTriggeredAverageAnalysis computed them
+         * before the bootstrap was run on mapped samples: all repetitions run on a single thread with a single random
+         * generator and every random interval is seeked to, read and deinterleaved into newly allocated buffers. Used
+         * as the reference for the parallel bootstrap.
+         */
+        class ReferenceEventTriggeredAverage {
+        public:
+            /**
+             * Averages intervalCount random intervals of 1.4 seconds repetitionCount times and saves mean and standard
+             * deviation of the averages for every channel. Returns false if file can't be opened.
+             */
+            static bool computeConfidenceIntervals(const char *filePath, int intervalCount, int repetitionCount,
+                                                   std::uint32_t seed, std::vector<std::vector<float>> &outMean,
+                                                   std::vector<std::vector<float>> &outStd) {
+                drwav *wavPtr = drwav_open_file(filePath);
+                if (wavPtr == nullptr) return false;
+
+                const int channelCount = wavPtr->channels;
+                const auto offset = static_cast<drwav_uint64>(wavPtr->sampleRate * channelCount * 0.7f);
+                const int sampleCount = static_cast<int>(2 * offset);
+                const int frameCount = sampleCount / channelCount;
+                const drwav_uint64 lastStartFrame = (wavPtr->totalSampleCount - sampleCount) / channelCount;
+
+                std::mt19937 mt(seed);
+                std::uniform_int_distribution<drwav_uint64> dist(0, lastStartFrame);
+                std::vector<std::vector<double>> sums(channelCount, std::vector<double>(frameCount));
+                std::vector<std::vector<double>> squares(channelCount, std::vector<double>(frameCount));
+                for (int r = 0; r < repetitionCount; r++) {
+                    std::vector<std::vector<float>> intervalSums(channelCount, std::vector<float>(frameCount));
+                    for (int i = 0; i < intervalCount; i++) {
+                        auto *samples = new drwav_int16[sampleCount];
+                        drwav_seek_to_sample(wavPtr, dist(mt) * channelCount);
+                        drwav_read_s16(wavPtr, static_cast<drwav_uint64>(sampleCount), samples);
+                        for (int ch = 0; ch < channelCount; ch++) {
+                            auto *channelSamples = new float[frameCount];
+                            for (int j = 0; j < frameCount; j++) {
+                                channelSamples[j] = samples[j * channelCount + ch] / static_cast<float>(SHRT_MAX);
+                            }
+                            for (int j = 0; j < frameCount; j++) intervalSums[ch][j] += channelSamples[j];
+                            delete[] channelSamples;
+                        }
+                        delete[] samples;
+                    }
+                    for (int ch = 0; ch < channelCount; ch++) {
+                        for (int j = 0; j < frameCount; j++) {
+                            const double average = intervalSums[ch][j] / intervalCount;
+                            sums[ch][j] += average;
+                            squares[ch][j] += average * average;
+                        }
+                    }
+                }
+                drwav_close(wavPtr);
+
+                outMean.assign(channelCount, std::vector<float>(frameCount));
+                outStd.assign(channelCount, std::vector<float>(frameCount));
+                for (int ch = 0; ch < channelCount; ch++) {
+                    for (int j = 0; j < frameCount; j++) {
+                        const double mean = sums[ch][j] / repetitionCount;
+                        outMean[ch][j] = static_cast<float>(mean);
+                        outStd[ch][j] = static_cast<float>(sqrt(fmax(squares[ch][j] / repetitionCount - mean * mean,
+                                                                     0.0)));
+                    }
+                }
+                return true;
+            }
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_REFERENCEEVENTTRIGGEREDAVERAGE_H
@@ -0,0 +1,53 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_REFERENCEPSTH_H
+#define SPIKE_RECORDER_ANDROID_REFERENCEPSTH_H
+
+#include <algorithm>
+#include <vector>
+
+namespace backyardbrains {
+
+    namespace test {
+
+        /**
+         * Peri-stimulus time histograms and rasters calculated with a naive scan: every spike of every train is
+         * compared with the window of every event. Used as the reference for PsthAnalysis, which only visits spikes
+         * within the windows.
+         */
+        class ReferencePsth {
+        public:
+            static void process(const int *const *inSpikeTrains, const int *spikeCounts, int trainCount,
+                                const int *const *inEvents, const int *eventCounts, int eventTypeCount,
+                                int leftFrameCount, int rightFrameCount, int binCount, int **outHistograms,
+                                int **outTrialStarts, std::vector<int> *outRasters) {
+                const long long windowFrameCount = static_cast<long long>(leftFrameCount) + rightFrameCount;
+                const bool raster = outTrialStarts != nullptr && outRasters != nullptr;
+                for (int e = 0; e < eventTypeCount; e++) {
+                    for (int t = 0; t < trainCount; t++) {
+                        const int pair = e * trainCount + t;
+                        int *histogram = outHistograms[pair];
+                        std::fill(histogram, histogram + binCount, 0);
+                        if (raster) outRasters[pair].clear();
+                        for (int i = 0; i < eventCounts[e]; i++) {
+                            if (raster) outTrialStarts[pair][i] = static_cast<int>(outRasters[pair].size());
+                            const long long start = static_cast<long long>(inEvents[e][i]) - leftFrameCount;
+                            for (int j = 0; j < spikeCounts[t]; j++) {
+                                const long long offset = inSpikeTrains[t][j] - start;
+                                if (offset < 0 || offset >= windowFrameCount) continue;
+
+                                histogram[offset * binCount / windowFrameCount]++;
+                                if (raster) outRasters[pair].push_back(inSpikeTrains[t][j] - inEvents[e][i]);
+                            }
+                        }
+                        if (raster) outTrialStarts[pair][eventCounts[e]] = static_cast<int>(outRasters[pair].size());
+                    }
+                }
+            }
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_REFERENCEPSTH_H
@@ -0,0 +1,199 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_REFERENCESPIKEANALYSIS_H
+#define SPIKE_RECORDER_ANDROID_REFERENCESPIKEANALYSIS_H
+
+#include <algorithm>
+#include <climits>
+#include <cmath>
+#include <cstring>
+#include <functional>
+#include <vector>
+
+#include "dr_wav.h"
+#include "AnalysisUtils.h"
+#include "SignalUtils.h"
+
+namespace backyardbrains {
+
+    namespace test {
+
+        /**
+         * Spikes of a single channel and polarity.
+         */
+        struct SpikeList {
+            std::vector<short> values;
+            std::vector<int> indices;
+            std::vector<float> times;
+
+            bool operator==(const SpikeList &other) const {
+                // times are compared bit by bit because parallel analysis needs to give exactly the same result
+                return values == other.values && indices == other.indices && times.size() == other.times.size() &&
+                       std::equal(times.begin(), times.end(), other.times.begin(),
+                                  [](float a, float b) { return memcmp(&a, &b, sizeof(float)) == 0; });
+            }
+        };
+
+        /**
+         * Serial spike detection the way SpikeAnalysis did it before the file was split into chunks analyzed in
+         * parallel: one pass over the whole file to find standard deviations and one Schmitt trigger pass followed by
+         * the 5 ms kill interval filter. Used as the reference for the parallel implementation.
+         */
+        class ReferenceSpikeAnalysis {
+        public:
+            /**
+             * Finds spikes in the file at specified filePath. Returns false if file can't be opened or is too short.
+             */
+            static bool findSpikes(const char *filePath, std::vector<SpikeList> &outPos,
+                                   std::vector<SpikeList> &outNeg) {
+                using backyardbrains::utils::AnalysisUtils;
+                using backyardbrains::utils::SignalUtils;
+
+                drwav *wavPtr = drwav_open_file(filePath);
+                if (wavPtr == nullptr) return false;
+
+                drwav_uint64 totalSamples = wavPtr->totalSampleCount;
+                drwav_uint16 channelCount = wavPtr->channels;
+                if (totalSamples < wavPtr->sampleRate * channelCount * AnalysisUtils::MIN_VALID_FILE_LENGTH_IN_SECS) {
+                    drwav_close(wavPtr);
+                    return false;
+                }
+
+                auto bufferSize = static_cast<drwav_uint64>(ceil(totalSamples / AnalysisUtils::BIN_COUNT));
+                auto maxBufferSize = static_cast<drwav_uint64>(ceil(
+                        (wavPtr->sampleRate * AnalysisUtils::BUFFER_SIZE_IN_SECS) / channelCount));
+                if (bufferSize > maxBufferSize) bufferSize = maxBufferSize;
+
+                // 1. standard deviation of every buffer
+                std::vector<short> samples(maxBufferSize);
+                std::vector<std::vector<short>> deinterleaved(channelCount, std::vector<short>(maxBufferSize));
+                std::vector<short *> deinterleavedPtrs(channelCount);
+                for (int i = 0; i < channelCount; i++) deinterleavedPtrs[i] = deinterleaved[i].data();
+                std::vector<std::vector<float>> deviations(channelCount);
+                drwav_uint64 read;
+                while ((read = drwav_read_s16(wavPtr, bufferSize, samples.data())) > 0) {
+                    const auto sampleCount = static_cast<int>(read);
+                    SignalUtils::deinterleaveSignal(deinterleavedPtrs.data(), samples.data(), sampleCount,
+                                                    channelCount);
+                    for (int i = 0; i < channelCount; i++) {
+                        deviations[i].push_back(AnalysisUtils::SD(deinterleavedPtrs[i], sampleCount / channelCount));
+                    }
+                }
+
+                // 2. and 3. thresholds are 2 * 40th percentile of descending deviations
+                std::vector<short> sig(channelCount), negSig(channelCount);
+                for (int i = 0; i < channelCount; i++) {
+                    std::sort(deviations[i].begin(), deviations[i].end(), std::greater<float>());
+                    float tmpSig = 2 * deviations[i][(int) ceil(deviations[i].size() * 0.4f)];
+                    sig[i] = static_cast<short>(tmpSig > SHRT_MAX ? SHRT_MAX : tmpSig);
+                    float tmpNegSig = -1 * sig[i];
+                    negSig[i] = static_cast<short>(tmpNegSig < SHRT_MIN ? SHRT_MIN : tmpNegSig);
+                }
+
+                // 4. Schmitt trigger
+                const float sampleRateDivider = (float) 1 / wavPtr->sampleRate;
+                std::vector<SpikeList> pos(channelCount), neg(channelCount);
+                std::vector<int> posState(channelCount, SCHMITT_OFF), negState(channelCount, SCHMITT_OFF);
+                std::vector<short> maxPeakValue(channelCount, SHRT_MIN), minPeakValue(channelCount, SHRT_MAX);
+                std::vector<int> maxPeakIndex(channelCount, 0), minPeakIndex(channelCount, 0);
+                std::vector<float> maxPeakTime(channelCount, 0.0f), minPeakTime(channelCount, 0.0f);
+                std::vector<int> currentIndex(channelCount, 0);
+                std::vector<float> currentTime(channelCount, 0.0f);
+                drwav_seek_to_sample(wavPtr, 0);
+                while ((read = drwav_read_s16(wavPtr, maxBufferSize, samples.data())) > 0) {
+                    const auto sampleCount = static_cast<int>(read);
+                    SignalUtils::deinterleaveSignal(deinterleavedPtrs.data(), samples.data(), sampleCount,
+                                                    channelCount);
+                    for (int channel = 0; channel < channelCount; channel++) {
+                        for (int i = 0; i < sampleCount / channelCount; i++) {
+                            const short sample = deinterleaved[channel][i];
+                            if (posState[channel] == SCHMITT_OFF) {
+                                if (sample > sig[channel]) {
+                                    posState[channel] = SCHMITT_ON;
+                                    maxPeakValue[channel] = SHRT_MIN;
+                                }
+                            } else if (sample < 0) {
+                                posState[channel] = SCHMITT_OFF;
+                                add(pos[channel], maxPeakValue[channel], maxPeakIndex[channel], maxPeakTime[channel]);
+                            } else if (sample > maxPeakValue[channel]) {
+                                maxPeakValue[channel] = sample;
+                                maxPeakIndex[channel] = currentIndex[channel];
+                                maxPeakTime[channel] = currentTime[channel];
+                            }
+
+                            if (negState[channel] == SCHMITT_OFF) {
+                                if (sample < negSig[channel]) {
+                                    negState[channel] = SCHMITT_ON;
+                                    minPeakValue[channel] = SHRT_MAX;
+                                }
+                            } else if (sample > 0) {
+                                negState[channel] = SCHMITT_OFF;
+                                add(neg[channel], minPeakValue[channel], minPeakIndex[channel], minPeakTime[channel]);
+                            } else if (sample < minPeakValue[channel]) {
+                                minPeakValue[channel] = sample;
+                                minPeakIndex[channel] = currentIndex[channel];
+                                minPeakTime[channel] = currentTime[channel];
+                            }
+
+                            currentIndex[channel]++;
+                            currentTime[channel] += sampleRateDivider;
+                        }
+                    }
+                }
+                drwav_close(wavPtr);
+
+                // 5. kill interval filter
+                outPos.clear();
+                outNeg.clear();
+                for (int channel = 0; channel < channelCount; channel++) {
+                    outPos.push_back(filter(pos[channel], true));
+                    outNeg.push_back(filter(neg[channel], false));
+                }
+                return true;
+            }
+
+        private:
+            // not constexpr members because they are passed by reference which would require out-of-class definitions
+            enum {
+                SCHMITT_ON = 1,
+                SCHMITT_OFF = 2
+            };
+            static constexpr float KILL_INTERVAL = 0.005f;
+
+            static void add(SpikeList &spikes, short value, int index, float time) {
+                spikes.values.push_back(value);
+                spikes.indices.push_back(index);
+                spikes.times.push_back(time);
+            }
+
+            // Drops spikes that are smaller than their right neighbor within kill interval and then spikes that are
+            // smaller than the last kept spike within kill interval
+            static SpikeList filter(const SpikeList &spikes, bool positive) {
+                auto smaller = [positive](short a, short b) { return positive ? a < b : a > b; };
+                SpikeList right;
+                const auto count = static_cast<int>(spikes.values.size());
+                for (int i = 0; i < count; i++) {
+                    if (i + 1 < count && smaller(spikes.values[i], spikes.values[i + 1]) &&
+                        spikes.times[i + 1] - spikes.times[i] < KILL_INTERVAL) {
+                        continue;
+                    }
+                    add(right, spikes.values[i], spikes.indices[i], spikes.times[i]);
+                }
+
+                SpikeList result;
+                for (size_t i = 0; i < right.values.size(); i++) {
+                    if (!result.values.empty() && smaller(right.values[i], result.values.back()) &&
+                        right.times[i] - result.times.back() < KILL_INTERVAL) {
+                        continue;
+                    }
+                    add(result, right.values[i], right.indices[i], right.times[i]);
+                }
+                return result;
+            }
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_REFERENCESPIKEANALYSIS_H
@@ -0,0 +1,87 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <random>
+
+#include "ReferenceSpikeAnalysis.h"
+#include "SpikeAnalysis.h"
+#include "TestUtils.h"
+#include "TestWavFile.h"
+
+using backyardbrains::analysis::OnSpikesFoundListener;
+using backyardbrains::analysis::SpikeAnalysis;
+using backyardbrains::test::ReferenceSpikeAnalysis;
+using backyardbrains::test::SpikeList;
+using backyardbrains::test::TestWavFile;
+using backyardbrains::utils::AnalysisUtils;
+
+namespace {
+
+    class CollectingListener : public OnSpikesFoundListener {
+    public:
+        explicit CollectingListener(int channelCount) : pos(channelCount), neg(channelCount) {}
+
+        void onSpikesFound(int channel, bool positive, const short *values, const int *indices, const float *times,
+                           int count) override {
+            SpikeList &spikes = positive ? pos[channel] : neg[channel];
+            spikes.values.insert(spikes.values.end(), values, values + count);
+            spikes.indices.insert(spikes.indices.end(), indices, indices + count);
+            spikes.times.insert(spikes.times.end(), times, times + count);
+        }
+
+        std::vector<SpikeList> pos;
+        std::vector<SpikeList> neg;
+    };
+}
+
+/**
+ * Compares duration of the serial spike detection with the parallel one on a stereo recording sampled at 10 kHz and
+ * checks both find exactly the same spikes. Length of the recording in minutes can be passed as the first argument.
+ */
+int main(int argc, char **argv) {
+    const int minutes = argc > 1 ? atoi(argv[1]) : 60;
+    const int sampleRate = 10000;
+    const int channelCount = 2;
+
+    std::mt19937 rng(7);
+    std::normal_distribution<float> noise(0, 300);
+    std::vector<int> spikeLeft(channelCount, 0);
+    const TestWavFile file("spike_analysis_benchmark", sampleRate, channelCount, sampleRate * 60LL * minutes,
+                           [&](long long frame, int channel) {
+                               float value = noise(rng);
+                               if (spikeLeft[channel] == 0 && rng() % 400 == 0) spikeLeft[channel] = 20 + rng() % 30;
+                               if (spikeLeft[channel] > 0) {
+                                   value += ((spikeLeft[channel] % 20) < 10 ? 1 : -1) * (3000.0f + rng() % 20000);
+                                   spikeLeft[channel]--;
+                               }
+                               return static_cast<short>(std::max(-32768.0f, std::min(32767.0f, value)));
+                           });
+
+    // both runs read the file once before timing so it's in the page cache
+    std::vector<SpikeList> expectedPos, expectedNeg;
+    ReferenceSpikeAnalysis::findSpikes(file.getPath(), expectedPos, expectedNeg);
+    auto start = std::chrono::steady_clock::now();
+    ReferenceSpikeAnalysis::findSpikes(file.getPath(), expectedPos, expectedNeg);
+    const double serialMs = backyardbrains::test::elapsedMs(start);
+
+    SpikeAnalysis analysis;
+    CollectingListener warmUp(channelCount);
+    analysis.findSpikes(file.getPath(), &warmUp, nullptr);
+    CollectingListener listener(channelCount);
+    start = std::chrono::steady_clock::now();
+    analysis.findSpikes(file.getPath(), &listener, nullptr);
+    const double parallelMs = backyardbrains::test::elapsedMs(start);
+
+    bool identical = true;
+    size_t spikeCount = 0;
+    for (int channel = 0; channel < channelCount; channel++) {
+        identical &= expectedPos[channel] == listener.pos[channel] && expectedNeg[channel] == listener.neg[channel];
+        spikeCount += listener.pos[channel].values.size() + listener.neg[channel].values.size();
+    }
+    printf("%d min stereo at 10 kHz, %zu spikes, %d threads: serial %.0f ms, parallel %.0f ms (%.1fx), %s\n",
+           minutes, spikeCount, AnalysisUtils::getThreadCount(), serialMs, parallelMs, serialMs / parallelMs,
+           identical ? "identical" : "MISMATCH");
+
+    return identical ? 0 : 1;
+}
@@ -0,0 +1,157 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <memory>
+#include <random>
+#include <string>
+
+#include "ReferenceSpikeAnalysis.h"
+#include "SpikeAnalysis.h"
+#include "TestUtils.h"
+#include "TestWavFile.h"
+
+using backyardbrains::analysis::AnalysisControl;
+using backyardbrains::analysis::OnSpikesFoundListener;
+using backyardbrains::analysis::SpikeAnalysis;
+using backyardbrains::test::ReferenceSpikeAnalysis;
+using backyardbrains::test::SpikeList;
+using backyardbrains::test::TestWavFile;
+
+namespace {
+
+    // Collects spikes passed by the analysis and checks batches are passed in order
+    class CollectingListener : public OnSpikesFoundListener {
+    public:
+        explicit CollectingListener(int channelCount) : pos(channelCount), neg(channelCount) {}
+
+        void onSpikesFound(int channel, bool positive, const short *values, const int *indices, const float *times,
+                           int count) override {
+            CHECK(count > 0 && count <= SpikeAnalysis::SPIKE_BATCH_SIZE);
+            SpikeList &spikes = positive ? pos[channel] : neg[channel];
+            for (int i = 0; i < count; i++) {
+                CHECK(spikes.indices.empty() || spikes.indices.back() <= indices[i]);
+                spikes.values.push_back(values[i]);
+                spikes.indices.push_back(indices[i]);
+                spikes.times.push_back(times[i]);
+            }
+            batchCount++;
+        }
+
+        std::vector<SpikeList> pos;
+        std::vector<SpikeList> neg;
+        int batchCount = 0;
+    };
+
+    // Noise with spikes of random height and width, optionally with DC offset and long stretches without zero
+    // crossings so triggers of a chunk need to run far into the next one before they sync
+    TestWavFile::SampleGenerator createSignal(unsigned seed, int channelCount, bool offset, bool longHalfWaves) {
+        auto rng = std::make_shared<std::mt19937>(seed);
+        auto spikeLeft = std::make_shared<std::vector<int>>(channelCount, 0);
+        return [=](long long frame, int channel) {
+            std::normal_distribution<float> noise(0, 300);
+            float value = noise(*rng);
+            if (offset) value += 200 * (channel + 1) * (frame % 997 < 500 ? 1 : -1);
+            int &left = (*spikeLeft)[channel];
+            if (left == 0 && (*rng)() % 400 == 0) left = 20 + static_cast<int>((*rng)() % 30);
+            if (left > 0) {
+                value += ((left % 20) < 10 ? 1 : -1) * (3000.0f + (*rng)() % 20000);
+                left--;
+            }
+            if ((*rng)() % 5000 == 0) value = -32768;
+            if (longHalfWaves && frame % 50000 < 25000) value = std::abs(value) + 1;
+            return static_cast<short>(std::max(-32768.0f, std::min(32767.0f, value)));
+        };
+    }
+
+    void checkMatchesReference(const char *name, int sampleRate, int channelCount, long long frameCount,
+                               const TestWavFile::SampleGenerator &generator) {
+        const TestWavFile file(name, sampleRate, channelCount, frameCount, generator);
+
+        std::vector<SpikeList> expectedPos, expectedNeg;
+        CHECK(ReferenceSpikeAnalysis::findSpikes(file.getPath(), expectedPos, expectedNeg));
+
+        CollectingListener listener(channelCount);
+        SpikeAnalysis analysis;
+        CHECK(analysis.findSpikes(file.getPath(), &listener, nullptr));
+
+        for (int channel = 0; channel < channelCount; channel++) {
+            CHECK(!expectedPos[channel].values.empty());
+            CHECK(!expectedNeg[channel].values.empty());
+            CHECK(expectedPos[channel] == listener.pos[channel]);
+            CHECK(expectedNeg[channel] == listener.neg[channel]);
+        }
+    }
+}
+
+TEST(monoMatchesSerialAnalysis) {
+    // 10 buffers of 12 seconds so every chunk has a seam
+    checkMatchesReference("spike_analysis_mono", 10000, 1, 10000LL * 120, createSignal(1, 1, false, false));
+}
+
+TEST(stereoWithOddLengthMatchesSerialAnalysis) {
+    checkMatchesReference("spike_analysis_stereo", 44100, 2, 44100LL * 30 + 17, createSignal(3, 2, true, false));
+}
+
+TEST(channelCountThatDoesNotDivideBufferMatchesSerialAnalysis) {
+    // buffer of 12 seconds at 10001 Hz can't hold whole number of 5 channel frames so frames shift between buffers
+    checkMatchesReference("spike_analysis_5ch", 10001, 5, 10001LL * 40, createSignal(4, 5, false, false));
+}
+
+TEST(triggersThatSyncFarIntoNextChunkMatchSerialAnalysis) {
+    checkMatchesReference("spike_analysis_long_half_waves", 10000, 2, 10000LL * 60 + 3,
+                          createSignal(5, 2, false, true));
+}
+
+TEST(singleSamplePulsesMatchSerialAnalysis) {
+    // trigger that's turned on by a single sample is turned off before its peak is updated, so the spike carries index
+    // and time of the previous peak which can be in one of the previous chunks
+    std::mt19937 rng(9);
+    std::normal_distribution<float> noise(0, 100);
+    checkMatchesReference("spike_analysis_pulses", 10000, 1, 10000LL * 90, [&](long long frame, int channel) {
+        if (frame % 3001 == 1500) return static_cast<short>(30000);
+        if (frame % 3001 == 1501) return static_cast<short>(-30000);
+        if (frame % 7919 == 0) return static_cast<short>(15000);
+        return static_cast<short>(noise(rng));
+    });
+}
+
+TEST(manyBatchesMatchSerialAnalysis) {
+    // more than SPIKE_BATCH_SIZE spikes per channel
+    const int sampleRate = 10000;
+    const TestWavFile file("spike_analysis_batches", sampleRate, 1, sampleRate * 600LL,
+                           createSignal(6, 1, false, false));
+    std::vector<SpikeList> expectedPos, expectedNeg;
+    CHECK(ReferenceSpikeAnalysis::findSpikes(file.getPath(), expectedPos, expectedNeg));
+    CHECK(expectedPos[0].values.size() > 2 * SpikeAnalysis::SPIKE_BATCH_SIZE);
+
+    CollectingListener listener(1);
+    SpikeAnalysis analysis;
+    CHECK(analysis.findSpikes(file.getPath(), &listener, nullptr));
+
+    CHECK(listener.batchCount > 4);
+    CHECK(expectedPos[0] == listener.pos[0]);
+    CHECK(expectedNeg[0] == listener.neg[0]);
+}
+
+TEST(tooShortFileIsNotAnalyzed) {
+    const TestWavFile file("spike_analysis_short", 10000, 1, 1000, createSignal(7, 1, false, false));
+    CollectingListener listener(1);
+    SpikeAnalysis analysis;
+    CHECK(!analysis.findSpikes(file.getPath(), &listener, nullptr));
+    CHECK_EQ(0, listener.batchCount);
+}
+
+TEST(cancelledAnalysisPassesNoSpikes) {
+    const TestWavFile file("spike_analysis_cancelled", 10000, 1, 10000LL * 60, createSignal(8, 1, false, false));
+    CollectingListener listener(1);
+    AnalysisControl control;
+    control.cancel();
+    SpikeAnalysis analysis;
+    CHECK(!analysis.findSpikes(file.getPath(), &listener, &control));
+    CHECK_EQ(0, listener.batchCount);
+}
+
+int main() {
+    return backyardbrains::test::runAllTests();
+}
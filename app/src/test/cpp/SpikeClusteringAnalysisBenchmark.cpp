@@ -0,0 +1,122 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <algorithm>
+#include <cmath>
+#include <cstdio>
+#include <cstdlib>
+#include <random>
+#include <string>
+#include <sys/resource.h>
+#include <vector>
+
+#include "SpikeClusteringAnalysis.h"
+#include "TestUtils.h"
+#include "TestWavFile.h"
+
+using backyardbrains::analysis::SpikeClusteringAnalysis;
+using backyardbrains::test::TestWavFile;
+
+namespace {
+
+    constexpr int SAMPLE_RATE = 44100;
+    constexpr int UNIT_COUNT = 3;
+    constexpr float AMPLITUDE = 2000.0f;
+    constexpr float NOISE = 150.0f;
+    // every spike has its own 4 ms slot so waveforms don't overlap
+    constexpr int SLOT_LENGTH = SAMPLE_RATE * 4 / 1000;
+    constexpr int SPIKE_HALF_LENGTH = SAMPLE_RATE * 3 / 2000;
+
+    // Same unit waveforms as in SpikeClusteringAnalysisTest
+    float shape(int unit, float t) {
+        switch (unit) {
+            case 0:
+                return std::exp(-t * t / (2 * 0.08f * 0.08f)) -
+                       0.35f * std::exp(-(t - 0.35f) * (t - 0.35f) / (2 * 0.12f * 0.12f));
+            case 1:
+                return std::exp(-t * t / (2 * 0.25f * 0.25f));
+            default:
+                return -std::exp(-t * t / (2 * 0.12f * 0.12f)) +
+                       0.4f * std::exp(-(t - 0.5f) * (t - 0.5f) / (2 * 0.2f * 0.2f));
+        }
+    }
+
+    // Peak resident set size of the process in MB
+    double peakRssMb() {
+        rusage usage{};
+        getrusage(RUSAGE_SELF, &usage);
+        return usage.ru_maxrss / 1024.0;
+    }
+}
+
+/**
+ * Measures duration and peak memory of clustering the spikes of a mono 44.1 kHz recording with three units, from
+ * tens of thousands to a million and a half spikes, and reports accuracy of the result. Peak memory is reported as
+ * growth of the peak resident set size over the one before the first analysis, so it only grows when a larger
+ * number of spikes needs more memory than the smaller ones did. Maximum number of spikes can be passed as the first
+ * argument.
+ */
+int main(int argc, char **argv) {
+    const int maxSpikeCount = argc > 1 ? atoi(argv[1]) : 1500000;
+
+    // unit, amplitude and peak of every spike are drawn up front so the generator can write the file in a single pass
+    std::mt19937 rng(11);
+    std::uniform_real_distribution<float> uniform(0, 1);
+    std::normal_distribution<float> noise(0, NOISE);
+    std::vector<int> units(static_cast<size_t>(maxSpikeCount));
+    std::vector<float> amplitudes(static_cast<size_t>(maxSpikeCount));
+    std::vector<int> peaks(static_cast<size_t>(maxSpikeCount));
+    std::vector<int> spikeIndices(static_cast<size_t>(maxSpikeCount));
+    for (int i = 0; i < maxSpikeCount; i++) {
+        units[i] = static_cast<int>(uniform(rng) * UNIT_COUNT);
+        amplitudes[i] = AMPLITUDE * (1.0f - 0.25f * i / maxSpikeCount) * (0.9f + 0.2f * uniform(rng));
+        peaks[i] = i * SLOT_LENGTH + SPIKE_HALF_LENGTH + static_cast<int>(uniform(rng) * 20);
+        spikeIndices[i] = peaks[i] + static_cast<int>(uniform(rng) * 9) - 4;
+    }
+    const long long frameCount = static_cast<long long>(maxSpikeCount) * SLOT_LENGTH;
+    const TestWavFile file("spike_clustering_benchmark", SAMPLE_RATE, 1, frameCount,
+                           [&](long long frame, int channel) {
+                               const auto i = static_cast<int>(frame / SLOT_LENGTH);
+                               float sample = noise(rng);
+                               const auto k = static_cast<int>(frame - peaks[i]);
+                               if (std::abs(k) < SPIKE_HALF_LENGTH) {
+                                   sample += amplitudes[i] * shape(units[i], k * 1000.0f / SAMPLE_RATE);
+                               }
+                               return static_cast<short>(std::max(-32768.0f, std::min(32767.0f, sample)));
+                           });
+    const std::string scratchPath = std::string(file.getPath()) + ".scratch";
+    printf("%.1f min mono at 44.1 kHz (%.0f MB)\n", frameCount / (SAMPLE_RATE * 60.0), frameCount * 2 / 1048576.0);
+
+    std::vector<signed char> clusters(static_cast<size_t>(maxSpikeCount));
+    const double baseRssMb = peakRssMb();
+    for (int spikeCount : {25000, 100000, 500000, 1500000}) {
+        spikeCount = std::min(spikeCount, maxSpikeCount);
+
+        const auto start = std::chrono::steady_clock::now();
+        const int clusterCount = SpikeClusteringAnalysis().process(
+                file.getPath(), scratchPath.c_str(), 0, spikeIndices.data(), spikeCount, UNIT_COUNT, clusters.data(),
+                nullptr);
+        const double ms = backyardbrains::test::elapsedMs(start);
+
+        // every cluster is mapped to the unit most of its spikes belong to
+        std::vector<int> counts(static_cast<size_t>(SpikeClusteringAnalysis::MAX_CLUSTER_COUNT * UNIT_COUNT), 0);
+        int clustered = 0;
+        for (int i = 0; i < spikeCount; i++) {
+            if (clusters[i] == SpikeClusteringAnalysis::NO_CLUSTER) continue;
+            counts[clusters[i] * UNIT_COUNT + units[i]]++;
+            clustered++;
+        }
+        int correct = 0;
+        for (int c = 0; c < SpikeClusteringAnalysis::MAX_CLUSTER_COUNT; c++) {
+            correct += *std::max_element(counts.begin() + c * UNIT_COUNT, counts.begin() + (c + 1) * UNIT_COUNT);
+        }
+
+        printf("%7d spikes: %8.1f ms, %5.2f us/spike, peak RSS +%5.1f MB | %d clusters, %.1f%% clustered, "
+               "%.1f%% correctly\n", spikeCount, ms, ms * 1000.0 / spikeCount, peakRssMb() - baseRssMb,
+               clusterCount, 100.0 * clustered / spikeCount, clustered > 0 ? 100.0 * correct / clustered : 0.0);
+        if (spikeCount == maxSpikeCount) break;
+    }
+
+    return 0;
+}
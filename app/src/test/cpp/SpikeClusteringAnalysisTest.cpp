@@ -0,0 +1,235 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <algorithm>
+#include <cmath>
+#include <cstdio>
+#include <cstdlib>
+#include <map>
+#include <random>
+#include <string>
+#include <unistd.h>
+#include <vector>
+
+#include "SpikeClusteringAnalysis.h"
+#include "TestUtils.h"
+#include "TestWavFile.h"
+
+using backyardbrains::analysis::AnalysisControl;
+using backyardbrains::analysis::SpikeClusteringAnalysis;
+using backyardbrains::test::TestWavFile;
+
+namespace {
+
+    constexpr int SAMPLE_RATE = 44100;
+    constexpr float AMPLITUDE = 2000.0f;
+    // Spike that isn't fired by any of the units
+    constexpr int NOISE_UNIT = -1;
+
+    // Normalized waveform of specified unit at specified time (in ms) relative to its peak
+    float shape(int unit, float t) {
+        switch (unit) {
+            case 0: // narrow with small undershoot
+                return std::exp(-t * t / (2 * 0.08f * 0.08f)) -
+                       0.35f * std::exp(-(t - 0.35f) * (t - 0.35f) / (2 * 0.12f * 0.12f));
+            case 1: // wide
+                return std::exp(-t * t / (2 * 0.25f * 0.25f));
+            default: // inverted with slow rebound
+                return -std::exp(-t * t / (2 * 0.12f * 0.12f)) +
+                       0.4f * std::exp(-(t - 0.5f) * (t - 0.5f) / (2 * 0.2f * 0.2f));
+        }
+    }
+
+    /**
+     * Mono recording with spikes of unitCount units whose amplitudes drop by 25% from the start to the end of the
+     * recording. Spike indices are jittered by up to 4 samples, same as detected peaks are, and noiseShare of them are
+     * noise that doesn't belong to any unit.
+     */
+    struct SyntheticRecording {
+        std::vector<short> samples;
+        std::vector<int> spikeIndices;
+        std::vector<int> units;
+
+        SyntheticRecording(int spikeCount, int unitCount, float noiseStd, float noiseShare, unsigned seed) {
+            std::mt19937 rng(seed);
+            std::normal_distribution<float> noise(0, noiseStd);
+            std::uniform_real_distribution<float> uniform(0, 1);
+            std::uniform_int_distribution<int> jitter(-4, 4);
+
+            // spikes are at least 3 ms apart so their waveforms don't overlap
+            const int spacing = SAMPLE_RATE * 3 / 1000;
+            const auto frameCount = static_cast<size_t>((spikeCount + 2) * spacing * 2);
+            std::vector<float> signal(frameCount);
+            for (auto &sample : signal) sample = noise(rng);
+            int peak = spacing;
+            for (int i = 0; i < spikeCount; i++) {
+                peak += spacing + static_cast<int>(uniform(rng) * spacing);
+                int unit = NOISE_UNIT;
+                if (uniform(rng) >= noiseShare) {
+                    unit = static_cast<int>(uniform(rng) * unitCount);
+                    const float amplitude =
+                            AMPLITUDE * (1.0f - 0.25f * peak / frameCount) * (0.9f + 0.2f * uniform(rng));
+                    for (int k = -spacing / 2; k < spacing / 2; k++) {
+                        signal[peak + k] += amplitude * shape(unit, k * 1000.0f / SAMPLE_RATE);
+                    }
+                }
+                spikeIndices.push_back(peak + jitter(rng));
+                units.push_back(unit);
+            }
+            samples.resize(frameCount);
+            for (size_t i = 0; i < frameCount; i++) {
+                samples[i] = static_cast<short>(std::max(-32768.0f, std::min(32767.0f, signal[i])));
+            }
+        }
+    };
+
+    struct Result {
+        int clusterCount;
+        // Percentage of clustered unit spikes that belong to the unit most of the spikes of their cluster belong to
+        double accuracy;
+        // Percentage of unit spikes that are clustered
+        double clustered;
+        // Percentage of noise spikes that are clustered
+        double noiseClustered;
+    };
+
+    std::string scratchPath(const char *name) {
+        const char *tmpDir = std::getenv("TMPDIR");
+        return std::string(tmpDir != nullptr ? tmpDir : "/tmp") + "/" + name + ".scratch";
+    }
+
+    Result cluster(const SyntheticRecording &recording, const char *name, int clusterCount,
+                   std::vector<signed char> &outClusters) {
+        const TestWavFile file(name, SAMPLE_RATE, 1, static_cast<long long>(recording.samples.size()),
+                               [&](long long frame, int channel) { return recording.samples[frame]; });
+        const auto spikeCount = static_cast<int>(recording.spikeIndices.size());
+        outClusters.assign(static_cast<size_t>(spikeCount), 0);
+
+        Result result{};
+        result.clusterCount = SpikeClusteringAnalysis().process(
+                file.getPath(), scratchPath(name).c_str(), 0, recording.spikeIndices.data(), spikeCount, clusterCount,
+                outClusters.data(), nullptr);
+        // scratch file never outlives the analysis
+        CHECK(access(scratchPath(name).c_str(), F_OK) != 0);
+
+        std::map<int, std::map<int, int>> counts;
+        int unitSpikes = 0, clustered = 0, noiseSpikes = 0, noiseClustered = 0;
+        for (int i = 0; i < spikeCount; i++) {
+            const bool inCluster = outClusters[i] != SpikeClusteringAnalysis::NO_CLUSTER;
+            if (recording.units[i] == NOISE_UNIT) {
+                noiseSpikes++;
+                if (inCluster) noiseClustered++;
+            } else {
+                unitSpikes++;
+                if (inCluster) {
+                    clustered++;
+                    counts[outClusters[i]][recording.units[i]]++;
+                }
+            }
+        }
+        int correct = 0;
+        for (const auto &c : counts) {
+            int best = 0;
+            for (const auto &unit : c.second) best = std::max(best, unit.second);
+            correct += best;
+        }
+        result.accuracy = clustered > 0 ? 100.0 * correct / clustered : 0;
+        result.clustered = unitSpikes > 0 ? 100.0 * clustered / unitSpikes : 0;
+        result.noiseClustered = noiseSpikes > 0 ? 100.0 * noiseClustered / noiseSpikes : 0;
+        printf("%d clusters, %.1f%% of unit spikes clustered, %.1f%% correctly, %.1f%% of noise spikes clustered\n",
+               result.clusterCount, result.clustered, result.accuracy, result.noiseClustered);
+
+        return result;
+    }
+}
+
+TEST(threeUnitsAreSeparated) {
+    const SyntheticRecording recording(20000, 3, 150, 0.05f, 1);
+    std::vector<signed char> clusters;
+    const Result result = cluster(recording, "spike_clustering_three_units", 3, clusters);
+
+    CHECK_EQ(3, result.clusterCount);
+    CHECK(result.accuracy > 99.0);
+    CHECK(result.clustered > 95.0);
+
+    // clusters are ordered by number of spikes, largest first
+    std::vector<int> sizes(3, 0);
+    for (signed char c : clusters) if (c != SpikeClusteringAnalysis::NO_CLUSTER) sizes[c]++;
+    CHECK(sizes[0] >= sizes[1] && sizes[1] >= sizes[2]);
+}
+
+TEST(noisierUnitsAreStillSeparated) {
+    const SyntheticRecording recording(20000, 3, 500, 0.05f, 2);
+    std::vector<signed char> clusters;
+    const Result result = cluster(recording, "spike_clustering_noisy_units", 3, clusters);
+
+    CHECK_EQ(3, result.clusterCount);
+    CHECK(result.accuracy > 97.0);
+}
+
+TEST(fewNoiseDetectionsAreNotClustered) {
+    // noise detections that are too few to form a cluster of their own end up in an outlier cluster
+    const SyntheticRecording recording(20000, 3, 150, 0.02f, 3);
+    std::vector<signed char> clusters;
+    const Result result = cluster(recording, "spike_clustering_noise_detections", 3, clusters);
+
+    CHECK_EQ(3, result.clusterCount);
+    CHECK(result.noiseClustered < 10.0);
+    CHECK(result.clustered > 95.0);
+}
+
+TEST(unitsAreNotSplitIntoMoreClustersThanThereAre) {
+    const SyntheticRecording recording(10000, 2, 150, 0.05f, 4);
+    std::vector<signed char> clusters;
+    const Result result = cluster(recording, "spike_clustering_two_units", 4, clusters);
+
+    CHECK_EQ(2, result.clusterCount);
+    CHECK(result.accuracy > 99.0);
+}
+
+TEST(resultsAreDeterministic) {
+    const SyntheticRecording recording(5000, 3, 150, 0.05f, 5);
+    std::vector<signed char> first, second;
+    cluster(recording, "spike_clustering_deterministic", 3, first);
+    cluster(recording, "spike_clustering_deterministic", 3, second);
+
+    CHECK(first == second);
+}
+
+TEST(spikesTooCloseToEdgesAreNotClustered) {
+    SyntheticRecording recording(3000, 2, 150, 0.05f, 6);
+    recording.spikeIndices.front() = 2;
+    recording.spikeIndices.back() = static_cast<int>(recording.samples.size()) - 2;
+    std::vector<signed char> clusters;
+    cluster(recording, "spike_clustering_edges", 2, clusters);
+
+    CHECK_EQ(SpikeClusteringAnalysis::NO_CLUSTER, clusters.front());
+    CHECK_EQ(SpikeClusteringAnalysis::NO_CLUSTER, clusters.back());
+}
+
+TEST(cancelledOrInvalidAnalysisFindsNoClusters) {
+    const SyntheticRecording recording(3000, 2, 150, 0.05f, 7);
+    const TestWavFile file("spike_clustering_cancelled", SAMPLE_RATE, 1,
+                           static_cast<long long>(recording.samples.size()),
+                           [&](long long frame, int channel) { return recording.samples[frame]; });
+    const auto spikeCount = static_cast<int>(recording.spikeIndices.size());
+    std::vector<signed char> clusters(static_cast<size_t>(spikeCount));
+    const std::string scratch = scratchPath("spike_clustering_cancelled");
+
+    AnalysisControl control;
+    control.cancel();
+    CHECK_EQ(0, SpikeClusteringAnalysis().process(file.getPath(), scratch.c_str(), 0, recording.spikeIndices.data(),
+                                                  spikeCount, 2, clusters.data(), &control));
+    CHECK(access(scratch.c_str(), F_OK) != 0);
+
+    CHECK_EQ(0, SpikeClusteringAnalysis().process("/nonexistent.wav", scratch.c_str(), 0,
+                                                  recording.spikeIndices.data(), spikeCount, 2, clusters.data(),
+                                                  nullptr));
+    CHECK_EQ(0, SpikeClusteringAnalysis().process(file.getPath(), scratch.c_str(), 0, recording.spikeIndices.data(),
+                                                  0, 2, clusters.data(), nullptr));
+}
+
+int main() {
+    return backyardbrains::test::runAllTests();
+}
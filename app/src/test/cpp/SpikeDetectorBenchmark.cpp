@@ -0,0 +1,144 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <algorithm>
+#include <atomic>
+#include <cstdlib>
+#include <random>
+#include <thread>
+#include <vector>
+
+#include "SpikeDetector.h"
+#include "TestUtils.h"
+
+using backyardbrains::processing::SpikeDetector;
+using backyardbrains::utils::SpikeEvent;
+
+namespace {
+
+    constexpr int SAMPLE_RATE = 44100;
+    constexpr int CHANNEL_COUNT = 8;
+    // Same as the number of frames processing thread gets from the audio source at once (~23 ms)
+    constexpr int BATCH_FRAME_COUNT = 1024;
+    // Max distance between the injected and the detected spike peak
+    constexpr int MAX_PEAK_OFFSET = 8;
+
+    // Synthetic source of all channels with noise around DC offset and triangular spikes of alternating polarity every
+    // 20-29 ms
+    struct SyntheticSource {
+        std::vector<std::vector<short>> samples;
+        // Peaks of the spikes injected on the first channel
+        std::vector<long long> peaks;
+
+        explicit SyntheticSource(long long frameCount) : samples(CHANNEL_COUNT, std::vector<short>(frameCount)) {
+            std::mt19937 rng(1);
+            std::normal_distribution<float> noise(0, 200);
+            std::uniform_int_distribution<int> jitter(0, 400);
+            for (auto &channel : samples) {
+                for (auto &sample : channel) sample = static_cast<short>(noise(rng) + 100);
+            }
+            for (int ch = 0; ch < CHANNEL_COUNT; ch++) {
+                for (long long peak = SAMPLE_RATE / 2; peak < frameCount - 100; peak += 882 + jitter(rng)) {
+                    const int amplitude = (peak / 882) % 2 ? 3000 : -3000;
+                    for (int k = -11; k <= 11; k++) {
+                        samples[ch][peak + k] += static_cast<short>(amplitude * (1.0f - std::abs(k) / 12.0f));
+                    }
+                    if (ch == 0) peaks.push_back(peak);
+                }
+            }
+        }
+    };
+
+    // Feeds the source to the detector batch by batch, as fast as possible, while renderer and recorder consume
+    // detected spikes on their own threads, and prints how much faster than real time detection is
+    bool run(const SyntheticSource &source, bool sorting) {
+        SpikeDetector detector(SAMPLE_RATE, CHANNEL_COUNT);
+        detector.setSorting(sorting);
+        const int channels[] = {0, 0}, lowerThresholds[] = {2500, -3500}, upperThresholds[] = {3500, -2500};
+        detector.setTrainWindows(channels, lowerThresholds, upperThresholds, 2);
+
+        std::atomic<bool> done{false};
+        std::vector<SpikeEvent> recorded;
+        long long renderedCount = 0;
+        // renderer reads once per frame and recorder a few times per second
+        auto consume = [&](int consumer, int periodMs) {
+            SpikeEvent events[512];
+            bool last = false;
+            while (!last) {
+                last = done;
+                int count;
+                while ((count = detector.readEvents(consumer, events, 512)) > 0) {
+                    if (consumer == SpikeDetector::CONSUMER_RECORDER) {
+                        recorded.insert(recorded.end(), events, events + count);
+                    } else {
+                        renderedCount += count;
+                    }
+                }
+                if (!last) std::this_thread::sleep_for(std::chrono::milliseconds(periodMs));
+            }
+        };
+        std::thread renderer([&] { consume(SpikeDetector::CONSUMER_RENDERER, 16); });
+        std::thread recorder([&] { consume(SpikeDetector::CONSUMER_RECORDER, 100); });
+
+        const auto frameCount = static_cast<long long>(source.samples[0].size());
+        std::vector<double> batchUs;
+        short *samples[CHANNEL_COUNT];
+        int sampleCounts[CHANNEL_COUNT];
+        const auto start = std::chrono::steady_clock::now();
+        for (long long first = 0; first < frameCount; first += BATCH_FRAME_COUNT) {
+            const auto count = static_cast<int>(std::min<long long>(BATCH_FRAME_COUNT, frameCount - first));
+            for (int ch = 0; ch < CHANNEL_COUNT; ch++) {
+                samples[ch] = const_cast<short *>(source.samples[ch].data() + first);
+                sampleCounts[ch] = count;
+            }
+            const auto batchStart = std::chrono::steady_clock::now();
+            detector.process(samples, sampleCounts, CHANNEL_COUNT);
+            batchUs.push_back(backyardbrains::test::elapsedMs(batchStart) * 1000);
+        }
+        const double elapsedMs = backyardbrains::test::elapsedMs(start);
+        done = true;
+        renderer.join();
+        recorder.join();
+
+        // injected spikes of the first channel that are found close to where they peak
+        std::vector<long long> found;
+        for (const SpikeEvent &event : recorded) {
+            if (event.channel == 0) found.push_back(event.frameIndex);
+        }
+        std::sort(found.begin(), found.end());
+        int foundCount = 0;
+        for (long long peak : source.peaks) {
+            const auto it = std::lower_bound(found.begin(), found.end(), peak - MAX_PEAK_OFFSET);
+            if (it != found.end() && *it <= peak + MAX_PEAK_OFFSET) foundCount++;
+        }
+
+        std::sort(batchUs.begin(), batchUs.end());
+        const double realTimeFactor = frameCount * 1000.0 / SAMPLE_RATE / elapsedMs;
+        printf("sorting %-3s: %6.1fx real time, batch p50 %5.0f us, p99 %5.0f us, max %6.0f us | found %d of %zu "
+               "spikes on channel 0 | recorded %zu, rendered %lld, dropped %lld/%lld\n", sorting ? "on" : "off",
+               realTimeFactor, batchUs[batchUs.size() / 2], batchUs[batchUs.size() * 99 / 100], batchUs.back(),
+               foundCount, source.peaks.size(), recorded.size(), renderedCount,
+               detector.getDroppedCount(SpikeDetector::CONSUMER_RENDERER),
+               detector.getDroppedCount(SpikeDetector::CONSUMER_RECORDER));
+        return realTimeFactor > 1;
+    }
+}
+
+/**
+ * Measures whether live spike detection keeps up with 8 channels at 44.1 kHz. Synthetic signal is processed in the
+ * same batches processing thread gets them, with and without sorting, while renderer and recorder consume detected
+ * spikes on their own threads. Length of the signal in seconds can be passed as the first argument, default is 60
+ * seconds. Fails if detection is slower than real time.
+ */
+int main(int argc, char **argv) {
+    const int seconds = argc > 1 ? atoi(argv[1]) : 60;
+    const SyntheticSource source(static_cast<long long>(SAMPLE_RATE) * seconds);
+    printf("%d s of %d channels at %d Hz in batches of %d frames\n", seconds, CHANNEL_COUNT, SAMPLE_RATE,
+           BATCH_FRAME_COUNT);
+
+    bool keepsUp = run(source, false);
+    keepsUp &= run(source, true);
+
+    return keepsUp ? 0 : 1;
+}
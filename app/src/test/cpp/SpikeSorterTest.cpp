@@ -0,0 +1,202 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <algorithm>
+#include <cmath>
+#include <map>
+#include <random>
+#include <vector>
+
+#include "SpikeDetector.h"
+#include "SpikeSorter.h"
+#include "TestUtils.h"
+
+using backyardbrains::processing::SpikeDetector;
+using backyardbrains::processing::SpikeSorter;
+using backyardbrains::utils::SpikeEvent;
+
+namespace {
+
+    constexpr int UNIT_COUNT = 3;
+    constexpr float NOISE_STD = 150.0f;
+    constexpr float AMPLITUDE = 2000.0f;
+    // Snippet length and peak offset within the snippet at 44.1 kHz, same as the ones detector uses
+    constexpr int SNIPPET_LENGTH = 67;
+    constexpr int SNIPPET_PEAK = 22;
+    constexpr int TRAINING_TIMEOUT_MS = 10000;
+
+    // Normalized waveform of specified ground truth unit at specified time (in ms) relative to its peak
+    float shape(int unit, float t) {
+        switch (unit) {
+            case 0: // narrow with small undershoot
+                return std::exp(-t * t / (2 * 0.08f * 0.08f)) -
+                       0.35f * std::exp(-(t - 0.35f) * (t - 0.35f) / (2 * 0.12f * 0.12f));
+            case 1: // wide
+                return std::exp(-t * t / (2 * 0.25f * 0.25f));
+            default: // triphasic
+                return std::exp(-t * t / (2 * 0.1f * 0.1f)) -
+                       0.6f * std::exp(-(t + 0.3f) * (t + 0.3f) / (2 * 0.1f * 0.1f)) -
+                       0.5f * std::exp(-(t - 0.4f) * (t - 0.4f) / (2 * 0.15f * 0.15f));
+        }
+    }
+
+    // Snippets of randomly picked units with amplitudes dropping by 25% from first to last to imitate drift
+    struct SyntheticSnippets {
+        std::vector<std::vector<float>> snippets;
+        std::vector<int> units;
+
+        SyntheticSnippets(int count, unsigned seed) {
+            std::mt19937 rng(seed);
+            std::normal_distribution<float> noise(0, NOISE_STD);
+            std::uniform_real_distribution<float> uniform(0, 1);
+            for (int i = 0; i < count; i++) {
+                const int unit = static_cast<int>(uniform(rng) * UNIT_COUNT);
+                const float amplitude = AMPLITUDE * (1.0f - 0.25f * i / count) * (0.9f + 0.2f * uniform(rng));
+                std::vector<float> snippet(SNIPPET_LENGTH);
+                for (int k = 0; k < SNIPPET_LENGTH; k++) {
+                    snippet[k] = amplitude * shape(unit, (k - SNIPPET_PEAK) / 44.1f) + noise(rng);
+                }
+                snippets.push_back(snippet);
+                units.push_back(unit);
+            }
+        }
+    };
+
+    // Sorts all the snippets, waiting for the training once warm up spikes are sorted, and returns the units
+    std::vector<int> sortAll(SpikeSorter &sorter, const SyntheticSnippets &snippets) {
+        std::vector<int> units;
+        for (size_t i = 0; i < snippets.snippets.size(); i++) {
+            units.push_back(sorter.sort(0, snippets.snippets[i].data()));
+            if (i + 1 == SpikeSorter::WARM_UP_SPIKE_COUNT) CHECK(sorter.waitForTraining(TRAINING_TIMEOUT_MS));
+        }
+        return units;
+    }
+
+    // Percentage of sorted spikes that belong to the ground truth unit most of the spikes of their unit belong to
+    double accuracy(const std::vector<int> &units, const std::vector<int> &truth, int first, int *outSortedCount) {
+        std::map<int, std::map<int, int>> counts;
+        for (size_t i = first; i < units.size(); i++) {
+            if (units[i] != SpikeSorter::NO_UNIT) counts[units[i]][truth[i]]++;
+        }
+        int sorted = 0, correct = 0;
+        for (const auto &unit : counts) {
+            int best = 0;
+            for (const auto &t : unit.second) {
+                sorted += t.second;
+                best = std::max(best, t.second);
+            }
+            correct += best;
+        }
+        *outSortedCount = sorted;
+        return sorted > 0 ? 100.0 * correct / sorted : 0.0;
+    }
+}
+
+TEST(unitsAreLearnedFromWarmUpSpikes) {
+    const SyntheticSnippets snippets(5000, 1);
+    SpikeSorter sorter(SNIPPET_LENGTH, 1);
+
+    const std::vector<int> units = sortAll(sorter, snippets);
+    for (int i = 0; i < SpikeSorter::WARM_UP_SPIKE_COUNT; i++) CHECK_EQ(SpikeSorter::NO_UNIT, units[i]);
+    CHECK_EQ(UNIT_COUNT, sorter.getUnitCount(0));
+
+    int sortedCount;
+    const double correct = accuracy(units, snippets.units, SpikeSorter::WARM_UP_SPIKE_COUNT, &sortedCount);
+    printf("sorted %d of %d spikes, %.1f%% correctly\n", sortedCount,
+           static_cast<int>(units.size()) - SpikeSorter::WARM_UP_SPIKE_COUNT, correct);
+    CHECK(sortedCount > 0.9 * (units.size() - SpikeSorter::WARM_UP_SPIKE_COUNT));
+    CHECK(correct > 95.0);
+}
+
+TEST(channelsAreSortedSeparately) {
+    const SyntheticSnippets snippets(SpikeSorter::WARM_UP_SPIKE_COUNT, 2);
+    SpikeSorter sorter(SNIPPET_LENGTH, 2);
+
+    for (const auto &snippet : snippets.snippets) sorter.sort(1, snippet.data());
+    CHECK(sorter.waitForTraining(TRAINING_TIMEOUT_MS));
+    CHECK_EQ(0, sorter.getUnitCount(0));
+    CHECK_EQ(UNIT_COUNT, sorter.getUnitCount(1));
+    CHECK_EQ(SpikeSorter::NO_UNIT, sorter.sort(0, snippets.snippets[0].data()));
+    CHECK_EQ(SpikeSorter::NO_UNIT, sorter.sort(2, snippets.snippets[0].data()));
+}
+
+TEST(resetDiscardsTrainingInProgress) {
+    const SyntheticSnippets snippets(SpikeSorter::WARM_UP_SPIKE_COUNT, 3);
+    SpikeSorter sorter(SNIPPET_LENGTH, 1);
+
+    for (const auto &snippet : snippets.snippets) sorter.sort(0, snippet.data());
+    sorter.reset(SNIPPET_LENGTH, 1);
+    CHECK(sorter.waitForTraining(TRAINING_TIMEOUT_MS));
+    CHECK_EQ(0, sorter.getUnitCount(0));
+    CHECK_EQ(SpikeSorter::NO_UNIT, sorter.sort(0, snippets.snippets[0].data()));
+}
+
+TEST(sameSpikesAreSortedTheSameAfterReset) {
+    const SyntheticSnippets snippets(2000, 4);
+    SpikeSorter sorter(SNIPPET_LENGTH, 1);
+
+    const std::vector<int> first = sortAll(sorter, snippets);
+    sorter.reset(SNIPPET_LENGTH, 1);
+    const std::vector<int> second = sortAll(sorter, snippets);
+    for (size_t i = 0; i < first.size(); i++) CHECK_EQ(first[i], second[i]);
+}
+
+TEST(detectorSortsSpikesCutOffAtMaxWidth) {
+    // spikes that are cut off at max width (2 ms) are sorted later than the ones that end on their own, their whole
+    // snippet still has to be in the history by then
+    constexpr int sampleRate = 48000;
+    constexpr int frameCount = sampleRate * 60;
+    std::mt19937 rng(5);
+    std::normal_distribution<float> noise(0, 50);
+    std::uniform_real_distribution<float> uniform(0, 1);
+    std::vector<short> samples(frameCount);
+    for (auto &sample : samples) sample = static_cast<short>(noise(rng));
+    std::vector<std::pair<long long, int>> truth;
+    for (long long peak = sampleRate / 2; peak < frameCount - sampleRate / 100; peak += 480 + uniform(rng) * 480) {
+        const int unit = uniform(rng) < 0.5f ? 0 : 1;
+        for (int k = -24; k < 200; k++) {
+            const float t = k / 48.0f;
+            // sharp peak followed by a plateau below the threshold that lasts longer than max spike width
+            float value = 3000 * std::exp(-t * t / (2 * 0.05f * 0.05f)) + (k >= 0 && k < 150 ? 300 : 0);
+            // units differ by a second bump 0.5 ms after the peak
+            if (unit == 1) value += 1000 * std::exp(-(t - 0.5f) * (t - 0.5f) / (2 * 0.1f * 0.1f));
+            samples[peak + k] = static_cast<short>(samples[peak + k] + value);
+        }
+        truth.push_back({peak, unit});
+    }
+
+    SpikeDetector detector(sampleRate, 1);
+    detector.setParameters(10.0f, SpikeDetector::DEFAULT_REFRACTORY_PERIOD_SECONDS);
+    detector.setSorting(true);
+    std::vector<int> units(truth.size(), SpikeSorter::NO_UNIT);
+    std::vector<int> truthUnits;
+    for (const auto &t : truth) truthUnits.push_back(t.second);
+    SpikeEvent events[256];
+    for (long long first = 0; first < frameCount; first += 1024) {
+        short *batch = samples.data() + first;
+        const int count = static_cast<int>(std::min<long long>(1024, frameCount - first));
+        detector.process(&batch, &count, 1);
+        int eventCount;
+        while ((eventCount = detector.readEvents(SpikeDetector::CONSUMER_RECORDER, events, 256)) > 0) {
+            for (int i = 0; i < eventCount; i++) {
+                const auto it = std::lower_bound(truth.begin(), truth.end(),
+                                                 std::make_pair(events[i].frameIndex - 4, 0));
+                if (it != truth.end() && it->first <= events[i].frameIndex + 4) units[it - truth.begin()] =
+                        events[i].unit;
+            }
+        }
+        detector.readEvents(SpikeDetector::CONSUMER_RENDERER, events, 256);
+    }
+
+    int sortedCount;
+    // spikes found during the warm up and training are skipped
+    const double correct = accuracy(units, truthUnits, static_cast<int>(truth.size()) / 4, &sortedCount);
+    printf("sorted %d of %d spikes, %.1f%% correctly\n", sortedCount, static_cast<int>(truth.size()), correct);
+    CHECK(sortedCount > static_cast<int>(truth.size()) / 2);
+    CHECK(correct > 95.0);
+}
+
+int main() {
+    return backyardbrains::test::runAllTests();
+}
@@ -0,0 +1,93 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_TESTUTILS_H
+#define SPIKE_RECORDER_ANDROID_TESTUTILS_H
+
+#include <chrono>
+#include <cmath>
+#include <cstdio>
+#include <cstdlib>
+#include <vector>
+
+namespace backyardbrains {
+
+    namespace test {
+
+        typedef void (*TestFunction)();
+
+        struct TestCase {
+            const char *name;
+            TestFunction function;
+        };
+
+        inline std::vector<TestCase> &testCases() {
+            static std::vector<TestCase> cases;
+            return cases;
+        }
+
+        struct TestRegistration {
+            TestRegistration(const char *name, TestFunction function) {
+                testCases().push_back({name, function});
+            }
+        };
+
+        /**
+         * Runs all the tests defined with TEST in the order they are defined. Failed check terminates the test binary
+         * with non-zero exit code.
+         */
+        inline int runAllTests() {
+            for (const TestCase &testCase : testCases()) {
+                printf("[ RUN  ] %s\n", testCase.name);
+                testCase.function();
+                printf("[  OK  ] %s\n", testCase.name);
+            }
+            printf("%d tests passed\n", static_cast<int>(testCases().size()));
+            return 0;
+        }
+
+        /**
+         * Returns milliseconds elapsed since specified start.
+         */
+        inline double elapsedMs(std::chrono::steady_clock::time_point start) {
+            return std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - start).count();
+        }
+    }
+}
+
+#define TEST(name) \
+    static void name(); \
+    static backyardbrains::test::TestRegistration name##Registration(#name, name); \
+    static void name()
+
+#define CHECK(condition) \
+    do { \
+        if (!(condition)) { \
+            printf("%s:%d: check failed: %s\n", __FILE__, __LINE__, #condition); \
+            exit(1); \
+        } \
+    } while (false)
+
+#define CHECK_EQ(expected, actual) \
+    do { \
+        const auto e = (expected); \
+        const auto a = (actual); \
+        if (!(e == a)) { \
+            printf("%s:%d: expected %s == %s, was %lld != %lld\n", __FILE__, __LINE__, #expected, #actual, \
+                   static_cast<long long>(e), static_cast<long long>(a)); \
+            exit(1); \
+        } \
+    } while (false)
+
+#define CHECK_NEAR(expected, actual, tolerance) \
+    do { \
+        const double e = (expected); \
+        const double a = (actual); \
+        if (!(std::fabs(e - a) <= (tolerance))) { \
+            printf("%s:%d: expected %s ~ %s, was %g != %g\n", __FILE__, __LINE__, #expected, #actual, e, a); \
+            exit(1); \
+        } \
+    } while (false)
+
+#endif //SPIKE_RECORDER_ANDROID_TESTUTILS_H
@@ -0,0 +1,94 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_TESTWAVFILE_H
+#define SPIKE_RECORDER_ANDROID_TESTWAVFILE_H
+
+#include <algorithm>
+#include <cstdint>
+#include <cstdio>
+#include <cstdlib>
+#include <functional>
+#include <string>
+#include <vector>
+
+namespace backyardbrains {
+
+    namespace test {
+
+        /**
+         * 16-bit PCM WAV file in the temporary directory whose samples are provided by the specified generator. File is
+         * written in blocks so it can be longer than available memory and is deleted once the object is destroyed.
+         */
+        class TestWavFile {
+        public:
+            typedef std::function<short(long long frame, int channel)> SampleGenerator;
+
+            TestWavFile(const std::string &name, int sampleRate, int channelCount, long long frameCount,
+                        const SampleGenerator &generator) {
+                const char *tmpDir = std::getenv("TMPDIR");
+                path = std::string(tmpDir != nullptr ? tmpDir : "/tmp") + "/" + name + ".wav";
+
+                FILE *file = fopen(path.c_str(), "wb");
+                if (file == nullptr) {
+                    printf("Unable to create %s\n", path.c_str());
+                    exit(1);
+                }
+                const auto dataSize = static_cast<uint32_t>(frameCount * channelCount * 2);
+                fwrite("RIFF", 1, 4, file);
+                write32(file, 36 + dataSize);
+                fwrite("WAVEfmt ", 1, 8, file);
+                write32(file, 16);
+                write16(file, 1); // PCM
+                write16(file, static_cast<uint16_t>(channelCount));
+                write32(file, static_cast<uint32_t>(sampleRate));
+                write32(file, static_cast<uint32_t>(sampleRate * channelCount * 2));
+                write16(file, static_cast<uint16_t>(channelCount * 2));
+                write16(file, 16);
+                fwrite("data", 1, 4, file);
+                write32(file, dataSize);
+
+                std::vector<short> block(static_cast<size_t>(BLOCK_FRAME_COUNT * channelCount));
+                for (long long first = 0; first < frameCount; first += BLOCK_FRAME_COUNT) {
+                    const auto count = static_cast<int>(std::min<long long>(BLOCK_FRAME_COUNT, frameCount - first));
+                    for (int i = 0; i < count; i++) {
+                        for (int ch = 0; ch < channelCount; ch++) {
+                            block[i * channelCount + ch] = generator(first + i, ch);
+                        }
+                    }
+                    fwrite(block.data(), 2, static_cast<size_t>(count * channelCount), file);
+                }
+                fclose(file);
+            }
+
+            ~TestWavFile() {
+                remove(path.c_str());
+            }
+
+            TestWavFile(const TestWavFile &) = delete;
+
+            TestWavFile &operator=(const TestWavFile &) = delete;
+
+            const char *getPath() const {
+                return path.c_str();
+            }
+
+        private:
+            static constexpr int BLOCK_FRAME_COUNT = 65536;
+
+            // WAV files are little-endian, same as all the hosts tests are run on
+            static void write32(FILE *file, uint32_t value) {
+                fwrite(&value, 4, 1, file);
+            }
+
+            static void write16(FILE *file, uint16_t value) {
+                fwrite(&value, 2, 1, file);
+            }
+
+            std::string path;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_TESTWAVFILE_H
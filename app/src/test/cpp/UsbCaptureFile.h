@@ -0,0 +1,156 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_USBCAPTUREFILE_H
+#define SPIKE_RECORDER_ANDROID_USBCAPTUREFILE_H
+
+#include <cstdint>
+#include <cstdio>
+#include <string>
+#include <vector>
+
+namespace backyardbrains {
+
+    namespace test {
+
+        /**
+         * Reads USB capture files written by UsbCaptureWriter one record at a time, same as UsbCaptureReader does on
+         * the JVM, so captured device traffic can be pushed through the native decoder on the host.
+         *
+         * Header holds magic number, version, format, packet size and capture start time, all big-endian as written
+         * by DataOutputStream. Each record holds microseconds elapsed since the previous record and length of the
+         * data as variable-length integers, followed by the data.
+         */
+        class UsbCaptureFile {
+        public:
+            // Captured data is continuous sample stream (serial devices)
+            static constexpr int FORMAT_STREAM = 0;
+            // Captured data are HID packets of fixed size, including the packet headers (HID devices)
+            static constexpr int FORMAT_HID_PACKETS = 1;
+
+            explicit UsbCaptureFile(const std::string &path) {
+                file = fopen(path.c_str(), "rb");
+                if (file == nullptr) return;
+
+                unsigned char header[HEADER_SIZE];
+                if (fread(header, 1, HEADER_SIZE, file) != HEADER_SIZE || readBigEndian(header, 4) != MAGIC ||
+                    header[4] != VERSION) {
+                    fclose(file);
+                    file = nullptr;
+                    return;
+                }
+                format = header[5];
+                packetSize = static_cast<int>(readBigEndian(header + 6, 2));
+                startTimeMillis = static_cast<long long>(readBigEndian(header + 8, 8));
+            }
+
+            ~UsbCaptureFile() {
+                if (file != nullptr) fclose(file);
+            }
+
+            UsbCaptureFile(const UsbCaptureFile &) = delete;
+
+            UsbCaptureFile &operator=(const UsbCaptureFile &) = delete;
+
+            /**
+             * Whether file exists and has a valid header.
+             */
+            bool isValid() const {
+                return file != nullptr;
+            }
+
+            /**
+             * Format of the captured data, one of FORMAT_STREAM or FORMAT_HID_PACKETS.
+             */
+            int getFormat() const {
+                return format;
+            }
+
+            /**
+             * Size of the single HID packet if format is FORMAT_HID_PACKETS.
+             */
+            int getPacketSize() const {
+                return packetSize;
+            }
+
+            /**
+             * Time when capture was started in milliseconds since epoch.
+             */
+            long long getStartTimeMillis() const {
+                return startTimeMillis;
+            }
+
+            /**
+             * Reads next record. Returns false if end of file has been reached or the last record is truncated.
+             */
+            bool next() {
+                if (file == nullptr) return false;
+
+                long long deltaMicros, length;
+                if (!readVarLong(deltaMicros) || !readVarLong(length)) return false;
+                data.resize(static_cast<size_t>(length));
+                if (fread(data.data(), 1, data.size(), file) != data.size()) return false;
+                timestampMicros += deltaMicros;
+
+                return true;
+            }
+
+            /**
+             * Data of the last read record.
+             */
+            const unsigned char *getData() const {
+                return data.data();
+            }
+
+            /**
+             * Number of bytes of the last read record.
+             */
+            int getLength() const {
+                return static_cast<int>(data.size());
+            }
+
+            /**
+             * Arrival time of the last read record in microseconds since the first record.
+             */
+            long long getTimestampMicros() const {
+                return timestampMicros;
+            }
+
+        private:
+            static constexpr uint32_t MAGIC = 0x42594255; // "BYBU"
+            static constexpr int VERSION = 1;
+            static constexpr size_t HEADER_SIZE = 16;
+
+            static uint64_t readBigEndian(const unsigned char *bytes, int count) {
+                uint64_t value = 0;
+                for (int i = 0; i < count; i++) value = (value << 8u) | bytes[i];
+                return value;
+            }
+
+            // Reads value written 7 bits at a time, most significant bit of each byte signals there are more bytes
+            bool readVarLong(long long &outValue) {
+                uint64_t value = 0;
+                int shift = 0;
+                int b;
+                do {
+                    if ((b = fgetc(file)) == EOF) return false;
+                    value |= static_cast<uint64_t>(b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                outValue = static_cast<long long>(value);
+
+                return true;
+            }
+
+            FILE *file = nullptr;
+            int format = FORMAT_STREAM;
+            int packetSize = 0;
+            long long startTimeMillis = 0;
+            std::vector<unsigned char> data;
+            long long timestampMicros = 0;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_USBCAPTUREFILE_H
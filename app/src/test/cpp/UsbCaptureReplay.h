@@ -0,0 +1,112 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_USBCAPTUREREPLAY_H
+#define SPIKE_RECORDER_ANDROID_USBCAPTUREREPLAY_H
+
+#include <chrono>
+#include <string>
+#include <utility>
+#include <vector>
+
+#include "SampleStreamProcessor.h"
+#include "UsbCaptureFile.h"
+#include "UsbLinkTelemetry.h"
+#include "UsbPacketRing.h"
+
+namespace backyardbrains {
+
+    namespace test {
+
+        /**
+         * Samples, events and replies decoded from a USB capture file.
+         */
+        struct DecodedCapture {
+            std::vector<std::vector<short>> samples;
+            // Frame index and label of every event
+            std::vector<std::pair<long long, std::string>> events;
+            std::vector<int> hardwareTypes;
+            // Number of records and bytes read from the capture
+            long long recordCount = 0;
+            long long byteCount = 0;
+            // Time between the first and the last record when capture was made
+            long long capturedMicros = 0;
+            // Time it took to decode every record
+            std::vector<double> decodeMicros;
+        };
+
+        /**
+         * Replays captured records through the same native path the app uses. HID packets are written to the packet
+         * ring and decoded from it one write at a time, same as processing thread does when the ring is fed by
+         * UsbPacketPump, and stream bytes are passed to the decoder directly. Records are replayed as fast as
+         * possible. Returns false if capture file is not valid.
+         */
+        inline bool replayCapture(const std::string &path, int channelCount, DecodedCapture &out,
+                                  backyardbrains::utils::UsbLinkTelemetry *telemetry) {
+            class Listener : public backyardbrains::utils::OnEventListenerListener {
+            public:
+                explicit Listener(std::vector<int> &hardwareTypes) : hardwareTypes(hardwareTypes) {}
+
+                void onSpikerBoxHardwareTypeDetected(int hardwareType) override {
+                    hardwareTypes.push_back(hardwareType);
+                }
+
+                void onMaxSampleRateAndNumOfChannelsReply(int maxSampleRate, int channelCount) override {}
+
+                void onExpansionBoardTypeDetection(int expansionBoardType) override {}
+
+            private:
+                std::vector<int> &hardwareTypes;
+            };
+
+            UsbCaptureFile capture(path);
+            if (!capture.isValid()) return false;
+
+            Listener listener(out.hardwareTypes);
+            backyardbrains::processing::SampleStreamProcessor processor(&listener, telemetry);
+            // same as the ring used by the app
+            backyardbrains::utils::UsbPacketRing ring(1 << 16, telemetry);
+            const bool hid = capture.getFormat() == UsbCaptureFile::FORMAT_HID_PACKETS;
+
+            out.samples.assign(static_cast<size_t>(channelCount), std::vector<short>());
+            std::vector<unsigned char> data(1 << 16);
+            std::vector<short *> samples(static_cast<size_t>(channelCount));
+            std::vector<int> sampleCounts(static_cast<size_t>(channelCount));
+            int eventIndices[100];
+            std::string eventLabels[100];
+            int eventCount;
+            while (capture.next()) {
+                const auto start = std::chrono::steady_clock::now();
+                const unsigned char *bytes = capture.getData();
+                int length = capture.getLength();
+                if (hid) {
+                    ring.writeHidPackets(bytes, length, capture.getPacketSize());
+                    length = ring.read(data.data(), static_cast<int>(data.size()));
+                    bytes = data.data();
+                }
+                processor.process(bytes, length, samples.data(), sampleCounts.data(), eventIndices, eventLabels,
+                                  eventCount, channelCount);
+                if (hid) ring.markProcessed();
+                out.decodeMicros.push_back(
+                        std::chrono::duration<double, std::micro>(std::chrono::steady_clock::now() - start).count());
+
+                const auto firstFrame = static_cast<long long>(out.samples[0].size());
+                for (int i = 0; i < eventCount; i++) {
+                    out.events.emplace_back(firstFrame + eventIndices[i], eventLabels[i]);
+                }
+                for (int ch = 0; ch < channelCount; ch++) {
+                    out.samples[ch].insert(out.samples[ch].end(), samples[ch], samples[ch] + sampleCounts[ch]);
+                    delete[] samples[ch];
+                }
+                out.recordCount++;
+                out.byteCount += capture.getLength();
+                out.capturedMicros = capture.getTimestampMicros();
+            }
+
+            return true;
+        }
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_USBCAPTUREREPLAY_H
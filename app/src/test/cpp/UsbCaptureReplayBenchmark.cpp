@@ -0,0 +1,75 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <algorithm>
+#include <string>
+#include <vector>
+
+#include "TestUtils.h"
+#include "UsbCaptureFile.h"
+#include "UsbCaptureReplay.h"
+#include "UsbLinkTelemetry.h"
+
+using backyardbrains::test::DecodedCapture;
+using backyardbrains::test::UsbCaptureFile;
+using backyardbrains::utils::UsbLinkTelemetry;
+
+namespace {
+
+    double percentile(std::vector<double> values, double p) {
+        if (values.empty()) return 0;
+        std::sort(values.begin(), values.end());
+        return values[static_cast<size_t>(p * (values.size() - 1))];
+    }
+}
+
+/**
+ * Measures throughput of the native decoder and time it takes to decode single record when USB capture file is
+ * replayed through it as fast as possible. Path to the capture file recorded with a real device, number of its channels
+ * and number of times it should be replayed can be passed as the first, second and third argument. Default is the HID
+ * fixture used by UsbCaptureReplayTest.
+ */
+int main(int argc, char **argv) {
+    const std::string path = argc > 1 ? argv[1] : std::string(FIXTURES_DIR) + "/hid_capture.bin";
+    const int channelCount = argc > 2 ? atoi(argv[2]) : 2;
+    const int repeatCount = argc > 3 ? atoi(argv[3]) : 2000;
+
+    const UsbCaptureFile capture(path);
+    if (!capture.isValid()) {
+        printf("%s is not a valid USB capture file\n", path.c_str());
+        return 1;
+    }
+
+    long long recordCount = 0, byteCount = 0, frameCount = 0, capturedMicros = 0;
+    std::vector<double> decodeMicros;
+    long long values[UsbLinkTelemetry::VALUE_COUNT];
+    const auto start = std::chrono::steady_clock::now();
+    for (int i = 0; i < repeatCount; i++) {
+        DecodedCapture decoded;
+        UsbLinkTelemetry telemetry;
+        if (!backyardbrains::test::replayCapture(path, channelCount, decoded, &telemetry)) return 1;
+        telemetry.getValues(values);
+
+        recordCount += decoded.recordCount;
+        byteCount += decoded.byteCount;
+        frameCount += values[UsbLinkTelemetry::FRAMES_DECODED];
+        capturedMicros += decoded.capturedMicros;
+        decodeMicros.insert(decodeMicros.end(), decoded.decodeMicros.begin(), decoded.decodeMicros.end());
+    }
+    const double elapsedMs = backyardbrains::test::elapsedMs(start);
+
+    printf("%s (%s, %d channels) replayed %d times\n", path.c_str(),
+           capture.getFormat() == UsbCaptureFile::FORMAT_HID_PACKETS ? "HID packets" : "stream", channelCount,
+           repeatCount);
+    printf("%lld records, %.1f MB in %.1f ms: %.1f MB/s, %.0f frames/s, %.0fx real time\n", recordCount,
+           byteCount / 1048576.0, elapsedMs, byteCount / 1048576.0 * 1000.0 / elapsedMs,
+           frameCount * 1000.0 / elapsedMs, capturedMicros / 1000.0 / elapsedMs);
+    printf("record decode latency p50 %.2f us, p99 %.2f us, max %.2f us\n", percentile(decodeMicros, 0.5),
+           percentile(decodeMicros, 0.99), percentile(decodeMicros, 1.0));
+    printf("last replay: frames decoded %lld, dropped %lld, resyncs %lld, invalid packets %lld\n",
+           values[UsbLinkTelemetry::FRAMES_DECODED], values[UsbLinkTelemetry::FRAMES_DROPPED],
+           values[UsbLinkTelemetry::RESYNCS], values[UsbLinkTelemetry::INVALID_PACKETS]);
+
+    return 0;
+}
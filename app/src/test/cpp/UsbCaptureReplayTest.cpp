@@ -0,0 +1,151 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <cstdio>
+#include <cstdlib>
+#include <string>
+#include <vector>
+
+#include "TestUtils.h"
+#include "UsbCaptureFile.h"
+#include "UsbCaptureReplay.h"
+#include "UsbLinkTelemetry.h"
+
+using backyardbrains::test::DecodedCapture;
+using backyardbrains::test::UsbCaptureFile;
+using backyardbrains::utils::UsbLinkTelemetry;
+
+/**
+ * Fixtures in the fixtures directory were written by UsbCaptureWriter and hold the same 2 channel SpikerBox sample
+ * stream: 2000 frames of a saw-tooth (10-bit value of frame i is i % 1024 on the first channel and 2i % 1024 on the
+ * second one), preceded by the "HWT:MUSCLESB;" reply and with the "EVNT:3;" message before frame 500. Least significant
+ * byte of the second sample of frame 1200 is missing.
+ *
+ * hid_capture.bin packs the stream into 64 byte HID packets (1 to 3 per record) and drops the 45 bytes that don't fill
+ * the last packet. Packet 40 has a wrong report ID. stream_capture.bin holds the stream as received from a serial
+ * device, in records of 1 to 256 bytes.
+ */
+namespace {
+
+    constexpr int CHANNEL_COUNT = 2;
+    // Same as SampleStreamUtils::MUSCLE_PRO_HARDWARE, reported for the "HWT:MUSCLESB;" reply
+    constexpr int MUSCLE_PRO_HARDWARE = 3;
+
+    std::string fixture(const char *name) {
+        return std::string(FIXTURES_DIR) + "/" + name;
+    }
+
+    std::vector<long long> replay(const char *name, DecodedCapture &out) {
+        UsbLinkTelemetry telemetry;
+        CHECK(backyardbrains::test::replayCapture(fixture(name), CHANNEL_COUNT, out, &telemetry));
+        std::vector<long long> values(UsbLinkTelemetry::VALUE_COUNT);
+        telemetry.getValues(values.data());
+        return values;
+    }
+
+    // Checks that first frameCount frames are decoded exactly as the saw-tooth the fixtures are made of, including the
+    // offset removal decoder does with the running average of all the samples
+    void checkSawTooth(const DecodedCapture &capture, int frameCount) {
+        double average = 0;
+        for (int i = 0; i < frameCount; i++) {
+            for (int ch = 0; ch < CHANNEL_COUNT; ch++) {
+                auto sample = static_cast<short>(((i * (ch + 1)) % 1024 - 512) * 30);
+                average = 0.0001 * sample + 0.9999 * average;
+                sample = static_cast<short>(sample - average);
+                CHECK_EQ(sample, capture.samples[ch][i]);
+            }
+        }
+    }
+}
+
+TEST(readsCaptureHeaderAndRecords) {
+    UsbCaptureFile hid(fixture("hid_capture.bin"));
+    CHECK(hid.isValid());
+    CHECK_EQ(UsbCaptureFile::FORMAT_HID_PACKETS, hid.getFormat());
+    CHECK_EQ(64, hid.getPacketSize());
+    CHECK(hid.getStartTimeMillis() > 0);
+
+    long long prevTimestamp = 0;
+    int recordCount = 0, byteCount = 0;
+    while (hid.next()) {
+        CHECK_EQ(0, hid.getLength() % hid.getPacketSize());
+        CHECK(hid.getTimestampMicros() >= prevTimestamp);
+        prevTimestamp = hid.getTimestampMicros();
+        recordCount++;
+        byteCount += hid.getLength();
+    }
+    CHECK_EQ(66, recordCount);
+    // 129 packets of 64 bytes
+    CHECK_EQ(129 * 64, byteCount);
+
+    UsbCaptureFile stream(fixture("stream_capture.bin"));
+    CHECK(stream.isValid());
+    CHECK_EQ(UsbCaptureFile::FORMAT_STREAM, stream.getFormat());
+}
+
+TEST(invalidFileIsRejected) {
+    CHECK(!UsbCaptureFile(fixture("missing.bin")).isValid());
+
+    // sample stream without the capture header
+    const char *tmpDir = std::getenv("TMPDIR");
+    const std::string path = std::string(tmpDir != nullptr ? tmpDir : "/tmp") + "/usb_capture_without_header.bin";
+    FILE *file = fopen(path.c_str(), "wb");
+    CHECK(file != nullptr);
+    const unsigned char frames[] = {0x81, 0x10, 0x02, 0x20, 0x81, 0x11, 0x02, 0x21, 0x81, 0x12, 0x02, 0x22,
+                                    0x81, 0x13, 0x02, 0x23};
+    fwrite(frames, 1, sizeof(frames), file);
+    fclose(file);
+    CHECK(!UsbCaptureFile(path).isValid());
+    remove(path.c_str());
+}
+
+TEST(streamCaptureDecodesAsBefore) {
+    DecodedCapture capture;
+    const std::vector<long long> values = replay("stream_capture.bin", capture);
+
+    checkSawTooth(capture, 1200);
+    // frame 1200 is dropped after its first sample is decoded
+    CHECK_EQ(1999, static_cast<int>(capture.samples[0].size()));
+    CHECK_EQ(1998, static_cast<int>(capture.samples[1].size()));
+    CHECK_EQ(1, static_cast<int>(capture.events.size()));
+    CHECK_EQ(500, capture.events[0].first);
+    CHECK(capture.events[0].second == "3");
+    CHECK_EQ(1, static_cast<int>(capture.hardwareTypes.size()));
+    CHECK_EQ(MUSCLE_PRO_HARDWARE, capture.hardwareTypes[0]);
+
+    CHECK_EQ(1998, values[UsbLinkTelemetry::FRAMES_DECODED]);
+    CHECK_EQ(1, values[UsbLinkTelemetry::FRAMES_DROPPED]);
+    CHECK_EQ(1, values[UsbLinkTelemetry::RESYNCS]);
+    CHECK_EQ(2, values[UsbLinkTelemetry::ESCAPE_MESSAGES]);
+    CHECK_EQ(3, values[UsbLinkTelemetry::BYTES_DISCARDED]);
+    CHECK_EQ(0, values[UsbLinkTelemetry::INVALID_PACKETS]);
+}
+
+TEST(hidCaptureDecodesAsBefore) {
+    DecodedCapture capture;
+    const std::vector<long long> values = replay("hid_capture.bin", capture);
+
+    // packet 40 carries frames after frame 600
+    checkSawTooth(capture, 600);
+    CHECK_EQ(1972, static_cast<int>(capture.samples[0].size()));
+    CHECK_EQ(1970, static_cast<int>(capture.samples[1].size()));
+    CHECK_EQ(1, static_cast<int>(capture.events.size()));
+    CHECK_EQ(500, capture.events[0].first);
+    CHECK(capture.events[0].second == "3");
+    CHECK_EQ(1, static_cast<int>(capture.hardwareTypes.size()));
+    CHECK_EQ(MUSCLE_PRO_HARDWARE, capture.hardwareTypes[0]);
+
+    CHECK_EQ(66, values[UsbLinkTelemetry::PACKETS_RECEIVED]);
+    CHECK_EQ(1, values[UsbLinkTelemetry::INVALID_PACKETS]);
+    CHECK_EQ(0, values[UsbLinkTelemetry::RING_OVERRUNS]);
+    CHECK_EQ(1970, values[UsbLinkTelemetry::FRAMES_DECODED]);
+    CHECK_EQ(1, values[UsbLinkTelemetry::FRAMES_DROPPED]);
+    CHECK_EQ(2, values[UsbLinkTelemetry::RESYNCS]);
+    CHECK_EQ(2, values[UsbLinkTelemetry::ESCAPE_MESSAGES]);
+    CHECK_EQ(5, values[UsbLinkTelemetry::BYTES_DISCARDED]);
+}
+
+int main() {
+    return backyardbrains::test::runAllTests();
+}
@@ -0,0 +1,109 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <thread>
+#include <vector>
+
+#include "TestUtils.h"
+#include "UsbLinkTelemetry.h"
+
+using backyardbrains::utils::UsbLinkTelemetry;
+
+namespace {
+
+    std::vector<long long> valuesOf(UsbLinkTelemetry &telemetry) {
+        std::vector<long long> values(UsbLinkTelemetry::VALUE_COUNT);
+        telemetry.getValues(values.data());
+        return values;
+    }
+}
+
+TEST(accumulatesDecoderStats) {
+    UsbLinkTelemetry telemetry;
+    telemetry.addDecoderStats(100, 1, 2, 3, 4);
+    telemetry.addDecoderStats(50, 1, 0, 1, 6);
+
+    std::vector<long long> values = valuesOf(telemetry);
+    CHECK_EQ(150, values[UsbLinkTelemetry::FRAMES_DECODED]);
+    CHECK_EQ(2, values[UsbLinkTelemetry::FRAMES_DROPPED]);
+    CHECK_EQ(2, values[UsbLinkTelemetry::RESYNCS]);
+    CHECK_EQ(4, values[UsbLinkTelemetry::ESCAPE_MESSAGES]);
+    CHECK_EQ(10, values[UsbLinkTelemetry::BYTES_DISCARDED]);
+}
+
+TEST(countsPacketsAndInterArrivalTimes) {
+    UsbLinkTelemetry telemetry;
+    telemetry.onPacketReceived();
+    std::this_thread::sleep_for(std::chrono::milliseconds(3));
+    telemetry.onPacketReceived();
+
+    std::vector<long long> values = valuesOf(telemetry);
+    CHECK_EQ(2, values[UsbLinkTelemetry::PACKETS_RECEIVED]);
+    // first packet has nothing to be compared to, second one arrived at least 3 ms later so it can't fall into any
+    // of the buckets that end below 4 ms
+    long long histogramCount = 0;
+    for (int i = 0; i < UsbLinkTelemetry::INTER_ARRIVAL_BUCKET_COUNT; i++) {
+        const long long count = values[UsbLinkTelemetry::INTER_ARRIVAL_HISTOGRAM + i];
+        histogramCount += count;
+        if (UsbLinkTelemetry::INTER_ARRIVAL_FIRST_BUCKET_NANOS << i <= 3000000LL) CHECK_EQ(0, count);
+    }
+    CHECK_EQ(1, histogramCount);
+}
+
+TEST(countsInvalidPacketsAndOverruns) {
+    UsbLinkTelemetry telemetry;
+    telemetry.onInvalidPacket();
+    telemetry.onRingOverrun();
+    telemetry.onRingOverrun();
+
+    std::vector<long long> values = valuesOf(telemetry);
+    CHECK_EQ(1, values[UsbLinkTelemetry::INVALID_PACKETS]);
+    CHECK_EQ(2, values[UsbLinkTelemetry::RING_OVERRUNS]);
+}
+
+TEST(tracksLatencySumAndMaxFromConcurrentThreads) {
+    UsbLinkTelemetry telemetry;
+    const int threadCount = 4;
+    const int latenciesPerThread = 10000;
+    std::vector<std::thread> threads;
+    for (int t = 0; t < threadCount; t++) {
+        threads.emplace_back([&telemetry, t] {
+            for (int i = 1; i <= latenciesPerThread; i++) telemetry.addLatency(i * threadCount + t);
+        });
+    }
+    for (auto &thread : threads) thread.join();
+
+    long long expectedSum = 0;
+    for (int t = 0; t < threadCount; t++) {
+        for (int i = 1; i <= latenciesPerThread; i++) expectedSum += i * threadCount + t;
+    }
+    std::vector<long long> values = valuesOf(telemetry);
+    CHECK_EQ(threadCount * latenciesPerThread, values[UsbLinkTelemetry::LATENCY_COUNT]);
+    CHECK_EQ(expectedSum, values[UsbLinkTelemetry::LATENCY_SUM_NANOS]);
+    CHECK_EQ(latenciesPerThread * threadCount + threadCount - 1, values[UsbLinkTelemetry::LATENCY_MAX_NANOS]);
+}
+
+TEST(resetClearsAllValues) {
+    UsbLinkTelemetry telemetry;
+    telemetry.addDecoderStats(1, 1, 1, 1, 1);
+    telemetry.onPacketReceived();
+    telemetry.onPacketReceived();
+    telemetry.onInvalidPacket();
+    telemetry.onRingOverrun();
+    telemetry.addLatency(1000);
+
+    telemetry.reset();
+
+    for (long long value : valuesOf(telemetry)) CHECK_EQ(0, value);
+    // first packet after reset has no previous packet to be compared to
+    telemetry.onPacketReceived();
+    std::vector<long long> values = valuesOf(telemetry);
+    for (int i = 0; i < UsbLinkTelemetry::INTER_ARRIVAL_BUCKET_COUNT; i++) {
+        CHECK_EQ(0, values[UsbLinkTelemetry::INTER_ARRIVAL_HISTOGRAM + i]);
+    }
+}
+
+int main() {
+    return backyardbrains::test::runAllTests();
+}
@@ -0,0 +1,99 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <string>
+#include <thread>
+
+#include "LoopbackHidSource.h"
+#include "SampleStreamProcessor.h"
+#include "TestUtils.h"
+#include "UsbLinkTelemetry.h"
+#include "UsbPacketRing.h"
+
+using backyardbrains::processing::SampleStreamProcessor;
+using backyardbrains::test::LoopbackHidSource;
+using backyardbrains::utils::OnEventListenerListener;
+using backyardbrains::utils::UsbLinkTelemetry;
+using backyardbrains::utils::UsbPacketRing;
+
+namespace {
+
+    // Same as the ring used by the app
+    const int RING_CAPACITY = 1 << 16;
+
+    class NoOpListener : public OnEventListenerListener {
+    public:
+        void onSpikerBoxHardwareTypeDetected(int hardwareType) override {}
+
+        void onMaxSampleRateAndNumOfChannelsReply(int maxSampleRate, int channelCount) override {}
+
+        void onExpansionBoardTypeDetection(int expansionBoardType) override {}
+    };
+
+    // Replays the source into the ring on one thread while processing thread decodes it, and prints packet rate and
+    // latency between writing a packet and having it decoded
+    void run(const char *name, const LoopbackHidSource &source, int channelCount, int packetsPerSecond) {
+        UsbLinkTelemetry telemetry;
+        UsbPacketRing ring(RING_CAPACITY, &telemetry);
+        NoOpListener listener;
+        SampleStreamProcessor processor(&listener, &telemetry);
+
+        std::atomic<bool> done{false};
+        const auto start = std::chrono::steady_clock::now();
+        std::thread producer([&] {
+            source.replay(ring, packetsPerSecond, packetsPerSecond == 0);
+            done = true;
+        });
+
+        unsigned char data[4096];
+        short *samples[10];
+        int sampleCounts[10];
+        int eventIndices[100];
+        std::string eventLabels[100];
+        int eventCount;
+        while (!done || ring.await(0) > 0) {
+            if (ring.await(10) == 0) continue;
+
+            const int length = ring.read(data, sizeof(data));
+            processor.process(data, length, samples, sampleCounts, eventIndices, eventLabels, eventCount,
+                              channelCount);
+            for (int i = 0; i < channelCount; i++) delete[] samples[i];
+            ring.markProcessed();
+        }
+        producer.join();
+        const double elapsedMs = backyardbrains::test::elapsedMs(start);
+
+        long long values[UsbLinkTelemetry::VALUE_COUNT];
+        telemetry.getValues(values);
+        const long long packetCount = values[UsbLinkTelemetry::PACKETS_RECEIVED];
+        const long long latencyCount = values[UsbLinkTelemetry::LATENCY_COUNT];
+        printf("%-24s %8lld packets in %7.1f ms: %9.0f packets/s, latency avg %.3f ms, max %.3f ms, "
+               "frames decoded %lld, dropped %lld, ring overruns %lld\n", name, packetCount, elapsedMs,
+               packetCount * 1000.0 / elapsedMs,
+               latencyCount > 0 ? values[UsbLinkTelemetry::LATENCY_SUM_NANOS] / 1e6 / latencyCount : 0.0,
+               values[UsbLinkTelemetry::LATENCY_MAX_NANOS] / 1e6, values[UsbLinkTelemetry::FRAMES_DECODED],
+               values[UsbLinkTelemetry::FRAMES_DROPPED], values[UsbLinkTelemetry::RING_OVERRUNS]);
+    }
+}
+
+/**
+ * Measures packets per second and end-to-end latency of the native HID read path. First run replays packets as fast
+ * as the processing thread can take them, second one replays them at the rate of a 4 channel SpikerBox Pro sampling
+ * at 10 kHz.
+ */
+int main(int argc, char **argv) {
+    const int seconds = argc > 1 ? atoi(argv[1]) : 2;
+
+    const int channelCount = 4;
+    const int sampleRate = 10000;
+    // 2 bytes per sample, 62 bytes per packet
+    const int packetsPerSecond = sampleRate * channelCount * 2 / LoopbackHidSource::HID_PAYLOAD_SIZE;
+    const LoopbackHidSource maxRateSource(sampleRate * seconds * 20, channelCount);
+    const LoopbackHidSource realTimeSource(sampleRate * seconds, channelCount);
+
+    run("max rate", maxRateSource, channelCount, 0);
+    run("real time (4ch, 10 kHz)", realTimeSource, channelCount, packetsPerSecond);
+
+    return 0;
+}
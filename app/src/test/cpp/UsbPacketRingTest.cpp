@@ -0,0 +1,213 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <string>
+#include <thread>
+
+#include "LoopbackHidSource.h"
+#include "SampleStreamProcessor.h"
+#include "TestUtils.h"
+#include "UsbLinkTelemetry.h"
+#include "UsbPacketRing.h"
+
+using backyardbrains::processing::SampleStreamProcessor;
+using backyardbrains::test::LoopbackHidSource;
+using backyardbrains::utils::OnEventListenerListener;
+using backyardbrains::utils::UsbLinkTelemetry;
+using backyardbrains::utils::UsbPacketRing;
+
+namespace {
+
+    const int PACKET_SIZE = LoopbackHidSource::HID_PACKET_SIZE;
+    const int PAYLOAD_SIZE = LoopbackHidSource::HID_PAYLOAD_SIZE;
+
+    class NoOpListener : public OnEventListenerListener {
+    public:
+        void onSpikerBoxHardwareTypeDetected(int hardwareType) override {}
+
+        void onMaxSampleRateAndNumOfChannelsReply(int maxSampleRate, int channelCount) override {}
+
+        void onExpansionBoardTypeDetection(int expansionBoardType) override {}
+    };
+
+    // Creates packetCount valid HID packets whose payload bytes are consecutive numbers starting at first
+    std::vector<unsigned char> createPackets(int packetCount, int first) {
+        std::vector<unsigned char> packets(static_cast<size_t>(packetCount * PACKET_SIZE));
+        for (int p = 0; p < packetCount; p++) {
+            packets[p * PACKET_SIZE] = 63;
+            packets[p * PACKET_SIZE + 1] = PAYLOAD_SIZE;
+            for (int i = 0; i < PAYLOAD_SIZE; i++) {
+                packets[p * PACKET_SIZE + 2 + i] = static_cast<unsigned char>(first + p * PAYLOAD_SIZE + i);
+            }
+        }
+        return packets;
+    }
+
+    std::vector<long long> valuesOf(UsbLinkTelemetry &telemetry) {
+        std::vector<long long> values(UsbLinkTelemetry::VALUE_COUNT);
+        telemetry.getValues(values.data());
+        return values;
+    }
+}
+
+TEST(stripsHeadersAndSkipsInvalidPackets) {
+    UsbLinkTelemetry telemetry;
+    UsbPacketRing ring(1024, &telemetry);
+    std::vector<unsigned char> packets = createPackets(3, 0);
+    // wrong report ID
+    packets[PACKET_SIZE] = 0;
+
+    CHECK_EQ(2 * PAYLOAD_SIZE, ring.writeHidPackets(packets.data(), static_cast<int>(packets.size()), PACKET_SIZE));
+
+    unsigned char out[1024];
+    CHECK_EQ(2 * PAYLOAD_SIZE, ring.read(out, sizeof(out)));
+    for (int i = 0; i < PAYLOAD_SIZE; i++) {
+        CHECK_EQ(i, out[i]);
+        CHECK_EQ(2 * PAYLOAD_SIZE + i, out[PAYLOAD_SIZE + i]);
+    }
+    std::vector<long long> values = valuesOf(telemetry);
+    // all three packets came with a single transfer
+    CHECK_EQ(1, values[UsbLinkTelemetry::PACKETS_RECEIVED]);
+    CHECK_EQ(1, values[UsbLinkTelemetry::INVALID_PACKETS]);
+}
+
+TEST(truncatedPacketIsInvalid) {
+    UsbLinkTelemetry telemetry;
+    UsbPacketRing ring(1024, &telemetry);
+    std::vector<unsigned char> packets = createPackets(1, 0);
+
+    CHECK_EQ(0, ring.writeHidPackets(packets.data(), 40, PACKET_SIZE));
+    CHECK_EQ(1, valuesOf(telemetry)[UsbLinkTelemetry::INVALID_PACKETS]);
+    CHECK_EQ(1024, ring.freeSpace());
+}
+
+TEST(wrapsAroundCapacity) {
+    UsbLinkTelemetry telemetry;
+    UsbPacketRing ring(256, &telemetry);
+    unsigned char out[256];
+    int expected = 0;
+    for (int p = 0; p < 100; p++) {
+        std::vector<unsigned char> packets = createPackets(1, p * PAYLOAD_SIZE);
+        CHECK_EQ(PAYLOAD_SIZE, ring.writeHidPackets(packets.data(), PACKET_SIZE, PACKET_SIZE));
+        // read in uneven chunks so reads also wrap at every possible position
+        int read;
+        while ((read = ring.read(out, 37)) > 0) {
+            for (int i = 0; i < read; i++) CHECK_EQ(expected++ & 0xFF, out[i]);
+        }
+    }
+    CHECK_EQ(100 * PAYLOAD_SIZE, expected);
+    CHECK_EQ(0, valuesOf(telemetry)[UsbLinkTelemetry::RING_OVERRUNS]);
+}
+
+TEST(dropsPacketsThatDontFit) {
+    UsbLinkTelemetry telemetry;
+    UsbPacketRing ring(128, &telemetry);
+    std::vector<unsigned char> packets = createPackets(3, 0);
+
+    CHECK_EQ(2 * PAYLOAD_SIZE, ring.writeHidPackets(packets.data(), static_cast<int>(packets.size()), PACKET_SIZE));
+    CHECK_EQ(128 - 2 * PAYLOAD_SIZE, ring.freeSpace());
+    CHECK_EQ(1, valuesOf(telemetry)[UsbLinkTelemetry::RING_OVERRUNS]);
+}
+
+TEST(measuresLatencyOnlyOfProcessedWrites) {
+    UsbLinkTelemetry telemetry;
+    UsbPacketRing ring(1024, &telemetry);
+    std::vector<unsigned char> packets = createPackets(1, 0);
+    ring.writeHidPackets(packets.data(), PACKET_SIZE, PACKET_SIZE);
+    std::this_thread::sleep_for(std::chrono::milliseconds(5));
+    ring.writeHidPackets(packets.data(), PACKET_SIZE, PACKET_SIZE);
+
+    // only the first write is completely read
+    unsigned char out[1024];
+    CHECK_EQ(PAYLOAD_SIZE + 1, ring.read(out, PAYLOAD_SIZE + 1));
+    ring.markProcessed();
+    std::vector<long long> values = valuesOf(telemetry);
+    CHECK_EQ(1, values[UsbLinkTelemetry::LATENCY_COUNT]);
+    CHECK(values[UsbLinkTelemetry::LATENCY_MAX_NANOS] >= 5000000LL);
+    CHECK_EQ(values[UsbLinkTelemetry::LATENCY_MAX_NANOS], values[UsbLinkTelemetry::LATENCY_SUM_NANOS]);
+
+    ring.read(out, sizeof(out));
+    ring.markProcessed();
+    CHECK_EQ(2, valuesOf(telemetry)[UsbLinkTelemetry::LATENCY_COUNT]);
+}
+
+TEST(awaitReturnsWhenDataArrivesOrTimesOut) {
+    UsbLinkTelemetry telemetry;
+    UsbPacketRing ring(1024, &telemetry);
+    auto start = std::chrono::steady_clock::now();
+    CHECK_EQ(0, ring.await(20));
+    CHECK(backyardbrains::test::elapsedMs(start) >= 19);
+
+    std::vector<unsigned char> packets = createPackets(1, 0);
+    std::thread producer([&] {
+        std::this_thread::sleep_for(std::chrono::milliseconds(5));
+        ring.writeHidPackets(packets.data(), PACKET_SIZE, PACKET_SIZE);
+    });
+    start = std::chrono::steady_clock::now();
+    CHECK_EQ(PAYLOAD_SIZE, ring.await(5000));
+    CHECK(backyardbrains::test::elapsedMs(start) < 1000);
+    producer.join();
+}
+
+TEST(resetDiscardsData) {
+    UsbLinkTelemetry telemetry;
+    UsbPacketRing ring(1024, &telemetry);
+    std::vector<unsigned char> packets = createPackets(2, 0);
+    ring.writeHidPackets(packets.data(), static_cast<int>(packets.size()), PACKET_SIZE);
+
+    ring.reset();
+
+    CHECK_EQ(1024, ring.freeSpace());
+    unsigned char out[16];
+    CHECK_EQ(0, ring.read(out, sizeof(out)));
+    // discarded data is never processed so its latency is not measured
+    ring.markProcessed();
+    CHECK_EQ(0, valuesOf(telemetry)[UsbLinkTelemetry::LATENCY_COUNT]);
+}
+
+TEST(loopbackReplayDecodesEveryFrame) {
+    const int channelCount = 2;
+    const LoopbackHidSource source(100000, channelCount);
+    UsbLinkTelemetry telemetry;
+    UsbPacketRing ring(4096, &telemetry);
+    NoOpListener listener;
+    SampleStreamProcessor processor(&listener, &telemetry);
+
+    std::atomic<bool> done{false};
+    std::thread producer([&] {
+        source.replay(ring, 0, true);
+        done = true;
+    });
+
+    unsigned char data[2048];
+    short *samples[channelCount];
+    int sampleCounts[channelCount];
+    int eventIndices[100];
+    std::string eventLabels[100];
+    int eventCount;
+    int frameCount = 0;
+    while (!done || ring.await(0) > 0) {
+        if (ring.await(10) == 0) continue;
+
+        const int length = ring.read(data, sizeof(data));
+        processor.process(data, length, samples, sampleCounts, eventIndices, eventLabels, eventCount, channelCount);
+        frameCount += sampleCounts[channelCount - 1];
+        for (auto &channelSamples : samples) delete[] channelSamples;
+        ring.markProcessed();
+    }
+    producer.join();
+
+    CHECK_EQ(source.getSentFrameCount(), frameCount);
+    std::vector<long long> values = valuesOf(telemetry);
+    CHECK_EQ(source.getPacketCount(), values[UsbLinkTelemetry::PACKETS_RECEIVED]);
+    CHECK_EQ(0, values[UsbLinkTelemetry::INVALID_PACKETS]);
+    CHECK_EQ(0, values[UsbLinkTelemetry::RING_OVERRUNS]);
+    CHECK_EQ(source.getSentFrameCount(), values[UsbLinkTelemetry::FRAMES_DECODED]);
+    CHECK_EQ(0, values[UsbLinkTelemetry::FRAMES_DROPPED]);
+    CHECK_EQ(0, values[UsbLinkTelemetry::BYTES_DISCARDED]);
+}
+
+int main() {
+    return backyardbrains::test::runAllTests();
+}
@@ -0,0 +1,26 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_TEST_LOG_H
+#define SPIKE_RECORDER_ANDROID_TEST_LOG_H
+
+// Host replacement of the Android log so native sources can be built into tests, log output is discarded
+
+enum {
+    ANDROID_LOG_UNKNOWN = 0,
+    ANDROID_LOG_DEFAULT,
+    ANDROID_LOG_VERBOSE,
+    ANDROID_LOG_DEBUG,
+    ANDROID_LOG_INFO,
+    ANDROID_LOG_WARN,
+    ANDROID_LOG_ERROR,
+    ANDROID_LOG_FATAL,
+    ANDROID_LOG_SILENT
+};
+
+inline int __android_log_print(int prio, const char *tag, const char *fmt, ...) {
+    return 0;
+}
+
+#endif //SPIKE_RECORDER_ANDROID_TEST_LOG_H
@@ -0,0 +1,293 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class AnalysisSchedulerTest {
+
+    private static final long TIMEOUT_MS = 5000;
+    // Max time between cancellation and the running analysis noticing it
+    private static final long MAX_CANCEL_LATENCY_MS = 50;
+
+    // Analysis that runs until it's released or cancelled, checking for cancellation every millisecond like the
+    // native analyses do between buffers
+    private static class BlockingAnalysis extends BaseAnalysis<Void, String> {
+
+        final String name;
+        final List<String> processed;
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        volatile long stoppedAt;
+
+        BlockingAnalysis(@NonNull String filePath, @NonNull String name, @NonNull List<String> processed,
+            @NonNull AnalysisListener<String> listener) {
+            super(filePath, listener);
+            this.name = name;
+            this.processed = processed;
+        }
+
+        @Nullable @Override protected String process(Void... params) throws Exception {
+            processed.add(name);
+            started.countDown();
+            try {
+                while (!isCancelled() && !released.await(1, TimeUnit.MILLISECONDS)) {
+                    // keep working
+                }
+            } finally {
+                stoppedAt = System.nanoTime();
+                stopped.countDown();
+            }
+            return name;
+        }
+    }
+
+    // Counts delivered results
+    private static class CountingListener implements BaseAnalysis.AnalysisListener<String> {
+
+        final AtomicInteger doneCount = new AtomicInteger();
+        final AtomicInteger failedCount = new AtomicInteger();
+        final CountDownLatch done;
+
+        CountingListener(int expectedCount) {
+            done = new CountDownLatch(expectedCount);
+        }
+
+        @Override public void onAnalysisDone(@NonNull String filePath, @Nullable String results) {
+            doneCount.incrementAndGet();
+            done.countDown();
+        }
+
+        @Override public void onAnalysisFailed(@NonNull String filePath) {
+            failedCount.incrementAndGet();
+            done.countDown();
+        }
+    }
+
+    private final List<String> processed = Collections.synchronizedList(new ArrayList<>());
+
+    @Test public void cancelStopsRunningAnalysisWithinLatency() throws Exception {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(2, null, new JavaControls());
+        for (int i = 0; i < 20; i++) {
+            final CountingListener listener = new CountingListener(1);
+            final BlockingAnalysis analysis = new BlockingAnalysis("/a.wav", "a" + i, processed, listener);
+            scheduler.schedule(AnalysisType.AVERAGE_SPIKE, "a" + i, AnalysisScheduler.Priority.FOREGROUND, analysis);
+            assertTrue(analysis.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+            final long cancelledAt = System.nanoTime();
+            scheduler.cancel("/a.wav", AnalysisType.AVERAGE_SPIKE);
+            assertTrue(analysis.stopped.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            final long latencyMs = TimeUnit.NANOSECONDS.toMillis(analysis.stoppedAt - cancelledAt);
+            assertTrue("Cancellation took " + latencyMs + " ms", latencyMs < MAX_CANCEL_LATENCY_MS);
+
+            // cancelled analysis is never delivered
+            assertFalse(listener.done.await(20, TimeUnit.MILLISECONDS));
+            assertEquals(0, listener.doneCount.get() + listener.failedCount.get());
+        }
+    }
+
+    @Test public void cancelledQueuedAnalysisNeverRuns() throws Exception {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(2, null, new JavaControls());
+        final CountingListener listener = new CountingListener(2);
+        final BlockingAnalysis running1 = new BlockingAnalysis("/a.wav", "running1", processed, listener);
+        final BlockingAnalysis running2 = new BlockingAnalysis("/c.wav", "running2", processed, listener);
+        final BlockingAnalysis queued = new BlockingAnalysis("/b.wav", "queued", processed, listener);
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.FOREGROUND, running1);
+        assertTrue(running1.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.FOREGROUND, running2);
+        assertTrue(running2.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.FOREGROUND, queued);
+
+        scheduler.cancel("/b.wav", AnalysisType.AVERAGE_SPIKE);
+        running1.released.countDown();
+        running2.released.countDown();
+        assertTrue(listener.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // give the workers a chance to pick up the cancelled analysis if it was left in the queue
+        assertFalse(queued.started.await(50, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList("running1", "running2"), processed);
+    }
+
+    @Test public void foregroundPreemptsQueuedBackground() throws Exception {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(2, null, new JavaControls());
+        final CountingListener listener = new CountingListener(4);
+        final BlockingAnalysis first = new BlockingAnalysis("/first.wav", "first", processed, listener);
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.BACKGROUND, first);
+        assertTrue(first.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        final BlockingAnalysis background1 = new BlockingAnalysis("/bg1.wav", "bg1", processed, listener);
+        final BlockingAnalysis background2 = new BlockingAnalysis("/bg2.wav", "bg2", processed, listener);
+        final BlockingAnalysis foreground = new BlockingAnalysis("/fg.wav", "fg", processed, listener);
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.BACKGROUND, background1);
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.BACKGROUND, background2);
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.FOREGROUND, foreground);
+        background1.released.countDown();
+        background2.released.countDown();
+        foreground.released.countDown();
+        first.released.countDown();
+
+        assertTrue(listener.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(4, listener.doneCount.get());
+        assertEquals(Arrays.asList("first", "fg", "bg1", "bg2"), processed);
+    }
+
+    @Test public void backgroundNeverTakesLastWorker() throws Exception {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(2, null, new JavaControls());
+        final CountingListener listener = new CountingListener(3);
+        final BlockingAnalysis background1 = new BlockingAnalysis("/bg1.wav", "bg1", processed, listener);
+        final BlockingAnalysis background2 = new BlockingAnalysis("/bg2.wav", "bg2", processed, listener);
+        final BlockingAnalysis foreground = new BlockingAnalysis("/fg.wav", "fg", processed, listener);
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.BACKGROUND, background1);
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.BACKGROUND, background2);
+        assertTrue(background1.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(background2.started.await(50, TimeUnit.MILLISECONDS));
+
+        // foreground analysis starts right away even though background analyses are still running or queued
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.FOREGROUND, foreground);
+        assertTrue(foreground.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(1, background2.started.getCount());
+
+        foreground.released.countDown();
+        background1.released.countDown();
+        background2.released.countDown();
+        assertTrue(listener.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test public void singleWorkerIsNotTakenByBackground() throws Exception {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(1, null, new JavaControls());
+        final CountingListener listener = new CountingListener(2);
+        final BlockingAnalysis background = new BlockingAnalysis("/bg.wav", "bg", processed, listener);
+        final BlockingAnalysis foreground = new BlockingAnalysis("/fg.wav", "fg", processed, listener);
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.BACKGROUND, background);
+        assertTrue(background.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // scheduler asked for a single worker still has one left for the analysis user is waiting for
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.FOREGROUND, foreground);
+        assertTrue(foreground.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        foreground.released.countDown();
+        background.released.countDown();
+        assertTrue(listener.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test public void requestingQueuedBackgroundInForegroundRaisesItsPriority() throws Exception {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(2, null, new JavaControls());
+        final CountingListener listener = new CountingListener(5);
+        final BlockingAnalysis first = new BlockingAnalysis("/first.wav", "first", processed, listener);
+        final BlockingAnalysis second = new BlockingAnalysis("/second.wav", "second", processed, listener);
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.FOREGROUND, first);
+        assertTrue(first.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.FOREGROUND, second);
+        assertTrue(second.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        final BlockingAnalysis background1 = new BlockingAnalysis("/bg1.wav", "bg1", processed, listener);
+        final BlockingAnalysis background2 = new BlockingAnalysis("/bg2.wav", "bg2", processed, listener);
+        background1.released.countDown();
+        background2.released.countDown();
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.BACKGROUND, background1);
+        scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.BACKGROUND, background2);
+        final BlockingAnalysis duplicate = new BlockingAnalysis("/bg2.wav", "bg2", processed, listener);
+        assertFalse(scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.FOREGROUND,
+            duplicate));
+        first.released.countDown();
+        second.released.countDown();
+
+        assertTrue(listener.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList("first", "second", "bg2", "bg1"), processed);
+    }
+
+    @Test public void duplicateRequestsJoinSingleRun() throws Exception {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(2, null, new JavaControls());
+        final int threadCount = 8;
+        final int requestCount = 50;
+        final CountingListener listener = new CountingListener(threadCount * requestCount);
+        final AtomicInteger scheduledCount = new AtomicInteger();
+        final List<BlockingAnalysis> analyses = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < requestCount; i++) {
+                    final BlockingAnalysis analysis = new BlockingAnalysis("/a.wav", "a", processed, listener);
+                    analyses.add(analysis);
+                    if (scheduler.schedule(AnalysisType.AVERAGE_SPIKE, "params", AnalysisScheduler.Priority.FOREGROUND,
+                        analysis)) {
+                        scheduledCount.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        go.countDown();
+        for (Thread thread : threads) thread.join();
+        // release the single run only after all the requests joined it
+        for (BlockingAnalysis analysis : analyses) analysis.released.countDown();
+
+        assertTrue(listener.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(1, scheduledCount.get());
+        assertEquals(1, processed.size());
+        assertEquals(threadCount * requestCount, listener.doneCount.get());
+    }
+
+    @Test public void requestsWithDifferentKeysRunSeparately() throws Exception {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(2, null, new JavaControls());
+        final CountingListener listener = new CountingListener(4);
+        final BlockingAnalysis[] analyses = new BlockingAnalysis[] {
+            new BlockingAnalysis("/a.wav", "a", processed, listener),
+            new BlockingAnalysis("/a.wav", "other params", processed, listener),
+            new BlockingAnalysis("/a.wav", "other type", processed, listener),
+            new BlockingAnalysis("/b.wav", "other file", processed, listener)
+        };
+        for (BlockingAnalysis analysis : analyses) analysis.released.countDown();
+        assertTrue(scheduler.schedule(AnalysisType.AVERAGE_SPIKE, "params", AnalysisScheduler.Priority.FOREGROUND,
+            analyses[0]));
+        assertTrue(scheduler.schedule(AnalysisType.AVERAGE_SPIKE, "other", AnalysisScheduler.Priority.FOREGROUND,
+            analyses[1]));
+        assertTrue(
+            scheduler.schedule(AnalysisType.ISI, "params", AnalysisScheduler.Priority.FOREGROUND, analyses[2]));
+        assertTrue(scheduler.schedule(AnalysisType.AVERAGE_SPIKE, "params", AnalysisScheduler.Priority.FOREGROUND,
+            analyses[3]));
+
+        assertTrue(listener.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(4, processed.size());
+        assertEquals(4, listener.doneCount.get());
+    }
+
+    @Test public void requestAfterFinishedRunStartsNewRun() throws Exception {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(2, null, new JavaControls());
+        final CountingListener first = new CountingListener(1);
+        final BlockingAnalysis analysis = new BlockingAnalysis("/a.wav", "first", processed, first);
+        analysis.released.countDown();
+        assertTrue(scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.FOREGROUND,
+            analysis));
+        assertTrue(first.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        final CountingListener second = new CountingListener(1);
+        final BlockingAnalysis again = new BlockingAnalysis("/a.wav", "second", processed, second);
+        again.released.countDown();
+        assertTrue(scheduler.schedule(AnalysisType.AVERAGE_SPIKE, null, AnalysisScheduler.Priority.FOREGROUND, again));
+        assertTrue(second.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList("first", "second"), processed);
+    }
+}
@@ -0,0 +1,306 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import com.backyardbrains.utils.JniUtils;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class BatchAnalysisRunnerTest {
+
+    private static final long TIMEOUT_MS = 10000;
+    private static final int SAMPLE_RATE = 44100;
+    private static final int SPIKE_THRESHOLD = 1000;
+    private static final int BIN_COUNT = 10;
+    private static final float BIN_SIZE = 0.01f;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Finds spikes as local maxima above the threshold and computes simple histograms of spike time differences in
+     * Java, optionally waiting for the gate to open before spikes are found.
+     */
+    private static class JavaEngine implements BatchFileAnalysis.Engine {
+
+        final CountDownLatch gate;
+
+        JavaEngine(@NonNull CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        @Override public boolean findSpikes(@NonNull String filePath,
+            @NonNull JniUtils.OnSpikesFoundListener listener, long control) {
+            try {
+                if (!gate.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)) return false;
+                final ByteBuffer wav = ByteBuffer.wrap(Files.readAllBytes(new File(filePath).toPath()))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+                final int channelCount = wav.getShort(22);
+                final int sampleRate = wav.getInt(24);
+                final int frameCount = (wav.capacity() - 44) / 2 / channelCount;
+                for (int channel = 0; channel < channelCount; channel++) {
+                    final short[] values = new short[frameCount];
+                    final int[] indices = new int[frameCount];
+                    final float[] times = new float[frameCount];
+                    int count = 0;
+                    for (int i = 1; i < frameCount - 1; i++) {
+                        final short value = sample(wav, channelCount, i, channel);
+                        if (value > SPIKE_THRESHOLD && value >= sample(wav, channelCount, i - 1, channel)
+                            && value > sample(wav, channelCount, i + 1, channel)) {
+                            values[count] = value;
+                            indices[count] = i;
+                            times[count] = (float) i / sampleRate;
+                            count++;
+                        }
+                    }
+                    if (count > 0) listener.onSpikesFound(channel, true, values, indices, times, count);
+                }
+                return true;
+            } catch (IOException | InterruptedException e) {
+                return false;
+            }
+        }
+
+        @NonNull @Override public int[][] isi(@NonNull float[][] trains, long control) {
+            final int[][] isi = new int[trains.length][BIN_COUNT];
+            for (int t = 0; t < trains.length; t++) {
+                for (int i = 1; i < trains[t].length; i++) addToBin(isi[t], trains[t][i] - trains[t][i - 1], 0);
+            }
+            return isi;
+        }
+
+        @NonNull @Override public int[][] autocorrelation(@NonNull float[][] trains, long control) {
+            final int[][] autocorrelation = new int[trains.length][BIN_COUNT];
+            for (int t = 0; t < trains.length; t++) {
+                for (int i = 0; i < trains[t].length; i++) {
+                    for (int j = i + 1; j < trains[t].length; j++) {
+                        addToBin(autocorrelation[t], trains[t][j] - trains[t][i], 0);
+                    }
+                }
+            }
+            return autocorrelation;
+        }
+
+        @NonNull @Override public int[][] crossCorrelation(@NonNull float[][] trains, long control) {
+            final int[][] crossCorrelation = new int[trains.length * trains.length][BIN_COUNT];
+            for (int a = 0; a < trains.length; a++) {
+                for (int b = 0; b < trains.length; b++) {
+                    for (float first : trains[a]) {
+                        for (float second : trains[b]) {
+                            addToBin(crossCorrelation[a * trains.length + b], second - first,
+                                BIN_COUNT * BIN_SIZE / 2);
+                        }
+                    }
+                }
+            }
+            return crossCorrelation;
+        }
+
+        private static short sample(@NonNull ByteBuffer wav, int channelCount, int frame, int channel) {
+            return wav.getShort(44 + (frame * channelCount + channel) * 2);
+        }
+
+        private static void addToBin(@NonNull int[] histogram, float diff, float offset) {
+            final int bin = (int) Math.floor((diff + offset) / BIN_SIZE);
+            if (bin >= 0 && bin < histogram.length) histogram[bin]++;
+        }
+    }
+
+    /**
+     * Waits for the report of the finished batch.
+     */
+    private static class CollectingListener implements BatchAnalysisRunner.BatchAnalysisListener {
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile BatchAnalysisRunner.Report report;
+
+        @Override public void onFileAnalyzed(@NonNull String filePath, int result) {
+        }
+
+        @Override public void onBatchFinished(@NonNull BatchAnalysisRunner.Report report, boolean cancelled) {
+            this.report = report;
+            finished.countDown();
+        }
+
+        @NonNull BatchAnalysisRunner.Report await() throws InterruptedException {
+            assertTrue("Batch didn't finish", finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            return report;
+        }
+    }
+
+    @Test public void csvResultsAreExportedForEveryRecording() throws Exception {
+        final List<String> recordings = Arrays.asList(
+            writeWav("mono", 1, SAMPLE_RATE, 2205, 0).getPath(),
+            writeWav("stereo", 2, SAMPLE_RATE, 4410, 1000).getPath(),
+            writeWav("silent", 1, SAMPLE_RATE / 2, 0, 0).getPath());
+        final File outputDir = new File(folder.getRoot(), "csv");
+
+        final BatchAnalysisRunner.Report report = run(recordings, createPlan(BatchAnalysisPlan.ExportFormat.CSV),
+            outputDir);
+
+        assertEquals(3, report.getAnalyzedCount());
+        assertEquals(0, report.getFailedCount());
+        // 19 spikes in mono recording, 9 on each channel of the stereo recording and none in the silent one
+        assertEquals(37, report.getSpikeCount());
+        assertEquals(20, readLines(findExport(outputDir, "mono", "spikes.csv")).size());
+        assertEquals(19, readLines(findExport(outputDir, "stereo", "spikes.csv")).size());
+        assertEquals(Collections.singletonList("channel,index,time,value"),
+            readLines(findExport(outputDir, "silent", "spikes.csv")));
+
+        // header and a row for each train or pair of trains
+        final List<String> isi = readLines(findExport(outputDir, "mono", "isi.csv"));
+        assertEquals(3, isi.size());
+        assertEquals("train,bin0,bin1,bin2,bin3,bin4,bin5,bin6,bin7,bin8,bin9", isi.get(0));
+        // all 18 intervals of the first train are 50 ms long and the second train is empty
+        assertEquals(18, Arrays.stream(isi.get(1).split(",")).skip(1).mapToInt(Integer::parseInt).sum());
+        assertEquals("1,0,0,0,0,0,0,0,0,0,0", isi.get(2));
+        assertEquals(3, readLines(findExport(outputDir, "stereo", "autocorrelation.csv")).size());
+        assertEquals(5, readLines(findExport(outputDir, "silent", "crosscorrelation.csv")).size());
+    }
+
+    @Test public void binaryExportOfRecordingWithoutSpikesHasHeader() throws Exception {
+        final File silent = writeWav("silent", 1, SAMPLE_RATE / 2, 0, 0);
+        final File outputDir = new File(folder.getRoot(), "binary");
+
+        run(Collections.singletonList(silent.getPath()), createPlan(BatchAnalysisPlan.ExportFormat.BINARY), outputDir);
+
+        try (DataInputStream in = new DataInputStream(
+            new FileInputStream(findExport(outputDir, "silent", "spikes.bin")))) {
+            assertEquals(0x42594245, in.readInt());
+            assertEquals(1, in.readInt());
+            assertEquals(1, in.readByte());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test public void analyzedRecordingsAreSkippedUntilTheyChange() throws Exception {
+        final File first = writeWav("first", 1, SAMPLE_RATE, 2205, 0);
+        final File second = writeWav("second", 1, SAMPLE_RATE, 4410, 0);
+        final List<String> recordings = Arrays.asList(first.getPath(), second.getPath());
+        final BatchAnalysisPlan plan = createPlan(BatchAnalysisPlan.ExportFormat.CSV);
+        final File outputDir = new File(folder.getRoot(), "resume");
+
+        assertEquals(2, run(recordings, plan, outputDir).getAnalyzedCount());
+        final byte[] exported = Files.readAllBytes(findExport(outputDir, "second", "spikes.csv").toPath());
+
+        BatchAnalysisRunner.Report report = run(recordings, plan, outputDir);
+        assertEquals(0, report.getAnalyzedCount());
+        assertEquals(2, report.getSkippedCount());
+
+        // recording with the same name and different content is analysed again
+        writeWav("first", 1, 2 * SAMPLE_RATE, 1000, 0);
+        report = run(recordings, plan, outputDir);
+        assertEquals(1, report.getAnalyzedCount());
+        assertEquals(1, report.getSkippedCount());
+        assertArrayEquals(exported, Files.readAllBytes(findExport(outputDir, "second", "spikes.csv").toPath()));
+    }
+
+    @Test public void sameRecordingIsExportedToTwoDirectoriesAtOnce() throws Exception {
+        final List<String> recordings =
+            Collections.singletonList(writeWav("shared", 1, SAMPLE_RATE, 2205, 0).getPath());
+        final BatchAnalysisPlan plan = createPlan(BatchAnalysisPlan.ExportFormat.CSV);
+        final File firstDir = new File(folder.getRoot(), "first");
+        final File secondDir = new File(folder.getRoot(), "second");
+        // both batches share the scheduler and the first analysis waits until both are started
+        final AnalysisScheduler scheduler = new AnalysisScheduler(2, null, new JavaControls());
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CollectingListener firstListener = new CollectingListener();
+        final CollectingListener secondListener = new CollectingListener();
+
+        createRunner(scheduler, gate).start(recordings, plan, firstDir, firstListener);
+        createRunner(scheduler, gate).start(recordings, plan, secondDir, secondListener);
+        Thread.sleep(200);
+        gate.countDown();
+
+        assertEquals(1, firstListener.await().getAnalyzedCount());
+        assertEquals(1, secondListener.await().getAnalyzedCount());
+        assertEquals(20, readLines(findExport(firstDir, "shared", "spikes.csv")).size());
+        assertEquals(20, readLines(findExport(secondDir, "shared", "spikes.csv")).size());
+    }
+
+    @NonNull private static BatchAnalysisPlan createPlan(@BatchAnalysisPlan.ExportFormat int format) {
+        return new BatchAnalysisPlan.Builder().addAnalysis(AnalysisType.FIND_SPIKES)
+            .addAnalysis(AnalysisType.ISI)
+            .addAnalysis(AnalysisType.AUTOCORRELATION)
+            .addAnalysis(AnalysisType.CROSS_CORRELATION)
+            .addTrain(0, SPIKE_THRESHOLD, Short.MAX_VALUE)
+            .addTrain(1, SPIKE_THRESHOLD, Short.MAX_VALUE)
+            .setExportFormat(format)
+            .build();
+    }
+
+    @NonNull private static BatchAnalysisRunner createRunner(@NonNull AnalysisScheduler scheduler,
+        @NonNull CountDownLatch gate) {
+        return new BatchAnalysisRunner(scheduler, AnalysisScheduler.Priority.FOREGROUND, Runnable::run,
+            new JavaEngine(gate));
+    }
+
+    @NonNull private static BatchAnalysisRunner.Report run(@NonNull List<String> recordings,
+        @NonNull BatchAnalysisPlan plan, @NonNull File outputDir) throws InterruptedException {
+        final CollectingListener listener = new CollectingListener();
+        createRunner(new AnalysisScheduler(2, null, new JavaControls()), new CountDownLatch(0)).start(recordings, plan,
+            outputDir, listener);
+        return listener.await();
+    }
+
+    // Writes 16-bit PCM recording with spikes every spikePeriod frames on every channel, the later the channel the
+    // later its spikes by channelDelay frames, or silent recording if spikePeriod is 0
+    @NonNull private File writeWav(@NonNull String name, int channelCount, int frameCount, int spikePeriod,
+        int channelDelay) throws IOException {
+        final File file = new File(folder.getRoot(), name + ".wav");
+        final ByteBuffer wav = ByteBuffer.allocate(44 + frameCount * channelCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+        wav.put("RIFF".getBytes(Charset.forName("US-ASCII"))).putInt(36 + frameCount * channelCount * 2);
+        wav.put("WAVEfmt ".getBytes(Charset.forName("US-ASCII"))).putInt(16).putShort((short) 1);
+        wav.putShort((short) channelCount).putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * channelCount * 2);
+        wav.putShort((short) (channelCount * 2)).putShort((short) 16);
+        wav.put("data".getBytes(Charset.forName("US-ASCII"))).putInt(frameCount * channelCount * 2);
+        for (int i = 0; i < frameCount; i++) {
+            for (int channel = 0; channel < channelCount; channel++) {
+                final int frame = i - channel * channelDelay;
+                final boolean spike = spikePeriod > 0 && frame > 0 && frame % spikePeriod == 0;
+                wav.putShort((short) (spike ? 5000 : 0));
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.write(wav.array());
+        }
+        return file;
+    }
+
+    // Returns file the results of the analysis with specified name are exported to for the recording with specified
+    // name
+    @NonNull private static File findExport(@NonNull File outputDir, @NonNull String recordingName,
+        @NonNull String exportName) {
+        final File[] files = outputDir.listFiles(
+            (dir, name) -> name.startsWith(recordingName + "-") && name.endsWith("." + exportName));
+        assertNotNull(files);
+        assertEquals(recordingName + " " + exportName, 1, files.length);
+        return files[0];
+    }
+
+    @NonNull private static List<String> readLines(@NonNull File file) throws IOException {
+        return Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,246 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import com.backyardbrains.utils.JniUtils;
+import com.backyardbrains.vo.GrandAverage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class GrandAverageRunnerTest {
+
+    private static final long TIMEOUT_MS = 10000;
+    private static final int SPIKE_THRESHOLD = 1000;
+    private static final int SPIKE_AMPLITUDE = 5000;
+    // spikes are triangles 2 ms wide on each side, the same as the spike window, repeated every 20 ms
+    private static final float SPIKE_HALF_WIDTH_IN_SECS = .002f;
+    private static final int SPIKES_PER_SEC = 50;
+    // half a second long recordings have 24 spikes whose windows fit within recording
+    private static final int SPIKE_COUNT = 24;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Finds spikes as local maxima above the threshold and samples the spike windows in Java the same way native
+     * analysis does it, remembering sample rate every recording is sampled at and whether any of its window samples
+     * had to be interpolated.
+     */
+    private static class JavaEngine implements GrandAverageFileAnalysis.Engine {
+
+        final Map<String, Integer> sampleRates = new ConcurrentHashMap<>();
+        final Map<String, Boolean> interpolated = new ConcurrentHashMap<>();
+
+        @Override public boolean findSpikes(@NonNull String filePath,
+            @NonNull JniUtils.OnSpikesFoundListener listener, long control) {
+            try {
+                final short[] samples = readSamples(filePath);
+                final int sampleRate = readSampleRate(filePath);
+                final short[] values = new short[samples.length];
+                final int[] indices = new int[samples.length];
+                final float[] times = new float[samples.length];
+                int count = 0;
+                for (int i = 1; i < samples.length - 1; i++) {
+                    if (samples[i] > SPIKE_THRESHOLD && samples[i] >= samples[i - 1] && samples[i] > samples[i + 1]) {
+                        values[count] = samples[i];
+                        indices[count] = i;
+                        times[count] = (float) i / sampleRate;
+                        count++;
+                    }
+                }
+                if (count > 0) listener.onSpikesFound(0, true, values, indices, times, count);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override public boolean grandAverageSpikes(@NonNull String filePath, @NonNull int[][] trains,
+            @NonNull int[] channels, @NonNull int[] spikeCounts, int sampleRate, int leftFrameCount, int frameCount,
+            @NonNull int[] counts, @NonNull double[][] means, @NonNull double[][] m2s, long control) {
+            try {
+                final short[] samples = readSamples(filePath);
+                // number of recording frames between two window samples
+                final double step = (double) readSampleRate(filePath) / sampleRate;
+                sampleRates.put(filePath, sampleRate);
+                interpolated.put(filePath, false);
+                for (int t = 0; t < trains.length; t++) {
+                    counts[t] = 0;
+                    for (int s = 0; s < spikeCounts[t]; s++) {
+                        final double position = trains[t][s] - leftFrameCount * step;
+                        if (position < 0 || position + step * (frameCount - 1) > samples.length - 1) continue;
+
+                        counts[t]++;
+                        for (int i = 0; i < frameCount; i++) {
+                            final double frame = position + step * i;
+                            final int index = (int) frame;
+                            final double fraction = frame - index;
+                            double value = samples[index];
+                            if (fraction > 0) {
+                                value += fraction * (samples[index + 1] - samples[index]);
+                                interpolated.put(filePath, true);
+                            }
+                            final double delta = value - means[t][i];
+                            means[t][i] += delta / counts[t];
+                            m2s[t][i] += delta * (value - means[t][i]);
+                        }
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override public boolean grandAverageEvents(@NonNull String filePath, @NonNull String eventsFilePath,
+            @NonNull String[] events, int channelCount, boolean removeNoiseIntervals, int sampleRate,
+            int leftFrameCount, int frameCount, @NonNull int[] counts, @NonNull double[][] means,
+            @NonNull double[][] m2s, long control) {
+            return false;
+        }
+
+        private static short[] readSamples(@NonNull String filePath) throws IOException {
+            final ByteBuffer wav = ByteBuffer.wrap(Files.readAllBytes(new File(filePath).toPath()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+            final short[] samples = new short[(wav.capacity() - 44) / 2];
+            wav.position(44);
+            wav.asShortBuffer().get(samples);
+            return samples;
+        }
+
+        private static int readSampleRate(@NonNull String filePath) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(filePath, "r")) {
+                raf.seek(24);
+                return Integer.reverseBytes(raf.readInt());
+            }
+        }
+    }
+
+    /**
+     * Waits for the averages of all the recordings.
+     */
+    private static class CollectingListener implements GrandAverageRunner.GrandAverageListener {
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile GrandAverage[] averages;
+
+        @Override public void onFileAnalyzed(@NonNull String filePath, boolean success) {
+            assertTrue(filePath, success);
+        }
+
+        @Override public void onGrandAverageFinished(@NonNull GrandAverage[] averages, boolean cancelled) {
+            this.averages = averages;
+            finished.countDown();
+        }
+
+        @NonNull GrandAverage[] await() throws InterruptedException {
+            assertTrue("Grand average didn't finish", finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            return averages;
+        }
+    }
+
+    @Test public void recordingsAreResampledToTheHighestSampleRate() throws Exception {
+        final List<String> recordings = Arrays.asList(writeWav("5kHz", 5000).getPath(),
+            writeWav("44kHz", 44100).getPath(), writeWav("10kHz", 10000).getPath());
+        final JavaEngine engine = new JavaEngine();
+
+        final GrandAverage average = run(recordings, new GrandAverageConfig.Builder(), engine);
+
+        assertEquals(44100, average.getSampleRate());
+        assertEquals(3, average.getRecordingCount());
+        assertEquals(3 * SPIKE_COUNT, average.getWindowCount());
+        // triangle is sampled exactly at 5 and 10 kHz so only the rounding of the 44.1 kHz samples is left
+        checkTriangle(average, .51f);
+        for (float deviation : average.getStandardDeviation()) assertTrue(deviation < .5f);
+        for (String recording : recordings) assertEquals(44100, (int) engine.sampleRates.get(recording));
+        assertFalse(engine.interpolated.get(recordings.get(1)));
+        assertTrue(engine.interpolated.get(recordings.get(0)));
+        assertTrue(engine.interpolated.get(recordings.get(2)));
+    }
+
+    @Test public void recordingsAreResampledToTheConfigSampleRate() throws Exception {
+        final List<String> recordings = Arrays.asList(writeWav("5kHz", 5000).getPath(),
+            writeWav("44kHz", 44100).getPath(), writeWav("10kHz", 10000).getPath());
+        final JavaEngine engine = new JavaEngine();
+
+        final GrandAverage average = run(recordings, new GrandAverageConfig.Builder().setSampleRate(20000), engine);
+
+        assertEquals(20000, average.getSampleRate());
+        assertEquals(3, average.getRecordingCount());
+        assertEquals(3 * SPIKE_COUNT, average.getWindowCount());
+        // feet of the triangle fall between 44.1 kHz samples, so the interpolation can be off there by almost 9
+        checkTriangle(average, 10);
+        for (String recording : recordings) {
+            assertEquals(20000, (int) engine.sampleRates.get(recording));
+            assertTrue(engine.interpolated.get(recording));
+        }
+    }
+
+    @NonNull private static GrandAverage run(@NonNull List<String> recordings,
+        @NonNull GrandAverageConfig.Builder builder, @NonNull JavaEngine engine) throws InterruptedException {
+        final GrandAverageConfig config = builder.addTrain(0, SPIKE_THRESHOLD, Short.MAX_VALUE).build();
+        final CollectingListener listener = new CollectingListener();
+        new GrandAverageRunner(new AnalysisScheduler(2, null, new JavaControls()),
+            AnalysisScheduler.Priority.FOREGROUND, Runnable::run, engine).start(recordings, config, listener);
+        final GrandAverage[] averages = listener.await();
+        assertEquals(1, averages.length);
+        return averages[0];
+    }
+
+    // Checks that average is the triangle spike sampled at the average sample rate
+    private static void checkTriangle(@NonNull GrandAverage average, float delta) {
+        final int leftFrameCount = (int) (average.getSampleRate() * SPIKE_HALF_WIDTH_IN_SECS);
+        final float[] values = average.getAverage();
+        assertEquals(2 * leftFrameCount + 1, values.length);
+        for (int i = 0; i < values.length; i++) {
+            final float time = (float) (i - leftFrameCount) / average.getSampleRate();
+            assertEquals("sample " + i, triangle(time), values[i], delta);
+        }
+    }
+
+    private static float triangle(float time) {
+        return SPIKE_AMPLITUDE * Math.max(0, 1 - Math.abs(time) / SPIKE_HALF_WIDTH_IN_SECS);
+    }
+
+    // Writes mono 16-bit PCM recording at specified sample rate with triangle spikes at every spike period
+    @NonNull private File writeWav(@NonNull String name, int sampleRate) throws IOException {
+        final File file = new File(folder.getRoot(), name + ".wav");
+        final int frameCount = sampleRate / 2;
+        final int period = sampleRate / SPIKES_PER_SEC;
+        final ByteBuffer wav = ByteBuffer.allocate(44 + frameCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+        wav.put("RIFF".getBytes(Charset.forName("US-ASCII"))).putInt(36 + frameCount * 2);
+        wav.put("WAVEfmt ".getBytes(Charset.forName("US-ASCII"))).putInt(16).putShort((short) 1);
+        wav.putShort((short) 1).putInt(sampleRate).putInt(sampleRate * 2);
+        wav.putShort((short) 2).putShort((short) 16);
+        wav.put("data".getBytes(Charset.forName("US-ASCII"))).putInt(frameCount * 2);
+        for (int i = 0; i < frameCount; i++) {
+            // distance to the closest spike, there's no spike at the very beginning of the recording
+            final int spike = Math.max(period, Math.round((float) i / period) * period);
+            wav.putShort((short) Math.round(triangle((float) (i - spike) / sampleRate)));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.write(wav.array());
+        }
+        return file;
+    }
+}
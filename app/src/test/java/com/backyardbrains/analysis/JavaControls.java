@@ -0,0 +1,24 @@
+package com.backyardbrains.analysis;
+
+/**
+ * Controls of the analyses that run in Java and check {@link BaseAnalysis#isCancelled()} themselves, so tests can run
+ * analyses without the native library.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class JavaControls implements AnalysisScheduler.Controls {
+
+    @Override public long newControl() {
+        return 0;
+    }
+
+    @Override public void cancel(long control) {
+    }
+
+    @Override public float getProgress(long control) {
+        return 0;
+    }
+
+    @Override public void release(long control) {
+    }
+}
@@ -0,0 +1,132 @@
+package com.backyardbrains.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class RunningStatisticsTest {
+
+    private static final int LENGTH = 64;
+
+    @Test public void chanMergesOfShuffledChunksMatchWelford() {
+        final Random random = new Random(1);
+        final double[][] windows = windows(random, 5000, 0, 2000);
+
+        final RunningStatistics welford = new RunningStatistics(LENGTH);
+        for (double[] window : windows) welford.add(window);
+
+        // chunks of 1 to 300 windows, the way recordings of different lengths are analysed, merged in random order
+        final List<RunningStatistics> chunks = new ArrayList<>();
+        for (int from = 0; from < windows.length; ) {
+            final int to = Math.min(windows.length, from + 1 + random.nextInt(300));
+            final RunningStatistics chunk = new RunningStatistics(LENGTH);
+            for (int i = from; i < to; i++) chunk.add(windows[i]);
+            chunks.add(chunk);
+            from = to;
+        }
+        Collections.shuffle(chunks, random);
+        final RunningStatistics merged = new RunningStatistics(LENGTH);
+        for (RunningStatistics chunk : chunks) merged.merge(chunk);
+
+        assertEquals(windows.length, welford.getCount());
+        assertEquals(windows.length, merged.getCount());
+        assertArrayEquals(twoPassMeans(windows), welford.getMeans(), 1e-3f);
+        assertArrayEquals(welford.getMeans(), merged.getMeans(), 1e-3f);
+        assertArrayEquals(twoPassStandardDeviations(windows), welford.getStandardDeviations(), 1e-3f);
+        assertArrayEquals(welford.getStandardDeviations(), merged.getStandardDeviations(), 1e-3f);
+    }
+
+    @Test public void largeOffsetDoesNotLoseDeviations() {
+        final Random random = new Random(2);
+        // deviations of 1 around 1e6, sum of squares minus squared mean would lose them entirely in float
+        final double[][] windows = windows(random, 4000, 1e6, 1);
+        final float[] expectedMeans = twoPassMeans(windows);
+        final float[] expectedDeviations = twoPassStandardDeviations(windows);
+
+        final RunningStatistics welford = new RunningStatistics(LENGTH);
+        for (double[] window : windows) welford.add(window);
+        final RunningStatistics merged = new RunningStatistics(LENGTH);
+        for (int from = 0; from < windows.length; from += 1000) {
+            final RunningStatistics chunk = new RunningStatistics(LENGTH);
+            for (int i = from; i < from + 1000; i++) chunk.add(windows[i]);
+            merged.merge(chunk);
+        }
+
+        for (RunningStatistics statistics : new RunningStatistics[] { welford, merged }) {
+            assertArrayEquals(expectedMeans, statistics.getMeans(), .1f);
+            assertArrayEquals(expectedDeviations, statistics.getStandardDeviations(), 1e-4f);
+            for (float deviation : statistics.getStandardDeviations()) assertEquals(1, deviation, .1f);
+        }
+    }
+
+    @Test public void mergingEmptyStatistics() {
+        final double[][] windows = windows(new Random(3), 100, 0, 500);
+        final RunningStatistics statistics = new RunningStatistics(LENGTH);
+        for (double[] window : windows) statistics.add(window);
+        final float[] means = statistics.getMeans();
+        final float[] deviations = statistics.getStandardDeviations();
+
+        // empty into empty
+        final RunningStatistics empty = new RunningStatistics(LENGTH);
+        empty.merge(new RunningStatistics(LENGTH));
+        assertEquals(0, empty.getCount());
+        assertArrayEquals(new float[LENGTH], empty.getMeans(), 0);
+        assertArrayEquals(new float[LENGTH], empty.getStandardDeviations(), 0);
+
+        // empty into non-empty
+        statistics.merge(new RunningStatistics(LENGTH));
+        assertEquals(windows.length, statistics.getCount());
+        assertArrayEquals(means, statistics.getMeans(), 0);
+        assertArrayEquals(deviations, statistics.getStandardDeviations(), 0);
+
+        // non-empty into empty is copied, so windows added to the merged statistics later don't change it
+        empty.merge(statistics);
+        statistics.add(windows[0]);
+        assertEquals(windows.length, empty.getCount());
+        assertArrayEquals(means, empty.getMeans(), 0);
+        assertArrayEquals(deviations, empty.getStandardDeviations(), 0);
+    }
+
+    // Windows of normally distributed points, every point with its own mean
+    private static double[][] windows(Random random, int count, double offset, double std) {
+        final double[] centers = new double[LENGTH];
+        for (int i = 0; i < LENGTH; i++) centers[i] = offset + random.nextGaussian() * 1000;
+        final double[][] windows = new double[count][LENGTH];
+        for (double[] window : windows) {
+            for (int i = 0; i < LENGTH; i++) window[i] = centers[i] + random.nextGaussian() * std;
+        }
+        return windows;
+    }
+
+    private static float[] twoPassMeans(double[][] windows) {
+        final float[] means = new float[LENGTH];
+        for (int i = 0; i < LENGTH; i++) means[i] = (float) mean(windows, i);
+        return means;
+    }
+
+    // Population standard deviations calculated from deviations from the already known means
+    private static float[] twoPassStandardDeviations(double[][] windows) {
+        final float[] deviations = new float[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            final double mean = mean(windows, i);
+            double sum = 0;
+            for (double[] window : windows) sum += (window[i] - mean) * (window[i] - mean);
+            deviations[i] = (float) Math.sqrt(sum / windows.length);
+        }
+        return deviations;
+    }
+
+    private static double mean(double[][] windows, int point) {
+        double sum = 0;
+        for (double[] window : windows) sum += window[point];
+        return sum / windows.length;
+    }
+}
@@ -0,0 +1,144 @@
+package com.backyardbrains.db.source;
+
+import com.backyardbrains.db.store.SpikeColumnFile;
+import com.backyardbrains.db.store.SpikeColumnStore;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeAnalysisSaverTest {
+
+    private static final long ANALYSIS_ID = 7;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File rootDir;
+    private SpikeColumnStore store;
+
+    @Before public void setUp() throws IOException {
+        rootDir = folder.newFolder();
+        store = new SpikeColumnStore(rootDir);
+    }
+
+    @Test public void commitsAllSpikesAfterProducerFinishes() throws IOException {
+        final boolean[] producing = new boolean[1];
+        final boolean saved = SpikeAnalysisSaver.save(store, writer -> {
+            producing[0] = true;
+            writer.writeSpikes(0, true, new short[] { 100, 300 }, new int[] { 10, 30 }, new float[] { .1f, .3f }, 2);
+            writer.writeSpikes(0, false, new short[] { -200 }, new int[] { 20 }, new float[] { .2f }, 1);
+            writer.writeSpikes(1, true, new short[] { 50 }, new int[] { 5 }, new float[] { .05f }, 1);
+            producing[0] = false;
+            return true;
+        }, writer -> {
+            // analysis is only inserted once all spikes are produced
+            assertFalse(producing[0]);
+            assertEquals(4, writer.getSpikeCount());
+            writer.commit(ANALYSIS_ID);
+            return true;
+        });
+
+        assertTrue(saved);
+        final SpikeColumnFile channel0 = store.open(ANALYSIS_ID, 0);
+        assertNotNull(channel0);
+        assertEquals(3, channel0.getSpikeCount());
+        final int[] indices = new int[3];
+        final short[] values = new short[3];
+        channel0.readIndices(0, 3, indices);
+        channel0.readValues(0, 3, values);
+        assertArrayEquals(new int[] { 10, 20, 30 }, indices);
+        assertArrayEquals(new short[] { 100, -200, 300 }, values);
+        final SpikeColumnFile channel1 = store.open(ANALYSIS_ID, 1);
+        assertNotNull(channel1);
+        assertEquals(1, channel1.getSpikeCount());
+        assertOnlyCommittedDirs(1);
+    }
+
+    @Test public void failedProducerIsNotCommitted() throws IOException {
+        final boolean saved = SpikeAnalysisSaver.save(store, writer -> {
+            writer.writeSpikes(0, true, new short[] { 100 }, new int[] { 10 }, new float[] { .1f }, 1);
+            return false;
+        }, writer -> {
+            fail("Spikes of failed analysis shouldn't be committed");
+            return true;
+        });
+
+        assertFalse(saved);
+        assertOnlyCommittedDirs(0);
+    }
+
+    @Test public void analysisWithoutSpikesIsNotCommitted() throws IOException {
+        final boolean saved = SpikeAnalysisSaver.save(store, writer -> true, writer -> {
+            fail("Analysis without spikes shouldn't be committed");
+            return true;
+        });
+
+        // analysis succeeded, it just didn't find anything
+        assertTrue(saved);
+        assertOnlyCommittedDirs(0);
+    }
+
+    @Test public void spikesAreDiscardedIfAnalysisIsNotInserted() throws IOException {
+        final boolean saved = SpikeAnalysisSaver.save(store, writer -> {
+            writer.writeSpikes(0, true, new short[] { 100 }, new int[] { 10 }, new float[] { .1f }, 1);
+            return true;
+        }, writer -> false);
+
+        assertFalse(saved);
+        assertFalse(store.contains(ANALYSIS_ID));
+        assertOnlyCommittedDirs(0);
+    }
+
+    @Test public void spikesAreDiscardedIfProducerThrows() throws IOException {
+        try {
+            SpikeAnalysisSaver.save(store, writer -> {
+                writer.writeSpikes(0, true, new short[] { 100 }, new int[] { 10 }, new float[] { .1f }, 1);
+                throw new IllegalStateException("Analysis crashed");
+            }, writer -> {
+                fail("Spikes of crashed analysis shouldn't be committed");
+                return true;
+            });
+            fail("Producer exception should be propagated");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+
+        assertOnlyCommittedDirs(0);
+    }
+
+    @Test public void spikesAreDiscardedIfCommitFails() throws IOException {
+        try {
+            SpikeAnalysisSaver.save(store, writer -> {
+                writer.writeSpikes(0, true, new short[] { 100 }, new int[] { 10 }, new float[] { .1f }, 1);
+                return true;
+            }, writer -> {
+                throw new IOException("Disk full");
+            });
+            fail("Commit exception should be propagated");
+        } catch (IOException expected) {
+            // expected
+        }
+
+        assertOnlyCommittedDirs(0);
+    }
+
+    // Checks that no pending directories were left behind and that specified number of analyses is stored
+    private void assertOnlyCommittedDirs(int expectedCount) {
+        final String[] names = rootDir.list();
+        assertNotNull(names);
+        assertEquals(expectedCount, names.length);
+        for (String name : names) assertTrue(name, name.matches("\\d+"));
+    }
+}
@@ -0,0 +1,302 @@
+package com.backyardbrains.db.store;
+
+import com.backyardbrains.vo.AverageSpike;
+import com.backyardbrains.vo.EventTriggeredAverages;
+import com.backyardbrains.vo.FiringRateTimeline;
+import com.backyardbrains.vo.PowerSpectrum;
+import com.backyardbrains.vo.Psth;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class AnalysisResultCacheTest {
+
+    private static final int ANALYSIS_TYPE = 3;
+    private static final String KEY = "key";
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File rootDir;
+    private File recording;
+
+    @Before public void setUp() throws IOException {
+        rootDir = new File(folder.getRoot(), AnalysisResultCache.DEFAULT_DIR_NAME);
+        recording = folder.newFile("recording.wav");
+        writeBytes(recording, 10000, (byte) 1);
+    }
+
+    //=================================================
+    //  RESULTS
+    //=================================================
+
+    @Test public void histogramsAreReloaded() throws IOException {
+        final int[][] histograms = { { 1, 2, 3 }, {}, { Integer.MIN_VALUE, Integer.MAX_VALUE } };
+
+        final int[][] loaded = (int[][]) saveAndReload(histograms);
+        assertEquals(histograms.length, loaded.length);
+        for (int i = 0; i < histograms.length; i++) assertArrayEquals(histograms[i], loaded[i]);
+    }
+
+    @Test public void averageSpikesAreReloaded() throws IOException {
+        final AverageSpike[] averageSpikes = {
+            new AverageSpike(new float[] { 1f, 2f }, new float[] { .1f, .2f }, new float[] { .3f, .4f },
+                new float[] { -.3f, -.4f }),
+            new AverageSpike(new float[0], new float[0], new float[0], new float[0])
+        };
+
+        final AverageSpike[] loaded = (AverageSpike[]) saveAndReload(averageSpikes);
+        assertEquals(averageSpikes.length, loaded.length);
+        for (int i = 0; i < averageSpikes.length; i++) {
+            assertArrayEquals(averageSpikes[i].getAverageSpike(), loaded[i].getAverageSpike(), 0f);
+            assertArrayEquals(averageSpikes[i].getNormAverageSpike(), loaded[i].getNormAverageSpike(), 0f);
+            assertArrayEquals(averageSpikes[i].getNormTopSTDLine(), loaded[i].getNormTopSTDLine(), 0f);
+            assertArrayEquals(averageSpikes[i].getNormBottomSTDLine(), loaded[i].getNormBottomSTDLine(), 0f);
+        }
+    }
+
+    @Test public void eventTriggeredAveragesAreReloaded() throws IOException {
+        final EventTriggeredAverages[] averages = {
+            new EventTriggeredAverages(new String[] { "1", "\u010dvor" }, new float[][] { { 1f, 2f }, { 3f } },
+                new float[][] { { .1f, .2f }, { .3f } }, true, new float[] { .5f }, new float[] { .6f },
+                new float[] { .4f }, -2f, 3f),
+            new EventTriggeredAverages(null, null, null, false, null, null, null, 0f, 0f)
+        };
+
+        final EventTriggeredAverages[] loaded = (EventTriggeredAverages[]) saveAndReload(averages);
+        assertEquals(averages.length, loaded.length);
+        for (int i = 0; i < averages.length; i++) {
+            assertArrayEquals(averages[i].getEvents(), loaded[i].getEvents());
+            assertFloatArraysEqual(averages[i].getAverages(), loaded[i].getAverages());
+            assertFloatArraysEqual(averages[i].getNormAverages(), loaded[i].getNormAverages());
+            assertEquals(averages[i].isShowConfidenceIntervals(), loaded[i].isShowConfidenceIntervals());
+            assertFloatsEqual(averages[i].getNormMonteCarloAverages(), loaded[i].getNormMonteCarloAverages());
+            assertFloatsEqual(averages[i].getNormMonteCarloTop(), loaded[i].getNormMonteCarloTop());
+            assertFloatsEqual(averages[i].getNormMonteCarloBottom(), loaded[i].getNormMonteCarloBottom());
+            assertEquals(averages[i].getMin(), loaded[i].getMin(), 0f);
+            assertEquals(averages[i].getMax(), loaded[i].getMax(), 0f);
+        }
+    }
+
+    @Test public void powerSpectraAreReloaded() throws IOException {
+        final PowerSpectrum[] powerSpectra = {
+            new PowerSpectrum(.5f, new float[] { 1e-6f, 2f, Float.MAX_VALUE }, new float[] { 1f, 2f, 3f, 4f, 5f })
+        };
+
+        final PowerSpectrum[] loaded = (PowerSpectrum[]) saveAndReload(powerSpectra);
+        assertEquals(1, loaded.length);
+        assertEquals(powerSpectra[0].getFrequencyResolution(), loaded[0].getFrequencyResolution(), 0f);
+        assertArrayEquals(powerSpectra[0].getPowers(), loaded[0].getPowers(), 0f);
+        assertArrayEquals(powerSpectra[0].getBandPowers(), loaded[0].getBandPowers(), 0f);
+    }
+
+    @Test public void psthsAreReloaded() throws IOException {
+        final Psth[] psths = {
+            new Psth("1", 0, 10000, -.5f, 1f, 2, new int[] { 0, 3, 1 }, new int[] { 0, 2 }, new int[] { -10, 20, 5 }),
+            new Psth("2", 1, 44100, -.1f, .1f, 0, new int[] { 0, 0 }, null, null)
+        };
+
+        final Psth[] loaded = (Psth[]) saveAndReload(psths);
+        assertEquals(psths.length, loaded.length);
+        for (int i = 0; i < psths.length; i++) {
+            assertEquals(psths[i].getEvent(), loaded[i].getEvent());
+            assertEquals(psths[i].getTrain(), loaded[i].getTrain());
+            assertEquals(psths[i].getSampleRate(), loaded[i].getSampleRate());
+            assertEquals(psths[i].getLeftOffset(), loaded[i].getLeftOffset(), 0f);
+            assertEquals(psths[i].getRightOffset(), loaded[i].getRightOffset(), 0f);
+            assertEquals(psths[i].getTrialCount(), loaded[i].getTrialCount());
+            assertArrayEquals(psths[i].getHistogram(), loaded[i].getHistogram());
+            assertArrayEquals(psths[i].getTrialStarts(), loaded[i].getTrialStarts());
+            assertArrayEquals(psths[i].getRaster(), loaded[i].getRaster());
+        }
+    }
+
+    @Test public void firingRateTimelinesAreReloaded() throws IOException {
+        final FiringRateTimeline[] timelines = {
+            new FiringRateTimeline(2, 3.5f, new float[] { .1f, 1f }, new int[][] { { 1, 2, 3 }, { 6 } })
+        };
+
+        final FiringRateTimeline[] loaded = (FiringRateTimeline[]) saveAndReload(timelines);
+        assertEquals(1, loaded.length);
+        assertEquals(timelines[0].getTrain(), loaded[0].getTrain());
+        assertEquals(timelines[0].getDuration(), loaded[0].getDuration(), 0f);
+        assertEquals(timelines[0].getLevelCount(), loaded[0].getLevelCount());
+        for (int i = 0; i < timelines[0].getLevelCount(); i++) {
+            assertEquals(timelines[0].getBinSize(i), loaded[0].getBinSize(i), 0f);
+            assertArrayEquals(timelines[0].getCounts(i), loaded[0].getCounts(i));
+        }
+    }
+
+    @Test public void corruptedResultIsNotReturned() throws IOException {
+        new AnalysisResultCache(rootDir, 4, 1 << 20).put(KEY, new int[][] { { 1, 2, 3, 4 } });
+        final File file = new File(rootDir, KEY + ".res");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        assertNull(new AnalysisResultCache(rootDir, 4, 1 << 20).get(KEY));
+        assertFalse(file.exists());
+    }
+
+    @Test public void leastRecentlyUsedResultsAreDeletedFirst() throws IOException {
+        final int[][] result = { new int[1000] };
+        final AnalysisResultCache cache = new AnalysisResultCache(rootDir, 0, 2 * 4100);
+        cache.put("a", result);
+        assertTrue(new File(rootDir, "a.res").setLastModified(System.currentTimeMillis() - 20000));
+        cache.put("b", result);
+        assertTrue(new File(rootDir, "b.res").setLastModified(System.currentTimeMillis() - 10000));
+        cache.put("c", result);
+
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    //=================================================
+    //  KEYS
+    //=================================================
+
+    @Test public void sameInputsGiveSameKey() throws IOException {
+        assertEquals(fullKey(recording).build(), fullKey(recording).build());
+    }
+
+    @Test public void keyChangesWhenAnyInputChanges() throws IOException {
+        final File other = folder.newFile("other.wav");
+        writeBytes(other, 10000, (byte) 1);
+        final Set<String> keys = new HashSet<>();
+        keys.add(fullKey(recording).build());
+
+        // analysis type and recording path
+        assertTrue(keys.add(new AnalysisResultCache.KeyBuilder(ANALYSIS_TYPE + 1, recording).append(7L)
+            .append(.5f)
+            .append(true)
+            .append("train")
+            .append(new String[] { "1", "2" })
+            .build()));
+        assertTrue(keys.add(fullKey(other).build()));
+        // every appended value
+        assertTrue(keys.add(baseKey().append(8L).append(.5f).append(true).append("train")
+            .append(new String[] { "1", "2" }).build()));
+        assertTrue(keys.add(baseKey().append(7L).append(.25f).append(true).append("train")
+            .append(new String[] { "1", "2" }).build()));
+        assertTrue(keys.add(baseKey().append(7L).append(.5f).append(false).append("train")
+            .append(new String[] { "1", "2" }).build()));
+        assertTrue(keys.add(baseKey().append(7L).append(.5f).append(true).append("trains")
+            .append(new String[] { "1", "2" }).build()));
+        assertTrue(keys.add(baseKey().append(7L).append(.5f).append(true).append("train")
+            .append(new String[] { "1", "3" }).build()));
+        assertTrue(keys.add(baseKey().append(7L).append(.5f).append(true).append("train")
+            .append(new String[] { "1" }).build()));
+        assertTrue(keys.add(baseKey().append(7L).append(.5f).append(true).append("train")
+            .append((String[]) null).build()));
+    }
+
+    @Test public void keyIsUnambiguous() throws IOException {
+        // values that would give the same string if they were simply concatenated
+        assertNotEquals(baseKey().append("a|b").build(), baseKey().append("a").append("b").build());
+        assertNotEquals(baseKey().append(new String[] { "a", "b" }).build(),
+            baseKey().append(new String[] { "a|b" }).build());
+        assertNotEquals(baseKey().append((String) null).build(), baseKey().append("-").build());
+        assertNotEquals(baseKey().append((String) null).build(), baseKey().append("").build());
+        assertNotEquals(baseKey().append(new String[0]).build(), baseKey().append((String[]) null).build());
+    }
+
+    @Test public void keyChangesWhenRecordingChanges() throws IOException {
+        final String key = fullKey(recording).build();
+
+        // same size and modification time, different content within the header
+        final long lastModified = recording.lastModified();
+        try (RandomAccessFile raf = new RandomAccessFile(recording, "rw")) {
+            raf.seek(100);
+            raf.write(2);
+        }
+        assertTrue(recording.setLastModified(lastModified));
+        final String changedHeaderKey = fullKey(recording).build();
+        assertNotEquals(key, changedHeaderKey);
+
+        // same header, different size
+        try (RandomAccessFile raf = new RandomAccessFile(recording, "rw")) {
+            raf.setLength(raf.length() + 2);
+        }
+        assertTrue(recording.setLastModified(lastModified));
+        final String changedSizeKey = fullKey(recording).build();
+        assertNotEquals(changedHeaderKey, changedSizeKey);
+
+        // only modification time
+        assertTrue(recording.setLastModified(lastModified - 10000));
+        assertNotEquals(changedSizeKey, fullKey(recording).build());
+    }
+
+    @Test public void missingFileHasFingerprint() throws IOException {
+        final File events = new File(folder.getRoot(), "recording-events.txt");
+        final String missingKey = baseKey().appendFingerprint(events).build();
+        assertEquals(missingKey, baseKey().appendFingerprint(null).build());
+
+        writeBytes(events, 10, (byte) 'a');
+        assertNotEquals(missingKey, baseKey().appendFingerprint(events).build());
+    }
+
+    // Saves specified result, then reads it with a new cache so it's loaded from disk
+    private Object saveAndReload(Object result) throws IOException {
+        new AnalysisResultCache(rootDir, 4, 1 << 20).put(KEY, result);
+        final Object loaded = new AnalysisResultCache(rootDir, 4, 1 << 20).get(KEY);
+        assertNotNull(loaded);
+        assertEquals(result.getClass(), loaded.getClass());
+        return loaded;
+    }
+
+    private AnalysisResultCache.KeyBuilder baseKey() throws IOException {
+        return new AnalysisResultCache.KeyBuilder(ANALYSIS_TYPE, recording);
+    }
+
+    private static AnalysisResultCache.KeyBuilder fullKey(File recording) throws IOException {
+        return new AnalysisResultCache.KeyBuilder(ANALYSIS_TYPE, recording).append(7L)
+            .append(.5f)
+            .append(true)
+            .append("train")
+            .append(new String[] { "1", "2" });
+    }
+
+    private static void writeBytes(File file, int count, byte value) throws IOException {
+        final byte[] bytes = new byte[count];
+        Arrays.fill(bytes, value);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+    }
+
+    private static void assertFloatsEqual(float[] expected, float[] actual) {
+        if (expected == null) {
+            assertNull(actual);
+        } else {
+            assertArrayEquals(expected, actual, 0f);
+        }
+    }
+
+    private static void assertFloatArraysEqual(float[][] expected, float[][] actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) assertFloatsEqual(expected[i], actual[i]);
+    }
+}
@@ -0,0 +1,171 @@
+package com.backyardbrains.db.store;
+
+import com.backyardbrains.vo.FiringRateTimeline;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Measures how long it takes to build firing rate timelines of a 10 hour long recording at 10 kHz from spikes in
+ * {@link SpikeColumnStore}, with two threshold trains on the first channel and a cluster train on the second one, and
+ * how long it takes to get firing rates of the visible part of the timeline for a 1000 pixels wide plot at zoom
+ * levels from 10 seconds to the whole recording. Timelines are rolled up the same way firing rate timeline analysis
+ * does it and saved to and read from {@link AnalysisResultCache}. It's not run with the unit tests, run it manually
+ * with the number of spikes and number of hours as arguments (default to 5 million and 10).
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class FiringRateTimelineBenchmark {
+
+    private static final long ANALYSIS_ID = 1;
+    private static final int BATCH_SIZE = 4096;
+    private static final int SAMPLE_RATE = 10000;
+    // finest bins are 1 second wide and rolled up into bins of 10 seconds, 1 minute and 10 minutes
+    private static final int BIN_FRAME_COUNT = SAMPLE_RATE;
+    private static final int[] ROLLUP_FACTORS = { 10, 60, 600 };
+    private static final int PLOT_WIDTH = 1000;
+    private static final int QUERY_COUNT = 10000;
+    private static final int RUN_COUNT = 5;
+
+    public static void main(String[] args) throws IOException {
+        final int spikeCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        final int hours = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final File rootDir = Files.createTempDirectory("firing_rate_timeline_benchmark").toFile();
+        final SpikeColumnStore store = new SpikeColumnStore(new File(rootDir, "spikes"));
+        try {
+            run(store, rootDir, spikeCount, (long) hours * 3600 * SAMPLE_RATE);
+        } finally {
+            store.delete(ANALYSIS_ID);
+            SpikeColumnStore.deleteRecursively(rootDir);
+        }
+    }
+
+    private static void run(SpikeColumnStore store, File rootDir, int spikeCount, long sampleCount)
+        throws IOException {
+        final Random random = new Random(1);
+        write(store, random, spikeCount / 2, sampleCount);
+        final SpikeColumnFile[] files = { store.open(ANALYSIS_ID, 0), store.open(ANALYSIS_ID, 1) };
+        if (files[0] == null || files[1] == null) throw new IllegalStateException("Committed spikes are missing");
+        final byte[] clusters = new byte[files[1].getSpikeCount()];
+        for (int i = 0; i < clusters.length; i++) clusters[i] = (byte) random.nextInt(2);
+        store.saveClusters(ANALYSIS_ID, 1, clusters);
+        final SpikeClusterFile clusterFile = store.openClusters(ANALYSIS_ID, 1);
+
+        final int binCount = (int) ((sampleCount + BIN_FRAME_COUNT - 1) / BIN_FRAME_COUNT);
+        final float duration = (float) sampleCount / SAMPLE_RATE;
+        int[][] counts = null;
+        FiringRateTimeline[] timelines = null;
+        long countNanos = Long.MAX_VALUE, rollupNanos = Long.MAX_VALUE;
+        for (int run = 0; run < RUN_COUNT; run++) {
+            // COUNT, trains of the channel are counted in a single pass the same way local data source does it
+            long start = System.nanoTime();
+            counts = new int[3][binCount];
+            files[0].countIndexBins(BIN_FRAME_COUNT, new int[] { 1, 1500 }, new int[] { 1499, 3000 }, null, null,
+                new int[][] { counts[0], counts[1] });
+            files[1].countIndexBins(BIN_FRAME_COUNT, new int[] { 0 }, new int[] { 0 }, new int[] { 1 }, clusterFile,
+                new int[][] { counts[2] });
+            countNanos = Math.min(countNanos, System.nanoTime() - start);
+
+            // ROLL UP
+            start = System.nanoTime();
+            timelines = rollUp(counts, binCount, duration);
+            rollupNanos = Math.min(rollupNanos, System.nanoTime() - start);
+        }
+        long total = 0;
+        for (int[] trainCounts : counts) for (int count : trainCounts) total += count;
+        System.out.printf("%d spikes over %.1f h: count %d bins of %d trains %.1f ms (%d spikes in trains), "
+                + "roll up %.2f ms%n", spikeCount, duration / 3600, binCount, counts.length, countNanos / 1e6, total,
+            rollupNanos / 1e6);
+
+        // SIDECAR, read back by a new cache so it comes from the file
+        final File recording = new File(rootDir, "recording.wav");
+        if (!recording.createNewFile()) throw new IOException("Couldn't create " + recording);
+        final File cacheDir = new File(rootDir, "results");
+        final String key = new AnalysisResultCache.KeyBuilder(0, recording).append(1f).build();
+        long start = System.nanoTime();
+        new AnalysisResultCache(cacheDir, 4, 1 << 30).put(key, timelines);
+        final long writeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        final FiringRateTimeline[] read =
+            (FiringRateTimeline[]) new AnalysisResultCache(cacheDir, 4, 1 << 30).get(key);
+        final long readNanos = System.nanoTime() - start;
+        if (read == null || read.length != timelines.length) throw new IllegalStateException("Timelines not read");
+        long size = 0;
+        final File[] cacheFiles = cacheDir.listFiles();
+        if (cacheFiles != null) for (File file : cacheFiles) size += file.length();
+        System.out.printf("sidecar %.0f KB: write %.1f ms, read %.1f ms%n", size / 1024.0, writeNanos / 1e6,
+            readNanos / 1e6);
+
+        // QUERIES for windows from 10 seconds to the whole recording
+        final float[] rates = new float[PLOT_WIDTH + 2];
+        final FiringRateTimeline timeline = read[0];
+        for (float window : new float[] { 10, 60, 600, 3600, duration }) {
+            float checksum = 0;
+            // second round is measured once the code is compiled
+            long queryNanos = 0;
+            for (int round = 0; round < 2; round++) {
+                start = System.nanoTime();
+                for (int i = 0; i < QUERY_COUNT; i++) {
+                    final float from = random.nextFloat() * (duration - window);
+                    final int level = timeline.findLevel(window, PLOT_WIDTH);
+                    final float binSize = timeline.getBinSize(level);
+                    final int first = (int) (from / binSize);
+                    final int last = Math.min((int) ((from + window) / binSize) + 1, timeline.getCounts(level).length);
+                    timeline.getRates(level, first, last, rates);
+                    checksum += rates[0];
+                }
+                queryNanos = System.nanoTime() - start;
+            }
+            System.out.printf("%7.0f s window: level %d (%.0f s bins), %.2f us per query (checksum %.0f)%n", window,
+                timeline.findLevel(window, PLOT_WIDTH), timeline.getBinSize(timeline.findLevel(window, PLOT_WIDTH)),
+                queryNanos / 1e3 / QUERY_COUNT, checksum);
+        }
+    }
+
+    // Writes specified number of positive and negative spikes spread over the recording on both channels
+    private static void write(SpikeColumnStore store, Random random, int count, long sampleCount) throws IOException {
+        final SpikeColumnWriter writer = store.newWriter();
+        final int[] indices = new int[BATCH_SIZE];
+        final short[] values = new short[BATCH_SIZE];
+        final float[] times = new float[BATCH_SIZE];
+        final int step = (int) (4 * sampleCount / count);
+        for (int channel = 0; channel < 2; channel++) {
+            for (boolean positive : new boolean[] { true, false }) {
+                int index = 0;
+                for (int from = 0; from < count / 2; from += BATCH_SIZE) {
+                    final int batch = Math.min(BATCH_SIZE, count / 2 - from);
+                    for (int i = 0; i < batch; i++) {
+                        index = (int) Math.min(index + random.nextInt(step), sampleCount - 1);
+                        indices[i] = index;
+                        times[i] = (float) index / SAMPLE_RATE;
+                        values[i] = (short) ((positive ? 1 : -1) * (1 + random.nextInt(3000)));
+                    }
+                    writer.write(channel, positive, values, indices, times, batch);
+                }
+            }
+        }
+        writer.commit(ANALYSIS_ID);
+    }
+
+    // Rolls the finest bins up into coarser levels, the same way firing rate timeline analysis does it
+    private static FiringRateTimeline[] rollUp(int[][] counts, int binCount, float duration) {
+        final float[] binSizes = new float[ROLLUP_FACTORS.length + 1];
+        binSizes[0] = (float) BIN_FRAME_COUNT / SAMPLE_RATE;
+        for (int i = 0; i < ROLLUP_FACTORS.length; i++) {
+            binSizes[i + 1] = (float) ROLLUP_FACTORS[i] * BIN_FRAME_COUNT / SAMPLE_RATE;
+        }
+        final FiringRateTimeline[] timelines = new FiringRateTimeline[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            final int[][] levels = new int[ROLLUP_FACTORS.length + 1][];
+            levels[0] = counts[i];
+            for (int j = 0; j < ROLLUP_FACTORS.length; j++) {
+                final int factor = ROLLUP_FACTORS[j];
+                levels[j + 1] = new int[(binCount + factor - 1) / factor];
+                for (int k = 0; k < binCount; k++) levels[j + 1][k / factor] += levels[0][k];
+            }
+            timelines[i] = new FiringRateTimeline(i, duration, binSizes, levels);
+        }
+        return timelines;
+    }
+}
@@ -0,0 +1,157 @@
+package com.backyardbrains.db.store;
+
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeAmplitudeHistogramTest {
+
+    private static final long ANALYSIS_ID = 5;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private SpikeColumnStore store;
+
+    @Before public void setUp() throws IOException {
+        store = new SpikeColumnStore(folder.newFolder());
+    }
+
+    @Test public void emptyHistogram() throws IOException {
+        final short[] values = new short[0];
+        final SpikeAmplitudeHistogram histogram = writeAndOpen(values, new short[0]);
+
+        assertEquals(0, histogram.getSpikeCount());
+        checkQueries(histogram, values, new Random(1));
+    }
+
+    @Test public void singleValueHistogram() throws IOException {
+        final short[] values = new short[1000];
+        for (int i = 0; i < values.length; i++) values[i] = 1234;
+        final SpikeAmplitudeHistogram histogram = writeAndOpen(values, new short[0]);
+
+        assertEquals(values.length, histogram.getSpikeCount());
+        assertEquals(values.length, histogram.countValueRange(1234, 1234));
+        assertEquals(0, histogram.countValueRange(1233, 1233));
+        assertEquals(0, histogram.countValueRange(1235, 1235));
+        // closest value whose smoothing doesn't reach the only one, the smaller one of the two
+        assertEquals(1234 - 3, histogram.findValley(1234, 20, 2));
+        assertEquals(1234, histogram.findValley(1234, 2, 2));
+        checkQueries(histogram, values, new Random(2));
+    }
+
+    @Test public void fullRangeHistogram() throws IOException {
+        final Random random = new Random(3);
+        // spikes spread over all 16-bit values, with two dense units on each side so there are valleys to find
+        final short[] pos = values(random, 30000, 0, Short.MAX_VALUE, 1500, 4000);
+        final short[] neg = values(random, 30000, Short.MIN_VALUE, -1, -2500, -6000);
+        pos[0] = Short.MAX_VALUE;
+        pos[1] = 0;
+        neg[0] = Short.MIN_VALUE;
+        neg[1] = -1;
+        final SpikeAmplitudeHistogram histogram = writeAndOpen(pos, neg);
+
+        final short[] values = new short[pos.length + neg.length];
+        System.arraycopy(pos, 0, values, 0, pos.length);
+        System.arraycopy(neg, 0, values, pos.length, neg.length);
+        assertEquals(values.length, histogram.getSpikeCount());
+        assertEquals(values.length, histogram.countValueRange(Short.MIN_VALUE, Short.MAX_VALUE));
+        // valley between the two positive units
+        final int valley = histogram.findValley(2750, 1000, 100);
+        assertEquals(bruteForceValley(values, 2750, 1000, 100), valley);
+        assertTrue(valley > 1500 + 300 && valley < 4000 - 300);
+        checkQueries(histogram, values, random);
+    }
+
+    // Random values between minValue and maxValue (both inclusive), a third of them close to each of the two centers
+    private static short[] values(Random random, int count, int minValue, int maxValue, int center1, int center2) {
+        final short[] values = new short[count];
+        for (int i = 0; i < count; i++) {
+            final int value;
+            if (i % 3 == 0) {
+                value = center1 + (int) Math.round(random.nextGaussian() * 150);
+            } else if (i % 3 == 1) {
+                value = center2 + (int) Math.round(random.nextGaussian() * 150);
+            } else {
+                value = minValue + random.nextInt(maxValue - minValue + 1);
+            }
+            values[i] = (short) Math.max(minValue, Math.min(maxValue, value));
+        }
+        return values;
+    }
+
+    // Writes positive and negative spikes of a single channel and opens histogram of the committed ones
+    private SpikeAmplitudeHistogram writeAndOpen(short[] pos, short[] neg) throws IOException {
+        final SpikeColumnWriter writer = store.newWriter();
+        writer.write(0, true, pos, indices(pos.length), new float[pos.length], pos.length);
+        writer.write(0, false, neg, indices(neg.length), new float[neg.length], neg.length);
+        writer.commit(ANALYSIS_ID);
+        assertEquals(pos.length + neg.length, writer.getSpikeCount());
+
+        final SpikeAmplitudeHistogram histogram = store.openHistogram(ANALYSIS_ID, 0);
+        assertNotNull(histogram);
+        return histogram;
+    }
+
+    private static int[] indices(int count) {
+        final int[] indices = new int[count];
+        for (int i = 0; i < count; i++) indices[i] = i * 10;
+        return indices;
+    }
+
+    // Compares value range counts and valleys, including the ones reaching past 16-bit values, with brute-force scans
+    private static void checkQueries(SpikeAmplitudeHistogram histogram, short[] values, Random random) {
+        final int[][] ranges = {
+            { Short.MIN_VALUE, Short.MAX_VALUE }, { -40000, 40000 }, { Short.MIN_VALUE, Short.MIN_VALUE },
+            { Short.MAX_VALUE, Short.MAX_VALUE }, { 0, 0 }, { -1, 0 }, { 500, 100 }, { 40000, 50000 }
+        };
+        for (int[] range : ranges) {
+            assertEquals(range[0] + ".." + range[1], bruteForceCount(values, range[0], range[1]),
+                histogram.countValueRange(range[0], range[1]));
+        }
+        for (int i = 0; i < 500; i++) {
+            final int min = random.nextInt(70000) - 35000;
+            final int max = min + random.nextInt(i % 2 == 0 ? 100 : 20000);
+            assertEquals(min + ".." + max, bruteForceCount(values, min, max), histogram.countValueRange(min, max));
+        }
+        for (int i = 0; i < 200; i++) {
+            final int value = i % 10 == 0 ? (i % 20 == 0 ? Short.MIN_VALUE : Short.MAX_VALUE)
+                : random.nextInt(70000) - 35000;
+            final int radius = random.nextInt(500);
+            final int smoothing = 1 + random.nextInt(50);
+            assertEquals(value + " +- " + radius, bruteForceValley(values, value, radius, smoothing),
+                histogram.findValley(value, radius, smoothing));
+        }
+    }
+
+    private static int bruteForceCount(short[] values, int minValue, int maxValue) {
+        int count = 0;
+        for (short value : values) if (value >= minValue && value <= maxValue) count++;
+        return count;
+    }
+
+    // Least dense value within the radius, the closest one to the specified value and then the smaller one wins ties
+    private static int bruteForceValley(short[] values, int value, int radius, int smoothing) {
+        int valley = value;
+        int valleyCount = bruteForceCount(values, value - smoothing, value + smoothing);
+        for (int d = 1; d <= radius; d++) {
+            for (int candidate : new int[] { value - d, value + d }) {
+                final int count = bruteForceCount(values, candidate - smoothing, candidate + smoothing);
+                if (count < valleyCount) {
+                    valley = candidate;
+                    valleyCount = count;
+                }
+            }
+        }
+        return valley;
+    }
+}
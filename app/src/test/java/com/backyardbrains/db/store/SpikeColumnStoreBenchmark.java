@@ -0,0 +1,98 @@
+package com.backyardbrains.db.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Measures how fast spikes are written to {@link SpikeColumnStore} and how long index and value range queries take.
+ * It's not run with the unit tests, run it manually with the number of spikes as the only argument (defaults to 10
+ * million).
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeColumnStoreBenchmark {
+
+    private static final long ANALYSIS_ID = 1;
+    private static final int BATCH_SIZE = 4096;
+    // number of samples in visible window of 4 seconds at 10 kHz
+    private static final int WINDOW_SIZE = 40000;
+    private static final int INDEX_QUERY_COUNT = 20000;
+    private static final int VALUE_QUERY_COUNT = 200;
+
+    public static void main(String[] args) throws IOException {
+        final int spikeCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        final File rootDir = Files.createTempDirectory("spike_store_benchmark").toFile();
+        final SpikeColumnStore store = new SpikeColumnStore(rootDir);
+        try {
+            run(store, spikeCount / 2);
+        } finally {
+            store.delete(ANALYSIS_ID);
+            SpikeColumnStore.deleteRecursively(rootDir);
+        }
+    }
+
+    private static void run(SpikeColumnStore store, int count) throws IOException {
+        final Random random = new Random(1);
+        final SpikeColumnStoreTest.Spikes pos = SpikeColumnStoreTest.Spikes.random(random, count, true, 1, 3000);
+        final SpikeColumnStoreTest.Spikes neg = SpikeColumnStoreTest.Spikes.random(random, count, false, 1, 3000);
+
+        // WRITE
+        final long start = System.nanoTime();
+        final SpikeColumnWriter writer = store.newWriter();
+        final int[] indices = new int[BATCH_SIZE];
+        final short[] values = new short[BATCH_SIZE];
+        final float[] times = new float[BATCH_SIZE];
+        for (int from = 0; from < count; from += BATCH_SIZE) {
+            final int batch = Math.min(BATCH_SIZE, count - from);
+            for (SpikeColumnStoreTest.Spikes spikes : new SpikeColumnStoreTest.Spikes[] { pos, neg }) {
+                System.arraycopy(spikes.indices, from, indices, 0, batch);
+                System.arraycopy(spikes.values, from, values, 0, batch);
+                System.arraycopy(spikes.times, from, times, 0, batch);
+                writer.write(0, spikes == pos, values, indices, times, batch);
+            }
+        }
+        final long appended = System.nanoTime();
+        writer.finish();
+        final long finished = System.nanoTime();
+        writer.commit(ANALYSIS_ID);
+        final long committed = System.nanoTime();
+        System.out.printf("write %d spikes: append %.0f ms, finish %.0f ms, commit %.1f ms, %.2f M spikes/s%n",
+            2 * count, (appended - start) / 1e6, (finished - appended) / 1e6, (committed - finished) / 1e6,
+            2 * count / ((committed - start) / 1e3));
+
+        final SpikeColumnFile file = store.open(ANALYSIS_ID, 0);
+        if (file == null) throw new IllegalStateException("Committed spikes are missing");
+        final int spikeCount = file.getSpikeCount();
+        final int lastIndex = Math.max(pos.indices[count - 1], neg.indices[count - 1]);
+
+        // INDEX RANGE QUERIES
+        final int[] windowIndices = new int[spikeCount];
+        final short[] windowValues = new short[spikeCount];
+        long total = 0;
+        long queryStart = System.nanoTime();
+        for (int i = 0; i < INDEX_QUERY_COUNT; i++) {
+            final int fromIndex = random.nextInt(lastIndex);
+            final int from = file.findFirstAtOrAfter(fromIndex);
+            final int to = file.findFirstAfter(fromIndex + WINDOW_SIZE);
+            file.readIndices(from, to, windowIndices);
+            file.readValues(from, to, windowValues);
+            total += to - from;
+        }
+        System.out.printf("index range query and read (avg %d spikes): %.1f us%n", total / INDEX_QUERY_COUNT,
+            (System.nanoTime() - queryStart) / 1e3 / INDEX_QUERY_COUNT);
+
+        // VALUE RANGE QUERIES, narrow ones go through value order and wide ones scan the value column
+        for (int width : new int[] { 20, 200, 2000 }) {
+            total = 0;
+            queryStart = System.nanoTime();
+            for (int i = 0; i < VALUE_QUERY_COUNT; i++) {
+                final int min = random.nextInt(3000 - width) + 1;
+                total += file.findPositionsForValueRange(min, min + width).length;
+            }
+            System.out.printf("value range query of width %d (avg %d spikes): %.2f ms%n", width,
+                total / VALUE_QUERY_COUNT, (System.nanoTime() - queryStart) / 1e6 / VALUE_QUERY_COUNT);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.backyardbrains.db.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeColumnStoreTest {
+
+    private static final long ANALYSIS_ID = 3;
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * Spikes of a single channel and polarity sorted by index.
+     */
+    static class Spikes {
+
+        final int[] indices;
+        final short[] values;
+        final float[] times;
+
+        Spikes(int count) {
+            indices = new int[count];
+            values = new short[count];
+            times = new float[count];
+        }
+
+        // Random spikes with indices that are sorted but repeat every now and then
+        static Spikes random(Random random, int count, boolean positive, int minValue, int maxValue) {
+            final Spikes spikes = new Spikes(count);
+            int index = random.nextInt(100);
+            for (int i = 0; i < count; i++) {
+                index += random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(50);
+                spikes.indices[i] = index;
+                spikes.times[i] = index / 10000f;
+                final int value = minValue + random.nextInt(maxValue - minValue + 1);
+                spikes.values[i] = (short) (positive ? value : -value);
+            }
+            return spikes;
+        }
+
+        // Merges positive and negative spikes the way writer does, positive ones go first if indices are equal
+        static Spikes merge(Spikes pos, Spikes neg) {
+            final Spikes merged = new Spikes(pos.indices.length + neg.indices.length);
+            int p = 0, n = 0;
+            for (int i = 0; i < merged.indices.length; i++) {
+                final Spikes from;
+                final int j;
+                if (n >= neg.indices.length || (p < pos.indices.length && pos.indices[p] <= neg.indices[n])) {
+                    from = pos;
+                    j = p++;
+                } else {
+                    from = neg;
+                    j = n++;
+                }
+                merged.indices[i] = from.indices[j];
+                merged.values[i] = from.values[j];
+                merged.times[i] = from.times[j];
+            }
+            return merged;
+        }
+    }
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File rootDir;
+    private SpikeColumnStore store;
+
+    @Before public void setUp() throws IOException {
+        rootDir = folder.newFolder();
+        store = new SpikeColumnStore(rootDir);
+    }
+
+    @Test public void committedSpikesMatchWrittenOnes() throws IOException {
+        final Random random = new Random(1);
+        // more than one block, exactly one block and less than one block of spikes
+        final Spikes[][] written = {
+            { Spikes.random(random, 2500, true, 1, 3000), Spikes.random(random, 1700, false, 1, 3000) },
+            { Spikes.random(random, SpikeColumnFile.BLOCK_SIZE, true, 0, 32767), new Spikes(0) },
+            { new Spikes(0), Spikes.random(random, 10, false, 1, 32768) },
+        };
+        writeAndCommit(written);
+
+        for (int channel = 0; channel < written.length; channel++) {
+            final Spikes expected = Spikes.merge(written[channel][0], written[channel][1]);
+            final SpikeColumnFile file = store.open(ANALYSIS_ID, channel);
+            assertNotNull(file);
+            assertEquals(expected.indices.length, file.getSpikeCount());
+
+            final int count = file.getSpikeCount();
+            final int[] indices = new int[count];
+            final short[] values = new short[count];
+            final float[] times = new float[count];
+            file.readIndices(0, count, indices);
+            file.readValues(0, count, values);
+            file.readTimes(0, count, times);
+            assertArrayEquals(expected.indices, indices);
+            assertArrayEquals(expected.values, values);
+            assertArrayEquals(expected.times, times, 0f);
+        }
+        assertNull(store.open(ANALYSIS_ID, written.length));
+    }
+
+    @Test public void indexRangeQueriesMatchLinearScan() throws IOException {
+        final Random random = new Random(2);
+        final Spikes[][] written = { { Spikes.random(random, 5000, true, 1, 3000), Spikes.random(random, 4000, false,
+            1, 3000) } };
+        writeAndCommit(written);
+        final Spikes expected = Spikes.merge(written[0][0], written[0][1]);
+        final SpikeColumnFile file = store.open(ANALYSIS_ID, 0);
+        assertNotNull(file);
+
+        final int lastIndex = expected.indices[expected.indices.length - 1];
+        for (int i = 0; i < 2000; i++) {
+            final int index = random.nextInt(lastIndex + 200) - 100;
+            assertEquals(firstAtOrAfter(expected.indices, index), file.findFirstAtOrAfter(index));
+            assertEquals(firstAtOrAfter(expected.indices, index + 1L), file.findFirstAfter(index));
+        }
+        // every stored index, including the repeated ones and the ones at block boundaries
+        for (int index : expected.indices) {
+            assertEquals(firstAtOrAfter(expected.indices, index), file.findFirstAtOrAfter(index));
+            assertEquals(firstAtOrAfter(expected.indices, index + 1L), file.findFirstAfter(index));
+        }
+        assertEquals(0, file.findFirstAtOrAfter(Integer.MIN_VALUE));
+        assertEquals(expected.indices.length, file.findFirstAfter(Integer.MAX_VALUE));
+    }
+
+    @Test public void valueRangeQueriesMatchLinearScan() throws IOException {
+        final Random random = new Random(3);
+        final Spikes[][] written = { { Spikes.random(random, 6000, true, 1, 3000), Spikes.random(random, 6000, false,
+            1, 3000) } };
+        writeAndCommit(written);
+        final Spikes expected = Spikes.merge(written[0][0], written[0][1]);
+        final SpikeColumnFile file = store.open(ANALYSIS_ID, 0);
+        assertNotNull(file);
+
+        // narrow ranges are resolved through value order and wide ones by scanning the value column
+        final int[][] ranges = {
+            { 100, 110 }, { -3000, -2990 }, { 0, 0 }, { 1, 1 }, { -100, 2500 }, { -40000, 40000 }, { 2999, 5000 },
+            { 500, 100 }, { Short.MIN_VALUE, Short.MIN_VALUE }, { Short.MAX_VALUE, Short.MAX_VALUE }
+        };
+        for (int[] range : ranges) checkValueRange(file, expected.values, range[0], range[1]);
+        for (int i = 0; i < 300; i++) {
+            final int min = random.nextInt(7000) - 3500;
+            checkValueRange(file, expected.values, min, min + random.nextInt(i % 2 == 0 ? 50 : 3000));
+        }
+    }
+
+    @Test public void indexBinCountsMatchBruteForce() throws IOException {
+        final Random random = new Random(6);
+        final Spikes[][] written = { { Spikes.random(random, 20000, true, 1, 3000), Spikes.random(random, 15000,
+            false, 1, 3000) } };
+        writeAndCommit(written);
+        final Spikes expected = Spikes.merge(written[0][0], written[0][1]);
+        final byte[] clusters = new byte[expected.indices.length];
+        for (int i = 0; i < clusters.length; i++) clusters[i] = (byte) (random.nextInt(4) - 1);
+        store.saveClusters(ANALYSIS_ID, 0, clusters);
+        final SpikeColumnFile file = store.open(ANALYSIS_ID, 0);
+        final SpikeClusterFile clusterFile = store.openClusters(ANALYSIS_ID, 0);
+        assertNotNull(file);
+        assertNotNull(clusterFile);
+
+        // threshold trains, the last two are cluster trains whose thresholds are ignored
+        final int[] minValues = { 100, -3000, Short.MIN_VALUE, 0, 0 };
+        final int[] maxValues = { 2000, -1, Short.MAX_VALUE, 0, 0 };
+        final int[] trainClusters = { SpikeClusterFile.NO_CLUSTER, SpikeClusterFile.NO_CLUSTER,
+            SpikeClusterFile.NO_CLUSTER, 0, 2 };
+        final int lastIndex = expected.indices[expected.indices.length - 1];
+        for (int binSize : new int[] { 1, 1000, 7777, lastIndex + 1 }) {
+            // every bin count covers all the spikes, the last bin only partially, and half of the groups end before
+            // the last spikes, which are then not counted
+            final int binCount = lastIndex / binSize + 1;
+            final int[][] counts = new int[minValues.length][];
+            for (int j = 0; j < counts.length; j++) counts[j] = new int[j % 2 == 0 ? binCount : (binCount + 1) / 2];
+            file.countIndexBins(binSize, minValues, maxValues, trainClusters, clusterFile, counts);
+            for (int j = 0; j < counts.length; j++) {
+                assertArrayEquals("bin size " + binSize + ", train " + j,
+                    bruteForceBins(expected, clusters, binSize, minValues[j], maxValues[j], trainClusters[j],
+                        counts[j].length), counts[j]);
+            }
+        }
+
+        // without clusters all the trains are threshold trains
+        final int[][] counts = new int[minValues.length][lastIndex / 1000 + 1];
+        file.countIndexBins(1000, minValues, maxValues, null, null, counts);
+        for (int j = 0; j < counts.length; j++) {
+            assertArrayEquals(bruteForceBins(expected, clusters, 1000, minValues[j], maxValues[j],
+                SpikeClusterFile.NO_CLUSTER, counts[j].length), counts[j]);
+        }
+        // cluster trains are empty if clusters are missing
+        final int[][] missing = new int[minValues.length][lastIndex / 1000 + 1];
+        file.countIndexBins(1000, minValues, maxValues, trainClusters, null, missing);
+        assertArrayEquals(counts[0], missing[0]);
+        assertArrayEquals(new int[missing[4].length], missing[4]);
+    }
+
+    @Test public void recommitReplacesPreviousSpikes() throws IOException {
+        final Random random = new Random(4);
+        writeAndCommit(new Spikes[][] {
+            { Spikes.random(random, 100, true, 1, 100), null }, { Spikes.random(random, 100, true, 1, 100), null }
+        });
+        final SpikeColumnFile first = store.open(ANALYSIS_ID, 0);
+        assertNotNull(first);
+        assertEquals(100, first.getSpikeCount());
+
+        writeAndCommit(new Spikes[][] { { Spikes.random(random, 30, true, 1, 100), null } });
+        final SpikeColumnFile second = store.open(ANALYSIS_ID, 0);
+        assertNotNull(second);
+        assertEquals(30, second.getSpikeCount());
+        assertNull(store.open(ANALYSIS_ID, 1));
+    }
+
+    @Test public void writtenClustersAreVisibleOnlyOncePublished() throws IOException {
+        writeAndCommit(new Spikes[][] { { Spikes.random(new Random(7), 3, true, 1, 100), null } });
+        store.saveClusters(ANALYSIS_ID, 0, new byte[] { 0, 0, 0 });
+
+        store.writeClusters(ANALYSIS_ID, 0, new byte[] { 1, 1, 1 });
+        SpikeClusterFile clusters = store.openClusters(ANALYSIS_ID, 0);
+        assertNotNull(clusters);
+        assertEquals(3, clusters.countCluster(0));
+
+        store.discardClusters(ANALYSIS_ID, 0);
+        clusters = store.openClusters(ANALYSIS_ID, 0);
+        assertNotNull(clusters);
+        assertEquals(3, clusters.countCluster(0));
+
+        store.writeClusters(ANALYSIS_ID, 0, new byte[] { 1, 1, 1 });
+        store.publishClusters(ANALYSIS_ID, 0);
+        clusters = store.openClusters(ANALYSIS_ID, 0);
+        assertNotNull(clusters);
+        assertEquals(3, clusters.countCluster(1));
+    }
+
+    @Test public void abortedSpikesAreNotVisible() throws IOException {
+        final SpikeColumnWriter writer = store.newWriter();
+        writer.write(0, true, new short[] { 100 }, new int[] { 10 }, new float[] { .001f }, 1);
+        writer.finish();
+        writer.abort();
+
+        assertFalse(store.contains(ANALYSIS_ID));
+        final String[] names = rootDir.list();
+        assertNotNull(names);
+        assertEquals(0, names.length);
+    }
+
+    @Test public void deletedSpikesAreNotVisible() throws IOException {
+        writeAndCommit(new Spikes[][] { { Spikes.random(new Random(5), 100, true, 1, 100), null } });
+        assertNotNull(store.open(ANALYSIS_ID, 0));
+
+        store.delete(ANALYSIS_ID);
+        assertFalse(store.contains(ANALYSIS_ID));
+        assertNull(store.open(ANALYSIS_ID, 0));
+    }
+
+    @Test public void pendingSpikesOfPreviousRunAreDeletedBeforeFirstWriter() throws IOException {
+        final File leftover = new File(rootDir, "pending-123");
+        assertTrue(leftover.mkdirs());
+        assertTrue(new File(leftover, "0.pos").createNewFile());
+
+        final SpikeColumnWriter writer = store.newWriter();
+        assertFalse(leftover.exists());
+        writer.abort();
+    }
+
+    @Test public void pendingSpikesOfLiveWriterAreNotDeleted() throws IOException {
+        final SpikeColumnWriter writer = store.newWriter();
+        writer.write(0, true, new short[] { 100, 200 }, new int[] { 10, 20 }, new float[] { .001f, .002f }, 2);
+
+        // cleanup that was scheduled at startup but ran only after analysis started
+        store.deletePending();
+
+        writer.commit(ANALYSIS_ID);
+        final SpikeColumnFile file = store.open(ANALYSIS_ID, 0);
+        assertNotNull(file);
+        assertEquals(2, file.getSpikeCount());
+    }
+
+    // Writes positive and negative spikes of every channel in interleaved batches, the way analysis passes them
+    private void writeAndCommit(Spikes[][] channels) throws IOException {
+        final SpikeColumnWriter writer = store.newWriter();
+        final int[] indices = new int[BATCH_SIZE];
+        final short[] values = new short[BATCH_SIZE];
+        final float[] times = new float[BATCH_SIZE];
+        boolean written = true;
+        for (int from = 0; written; from += BATCH_SIZE) {
+            written = false;
+            for (int channel = 0; channel < channels.length; channel++) {
+                for (int polarity = 0; polarity < 2; polarity++) {
+                    final Spikes spikes = channels[channel][polarity];
+                    if (spikes == null || from >= spikes.indices.length) continue;
+
+                    final int count = Math.min(BATCH_SIZE, spikes.indices.length - from);
+                    System.arraycopy(spikes.indices, from, indices, 0, count);
+                    System.arraycopy(spikes.values, from, values, 0, count);
+                    System.arraycopy(spikes.times, from, times, 0, count);
+                    writer.write(channel, polarity == 0, values, indices, times, count);
+                    written = true;
+                }
+            }
+        }
+        writer.commit(ANALYSIS_ID);
+    }
+
+    private static void checkValueRange(SpikeColumnFile file, short[] values, int minValue, int maxValue) {
+        int count = 0;
+        final int[] expected = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] >= minValue && values[i] <= maxValue) expected[count++] = i;
+        }
+        final String range = minValue + ".." + maxValue;
+        assertArrayEquals(range, Arrays.copyOf(expected, count), file.findPositionsForValueRange(minValue, maxValue));
+        assertEquals(range, count, file.countValueRange(minValue, maxValue));
+    }
+
+    // Number of specified spikes that belong to the train within every bin, one spike at a time
+    private static int[] bruteForceBins(Spikes spikes, byte[] clusters, int binSize, int minValue, int maxValue,
+        int cluster, int binCount) {
+        final int[] counts = new int[binCount];
+        for (int i = 0; i < spikes.indices.length; i++) {
+            final boolean inTrain = cluster != SpikeClusterFile.NO_CLUSTER ? clusters[i] == cluster
+                : spikes.values[i] >= minValue && spikes.values[i] <= maxValue;
+            final int bin = spikes.indices[i] / binSize;
+            if (inTrain && bin < binCount) counts[bin]++;
+        }
+        return counts;
+    }
+
+    // Position of the first of specified sorted indices that's not smaller than specified index
+    private static int firstAtOrAfter(int[] indices, long index) {
+        int i = 0;
+        while (i < indices.length && indices[i] < index) i++;
+        return i;
+    }
+}
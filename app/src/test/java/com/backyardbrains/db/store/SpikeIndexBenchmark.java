@@ -0,0 +1,106 @@
+package com.backyardbrains.db.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Measures how long it takes to load {@link SpikeIndex} from the {@link SpikeColumnStore} and compares its queries to
+ * the same queries run against the mapped {@link SpikeColumnFile}. It's not run with the unit tests, run it manually
+ * with the number of spikes as the only argument (defaults to 1 million).
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeIndexBenchmark {
+
+    private static final long ANALYSIS_ID = 1;
+    private static final int COUNT_QUERY_COUNT = 1000000;
+    private static final int POSITION_QUERY_COUNT = 50;
+    // number of samples in visible window of 5 seconds at 44.1 kHz
+    private static final int WINDOW_SIZE = 220500;
+
+    public static void main(String[] args) throws IOException {
+        final int spikeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final File rootDir = Files.createTempDirectory("spike_index_benchmark").toFile();
+        final SpikeColumnStore store = new SpikeColumnStore(rootDir);
+        try {
+            run(store, spikeCount / 2);
+        } finally {
+            store.delete(ANALYSIS_ID);
+            SpikeColumnStore.deleteRecursively(rootDir);
+        }
+    }
+
+    private static void run(SpikeColumnStore store, int count) throws IOException {
+        final Random random = new Random(1);
+        final SpikeColumnStoreTest.Spikes pos = SpikeColumnStoreTest.Spikes.random(random, count, true, 1, 3000);
+        final SpikeColumnStoreTest.Spikes neg = SpikeColumnStoreTest.Spikes.random(random, count, false, 1, 3000);
+        final SpikeColumnWriter writer = store.newWriter();
+        writer.write(0, true, pos.values, pos.indices, pos.times, count);
+        writer.write(0, false, neg.values, neg.indices, neg.times, count);
+        writer.commit(ANALYSIS_ID);
+        final SpikeColumnFile file = store.open(ANALYSIS_ID, 0);
+        if (file == null) throw new IllegalStateException("Committed spikes are missing");
+        final int spikeCount = file.getSpikeCount();
+        final int lastIndex = Math.max(pos.indices[count - 1], neg.indices[count - 1]);
+
+        // LOAD, the best of several runs
+        SpikeIndex index = null;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            final long start = System.nanoTime();
+            final int[] indices = new int[spikeCount];
+            final float[] times = new float[spikeCount];
+            final short[] values = new short[spikeCount];
+            file.readIndices(0, spikeCount, indices);
+            file.readTimes(0, spikeCount, times);
+            file.readValues(0, spikeCount, values);
+            index = new SpikeIndex(indices, times, values);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("load index of %d spikes: %.1f ms, %.1f MB%n", spikeCount, best / 1e6,
+            index.getSizeInBytes() / 1048576.0);
+
+        // second round is measured once the code is compiled
+        for (int round = 0; round < 2; round++) {
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < COUNT_QUERY_COUNT; i++) {
+                final int min = i * 37 % 6000 - 3000;
+                sum += index.countValueRange(min, min + 1500);
+            }
+            final double indexCountNs = (System.nanoTime() - start) / (double) COUNT_QUERY_COUNT;
+            start = System.nanoTime();
+            for (int i = 0; i < COUNT_QUERY_COUNT; i++) {
+                final int min = i * 37 % 6000 - 3000;
+                sum += file.countValueRange(min, min + 1500);
+            }
+            final double fileCountNs = (System.nanoTime() - start) / (double) COUNT_QUERY_COUNT;
+
+            start = System.nanoTime();
+            for (int i = 0; i < COUNT_QUERY_COUNT; i++) {
+                final int from = (int) (i * 7919L % lastIndex);
+                sum += index.findFirstAfter(from + WINDOW_SIZE) - index.findFirstAtOrAfter(from);
+            }
+            final double indexWindowNs = (System.nanoTime() - start) / (double) COUNT_QUERY_COUNT;
+            start = System.nanoTime();
+            for (int i = 0; i < COUNT_QUERY_COUNT; i++) {
+                final int from = (int) (i * 7919L % lastIndex);
+                sum += file.findFirstAfter(from + WINDOW_SIZE) - file.findFirstAtOrAfter(from);
+            }
+            final double fileWindowNs = (System.nanoTime() - start) / (double) COUNT_QUERY_COUNT;
+
+            start = System.nanoTime();
+            for (int i = 0; i < POSITION_QUERY_COUNT; i++) sum += index.findPositionsForValueRange(500, 3000).length;
+            final double indexPositionsMs = (System.nanoTime() - start) / 1e6 / POSITION_QUERY_COUNT;
+            start = System.nanoTime();
+            for (int i = 0; i < POSITION_QUERY_COUNT; i++) sum += file.findPositionsForValueRange(500, 3000).length;
+            final double filePositionsMs = (System.nanoTime() - start) / 1e6 / POSITION_QUERY_COUNT;
+
+            System.out.printf("index/file: count %.0f/%.0f ns, window bounds %.0f/%.0f ns, train positions "
+                    + "%.2f/%.2f ms (checksum %d)%n", indexCountNs, fileCountNs, indexWindowNs, fileWindowNs,
+                indexPositionsMs, filePositionsMs, sum);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.backyardbrains.db.store;
+
+import androidx.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeIndexCacheTest {
+
+    private static final long ANALYSIS_ID = 5;
+
+    /**
+     * Runs loads only when asked to so the test decides when they happen.
+     */
+    private static class ManualExecutor implements Executor {
+
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) tasks.poll().run();
+        }
+    }
+
+    /**
+     * Loads indices of specified size, or fails to, and remembers how many times it was asked to.
+     */
+    private static class TestLoader implements SpikeIndexCache.Loader {
+
+        int spikeCount = 100;
+        boolean failCount;
+        boolean failLoad;
+        int countCalls;
+        int loadCalls;
+
+        @Override public int count(long analysisId, int channel) {
+            countCalls++;
+            return failCount ? -1 : spikeCount;
+        }
+
+        @Nullable @Override public SpikeIndex load(long analysisId, int channel) {
+            loadCalls++;
+            return failLoad ? null : createIndex(spikeCount);
+        }
+    }
+
+    private final ManualExecutor executor = new ManualExecutor();
+    private TestLoader loader;
+
+    @Before public void setUp() {
+        loader = new TestLoader();
+    }
+
+    @Test public void indexIsLoadedInBackground() {
+        final SpikeIndexCache cache = new SpikeIndexCache(loader, executor, 1 << 20);
+
+        assertNull(cache.peek(ANALYSIS_ID, 0));
+        // only one load is scheduled no matter how many times index is asked for
+        assertNull(cache.peek(ANALYSIS_ID, 0));
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        final SpikeIndex index = cache.peek(ANALYSIS_ID, 0);
+        assertNotNull(index);
+        assertEquals(100, index.getSpikeCount());
+        assertSame(index, cache.peek(ANALYSIS_ID, 0));
+        assertEquals(1, loader.loadCalls);
+    }
+
+    @Test public void emptyChannelIsCached() {
+        loader.spikeCount = 0;
+        final SpikeIndexCache cache = new SpikeIndexCache(loader, executor, 1 << 20);
+
+        cache.peek(ANALYSIS_ID, 0);
+        executor.runAll();
+        final SpikeIndex index = cache.peek(ANALYSIS_ID, 0);
+        assertNotNull(index);
+        assertEquals(0, index.getSpikeCount());
+    }
+
+    @Test public void failedLoadIsRetried() {
+        final SpikeIndexCache cache = new SpikeIndexCache(loader, executor, 1 << 20);
+
+        loader.failLoad = true;
+        cache.peek(ANALYSIS_ID, 0);
+        executor.runAll();
+        assertNull(cache.peek(ANALYSIS_ID, 0));
+        assertEquals(1, executor.tasks.size());
+
+        loader.failLoad = false;
+        executor.runAll();
+        assertNotNull(cache.peek(ANALYSIS_ID, 0));
+        assertEquals(2, loader.loadCalls);
+    }
+
+    @Test public void failedCountIsRetried() {
+        final SpikeIndexCache cache = new SpikeIndexCache(loader, executor, 1 << 20);
+
+        loader.failCount = true;
+        cache.peek(ANALYSIS_ID, 0);
+        executor.runAll();
+        assertNull(cache.peek(ANALYSIS_ID, 0));
+        assertEquals(0, loader.loadCalls);
+
+        loader.failCount = false;
+        executor.runAll();
+        assertNotNull(cache.peek(ANALYSIS_ID, 0));
+    }
+
+    @Test public void tooLargeIndexIsNeitherLoadedNorCountedAgain() {
+        loader.spikeCount = 1000;
+        final SpikeIndexCache cache = new SpikeIndexCache(loader, executor, SpikeIndex.estimateSizeInBytes(999));
+
+        cache.peek(ANALYSIS_ID, 0);
+        executor.runAll();
+        assertNull(cache.peek(ANALYSIS_ID, 0));
+        assertEquals(0, executor.tasks.size());
+        assertEquals(1, loader.countCalls);
+        assertEquals(0, loader.loadCalls);
+
+        // until analysis changes
+        cache.evict(ANALYSIS_ID);
+        loader.spikeCount = 10;
+        cache.peek(ANALYSIS_ID, 0);
+        executor.runAll();
+        assertNotNull(cache.peek(ANALYSIS_ID, 0));
+    }
+
+    @Test public void leastRecentlyUsedIndexIsRemovedFirst() {
+        // room for two indices of 100 spikes, distinct values are accounted for as well
+        final SpikeIndexCache cache = new SpikeIndexCache(loader, executor,
+            2 * createIndex(100).getSizeInBytes() + 1);
+
+        cache.peek(ANALYSIS_ID, 0);
+        cache.peek(ANALYSIS_ID, 1);
+        executor.runAll();
+        // channel 0 is used more recently than channel 1
+        assertNotNull(cache.peek(ANALYSIS_ID, 0));
+        cache.peek(ANALYSIS_ID, 2);
+        executor.runAll();
+
+        assertNotNull(cache.peek(ANALYSIS_ID, 0));
+        assertNotNull(cache.peek(ANALYSIS_ID, 2));
+        assertNull(cache.peek(ANALYSIS_ID, 1));
+    }
+
+    @Test public void indexLoadedBeforeEvictionIsNotCached() {
+        final SpikeIndexCache cache = new SpikeIndexCache(loader, executor, 1 << 20);
+
+        cache.peek(ANALYSIS_ID, 0);
+        // spikes are replaced by a new analysis while the old ones are being loaded
+        cache.evict(ANALYSIS_ID);
+        executor.runAll();
+        assertNull(cache.peek(ANALYSIS_ID, 0));
+
+        executor.runAll();
+        assertNotNull(cache.peek(ANALYSIS_ID, 0));
+    }
+
+    @Test public void clearRemovesAllIndices() {
+        final SpikeIndexCache cache = new SpikeIndexCache(loader, executor, 1 << 20);
+
+        cache.peek(ANALYSIS_ID, 0);
+        cache.peek(ANALYSIS_ID + 1, 0);
+        executor.runAll();
+        cache.clear();
+
+        assertNull(cache.peek(ANALYSIS_ID, 0));
+        assertNull(cache.peek(ANALYSIS_ID + 1, 0));
+    }
+
+    // Index with specified number of spikes with distinct values
+    private static SpikeIndex createIndex(int spikeCount) {
+        final int[] indices = new int[spikeCount];
+        final float[] times = new float[spikeCount];
+        final short[] values = new short[spikeCount];
+        for (int i = 0; i < spikeCount; i++) {
+            indices[i] = i * 10;
+            times[i] = i / 1000f;
+            values[i] = (short) (i - spikeCount / 2);
+        }
+        return new SpikeIndex(indices, times, values);
+    }
+}
@@ -0,0 +1,76 @@
+package com.backyardbrains.db.store;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeIndexTest {
+
+    @Test public void queriesMatchLinearScan() {
+        final Random random = new Random(1);
+        final SpikeColumnStoreTest.Spikes spikes = SpikeColumnStoreTest.Spikes.merge(
+            SpikeColumnStoreTest.Spikes.random(random, 5000, true, 1, 3000),
+            SpikeColumnStoreTest.Spikes.random(random, 5000, false, 1, 3000));
+        final SpikeIndex index = new SpikeIndex(spikes.indices, spikes.times, spikes.values);
+        assertEquals(spikes.indices.length, index.getSpikeCount());
+
+        // narrow ranges are resolved through value order and wide ones by scanning the values
+        final int[][] ranges = {
+            { 100, 110 }, { -3000, -2990 }, { 0, 0 }, { -100, 2500 }, { -40000, 40000 }, { 500, 100 },
+            { Short.MIN_VALUE, Short.MIN_VALUE }, { Short.MAX_VALUE, Short.MAX_VALUE }
+        };
+        for (int[] range : ranges) checkValueRange(index, spikes.values, range[0], range[1]);
+        for (int i = 0; i < 300; i++) {
+            final int min = random.nextInt(7000) - 3500;
+            checkValueRange(index, spikes.values, min, min + random.nextInt(i % 2 == 0 ? 50 : 3000));
+        }
+
+        final int lastIndex = spikes.indices[spikes.indices.length - 1];
+        for (int i = 0; i < 2000; i++) {
+            final int sampleIndex = random.nextInt(lastIndex + 200) - 100;
+            assertEquals(firstAtOrAfter(spikes.indices, sampleIndex), index.findFirstAtOrAfter(sampleIndex));
+            assertEquals(firstAtOrAfter(spikes.indices, sampleIndex + 1L), index.findFirstAfter(sampleIndex));
+        }
+        assertEquals(spikes.indices.length, index.findFirstAfter(Integer.MAX_VALUE));
+
+        for (int i = 0; i < spikes.indices.length; i++) {
+            assertEquals(spikes.indices[i], index.getIndex(i));
+            assertEquals(spikes.values[i], index.getValue(i));
+            assertEquals(spikes.times[i], index.getTime(i), 0f);
+        }
+    }
+
+    @Test public void emptyIndexHasNoSpikes() {
+        final SpikeIndex index = new SpikeIndex(new int[0], new float[0], new short[0]);
+
+        assertEquals(0, index.getSpikeCount());
+        assertEquals(0, index.countValueRange(Short.MIN_VALUE, Short.MAX_VALUE));
+        assertEquals(0, index.findPositionsForValueRange(Short.MIN_VALUE, Short.MAX_VALUE).length);
+        assertEquals(0, index.findFirstAtOrAfter(100));
+        assertEquals(0, index.findFirstAfter(Integer.MAX_VALUE));
+    }
+
+    private static void checkValueRange(SpikeIndex index, short[] values, int minValue, int maxValue) {
+        int count = 0;
+        final int[] expected = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] >= minValue && values[i] <= maxValue) expected[count++] = i;
+        }
+        final String range = minValue + ".." + maxValue;
+        assertArrayEquals(range, Arrays.copyOf(expected, count), index.findPositionsForValueRange(minValue, maxValue));
+        assertEquals(range, count, index.countValueRange(minValue, maxValue));
+    }
+
+    // Position of the first of specified sorted indices that's not smaller than specified index
+    private static int firstAtOrAfter(int[] indices, long index) {
+        int i = 0;
+        while (i < indices.length && indices[i] < index) i++;
+        return i;
+    }
+}
@@ -0,0 +1,164 @@
+package com.backyardbrains.db.store;
+
+import androidx.annotation.NonNull;
+import com.backyardbrains.vo.SpikeWindow;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeWindowCacheTest {
+
+    private static final long TRAIN_ID = 7;
+
+    /**
+     * Runs loads only when asked to so the test decides when they happen.
+     */
+    private static class ManualExecutor implements Executor {
+
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) tasks.poll().run();
+        }
+    }
+
+    /**
+     * Loads windows with a spike every 10 samples and remembers ranges it was asked for.
+     */
+    private static class TestLoader implements SpikeWindowCache.Loader {
+
+        final List<long[]> calls = new ArrayList<>();
+
+        @NonNull @Override public SpikeWindow load(long trainId, int channel, int startIndex, int endIndex) {
+            calls.add(new long[] { trainId, startIndex, endIndex });
+            final int count = endIndex / 10 - (startIndex + 9) / 10 + 1;
+            final int[] indices = new int[count];
+            final float[] values = new float[count];
+            for (int i = 0; i < count; i++) {
+                indices[i] = ((startIndex + 9) / 10 + i) * 10;
+                values[i] = trainId;
+            }
+            return new SpikeWindow(startIndex, endIndex, indices, values);
+        }
+    }
+
+    private final ManualExecutor executor = new ManualExecutor();
+    private final TestLoader loader = new TestLoader();
+    private final SpikeWindowCache cache = new SpikeWindowCache(loader, executor);
+
+    @Test public void missDoesNotBlock() {
+        // nothing is loaded on the calling thread, load is only scheduled
+        assertNull(cache.get(TRAIN_ID, 0, 1000, 2000));
+        assertEquals(0, loader.calls.size());
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        final SpikeWindow window = cache.get(TRAIN_ID, 0, 1000, 2000);
+        assertNotNull(window);
+        assertTrue(window.covers(1000, 2000));
+        assertEquals(0, executor.tasks.size());
+    }
+
+    @Test public void requestedRangeIsExtendedOnBothSides() {
+        cache.get(TRAIN_ID, 0, 1000, 2000);
+        cache.get(TRAIN_ID + 1, 0, 300, 800);
+        executor.runAll();
+
+        assertEquals(2, loader.calls.size());
+        assertEquals(0, loader.calls.get(0)[1]);
+        assertEquals(3000, loader.calls.get(0)[2]);
+        // window doesn't start before the first sample
+        assertEquals(0, loader.calls.get(1)[1]);
+        assertEquals(1300, loader.calls.get(1)[2]);
+
+        // ranges within the extended window don't need to be loaded again
+        assertNotNull(cache.get(TRAIN_ID, 0, 2500, 3000));
+        assertEquals(0, executor.tasks.size());
+    }
+
+    @Test public void previousWindowIsReturnedWhilePrefetching() {
+        cache.get(TRAIN_ID, 0, 1000, 2000);
+        executor.runAll();
+        final SpikeWindow previous = cache.get(TRAIN_ID, 0, 1000, 2000);
+
+        // scrubbing past the window
+        assertSame(previous, cache.get(TRAIN_ID, 0, 5000, 6000));
+        assertSame(previous, cache.get(TRAIN_ID, 0, 5100, 6100));
+        executor.runAll();
+
+        final SpikeWindow next = cache.get(TRAIN_ID, 0, 5100, 6100);
+        assertNotSame(previous, next);
+        assertTrue(next.covers(5100, 6100));
+    }
+
+    @Test public void onlyOneLoadPerTrainIsInFlight() {
+        for (int i = 0; i < 10; i++) cache.get(TRAIN_ID, 0, i * 1000, i * 1000 + 500);
+        cache.get(TRAIN_ID + 1, 0, 0, 500);
+        // one load per train
+        assertEquals(2, executor.tasks.size());
+
+        executor.runAll();
+        assertEquals(2, loader.calls.size());
+        // first requested range is loaded, next request loads the latest one
+        assertEquals(1000, loader.calls.get(0)[2]);
+        assertNotNull(cache.get(TRAIN_ID, 0, 9000, 9500));
+        assertEquals(1, executor.tasks.size());
+    }
+
+    @Test public void invalidatedWindowsAreReplaced() {
+        cache.get(TRAIN_ID, 0, 1000, 2000);
+        executor.runAll();
+        final SpikeWindow previous = cache.get(TRAIN_ID, 0, 1000, 2000);
+
+        cache.invalidate();
+        // out of date window is still drawn until the new one is loaded
+        assertSame(previous, cache.get(TRAIN_ID, 0, 1000, 2000));
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+
+        final SpikeWindow next = cache.get(TRAIN_ID, 0, 1000, 2000);
+        assertNotSame(previous, next);
+        assertEquals(0, executor.tasks.size());
+    }
+
+    @Test public void windowLoadedBeforeInvalidationIsLoadedAgain() {
+        cache.get(TRAIN_ID, 0, 1000, 2000);
+        // trains change while the window is being loaded
+        cache.invalidate();
+        executor.runAll();
+
+        final SpikeWindow stale = cache.get(TRAIN_ID, 0, 1000, 2000);
+        assertNotNull(stale);
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertNotSame(stale, cache.get(TRAIN_ID, 0, 1000, 2000));
+        assertEquals(2, loader.calls.size());
+    }
+
+    @Test public void clearDropsAllWindows() {
+        cache.get(TRAIN_ID, 0, 1000, 2000);
+        cache.get(TRAIN_ID + 1, 0, 1000, 2000);
+        executor.runAll();
+
+        cache.clear();
+        assertNull(cache.get(TRAIN_ID, 0, 1000, 2000));
+        assertNull(cache.get(TRAIN_ID + 1, 0, 1000, 2000));
+    }
+}
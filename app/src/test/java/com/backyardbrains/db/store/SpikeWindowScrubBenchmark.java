@@ -0,0 +1,178 @@
+package com.backyardbrains.db.store;
+
+import androidx.annotation.NonNull;
+import com.backyardbrains.vo.SpikeWindow;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time the drawing thread spends getting spikes of the visible range on every frame while the recording is
+ * scrubbed at 60 fps, alternating slow drags, fast flings and jumps. Loading spikes on every frame, the way renderer
+ * used to query them, is compared to getting them from {@link SpikeWindowCache} which loads them on a background
+ * thread. Frames for which the cache returns a window that doesn't cover the visible range are counted as well. It's
+ * not run with the unit tests, run it manually with the number of spikes and number of frames as arguments (default
+ * to 1 million and 600).
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeWindowScrubBenchmark {
+
+    private static final long ANALYSIS_ID = 1;
+    private static final long TRAIN_ID = 1;
+    private static final int BATCH_SIZE = 4096;
+    private static final int LOWER_THRESHOLD = 500;
+    private static final int UPPER_THRESHOLD = 2500;
+    // 10 seconds of 44.1 kHz recording are visible
+    private static final int VISIBLE_SAMPLES = 441000;
+    private static final long FRAME_NANOS = 1000000000L / 60;
+
+    public static void main(String[] args) throws Exception {
+        final int spikeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int frameCount = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        final File rootDir = Files.createTempDirectory("spike_window_scrub_benchmark").toFile();
+        final SpikeColumnStore store = new SpikeColumnStore(rootDir);
+        try {
+            run(store, spikeCount, frameCount);
+        } finally {
+            store.delete(ANALYSIS_ID);
+            SpikeColumnStore.deleteRecursively(rootDir);
+        }
+    }
+
+    private static void run(SpikeColumnStore store, int spikeCount, int frameCount) throws Exception {
+        final Random random = new Random(1);
+        final SpikeColumnStoreTest.Spikes spikes =
+            SpikeColumnStoreTest.Spikes.random(random, spikeCount, true, 1, 3000);
+        final SpikeColumnWriter writer = store.newWriter();
+        final int[] indices = new int[BATCH_SIZE];
+        final short[] values = new short[BATCH_SIZE];
+        final float[] times = new float[BATCH_SIZE];
+        for (int from = 0; from < spikeCount; from += BATCH_SIZE) {
+            final int batch = Math.min(BATCH_SIZE, spikeCount - from);
+            System.arraycopy(spikes.indices, from, indices, 0, batch);
+            System.arraycopy(spikes.values, from, values, 0, batch);
+            System.arraycopy(spikes.times, from, times, 0, batch);
+            writer.write(0, true, values, indices, times, batch);
+        }
+        writer.commit(ANALYSIS_ID);
+
+        final SpikeColumnFile file = store.open(ANALYSIS_ID, 0);
+        if (file == null) throw new IllegalStateException("Committed spikes are missing");
+        final SpikeWindowCache.Loader loader = new ColumnLoader(file);
+        final int[] starts = scrub(random, spikes.indices[spikeCount - 1] - VISIBLE_SAMPLES, frameCount);
+
+        // second round is measured once the code is compiled
+        for (int round = 0; round < 2; round++) {
+            final long[] loadNanos = new long[frameCount];
+            long checksum = 0;
+            long next = System.nanoTime();
+            for (int i = 0; i < frameCount; i++) {
+                next = waitForFrame(next);
+                final long start = System.nanoTime();
+                final SpikeWindow window = loader.load(TRAIN_ID, 0, starts[i], starts[i] + VISIBLE_SAMPLES);
+                loadNanos[i] = System.nanoTime() - start;
+                checksum += window.indices.length;
+            }
+
+            final ExecutorService executor = Executors.newSingleThreadExecutor();
+            final SpikeWindowCache cache = new SpikeWindowCache(loader, executor);
+            final long[] cacheNanos = new long[frameCount];
+            int missing = 0, stale = 0;
+            next = System.nanoTime();
+            for (int i = 0; i < frameCount; i++) {
+                next = waitForFrame(next);
+                final long start = System.nanoTime();
+                final SpikeWindow window = cache.get(TRAIN_ID, 0, starts[i], starts[i] + VISIBLE_SAMPLES);
+                cacheNanos[i] = System.nanoTime() - start;
+                if (window == null) {
+                    missing++;
+                } else {
+                    if (!window.covers(starts[i], starts[i] + VISIBLE_SAMPLES)) stale++;
+                    checksum += window.indices.length;
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+
+            System.out.printf("%d frames over %d spikes: load per frame p50 %.3f ms, p99 %.3f ms, max %.3f ms | "
+                    + "cache p50 %.4f ms, p99 %.4f ms, max %.4f ms, %d frames without spikes, %d with previous "
+                    + "window (checksum %d)%n", frameCount, spikeCount, percentileMs(loadNanos, 0.5),
+                percentileMs(loadNanos, 0.99), percentileMs(loadNanos, 1), percentileMs(cacheNanos, 0.5),
+                percentileMs(cacheNanos, 0.99), percentileMs(cacheNanos, 1), missing, stale, checksum);
+        }
+    }
+
+    /**
+     * Loads spikes of the train the same way local data source does when spikes are in the column store.
+     */
+    private static class ColumnLoader implements SpikeWindowCache.Loader {
+
+        private final SpikeColumnFile file;
+
+        ColumnLoader(@NonNull SpikeColumnFile file) {
+            this.file = file;
+        }
+
+        @NonNull @Override public SpikeWindow load(long trainId, int channel, int startIndex, int endIndex) {
+            final int from = file.findFirstAtOrAfter(startIndex);
+            final int count = Math.max(0, file.findFirstAfter(endIndex) - from);
+            final int[] indices = new int[count];
+            final short[] values = new short[count];
+            file.readIndices(from, from + count, indices);
+            file.readValues(from, from + count, values);
+
+            int trainCount = 0;
+            for (short value : values) if (value >= LOWER_THRESHOLD && value <= UPPER_THRESHOLD) trainCount++;
+            final int[] trainIndices = new int[trainCount];
+            final float[] trainValues = new float[trainCount];
+            for (int i = 0, j = 0; i < count; i++) {
+                if (values[i] >= LOWER_THRESHOLD && values[i] <= UPPER_THRESHOLD) {
+                    trainIndices[j] = indices[i];
+                    trainValues[j++] = values[i];
+                }
+            }
+            return new SpikeWindow(startIndex, endIndex, trainIndices, trainValues);
+        }
+    }
+
+    // Start of the visible range on every frame: slow drags, fast flings and jumps to a random position
+    private static int[] scrub(Random random, int maxStart, int frameCount) {
+        final int[] starts = new int[frameCount];
+        int start = maxStart / 2;
+        int step = 0;
+        for (int i = 0; i < frameCount; i++) {
+            if (i % 60 == 0) {
+                final int gesture = random.nextInt(3);
+                if (gesture == 0) {
+                    step = (random.nextBoolean() ? 1 : -1) * VISIBLE_SAMPLES / 100;
+                } else if (gesture == 1) {
+                    step = (random.nextBoolean() ? 1 : -1) * VISIBLE_SAMPLES / 4;
+                } else {
+                    step = 0;
+                    start = random.nextInt(maxStart);
+                }
+            }
+            start = Math.max(0, Math.min(maxStart, start + step));
+            starts[i] = start;
+        }
+        return starts;
+    }
+
+    // Waits until the next frame is due and returns time when the one after it is
+    private static long waitForFrame(long next) throws InterruptedException {
+        final long wait = next - System.nanoTime();
+        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+        return next + FRAME_NANOS;
+    }
+
+    private static double percentileMs(long[] nanos, double p) {
+        final long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) (p * (sorted.length - 1))] / 1e6;
+    }
+}
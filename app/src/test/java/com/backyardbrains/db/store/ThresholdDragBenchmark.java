@@ -0,0 +1,95 @@
+package com.backyardbrains.db.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Measures the work done on every threshold update while a threshold handle is dragged. Train is defined by its
+ * thresholds so only its spikes are counted, which is compared to loading all of its spikes the way they had to be
+ * loaded when they were copied to the train. It's not run with the unit tests, run it manually with the number of
+ * spikes as the only argument (defaults to 1 million).
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class ThresholdDragBenchmark {
+
+    private static final long ANALYSIS_ID = 1;
+    private static final int BATCH_SIZE = 4096;
+    private static final int UPPER_THRESHOLD = 2500;
+    private static final int UPDATE_COUNT = 100000;
+    private static final int LOAD_UPDATE_COUNT = 200;
+
+    public static void main(String[] args) throws IOException {
+        final int spikeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final File rootDir = Files.createTempDirectory("threshold_drag_benchmark").toFile();
+        final SpikeColumnStore store = new SpikeColumnStore(rootDir);
+        try {
+            run(store, spikeCount);
+        } finally {
+            store.delete(ANALYSIS_ID);
+            SpikeColumnStore.deleteRecursively(rootDir);
+        }
+    }
+
+    private static void run(SpikeColumnStore store, int spikeCount) throws IOException {
+        final Random random = new Random(1);
+        final SpikeColumnStoreTest.Spikes spikes =
+            SpikeColumnStoreTest.Spikes.random(random, spikeCount, true, 1, 3000);
+        final SpikeColumnWriter writer = store.newWriter();
+        final int[] indices = new int[BATCH_SIZE];
+        final short[] values = new short[BATCH_SIZE];
+        final float[] times = new float[BATCH_SIZE];
+        for (int from = 0; from < spikeCount; from += BATCH_SIZE) {
+            final int batch = Math.min(BATCH_SIZE, spikeCount - from);
+            System.arraycopy(spikes.indices, from, indices, 0, batch);
+            System.arraycopy(spikes.values, from, values, 0, batch);
+            System.arraycopy(spikes.times, from, times, 0, batch);
+            writer.write(0, true, values, indices, times, batch);
+        }
+        writer.commit(ANALYSIS_ID);
+
+        final SpikeColumnFile file = store.open(ANALYSIS_ID, 0);
+        final SpikeAmplitudeHistogram histogram = store.openHistogram(ANALYSIS_ID, 0);
+        if (file == null || histogram == null) throw new IllegalStateException("Committed spikes are missing");
+
+        // counts need to be right before their speed matters
+        for (int i = 0; i < 100; i++) {
+            final int lower = random.nextInt(3000), upper = lower + random.nextInt(3000);
+            int expected = 0;
+            for (short value : spikes.values) if (value >= lower && value <= upper) expected++;
+            if (file.countValueRange(lower, upper) != expected || histogram.countValueRange(lower, upper) != expected) {
+                throw new IllegalStateException("Wrong count for " + lower + ".." + upper);
+            }
+        }
+
+        // second round is measured once the code is compiled
+        for (int round = 0; round < 2; round++) {
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < UPDATE_COUNT; i++) sum += histogram.countValueRange(200 + i % 500, UPPER_THRESHOLD);
+            final double histogramUs = (System.nanoTime() - start) / 1e3 / UPDATE_COUNT;
+
+            start = System.nanoTime();
+            for (int i = 0; i < UPDATE_COUNT; i++) sum += file.countValueRange(200 + i % 500, UPPER_THRESHOLD);
+            final double columnUs = (System.nanoTime() - start) / 1e3 / UPDATE_COUNT;
+
+            start = System.nanoTime();
+            for (int i = 0; i < LOAD_UPDATE_COUNT; i++) {
+                final int[] positions = file.findPositionsForValueRange(200 + i % 500, UPPER_THRESHOLD);
+                final int[] trainIndices = new int[positions.length];
+                final short[] trainValues = new short[positions.length];
+                final float[] trainTimes = new float[positions.length];
+                file.readIndices(positions, trainIndices);
+                file.readValues(positions, trainValues);
+                file.readTimes(positions, trainTimes);
+                sum += trainIndices.length;
+            }
+            final double loadMs = (System.nanoTime() - start) / 1e6 / LOAD_UPDATE_COUNT;
+
+            System.out.printf("update of %d spikes: histogram count %.2f us, column count %.2f us, "
+                + "loading train spikes %.2f ms (checksum %d)%n", spikeCount, histogramUs, columnUs, loadMs, sum);
+        }
+    }
+}
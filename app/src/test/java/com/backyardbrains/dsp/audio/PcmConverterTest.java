@@ -0,0 +1,152 @@
+package com.backyardbrains.dsp.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class PcmConverterTest {
+
+    @Test public void converts8BitUnsignedSamples() {
+        final byte[] in = new byte[] { (byte) 0x80, (byte) 0xff, 0x00, (byte) 0xc0, 0x40 };
+        final short[] expected = new short[] { 0, 32512, -32768, 16384, -16384 };
+
+        assertConverted(PcmConverter.FORMAT_PCM_8BIT, 1, in, expected);
+    }
+
+    @Test public void converts16BitSamples() {
+        final short[] samples = new short[] { 0, 1, -1, 12345, -12345, Short.MAX_VALUE, Short.MIN_VALUE };
+        final ByteBuffer in = littleEndian(samples.length * 2);
+        for (short sample : samples) in.putShort(sample);
+
+        assertConverted(PcmConverter.FORMAT_PCM_16BIT, 1, in.array(), samples);
+    }
+
+    @Test public void converts24BitPackedSamples() {
+        final int[] samples = new int[] { 0, 0x000100, -0x000100, 0x123456, -0x123456, 0x7fffff, -0x800000 };
+        final ByteBuffer in = littleEndian(samples.length * 3);
+        for (int sample : samples) {
+            in.put((byte) sample).put((byte) (sample >> 8)).put((byte) (sample >> 16));
+        }
+        // lower 8 bits are dropped, rounding towards zero
+        final short[] expected = new short[] { 0, 1, -1, 0x1234, -0x1234, Short.MAX_VALUE, Short.MIN_VALUE };
+
+        assertConverted(PcmConverter.FORMAT_PCM_24BIT, 1, in.array(), expected);
+    }
+
+    @Test public void converts32BitSamples() {
+        final int[] samples =
+            new int[] { 0, 0x00010000, -0x00010000, 0x12340000, -0x12340000, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        final ByteBuffer in = littleEndian(samples.length * 4);
+        for (int sample : samples) in.putInt(sample);
+        // lower 16 bits are dropped
+        final short[] expected = new short[] { 0, 1, -1, 0x1234, -0x1234, Short.MAX_VALUE, Short.MIN_VALUE };
+
+        assertConverted(PcmConverter.FORMAT_PCM_32BIT, 1, in.array(), expected);
+    }
+
+    @Test public void convertsFloatSamplesAndClipsThem() {
+        final float[] samples = new float[] { 0f, .5f, -.5f, .25f, 1f, -1f, 1.5f, -1.5f };
+        final ByteBuffer in = littleEndian(samples.length * 4);
+        for (float sample : samples) in.putFloat(sample);
+        final short[] expected =
+            new short[] { 0, 16384, -16384, 8192, Short.MAX_VALUE, Short.MIN_VALUE, Short.MAX_VALUE, Short.MIN_VALUE };
+
+        assertConverted(PcmConverter.FORMAT_PCM_FLOAT, 1, in.array(), expected);
+    }
+
+    @Test public void keepsInterleavedChannels() {
+        final ByteBuffer in = littleEndian(3 * 4 * 2);
+        for (int i = 0; i < 4; i++) in.putShort((short) i).putShort((short) (100 + i)).putShort((short) (-i));
+        final short[] expected = new short[] { 0, 100, 0, 1, 101, -1, 2, 102, -2, 3, 103, -3 };
+
+        assertConverted(PcmConverter.FORMAT_PCM_16BIT, 3, in.array(), expected);
+    }
+
+    @Test public void mixesChannelsDownToMono() {
+        final ByteBuffer in = littleEndian(2 * 3 * 3);
+        final int[][] frames = new int[][] { { 0x000100, 0x000300 }, { -0x000400, 0x000200 }, { 0x7fffff, 0x7fffff } };
+        for (int[] frame : frames) {
+            for (int sample : frame) in.put((byte) sample).put((byte) (sample >> 8)).put((byte) (sample >> 16));
+        }
+        final PcmConverter converter = new PcmConverter(PcmConverter.FORMAT_PCM_24BIT, 2, 1);
+
+        assertArrayEquals(new short[] { 2, -1, Short.MAX_VALUE }, convert(converter, in.array(), in.capacity()));
+    }
+
+    @Test public void keepsIncompleteFramesForNextCall() {
+        for (int format : new int[] {
+            PcmConverter.FORMAT_PCM_8BIT, PcmConverter.FORMAT_PCM_16BIT, PcmConverter.FORMAT_PCM_24BIT,
+            PcmConverter.FORMAT_PCM_32BIT, PcmConverter.FORMAT_PCM_FLOAT
+        }) {
+            final int bytesPerSample = PcmConverter.getBytesPerSample(format);
+            final byte[] in = new byte[bytesPerSample * 2 * 101];
+            for (int i = 0; i < in.length; i++) in[i] = (byte) (i * 31 + 7);
+            // keep float samples in range
+            if (format == PcmConverter.FORMAT_PCM_FLOAT) {
+                final ByteBuffer buffer = littleEndian(in.length);
+                for (int i = 0; i < in.length / 4; i++) buffer.putFloat((i % 21 - 10) / 10f);
+                System.arraycopy(buffer.array(), 0, in, 0, in.length);
+            }
+
+            final short[] whole = convert(new PcmConverter(format, 2, 2), in, in.length);
+            // every chunk size splits frames at every possible byte
+            for (int chunkSize = 1; chunkSize <= bytesPerSample * 2 + 1; chunkSize++) {
+                assertArrayEquals("format " + format + ", chunk " + chunkSize, whole,
+                    convert(new PcmConverter(format, 2, 2), in, chunkSize));
+            }
+        }
+    }
+
+    @Test public void resetDiscardsIncompleteFrame() {
+        final PcmConverter converter = new PcmConverter(PcmConverter.FORMAT_PCM_16BIT, 1, 1);
+        final ByteBuffer out = littleEndian(16);
+        converter.convert(ByteBuffer.wrap(new byte[] { 0x7f }), out);
+        converter.reset();
+        converter.convert(ByteBuffer.wrap(new byte[] { 0x01, 0x02 }), out);
+
+        assertEquals(2, out.position());
+        assertEquals(0x0201, out.getShort(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void rejectsUnknownFormat() {
+        new PcmConverter(0, 1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void rejectsUnsupportedChannelConversion() {
+        new PcmConverter(PcmConverter.FORMAT_PCM_16BIT, 2, 3);
+    }
+
+    // Converts whole input at once and checks converted samples
+    private static void assertConverted(int format, int channelCount, byte[] in, short[] expected) {
+        final PcmConverter converter = new PcmConverter(format, channelCount, channelCount);
+
+        assertEquals(expected.length * 2, converter.getMaxOutputSize(in.length));
+        assertArrayEquals(expected, convert(converter, in, in.length));
+    }
+
+    // Converts specified input passing it to converter in chunks of specified size
+    private static short[] convert(PcmConverter converter, byte[] in, int chunkSize) {
+        final ByteBuffer out = littleEndian(converter.getMaxOutputSize(in.length));
+        for (int offset = 0; offset < in.length; offset += chunkSize) {
+            final int length = Math.min(chunkSize, in.length - offset);
+            final int maxSize = converter.getMaxOutputSize(length);
+            final int written = converter.convert(ByteBuffer.wrap(in, offset, length), out);
+            assertTrue(written <= maxSize);
+        }
+        final short[] samples = new short[out.position() / 2];
+        out.flip();
+        out.asShortBuffer().get(samples);
+        return samples;
+    }
+
+    private static ByteBuffer littleEndian(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,159 @@
+package com.backyardbrains.dsp.usb;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class UsbCaptureTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void readsBackHeader() throws IOException {
+        final File file = folder.newFile();
+        final long before = System.currentTimeMillis();
+        new UsbCaptureWriter(file, UsbCaptureWriter.FORMAT_HID_PACKETS, 64).close();
+        final long after = System.currentTimeMillis();
+
+        try (UsbCaptureReader reader = new UsbCaptureReader(file)) {
+            assertEquals(UsbCaptureWriter.FORMAT_HID_PACKETS, reader.getFormat());
+            assertEquals(64, reader.getPacketSize());
+            assertTrue(reader.getStartTimeMillis() >= before && reader.getStartTimeMillis() <= after);
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test public void readsBackRecordsOfAnyLength() throws IOException {
+        final File file = folder.newFile();
+        final Random random = new Random(42);
+        // lengths around the boundaries of the 1, 2 and 3 byte variable-length encoding
+        final int[] lengths = new int[] { 0, 1, 63, 64, 127, 128, 129, 1024, 1025, 16383, 16384, 70000 };
+        final List<byte[]> records = new ArrayList<>();
+        try (UsbCaptureWriter writer = new UsbCaptureWriter(file, UsbCaptureWriter.FORMAT_STREAM, 0)) {
+            for (int length : lengths) {
+                final byte[] data = new byte[length + 10];
+                random.nextBytes(data);
+                // only the first length bytes are written
+                writer.write(data, length);
+                records.add(Arrays.copyOf(data, length));
+            }
+        }
+
+        try (UsbCaptureReader reader = new UsbCaptureReader(file)) {
+            assertEquals(UsbCaptureWriter.FORMAT_STREAM, reader.getFormat());
+            for (byte[] record : records) {
+                assertTrue(reader.next());
+                assertEquals(record.length, reader.getLength());
+                assertArrayEquals(record, Arrays.copyOf(reader.getData(), reader.getLength()));
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test public void writesByteBufferFromStartToLimitWithoutMovingPosition() throws IOException {
+        final File file = folder.newFile();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        for (int i = 0; i < 64; i++) buffer.put((byte) i);
+        buffer.position(10);
+        buffer.limit(40);
+        try (UsbCaptureWriter writer = new UsbCaptureWriter(file, UsbCaptureWriter.FORMAT_HID_PACKETS, 64)) {
+            writer.write(buffer);
+        }
+        assertEquals(10, buffer.position());
+        assertEquals(40, buffer.limit());
+
+        try (UsbCaptureReader reader = new UsbCaptureReader(file)) {
+            assertTrue(reader.next());
+            assertEquals(40, reader.getLength());
+            for (int i = 0; i < 40; i++) assertEquals(i, reader.getData()[i]);
+        }
+    }
+
+    @Test public void timestampsFollowArrivalTimes() throws Exception {
+        final File file = folder.newFile();
+        final long[] gapsMillis = new long[] { 0, 20, 5, 50 };
+        try (UsbCaptureWriter writer = new UsbCaptureWriter(file, UsbCaptureWriter.FORMAT_STREAM, 0)) {
+            for (long gap : gapsMillis) {
+                Thread.sleep(gap);
+                writer.write(new byte[] { 1, 2, 3 }, 3);
+            }
+        }
+
+        try (UsbCaptureReader reader = new UsbCaptureReader(file)) {
+            long expectedMicros = 0;
+            for (int i = 0; i < gapsMillis.length; i++) {
+                assertTrue(reader.next());
+                // first record is at 0, sleeping takes at least the requested time
+                if (i > 0) expectedMicros += gapsMillis[i] * 1000;
+                assertTrue(reader.getTimestampMicros() >= expectedMicros);
+                assertTrue(reader.getTimestampMicros() < expectedMicros + 200_000);
+            }
+        }
+    }
+
+    @Test public void rejectsFileThatIsNotCapture() throws IOException {
+        final File file = folder.newFile();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x52494646); // "RIFF"
+            out.writeLong(0);
+        }
+
+        try {
+            new UsbCaptureReader(file).close();
+            fail("Capture file with wrong magic number should be rejected");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    @Test public void rejectsUnsupportedVersion() throws IOException {
+        final File file = folder.newFile();
+        new UsbCaptureWriter(file, UsbCaptureWriter.FORMAT_STREAM, 0).close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(4);
+            raf.writeByte(UsbCaptureWriter.VERSION + 1);
+        }
+
+        try {
+            new UsbCaptureReader(file).close();
+            fail("Capture file with unsupported version should be rejected");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    @Test public void truncatedRecordFailsToRead() throws IOException {
+        final File file = folder.newFile();
+        try (UsbCaptureWriter writer = new UsbCaptureWriter(file, UsbCaptureWriter.FORMAT_STREAM, 0)) {
+            writer.write(new byte[100], 100);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+
+        try (UsbCaptureReader reader = new UsbCaptureReader(file)) {
+            reader.next();
+            fail("Truncated record should fail to read");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+}